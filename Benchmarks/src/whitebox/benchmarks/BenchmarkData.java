@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import whitebox.geospatialfiles.ShapeFile;
+import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.geospatialfiles.shapefile.Polygon;
+import whitebox.geospatialfiles.shapefile.ShapeType;
+import whitebox.geospatialfiles.shapefile.attributes.DBFField;
+
+/**
+ * Creates the synthetic rasters, LAS files and shapefiles used by the
+ * benchmark suites. All of the data are generated from a fixed seed so that
+ * runs on different machines measure identical workloads.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class BenchmarkData {
+
+    public static final long SEED = 1234567L;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Creates a temporary directory to hold the benchmark data files.
+     *
+     * @return The directory path, ending in a file separator.
+     * @throws IOException if the directory cannot be created.
+     */
+    public static String createWorkingDirectory() throws IOException {
+        File dir = File.createTempFile("wbbench", "");
+        dir.delete();
+        if (!dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        return dir.getAbsolutePath() + File.separator;
+    }
+
+    /**
+     * Recursively deletes a working directory created by
+     * createWorkingDirectory.
+     *
+     * @param directory The directory to delete.
+     */
+    public static void deleteWorkingDirectory(String directory) {
+        File dir = new File(directory);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * Creates a smooth synthetic DEM made of superimposed sinusoids plus a
+     * small amount of noise.
+     *
+     * @param headerFile The name of the raster header file (.dep).
+     * @param rows Number of rows.
+     * @param cols Number of columns.
+     * @param dataType The data type of the raster.
+     * @return The raster, opened for reading and writing.
+     */
+    public static WhiteboxRaster createDEM(String headerFile, int rows, int cols,
+            WhiteboxRaster.DataType dataType) {
+        WhiteboxRaster raster = new WhiteboxRaster(headerFile, rows, 0, cols, 0,
+                rows, cols, WhiteboxRaster.DataScale.CONTINUOUS, dataType,
+                0, -32768);
+        Random rand = new Random(SEED);
+        double[] data = new double[cols];
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                data[col] = 100 + 20 * Math.sin(row / 50.0) * Math.cos(col / 70.0)
+                        + row * 0.01 + rand.nextDouble();
+            }
+            raster.setRowValues(row, data);
+        }
+        raster.findMinAndMaxVals();
+        raster.writeHeaderFile();
+        return raster;
+    }
+
+    /**
+     * Creates a synthetic categorical raster made of rectangular blocks of
+     * random class values.
+     *
+     * @param headerFile The name of the raster header file (.dep).
+     * @param rows Number of rows.
+     * @param cols Number of columns.
+     * @param numClasses The number of distinct class values.
+     * @param blockSize The width of the square blocks, in cells.
+     * @return The raster, opened for reading and writing.
+     */
+    public static WhiteboxRaster createCategorical(String headerFile, int rows,
+            int cols, int numClasses, int blockSize) {
+        WhiteboxRaster raster = new WhiteboxRaster(headerFile, rows, 0, cols, 0,
+                rows, cols, WhiteboxRaster.DataScale.CATEGORICAL,
+                WhiteboxRaster.DataType.INTEGER, 0, -32768);
+        Random rand = new Random(SEED);
+        int blockCols = cols / blockSize + 1;
+        int[] blockClass = new int[blockCols];
+        double[] data = new double[cols];
+        for (int row = 0; row < rows; row++) {
+            if (row % blockSize == 0) {
+                for (int b = 0; b < blockCols; b++) {
+                    blockClass[b] = rand.nextInt(numClasses) + 1;
+                }
+            }
+            for (int col = 0; col < cols; col++) {
+                data[col] = blockClass[col / blockSize];
+            }
+            raster.setRowValues(row, data);
+        }
+        raster.findMinAndMaxVals();
+        raster.writeHeaderFile();
+        return raster;
+    }
+
+    /**
+     * Creates a LAS 1.2 file with point data record format 0 containing
+     * randomly located points.
+     *
+     * @param fileName The name of the LAS file.
+     * @param numPoints The number of point records.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void createLAS(String fileName, int numPoints) throws IOException {
+        final int headerSize = 227;
+        final int recordLength = 20;
+        final double scale = 0.01;
+        final double extent = 1000;
+        Random rand = new Random(SEED);
+
+        ByteBuffer header = ByteBuffer.allocate(headerSize);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.put("LASF".getBytes("US-ASCII"));
+        header.put(24, (byte) 1); // version major
+        header.put(25, (byte) 2); // version minor
+        header.putShort(94, (short) headerSize);
+        header.putInt(96, headerSize); // offset to point data
+        header.putInt(100, 0); // number of variable length records
+        header.put(104, (byte) 0); // point data format
+        header.putShort(105, (short) recordLength);
+        header.putInt(107, numPoints);
+        header.putInt(111, numPoints); // points by return
+        header.putDouble(131, scale);
+        header.putDouble(139, scale);
+        header.putDouble(147, scale);
+        header.putDouble(155, 0);
+        header.putDouble(163, 0);
+        header.putDouble(171, 0);
+        header.putDouble(179, extent); // max x
+        header.putDouble(187, 0); // min x
+        header.putDouble(195, extent); // max y
+        header.putDouble(203, 0); // min y
+        header.putDouble(211, 200); // max z
+        header.putDouble(219, 0); // min z
+        header.rewind();
+
+        try (RandomAccessFile raf = new RandomAccessFile(fileName, "rw")) {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            channel.write(header);
+
+            int pointsPerBuffer = 65536;
+            ByteBuffer buf = ByteBuffer.allocate(pointsPerBuffer * recordLength);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < numPoints; i++) {
+                buf.putInt((int) (rand.nextDouble() * extent / scale));
+                buf.putInt((int) (rand.nextDouble() * extent / scale));
+                buf.putInt((int) (rand.nextDouble() * 200 / scale));
+                buf.putShort((short) rand.nextInt(1000)); // intensity
+                buf.put((byte) 0x09); // return 1 of 1
+                buf.put((byte) (rand.nextBoolean() ? 2 : 1)); // classification
+                buf.put((byte) 0); // scan angle
+                buf.put((byte) 0); // user data
+                buf.putShort((short) 1); // point source ID
+                if (!buf.hasRemaining()) {
+                    buf.flip();
+                    channel.write(buf);
+                    buf.clear();
+                }
+            }
+            buf.flip();
+            channel.write(buf);
+        }
+    }
+
+    /**
+     * Creates a polygon shapefile containing a regular grid of square
+     * polygons, each with an ID, a numeric and a string attribute.
+     *
+     * @param fileName The name of the shapefile (.shp).
+     * @param numPolygons The approximate number of polygons. The actual number
+     * is the square of the rounded square root of this value.
+     * @param verticesPerSide The number of vertices along each polygon side.
+     * @throws Exception if the file cannot be written.
+     */
+    public static void createPolygonShapefile(String fileName, int numPolygons,
+            int verticesPerSide) throws Exception {
+        DBFField[] fields = new DBFField[3];
+        fields[0] = new DBFField();
+        fields[0].setName("FID");
+        fields[0].setDataType(DBFField.DBFDataType.NUMERIC);
+        fields[0].setFieldLength(10);
+        fields[0].setDecimalCount(0);
+
+        fields[1] = new DBFField();
+        fields[1].setName("VALUE");
+        fields[1].setDataType(DBFField.DBFDataType.NUMERIC);
+        fields[1].setFieldLength(12);
+        fields[1].setDecimalCount(4);
+
+        fields[2] = new DBFField();
+        fields[2].setName("NAME");
+        fields[2].setDataType(DBFField.DBFDataType.STRING);
+        fields[2].setFieldLength(20);
+
+        ShapeFile output = new ShapeFile(fileName, ShapeType.POLYGON, fields);
+        Random rand = new Random(SEED);
+        int n = (int) Math.round(Math.sqrt(numPolygons));
+        int fid = 1;
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c < n; c++) {
+                double[][] points = squareRing(c, r, 1.0, verticesPerSide);
+                Polygon poly = new Polygon(new int[]{0}, points);
+                Object[] rowData = new Object[]{(double) fid,
+                    rand.nextDouble() * 100, "feature" + fid};
+                output.addRecord(poly, rowData);
+                fid++;
+            }
+        }
+        output.write();
+    }
+
+    /*
+     * Returns a closed, clockwise ring around the square with lower-left
+     * corner (x, y).
+     */
+    private static double[][] squareRing(double x, double y, double size,
+            int verticesPerSide) {
+        int numPoints = 4 * verticesPerSide + 1;
+        double[][] points = new double[numPoints][2];
+        double step = size / verticesPerSide;
+        int k = 0;
+        for (int i = 0; i < verticesPerSide; i++) { // left side, going up
+            points[k][0] = x;
+            points[k][1] = y + i * step;
+            k++;
+        }
+        for (int i = 0; i < verticesPerSide; i++) { // top, going right
+            points[k][0] = x + i * step;
+            points[k][1] = y + size;
+            k++;
+        }
+        for (int i = 0; i < verticesPerSide; i++) { // right side, going down
+            points[k][0] = x + size;
+            points[k][1] = y + size - i * step;
+            k++;
+        }
+        for (int i = 0; i < verticesPerSide; i++) { // bottom, going left
+            points[k][0] = x + size - i * step;
+            points[k][1] = y;
+            k++;
+        }
+        points[k][0] = points[0][0];
+        points[k][1] = points[0][1];
+        return points;
+    }
+}
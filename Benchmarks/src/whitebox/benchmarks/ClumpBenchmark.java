@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import whitebox.algorithms.Clump;
+import whitebox.geospatialfiles.WhiteboxRaster;
+
+/**
+ * Measures the connected-component labelling of a categorical raster, both
+ * in memory and including the output raster I/O. The blockSize parameter
+ * controls the patch size, from many tiny patches to a few very large ones.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ClumpBenchmark {
+
+    @Param({"2000"})
+    public int size;
+
+    @Param({"2", "50", "2000"})
+    public int blockSize;
+
+    @Param({"true", "false"})
+    public boolean includeDiagonals;
+
+    private String workingDirectory;
+    private WhiteboxRaster input;
+
+    @Setup(Level.Trial)
+    public void createData() throws Exception {
+        workingDirectory = BenchmarkData.createWorkingDirectory();
+        String headerFile = workingDirectory + "classes.dep";
+        BenchmarkData.createCategorical(headerFile, size, size, 4, blockSize).close();
+        input = new WhiteboxRaster(headerFile, "r");
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteData() {
+        input.close();
+        BenchmarkData.deleteWorkingDirectory(workingDirectory);
+    }
+
+    @Benchmark
+    public int[][] label() {
+        Clump clump = new Clump(input, includeDiagonals, false);
+        return clump.label();
+    }
+
+    @Benchmark
+    public WhiteboxRaster run() throws Exception {
+        Clump clump = new Clump(input, includeDiagonals, false);
+        clump.setOutputHeader(workingDirectory + "clumped.dep");
+        WhiteboxRaster output = clump.run();
+        output.isTemporaryFile = true;
+        output.close();
+        return output;
+    }
+}
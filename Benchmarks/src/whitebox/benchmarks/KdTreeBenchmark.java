@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import whitebox.structures.KdTree;
+
+/**
+ * Measures KdTree construction and the nearest-neighbour and fixed-radius
+ * queries used by the interpolation and LiDAR tools. The queries are issued
+ * in a raster-scan order over the point extent, as they are when a tool
+ * interpolates an output grid.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class KdTreeBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int numPoints;
+
+    @Param({"1", "8"})
+    public int numNeighbours;
+
+    private double[][] points;
+    private double[][] queries;
+    private KdTree<Integer> tree;
+    private double searchRadius;
+
+    @Setup(Level.Trial)
+    public void createData() {
+        Random rand = new Random(BenchmarkData.SEED);
+        double extent = 1000;
+        points = new double[numPoints][2];
+        for (int i = 0; i < numPoints; i++) {
+            points[i][0] = rand.nextDouble() * extent;
+            points[i][1] = rand.nextDouble() * extent;
+        }
+
+        int n = 300;
+        queries = new double[n * n][2];
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c < n; c++) {
+                queries[r * n + c][0] = (c + 0.5) * extent / n;
+                queries[r * n + c][1] = extent - (r + 0.5) * extent / n;
+            }
+        }
+
+        // a radius that contains numNeighbours points on average
+        searchRadius = Math.sqrt(numNeighbours * extent * extent / (Math.PI * numPoints));
+
+        tree = buildTree();
+    }
+
+    private KdTree<Integer> buildTree() {
+        KdTree<Integer> t = new KdTree.SqrEuclid<>(2, null);
+        for (int i = 0; i < numPoints; i++) {
+            t.addPoint(points[i], i);
+        }
+        return t;
+    }
+
+    @Benchmark
+    public KdTree<Integer> build() {
+        return buildTree();
+    }
+
+    @Benchmark
+    public void nearestNeighbor(Blackhole bh) {
+        for (double[] q : queries) {
+            List<KdTree.Entry<Integer>> results = tree.nearestNeighbor(q, numNeighbours, false);
+            bh.consume(results);
+        }
+    }
+
+    @Benchmark
+    public void neighborsWithinRange(Blackhole bh) {
+        for (double[] q : queries) {
+            List<KdTree.Entry<Integer>> results = tree.neighborsWithinRange(q, searchRadius);
+            bh.consume(results);
+        }
+    }
+}
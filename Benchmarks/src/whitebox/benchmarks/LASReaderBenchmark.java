@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.benchmarks;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import whitebox.geospatialfiles.LASPointStream;
+import whitebox.geospatialfiles.LASReader;
+import whitebox.geospatialfiles.LASReader.PointBlock;
+import whitebox.geospatialfiles.LASReader.PointRecord;
+
+/**
+ * Measures the rate at which point records are decoded by LASReader when the
+ * points are visited sequentially and in random order, and by
+ * LASReader.readPointBlock, which decodes whole blocks of points and does not
+ * depend on the reader's buffer size.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LASReaderBenchmark {
+
+    @Param({"1000000", "10000000"})
+    public int numPoints;
+
+    @Param({"1000", "100000"})
+    public int readerBufferSize;
+
+    private String workingDirectory;
+    private String fileName;
+    private LASReader reader;
+    private int[] randomPoints;
+
+    @Setup(Level.Trial)
+    public void createData() throws Exception {
+        workingDirectory = BenchmarkData.createWorkingDirectory();
+        fileName = workingDirectory + "points.las";
+        BenchmarkData.createLAS(fileName, numPoints);
+
+        Random rand = new Random(BenchmarkData.SEED);
+        randomPoints = new int[100000];
+        for (int i = 0; i < randomPoints.length; i++) {
+            randomPoints[i] = rand.nextInt(numPoints);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void openReader() {
+        reader = new LASReader(fileName);
+        reader.setBufferSize(readerBufferSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteData() {
+        BenchmarkData.deleteWorkingDirectory(workingDirectory);
+    }
+
+    @Benchmark
+    public double getPointRecordSequential() {
+        double sum = 0;
+        for (int i = 0; i < numPoints; i++) {
+            PointRecord point = reader.getPointRecord(i);
+            sum += point.getZ();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double getPointRecordRandom() {
+        double sum = 0;
+        for (int i = 0; i < randomPoints.length; i++) {
+            PointRecord point = reader.getPointRecord(randomPoints[i]);
+            sum += point.getZ();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double readPointBlockSequential() throws IOException {
+        double sum = 0;
+        PointBlock block = new PointBlock(LASPointStream.BLOCK_SIZE);
+        for (long i = 0; i < numPoints; i += LASPointStream.BLOCK_SIZE) {
+            int n = reader.readPointBlock(i, block);
+            double[] z = block.getZ();
+            for (int k = 0; k < n; k++) {
+                sum += z[k];
+            }
+        }
+        return sum;
+    }
+}
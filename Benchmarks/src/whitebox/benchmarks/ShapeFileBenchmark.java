@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import whitebox.geospatialfiles.ShapeFile;
+import whitebox.geospatialfiles.shapefile.ShapeFileRecord;
+import whitebox.geospatialfiles.shapefile.attributes.AttributeTable;
+
+/**
+ * Measures shapefile parsing, conversion of records to JTS geometries and
+ * attribute table reads.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ShapeFileBenchmark {
+
+    @Param({"10000", "250000"})
+    public int numPolygons;
+
+    @Param({"4", "64"})
+    public int verticesPerSide;
+
+    private String workingDirectory;
+    private String fileName;
+    private ShapeFile shapefile;
+    private AttributeTable table;
+    private int[] randomRecords;
+
+    @Setup(Level.Trial)
+    public void createData() throws Exception {
+        workingDirectory = BenchmarkData.createWorkingDirectory();
+        fileName = workingDirectory + "polygons.shp";
+        BenchmarkData.createPolygonShapefile(fileName, numPolygons, verticesPerSide);
+
+        shapefile = new ShapeFile(fileName);
+        table = shapefile.getAttributeTable();
+
+        Random rand = new Random(BenchmarkData.SEED);
+        int numRecords = shapefile.getNumberOfRecords();
+        randomRecords = new int[Math.min(numRecords, 10000)];
+        for (int i = 0; i < randomRecords.length; i++) {
+            randomRecords[i] = rand.nextInt(numRecords);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteData() {
+        BenchmarkData.deleteWorkingDirectory(workingDirectory);
+    }
+
+    @Benchmark
+    public ShapeFile parse() throws Exception {
+        return new ShapeFile(fileName);
+    }
+
+    @Benchmark
+    public void getJTSGeometries(Blackhole bh) {
+        for (ShapeFileRecord record : shapefile.records) {
+            bh.consume(record.getGeometry().getJTSGeometries());
+        }
+    }
+
+    @Benchmark
+    public void attributeGetValueSequential(Blackhole bh) throws Exception {
+        int numRecords = table.getNumberOfRecords();
+        for (int i = 0; i < numRecords; i++) {
+            bh.consume(table.getValue(i, 1));
+        }
+    }
+
+    @Benchmark
+    public void attributeGetValueRandom(Blackhole bh) throws Exception {
+        for (int i = 0; i < randomRecords.length; i++) {
+            bh.consume(table.getValue(randomRecords[i], "VALUE"));
+        }
+    }
+}
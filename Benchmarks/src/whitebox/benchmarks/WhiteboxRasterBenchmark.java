@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import whitebox.geospatialfiles.WhiteboxRaster;
+
+/**
+ * Measures the throughput of the WhiteboxRaster cell and row accessors under
+ * the access patterns that are typical of the Whitebox tools. Each benchmark
+ * invocation visits every cell of the raster once, so the reported operations
+ * per second can be multiplied by rows x cols to obtain cells per second.
+ * <p>
+ * The bufferSize parameter is the WhiteboxRaster buffer in megabytes; 0 uses
+ * the default, which normally holds the entire raster in memory. Smaller
+ * values force the block cache to page and expose the cost of cache misses.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WhiteboxRasterBenchmark {
+
+    @Param({"1000", "4000"})
+    public int rows;
+
+    @Param({"1000", "4000"})
+    public int cols;
+
+    @Param({"FLOAT", "DOUBLE"})
+    public String dataType;
+
+    @Param({"0", "8"})
+    public double bufferSize;
+
+    private String workingDirectory;
+    private String headerFile;
+    private WhiteboxRaster raster;
+    private WhiteboxRaster output;
+    private int[] randomCells;
+    private int[] flowPaths;
+
+    private static final int[] dX = {1, 1, 1, 0, -1, -1, -1, 0};
+    private static final int[] dY = {-1, 0, 1, 1, 1, 0, -1, -1};
+
+    @Setup(Level.Trial)
+    public void createData() throws Exception {
+        workingDirectory = BenchmarkData.createWorkingDirectory();
+        headerFile = workingDirectory + "dem.dep";
+        WhiteboxRaster dem = BenchmarkData.createDEM(headerFile, rows, cols,
+                WhiteboxRaster.DataType.valueOf(dataType));
+        dem.close();
+
+        Random rand = new Random(BenchmarkData.SEED);
+        int numCells = rows * cols;
+        randomCells = new int[numCells];
+        for (int i = 0; i < numCells; i++) {
+            randomCells[i] = rand.nextInt(numCells);
+        }
+
+        // Synthetic flowpaths: random walks that generally move downslope
+        // (towards increasing row numbers), which mimics the way that D8
+        // pointer tracing moves through a raster in short, irregular steps.
+        flowPaths = new int[numCells];
+        int row = 0, col = 0;
+        for (int i = 0; i < numCells; i++) {
+            if (i % 1000 == 0) {
+                row = rand.nextInt(rows);
+                col = rand.nextInt(cols);
+            }
+            int dir = 1 + rand.nextInt(3); // one of the three southerly neighbours
+            row += dY[dir];
+            col += dX[dir];
+            if (row >= rows || col < 0 || col >= cols) {
+                row = rand.nextInt(rows);
+                col = rand.nextInt(cols);
+            }
+            flowPaths[i] = row * cols + col;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void openRasters() {
+        if (bufferSize > 0) {
+            raster = new WhiteboxRaster(headerFile, "r", bufferSize);
+        } else {
+            raster = new WhiteboxRaster(headerFile, "r");
+        }
+        output = new WhiteboxRaster(workingDirectory + "out.dep", "rw",
+                headerFile, WhiteboxRaster.DataType.valueOf(dataType), -32768);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeRasters() {
+        raster.close();
+        output.isTemporaryFile = true;
+        output.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteData() {
+        BenchmarkData.deleteWorkingDirectory(workingDirectory);
+    }
+
+    @Benchmark
+    public double getValueSequential() {
+        double sum = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                sum += raster.getValue(row, col);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double getValueColumnMajor() {
+        double sum = 0;
+        for (int col = 0; col < cols; col++) {
+            for (int row = 0; row < rows; row++) {
+                sum += raster.getValue(row, col);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double getValueRandom() {
+        double sum = 0;
+        for (int i = 0; i < randomCells.length; i++) {
+            int cell = randomCells[i];
+            sum += raster.getValue(cell / cols, cell % cols);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double getValueNeighbourhood() {
+        double sum = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                for (int n = 0; n < 8; n++) {
+                    sum += raster.getValue(row + dY[n], col + dX[n]);
+                }
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double getValueFlowPath() {
+        double sum = 0;
+        for (int i = 0; i < flowPaths.length; i++) {
+            int cell = flowPaths[i];
+            sum += raster.getValue(cell / cols, cell % cols);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public void getRowValues(Blackhole bh) {
+        for (int row = 0; row < rows; row++) {
+            bh.consume(raster.getRowValues(row));
+        }
+    }
+
+    @Benchmark
+    public void setValueSequential() {
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                output.setValue(row, col, col);
+            }
+        }
+        output.flush();
+    }
+
+    @Benchmark
+    public void setValueRandom() {
+        for (int i = 0; i < randomCells.length; i++) {
+            int cell = randomCells[i];
+            output.setValue(cell / cols, cell % cols, i);
+        }
+        output.flush();
+    }
+
+    @Benchmark
+    public void setRowValues() {
+        double[] data = new double[cols];
+        for (int row = 0; row < rows; row++) {
+            data[0] = row;
+            output.setRowValues(row, data);
+        }
+    }
+}
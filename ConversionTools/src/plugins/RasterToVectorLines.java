@@ -490,7 +490,7 @@ public class RasterToVectorLines implements WhiteboxPlugin {
             temp1.close();
             input.close();
             output.write();
-            //writer.write();
+            writer.write();
 
             // returning a header file string displays the image.
             returnData(outputFile);
@@ -16,11 +16,8 @@
  */
 package plugins;
 
-import java.text.DecimalFormat;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
-import java.util.PriorityQueue;
+import whitebox.algorithms.ScanlineRasterizer;
 import whitebox.geospatialfiles.ShapeFile;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.geospatialfiles.WhiteboxRasterBase;
@@ -30,8 +27,6 @@ import whitebox.geospatialfiles.shapefile.attributes.AttributeTable;
 import whitebox.geospatialfiles.shapefile.*;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
-import whitebox.structures.BoundingBox;
-import whitebox.structures.RowPriorityGridCell;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -203,11 +198,9 @@ public class VectorLinesToRaster implements WhiteboxPlugin {
         int assignmentFieldNum = -1;
         String baseFileHeader = "not specified";
         double backgroundValue = 0;
-        int row, col;
-        double rowYCoord, colXCoord, value, z;
-        int progress = 0;
+        double value;
         double cellSize = -1.0;
-        int rows, topRow, bottomRow, leftCol, rightCol;
+        int rows;
         int cols;
         double noData = -32768.0;
         double east;
@@ -215,16 +208,9 @@ public class VectorLinesToRaster implements WhiteboxPlugin {
         double north;
         double south;
         DataType dataType = WhiteboxRasterBase.DataType.INTEGER;
-        Object[] data;
-        Object[][] allRecords = null;
-        BoundingBox box;
-        double[][] geometry;
-        int numPoints, numParts, i, part;
-        int startingPointInPart, endingPointInPart;
-        double x1, y1, x2, y2, xPrime, yPrime;
+        int i;
         boolean useRecID = false;
-        DecimalFormat df = new DecimalFormat("###,###,###,###");
-        
+
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
             return;
@@ -253,7 +239,6 @@ public class VectorLinesToRaster implements WhiteboxPlugin {
 
             // initialize the shapefile input
             ShapeFile input = new ShapeFile(inputFile);
-            int numRecs = input.getNumberOfRecords();
 
             if (input.getShapeType() != ShapeType.POLYLINE
                     && input.getShapeType() != ShapeType.POLYLINEZ
@@ -327,171 +312,66 @@ public class VectorLinesToRaster implements WhiteboxPlugin {
                 }
             }
 
-            // first sort the records based on their maxY coordinate. This will
-            // help reduce the amount of disc IO for larger rasters.
-            ArrayList<RecordInfo> myList = new ArrayList<>();
-
-            for (ShapeFileRecord record : input.records) {
-                i = record.getRecordNumber();
-                box = getBoundingBoxFromShapefileRecord(record);
-                myList.add(new RecordInfo(box.getMaxY(), i));
-            }
-
-            Collections.sort(myList);
-            
+            // only the assignment field is needed, so it is read on its own
+            // rather than record by record.
+            double[] fieldValues = null;
             if (!useRecID) {
-                allRecords = new Object[numRecs][numberOfFields];
-                int a = 0;
-                while ((data = reader.nextRecord()) != null) {
-                    System.arraycopy(data, 0, allRecords[a], 0, numberOfFields);
-                    a++;
-                }
+                fieldValues = reader.getNumericColumn(assignmentFieldNum);
             }
-            
-            long heapSize = Runtime.getRuntime().totalMemory();
-            int flushSize = (int)(heapSize / 32);
-            int j, numCellsToWrite;
-            PriorityQueue<RowPriorityGridCell> pq = new PriorityQueue<>(flushSize);
-            RowPriorityGridCell cell;
+
+            // Lines are burned in the order of their records, so a later line
+            // overwrites an earlier one where they cross the same cell.
+            ScanlineRasterizer rasterizer = new ScanlineRasterizer(output);
             int numRecords = input.getNumberOfRecords();
-            int count = 0;
-            int progressCount = (int) (numRecords / 100.0);
-            if (progressCount <= 0) {
-                progressCount = 1;
-            }
-            ShapeFileRecord record;
-            for (RecordInfo ri : myList) {
-                record = input.getRecord(ri.recNumber - 1);
-                if (!useRecID) {
-                    data = reader.nextRecord();
-                    value = Double.valueOf(data[assignmentFieldNum].toString());
+            int oldProgress = -1;
+            for (ShapeFileRecord record : input.records) {
+                int recNum = record.getRecordNumber();
+                if (useRecID) {
+                    value = recNum;
                 } else {
-                    value = record.getRecordNumber();
+                    value = fieldValues[recNum - 1];
                 }
-                geometry = getXYFromShapefileRecord(record);
-                numPoints = geometry.length;
-                numParts = partData.length;
-
-                for (part = 0; part < numParts; part++) {
-                    box = new BoundingBox();
-                    startingPointInPart = partData[part];
-                    if (part < numParts - 1) {
-                        endingPointInPart = partData[part + 1];
-                    } else {
-                        endingPointInPart = numPoints;
-                    }
-                    for (i = startingPointInPart; i < endingPointInPart; i++) {
-                        if (geometry[i][0] < box.getMinX()) {
-                            box.setMinX(geometry[i][0]);
-                        }
-                        if (geometry[i][0] > box.getMaxX()) {
-                            box.setMaxX(geometry[i][0]);
-                        }
-                        if (geometry[i][1] < box.getMinY()) {
-                            box.setMinY(geometry[i][1]);
-                        }
-                        if (geometry[i][1] > box.getMaxY()) {
-                            box.setMaxY(geometry[i][1]);
-                        }
-                    }
-                    topRow = output.getRowFromYCoordinate(box.getMaxY());
-                    bottomRow = output.getRowFromYCoordinate(box.getMinY());
-                    leftCol = output.getColumnFromXCoordinate(box.getMinX());
-                    rightCol = output.getColumnFromXCoordinate(box.getMaxX());
-                    
-                    // find each intersection with a row.
-                    for (row = topRow; row <= bottomRow; row++) {
-
-                        rowYCoord = output.getYCoordinateFromRow(row);
-                        // find the x-coordinates of each of the line segments 
-                        // that intersect this row's y coordinate
-
-                        for (i = startingPointInPart; i < endingPointInPart - 1; i++) {
-                            if (isBetween(rowYCoord, geometry[i][1], geometry[i + 1][1])) {
-                                y1 = geometry[i][1];
-                                y2 = geometry[i + 1][1];
-                                if (y2 != y1) {
-                                    x1 = geometry[i][0];
-                                    x2 = geometry[i + 1][0];
-
-                                    // calculate the intersection point
-                                    xPrime = x1 + (rowYCoord - y1) / (y2 - y1) * (x2 - x1);
-                                    col = output.getColumnFromXCoordinate(xPrime);
-                                    //output.setValue(row, col, value);
-                                    pq.add(new RowPriorityGridCell(row, col, value));
-                                }
-                            }
-                        }
-                    }
-                    
-                    // find each intersection with a column.
-                    for (col = leftCol; col <= rightCol; col++) {
-                        colXCoord = output.getXCoordinateFromColumn(col);
-                        for (i = startingPointInPart; i < endingPointInPart - 1; i++) {
-                            if (isBetween(colXCoord, geometry[i][0], geometry[i + 1][0])) {
-                                x1 = geometry[i][0];
-                                x2 = geometry[i + 1][0];
-                                if (x1 != x2) {
-                                    y1 = geometry[i][1];
-                                    y2 = geometry[i + 1][1];
-                                    
-                                    // calculate the intersection point
-                                    yPrime = y1 + (colXCoord - x1) / (x2 - x1) * (y2 - y1);
-                                    
-                                    row = output.getRowFromYCoordinate(yPrime);
-                                    //output.setValue(row, col, value);
-                                    pq.add(new RowPriorityGridCell(row, col, value));
-                                }
-                            }
-                        }
-                    }
-                }
-                if (pq.size() >= flushSize) {
-                    j = 0;
-                    numCellsToWrite = pq.size();
-                    do {
-                        cell = pq.poll();
-                        output.setValue(cell.row, cell.col, cell.z);
-                        j++;
-                        if (j % 1000 == 0) {
-                            if (cancelOp) {
-                                cancelOperation();
-                                return;
-                            }
-                            updateProgress("Writing to Output (" + df.format(j) + " of " + df.format(numCellsToWrite) + "):", (int) (j * 100.0 / numCellsToWrite));
-                        }
-                    } while (pq.size() > 0);
+                ShapeType shapeType = record.getShapeType().getBaseType();
+                if ((shapeType == ShapeType.POLYLINE || shapeType == ShapeType.POLYGON)
+                        && !Double.isNaN(value)) {
+                    Geometry geometry = record.getGeometry();
+                    rasterizer.addLine(geometry.getPoints(), geometry.getParts(), value);
                 }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
-                }
-                count++;
-                if (count % progressCount == 0) {
-                    progress++;
-                    updateProgress(progress);
-                }
-            }
-            
-            j = 0;
-            numCellsToWrite = pq.size();
-            do {
-                cell = pq.poll();
-                output.setValue(cell.row, cell.col, cell.z);
-                j++;
-                if (j % 1000 == 0) {
+                int progress = (int) (100f * recNum / numRecords);
+                if (progress != oldProgress) {
+                    updateProgress("Reading lines:", progress);
+                    oldProgress = progress;
                     if (cancelOp) {
                         cancelOperation();
                         return;
                     }
-                    updateProgress("Writing to Output (" + df.format(j) + " of " + df.format(numCellsToWrite) + "):", (int) (j * 100.0 / numCellsToWrite));
                 }
-            } while (pq.size() > 0);
+            }
+
+            final WhiteboxRaster out = output;
+            boolean completed = rasterizer.rasterize(backgroundValue, new ScanlineRasterizer.RowListener() {
+
+                @Override
+                public void row(int row, double[] values) {
+                    out.setRowValues(row, values);
+                }
+
+                @Override
+                public boolean progress(int progress) {
+                    updateProgress("Rasterizing lines:", progress);
+                    return !cancelOp;
+                }
+            });
+
+            if (!completed) {
+                cancelOperation();
+                return;
+            }
 
             output.addMetadataEntry("Created by the "
                     + getDescriptiveName() + " tool.");
             output.addMetadataEntry("Created on " + new Date());
-                
+
             output.flush();
             output.close();
 
@@ -511,121 +391,6 @@ public class VectorLinesToRaster implements WhiteboxPlugin {
         }
     }
     
-    int[] partData;
-
-    private double[][] getXYFromShapefileRecord(ShapeFileRecord record) {
-        double[][] ret;
-        ShapeType shapeType = record.getShapeType();
-        switch (shapeType) {
-            case POLYLINE:
-                whitebox.geospatialfiles.shapefile.PolyLine recPolyLine =
-                        (whitebox.geospatialfiles.shapefile.PolyLine) (record.getGeometry());
-                ret = recPolyLine.getPoints();
-                partData = recPolyLine.getParts();
-                break;
-            case POLYLINEZ:
-                PolyLineZ recPolyLineZ = (PolyLineZ) (record.getGeometry());
-                ret = recPolyLineZ.getPoints();
-                partData = recPolyLineZ.getParts();
-                break;
-            case POLYLINEM:
-                PolyLineM recPolyLineM = (PolyLineM) (record.getGeometry());
-                ret = recPolyLineM.getPoints();
-                partData = recPolyLineM.getParts();
-                break;
-            case POLYGON:
-                Polygon recPolygon = (Polygon) (record.getGeometry());
-                ret = recPolygon.getPoints();
-                partData = recPolygon.getParts();
-                break;
-            case POLYGONZ:
-                PolygonZ recPolygonZ = (PolygonZ) (record.getGeometry());
-                ret = recPolygonZ.getPoints();
-                partData = recPolygonZ.getParts();
-                break;
-            case POLYGONM:
-                PolygonM recPolygonM = (PolygonM) (record.getGeometry());
-                ret = recPolygonM.getPoints();
-                partData = recPolygonM.getParts();
-                break;
-            default:
-                ret = new double[1][2];
-                ret[1][0] = -1;
-                ret[1][1] = -1;
-                break;
-        }
-
-        return ret;
-    }
-
-    private BoundingBox getBoundingBoxFromShapefileRecord(ShapeFileRecord record) {
-        BoundingBox ret;
-        ShapeType shapeType = record.getShapeType();
-        switch (shapeType) {
-            case POLYLINE:
-                whitebox.geospatialfiles.shapefile.PolyLine recPolyLine =
-                        (whitebox.geospatialfiles.shapefile.PolyLine) (record.getGeometry());
-                return recPolyLine.getBox();
-            case POLYLINEZ:
-                PolyLineZ recPolyLineZ = (PolyLineZ) (record.getGeometry());
-                return recPolyLineZ.getBox();
-            case POLYLINEM:
-                PolyLineM recPolyLineM = (PolyLineM) (record.getGeometry());
-                return recPolyLineM.getBox();
-            case POLYGON:
-                Polygon recPolygon = (Polygon) (record.getGeometry());
-                return recPolygon.getBox();
-            case POLYGONZ:
-                PolygonZ recPolygonZ = (PolygonZ) (record.getGeometry());
-                return recPolygonZ.getBox();
-            case POLYGONM:
-                PolygonM recPolygonM = (PolygonM) (record.getGeometry());
-                return recPolygonM.getBox();
-            default:
-                return new BoundingBox(Double.NaN, Double.NaN, Double.NaN, Double.NaN);
-        }
-    }
-
-    private class RecordInfo implements Comparable<RecordInfo> {
-
-        public double maxY;
-        public int recNumber;
-
-        public RecordInfo(double maxY, int recNumber) {
-            this.maxY = maxY;
-            this.recNumber = recNumber;
-        }
-
-        @Override
-        public int compareTo(RecordInfo other) {
-            final int BEFORE = -1;
-            final int EQUAL = 0;
-            final int AFTER = 1;
-
-            if (this.maxY < other.maxY) {
-                return BEFORE;
-            } else if (this.maxY > other.maxY) {
-                return AFTER;
-            }
-
-            if (this.recNumber < other.recNumber) {
-                return BEFORE;
-            } else if (this.recNumber > other.recNumber) {
-                return AFTER;
-            }
-
-            return EQUAL;
-        }
-    }
-
-    // Return true if val is between theshold1 and theshold2.
-    private static boolean isBetween(double val, double threshold1, double threshold2) {
-        if (val == threshold1 || val == threshold2) {
-            return true;
-        }
-        return threshold2 > threshold1 ? val > threshold1 && val < threshold2 : val > threshold2 && val < threshold1;
-    }
-    
 //    // This method is only used during testing.
 //    public static void main(String[] args) {
 //        args = new String[6];
@@ -18,6 +18,7 @@ package plugins;
 
 import java.io.*;
 import java.util.Date;
+import whitebox.geospatialfiles.NumericTextReader;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -157,17 +158,8 @@ public class XYZTextToRaster implements WhiteboxPlugin {
         String[] pointFiles;
         String outputHeader = null;
         String baseFileHeader = null;
-        int row, col;
-        double x, y, z;
-        double east, west, north, south;
-        int i, j;
-        int progress = 0;
-        String delimiter = " ";
+        int i;
         boolean firstLineHeader = false;
-        String str1 = null;
-        FileWriter fw = null;
-        BufferedWriter bw = null;
-        PrintWriter out = null;
         double noData = -32768;
         WhiteboxRaster.DataType dataType = WhiteboxRaster.DataType.FLOAT;
             
@@ -198,77 +190,46 @@ public class XYZTextToRaster implements WhiteboxPlugin {
             pointFiles = inputFilesString.split(";");
             int numPointFiles = pointFiles.length;
             WhiteboxRaster baseImage = new WhiteboxRaster(baseFileHeader, "r");
-            double resolutionX = baseImage.getCellSizeX();
-            double resolutionY = baseImage.getCellSizeY();
-            //int rows = baseImage.getNumberRows();
-            //int cols = baseImage.getNumberColumns();
             noData = baseImage.getNoDataValue();
-            east = baseImage.getEast();
-            west = baseImage.getWest();
-            north = baseImage.getNorth();
-            south = baseImage.getSouth();
-            
+            baseImage.close();
                     
-            WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw", 
+            final WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw", 
                     baseFileHeader, dataType, noData);
            
             for (i = 0; i < numPointFiles; i++) {
-                DataInputStream in = null;
-                BufferedReader br = null;
+                final String label = "Loop " + (i + 1) + " of " + numPointFiles + ":";
+                NumericTextReader reader = new NumericTextReader(pointFiles[i]);
+                boolean completed;
                 try {
-                    // Open the file that is the first command line parameter
-                    FileInputStream fstream = new FileInputStream(pointFiles[i]);
-                    // Get the object of DataInputStream
-                    in = new DataInputStream(fstream);
-
-                    br = new BufferedReader(new InputStreamReader(in));
+                    if (firstLineHeader) {
+                        reader.readLine();
+                    }
+                    // Lines that do not hold an x, y and z are skipped. Points
+                    // that fall outside of the grid are ignored by setValue.
+                    completed = reader.readRecords(3, new NumericTextReader.ValueListener() {
 
-                    String line;
-                    String[] str;
-                    j = 1;
-                    //Read File Line By Line
-                    while ((line = br.readLine()) != null) {
-                        str = line.split(delimiter);
-                        if (str.length <= 1) {
-                            delimiter = "\t";
-                            str = line.split(delimiter);
-                            if (str.length <= 1) {
-                                delimiter = " ";
-                                str = line.split(delimiter);
-                                if (str.length <= 1) {
-                                    delimiter = ",";
-                                    str = line.split(delimiter);
-                                }
+                        @Override
+                        public void values(double[] values, int count) {
+                            for (int k = 0; k < count; k += 3) {
+                                int row = output.getRowFromYCoordinate(values[k + 1]);
+                                int col = output.getColumnFromXCoordinate(values[k]);
+                                output.setValue(row, col, values[k + 2]);
                             }
                         }
-                        if ((j > 1 || !firstLineHeader) && (str.length >= 3)) {
-                            x = Double.parseDouble(str[0]);
-                            y = Double.parseDouble(str[1]);
-                            z = Double.parseDouble(str[2]);
-                            
-                            row = (int)(Math.floor((y - south) / resolutionY));
-                            col = (int)(Math.floor((x - west) / resolutionX));
-                            
-                            output.setValue(row, col, z);
-                        }
-                        j++;
-                    }
-                    //Close the input stream
-                    in.close();
-                    br.close();
 
-                } catch (java.io.IOException e) {
-                    myHost.showFeedback("An error has occurred during operation. See log file for details.");
-                    myHost.logException("Error in " + getDescriptiveName(), e);
-                } finally {
-                    try {
-                        if (in != null || br != null) {
-                            in.close();
-                            br.close();
+                        @Override
+                        public boolean progress(int progress) {
+                            updateProgress(label, progress);
+                            return !cancelOp;
                         }
-                    } catch (java.io.IOException ex) {
-                    }
-
+                    });
+                } finally {
+                    reader.close();
+                }
+                if (!completed) {
+                    output.close();
+                    cancelOperation();
+                    return;
                 }
             }
             
@@ -293,4 +254,4 @@ public class XYZTextToRaster implements WhiteboxPlugin {
             myHost.pluginComplete();
         }
     }
-}
\ No newline at end of file
+}
@@ -29,16 +29,6 @@ public class Clump implements WhiteboxPlugin {
     
     private WhiteboxPluginHost myHost = null;
     private String[] args;
-    double noData = -32768;
-    WhiteboxRaster image;
-    WhiteboxRaster output;
-    double currentPatchNumber = 0;
-    double currentImageValue = 0;
-    int maxDepth = 1000;
-    int depth = 0;
-    int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
-    int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
-    int numScanCells = 8;
     /**
      * Used to retrieve the plugin tool's name. This is a short, unique name containing no spaces.
      * @return String containing plugin name.
@@ -168,11 +158,6 @@ public class Clump implements WhiteboxPlugin {
         
         String inputHeader = null;
         String outputHeader = null;
-        int row, col;
-        float progress = 0;
-        double maxPatchValue = 0;
-        int x, y;
-        boolean blnFoundNeighbour;
         boolean blnIncludeDiagNeighbour = false;
         boolean blnTreatZerosAsBackground = false;
         int i;
@@ -189,10 +174,6 @@ public class Clump implements WhiteboxPlugin {
                 outputHeader = args[i];
             } else if (i == 2) {
                 blnIncludeDiagNeighbour = Boolean.parseBoolean(args[i]);
-                if (!blnIncludeDiagNeighbour) {
-                    dX = new int[]{0, 1, 0, -1};
-                    dY = new int[]{-1, 0, 1, 0};
-                }
             } else if (i == 3) {
                 blnTreatZerosAsBackground = Boolean.parseBoolean(args[i]);
             }
@@ -205,166 +186,24 @@ public class Clump implements WhiteboxPlugin {
         }
 
         try {
-            numScanCells = dY.length;
-        
-            image = new WhiteboxRaster(inputHeader, "r");
-            int rows = image.getNumberRows();
-            int cols = image.getNumberColumns();
-            noData = image.getNoDataValue();
-            
-            double initialValue = -1;
-            output = new WhiteboxRaster(outputHeader, "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, initialValue);
-            output.setDataScale(WhiteboxRaster.DataScale.CATEGORICAL);
-            output.setPreferredPalette("qual.pal");
+            WhiteboxRaster image = new WhiteboxRaster(inputHeader, "r");
             
-            if (blnTreatZerosAsBackground) {
-                for (row = 0; row < rows; row++) {
-                    for (col = 0; col < cols; col++) {
-                        if (image.getValue(row, col) == 0) {
-                            output.setValue(row, col, 0);
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress = (float) (100f * row / (rows - 1));
-                    updateProgress((int) progress);
+            whitebox.algorithms.Clump clump = new whitebox.algorithms.Clump(image, 
+                    blnIncludeDiagNeighbour, blnTreatZerosAsBackground);
+            clump.setOutputHeader(outputHeader);
+            WhiteboxRaster output = clump.run(new whitebox.algorithms.Clump.ProgressListener() {
+                @Override
+                public boolean progress(int progress) {
+                    updateProgress("Clumping raster:", progress);
+                    return !cancelOp;
                 }
-                if (output.getValue(0, 0) == -1) {
-                    output.setValue(0, 0, 1);
-                }
-            } else {
-                output.setValue(0, 0, 0);
-            }
+            });
             
-            double patchValue = 0;
-            double neighbourPatchValue = 0;
-            double newPatchValue = 0;
-            double imageValue = 0;
-            int loopNum = 1;
-            updateProgress("Loop " + loopNum + ":", 0);
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    imageValue = image.getValue(row, col);
-                    if (imageValue != noData) {
-                        patchValue = output.getValue(row, col);
-                        if (patchValue == initialValue) {
-                            // see if any neighbour has the same value in the input image
-                            blnFoundNeighbour = false;
-                            for (i = 0; i < numScanCells; i++) {
-                                x = col + dX[i];
-                                y = row + dY[i];
-                                neighbourPatchValue = output.getValue(y, x);
-                                if (neighbourPatchValue != initialValue 
-                                        && image.getValue(y, x) == imageValue) {
-                                    // cell is neighbouring a cell with the same value in image that
-                                    // has already been assigned a patch value
-                                    output.setValue(row, col, neighbourPatchValue);
-                                    newPatchValue = neighbourPatchValue;
-                                    blnFoundNeighbour = true;
-                                    break;
-                                }
-                            }
-                            if (!blnFoundNeighbour) {
-                                // no neighbouring cell has the same value in Image and has 
-                                // already been assigned a value. A new one is needed.
-                                maxPatchValue++;
-                                newPatchValue = maxPatchValue;
-                                output.setValue(row, col, newPatchValue);
-                            }
-                            
-                            // recursively scan all connected cells of equal value in Image
-                            depth = 0;
-                            ScanConnectedCells(row, col, imageValue, initialValue, newPatchValue);
-                        }
-                    } else {
-                        output.setValue(row, col, noData);
-                    }
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
-                }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+            if (output == null) {
+                image.close();
+                cancelOperation();
+                return;
             }
-            
-            // find all cells with neighbouring cells that have the same value in
-            // the input image but different patch values in the output image.
-            // Recursively scan them to change the larger patch ID to the lower value.
-            // Iterate this process until there are no further changes to the image.
-            boolean somethingDone;
-            double[] reclass = new double[(int) maxPatchValue + 1];
-            // this array is used to keep track of the eliminated patches.
-            do {
-                loopNum++;
-                updateProgress("Loop " + loopNum + ":", 0);
-                somethingDone = false;
-                for (row = 0; row < rows; row++) {
-                    for (col = 0; col < cols; col++) {
-                        imageValue = image.getValue(row, col);
-                        if (imageValue != noData) {
-                            patchValue = output.getValue(row, col);
-                            for (i = 0; i < numScanCells; i++) {
-                                x = col + dX[i];
-                                y = row + dY[i];
-                                neighbourPatchValue = output.getValue(y, x);
-                                if (neighbourPatchValue != patchValue 
-                                        && image.getValue(y, x) == imageValue) {
-                                    // The two patches are equivalent. Find the 
-                                    // lower valued cell and initiate a recursive
-                                    // scan from there.
-                                    somethingDone = true;
-                                    if (patchValue < neighbourPatchValue) {
-                                        reclass[(int)neighbourPatchValue] = -1;
-                                        output.setValue(y, x, patchValue);
-                                        ScanConnectedCells(y, x, imageValue, neighbourPatchValue, patchValue);
-                                    } else {
-                                        reclass[(int)patchValue] = -1;
-                                        output.setValue(row, col, neighbourPatchValue);
-                                        ScanConnectedCells(row, col, imageValue, patchValue, neighbourPatchValue);
-                                        patchValue = neighbourPatchValue;
-                                    }
-
-                                }
-                            }
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress = (float) (100f * row / (rows - 1));
-                    updateProgress((int) progress);
-                }
-            } while (somethingDone);
-            
-            i = 0;
-            for (int a = 0; a < maxPatchValue + 1; a++) {
-                if (reclass[a] != -1) {
-                    reclass[a] = i;
-                    i++;
-                }
-            }
-            
-            loopNum++;
-            updateProgress("Loop " + loopNum + ":", 0);
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    patchValue = output.getValue(row, col);
-                    if (patchValue != noData) {
-                        output.setValue(row, col, reclass[(int)patchValue]);
-                    }
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
-                }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
-            }
-            
 
             output.addMetadataEntry("Created by the "
                     + getDescriptiveName() + " tool.");
@@ -388,22 +227,4 @@ public class Clump implements WhiteboxPlugin {
             myHost.pluginComplete();
         }
     }
-    
-    private void ScanConnectedCells(int row, int col, double imageValue, double currentPatchValue, double newPatchValue) {
-        depth++;
-        int x, y;
-        if (depth < maxDepth) {
-            for (int c = 0; c < numScanCells; c++) {
-                x = col + dX[c];
-                y = row + dY[c];
-                if ((output.getValue(y, x) == currentPatchValue) && 
-                        (image.getValue(y, x) == imageValue)) {
-                    // cell should be assigned the new patch value and has the same value in Image
-                    output.setValue(y, x, newPatchValue);
-                    ScanConnectedCells(y, x, imageValue, currentPatchValue, newPatchValue);
-                }
-            }
-        }
-        depth--;
-    }
-}
\ No newline at end of file
+}
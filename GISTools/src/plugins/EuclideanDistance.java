@@ -17,6 +17,7 @@
 package plugins;
 
 import java.util.Date;
+import whitebox.algorithms.EuclideanDistanceTransform;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -159,19 +160,9 @@ public class EuclideanDistance implements WhiteboxPlugin {
         
         String inputHeader = null;
         String outputHeader = null;
-        int row, col;
+        int row;
         float progress = 0;
-        double z, z2, zMin;
-        int x, y, a, b, i;
-        double h = 0;
-        int whichCell;
-        double infVal = 9999999; //Float.MAX_VALUE - 10000;
-        int[] dX = new int[]{-1, -1, 0, 1, 1, 1, 0, -1};
-        int[] dY = new int[]{0, -1, -1, -1, 0, 1, 1, 1};
-        int[] Gx = new int[]{1, 1, 0, 1, 1, 1, 0, 1};
-        int[] Gy = new int[]{0, 1, 1, 1, 0, 1, 1, 1};
-        double gridRes;
-    
+        
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
             return;
@@ -179,7 +170,7 @@ public class EuclideanDistance implements WhiteboxPlugin {
         
         inputHeader = args[0];
         outputHeader = args[1];
-        
+
         // check to see that the inputHeader and outputHeader are not null.
         if ((inputHeader == null) || (outputHeader == null)) {
             showFeedback("One or more of the input parameters have not been set properly.");
@@ -190,149 +181,28 @@ public class EuclideanDistance implements WhiteboxPlugin {
             WhiteboxRaster image = new WhiteboxRaster(inputHeader, "r");
             
             int rows = image.getNumberRows();
-            int cols = image.getNumberColumns();
             double noData = image.getNoDataValue();
-            gridRes = (image.getCellSizeX() + image.getCellSizeY()) / 2;
 
-            WhiteboxRaster outputImage = new WhiteboxRaster(outputHeader, "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, infVal);
-            outputImage.setPreferredPalette("spectrum.pal");
-           
-            WhiteboxRaster Rx = new WhiteboxRaster(outputHeader.replace(".dep", "_temp1.dep"), "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, 0);
-            Rx.isTemporaryFile = true;
-            WhiteboxRaster Ry = new WhiteboxRaster(outputHeader.replace(".dep", "_temp2.dep"), "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, 0);
-            Ry.isTemporaryFile = true;
+            updateProgress("Calculating distances:", -1);
+            EuclideanDistanceTransform transform = new EuclideanDistanceTransform(image, false);
+            transform.transform();
             
-            double[] data;
-            for (row = 0; row < rows; row++) {
-                data = image.getRowValues(row);
-                for (col = 0; col < cols; col++) {
-                    if (data[col] != 0) { 
-                        outputImage.setValue(row, col, 0);
-                    }
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
-                }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
-            }
-
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    z = outputImage.getValue(row, col);
-                    if (z != 0) {
-                        zMin = infVal;
-                        whichCell = -1;
-                        for (i = 0; i <= 3; i++) {
-                            x = col + dX[i];
-                            y = row + dY[i];
-                            z2 = outputImage.getValue(y, x);
-                            if (z2 != noData) {
-                                switch (i) {
-                                    case 0:
-                                        h = 2 * Rx.getValue(y, x) + 1;
-                                        break;
-                                    case 1:
-                                        h = 2 * (Rx.getValue(y, x) + Ry.getValue(y, x) + 1);
-                                        break;
-                                    case 2:
-                                        h = 2 * Ry.getValue(y, x) + 1;
-                                        break;
-                                    case 3:
-                                        h = 2 * (Rx.getValue(y, x) + Ry.getValue(y, x) + 1);
-                                        break;
-                                }
-                                z2 += h;
-                                if (z2 < zMin) {
-                                    zMin = z2;
-                                    whichCell = i;
-                                }
-                            }
-                        }
-                        if (zMin < z) {
-                            outputImage.setValue(row, col, zMin);
-                            x = col + dX[whichCell];
-                            y = row + dY[whichCell];
-                            Rx.setValue(row, col, Rx.getValue(y, x) + Gx[whichCell]);
-                            Ry.setValue(row, col, Ry.getValue(y, x) + Gy[whichCell]);
-                        }
-                    }
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
-                }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+            if (cancelOp) {
+                cancelOperation();
+                return;
             }
 
-            
-            for (row = rows - 1; row >= 0; row--) {
-                for (col = cols - 1; col >= 0; col--) {
-                    z = outputImage.getValue(row, col);
-                    if (z != 0) {
-                        zMin = infVal;
-                        whichCell = -1;
-                        for (i = 4; i <= 7; i++) {
-                            x = col + dX[i];
-                            y = row + dY[i];
-                            z2 = outputImage.getValue(y, x);
-                            if (z2 != noData) {
-                                switch (i) {
-                                    case 5:
-                                        h = 2 * (Rx.getValue(y, x) + Ry.getValue(y, x) + 1);
-                                        break;
-                                    case 4:
-                                        h = 2 * Rx.getValue(y, x) + 1;
-                                        break;
-                                    case 6:
-                                        h = 2 * Ry.getValue(y, x) + 1;
-                                        break;
-                                    case 7:
-                                        h = 2 * (Rx.getValue(y, x) + Ry.getValue(y, x) + 1);
-                                        break;
-                                }
-                                z2 += h;
-                                if (z2 < zMin) {
-                                    zMin = z2;
-                                    whichCell = i;
-                                }
-                            }
-                        }
-                        if (zMin < z) {
-                            outputImage.setValue(row, col, zMin);
-                            x = col + dX[whichCell];
-                            y = row + dY[whichCell];
-                            Rx.setValue(row, col, Rx.getValue(y, x) + Gx[whichCell]);
-                            Ry.setValue(row, col, Ry.getValue(y, x) + Gy[whichCell]);
-                        }
-                    }
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
-                }
-                progress = (float) (100f * (rows - 1 - row) / (rows - 1));
-                updateProgress((int) progress);
-            }
+            WhiteboxRaster outputImage = new WhiteboxRaster(outputHeader, "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, noData);
+            outputImage.setPreferredPalette("spectrum.pal");
             
             for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    z = image.getValue(row, col);
-                    if (z != noData) {
-                        z = outputImage.getValue(row, col);
-                        outputImage.setValue(row, col, Math.sqrt(z) * gridRes);
-                    } else {
-                        outputImage.setValue(row, col, noData);
-                    }
-                }
+                outputImage.setRowValues(row, transform.getRowDistances(row, noData));
                 if (cancelOp) {
                     cancelOperation();
                     return;
                 }
                 progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+                updateProgress("Saving output:", (int) progress);
             }
             
             outputImage.addMetadataEntry("Created by the "
@@ -341,8 +211,6 @@ public class EuclideanDistance implements WhiteboxPlugin {
             
             image.close();
             outputImage.close();
-            Rx.close();
-            Ry.close();
 
             // returning a header file string displays the image.
             returnData(outputHeader);
@@ -359,4 +227,4 @@ public class EuclideanDistance implements WhiteboxPlugin {
             myHost.pluginComplete();
         }
     }
-}
\ No newline at end of file
+}
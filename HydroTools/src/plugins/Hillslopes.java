@@ -17,6 +17,7 @@
 package plugins;
 
 import java.util.Date;
+import whitebox.algorithms.BasinLabeller;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -161,16 +162,12 @@ public class Hillslopes implements WhiteboxPlugin {
         WhiteboxRaster output;
         int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
         int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
-        final double LnOf2 = 0.693147180559945;
         int row, col, x, y;
         float progress = 0;
         double slope;
         double z;
         int i, c;
-        double[] inflowingVals = new double[]{16, 32, 64, 128, 1, 2, 4, 8};
         boolean flag = false;
-        double flowDir = 0;
-        double outletID = 0;
                 
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -206,6 +203,17 @@ public class Hillslopes implements WhiteboxPlugin {
                 return;
             }
             
+            BasinLabeller basins = new BasinLabeller(pntr);
+            if (basins.getNumberOfInvalidPointers() > 0) {
+                showFeedback("An unexpected value has "
+                        + "been identified in the pointer "
+                        + "image. This tool requires a "
+                        + "pointer grid that has been "
+                        + "created using either the D8 "
+                        + "or Rho8 tools.");
+                return;
+            }
+            
             output = new WhiteboxRaster(outputHeader, "rw", 
                     streamsHeader, WhiteboxRaster.DataType.INTEGER, 0);
             output.setPreferredPalette("qual.pal");
@@ -214,7 +222,6 @@ public class Hillslopes implements WhiteboxPlugin {
             byte numNeighbouringStreamCells = 0;
             double currentID = 0;
             double currentValue = 0;
-            double streamsID = 0;
 
             updateProgress("Loop 1 of 4:", 0);
             // assign a unique id to each link in the stream network
@@ -227,7 +234,7 @@ public class Hillslopes implements WhiteboxPlugin {
                             x = col + dX[c];
                             y = row + dY[c];
                             if (streams.getValue(y, x) > 0 && 
-                                    pntr.getValue(y, x) == inflowingVals[c]) { 
+                                    basins.isInflowingNeighbour(row, col, c)) { 
                                 numNeighbouringStreamCells++; 
                             }
                         }
@@ -236,29 +243,19 @@ public class Hillslopes implements WhiteboxPlugin {
                             x = col;
                             y = row;
                             currentID++;
-                            output.setValue(y, x, currentID);
+                            basins.setSeed(y, x, currentID);
                             flag = true;
                             do {
                                 //find the downslope neighbour
-                                flowDir = pntr.getValue(y, x);
-                                if (flowDir > 0) {
-                                    c = (int)(Math.log(flowDir) / LnOf2);
-                                    if (c > 7) {
-                                        showFeedback("An unexpected value has "
-                                                + "been identified in the pointer "
-                                                + "image. This tool requires a "
-                                                + "pointer grid that has been "
-                                                + "created using either the D8 "
-                                                + "or Rho8 tools.");
-                                        return;
-                                    }
+                                c = basins.getFlowDirection(y, x);
+                                if (c >= 0) {
                                     x += dX[c];
                                     y += dY[c];
 
                                     if (streams.getValue(y, x) <= 0) { //it's not a stream cell
                                         flag = false;
                                     } else {
-                                        currentValue = output.getValue(y, x);
+                                        currentValue = basins.getValue(y, x);
                                         if (currentValue > 0) {
                                             flag = false; //run into a larger stream, 
                                             //end the downstream search
@@ -270,30 +267,27 @@ public class Hillslopes implements WhiteboxPlugin {
                                         for (int d = 0; d < 8; d++) {
                                             x2 = x + dX[d];
                                             y2 = y + dY[d];
-                                            if (streams.getValue(y2, x2) > 0 
-                                                    && pntr.getValue(y2, x2) == 
-                                                    inflowingVals[d]) {
+                                            if (streams.getValue(y2, x2) > 0
+                                                    && basins.isInflowingNeighbour(y, x, d)) {
                                                 numNeighbouringStreamCells++;
                                             }
                                         }
                                         if (numNeighbouringStreamCells >= 2) {
                                             currentID++;
                                         }
-                                        output.setValue(y, x, currentID);
+                                        basins.setSeed(y, x, currentID);
                                     }
 
                                 } else {
                                     if (streams.getValue(y, x) > 0) { //it is a valid 
                                         //stream cell and probably just has no downslope 
                                         //neighbour (e.g. at the edge of the grid)
-                                        output.setValue(y, x, currentID);
+                                        basins.setSeed(y, x, currentID);
                                     }
                                     flag = false;
                                 }
                             } while (flag);
                         }
-                    } else {
-                        output.setValue(row, col, noData);
                     }
                 }
                 if (cancelOp) {
@@ -315,12 +309,11 @@ public class Hillslopes implements WhiteboxPlugin {
                         numStreamNeighbours = 0;
                         for (c = 0; c < 8; c++) {
                             if (streams.getValue(row + dY[c], col + dX[c]) > 0 &&
-                                    pntr.getValue(row + dY[c], col + dX[c]) == 
-                                    inflowingVals[c]) { numStreamNeighbours++; }
+                                    basins.isInflowingNeighbour(row, col, c)) { numStreamNeighbours++; }
                         }
                         if (numStreamNeighbours == 0) { //it's a stream head
                             currentID++;
-                            output.setValue(row, col, currentID);
+                            basins.setSeed(row, col, currentID);
                         }
                     }
                 }
@@ -357,12 +350,11 @@ public class Hillslopes implements WhiteboxPlugin {
             for (row = 0; row < rows; row++) {
                 for (col = 0; col < cols; col++) {
                     if (streams.getValue(row,col) > 0) {
-                        currentID = output.getValue(row, col);
+                        currentID = basins.getValue(row, col);
                         
                         // find the downslope neighbour
-                        flowDir = pntr.getValue(row, col);
-                        if (flowDir > 0) {
-                            c = (int)(Math.log(flowDir) / LnOf2);
+                        c = basins.getFlowDirection(row, col);
+                        if (c >= 0) {
                             // look to the right
                             flag = false;
                             d = c;
@@ -377,8 +369,8 @@ public class Hillslopes implements WhiteboxPlugin {
                                 if (z <= 0 && z != noData) {
                                     state = true;
                                     // see if it flows into the stream cell at col, row
-                                    if (pntr.getValue(y, x) == inflowingVals[d]) {
-                                        output.setValue(y, x, sideVals[0][(int)currentID]); //currentID);
+                                    if (basins.isInflowingNeighbour(row, col, d)) {
+                                        basins.setSeed(y, x, sideVals[0][(int)currentID]); //currentID);
                                     }
                                 } else {
                                     if (state) {
@@ -410,8 +402,8 @@ public class Hillslopes implements WhiteboxPlugin {
                                     }
                                     
                                     // see if it flows into the stream cell at col, row
-                                    if (pntr.getValue(y, x) == inflowingVals[d] && output.getValue(y, x) <= 0) {
-                                        output.setValue(y, x, val);
+                                    if (basins.isInflowingNeighbour(row, col, d) && !basins.isLabelled(y, x)) {
+                                        basins.setSeed(y, x, val);
                                     }
                                 }
                                 k++;
@@ -435,69 +427,17 @@ public class Hillslopes implements WhiteboxPlugin {
 
             
             updateProgress("Loop 4 of 4:", 0);
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    if (output.getValue(row, col) == noData && pntr.getValue(row, col) != noData) {
-                        flag = false;
-                        x = col;
-                        y = row;
-                        do {
-                            //find it's downslope neighbour
-                            flowDir = pntr.getValue(y, x);
-                            if (flowDir > 0) {
-                                //move x and y accordingly
-                                c = (int)(Math.log(flowDir) / LnOf2);
-                                x += dX[c];
-                                y += dY[c];
-                                //if the new cell already has a value in the output, use that as the StreamsID
-                                z = output.getValue(y, x);
-                                if (z != noData) {
-                                    streamsID = z;
-                                    flag = true;
-                                }
-                            } else {
-                                streamsID = noData;
-                                flag = true;
-                            }
-                        } while (!flag);
-
-                        flag = false;
-                        x = col;
-                        y = row;
-                        output.setValue(y, x, streamsID);
-                        do {
-                            //find it's downslope neighbour
-                            flowDir = pntr.getValue(y, x);
-                            if (flowDir > 0) {
-                                c = (int)(Math.log(flowDir) / LnOf2);
-                                x += dX[c];
-                                y += dY[c];
-                                z = output.getValue(y, x);
-                                if (z != noData) {
-                                    flag = true;
-                                }
-                            } else {
-                                flag = true;
-                            }
-                            output.setValue(y, x, streamsID);
-                        } while (!flag);
-                    } else if (pntr.getValue(row, col) == noData) {
-                        output.setValue(row, col, noData);
-                    }
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
-                }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress("Loop 4 of 4:", (int) progress);
+            basins.label();
+            if (cancelOp) {
+                cancelOperation();
+                return;
             }
-
+            updateProgress("Loop 4 of 4:", 50);
 
             for (row = 0; row < rows; row++) {
                 for (col = 0; col < cols; col++) {
                     if (streams.getValue(row, col) > 0) {
-                        output.setValue(row, col, 0);
+                        basins.setSeed(row, col, 0);
                     }
                 }
                 if (cancelOp) {
@@ -505,6 +445,7 @@ public class Hillslopes implements WhiteboxPlugin {
                     return;
                 }
             }
+            basins.writeOutput(output);
             
             output.addMetadataEntry("Created by the "
                     + getDescriptiveName() + " tool.");
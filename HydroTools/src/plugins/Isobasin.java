@@ -16,14 +16,12 @@
  */
 package plugins;
 
-import java.io.File;
-import java.util.ArrayList;
 import java.util.Date;
+import whitebox.algorithms.BasinLabeller;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.geospatialfiles.WhiteboxRasterBase;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
-import whitebox.utilities.FileUtilities;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -32,15 +30,15 @@ import whitebox.utilities.FileUtilities;
  */
 public class Isobasin implements WhiteboxPlugin {
 
-    private WhiteboxRaster contArea;
-    private WhiteboxRaster pointer;
+    private double[] contArea;
+    private double noDataContArea = -32768;
+    private BasinLabeller basins;
+    private int rows;
+    private int cols;
     private final int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
     private final int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
-    private final double[] inflowingVals = new double[]{16, 32, 64, 128, 1, 2, 4, 8};
     private WhiteboxPluginHost myHost = null;
     private String[] args;
-    // Constants
-    private static final double LnOf2 = 0.693147180559945;
 
     /**
      * Used to retrieve the plugin tool's name. This is a short, unique name
@@ -201,7 +199,6 @@ public class Isobasin implements WhiteboxPlugin {
         double z;
         int i, b, c, ICLCA;
         boolean flag = false;
-        double flowDir = 0;
         double outletID = 0;
         double SCAValue;
         double maxSCA, d1, d2;
@@ -224,37 +221,31 @@ public class Isobasin implements WhiteboxPlugin {
 
         try {
 
-            pointer = new WhiteboxRaster(pointerHeader, "r");
-            int rows = pointer.getNumberRows();
-            int cols = pointer.getNumberColumns();
+            WhiteboxRaster pointer = new WhiteboxRaster(pointerHeader, "r");
+            rows = pointer.getNumberRows();
+            cols = pointer.getNumberColumns();
             double noData = pointer.getNoDataValue();
 
-            // create a temporary copy of the contributing area image
-            String tempFile = caHeader.replace(".dep", "_temp.dep");
-            FileUtilities.copyFile(new File(caHeader), new File(tempFile));
-            FileUtilities.copyFile(new File(caHeader.replace(".dep", ".tas")),
-                    new File(tempFile.replace(".dep", ".tas")));
-            contArea = new WhiteboxRaster(tempFile, "rw");
-            contArea.isTemporaryFile = true;
+            basins = new BasinLabeller(pointer);
+
+            // read the contributing area image into memory; it is decremented 
+            // as each isobasin is removed.
+            WhiteboxRaster ca = new WhiteboxRaster(caHeader, "r");
+            noDataContArea = ca.getNoDataValue();
+            contArea = new double[rows * cols];
+            for (row = 0; row < rows; row++) {
+                System.arraycopy(ca.getRowValues(row), 0, contArea, row * cols, cols);
+            }
+            ca.close();
 
-            WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw",
-                    caHeader, WhiteboxRaster.DataType.FLOAT, -999);
-            output.setDataScale(WhiteboxRasterBase.DataScale.CATEGORICAL);
-            output.setPreferredPalette("categorical1.pal");
-            
             outletID = 1;
             for (row = 0; row < rows; row++) {
                 for (col = 0; col < cols; col++) {
-                    if (pointer.getValue(row, col) != noData) {
+                    if (!basins.isNoData(row, col)) {
 
                         // see if it is the start of a flowpath
-                        flag = false;
-                        for (i = 0; i < 8; i++) {
-                            if (pointer.getValue(col + dX[i], row + dY[i]) == inflowingVals[i]) {
-                                flag = true;
-                            }
-                        }
-                        if (!flag) { //there are no inflowing grid cells and this is the start of a flowpath
+                        if (basins.getNumberOfInflowingNeighbours(row, col) == 0) {
+                            //there are no inflowing grid cells and this is the start of a flowpath
                             //proceed down the flowpath
                             flag = false;
                             x = col;
@@ -262,26 +253,23 @@ public class Isobasin implements WhiteboxPlugin {
                             do {
 
                                 // find it's downslope neighbour
-                                flowDir = pointer.getValue(y, x);
-                                if (flowDir > 0) {
+                                i = basins.getFlowDirection(y, x);
+                                if (i >= 0) {
                                     // move x and y accordingly
-                                    i = (int) (Math.log(flowDir) / LnOf2);
                                     x += dX[i];
                                     y += dY[i];
                                 } else {
                                     flag = true;
                                 }
 
-                                SCAValue = contArea.getValue(y, x);
+                                SCAValue = getContArea(y, x);
                                 if (SCAValue >= SCAThreshold) {
                                     //find the inflowing cell with the largest contributing area (ICLCA)
                                     maxSCA = -99999;
                                     ICLCA = 8;
                                     for (i = 0; i < 8; i++) {
-                                        b = x + dX[i];
-                                        c = y + dY[i];
-                                        if (pointer.getValue(c, b) == inflowingVals[i]) {
-                                            z = contArea.getValue(c, b);
+                                        if (basins.isInflowingNeighbour(y, x, i)) {
+                                            z = getContArea(y + dY[i], x + dX[i]);
                                             if (z > maxSCA) {
                                                 maxSCA = z;
                                                 ICLCA = i;
@@ -291,21 +279,21 @@ public class Isobasin implements WhiteboxPlugin {
                                     b = x + dX[ICLCA];
                                     c = y + dY[ICLCA];
 
-                                    if (contArea.getValue(c, b) > SCAThreshold) {
+                                    if (getContArea(c, b) > SCAThreshold) {
                                         // We will need to solve the flow-path containing the ICLCA first
                                         flag = true;
                                     } else {
                                         // see which is closer to the CAthreshold, the ICLCA or CAImage(c,d)
-                                        d1 = Math.abs(contArea.getValue(c, b) - SCAThreshold);
-                                        d2 = Math.abs(contArea.getValue(y, x) - SCAThreshold);
+                                        d1 = Math.abs(getContArea(c, b) - SCAThreshold);
+                                        d2 = Math.abs(getContArea(y, x) - SCAThreshold);
                                         if (d1 < d2) {
                                             // the ICLCA is closer, drop a seed point there.
-                                            output.setValue(c, b, outletID);
-                                            decrementFlowpath(c, b, contArea.getValue(c, b));
+                                            basins.setSeed(c, b, outletID);
+                                            decrementFlowpath(c, b, getContArea(c, b));
                                         } else {
                                             // the current cell is closer, drop a seed point here.
-                                            output.setValue(y, x, outletID);
-                                            decrementFlowpath(y, x, contArea.getValue(y, x));
+                                            basins.setSeed(y, x, outletID);
+                                            decrementFlowpath(y, x, getContArea(y, x));
                                         }
                                         outletID++;
                                     }
@@ -314,8 +302,6 @@ public class Isobasin implements WhiteboxPlugin {
                                 }
                             } while (!flag);
                         }
-                    } else {
-                        output.setValue(row, col, noData);
                     }
                 }
                 if (cancelOp) {
@@ -326,70 +312,25 @@ public class Isobasin implements WhiteboxPlugin {
                 updateProgress("Loop 1 of 2:", (int) progress);
             }
 
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    if (output.getValue(row, col) == -999 && pointer.getValue(row, col) != noData) {
-                        flag = false;
-                        x = col;
-                        y = row;
-                        do {
-                            // find it's downslope neighbour
-                            flowDir = pointer.getValue(y, x);
-                            if (flowDir > 0) {
-                                //move x and y accordingly
-                                c = (int) (Math.log(flowDir) / LnOf2);
-                                x += dX[c];
-                                y += dY[c];
-                                //if the new cell already has a value in the output, use that as the outletID
-                                z = output.getValue(y, x);
-                                if (z != -999) {
-                                    outletID = z;
-                                    flag = true;
-                                }
-                            } else {
-                                outletID = noData;
-                                flag = true;
-                            }
-                        } while (!flag);
-
-                        flag = false;
-                        x = col;
-                        y = row;
-                        output.setValue(y, x, outletID);
-                        do {
-                            // find it's downslope neighbour
-                            flowDir = pointer.getValue(y, x);
-                            if (flowDir > 0) {
-                                c = (int) (Math.log(flowDir) / LnOf2);
-                                x += dX[c];
-                                y += dY[c];
-                                z = output.getValue(y, x);
-                                if (z != -999) {
-                                    flag = true;
-                                }
-                            } else {
-                                flag = true;
-                            }
-                            output.setValue(y, x, outletID);
-                        } while (!flag);
-                    } else if (pointer.getValue(row, col) == noData) {
-                        output.setValue(row, col, noData);
-                    }
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
-                }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress("Loop 2 of 2:", (int) progress);
+            updateProgress("Loop 2 of 2:", 0);
+            basins.label();
+            if (cancelOp) {
+                cancelOperation();
+                return;
             }
 
+            WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw",
+                    caHeader, WhiteboxRaster.DataType.FLOAT, noData);
+            output.setDataScale(WhiteboxRasterBase.DataScale.CATEGORICAL);
+            output.setPreferredPalette("categorical1.pal");
+            updateProgress("Loop 2 of 2:", 50);
+            basins.writeOutput(output);
+
             output.addMetadataEntry("Created by the "
                     + getDescriptiveName() + " tool.");
             output.addMetadataEntry("Created on " + new Date());
 
             pointer.close();
-            contArea.close();
             output.close();
 
             // returning a header file string displays the image.
@@ -408,28 +349,33 @@ public class Isobasin implements WhiteboxPlugin {
         }
     }
 
+    private double getContArea(int row, int col) {
+        if (row < 0 || row >= rows || col < 0 || col >= cols) {
+            return noDataContArea;
+        }
+        return contArea[row * cols + col];
+    }
+
     private void decrementFlowpath(int row, int col, double decrementValue) {
         int x, y, i;
-        double flowDir, z;
         boolean flag = false;
 
         x = col;
         y = row;
         do {
-            z = contArea.getValue(y, x);
-            contArea.setValue(y, x, z - decrementValue);
+            contArea[y * cols + x] -= decrementValue;
             // find it's downslope neighbour
-            flowDir = pointer.getValue(y, x);
-            if (flowDir > 0) {
+            i = basins.getFlowDirection(y, x);
+            if (i >= 0) {
                 // move x and y accordingly
-                i = (int) (Math.log(flowDir) / LnOf2);
                 x += dX[i];
                 y += dY[i];
+                if (y < 0 || y >= rows || x < 0 || x >= cols) {
+                    flag = true;
+                }
             } else {
-//                z = contArea.getValue(y, x);
-//                contArea.setValue(y, x, z - decrementValue);
                 flag = true;
             }
         } while (!flag);
     }
-}
\ No newline at end of file
+}
@@ -17,6 +17,7 @@
 package plugins;
 
 import java.util.Date;
+import whitebox.algorithms.BasinLabeller;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -30,8 +31,6 @@ public class StrahlerOrderBasins implements WhiteboxPlugin {
     private WhiteboxPluginHost myHost = null;
     private String[] args;
     
-    // Constants
-    private static final double LnOf2 = 0.693147180559945;
     /**
      * Used to retrieve the plugin tool's name. This is a short, unique name containing no spaces.
      * @return String containing plugin name.
@@ -163,14 +162,11 @@ public class StrahlerOrderBasins implements WhiteboxPlugin {
         String outputHeader = null;
         int row, col, x, y;
         float progress = 0;
-        double z;
         int i, c;
         int d, x2, y2;
         int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
         int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
-        double[] inflowingVals = new double[]{16, 32, 64, 128, 1, 2, 4, 8};
         boolean flag = false;
-        double flowDir = 0;
                 
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -206,6 +202,17 @@ public class StrahlerOrderBasins implements WhiteboxPlugin {
                 return;
             }
             
+            BasinLabeller basins = new BasinLabeller(pntr);
+            if (basins.getNumberOfInvalidPointers() > 0) {
+                showFeedback("An unexpected value has "
+                        + "been identified in the pointer "
+                        + "image. This tool requires a "
+                        + "pointer grid that has been "
+                        + "created using either the D8 "
+                        + "or Rho8 tools.");
+                return;
+            }
+            
             WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw", 
                     streamsHeader, WhiteboxRaster.DataType.INTEGER, 0);
             output.setPreferredPalette("spectrum.pal");
@@ -225,7 +232,7 @@ public class StrahlerOrderBasins implements WhiteboxPlugin {
                             x = col + dX[c];
                             y = row + dY[c];
                             if (streams.getValue(y, x) > 0 && 
-                                    pntr.getValue(y, x) == inflowingVals[c]) { 
+                                    basins.isInflowingNeighbour(row, col, c)) { 
                                 numNeighbouringStreamCells++; 
                             }
                         }
@@ -234,29 +241,19 @@ public class StrahlerOrderBasins implements WhiteboxPlugin {
                             x = col;
                             y = row;
                             currentOrder = 1;
-                            output.setValue(y, x, currentOrder);
+                            basins.setSeed(y, x, currentOrder);
                             flag = true;
                             do {
                                 //find the downslope neighbour
-                                flowDir = pntr.getValue(y, x);
-                                if (flowDir > 0) {
-                                    c = (int)(Math.log(flowDir) / LnOf2);
-                                    if (c > 7) {
-                                        showFeedback("An unexpected value has "
-                                                + "been identified in the pointer "
-                                                + "image. This tool requires a "
-                                                + "pointer grid that has been "
-                                                + "created using either the D8 "
-                                                + "or Rho8 tools.");
-                                        return;
-                                    }
+                                c = basins.getFlowDirection(y, x);
+                                if (c >= 0) {
                                     x += dX[c];
                                     y += dY[c];
 
                                     if (streams.getValue(y, x) <= 0) { //it's not a stream cell
                                         flag = false;
                                     } else {
-                                        currentValue = output.getValue(y, x);
+                                        currentValue = basins.getValue(y, x);
                                         if (currentValue > currentOrder) {
                                             flag = false; //run into a larger stream, end the downstream search
                                             break;
@@ -267,8 +264,8 @@ public class StrahlerOrderBasins implements WhiteboxPlugin {
                                                 x2 = x + dX[d];
                                                 y2 = y + dY[d];
                                                 if (streams.getValue(y2, x2) > 0 &&
-                                                        pntr.getValue(y2, x2) == inflowingVals[d] &&
-                                                        output.getValue(y2, x2) == currentOrder) {
+                                                        basins.isInflowingNeighbour(y, x, d) &&
+                                                        basins.getValue(y2, x2) == currentOrder) {
                                                     numNeighbouringStreamCells++;
                                                 }
                                             }
@@ -283,20 +280,18 @@ public class StrahlerOrderBasins implements WhiteboxPlugin {
                                             }
                                         }
                                         if (currentValue < currentOrder) {
-                                            output.setValue(y, x, currentOrder);
+                                            basins.setSeed(y, x, currentOrder);
                                         }
                                     }
 
                                 } else {
                                     if (streams.getValue(y, x) > 0) { //it is a valid stream cell and probably just has no downslope neighbour (e.g. at the edge of the grid)
-                                        output.setValue(y, x, output.getValue(y, x) + 1);
+                                        basins.setSeed(y, x, basins.getValue(y, x) + 1);
                                     }
                                     flag = false;
                                 }
                             } while (flag);
                         }
-                    } else {
-                        output.setValue(row, col, noData);
                     }
                 }
                 if (cancelOp) {
@@ -308,65 +303,13 @@ public class StrahlerOrderBasins implements WhiteboxPlugin {
             }
             
             updateProgress("Loop 2 of 2:", 0);
-            double streamsID = 0;
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    if (output.getValue(row, col) == noData && pntr.getValue(row, col) != noData) {
-                        flag = false;
-                        x = col;
-                        y = row;
-                        do {
-                            //find it's downslope neighbour
-                            flowDir = pntr.getValue(y, x);
-                            if (flowDir > 0) {
-                                //move x and y accordingly
-                                c = (int)(Math.log(flowDir) / LnOf2);
-                                x += dX[c];
-                                y += dY[c];
-                                //if the new cell already has a value in the output, 
-                                //use that as the StreamsID
-                                z = output.getValue(y, x);
-                                if (z != noData) {
-                                    streamsID = z;
-                                    flag = true;
-                                }
-                            } else {
-                                streamsID = noData;
-                                flag = true;
-                            }
-                        } while (!flag);
-
-                        flag = false;
-                        x = col;
-                        y = row;
-                        output.setValue(y, x, streamsID);
-                        do {
-                            //find it's downslope neighbour
-                            flowDir = pntr.getValue(y, x);
-                            if (flowDir > 0) {
-                                c = (int)(Math.log(flowDir) / LnOf2);
-                                x += dX[c];
-                                y += dY[c];
-                                z = output.getValue(y, x);
-                                if (z != noData) {
-                                    flag = true;
-                                }
-                            } else {
-                                flag = true;
-                            }
-                            output.setValue(y, x, streamsID);
-                        } while (!flag);
-                    } else if (pntr.getValue(row, col) == noData) {
-                        output.setValue(row, col, noData);
-                    }
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
-                }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress("Loop 2 of 2:", (int) progress);
+            basins.label();
+            if (cancelOp) {
+                cancelOperation();
+                return;
             }
+            updateProgress("Loop 2 of 2:", 50);
+            basins.writeOutput(output);
             
             output.addMetadataEntry("Created by the "
                     + getDescriptiveName() + " tool.");
@@ -17,6 +17,7 @@
 package plugins;
 
 import java.util.Date;
+import whitebox.algorithms.BasinLabeller;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -30,8 +31,6 @@ public class Subbasins implements WhiteboxPlugin {
     private WhiteboxPluginHost myHost = null;
     private String[] args;
     
-    // Constants
-    private static final double LnOf2 = 0.693147180559945;
     /**
      * Used to retrieve the plugin tool's name. This is a short, unique name containing no spaces.
      * @return String containing plugin name.
@@ -164,14 +163,10 @@ public class Subbasins implements WhiteboxPlugin {
         int row, col, x, y;
         float progress = 0;
         double slope;
-        double z;
         int i, c;
         int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
         int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
-        double[] inflowingVals = new double[]{16, 32, 64, 128, 1, 2, 4, 8};
         boolean flag = false;
-        double flowDir = 0;
-        double outletID = 0;
                 
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -207,6 +202,17 @@ public class Subbasins implements WhiteboxPlugin {
                 return;
             }
             
+            BasinLabeller basins = new BasinLabeller(pntr);
+            if (basins.getNumberOfInvalidPointers() > 0) {
+                showFeedback("An unexpected value has "
+                        + "been identified in the pointer "
+                        + "image. This tool requires a "
+                        + "pointer grid that has been "
+                        + "created using either the D8 "
+                        + "or Rho8 tools.");
+                return;
+            }
+            
             WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw", 
                     streamsHeader, WhiteboxRaster.DataType.INTEGER, 0);
             output.setPreferredPalette("qual.pal");
@@ -215,7 +221,6 @@ public class Subbasins implements WhiteboxPlugin {
             byte numNeighbouringStreamCells = 0;
             double currentID = 0;
             double currentValue = 0;
-            double streamsID = 0;
 
             updateProgress("Loop 1 of 2:", 0);
             for (row = 0; row < rows; row++) {
@@ -227,7 +232,7 @@ public class Subbasins implements WhiteboxPlugin {
                             x = col + dX[c];
                             y = row + dY[c];
                             if (streams.getValue(y, x) > 0 && 
-                                    pntr.getValue(y, x) == inflowingVals[c]) { 
+                                    basins.isInflowingNeighbour(row, col, c)) { 
                                 numNeighbouringStreamCells++; 
                             }
                         }
@@ -236,29 +241,19 @@ public class Subbasins implements WhiteboxPlugin {
                             x = col;
                             y = row;
                             currentID++;
-                            output.setValue(y, x, currentID);
+                            basins.setSeed(y, x, currentID);
                             flag = true;
                             do {
                                 //find the downslope neighbour
-                                flowDir = pntr.getValue(y, x);
-                                if (flowDir > 0) {
-                                    c = (int)(Math.log(flowDir) / LnOf2);
-                                    if (c > 7) {
-                                        showFeedback("An unexpected value has "
-                                                + "been identified in the pointer "
-                                                + "image. This tool requires a "
-                                                + "pointer grid that has been "
-                                                + "created using either the D8 "
-                                                + "or Rho8 tools.");
-                                        return;
-                                    }
+                                c = basins.getFlowDirection(y, x);
+                                if (c >= 0) {
                                     x += dX[c];
                                     y += dY[c];
 
                                     if (streams.getValue(y, x) <= 0) { //it's not a stream cell
                                         flag = false;
                                     } else {
-                                        currentValue = output.getValue(y, x);
+                                        currentValue = basins.getValue(y, x);
                                         if (currentValue > 0) {
                                             flag = false; //run into a larger stream, 
                                             //end the downstream search
@@ -270,30 +265,27 @@ public class Subbasins implements WhiteboxPlugin {
                                         for (int d = 0; d < 8; d++) {
                                             x2 = x + dX[d];
                                             y2 = y + dY[d];
-                                            if (streams.getValue(y2, x2) > 0 
-                                                    && pntr.getValue(y2, x2) == 
-                                                    inflowingVals[d]) {
+                                            if (streams.getValue(y2, x2) > 0
+                                                    && basins.isInflowingNeighbour(y, x, d)) {
                                                 numNeighbouringStreamCells++;
                                             }
                                         }
                                         if (numNeighbouringStreamCells >= 2) {
                                             currentID++;
                                         }
-                                        output.setValue(y, x, currentID);
+                                        basins.setSeed(y, x, currentID);
                                     }
 
                                 } else {
                                     if (streams.getValue(y, x) > 0) { //it is a valid 
                                         //stream cell and probably just has no downslope 
                                         //neighbour (e.g. at the edge of the grid)
-                                        output.setValue(y, x, currentID);
+                                        basins.setSeed(y, x, currentID);
                                     }
                                     flag = false;
                                 }
                             } while (flag);
                         }
-                    } else {
-                        output.setValue(row, col, noData);
                     }
                 }
                 if (cancelOp) {
@@ -305,64 +297,13 @@ public class Subbasins implements WhiteboxPlugin {
             }
 
             updateProgress("Loop 2 of 2:", 0);
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    if (output.getValue(row, col) == noData && pntr.getValue(row, col) != noData) {
-                        flag = false;
-                        x = col;
-                        y = row;
-                        do {
-                            //find it's downslope neighbour
-                            flowDir = pntr.getValue(y, x);
-                            if (flowDir > 0) {
-                                //move x and y accordingly
-                                c = (int)(Math.log(flowDir) / LnOf2);
-                                x += dX[c];
-                                y += dY[c];
-                                //if the new cell already has a value in the output, 
-                                //use that as the StreamsID
-                                z = output.getValue(y, x);
-                                if (z != noData) {
-                                    streamsID = z;
-                                    flag = true;
-                                }
-                            } else {
-                                streamsID = noData;
-                                flag = true;
-                            }
-                        } while (!flag);
-
-                        flag = false;
-                        x = col;
-                        y = row;
-                        output.setValue(y, x, streamsID);
-                        do {
-                            //find it's downslope neighbour
-                            flowDir = pntr.getValue(y, x);
-                            if (flowDir > 0) {
-                                c = (int)(Math.log(flowDir) / LnOf2);
-                                x += dX[c];
-                                y += dY[c];
-                                z = output.getValue(y, x);
-                                if (z != noData) {
-                                    flag = true;
-                                }
-                            } else {
-                                flag = true;
-                            }
-                            output.setValue(y, x, streamsID);
-                        } while (!flag);
-                    } else if (pntr.getValue(row, col) == noData) {
-                        output.setValue(row, col, noData);
-                    }
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
-                }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress("Loop 2 of 2:", (int) progress);
+            basins.label();
+            if (cancelOp) {
+                cancelOperation();
+                return;
             }
+            updateProgress("Loop 2 of 2:", 50);
+            basins.writeOutput(output);
             
             output.addMetadataEntry("Created by the "
                     + getDescriptiveName() + " tool.");
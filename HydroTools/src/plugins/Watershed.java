@@ -18,6 +18,7 @@ package plugins;
 
 import java.util.ArrayList;
 import java.util.Date;
+import whitebox.algorithms.BasinLabeller;
 import whitebox.geospatialfiles.ShapeFile;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.geospatialfiles.WhiteboxRasterBase;
@@ -46,8 +47,6 @@ public class Watershed implements WhiteboxPlugin {
 
     private WhiteboxPluginHost myHost = null;
     private String[] args;
-    // Constants
-    private static final double LnOf2 = 0.693147180559945;
 
     /**
      * Used to retrieve the plugin tool's name. This is a short, unique name
@@ -206,15 +205,7 @@ public class Watershed implements WhiteboxPlugin {
         String inputHeader = null;
         String outputHeader = null;
         String outletHeader = null;
-        int row, col, x, y;
-        float progress = 0;
-        double z;
-        int i, c;
-        int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
-        int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
-        boolean flag = false;
-        double flowDir = 0;
-        double outletID = 0;
+        int row, col;
 
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -232,14 +223,15 @@ public class Watershed implements WhiteboxPlugin {
         }
 
         try {
-            WhiteboxRaster outlet;
             WhiteboxRaster pntr = new WhiteboxRaster(inputHeader, "r");
             int rows = pntr.getNumberRows();
             int cols = pntr.getNumberColumns();
-            double noData = pntr.getNoDataValue();
+
+            updateProgress("Reading pointer grid:", 0);
+            BasinLabeller basins = new BasinLabeller(pntr);
 
             if (outletHeader.toLowerCase().endsWith(".shp")) {
-                // Find all of the viewing stations.
+                // Find all of the outlets.
                 ArrayList<Double> outletXs = new ArrayList<>();
                 ArrayList<Double> outletYs = new ArrayList<>();
 
@@ -300,124 +292,50 @@ public class Watershed implements WhiteboxPlugin {
                     }
                 }
 
-                outlet = new WhiteboxRaster(outletHeader.replace(".shp", ".dep"), "rw",
-                    inputHeader, WhiteboxRaster.DataType.FLOAT, 0);
-                outlet.isTemporaryFile = true;
-                
                 int numOutlets = outletXs.size();
-                double outletX, outletY;
-                int outletCol, outletRow;
-                int outletNum = 1;
                 for (int a = 0; a < numOutlets; a++) {
-                    outletX = outletXs.get(a);
-                    outletY = outletYs.get(a);
-                    
-                    outletRow = outlet.getRowFromYCoordinate(outletY);
-                    outletCol = outlet.getColumnFromXCoordinate(outletX);
-                    
-                    outlet.setValue(outletRow, outletCol, outletNum);
-                    outletNum++;
+                    row = pntr.getRowFromYCoordinate(outletYs.get(a));
+                    col = pntr.getColumnFromXCoordinate(outletXs.get(a));
+                    basins.setSeed(row, col, a + 1);
                 }
                 
-                
-                
             } else if (outletHeader.toLowerCase().endsWith(".dep")) {
-                outlet = new WhiteboxRaster(outletHeader, "r");
+                WhiteboxRaster outlet = new WhiteboxRaster(outletHeader, "r");
 
                 if (outlet.getNumberRows() != rows || outlet.getNumberColumns() != cols) {
                     showFeedback("The input images must be of the same dimensions.");
                     return;
                 }
+                basins.setSeeds(outlet, 0);
+                outlet.close();
             } else {
                 showFeedback("Unrecognized input outlets file type.");
                 return;
             }
+            if (cancelOp) {
+                cancelOperation();
+                return;
+            }
+
+            updateProgress("Labelling watersheds:", 50);
+            basins.label();
+            if (cancelOp) {
+                cancelOperation();
+                return;
+            }
 
             WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw",
                     inputHeader, WhiteboxRaster.DataType.FLOAT, -999);
             output.setDataScale(WhiteboxRasterBase.DataScale.CATEGORICAL);
             output.setPreferredPalette("categorical1.pal");
-            
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    z = outlet.getValue(row, col);
-                    if (z != 0 && z != noData) {
-                        output.setValue(row, col, z);
-                    }
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
-                }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress("Loop 1 of 2:", (int) progress);
-            }
-
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    if (output.getValue(row, col) == -999 && pntr.getValue(row, col) != noData) {
-                        flag = false;
-                        x = col;
-                        y = row;
-                        do {
-                            // find it's downslope neighbour
-                            flowDir = pntr.getValue(y, x);
-                            if (flowDir > 0) {
-                                //move x and y accordingly
-                                c = (int) (Math.log(flowDir) / LnOf2);
-                                x += dX[c];
-                                y += dY[c];
-                                //if the new cell already has a value in the output, use that as the outletID
-                                z = output.getValue(y, x);
-                                if (z != -999) {
-                                    outletID = z;
-                                    flag = true;
-                                }
-                            } else {
-                                outletID = noData;
-                                flag = true;
-                            }
-                        } while (!flag);
-
-                        flag = false;
-                        x = col;
-                        y = row;
-                        output.setValue(y, x, outletID);
-                        do {
-                            // find it's downslope neighbour
-                            flowDir = pntr.getValue(y, x);
-                            if (flowDir > 0) {
-                                c = (int) (Math.log(flowDir) / LnOf2);
-                                x += dX[c];
-                                y += dY[c];
-                                z = output.getValue(y, x);
-                                if (z != -999) {
-                                    flag = true;
-                                }
-                            } else {
-                                flag = true;
-                            }
-                            output.setValue(y, x, outletID);
-                        } while (!flag);
-                    } else if (pntr.getValue(row, col) == noData) {
-                        output.setValue(row, col, noData);
-                    }
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
-                }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress("Loop 2 of 2:", (int) progress);
-            }
-
+            updateProgress("Saving data:", 75);
+            basins.writeOutput(output);
 
             output.addMetadataEntry("Created by the "
                     + getDescriptiveName() + " tool.");
             output.addMetadataEntry("Created on " + new Date());
 
             pntr.close();
-            outlet.close();
             output.close();
 
             // returning a header file string displays the image.
@@ -17,6 +17,7 @@
 package plugins;
 
 import java.util.Date;
+import whitebox.algorithms.FocalFilter;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -157,23 +158,15 @@ public class FilterGaussian implements WhiteboxPlugin {
         
         String inputHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
-        double z;
+        int row, x;
         float progress = 0;
-        int a;
         int filterSize = 3;
-        double n;
-        double sum;
-        int[] dX;
-        int[] dY;
         double[] weights;
         int midPoint;
-        int numPixelsInFilter;
         boolean reflectAtBorders = false;
         double sigmaD = 0;
         double recipRoot2PiTimesSigmaD;
         double twoSigmaSqrD;
-        double zN, zFinal;
     
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -236,52 +229,29 @@ public class FilterGaussian implements WhiteboxPlugin {
 
             if (filterSize < 3) { filterSize = 3; }
 
-            numPixelsInFilter = filterSize * filterSize;
-            dX = new int[numPixelsInFilter];
-            dY = new int[numPixelsInFilter];
-            weights = new double[numPixelsInFilter];
-            
-            //fill the filter DX and DY values and the distance-weights
-            midPoint = (int)Math.floor(filterSize / 2) + 1;
-            a = 0;
-            for (row = 0; row < filterSize; row++) {
-                for (col = 0; col < filterSize; col++) {
-                    x = col - midPoint;
-                    y = row - midPoint;
-                    dX[a] = x;
-                    dY[a] = y;
-                    weight = recipRoot2PiTimesSigmaD * Math.exp(-1 * (x * x + y * y) / twoSigmaSqrD);
-                    weights[a] = weight;
-                    a++;
-                }
+            // the Gaussian is separable, so the filter is applied as a row
+            // kernel followed by a column kernel centred on the middle pixel.
+            midPoint = filterSize / 2;
+            weights = new double[filterSize];
+            for (int i = 0; i < filterSize; i++) {
+                x = i - midPoint;
+                weights[i] = recipRoot2PiTimesSigmaD * Math.exp(-1 * (x * x) / twoSigmaSqrD);
             }
             
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    z = inputFile.getValue(row, col);
-                    if (z != noData) {
-                        sum = 0;
-                        zFinal = 0;
-                        for (a = 0; a < numPixelsInFilter; a++) {
-                            x = col + dX[a];
-                            y = row + dY[a];
-                            zN = inputFile.getValue(y, x);
-                            if (zN != noData) {
-                                sum += weights[a];
-                                zFinal += weights[a] * zN;
-                            }
-                        }
-                        outputFile.setValue(row, col, zFinal / sum);
-                    } else {
-                        outputFile.setValue(row, col, noData);
-                    }
-
+            FocalFilter filter = new FocalFilter(inputFile, weights, weights, 
+                    reflectAtBorders);
+            int batchSize = filter.getBatchSize();
+            for (row = 0; row < rows; row += batchSize) {
+                int endRow = Math.min(rows, row + batchSize);
+                double[][] data = filter.filter(FocalFilter.Statistic.WEIGHTED_MEAN, row, endRow);
+                for (int r = row; r < endRow; r++) {
+                    outputFile.setRowValues(r, data[r - row]);
                 }
                 if (cancelOp) {
                     cancelOperation();
                     return;
                 }
-                progress = (float) (100f * row / (rows - 1));
+                progress = (float) (100f * endRow / rows);
                 updateProgress((int) progress);
             }
 
@@ -17,6 +17,7 @@
 package plugins;
 
 import java.util.Date;
+import whitebox.algorithms.FocalFilter;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -157,21 +158,11 @@ public class FilterMean implements WhiteboxPlugin {
         
         String inputHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
-        double z;
+        int row;
         float progress = 0;
-        int a;
         int filterSizeX = 3;
         int filterSizeY = 3;
-        double n;
-        double sum;
-        int[] dX;
-        int[] dY;
-        int midPointX;
-        int midPointY;
-        int numPixelsInFilter;
         boolean filterRounded = false;
-        double[] filterShape;
         boolean reflectAtBorders = false;
     
         if (args.length <= 0) {
@@ -225,76 +216,20 @@ public class FilterMean implements WhiteboxPlugin {
                 filterSizeY++;
             }
 
-            numPixelsInFilter = filterSizeX * filterSizeY;
-            dX = new int[numPixelsInFilter];
-            dY = new int[numPixelsInFilter];
-            filterShape = new double[numPixelsInFilter];
-
-            //fill the filter DX and DY values
-            midPointX = (int)Math.floor(filterSizeX / 2);
-            midPointY = (int)Math.floor(filterSizeY / 2);
-            if (!filterRounded) {
-                a = 0;
-                for (row = 0; row < filterSizeY; row++) {
-                    for (col = 0; col < filterSizeX; col++) {
-                        dX[a] = col - midPointX;
-                        dY[a] = row - midPointY;
-                        filterShape[a] = 1;
-                        a++;
-                     }
-                }
-            } else {
-                //see which pixels in the filter lie within the largest ellipse 
-                //that fits in the filter box 
-                double aSqr = midPointX * midPointX;
-                double bSqr = midPointY * midPointY;
-                a = 0;
-                for (row = 0; row < filterSizeY; row++) {
-                    for (col = 0; col < filterSizeX; col++) {
-                        dX[a] = col - midPointX;
-                        dY[a] = row - midPointY;
-                        z = (dX[a] * dX[a]) / aSqr + (dY[a] * dY[a]) / bSqr;
-                        if (z > 1) {
-                            filterShape[a] = 0;
-                        } else {
-                            filterShape[a] = 1;
-                        }
-                        a++;
-                    }
-                }
-            }
-            
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    z = inputFile.getValue(row, col);
-                    if (z != noData) {
-                        n = 0;
-                        sum = 0;
-                        for (a = 0; a < numPixelsInFilter; a++) {
-                            x = col + dX[a];
-                            y = row + dY[a];
-                            z = inputFile.getValue(y, x);
-                            if (z != noData) {
-                                n += filterShape[a];
-                                sum += z * filterShape[a];
-                            }
-                        }
-                        
-                        if (n > 0) {
-                            outputFile.setValue(row, col, sum / n);
-                        } else {
-                            outputFile.setValue(row, col, noData);
-                        }       
-                    } else {
-                        outputFile.setValue(row, col, noData);
-                    }
-
+            FocalFilter filter = new FocalFilter(inputFile, filterSizeX, 
+                    filterSizeY, filterRounded, reflectAtBorders);
+            int batchSize = filter.getBatchSize();
+            for (row = 0; row < rows; row += batchSize) {
+                int endRow = Math.min(rows, row + batchSize);
+                double[][] data = filter.filter(FocalFilter.Statistic.MEAN, row, endRow);
+                for (int r = row; r < endRow; r++) {
+                    outputFile.setRowValues(r, data[r - row]);
                 }
                 if (cancelOp) {
                     cancelOperation();
                     return;
                 }
-                progress = (float) (100f * row / (rows - 1));
+                progress = (float) (100f * endRow / rows);
                 updateProgress((int) progress);
             }
 
@@ -19,6 +19,7 @@ package plugins;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Date;
+import whitebox.algorithms.MultibandImage;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.geospatialfiles.WhiteboxRasterBase.DataScale;
 import whitebox.geospatialfiles.WhiteboxRasterInfo;
@@ -161,20 +162,13 @@ public class InversePrincipalComponentAnalysis implements WhiteboxPlugin {
         String outputName = null;
         String workingDirectory = null;
         WhiteboxRasterInfo[] components = null;
-        WhiteboxRaster ouptut = null;
+        MultibandImage image = null;
         int nCols = 0;
         int nRows = 0;
-        double z;
         int numImages = 0;
-        int numFiles, numComponents;
-        int progress = 0;
-        int col, row;
+        int numFiles;
         int a, i, j;
-        double[] imageAverages;
-        double[] imageTotals;
-        double[] imageNumPixels;
-        double[][] data;
-        double[] noDataValues;
+        double noData = 0;
         String pathSep = File.separator;
         
         if (args.length <= 0) {
@@ -196,12 +190,6 @@ public class InversePrincipalComponentAnalysis implements WhiteboxPlugin {
             numFiles = imageFiles.length;
             components = new WhiteboxRasterInfo[numFiles];
             
-            imageAverages = new double[numFiles];
-            imageTotals = new double[numFiles];
-            imageNumPixels = new double[numFiles];
-            noDataValues = new double[numFiles];
-            data = new double[numFiles][];
-            
             int[] componentNumbers = new int[numFiles];
             
             double[][] eigenvectors = null;
@@ -211,8 +199,8 @@ public class InversePrincipalComponentAnalysis implements WhiteboxPlugin {
             for (i = 0; i < numFiles; i++) {
                 boolean isComponent = false;
                 components[i] = new WhiteboxRasterInfo(imageFiles[i]);
-                noDataValues[i] = components[i].getNoDataValue();
                 if (i == 0) {
+                    noData = components[i].getNoDataValue();
                     nCols = components[i].getNumberColumns();
                     nRows = components[i].getNumberRows();
                     File file = new File(imageFiles[i]);
@@ -249,55 +237,56 @@ public class InversePrincipalComponentAnalysis implements WhiteboxPlugin {
                 }
             }
             
-            int[] componentPointers = new int[numImages];
             for (i = 0; i < numFiles; i++) {
-                componentPointers[componentNumbers[i]] = i;
+                components[i].close();
             }
             
+            // each output image is the sum of the components weighted by
+            // their eigenvector elements for that band. All of the output
+            // images are written in a single pass over the components.
+            double[][] coefficients = new double[numImages][numFiles];
             for (j = 0; j < numImages; j++) {
-                    // now set up the output image
-                    String outputHeader = workingDirectory + pathSep + outputName + (j + 1) + ".dep";
-                    if (new File(outputHeader).exists()) {
-                        (new File(outputHeader)).delete();
-                    }
-                    if (new File(outputHeader.replace(".dep", ".tas")).exists()) {
-                        (new File(outputHeader.replace(".dep", ".tas"))).delete();
-                    }
-                    WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw",
-                            imageFiles[0], WhiteboxRaster.DataType.FLOAT, 0);
-                    output.setDataScale(DataScale.CONTINUOUS);
-
-                    for (row = 0; row < nRows; row++) {
-                        for (i = 0; i < numFiles; i++) {
-                            data[i] = components[i].getRowValues(row);
-                        }
-                        for (col = 0; col < nCols; col++) {
-                            if (data[0][col] != noDataValues[0]) {
-                                z = 0;
-                                for (i = 0; i < numFiles; i++) {
-                                    z += data[i][col] * eigenvectors[componentPointers[i]][j];
-                                }
-                                output.setValue(row, col, z);
-                            } else {
-                                output.setValue(row, col, noDataValues[0]);
-                            }
-                        }
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
-                        }
-                        progress = (int) (100f * row / (nRows - 1));
-                        updateProgress("Creating image " + (j + 1) + ":", progress);
-                    }
-
-                    output.addMetadataEntry("Created by the "
-                            + getDescriptiveName() + " tool.");
-                    output.addMetadataEntry("Created on " + new Date());
-                    output.close();
+                for (i = 0; i < numFiles; i++) {
+                    coefficients[j][i] = eigenvectors[componentNumbers[i]][j];
+                }
             }
             
-            for (i = 0; i < numFiles; i++) {
-                components[i].close();
+            WhiteboxRaster[] outputs = new WhiteboxRaster[numImages];
+            for (j = 0; j < numImages; j++) {
+                // now set up the output image
+                String outputHeader = workingDirectory + pathSep + outputName + (j + 1) + ".dep";
+                if (new File(outputHeader).exists()) {
+                    (new File(outputHeader)).delete();
+                }
+                if (new File(outputHeader.replace(".dep", ".tas")).exists()) {
+                    (new File(outputHeader.replace(".dep", ".tas"))).delete();
+                }
+                outputs[j] = new WhiteboxRaster(outputHeader, "rw",
+                        imageFiles[0], WhiteboxRaster.DataType.FLOAT, 0);
+                outputs[j].setDataScale(DataScale.CONTINUOUS);
+            }
+            
+            updateProgress("Reading components:", 0);
+            image = new MultibandImage(imageFiles);
+            boolean completed = image.writeLinearCombinations(coefficients, outputs, noData,
+                    new MultibandImage.ProgressListener() {
+                @Override
+                public boolean progress(int progress) {
+                    updateProgress("Creating images:", progress);
+                    return !cancelOp;
+                }
+            });
+            image.close();
+            
+            for (WhiteboxRaster output : outputs) {
+                output.addMetadataEntry("Created by the "
+                        + getDescriptiveName() + " tool.");
+                output.addMetadataEntry("Created on " + new Date());
+                output.close();
+            }
+            if (!completed) {
+                cancelOperation();
+                return;
             }
             
             String outputHeader = workingDirectory + pathSep + outputName + "1.dep";
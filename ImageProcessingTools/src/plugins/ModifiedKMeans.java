@@ -18,8 +18,11 @@ package plugins;
 
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.Random;
+import whitebox.algorithms.MultibandImage;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.geospatialfiles.WhiteboxRasterBase.DataScale;
 import whitebox.geospatialfiles.WhiteboxRasterInfo;
@@ -160,17 +163,13 @@ public class ModifiedKMeans implements WhiteboxPlugin {
         String inputFilesString = null;
         String[] imageFiles = null;
         String outputHeader = null;
-        WhiteboxRasterInfo[] images = null;
-        WhiteboxRaster ouptut = null;
+        MultibandImage image = null;
         int nCols = 0;
         int nRows = 0;
-        double z;
         int numClasses = 0;
         int numImages;
-        int progress = 0;
         int col, row;
         int a, i, j;
-        double[][] data;
         double noData = -32768;
         double[][] classCentres = null;
         double[] classCentre;
@@ -178,21 +177,17 @@ public class ModifiedKMeans implements WhiteboxPlugin {
         double[][] imageMetaData;
         long[] numPixelsInEachClass;
         int maxIterations = 100;
-        double dist, minDist;
-        int whichClass;
+        double dist;
         //double minAdjustment = 10;
         byte initializationMode = 0; // maximum dispersion along diagonal
         long numPixelsChanged = 0;
         long totalNumCells = 0;
-        boolean totalNumCellsCounted = false;
         double percentChanged = 0;
         double percentChangedThreshold = 1.0;
         double centroidMergeDist = 30;
         int minimumAllowableClassSize = 1;
         int initialNumClasses = 10000;
         double maxDist = Double.POSITIVE_INFINITY;
-        int unassignedClass = -1;
-        boolean isNoDataPixel;
 
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -224,38 +219,36 @@ public class ModifiedKMeans implements WhiteboxPlugin {
             // deal with the input images
             imageFiles = inputFilesString.split(";");
             numImages = imageFiles.length;
-            images = new WhiteboxRasterInfo[numImages];
+            WhiteboxRasterInfo first = new WhiteboxRasterInfo(imageFiles[0]);
+            nCols = first.getNumberColumns();
+            nRows = first.getNumberRows();
+            noData = first.getNoDataValue();
+            first.close();
+            for (i = 1; i < numImages; i++) {
+                WhiteboxRasterInfo info = new WhiteboxRasterInfo(imageFiles[i]);
+                boolean sameDimensions = info.getNumberColumns() == nCols
+                        && info.getNumberRows() == nRows;
+                info.close();
+                if (!sameDimensions) {
+                    showFeedback("All input images must have the same dimensions (rows and columns).");
+                    return;
+                }
+            }
+            
+            // the bands are read once, into memory if they fit, and each
+            // iteration is a single pass over the pixel-interleaved data.
+            updateProgress("Reading images:", 0);
+            image = new MultibandImage(imageFiles);
             imageMetaData = new double[numImages][3];
             for (i = 0; i < numImages; i++) {
-                images[i] = new WhiteboxRasterInfo(imageFiles[i]);
-                if (i == 0) {
-                    nCols = images[i].getNumberColumns();
-                    nRows = images[i].getNumberRows();
-                    noData = images[i].getNoDataValue();
-                } else {
-                    if (images[i].getNumberColumns() != nCols
-                            || images[i].getNumberRows() != nRows) {
-                        showFeedback("All input images must have the same dimensions (rows and columns).");
-                        return;
-                    }
-                }
-                imageMetaData[i][0] = images[i].getNoDataValue();
-                imageMetaData[i][1] = images[i].getMinimumValue();
-                imageMetaData[i][2] = images[i].getMaximumValue();
-
+                imageMetaData[i][0] = image.getBand(i).getNoDataValue();
+                imageMetaData[i][1] = image.getBand(i).getMinimumValue();
+                imageMetaData[i][2] = image.getBand(i).getMaximumValue();
             }
 
             numClasses = initialNumClasses;
-            
-            data = new double[numImages][];
             numPixelsInEachClass = new long[numImages];
 
-            // now set up the output image
-            WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw",
-                    imageFiles[0], WhiteboxRaster.DataType.INTEGER, noData);
-            output.setDataScale(DataScale.CATEGORICAL);
-            output.setPreferredPalette("qual.pal");
-
             // initialize the class centres either along the diagonal or randomly
             if (initializationMode == 1) {
                 Random generator = new Random();
@@ -281,8 +274,15 @@ public class ModifiedKMeans implements WhiteboxPlugin {
                 }
             }
 
+            // the class of each pixel, in row-major order. 
+            int[] classes = new int[nRows * nCols];
+            Arrays.fill(classes, (int) noData);
+            double[] minValues = new double[numImages];
+            for (i = 0; i < numImages; i++) {
+                minValues[i] = imageMetaData[i][1];
+            }
+            
             j = 0;
-            whichClass = 0;
             do {
                 if (j > 0) {
                     numClasses = classCentres.length; //centres.size();
@@ -390,72 +390,22 @@ public class ModifiedKMeans implements WhiteboxPlugin {
                 
                 j++;
                 // assign each pixel to a class
-                updateProgress("Loop " + j, 1);
-                double[][] classCentreData = new double[numClasses][numImages];
-                numPixelsInEachClass = new long[numClasses];
-
-                numPixelsChanged = 0;
+                updateProgress("Loop " + j, (int) (100f * (j - 1) / maxIterations));
+                List<ClassTotals> passResults = image.process(
+                        new ClassAssignment(classCentres, minValues, maxDist, classes));
+                ClassTotals totals = passResults.get(0);
+                for (int k = 1; k < passResults.size(); k++) {
+                    totals.add(passResults.get(k));
+                }
+                double[][] classCentreData = totals.sums;
+                numPixelsInEachClass = totals.numPixels;
+                numPixelsChanged = totals.numChanged;
+                totalNumCells = totals.numValid;
                 
-                for (row = 0; row < nRows; row++) {
-                    for (i = 0; i < numImages; i++) {
-                        data[i] = images[i].getRowValues(row);
-                    }
-                    for (col = 0; col < nCols; col++) {
-                        // check to see if the cell is a nodata value in any of the input images
-                        isNoDataPixel = false;
-                        for (i = 0; i < numImages; i++) {
-                            if (data[i][col] == imageMetaData[i][0]) { 
-                                isNoDataPixel = true; 
-                                break;
-                            }
-                        }
-                        if (!isNoDataPixel) {
-                            if (!totalNumCellsCounted) {
-                                totalNumCells++;
-                            }
-                            // calculate the squared distance to each of the centroids
-                            // and assign the pixel the value of the nearest centroid.
-                            minDist = Double.POSITIVE_INFINITY;
-                            whichClass = unassignedClass;
-                            for (a = 0; a < numClasses; a++) {
-                                dist = 0;
-                                for (i = 0; i < numImages; i++) {
-                                    dist += (data[i][col] - classCentres[a][i]) * (data[i][col] - classCentres[a][i]);
-                                }
-                                if (dist < minDist && dist <= maxDist) {
-                                    minDist = dist;
-                                    whichClass = a;
-                                }
-                            }
-                            // See if the assigned class has changed and if it has add it to the total changed cells.
-                            // This is a criterion for stopping.
-                            z = output.getValue(row, col);
-                            if ((int)z != whichClass) {
-                                numPixelsChanged++;
-                                
-                                // Assign the output pixel the class value
-                                output.setValue(row, col, whichClass);
-                            }
-                            if (whichClass != unassignedClass) {
-                                numPixelsInEachClass[whichClass]++;
-
-                                for (i = 0; i < numImages; i++) {
-                                    classCentreData[whichClass][i] += (data[i][col] - imageMetaData[i][1]);
-                                }
-                            }
-                            
-                        } else {
-                            output.setValue(row, col, noData);
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress = (int) (100f * row / (nRows - 1));
-                    updateProgress("Loop " + j, progress);
+                if (cancelOp) {
+                    cancelOperation();
+                    return;
                 }
-                totalNumCellsCounted = true;
 
                 // Update the class centroids
                 for (a = 0; a < numClasses; a++) {
@@ -478,39 +428,30 @@ public class ModifiedKMeans implements WhiteboxPlugin {
             // prepare the report
             double[] totalDeviations = new double[numClasses];
             int numberOfUnassignedPixels = 0;
-            for (row = 0; row < nRows; row++) {
-                for (i = 0; i < numImages; i++) {
-                    data[i] = images[i].getRowValues(row);
+            for (double[] deviations : image.process(new ClassDeviations(classCentres, numImages, classes))) {
+                for (a = 0; a < numClasses; a++) {
+                    totalDeviations[a] += deviations[a];
                 }
+                numberOfUnassignedPixels += (int) deviations[numClasses];
+            }
+            
+            // write the output image
+            WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw",
+                    imageFiles[0], WhiteboxRaster.DataType.INTEGER, noData);
+            output.setDataScale(DataScale.CATEGORICAL);
+            output.setPreferredPalette("qual.pal");
+            double[] outputData = new double[nCols];
+            for (row = 0; row < nRows; row++) {
                 for (col = 0; col < nCols; col++) {
-                    isNoDataPixel = false;
-                    for (i = 0; i < numImages; i++) {
-                        if (data[i][col] == imageMetaData[i][0]) {
-                            isNoDataPixel = true;
-                            break;
-                        }
-                    }
-                    if (!isNoDataPixel) {
-                        whichClass = (int) (output.getValue(row, col));
-                        if (whichClass != unassignedClass) {
-                            dist = 0;
-                            for (i = 0; i < numImages; i++) {
-                                dist += (data[i][col] - classCentres[whichClass][i]) * (data[i][col] - classCentres[whichClass][i]);
-                            }
-                            totalDeviations[whichClass] += dist;
-                        } else {
-                            numberOfUnassignedPixels++;
-                        }
-                    } else {
-                        output.setValue(row, col, noData);
-                    }
+                    int c = classes[row * nCols + col];
+                    outputData[col] = c != NO_CLASS ? c : noData;
                 }
+                output.setRowValues(row, outputData);
                 if (cancelOp) {
                     cancelOperation();
                     return;
                 }
-                progress = (int) (100f * row / (nRows - 1));
-                updateProgress("Loop " + j, progress);
+                updateProgress("Saving output:", (int) (100f * row / (nRows - 1)));
             }
             
             double[] standardDeviations = new double[numClasses];
@@ -542,7 +483,7 @@ public class ModifiedKMeans implements WhiteboxPlugin {
             
             
             for (i = 0; i < numImages; i++) {
-                retStr += "Image" + (i + 1) + " = " + images[i].getShortHeaderFile() + "\n";
+                retStr += "Image" + (i + 1) + " = " + image.getBand(i).getShortHeaderFile() + "\n";
             }
             
             retStr += "\nCluster Centroid Distance Analysis:\n";
@@ -584,9 +525,7 @@ public class ModifiedKMeans implements WhiteboxPlugin {
             Dendrogram plot = new Dendrogram(classCentres, numPixelsInEachClass);
             returnData(plot);
             
-            for (i = 0; i < numImages; i++) {
-                images[i].close();
-            }
+            image.close();
             
             
             output.addMetadataEntry("Created by the "
@@ -609,6 +548,157 @@ public class ModifiedKMeans implements WhiteboxPlugin {
             myHost.pluginComplete();
         }
     }
+
+    // the class of a nodata pixel and of a pixel that is farther than the
+    // maximum distance from every centroid.
+    private static final int NO_CLASS = Integer.MIN_VALUE;
+    private static final int UNASSIGNED_CLASS = -1;
+
+    /**
+     * The totals accumulated by one processor during a classification pass.
+     * The sums are of the differences from the minimum value of each image.
+     */
+    private static class ClassTotals {
+
+        final double[][] sums;
+        final long[] numPixels;
+        long numChanged = 0;
+        long numValid = 0;
+
+        ClassTotals(int numClasses, int numImages) {
+            sums = new double[numClasses][numImages];
+            numPixels = new long[numClasses];
+        }
+
+        void add(ClassTotals other) {
+            for (int a = 0; a < sums.length; a++) {
+                for (int i = 0; i < sums[a].length; i++) {
+                    sums[a][i] += other.sums[a][i];
+                }
+                numPixels[a] += other.numPixels[a];
+            }
+            numChanged += other.numChanged;
+            numValid += other.numValid;
+        }
+    }
+
+    /**
+     * Assigns each pixel to the class with the nearest centroid, if it is
+     * within the maximum distance, and sums the pixels of each class.
+     */
+    private static class ClassAssignment implements MultibandImage.BlockProcessor<ClassTotals> {
+
+        private final double[][] classCentres;
+        private final double[] minValues;
+        private final double maxDist;
+        private final int[] classes;
+
+        ClassAssignment(double[][] classCentres, double[] minValues, double maxDist,
+                int[] classes) {
+            this.classCentres = classCentres;
+            this.minValues = minValues;
+            this.maxDist = maxDist;
+            this.classes = classes;
+        }
+
+        @Override
+        public ClassTotals createResult() {
+            return new ClassTotals(classCentres.length, minValues.length);
+        }
+
+        @Override
+        public void process(MultibandImage.Block block, ClassTotals totals) {
+            float[] data = block.getData();
+            int numImages = minValues.length;
+            int numPixels = block.getNumberPixels();
+            int firstPixel = block.getFirstPixel();
+            for (int p = 0; p < numPixels; p++) {
+                if (block.isNoData(p)) {
+                    classes[firstPixel + p] = NO_CLASS;
+                    continue;
+                }
+                int offset = block.getOffset() + p * numImages;
+                // calculate the squared distance to each of the centroids
+                // and assign the pixel the value of the nearest centroid.
+                double minDist = Double.POSITIVE_INFINITY;
+                int whichClass = UNASSIGNED_CLASS;
+                for (int a = 0; a < classCentres.length; a++) {
+                    double[] centre = classCentres[a];
+                    double dist = 0;
+                    for (int i = 0; i < numImages; i++) {
+                        double d = data[offset + i] - centre[i];
+                        dist += d * d;
+                    }
+                    if (dist < minDist && dist <= maxDist) {
+                        minDist = dist;
+                        whichClass = a;
+                    }
+                }
+                // See if the assigned class has changed and if it has add it 
+                // to the total changed cells. This is a criterion for stopping.
+                if (classes[firstPixel + p] != whichClass) {
+                    totals.numChanged++;
+                    classes[firstPixel + p] = whichClass;
+                }
+                totals.numValid++;
+                if (whichClass != UNASSIGNED_CLASS) {
+                    totals.numPixels[whichClass]++;
+                    double[] sum = totals.sums[whichClass];
+                    for (int i = 0; i < numImages; i++) {
+                        sum[i] += data[offset + i] - minValues[i];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sums the squared distances of the pixels of each class from the class
+     * centroid. The last element of the result counts the unassigned pixels.
+     */
+    private static class ClassDeviations implements MultibandImage.BlockProcessor<double[]> {
+
+        private final double[][] classCentres;
+        private final int numBands;
+        private final int[] classes;
+
+        ClassDeviations(double[][] classCentres, int numBands, int[] classes) {
+            this.classCentres = classCentres;
+            this.numBands = numBands;
+            this.classes = classes;
+        }
+
+        @Override
+        public double[] createResult() {
+            return new double[classCentres.length + 1];
+        }
+
+        @Override
+        public void process(MultibandImage.Block block, double[] totalDeviations) {
+            float[] data = block.getData();
+            int numImages = numBands;
+            int numPixels = block.getNumberPixels();
+            int firstPixel = block.getFirstPixel();
+            for (int p = 0; p < numPixels; p++) {
+                int whichClass = classes[firstPixel + p];
+                if (whichClass == NO_CLASS) {
+                    continue;
+                }
+                if (whichClass == UNASSIGNED_CLASS) {
+                    totalDeviations[classCentres.length]++;
+                    continue;
+                }
+                int offset = block.getOffset() + p * numImages;
+                double dist = 0;
+                for (int i = 0; i < numImages; i++) {
+                    double d = data[offset + i] - classCentres[whichClass][i];
+                    dist += d * d;
+                }
+                totalDeviations[whichClass] += dist;
+            }
+        }
+    }
+
 //    // this is only used for debugging the tool
 //    public static void main(String[] args) {
 //        ModifiedKMeans mkm = new ModifiedKMeans();
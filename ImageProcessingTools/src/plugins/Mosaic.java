@@ -16,10 +16,9 @@
  */
 package plugins;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.PrintWriter;
+import java.util.Arrays;
 import java.util.Date;
+import whitebox.algorithms.RasterResampler;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.geospatialfiles.WhiteboxRasterBase;
 import whitebox.geospatialfiles.WhiteboxRasterInfo;
@@ -158,29 +157,17 @@ public class Mosaic implements WhiteboxPlugin {
         amIActive = true;
 
         String destHeader = null;
-        WhiteboxRaster image = null;
         WhiteboxRaster destination = null;
         WhiteboxRasterInfo imageInfo = null;
         int nCols = 0;
         int nRows = 0;
-        double imageNoData = -32768;
-        double outputNoData = -32768;
+        final double outputNoData = -32768;
         int numImages;
-        double x, y, z;
-        int progress = 0;
-        int col, row;
-        int a, i;
+        int a;
         String inputFilesString = null;
         String[] imageFiles;
         String resampleMethod = "nearest neighbour";
         double north, south, east, west;
-        double gridResX, gridResY;
-        int currentFile = -1;
-        
-        String str1 = null;
-        FileWriter fw = null;
-        BufferedWriter bw = null;
-        PrintWriter out = null;
 
 
         if (args.length <= 0) {
@@ -277,161 +264,49 @@ public class Mosaic implements WhiteboxPlugin {
                     nRows, nCols, WhiteboxRasterBase.DataScale.CONTINUOUS, 
                     WhiteboxRasterBase.DataType.FLOAT, outputNoData, outputNoData);
             
-            
-            int nColsLessOne = nCols - 1;
-            int nRowsLessOne = nRows - 1;
-            
-            // these may not be exactly the same as above now.
-            gridResX = destination.getCellSizeX();
-            gridResY = destination.getCellSizeY();
-            double northernEdge = north - gridResY;
-            double westernEdge = west + gridResX;
-            if (north < south) {
-                northernEdge = north + gridResY;
-            }
 
-            if (east < west) {
-                westernEdge = west - gridResX;
+            // images later in the list are placed on top of earlier ones, so
+            // each cell takes its value from the last image with valid data
+            // there.
+            final RasterResampler resampler = new RasterResampler(destination, 
+                    RasterResampler.Method.fromString(resampleMethod));
+            WhiteboxRasterInfo[] images = new WhiteboxRasterInfo[numImages];
+            final int[] order = new int[numImages];
+            for (a = 0; a < numImages; a++) {
+                images[a] = new WhiteboxRasterInfo(imageFiles[a]);
+                order[numImages - 1 - a] = resampler.addSource(images[a]);
             }
-
-            
-            double yRange = north - south - gridResY;
-            double xRange = east - west - gridResX;
-            int sourceCol, sourceRow;
             
+            final WhiteboxRaster dest = destination;
+            boolean completed = resampler.run(new RasterResampler.StripProcessor() {
 
-            if (resampleMethod.equals("nearest neighbour")) {
-                for (a = 0; a < numImages; a++) {
-                    image = new WhiteboxRaster(imageFiles[a], "r");
-                    int startRow = destination.getRowFromYCoordinate(image.getNorth()) - 1;
-                    int endRow = destination.getRowFromYCoordinate(image.getSouth()) + 1;
-                    int startCol = destination.getColumnFromXCoordinate(image.getWest()) - 1;
-                    int endCol = destination.getColumnFromXCoordinate(image.getEast()) + 1;
-                    if (startRow < 0) { startRow = 0; }
-                    if (startCol < 0) { startCol = 0; }
-                    if (endRow > nRows - 1) { endRow = nRows - 1; }
-                    if (endCol > nCols - 1) { endCol = nCols - 1; }
-                    for (row = startRow; row <= endRow; row++) {
-                        y = northernEdge - (yRange * row) / nRowsLessOne;
-                        for (col = startCol; col <= endCol; col++) {
-                            x = westernEdge + (xRange * col) / nColsLessOne;
-                            if (isBetween(y, imageData[a][0], imageData[a][1])
-                                    && isBetween(x, imageData[a][2], imageData[a][3])) {
-                                 //what are the column and row of the image?
-                                sourceRow = (int) Math.round((imageData[a][0] - y) / imageData[a][10] * (imageData[a][4] - 0.5));
-                                sourceCol = (int) Math.round((x - imageData[a][3]) / imageData[a][9] * (imageData[a][5] - 0.5));
-                                z = image.getValue(sourceRow, sourceCol);
-                                if (z != imageData[a][8]) {
-                                    destination.setValue(row, col, z);
-                                } else {
-                                    destination.setValue(row, col, outputNoData);
-                                }
-                            }
-                        }
+                @Override
+                public void process(int startRow, double[][] output) {
+                    for (double[] row : output) {
+                        Arrays.fill(row, outputNoData);
                     }
-                    image.close();
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress = (int) (100f * (a + 1) / numImages);
-                    updateProgress(progress);
-                }
-                
-            } else {
-                if (destination.getDataType() != WhiteboxRaster.DataType.DOUBLE && 
-                        destination.getDataType() != WhiteboxRaster.DataType.FLOAT) {
-                    showFeedback("The destination image is not of an appropriate data"
-                            + " type (i.e. double or float) to perform this operation.");
-                    return;
-                }
-                double dX, dY;
-                double srcRow, srcCol; 
-                double originRow, originCol;
-                double rowN, colN;
-                double sumOfDist;
-                double[] shiftX;
-                double[] shiftY;
-                int numNeighbours = 0;
-                double[][] neighbour;
-                if (resampleMethod.equals("cubic convolution")) {
-                    shiftX = new double[]{ -1, 0, 1, 2, -1, 0, 1, 2, -1, 0, 1, 2, -1, 0, 1, 2 };
-                    shiftY = new double[]{ -1, -1, -1, -1, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2 };
-                    numNeighbours = 16;
-                    neighbour = new double[16][2];
-                } else { // resampleMethod is "bilinear"
-                    shiftX = new double[]{ 0, 1, 0, 1 };
-                    shiftY = new double[]{ 0, 0, 1, 1 };
-                    numNeighbours = 4;
-                    neighbour = new double[4][2];
+                    resampler.composite(order, startRow, output, outputNoData);
                 }
-                
-                for (a = 0; a < numImages; a++) {
-                    image = new WhiteboxRaster(imageFiles[a], "r");
-                    int startRow = destination.getRowFromYCoordinate(image.getNorth()) - 1;
-                    int endRow = destination.getRowFromYCoordinate(image.getSouth()) + 1;
-                    int startCol = destination.getColumnFromXCoordinate(image.getWest()) - 1;
-                    int endCol = destination.getColumnFromXCoordinate(image.getEast()) + 1;
-                    if (startRow < 0) { startRow = 0; }
-                    if (startCol < 0) { startCol = 0; }
-                    if (endRow > nRows - 1) { endRow = nRows - 1; }
-                    if (endCol > nCols - 1) { endCol = nCols - 1; }
-                    for (row = startRow; row <= endRow; row++) {
-                        y = northernEdge - (yRange * row) / nRowsLessOne;
-                        for (col = startCol; col <= endCol; col++) {
-                            x = westernEdge + (xRange * col) / nColsLessOne;
-                            // see if this x, y location falls within the input image
-                            if (isBetween(y, imageData[a][0], imageData[a][1])
-                                    && isBetween(x, imageData[a][2], imageData[a][3])) {
-                                imageNoData = imageData[a][8];
-                                // what are the exact col and row of the image?
-                                srcRow = (imageData[a][0] - y) / imageData[a][10] * (imageData[a][4] - 0.5);
-                                srcCol = (x - imageData[a][3]) / imageData[a][9] * (imageData[a][5] - 0.5);
-
-                                originRow = Math.floor(srcRow);
-                                originCol = Math.floor(srcCol);
-
-                                sumOfDist = 0;
-                                for (i = 0; i < numNeighbours; i++) {
-                                    rowN = originRow + shiftY[i];
-                                    colN = originCol + shiftX[i];
-                                    neighbour[i][0] = image.getValue((int) rowN, (int) colN);
-                                    dY = rowN - srcRow;
-                                    dX = colN - srcCol;
 
-                                    if ((dX + dY) != 0 && neighbour[i][0] != imageNoData) {
-                                        neighbour[i][1] = 1 / (dX * dX + dY * dY);
-                                        sumOfDist += neighbour[i][1];
-                                    } else if (neighbour[i][0] == imageNoData) {
-                                        neighbour[i][1] = 0;
-                                    } else {
-                                        destination.setValue(row, col, neighbour[0][3]);
-                                        break;
-                                    }
-
-                                }
+                @Override
+                public void write(int row, double[] values) {
+                    dest.setRowValues(row, values);
+                }
 
-                                if (sumOfDist > 0) {
-                                    z = 0;
-                                    for (i = 0; i < numNeighbours; i++) {
-                                        z += (neighbour[i][0] * neighbour[i][1]) / sumOfDist;
-                                    }
-                                    destination.setValue(row, col, z);
-                                    //break; 
-                                } else {
-                                    destination.setValue(row, col, outputNoData);
-                                }
-                            }
-                        }
-                    }
-                    image.close();
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress = (int) (100f * (a + 1) / numImages);
+                @Override
+                public boolean progress(int progress) {
                     updateProgress(progress);
+                    return !cancelOp;
                 }
+            });
+            
+            for (a = 0; a < numImages; a++) {
+                images[a].close();
+            }
+            
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
             destination.addMetadataEntry("Created by the "
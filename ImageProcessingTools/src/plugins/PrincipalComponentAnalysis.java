@@ -16,6 +16,8 @@
  */
 package plugins;
 
+import whitebox.algorithms.CovarianceAccumulator;
+import whitebox.algorithms.MultibandImage;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.geospatialfiles.WhiteboxRasterInfo;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -180,19 +182,12 @@ public class PrincipalComponentAnalysis implements WhiteboxPlugin {
         String[] imageFiles = null;
         String outputName = null;
         String workingDirectory = null;
-        WhiteboxRasterInfo[] images = null;
+        MultibandImage image = null;
         int nCols = 0;
         int nRows = 0;
-        double z;
         int numImages;
-        int progress = 0;
-        int col, row;
-        int a, i, j;
-        double[] imageAverages;
-        double[] imageTotals;
-        double[] imageNumPixels;
-        double[][] data;
-        double[] noDataValues;
+        int i, j;
+        double noData;
         String pathSep = File.separator;
         boolean standardizedPCA = false;
         int numberOfComponentImagesToCreate = 0;
@@ -219,99 +214,43 @@ public class PrincipalComponentAnalysis implements WhiteboxPlugin {
             // deal with the input images
             imageFiles = inputFilesString.split(";");
             numImages = imageFiles.length;
-            images = new WhiteboxRasterInfo[numImages];
             
-            imageAverages = new double[numImages];
-            imageTotals = new double[numImages];
-            imageNumPixels = new double[numImages];
-            noDataValues = new double[numImages];
-            data = new double[numImages][];
-            
-            for (i = 0; i < numImages; i++) {
-                images[i] = new WhiteboxRasterInfo(imageFiles[i]);
-                noDataValues[i] = images[i].getNoDataValue();
-                if (i == 0) {
-                    nCols = images[i].getNumberColumns();
-                    nRows = images[i].getNumberRows();
-                    File file = new File(imageFiles[i]);
-                    workingDirectory = file.getParent();
-                } else {
-                    if (images[i].getNumberColumns() != nCols
-                            || images[i].getNumberRows() != nRows) {
-                        showFeedback("All input images must have the same dimensions (rows and columns).");
-                        return;
-                    }
-                }
-            }
-
-            // Calculate the means
-            for (row = 0; row < nRows; row++) {
-                for (i = 0; i < numImages; i++) {
-                    data[i] = images[i].getRowValues(row);
-                }
-                for (col = 0; col < nCols; col++) {
-                    for (i = 0; i < numImages; i++) {
-                        if (data[i][col] != noDataValues[i]) {
-                            imageTotals[i] += data[i][col];
-                            imageNumPixels[i]++;
-                        }
-
-                    }
-                }
-                if (cancelOp) {
-                    cancelOperation();
+            WhiteboxRasterInfo first = new WhiteboxRasterInfo(imageFiles[0]);
+            nCols = first.getNumberColumns();
+            nRows = first.getNumberRows();
+            noData = first.getNoDataValue();
+            first.close();
+            workingDirectory = new File(imageFiles[0]).getParent();
+            for (i = 1; i < numImages; i++) {
+                WhiteboxRasterInfo info = new WhiteboxRasterInfo(imageFiles[i]);
+                boolean sameDimensions = info.getNumberColumns() == nCols
+                        && info.getNumberRows() == nRows;
+                info.close();
+                if (!sameDimensions) {
+                    showFeedback("All input images must have the same dimensions (rows and columns).");
                     return;
                 }
-                progress = (int) (100f * row / (nRows - 1));
-                updateProgress("Calculating image means:", progress);
             }
             
-            for (i = 0; i < numImages; i++) {
-                imageAverages[i] = imageTotals[i] / imageNumPixels[i];
+            // the means and covariances are accumulated together in a single
+            // pass. Pixels that are nodata in any band are excluded.
+            updateProgress("Reading images:", 0);
+            image = new MultibandImage(imageFiles);
+            updateProgress("Calculating covariances:", 0);
+            CovarianceAccumulator accumulator = CovarianceAccumulator.accumulate(image);
+            if (cancelOp) {
+                image.close();
+                cancelOperation();
+                return;
             }
-            
-            // Calculate the covariance matrix and total deviations
-            double[] imageTotalDeviation = new double[numImages];
-            double[][] covariances = new double[numImages][numImages];
-            double[][] correlationMatrix = new double[numImages][numImages];
-            for (row = 0; row < nRows; row++) {
-                for (i = 0; i < numImages; i++) {
-                    data[i] = images[i].getRowValues(row);
-                }
-                for (col = 0; col < nCols; col++) {
-                    for (i = 0; i < numImages; i++) {
-                        if (data[i][col] != noDataValues[i]) {
-                            imageTotalDeviation[i] += (data[i][col] - imageAverages[i])
-                                    * (data[i][col] - imageAverages[i]);
-                            for (a = 0; a < numImages; a++) {
-                                if (data[a][col] != noDataValues[a]) {
-                                    covariances[i][a] += (data[i][col] - imageAverages[i]) 
-                                            * (data[a][col] - imageAverages[a]);
-                                }
-                            }
-                        }
-
-                    }
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
-                }
-                progress = (int) (100f * row / (nRows - 1));
-                updateProgress("Calculating covariances:", progress);
+            if (accumulator.getCount() < 2) {
+                image.close();
+                showFeedback("The input images do not have enough valid pixels in common.");
+                return;
             }
+            double[][] covariances = accumulator.getCovariance();
+            double[][] correlationMatrix = accumulator.getCorrelation();
             
-            for (i = 0; i < numImages; i++) {
-                for (a = 0; a < numImages; a++) {
-                    correlationMatrix[i][a] = covariances[i][a] / (Math.sqrt(imageTotalDeviation[i] * imageTotalDeviation[a]));
-                }
-            }
-            
-            for (i = 0; i < numImages; i++) {
-                for (a = 0; a < numImages; a++) {
-                    covariances[i][a] = covariances[i][a] / (imageNumPixels[i] - 1);
-                }
-            }
             // Calculate the eigenvalues and eigenvectors
             Matrix cov = null;
             if (!standardizedPCA) {
@@ -377,47 +316,53 @@ public class PrincipalComponentAnalysis implements WhiteboxPlugin {
                 eigenvec += "]";
                 ret += eigenvec + "\n";
                 
-                if (j < numberOfComponentImagesToCreate) {
-                    // now set up the output image
+                j++;
+            }
+            
+            // all of the component images are written in a single pass.
+            int numOutputs = Math.min(numberOfComponentImagesToCreate, numComponents);
+            if (numOutputs > 0) {
+                WhiteboxRaster[] outputs = new WhiteboxRaster[numOutputs];
+                double[][] coefficients = new double[numOutputs][];
+                j = 0;
+                for (PrincipalComponent pc : principalComponents) {
+                    if (j == numOutputs) {
+                        break;
+                    }
                     String outputHeader = workingDirectory + pathSep + outputName + "_comp" + (j + 1) + ".dep";
-                    WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw",
+                    outputs[j] = new WhiteboxRaster(outputHeader, "rw",
                             imageFiles[0], WhiteboxRaster.DataType.FLOAT, 0);
-                    output.setDataScale(DataScale.CONTINUOUS);
-
-                    for (row = 0; row < nRows; row++) {
-                        for (i = 0; i < numImages; i++) {
-                            data[i] = images[i].getRowValues(row);
-                        }
-                        for (col = 0; col < nCols; col++) {
-                            if (data[0][col] != noDataValues[0]) {
-                                z = 0;
-                                for (i = 0; i < numImages; i++) {
-                                    z += data[i][col] * eigenvector[i];
-                                }
-                                output.setValue(row, col, z);
-                            } else {
-                                output.setValue(row, col, noDataValues[0]);
-                            }
-                        }
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
-                        }
-                        progress = (int) (100f * row / (nRows - 1));
+                    outputs[j].setDataScale(DataScale.CONTINUOUS);
+                    coefficients[j] = pc.eigenVector;
+                    j++;
+                }
+                
+                boolean completed = image.writeLinearCombinations(coefficients, outputs, noData,
+                        new MultibandImage.ProgressListener() {
+                    @Override
+                    public boolean progress(int progress) {
                         updateProgress("Creating component images:", progress);
+                        return !cancelOp;
                     }
-
+                });
+                
+                j = 0;
+                for (PrincipalComponent pc : principalComponents) {
+                    if (j == numOutputs) {
+                        break;
+                    }
+                    WhiteboxRaster output = outputs[j];
                     output.addMetadataEntry("Created by the "
                             + getDescriptiveName() + " tool.");
                     output.addMetadataEntry("Created on " + new Date());
                     output.addMetadataEntry("Principal Component Num.: " + (j + 1));
                     output.addMetadataEntry("Eigenvalue: " + pc.eigenValue);
-                    eigenvec = "[";
+                    String eigenvec = "[";
                     for (i = 0; i < numComponents; i++) {
                         if (i < numComponents - 1) {
-                            eigenvec += eigenvector[i] + ", ";
+                            eigenvec += pc.eigenVector[i] + ", ";
                         } else {
-                            eigenvec += eigenvector[i];
+                            eigenvec += pc.eigenVector[i];
                         }
                     }
                     eigenvec += "]";
@@ -428,9 +373,13 @@ public class PrincipalComponentAnalysis implements WhiteboxPlugin {
                         output.addMetadataEntry("PCA Type: standardized");
                     }
                     output.close();
+                    j++;
+                }
+                if (!completed) {
+                    image.close();
+                    cancelOperation();
+                    return;
                 }
-                
-                j++;
             }
             
             // calculate the factor loadings.
@@ -466,9 +415,7 @@ public class PrincipalComponentAnalysis implements WhiteboxPlugin {
             }
     
             
-            for (i = 0; i < numImages; i++) {
-                images[i].close();
-            }
+            image.close();
             
             returnData(ret);
             //System.out.println(ret);
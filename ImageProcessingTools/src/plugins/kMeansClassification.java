@@ -18,7 +18,9 @@ package plugins;
 
 import java.text.DecimalFormat;
 import java.util.Date;
+import java.util.List;
 import java.util.Random;
+import whitebox.algorithms.MultibandImage;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.geospatialfiles.WhiteboxRasterBase.DataScale;
 import whitebox.geospatialfiles.WhiteboxRasterInfo;
@@ -159,29 +161,22 @@ public class kMeansClassification implements WhiteboxPlugin {
         String inputFilesString = null;
         String[] imageFiles = null;
         String outputHeader = null;
-        WhiteboxRasterInfo[] images = null;
-        WhiteboxRaster ouptut = null;
+        MultibandImage image = null;
         int nCols = 0;
         int nRows = 0;
-        double z;
         int numClasses;
         int numImages;
-        int progress = 0;
         int col, row;
         int a, i, j;
-        double[][] data;
         double noData = -32768;
         double[][] classCentres;
         double[][] imageMetaData;
         long[] numPixelsInEachClass;
         int maxIterations = 100;
-        double dist, minDist;
-        int whichClass;
-        double minAdjustment = 10;
+        double dist;
         byte initializationMode = 0; // maximum dispersion along diagonal
         long numCellsChanged = 0;
         long totalNumCells = 0;
-        boolean totalNumCellsCounted = false;
         double percentChanged = 0;
         double percentChangedThreshold = 1.0;
 
@@ -206,36 +201,33 @@ public class kMeansClassification implements WhiteboxPlugin {
             // deal with the input images
             imageFiles = inputFilesString.split(";");
             numImages = imageFiles.length;
-            images = new WhiteboxRasterInfo[numImages];
+            WhiteboxRasterInfo first = new WhiteboxRasterInfo(imageFiles[0]);
+            nCols = first.getNumberColumns();
+            nRows = first.getNumberRows();
+            noData = first.getNoDataValue();
+            first.close();
+            for (i = 1; i < numImages; i++) {
+                WhiteboxRasterInfo info = new WhiteboxRasterInfo(imageFiles[i]);
+                boolean sameDimensions = info.getNumberColumns() == nCols
+                        && info.getNumberRows() == nRows;
+                info.close();
+                if (!sameDimensions) {
+                    showFeedback("All input images must have the same dimensions (rows and columns).");
+                    return;
+                }
+            }
+            
+            // the bands are read once, into memory if they fit, and each
+            // iteration is a single pass over the pixel-interleaved data.
+            updateProgress("Reading images:", 0);
+            image = new MultibandImage(imageFiles);
             imageMetaData = new double[numImages][3];
             for (i = 0; i < numImages; i++) {
-                images[i] = new WhiteboxRasterInfo(imageFiles[i]);
-                if (i == 0) {
-                    nCols = images[i].getNumberColumns();
-                    nRows = images[i].getNumberRows();
-                    noData = images[i].getNoDataValue();
-                } else {
-                    if (images[i].getNumberColumns() != nCols
-                            || images[i].getNumberRows() != nRows) {
-                        showFeedback("All input images must have the same dimensions (rows and columns).");
-                        return;
-                    }
-                }
-                imageMetaData[i][0] = images[i].getNoDataValue();
-                imageMetaData[i][1] = images[i].getMinimumValue();
-                imageMetaData[i][2] = images[i].getMaximumValue();
-
+                imageMetaData[i][0] = image.getBand(i).getNoDataValue();
+                imageMetaData[i][1] = image.getBand(i).getMinimumValue();
+                imageMetaData[i][2] = image.getBand(i).getMaximumValue();
             }
 
-            data = new double[numImages][];
-            numPixelsInEachClass = new long[numImages];
-
-            // now set up the output image
-            WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw",
-                    imageFiles[0], WhiteboxRaster.DataType.INTEGER, 0);
-            output.setDataScale(DataScale.CATEGORICAL);
-            output.setPreferredPalette("qual.pal");
-
             if (initializationMode == 1) {
                 // initialize the class centres randomly
                 Random generator = new Random();
@@ -259,72 +251,35 @@ public class kMeansClassification implements WhiteboxPlugin {
                 }
             }
 
+            // the class of each pixel, in row-major order.
+            int[] classes = new int[nRows * nCols];
+            
             j = 0;
-            whichClass = 0;
             do {
                 j++;
                 // assign each pixel to a class
-                updateProgress("Loop " + j, 1);
-                double[][] classCentreData = new double[numClasses][numImages];
-                numPixelsInEachClass = new long[numClasses];
-
-                numCellsChanged = 0;
-                for (row = 0; row < nRows; row++) {
-                    for (i = 0; i < numImages; i++) {
-                        data[i] = images[i].getRowValues(row);
-                    }
-                    for (col = 0; col < nCols; col++) {
-                        if (data[0][col] != noData) {
-                            if (!totalNumCellsCounted) {
-                                totalNumCells++;
-                            }
-                            // calculate the squared distance to each of the centroids
-                            // and assign the pixel the value of the nearest centroid.
-                            minDist = Double.POSITIVE_INFINITY;
-                            for (a = 0; a < numClasses; a++) {
-                                dist = 0;
-                                for (i = 0; i < numImages; i++) {
-                                    dist += (data[i][col] - classCentres[a][i]) * (data[i][col] - classCentres[a][i]);
-                                }
-                                if (dist < minDist) {
-                                    minDist = dist;
-                                    whichClass = a;
-                                }
-                            }
-                            z = output.getValue(row, col);
-                            if ((int)z != whichClass) {
-                                numCellsChanged++;
-                            }
-                            output.setValue(row, col, whichClass);
-
-                            numPixelsInEachClass[whichClass]++;
-                            for (i = 0; i < numImages; i++) {
-                                classCentreData[whichClass][i] += data[i][col];
-                            }
-                        } else {
-                            output.setValue(row, col, noData);
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress = (int) (100f * row / (nRows - 1));
-                    updateProgress("Loop " + j, progress);
+                updateProgress("Loop " + j, (int) (100f * (j - 1) / maxIterations));
+                List<ClassTotals> passResults = image.process(
+                        new ClassAssignment(classCentres, classes));
+                ClassTotals totals = passResults.get(0);
+                for (int k = 1; k < passResults.size(); k++) {
+                    totals.add(passResults.get(k));
+                }
+                numPixelsInEachClass = totals.numPixels;
+                numCellsChanged = totals.numChanged;
+                totalNumCells = totals.numValid;
+                
+                if (cancelOp) {
+                    cancelOperation();
+                    return;
                 }
-                totalNumCellsCounted = true;
 
                 // Update the class centroids
                 for (a = 0; a < numClasses; a++) {
                     if (numPixelsInEachClass[a] > 0) {
-                        double[] newClassCentre = new double[numImages];
-                        for (i = 0; i < numImages; i++) {
-                            newClassCentre[i] = classCentreData[a][i] / numPixelsInEachClass[a];
-                        }
                         for (i = 0; i < numImages; i++) {
-                            classCentres[a][i] = newClassCentre[i];
+                            classCentres[a][i] = totals.sums[a][i] / numPixelsInEachClass[a];
                         }
-
                     }
                 }
 
@@ -333,26 +288,29 @@ public class kMeansClassification implements WhiteboxPlugin {
 
             // prepare the report
             double[] totalDeviations = new double[numClasses];
-            for (row = 0; row < nRows; row++) {
-                for (i = 0; i < numImages; i++) {
-                    data[i] = images[i].getRowValues(row);
+            for (double[] deviations : image.process(new ClassDeviations(classCentres, classes))) {
+                for (a = 0; a < numClasses; a++) {
+                    totalDeviations[a] += deviations[a];
                 }
+            }
+            
+            // write the output image
+            WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw",
+                    imageFiles[0], WhiteboxRaster.DataType.INTEGER, 0);
+            output.setDataScale(DataScale.CATEGORICAL);
+            output.setPreferredPalette("qual.pal");
+            double[] outputData = new double[nCols];
+            for (row = 0; row < nRows; row++) {
                 for (col = 0; col < nCols; col++) {
-                    if (data[0][col] != noData) {
-                        whichClass = (int)(output.getValue(row, col));
-                        dist = 0;
-                        for (i = 0; i < numImages; i++) {
-                            dist += (data[i][col] - classCentres[whichClass][i]) * (data[i][col] - classCentres[whichClass][i]);
-                        }
-                        totalDeviations[whichClass] += dist;
-                    }
+                    int c = classes[row * nCols + col];
+                    outputData[col] = c != NO_CLASS ? c : noData;
                 }
+                output.setRowValues(row, outputData);
                 if (cancelOp) {
                     cancelOperation();
                     return;
                 }
-                progress = (int) (100f * row / (nRows - 1));
-                updateProgress("Loop " + j, progress);
+                updateProgress("Saving output:", (int) (100f * row / (nRows - 1)));
             }
             
             double[] standardDeviations = new double[numClasses];
@@ -381,7 +339,7 @@ public class kMeansClassification implements WhiteboxPlugin {
             }
             retStr += "\n";
             for (i = 0; i < numImages; i++) {
-                retStr += "Image" + (i + 1) + " = " + images[i].getShortHeaderFile() + "\n";
+                retStr += "Image" + (i + 1) + " = " + image.getBand(i).getShortHeaderFile() + "\n";
             }
             
             retStr += "\nCluster Centroid Distance Analysis:\n";
@@ -411,9 +369,7 @@ public class kMeansClassification implements WhiteboxPlugin {
             Dendrogram plot = new Dendrogram(classCentres, numPixelsInEachClass);
             returnData(plot);
             
-            for (i = 0; i < numImages; i++) {
-                images[i].close();
-            }
+            image.close();
             
             
             output.addMetadataEntry("Created by the "
@@ -436,6 +392,139 @@ public class kMeansClassification implements WhiteboxPlugin {
             myHost.pluginComplete();
         }
     }
+
+    // the class of a nodata pixel
+    private static final int NO_CLASS = Integer.MIN_VALUE;
+
+    /**
+     * The totals accumulated by one processor during a classification pass.
+     */
+    private static class ClassTotals {
+
+        final double[][] sums;
+        final long[] numPixels;
+        long numChanged = 0;
+        long numValid = 0;
+
+        ClassTotals(int numClasses, int numImages) {
+            sums = new double[numClasses][numImages];
+            numPixels = new long[numClasses];
+        }
+
+        void add(ClassTotals other) {
+            for (int a = 0; a < sums.length; a++) {
+                for (int i = 0; i < sums[a].length; i++) {
+                    sums[a][i] += other.sums[a][i];
+                }
+                numPixels[a] += other.numPixels[a];
+            }
+            numChanged += other.numChanged;
+            numValid += other.numValid;
+        }
+    }
+
+    /**
+     * Assigns each pixel to the class with the nearest centroid and sums the
+     * pixels of each class.
+     */
+    private static class ClassAssignment implements MultibandImage.BlockProcessor<ClassTotals> {
+
+        private final double[][] classCentres;
+        private final int[] classes;
+
+        ClassAssignment(double[][] classCentres, int[] classes) {
+            this.classCentres = classCentres;
+            this.classes = classes;
+        }
+
+        @Override
+        public ClassTotals createResult() {
+            return new ClassTotals(classCentres.length, classCentres[0].length);
+        }
+
+        @Override
+        public void process(MultibandImage.Block block, ClassTotals totals) {
+            float[] data = block.getData();
+            int numImages = classCentres[0].length;
+            int numPixels = block.getNumberPixels();
+            int firstPixel = block.getFirstPixel();
+            for (int p = 0; p < numPixels; p++) {
+                if (block.isNoData(p)) {
+                    classes[firstPixel + p] = NO_CLASS;
+                    continue;
+                }
+                int offset = block.getOffset() + p * numImages;
+                // calculate the squared distance to each of the centroids
+                // and assign the pixel the value of the nearest centroid.
+                double minDist = Double.POSITIVE_INFINITY;
+                int whichClass = 0;
+                for (int a = 0; a < classCentres.length; a++) {
+                    double[] centre = classCentres[a];
+                    double dist = 0;
+                    for (int i = 0; i < numImages; i++) {
+                        double d = data[offset + i] - centre[i];
+                        dist += d * d;
+                    }
+                    if (dist < minDist) {
+                        minDist = dist;
+                        whichClass = a;
+                    }
+                }
+                if (classes[firstPixel + p] != whichClass) {
+                    totals.numChanged++;
+                    classes[firstPixel + p] = whichClass;
+                }
+                totals.numValid++;
+                totals.numPixels[whichClass]++;
+                double[] sum = totals.sums[whichClass];
+                for (int i = 0; i < numImages; i++) {
+                    sum[i] += data[offset + i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Sums the squared distances of the pixels of each class from the class
+     * centroid.
+     */
+    private static class ClassDeviations implements MultibandImage.BlockProcessor<double[]> {
+
+        private final double[][] classCentres;
+        private final int[] classes;
+
+        ClassDeviations(double[][] classCentres, int[] classes) {
+            this.classCentres = classCentres;
+            this.classes = classes;
+        }
+
+        @Override
+        public double[] createResult() {
+            return new double[classCentres.length];
+        }
+
+        @Override
+        public void process(MultibandImage.Block block, double[] totalDeviations) {
+            float[] data = block.getData();
+            int numImages = classCentres[0].length;
+            int numPixels = block.getNumberPixels();
+            int firstPixel = block.getFirstPixel();
+            for (int p = 0; p < numPixels; p++) {
+                int whichClass = classes[firstPixel + p];
+                if (whichClass == NO_CLASS) {
+                    continue;
+                }
+                int offset = block.getOffset() + p * numImages;
+                double dist = 0;
+                for (int i = 0; i < numImages; i++) {
+                    double d = data[offset + i] - classCentres[whichClass][i];
+                    dist += d * d;
+                }
+                totalDeviations[whichClass] += dist;
+            }
+        }
+    }
+
 //    // this is only used for debugging the tool
 //    public static void main(String[] args) {
 //        kMeansClassification kmc = new kMeansClassification();
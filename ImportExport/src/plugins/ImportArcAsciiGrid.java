@@ -18,6 +18,7 @@ package plugins;
 
 import java.io.*;
 import java.util.Date;
+import whitebox.geospatialfiles.NumericTextReader;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.InteropPlugin;
 import whitebox.interfaces.WhiteboxPlugin;
@@ -191,7 +192,7 @@ public class ImportArcAsciiGrid implements WhiteboxPlugin, InteropPlugin {
         String arcFile = null;
         String whiteboxHeaderFile = null;
         int i = 0;
-        int row, col, rows, cols;
+        int rows, cols;
         String[] imageFiles;
         int numImages = 0;
         int progress = 0;
@@ -199,23 +200,20 @@ public class ImportArcAsciiGrid implements WhiteboxPlugin, InteropPlugin {
         double yllcenter = 0;
         double xllcorner = 0;
         double yllcorner = 0;
+        boolean isCorner = false;
         double cellsize = 0;
         double north = 0;
         double east = 0;
         double west = 0;
         double south = 0;
         double arcNoData = -9999;
-        double whiteboxNoData = -32768d;
-        double z = 0;
-        String delimiter = " ";
 
         String str1 = null;
         FileWriter fw = null;
         BufferedWriter bw = null;
         PrintWriter out = null;
 
-        DataInputStream in = null;
-        BufferedReader br = null;
+        NumericTextReader reader = null;
 
         try {
 
@@ -236,8 +234,8 @@ public class ImportArcAsciiGrid implements WhiteboxPlugin, InteropPlugin {
             numImages = imageFiles.length;
 
             for (i = 0; i < numImages; i++) {
-                progress = (int) (100f * i / (numImages - 1));
-                updateProgress("Loop " + (i + 1) + " of " + numImages + ":", progress);
+                final String label = "Loop " + (i + 1) + " of " + numImages + ":";
+                updateProgress(label, 0);
 
                 arcFile = imageFiles[i];
                 // check to see if the file exists.
@@ -256,177 +254,136 @@ public class ImportArcAsciiGrid implements WhiteboxPlugin, InteropPlugin {
                 (new File(whiteboxHeaderFile)).delete();
                 (new File(whiteboxHeaderFile.replace(".dep", ".tas"))).delete();
 
-                FileInputStream fstream = new FileInputStream(arcFile);
                 rows = 0;
                 cols = 0;
-
-                // Get the object of DataInputStream
-                in = new DataInputStream(fstream);
-
-                br = new BufferedReader(new InputStreamReader(in));
-
-                if (arcFile != null) {
-                    String line;
-                    String[] str;
-                    //Read File Line By Line, getting the header data.
-                    while ((line = br.readLine()) != null) {
-                        str = line.split(delimiter);
-                        if (str.length <= 1) {
-                            delimiter = "\t";
-                            str = line.split(delimiter);
-                            if (str.length <= 1) {
-                                delimiter = " ";
-                                str = line.split(delimiter);
-                                if (str.length <= 1) {
-                                    delimiter = ",";
-                                    str = line.split(delimiter);
-                                }
-                            }
-                        }
-                        if (str[0].toLowerCase().contains("ncols")) {
-                            cols = Integer.parseInt(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("nrows")) {
-                            rows = Integer.parseInt(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("xllcenter")) {
-                            xllcenter = Double.parseDouble(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("yllcenter")) {
-                            yllcenter = Double.parseDouble(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("xllcorner")) {
-                            xllcorner = Double.parseDouble(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("yllcorner")) {
-                            yllcorner = Double.parseDouble(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("cellsize")) {
-                            cellsize = Double.parseDouble(str[str.length - 1]);
-                            //set the North, East, South, and West coodinates
-                            if (xllcorner != 0) {
-                                east = xllcorner + cols * cellsize;
-                                west = xllcorner;
-                                south = yllcorner;
-                                north = yllcorner + rows * cellsize;
-                            } else {
-                                east = xllcenter - (0.5 * cellsize) + cols * cellsize;
-                                west = xllcenter - (0.5 * cellsize);
-                                south = yllcenter - (0.5 * cellsize);
-                                north = yllcenter - (0.5 * cellsize) + rows * cellsize;
-                            }
-                        } else if (str[0].toLowerCase().contains("nodata")) {
-                            arcNoData = Double.parseDouble(str[str.length - 1]);
-                        } else {
-                            break;
-                        }
+                isCorner = false;
+
+                reader = new NumericTextReader(arcFile);
+
+                // Read the header, which ends at the first line that does 
+                // not start with a keyword.
+                String line;
+                String[] str;
+                long lineStart = reader.getPosition();
+                while ((line = reader.readLine()) != null) {
+                    str = line.trim().split("[\\s,;]+");
+                    if (str[0].isEmpty()) {
+                        lineStart = reader.getPosition();
+                        continue;
                     }
-
-                    // create the whitebox header file.
-                    fw = new FileWriter(whiteboxHeaderFile, false);
-                    bw = new BufferedWriter(fw);
-                    out = new PrintWriter(bw, true);
-
-                    str1 = "Min:\t" + Double.toString(Integer.MAX_VALUE);
-                    out.println(str1);
-                    str1 = "Max:\t" + Double.toString(Integer.MIN_VALUE);
-                    out.println(str1);
-                    str1 = "North:\t" + Double.toString(north);
-                    out.println(str1);
-                    str1 = "South:\t" + Double.toString(south);
-                    out.println(str1);
-                    str1 = "East:\t" + Double.toString(east);
-                    out.println(str1);
-                    str1 = "West:\t" + Double.toString(west);
-                    out.println(str1);
-                    str1 = "Cols:\t" + Integer.toString(cols);
-                    out.println(str1);
-                    str1 = "Rows:\t" + Integer.toString(rows);
-                    out.println(str1);
-                    str1 = "Data Type:\t" + "float";
-                    out.println(str1);
-                    str1 = "Z Units:\t" + "not specified";
-                    out.println(str1);
-                    str1 = "XY Units:\t" + "not specified";
-                    out.println(str1);
-                    str1 = "Projection:\t" + "not specified";
-                    out.println(str1);
-                    str1 = "Data Scale:\tcontinuous";
-                    out.println(str1);
-                    str1 = "Preferred Palette:\t" + "spectrum.pal";
-                    out.println(str1);
-                    str1 = "NoData:\t-32768";
-                    out.println(str1);
-                    if (java.nio.ByteOrder.nativeOrder() == java.nio.ByteOrder.LITTLE_ENDIAN) {
-                        str1 = "Byte Order:\t" + "LITTLE_ENDIAN";
-                    } else {
-                        str1 = "Byte Order:\t" + "BIG_ENDIAN";
+                    if (!Character.isLetter(str[0].charAt(0))) {
+                        reader.seek(lineStart);
+                        break;
                     }
-                    out.println(str1);
-
-                    // Create the whitebox raster object.
-                    WhiteboxRaster wbr = new WhiteboxRaster(whiteboxHeaderFile, "rw");
-
-                    // Read File Line By Line, this time ingesting the data block
-                    // and outputing it to the whitebox raster object.
-                    delimiter = " ";
-                    row = 0;
-                    col = 0;
-                    while ((line = br.readLine()) != null) {
-                        str = line.split(delimiter);
-                        if (str.length <= 1) {
-                            delimiter = "\t";
-                            str = line.split(delimiter);
-                            if (str.length <= 1) {
-                                delimiter = " ";
-                                str = line.split(delimiter);
-                                if (str.length <= 1) {
-                                    delimiter = ",";
-                                    str = line.split(delimiter);
-                                }
-                            }
-                        }
-                        if (str[0].toLowerCase().contains("ncols")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("nrows")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("xllcenter")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("yllcenter")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("xllcorner")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("yllcorner")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("cellsize")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("nodata")) {
-                            // do nothing
-                        } else {
-                            // read the data
-                            for (i = 0; i < str.length; i++) {
-                                z = Double.parseDouble(str[i]);
-                                if (z != arcNoData) {
-                                    wbr.setValue(row, col, z);
-                                } else {
-                                    wbr.setValue(row, col, whiteboxNoData);
-                                }
-                                col++;
-                                if (col == cols) {
-                                    col = 0;
-                                    row++;
-                                }
-                            }
-                        }
+                    String key = str[0].toLowerCase();
+                    if (key.contains("ncols")) {
+                        cols = Integer.parseInt(str[str.length - 1]);
+                    } else if (key.contains("nrows")) {
+                        rows = Integer.parseInt(str[str.length - 1]);
+                    } else if (key.contains("xllcenter")) {
+                        xllcenter = Double.parseDouble(str[str.length - 1]);
+                    } else if (key.contains("yllcenter")) {
+                        yllcenter = Double.parseDouble(str[str.length - 1]);
+                    } else if (key.contains("xllcorner")) {
+                        xllcorner = Double.parseDouble(str[str.length - 1]);
+                        isCorner = true;
+                    } else if (key.contains("yllcorner")) {
+                        yllcorner = Double.parseDouble(str[str.length - 1]);
+                        isCorner = true;
+                    } else if (key.contains("cellsize")) {
+                        cellsize = Double.parseDouble(str[str.length - 1]);
+                    } else if (key.contains("nodata")) {
+                        arcNoData = Double.parseDouble(str[str.length - 1]);
                     }
+                    lineStart = reader.getPosition();
+                }
+
+                //set the North, East, South, and West coodinates
+                if (isCorner) {
+                    east = xllcorner + cols * cellsize;
+                    west = xllcorner;
+                    south = yllcorner;
+                    north = yllcorner + rows * cellsize;
+                } else {
+                    east = xllcenter - (0.5 * cellsize) + cols * cellsize;
+                    west = xllcenter - (0.5 * cellsize);
+                    south = yllcenter - (0.5 * cellsize);
+                    north = yllcenter - (0.5 * cellsize) + rows * cellsize;
+                }
 
-                    //Close the input stream
-                    in.close();
-                    br.close();
+                // create the whitebox header file.
+                fw = new FileWriter(whiteboxHeaderFile, false);
+                bw = new BufferedWriter(fw);
+                out = new PrintWriter(bw, true);
+
+                str1 = "Min:\t" + Double.toString(Integer.MAX_VALUE);
+                out.println(str1);
+                str1 = "Max:\t" + Double.toString(Integer.MIN_VALUE);
+                out.println(str1);
+                str1 = "North:\t" + Double.toString(north);
+                out.println(str1);
+                str1 = "South:\t" + Double.toString(south);
+                out.println(str1);
+                str1 = "East:\t" + Double.toString(east);
+                out.println(str1);
+                str1 = "West:\t" + Double.toString(west);
+                out.println(str1);
+                str1 = "Cols:\t" + Integer.toString(cols);
+                out.println(str1);
+                str1 = "Rows:\t" + Integer.toString(rows);
+                out.println(str1);
+                str1 = "Data Type:\t" + "float";
+                out.println(str1);
+                str1 = "Z Units:\t" + "not specified";
+                out.println(str1);
+                str1 = "XY Units:\t" + "not specified";
+                out.println(str1);
+                str1 = "Projection:\t" + "not specified";
+                out.println(str1);
+                str1 = "Data Scale:\tcontinuous";
+                out.println(str1);
+                str1 = "Preferred Palette:\t" + "spectrum.pal";
+                out.println(str1);
+                str1 = "NoData:\t-32768";
+                out.println(str1);
+                if (java.nio.ByteOrder.nativeOrder() == java.nio.ByteOrder.LITTLE_ENDIAN) {
+                    str1 = "Byte Order:\t" + "LITTLE_ENDIAN";
+                } else {
+                    str1 = "Byte Order:\t" + "BIG_ENDIAN";
+                }
+                out.println(str1);
+                out.close();
+                out = null;
 
-                    wbr.addMetadataEntry("Created by the "
-                            + getDescriptiveName() + " tool.");
-                    wbr.addMetadataEntry("Created on " + new Date());
-                    //wbr.findMinAndMaxVals();
-                    //wbr.writeHeaderFile();
-                    wbr.close();
+                // Create the whitebox raster object.
+                WhiteboxRaster wbr = new WhiteboxRaster(whiteboxHeaderFile, "rw");
 
-                    returnData(whiteboxHeaderFile);
+                // Ingest the data block, writing it to the raster a row at
+                // a time.
+                boolean completed = reader.readGrid(wbr, arcNoData, false,
+                        new NumericTextReader.ProgressListener() {
+
+                    @Override
+                    public boolean progress(int progress) {
+                        updateProgress(label, progress);
+                        return !cancelOp;
+                    }
+                });
+                reader.close();
+                reader = null;
+
+                if (!completed) {
+                    wbr.close();
+                    cancelOperation();
+                    return;
                 }
+
+                wbr.addMetadataEntry("Created by the "
+                        + getDescriptiveName() + " tool.");
+                wbr.addMetadataEntry("Created on " + new Date());
+                wbr.close();
+
+                returnData(whiteboxHeaderFile);
             }
 
         } catch (OutOfMemoryError oe) {
@@ -435,10 +392,16 @@ public class ImportArcAsciiGrid implements WhiteboxPlugin, InteropPlugin {
             myHost.showFeedback("An error has occurred during operation. See log file for details.");
             myHost.logException("Error in " + getDescriptiveName(), e);
         } finally {
-            if (out != null || bw != null) {
+            if (out != null) {
                 out.flush();
                 out.close();
             }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
 
             updateProgress("Progress: ", 0);
             // tells the main application that this process is completed.
@@ -16,20 +16,17 @@
  */
 package plugins;
 
-import java.io.DataInputStream;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.IOException;
 import java.util.Date;
-import java.io.FileInputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.BufferedWriter;
 import java.io.PrintWriter;
+import whitebox.geospatialfiles.NumericTextReader;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.InteropPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
 import whitebox.interfaces.WhiteboxPlugin;
-import whitebox.utilities.StringUtilities;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -194,32 +191,28 @@ public class ImportGRASSAsciiGrid implements WhiteboxPlugin, InteropPlugin {
     @Override
     public void run() {
         amIActive = true;
+
         String str1 = null;
         FileWriter fw = null;
         BufferedWriter bw = null;
         PrintWriter out = null;
 
-        DataInputStream in = null;
-        BufferedReader br = null;
+        NumericTextReader reader = null;
 
         try {
             String inputFilesString = null;
             String grassFile = null;
             String whiteboxHeaderFile = null;
             int i = 0;
-            int row, col, rows, cols;
+            int rows, cols;
             String[] imageFiles;
             int numImages = 0;
-            int progress = 0;
-            double cellsize = 0;
             double north = 0;
             double east = 0;
             double west = 0;
             double south = 0;
-            double arcNoData = -9999;
+            double grassNoData = -9999;
             double whiteboxNoData = -32768d;
-            double z = 0;
-            String delimiter = " ";
 
             if (args.length <= 0) {
                 showFeedback("Plugin parameters have not been set.");
@@ -238,10 +231,8 @@ public class ImportGRASSAsciiGrid implements WhiteboxPlugin, InteropPlugin {
             numImages = imageFiles.length;
 
             for (i = 0; i < numImages; i++) {
-                if (numImages > 1) {
-                    progress = (int) (100f * i / (numImages - 1));
-                    updateProgress("Loop " + (i + 1) + " of " + numImages + ":", progress);
-                }
+                final String label = "Loop " + (i + 1) + " of " + numImages + ":";
+                updateProgress(label, 0);
 
                 grassFile = imageFiles[i];
                 // check to see if the file exists.
@@ -249,6 +240,7 @@ public class ImportGRASSAsciiGrid implements WhiteboxPlugin, InteropPlugin {
                     showFeedback("GRASS raster file does not exist.");
                     return;
                 }
+
                 if (grassFile.lastIndexOf(".") >= 0) { // there is an extension
                     String extension = grassFile.substring(grassFile.lastIndexOf("."));
                     whiteboxHeaderFile = grassFile.replace(extension, ".dep");
@@ -259,169 +251,118 @@ public class ImportGRASSAsciiGrid implements WhiteboxPlugin, InteropPlugin {
                 (new File(whiteboxHeaderFile)).delete();
                 (new File(whiteboxHeaderFile.replace(".dep", ".tas"))).delete();
 
-                FileInputStream fstream = new FileInputStream(grassFile);
                 rows = 0;
                 cols = 0;
 
-                // Get the object of DataInputStream
-                in = new DataInputStream(fstream);
-
-                br = new BufferedReader(new InputStreamReader(in));
-
-                if (grassFile != null) {
-                    String line;
-                    String[] str;
-                    //Read File Line By Line, getting the header data.
-                    while ((line = br.readLine()) != null) {
-                        str = line.split(delimiter);
-                        if (str.length <= 1) {
-                            delimiter = "\t";
-                            str = line.split(delimiter);
-                            if (str.length <= 1) {
-                                delimiter = " ";
-                                str = line.split(delimiter);
-                                if (str.length <= 1) {
-                                    delimiter = ",";
-                                    str = line.split(delimiter);
-                                }
-                            }
-                        }
-                        if (str[0].toLowerCase().contains("north")) {
-                            north = Double.parseDouble(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("south")) {
-                            south = Double.parseDouble(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("east")) {
-                            east = Double.parseDouble(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("west")) {
-                            west = Double.parseDouble(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("rows")) {
-                            rows = Integer.parseInt(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("cols")) {
-                            cols = Integer.parseInt(str[str.length - 1]);
-                        } else if (str[0].toLowerCase().contains("nodata")) {
-                            arcNoData = Double.parseDouble(str[str.length - 1]);
-                        } else {
-                            break;
-                        }
+                reader = new NumericTextReader(grassFile);
+
+                // Read the header, which ends at the first line that does 
+                // not start with a keyword.
+                String line;
+                String[] str;
+                long lineStart = reader.getPosition();
+                while ((line = reader.readLine()) != null) {
+                    str = line.trim().split("[\\s,;]+");
+                    if (str[0].isEmpty()) {
+                        lineStart = reader.getPosition();
+                        continue;
                     }
-
-                    // create the whitebox header file.
-                    fw = new FileWriter(whiteboxHeaderFile, false);
-                    bw = new BufferedWriter(fw);
-                    out = new PrintWriter(bw, true);
-
-                    str1 = "Min:\t" + Double.toString(Integer.MAX_VALUE);
-                    out.println(str1);
-                    str1 = "Max:\t" + Double.toString(Integer.MIN_VALUE);
-                    out.println(str1);
-                    str1 = "North:\t" + Double.toString(north);
-                    out.println(str1);
-                    str1 = "South:\t" + Double.toString(south);
-                    out.println(str1);
-                    str1 = "East:\t" + Double.toString(east);
-                    out.println(str1);
-                    str1 = "West:\t" + Double.toString(west);
-                    out.println(str1);
-                    str1 = "Cols:\t" + Integer.toString(cols);
-                    out.println(str1);
-                    str1 = "Rows:\t" + Integer.toString(rows);
-                    out.println(str1);
-                    str1 = "Data Type:\t" + "float";
-                    out.println(str1);
-                    str1 = "Z Units:\t" + "not specified";
-                    out.println(str1);
-                    str1 = "XY Units:\t" + "not specified";
-                    out.println(str1);
-                    str1 = "Projection:\t" + "not specified";
-                    out.println(str1);
-                    str1 = "Data Scale:\tcontinuous";
-                    out.println(str1);
-                    str1 = "Preferred Palette:\t" + "spectrum.pal";
-                    out.println(str1);
-                    str1 = "NoData:\t" + whiteboxNoData;
-                    out.println(str1);
-                    if (java.nio.ByteOrder.nativeOrder() == java.nio.ByteOrder.LITTLE_ENDIAN) {
-                        str1 = "Byte Order:\t" + "LITTLE_ENDIAN";
-                    } else {
-                        str1 = "Byte Order:\t" + "BIG_ENDIAN";
+                    if (!Character.isLetter(str[0].charAt(0))) {
+                        reader.seek(lineStart);
+                        break;
                     }
-                    out.println(str1);
-
-                    // Create the whitebox raster object.
-                    WhiteboxRaster wbr = new WhiteboxRaster(whiteboxHeaderFile, "rw");
-                    wbr.reinitialize(whiteboxNoData);
-
-                    // Read File Line By Line, this time ingesting the data block
-                    // and outputing it to the whitebox raster object.
-                    delimiter = " ";
-                    row = 0;
-                    col = 0;
-                    while ((line = br.readLine()) != null) {
-                        str = line.split(delimiter);
-                        if (str.length <= 1) {
-                            delimiter = "\t";
-                            str = line.split(delimiter);
-                            if (str.length <= 1) {
-                                delimiter = " ";
-                                str = line.split(delimiter);
-                                if (str.length <= 1) {
-                                    delimiter = ",";
-                                    str = line.split(delimiter);
-                                }
-                            }
-                        }
-                        if (str[0].toLowerCase().contains("north")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("south")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("east")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("west")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("rows")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("cols")) {
-                            // do nothing
-                        } else if (str[0].toLowerCase().contains("nodata")) {
-                            // do nothing
-                        } else {
-                            // read the data
-                            for (i = 0; i < str.length; i++) {
-                                if (StringUtilities.isNumeric(str[i])) {
-                                    z = Double.parseDouble(str[i]);
-                                    if (z != arcNoData) {
-                                        wbr.setValue(row, col, z);
-                                    } else {
-                                        wbr.setValue(row, col, whiteboxNoData);
-                                    }
-                                } else {
-                                    wbr.setValue(row, col, whiteboxNoData);
-                                }
-                                col++;
-                                if (col == cols) {
-                                    col = 0;
-                                    row++;
-                                    progress = (int) (100f * row / (rows - 1));
-                                    updateProgress(progress);
-                                }
-
-                            }
-                        }
+                    String key = str[0].toLowerCase();
+                    if (key.contains("north")) {
+                        north = Double.parseDouble(str[str.length - 1]);
+                    } else if (key.contains("south")) {
+                        south = Double.parseDouble(str[str.length - 1]);
+                    } else if (key.contains("east")) {
+                        east = Double.parseDouble(str[str.length - 1]);
+                    } else if (key.contains("west")) {
+                        west = Double.parseDouble(str[str.length - 1]);
+                    } else if (key.contains("rows")) {
+                        rows = Integer.parseInt(str[str.length - 1]);
+                    } else if (key.contains("cols")) {
+                        cols = Integer.parseInt(str[str.length - 1]);
+                    } else if (key.contains("nodata") || key.contains("null")) {
+                        grassNoData = Double.parseDouble(str[str.length - 1]);
                     }
+                    lineStart = reader.getPosition();
+                }
 
-                    //Close the input stream
-                    in.close();
-                    br.close();
+                // create the whitebox header file.
+                fw = new FileWriter(whiteboxHeaderFile, false);
+                bw = new BufferedWriter(fw);
+                out = new PrintWriter(bw, true);
+
+                str1 = "Min:\t" + Double.toString(Integer.MAX_VALUE);
+                out.println(str1);
+                str1 = "Max:\t" + Double.toString(Integer.MIN_VALUE);
+                out.println(str1);
+                str1 = "North:\t" + Double.toString(north);
+                out.println(str1);
+                str1 = "South:\t" + Double.toString(south);
+                out.println(str1);
+                str1 = "East:\t" + Double.toString(east);
+                out.println(str1);
+                str1 = "West:\t" + Double.toString(west);
+                out.println(str1);
+                str1 = "Cols:\t" + Integer.toString(cols);
+                out.println(str1);
+                str1 = "Rows:\t" + Integer.toString(rows);
+                out.println(str1);
+                str1 = "Data Type:\t" + "float";
+                out.println(str1);
+                str1 = "Z Units:\t" + "not specified";
+                out.println(str1);
+                str1 = "XY Units:\t" + "not specified";
+                out.println(str1);
+                str1 = "Projection:\t" + "not specified";
+                out.println(str1);
+                str1 = "Data Scale:\tcontinuous";
+                out.println(str1);
+                str1 = "Preferred Palette:\t" + "spectrum.pal";
+                out.println(str1);
+                str1 = "NoData:\t" + whiteboxNoData;
+                out.println(str1);
+                if (java.nio.ByteOrder.nativeOrder() == java.nio.ByteOrder.LITTLE_ENDIAN) {
+                    str1 = "Byte Order:\t" + "LITTLE_ENDIAN";
+                } else {
+                    str1 = "Byte Order:\t" + "BIG_ENDIAN";
+                }
+                out.println(str1);
+                out.close();
+                out = null;
 
-                    wbr.addMetadataEntry("Created by the "
-                            + getDescriptiveName() + " tool.");
-                    wbr.addMetadataEntry("Created on " + new Date());
-                    wbr.flush();
-                    wbr.findMinAndMaxVals();
-                    wbr.close();
+                // Create the whitebox raster object.
+                WhiteboxRaster wbr = new WhiteboxRaster(whiteboxHeaderFile, "rw");
 
-                    returnData(whiteboxHeaderFile);
+                // Ingest the data block, writing it to the raster a row at
+                // a time.
+                boolean completed = reader.readGrid(wbr, grassNoData, false,
+                        new NumericTextReader.ProgressListener() {
+
+                    @Override
+                    public boolean progress(int progress) {
+                        updateProgress(label, progress);
+                        return !cancelOp;
+                    }
+                });
+                reader.close();
+                reader = null;
+
+                if (!completed) {
+                    wbr.close();
+                    cancelOperation();
+                    return;
                 }
+
+                wbr.addMetadataEntry("Created by the "
+                        + getDescriptiveName() + " tool.");
+                wbr.addMetadataEntry("Created on " + new Date());
+                wbr.close();
+
+                returnData(whiteboxHeaderFile);
             }
 
         } catch (OutOfMemoryError oe) {
@@ -430,10 +371,16 @@ public class ImportGRASSAsciiGrid implements WhiteboxPlugin, InteropPlugin {
             myHost.showFeedback("An error has occurred during operation. See log file for details.");
             myHost.logException("Error in " + getDescriptiveName(), e);
         } finally {
-            if (out != null || bw != null) {
+            if (out != null) {
                 out.flush();
                 out.close();
             }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
 
             updateProgress("Progress: ", 0);
             // tells the main application that this process is completed.
@@ -16,15 +16,13 @@
  */
 package plugins;
 
-import java.io.DataInputStream;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.IOException;
 import java.util.Date;
-import java.io.FileInputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.BufferedWriter;
 import java.io.PrintWriter;
+import whitebox.geospatialfiles.NumericTextReader;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.InteropPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -165,53 +163,44 @@ public class ImportSurferAsciiGrid implements WhiteboxPlugin, InteropPlugin {
         String surferFile = null;
         String whiteboxHeaderFile = null;
         int i = 0;
-        int row, col, rows, cols;
+        int rows, cols;
         String[] imageFiles;
         int numImages = 0;
-        int progress = 0;
-        double cellsize = 0;
         double north = 0;
         double east = 0;
         double west = 0;
         double south = 0;
-        double arcNoData = -9999;
-        double whiteboxNoData = -32768d;
-        double z = 0;
-        String delimiter = " ";
+        // Surfer marks blanked nodes with this value
+        double surferNoData = 1.70141e38;
 
         String str1 = null;
         FileWriter fw = null;
         BufferedWriter bw = null;
         PrintWriter out = null;
 
-        DataInputStream in = null;
-        BufferedReader br = null;
+        NumericTextReader reader = null;
 
-        if (args.length <= 0) {
-            showFeedback("Plugin parameters have not been set.");
-            return;
-        }
+        try {
 
-        for (i = 0; i < args.length; i++) {
-            if (i == 0) {
-                inputFilesString = args[i];
+            if (args.length <= 0) {
+                showFeedback("Plugin parameters have not been set.");
+                return;
             }
-        }
 
-        // check to see that the inputHeader and outputHeader are not null.
-        if ((inputFilesString == null)) {
-            showFeedback("One or more of the input parameters have not been set properly.");
-            return;
-        }
+            inputFilesString = args[0];
 
-        imageFiles = inputFilesString.split(";");
-        numImages = imageFiles.length;
+            // check to see that the inputHeader and outputHeader are not null.
+            if ((inputFilesString == null)) {
+                showFeedback("One or more of the input parameters have not been set properly.");
+                return;
+            }
 
-        try {
+            imageFiles = inputFilesString.split(";");
+            numImages = imageFiles.length;
 
             for (i = 0; i < numImages; i++) {
-                progress = (int) (100f * i / (numImages - 1));
-                updateProgress("Loop " + (i + 1) + " of " + numImages + ":", progress);
+                final String label = "Loop " + (i + 1) + " of " + numImages + ":";
+                updateProgress(label, 0);
 
                 surferFile = imageFiles[i];
                 // check to see if the file exists.
@@ -219,164 +208,118 @@ public class ImportSurferAsciiGrid implements WhiteboxPlugin, InteropPlugin {
                     showFeedback("Surfer raster file does not exist.");
                     break;
                 }
+
                 if (surferFile.lastIndexOf(".") >= 0) { // there is an extension
                     String extension = surferFile.substring(surferFile.lastIndexOf("."));
                     whiteboxHeaderFile = surferFile.replace(extension, ".dep");
                 } else {
                     whiteboxHeaderFile = surferFile + ".dep";
                 }
-                
+
                 (new File(whiteboxHeaderFile)).delete();
                 (new File(whiteboxHeaderFile.replace(".dep", ".tas"))).delete();
 
-                FileInputStream fstream = new FileInputStream(surferFile);
                 rows = 0;
                 cols = 0;
 
-                // Get the object of DataInputStream
-                in = new DataInputStream(fstream);
-
-                br = new BufferedReader(new InputStreamReader(in));
-
-                if (surferFile != null) {
-                    String line;
-                    String[] str;
-                    //Read File Line By Line, getting the header data.
-                    i = 1;
-                    while ((line = br.readLine()) != null && i < 5) {
-                        str = line.split(delimiter);
-                        if (str.length <= 1 && i > 1) {
-                            delimiter = "\t";
-                            str = line.split(delimiter);
-                            if (str.length <= 1) {
-                                delimiter = " ";
-                                str = line.split(delimiter);
-                                if (str.length <= 1) {
-                                    delimiter = ",";
-                                    str = line.split(delimiter);
-                                }
-                            }
-                        }
-                        if (i == 1) {
-                            if (!(str[0].toLowerCase().equals("dsaa"))) {
-                                showFeedback("Warning: Surfer ASCII GRD ID value "
-                                        + "was not located. This file may be "
-                                        + "improperly structured.");
-                            }
-                        } else if (i == 2) {
-                            cols = Integer.parseInt(str[0]);
-                            rows = Integer.parseInt(str[str.length - 1]);
-                        } else if (i == 3) {
-                            west = Double.parseDouble(str[0]);
-                            east = Double.parseDouble(str[str.length - 1]);
-                        } else if (i == 4) {
-                            south = Double.parseDouble(str[0]);
-                            north = Double.parseDouble(str[str.length - 1]);
-                        } else {
-                            break;
+                reader = new NumericTextReader(surferFile);
+
+                // Read the five lines of the header.
+                String line;
+                String[] str;
+                for (int a = 1; a <= 5 && (line = reader.readLine()) != null; a++) {
+                    str = line.trim().split("[\\s,;]+");
+                    if (a == 1) {
+                        if (!(str[0].toLowerCase().equals("dsaa"))) {
+                            showFeedback("Warning: Surfer ASCII GRD ID value "
+                                    + "was not located. This file may be "
+                                    + "improperly structured.");
                         }
-                        
-                        i++;
+                    } else if (a == 2) {
+                        cols = Integer.parseInt(str[0]);
+                        rows = Integer.parseInt(str[str.length - 1]);
+                    } else if (a == 3) {
+                        west = Double.parseDouble(str[0]);
+                        east = Double.parseDouble(str[str.length - 1]);
+                    } else if (a == 4) {
+                        south = Double.parseDouble(str[0]);
+                        north = Double.parseDouble(str[str.length - 1]);
                     }
+                }
 
-                    // create the whitebox header file.
-                    fw = new FileWriter(whiteboxHeaderFile, false);
-                    bw = new BufferedWriter(fw);
-                    out = new PrintWriter(bw, true);
-
-                    str1 = "Min:\t" + Double.toString(Integer.MAX_VALUE);
-                    out.println(str1);
-                    str1 = "Max:\t" + Double.toString(Integer.MIN_VALUE);
-                    out.println(str1);
-                    str1 = "North:\t" + Double.toString(north);
-                    out.println(str1);
-                    str1 = "South:\t" + Double.toString(south);
-                    out.println(str1);
-                    str1 = "East:\t" + Double.toString(east);
-                    out.println(str1);
-                    str1 = "West:\t" + Double.toString(west);
-                    out.println(str1);
-                    str1 = "Cols:\t" + Integer.toString(cols);
-                    out.println(str1);
-                    str1 = "Rows:\t" + Integer.toString(rows);
-                    out.println(str1);
-                    str1 = "Data Type:\t" + "float";
-                    out.println(str1);
-                    str1 = "Z Units:\t" + "not specified";
-                    out.println(str1);
-                    str1 = "XY Units:\t" + "not specified";
-                    out.println(str1);
-                    str1 = "Projection:\t" + "not specified";
-                    out.println(str1);
-                    str1 = "Data Scale:\tcontinuous";
-                    out.println(str1);
-                    str1 = "Preferred Palette:\t" + "spectrum.pal";
-                    out.println(str1);
-                    str1 = "NoData:\t-32768";
-                    out.println(str1);
-                    if (java.nio.ByteOrder.nativeOrder() == java.nio.ByteOrder.LITTLE_ENDIAN) {
-                        str1 = "Byte Order:\t" + "LITTLE_ENDIAN";
-                    } else {
-                        str1 = "Byte Order:\t" + "BIG_ENDIAN";
-                    }
-                    out.println(str1);
-
-                    // Create the whitebox raster object.
-                    WhiteboxRaster wbr = new WhiteboxRaster(whiteboxHeaderFile, "rw");
-
-                    // Read File Line By Line, this time ingesting the data block
-                    // and outputing it to the whitebox raster object.
-                    delimiter = " ";
-                    row = rows - 1;
-                    col = 0;
-                    //int a = 5;
-                    while ((line = br.readLine()) != null) {
-                        //if (a > 4) {
-                            str = line.split(delimiter);
-                            if (str.length <= 1) {
-                                delimiter = "\t";
-                                str = line.split(delimiter);
-                                if (str.length <= 1) {
-                                    delimiter = " ";
-                                    str = line.split(delimiter);
-                                    if (str.length <= 1) {
-                                        delimiter = ",";
-                                        str = line.split(delimiter);
-                                    }
-                                }
-                            }
-
-                            // read the data
-                            for (i = 0; i < str.length; i++) {
-                                if (!str[i].trim().isEmpty()) {
-                                    z = Double.parseDouble(str[i]);
-                                    wbr.setValue(row, col, z);
-
-                                    col++;
-                                    if (col == cols) {
-                                        col = 0;
-                                        row--;
-                                    }
-                                }
-                            }
-                        //}
-                        //a++;
-                    }
+                // create the whitebox header file.
+                fw = new FileWriter(whiteboxHeaderFile, false);
+                bw = new BufferedWriter(fw);
+                out = new PrintWriter(bw, true);
+
+                str1 = "Min:\t" + Double.toString(Integer.MAX_VALUE);
+                out.println(str1);
+                str1 = "Max:\t" + Double.toString(Integer.MIN_VALUE);
+                out.println(str1);
+                str1 = "North:\t" + Double.toString(north);
+                out.println(str1);
+                str1 = "South:\t" + Double.toString(south);
+                out.println(str1);
+                str1 = "East:\t" + Double.toString(east);
+                out.println(str1);
+                str1 = "West:\t" + Double.toString(west);
+                out.println(str1);
+                str1 = "Cols:\t" + Integer.toString(cols);
+                out.println(str1);
+                str1 = "Rows:\t" + Integer.toString(rows);
+                out.println(str1);
+                str1 = "Data Type:\t" + "float";
+                out.println(str1);
+                str1 = "Z Units:\t" + "not specified";
+                out.println(str1);
+                str1 = "XY Units:\t" + "not specified";
+                out.println(str1);
+                str1 = "Projection:\t" + "not specified";
+                out.println(str1);
+                str1 = "Data Scale:\tcontinuous";
+                out.println(str1);
+                str1 = "Preferred Palette:\t" + "spectrum.pal";
+                out.println(str1);
+                str1 = "NoData:\t-32768";
+                out.println(str1);
+                if (java.nio.ByteOrder.nativeOrder() == java.nio.ByteOrder.LITTLE_ENDIAN) {
+                    str1 = "Byte Order:\t" + "LITTLE_ENDIAN";
+                } else {
+                    str1 = "Byte Order:\t" + "BIG_ENDIAN";
+                }
+                out.println(str1);
+                out.close();
+                out = null;
 
-                    //Close the input stream
-                    in.close();
-                    br.close();
+                // Create the whitebox raster object.
+                WhiteboxRaster wbr = new WhiteboxRaster(whiteboxHeaderFile, "rw");
 
-                    wbr.addMetadataEntry("Created by the "
-                    + getDescriptiveName() + " tool.");
-                    wbr.addMetadataEntry("Created on " + new Date());
-                    wbr.flush();
-                    wbr.findMinAndMaxVals();
-                    //wbr.writeHeaderFile();
-                    wbr.close();
+                // Ingest the data block, writing it to the raster a row at
+                // a time. Surfer lists the rows from south to north.
+                boolean completed = reader.readGrid(wbr, surferNoData, true,
+                        new NumericTextReader.ProgressListener() {
+
+                    @Override
+                    public boolean progress(int progress) {
+                        updateProgress(label, progress);
+                        return !cancelOp;
+                    }
+                });
+                reader.close();
+                reader = null;
 
-                    returnData(whiteboxHeaderFile);
+                if (!completed) {
+                    wbr.close();
+                    cancelOperation();
+                    return;
                 }
+
+                wbr.addMetadataEntry("Created by the "
+                        + getDescriptiveName() + " tool.");
+                wbr.addMetadataEntry("Created on " + new Date());
+                wbr.close();
+
+                returnData(whiteboxHeaderFile);
             }
 
         } catch (OutOfMemoryError oe) {
@@ -385,10 +328,16 @@ public class ImportSurferAsciiGrid implements WhiteboxPlugin, InteropPlugin {
             myHost.showFeedback("An error has occurred during operation. See log file for details.");
             myHost.logException("Error in " + getDescriptiveName(), e);
         } finally {
-            if (out != null || bw != null) {
+            if (out != null) {
                 out.flush();
                 out.close();
             }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
 
             updateProgress("Progress: ", 0);
             // tells the main application that this process is completed.
@@ -396,7 +345,7 @@ public class ImportSurferAsciiGrid implements WhiteboxPlugin, InteropPlugin {
             myHost.pluginComplete();
         }
     }
-    
+
     @Override
     public String[] getExtensions() {
         return new String[]{"grd"};
@@ -16,14 +16,11 @@
  */
 package plugins;
 
-import java.io.BufferedReader;
-import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStreamReader;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import whitebox.geospatialfiles.ShapeFile;
+import java.io.IOException;
+import whitebox.geospatialfiles.NumericTextReader;
+import whitebox.geospatialfiles.ShapeFileWriter;
+import whitebox.geospatialfiles.shapefile.Point;
 import whitebox.geospatialfiles.shapefile.attributes.DBFField;
 import whitebox.geospatialfiles.shapefile.ShapeType;
 import whitebox.interfaces.WhiteboxPlugin;
@@ -160,24 +157,10 @@ public class ImportXYZToVectorPoints implements WhiteboxPlugin {
     public void run() {
         amIActive = true;
 
-        RandomAccessFile rIn = null;
-        ByteBuffer buf;
-        
         String inputFilesString = null;
         String[] XYZFiles;
-        double x, y, north, south, east, west;
-        double z;
-        float minValue, maxValue;
-        float featureValue;
-        int numVertices;
-        byte classValue, numReturns, returnNum;
-        int a, n, loc, featureNum = 1;
-        int progress = 0;
-        int numPoints = 0;
-        String delimiter = " ";
-        ShapeType shapeType = ShapeType.POINT;
         boolean firstLineHeader = false;
-        String fileExtension = ".txt";
+        String firstOutputFile = null;
         
         // get the arguments
         if (args.length <= 0) {
@@ -198,11 +181,10 @@ public class ImportXYZToVectorPoints implements WhiteboxPlugin {
             XYZFiles = inputFilesString.split(";");
             int numZYZFiles = XYZFiles.length;
             
-            shapeType = ShapeType.POINT;
-            
             for (int j = 0; j < numZYZFiles; j++) {
                 
                 String fileName = XYZFiles[j];
+                final String label = "Loop " + (j + 1) + " of " + numZYZFiles + ":";
                 
                 // See if the data file exists.
                 File file = new File(fileName);
@@ -218,82 +200,62 @@ public class ImportXYZToVectorPoints implements WhiteboxPlugin {
                 fields[0].setFieldLength(10);
                 fields[0].setDecimalCount(3);
                 
-                
-                // create the new shapefile
-                fileExtension = FileUtilities.getFileExtension(fileName);
+                // create the new shapefile. Each point is written as soon as
+                // it has been read.
+                String fileExtension = FileUtilities.getFileExtension(fileName);
                 String outputFile = fileName.replace("." + fileExtension, ".shp");
                 File outfile = new File(outputFile);
                 if (outfile.exists()) {
                     outfile.delete();
                 }
+                if (firstOutputFile == null) {
+                    firstOutputFile = outputFile;
+                }
                 
-                ShapeFile output = new ShapeFile(outputFile, shapeType, fields);
+                final ShapeFileWriter output = new ShapeFileWriter(outputFile, 
+                        ShapeType.POINT, fields);
 
-                DataInputStream in = null;
-                BufferedReader br = null;
+                NumericTextReader reader = new NumericTextReader(fileName);
+                boolean completed;
                 try {
-                    // Open the file that is the first command line parameter
-                    FileInputStream fstream = new FileInputStream(file);
-                    // Get the object of DataInputStream
-                    in = new DataInputStream(fstream);
-
-                    br = new BufferedReader(new InputStreamReader(in));
+                    if (firstLineHeader) {
+                        reader.readLine();
+                    }
+                    // lines that do not hold an x, y and z are skipped
+                    completed = reader.readRecords(3, new NumericTextReader.ValueListener() {
 
-                    String line;
-                    String[] str;
-                    j = 1;
-                    //Read File Line By Line
-                    while ((line = br.readLine()) != null) {
-                        str = line.split(delimiter);
-                        if (str.length <= 1) {
-                            delimiter = "\t";
-                            str = line.split(delimiter);
-                            if (str.length <= 1) {
-                                delimiter = " ";
-                                str = line.split(delimiter);
-                                if (str.length <= 1) {
-                                    delimiter = ",";
-                                    str = line.split(delimiter);
+                        @Override
+                        public void values(double[] values, int count) {
+                            try {
+                                for (int k = 0; k < count; k += 3) {
+                                    Point wbGeometry = new Point(values[k], values[k + 1]);
+                                    Object[] rowData = new Object[1];
+                                    rowData[0] = new Double(values[k + 2]);
+                                    output.addRecord(wbGeometry, rowData);
                                 }
+                            } catch (IOException e) {
+                                throw new IllegalStateException(e);
                             }
                         }
-                        if ((j > 1 || !firstLineHeader) && (str.length >= 3)) {
-                            x = Double.parseDouble(str[0]);
-                            y = Double.parseDouble(str[1]);
-                            z = Double.parseDouble(str[2]);
-                            
-                            whitebox.geospatialfiles.shapefile.Point wbGeometry = new whitebox.geospatialfiles.shapefile.Point(x, y);
-                            Object[] rowData = new Object[1];
-                            rowData[0] = new Double(z);
-                            
-                            output.addRecord(wbGeometry, rowData);
-                            
-                        }
-                        j++;
-                    }
-                    //Close the input stream
-                    in.close();
-                    br.close();
 
-                } catch (java.io.IOException e) {
-                    myHost.showFeedback("An error has occurred during operation. See log file for details.");
-                    myHost.logException("Error in " + getDescriptiveName(), e);
-                } finally {
-                    try {
-                        if (in != null || br != null) {
-                            in.close();
-                            br.close();
+                        @Override
+                        public boolean progress(int progress) {
+                            updateProgress(label, progress);
+                            return !cancelOp;
                         }
-                    } catch (java.io.IOException ex) {
-                    }
-
+                    });
+                } finally {
+                    reader.close();
+                    output.close();
                 }
-               
-                output.write();
                 
+                if (!completed) {
+                    cancelOperation();
+                    return;
+                }
             }
 
-            returnData(XYZFiles[0].replace("." + fileExtension, ".shp"));
+            returnData(firstOutputFile);
             
         } catch (OutOfMemoryError oe) {
             myHost.showFeedback("An out-of-memory error has occurred during operation.");
@@ -302,13 +264,6 @@ public class ImportXYZToVectorPoints implements WhiteboxPlugin {
             myHost.logException("Error in " + getDescriptiveName(), e);
         } finally {
             updateProgress("Progress: ", 0);
-            if (rIn != null) {
-                try {
-                    rIn.close();
-                } catch (Exception e) {
-                }
-            }
-            
             // tells the main application that this process is completed.
             amIActive = false;
             myHost.pluginComplete();
@@ -16,12 +16,15 @@
  */
 package plugins;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.PrintWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import whitebox.geospatialfiles.LASPointStream;
 import whitebox.geospatialfiles.LASReader;
-import whitebox.geospatialfiles.LASReader.PointRecord;
+import whitebox.geospatialfiles.LASReader.PointBlock;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
 
@@ -191,22 +194,21 @@ public class LAS2ASCII implements WhiteboxPlugin {
 
         String inputFilesString = null;
         String[] pointFiles;
-        double x, y;
-        double z;
-        int intensity;
-        byte classValue, numReturns, returnNum;
-        int a, n;
-        int progress;
-        int numPoints;
-        FileWriter fw = null;
-        BufferedWriter bw = null;
-        PrintWriter out = null;        
+        LASPointStream.ReturnFilter returnFilter = LASPointStream.ReturnFilter.ALL_POINTS;
+        FileOutputStream out = null;
         // get the arguments
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
             return;
         }
         inputFilesString = args[0];
+        if (args.length > 1) {
+            if (args[1].toLowerCase().contains("first")) {
+                returnFilter = LASPointStream.ReturnFilter.FIRST_RETURN;
+            } else if (args[1].toLowerCase().contains("last")) {
+                returnFilter = LASPointStream.ReturnFilter.LAST_RETURN;
+            }
+        }
         
         // check to see that the inputHeader and outputHeader are not null.
         if ((inputFilesString.length() <= 0)) {
@@ -218,60 +220,75 @@ public class LAS2ASCII implements WhiteboxPlugin {
             
             pointFiles = inputFilesString.split(";");
             int numPointFiles = pointFiles.length;
-            long numPointsInFile = 0;
+            final String lineSeparator = System.lineSeparator();
              
-            PointRecord point;
-            //PointRecColours pointColours;
             for (int j = 0; j < numPointFiles; j++) {
                 
                 LASReader las = new LASReader(pointFiles[j]);
                 
-                long oneHundredthTotal = las.getNumPointRecords() / 100;
-
                 // create the new text file
                 File file = new File(pointFiles[j].replace(".las", ".txt"));
                 if (file.exists()) {
                     file.delete();
                 }
 
-                fw = new FileWriter(file, false);
-                bw = new BufferedWriter(fw);
-                out = new PrintWriter(bw, true);
-            
-                progress = (int)((j + 1) * 100d / numPointFiles);
-                updateProgress("Loop " + (j + 1) + " of " + numPointFiles + ":", progress);
+                out = new FileOutputStream(file);
+                final FileChannel outChannel = out.getChannel();
+                final String label = "Loop " + (j + 1) + " of " + numPointFiles + ":";
+                updateProgress(label, 0);
                 
-                numPointsInFile = las.getNumPointRecords();
-                // first count how many valid points there are.
-                numPoints = 0;
-                n = 0;
-                progress = 0;
-                for (a = 0; a < numPointsInFile; a++) {
-                    point = las.getPointRecord(a);
-                    if (!point.isPointWithheld()) {
-                        x = point.getX();
-                        y = point.getY();
-                        z = point.getZ();
-                        intensity = point.getIntensity();
-                        classValue = point.getClassification();
-                        returnNum = point.getReturnNumber();
-                        numReturns = point.getNumberOfReturns();
-                        out.println((a + 1) + " " + x + " " + y + " " + z + " " + intensity + 
-                                " " + classValue + " " + returnNum + " " + numReturns);
-                        numPoints++;
+                // The lines of each block of points are formatted on the 
+                // worker threads and written with a single write.
+                LASPointStream stream = new LASPointStream(las);
+                stream.setReturnFilter(returnFilter);
+                boolean completed = stream.run(new LASPointStream.BlockWriter<byte[]>() {
+
+                    @Override
+                    public byte[] convert(PointBlock block) {
+                        long firstPoint = block.getFirstPoint();
+                        double[] x = block.getX();
+                        double[] y = block.getY();
+                        double[] z = block.getZ();
+                        int[] intensity = block.getIntensity();
+                        byte[] classValue = block.getClassification();
+                        byte[] returnNum = block.getReturnNumber();
+                        byte[] numReturns = block.getNumberOfReturns();
+                        int[] selected = block.getSelectedPoints();
+                        int numSelected = block.getNumberOfSelectedPoints();
+                        StringBuilder sb = new StringBuilder(numSelected * 80);
+                        for (int k = 0; k < numSelected; k++) {
+                            int i = selected[k];
+                            sb.append(firstPoint + i + 1).append(' ').append(x[i]).append(' ')
+                                    .append(y[i]).append(' ').append(z[i]).append(' ')
+                                    .append(intensity[i]).append(' ').append(classValue[i]).append(' ')
+                                    .append(returnNum[i]).append(' ').append(numReturns[i])
+                                    .append(lineSeparator);
+                        }
+                        return sb.toString().getBytes(StandardCharsets.US_ASCII);
                     }
-                    n++;
-                    if (n >= oneHundredthTotal) {
-                        n = 0;
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
+
+                    @Override
+                    public void write(PointBlock block, byte[] converted) throws IOException {
+                        ByteBuffer buf = ByteBuffer.wrap(converted);
+                        while (buf.hasRemaining()) {
+                            outChannel.write(buf);
                         }
-                        progress++;
-                        updateProgress("Loop " + (j + 1) + " of " + numPointFiles + ":", progress);
                     }
-                }
+
+                    @Override
+                    public boolean progress(int progress) {
+                        updateProgress(label, progress);
+                        return !cancelOp;
+                    }
+                });
+                
+                out.close();
+                out = null;
                 
+                if (!completed) {
+                    cancelOperation();
+                    return;
+                }
             }
             
         } catch (OutOfMemoryError oe) {
@@ -280,9 +297,11 @@ public class LAS2ASCII implements WhiteboxPlugin {
             myHost.showFeedback("An error has occurred during operation. See log file for details.");
             myHost.logException("Error in " + getDescriptiveName(), e);
         } finally {
-            if (out != null || bw != null) {
-                out.flush();
-                out.close();
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
             }
             
             updateProgress("Progress: ", 0);
@@ -17,9 +17,12 @@
 package plugins;
 
 import java.io.File;
+import java.io.IOException;
+import whitebox.geospatialfiles.LASPointStream;
 import whitebox.geospatialfiles.LASReader;
-import whitebox.geospatialfiles.LASReader.PointRecord;
-import whitebox.geospatialfiles.ShapeFile;
+import whitebox.geospatialfiles.LASReader.PointBlock;
+import whitebox.geospatialfiles.ShapeFileWriter;
+import whitebox.geospatialfiles.shapefile.Point;
 import whitebox.geospatialfiles.shapefile.attributes.DBFField;
 import whitebox.geospatialfiles.shapefile.ShapeType;
 import whitebox.interfaces.WhiteboxPlugin;
@@ -191,13 +194,7 @@ public class LAS2Shapefile implements WhiteboxPlugin {
 
         String inputFilesString = null;
         String[] pointFiles;
-        double x, y;
-        double z;
-        int intensity;
-        byte classValue, numReturns, returnNum, scanAngle;
-        int a, n;
-        int progress = 0;
-        int numPoints = 0;
+        LASPointStream.ReturnFilter returnFilter = LASPointStream.ReturnFilter.ALL_POINTS;
 
         // get the arguments
         if (args.length <= 0) {
@@ -205,6 +202,13 @@ public class LAS2Shapefile implements WhiteboxPlugin {
             return;
         }
         inputFilesString = args[0];
+        if (args.length > 1) {
+            if (args[1].toLowerCase().contains("first")) {
+                returnFilter = LASPointStream.ReturnFilter.FIRST_RETURN;
+            } else if (args[1].toLowerCase().contains("last")) {
+                returnFilter = LASPointStream.ReturnFilter.LAST_RETURN;
+            }
+        }
         
         // check to see that the inputHeader and outputHeader are not null.
         if ((inputFilesString.length() <= 0)) {
@@ -218,8 +222,6 @@ public class LAS2Shapefile implements WhiteboxPlugin {
             int numPointFiles = pointFiles.length;
             long numPointsInFile = 0;
              
-            PointRecord point;
-            //PointRecColours pointColours;
             for (int j = 0; j < numPointFiles; j++) {
                 
                 LASReader las = new LASReader(pointFiles[j]);
@@ -237,7 +239,8 @@ public class LAS2Shapefile implements WhiteboxPlugin {
                     file.delete();
                 }
 
-                // set up the output files of the shapefile and the dbf
+                // set up the output files of the shapefile and the dbf. Each
+                // point is written as soon as its block has been converted.
                 
                 DBFField fields[] = new DBFField[7];
 
@@ -283,56 +286,68 @@ public class LAS2Shapefile implements WhiteboxPlugin {
                 fields[6].setFieldLength(4);
                 fields[6].setDecimalCount(0);
                 
-                ShapeFile output = new ShapeFile(outputFile, ShapeType.POINT, fields);
+                final ShapeFileWriter output = new ShapeFileWriter(outputFile, ShapeType.POINT, fields);
 
-                progress = (int)((j + 1) * 100d / numPointFiles);
-                updateProgress("Loop " + (j + 1) + " of " + numPointFiles + ":", progress);
-                
+                final String label = "Loop " + (j + 1) + " of " + numPointFiles + ":";
+                updateProgress(label, 0);
                 
-                // first count how many valid points there are.
-                numPoints = 0;
-                progress = 0;
-                int oldProgress = -1;
-                for (a = 0; a < numPointsInFile; a++) {
-                    point = las.getPointRecord(a);
-                    if (!point.isPointWithheld()) {
-                        x = point.getX();
-                        y = point.getY();
-                        z = point.getZ();
-                        intensity = point.getIntensity();
-                        classValue = point.getClassification();
-                        returnNum = point.getReturnNumber();
-                        numReturns = point.getNumberOfReturns();
-                        scanAngle = point.getScanAngle();
-                        
-                        whitebox.geospatialfiles.shapefile.Point wbGeometry = new whitebox.geospatialfiles.shapefile.Point(x, y);
-                        
-                        Object[] rowData = new Object[7];
-                        rowData[0] = new Double(numPoints + 1);
-                        rowData[1] = new Double(z);
-                        rowData[2] = new Double(intensity);
-                        rowData[3] = new Double(classValue);
-                        rowData[4] = new Double(returnNum);
-                        rowData[5] = new Double(numReturns);
-                        rowData[6] = new Double(scanAngle);
-                        
-                        output.addRecord(wbGeometry, rowData);
-                        
-                        numPoints++;
+                // The geometries and attributes of each block of points are
+                // created on the worker threads; the FID is only known once 
+                // the points of the preceding blocks have been written.
+                LASPointStream stream = new LASPointStream(las);
+                stream.setReturnFilter(returnFilter);
+                boolean completed = stream.run(new LASPointStream.BlockWriter<ConvertedBlock>() {
+
+                    @Override
+                    public ConvertedBlock convert(PointBlock block) {
+                        double[] x = block.getX();
+                        double[] y = block.getY();
+                        double[] z = block.getZ();
+                        int[] intensity = block.getIntensity();
+                        byte[] classValue = block.getClassification();
+                        byte[] returnNum = block.getReturnNumber();
+                        byte[] numReturns = block.getNumberOfReturns();
+                        byte[] scanAngle = block.getScanAngle();
+                        int[] selected = block.getSelectedPoints();
+                        int numSelected = block.getNumberOfSelectedPoints();
+                        ConvertedBlock converted = new ConvertedBlock(numSelected);
+                        for (int k = 0; k < numSelected; k++) {
+                            int i = selected[k];
+                            converted.points[k] = new Point(x[i], y[i]);
+                            Object[] rowData = new Object[7];
+                            rowData[1] = new Double(z[i]);
+                            rowData[2] = new Double(intensity[i]);
+                            rowData[3] = new Double(classValue[i]);
+                            rowData[4] = new Double(returnNum[i]);
+                            rowData[5] = new Double(numReturns[i]);
+                            rowData[6] = new Double(scanAngle[i]);
+                            converted.rowData[k] = rowData;
+                        }
+                        return converted;
                     }
-                    progress = (int)(100f * a / numPointsInFile);
-                    if (progress != oldProgress) {
-                        oldProgress = progress;
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
+
+                    @Override
+                    public void write(PointBlock block, ConvertedBlock converted) throws IOException {
+                        for (int k = 0; k < converted.points.length; k++) {
+                            Object[] rowData = converted.rowData[k];
+                            rowData[0] = new Double(output.getNumberOfRecords() + 1);
+                            output.addRecord(converted.points[k], rowData);
                         }
-                        updateProgress("Loop " + (j + 1) + " of " + numPointFiles + ":", progress);
                     }
-                }
+
+                    @Override
+                    public boolean progress(int progress) {
+                        updateProgress(label, progress);
+                        return !cancelOp;
+                    }
+                });
                 
-                output.write();
+                output.close();
                 
+                if (!completed) {
+                    cancelOperation();
+                    return;
+                }
             }
 
 //            returnData(pointFiles[0].replace(".las", ".shp"));
@@ -351,6 +366,20 @@ public class LAS2Shapefile implements WhiteboxPlugin {
         }
     }
       
+    /**
+     * The geometries and attributes of the selected points of a block.
+     */
+    private static class ConvertedBlock {
+
+        final Point[] points;
+        final Object[][] rowData;
+
+        ConvertedBlock(int numPoints) {
+            points = new Point[numPoints];
+            rowData = new Object[numPoints][];
+        }
+    }
+
 //    // this is only used for debugging the tool
 //    public static void main(String[] args) {
 //        LAS2Shapefile L2S = new LAS2Shapefile();
@@ -16,14 +16,17 @@
  */
 package plugins;
 
+import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
 import whitebox.geospatialfiles.ShapeFile;
 import whitebox.geospatialfiles.shapefile.*;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPluginHost;
 import whitebox.interfaces.WhiteboxPlugin;
-import whitebox.structures.KdTree;
+import whitebox.parallel.LoopBody;
+import whitebox.parallel.Parallel;
+import whitebox.parallel.Partition;
+import whitebox.structures.StaticKdTree;
 import java.io.*;
 import whitebox.structures.XYPoint;
 
@@ -218,8 +221,6 @@ public class InterpolationIDW implements WhiteboxPlugin {
         FileWriter fw = null;
         BufferedWriter bw = null;
         PrintWriter out = null;
-        List<KdTree.Entry<Double>> results;
-        double sumWeights;
         double noData = -32768;
 
         // get the arguments
@@ -253,10 +254,6 @@ public class InterpolationIDW implements WhiteboxPlugin {
             pointFiles = inputFilesString.split(";");
             int numPointFiles = pointFiles.length;
 
-            if (maxDist < Double.POSITIVE_INFINITY) {
-                maxDist = maxDist * maxDist;
-            }
-
             updateProgress("Counting the number of points:", 0);
             numPoints = 0;
             for (i = 0; i < numPointFiles; i++) {
@@ -280,7 +277,9 @@ public class InterpolationIDW implements WhiteboxPlugin {
                 numPointsToUse = numPoints;
             }
 
-            KdTree<Double> pointsTree = new KdTree.SqrEuclid<>(2, new Integer(numPoints));
+            coordinates = new double[2 * Math.max(1, numPoints)];
+            values = new double[Math.max(1, numPoints)];
+            numValues = 0;
 
             nlines = 0;
             for (i = 0; i < numPointFiles; i++) {
@@ -352,8 +351,7 @@ public class InterpolationIDW implements WhiteboxPlugin {
                             for (int p = 0; p < vertices.length; p++) {
                                 x = vertices[p][0];
                                 y = vertices[p][1];
-                                double[] entry = {y, x};
-                                pointsTree.addPoint(entry, z);
+                                addPoint(x, y, z);
                                 if (x < minX) {
                                     minX = x;
                                 }
@@ -371,8 +369,7 @@ public class InterpolationIDW implements WhiteboxPlugin {
                             for (int p = 0; p < vertices.length; p++) {
                                 x = vertices[p][0];
                                 y = vertices[p][1];
-                                double[] entry = {y, x};
-                                pointsTree.addPoint(entry, zArray[p]);
+                                addPoint(x, y, zArray[p]);
                                 if (x < minX) {
                                     minX = x;
                                 }
@@ -390,8 +387,7 @@ public class InterpolationIDW implements WhiteboxPlugin {
                             for (int p = 0; p < vertices.length; p++) {
                                 x = vertices[p][0];
                                 y = vertices[p][1];
-                                double[] entry = {y, x};
-                                pointsTree.addPoint(entry, mArray[p]);
+                                addPoint(x, y, mArray[p]);
                                 if (x < minX) {
                                     minX = x;
                                 }
@@ -440,8 +436,7 @@ public class InterpolationIDW implements WhiteboxPlugin {
                                 x = Double.parseDouble(str[0]);
                                 y = Double.parseDouble(str[1]);
                                 z = Double.parseDouble(str[2]);
-                                double[] entry = {y, x};
-                                pointsTree.addPoint(entry, z);
+                                addPoint(x, y, z);
                                 if (x < minX) {
                                     minX = x;
                                 }
@@ -479,6 +474,9 @@ public class InterpolationIDW implements WhiteboxPlugin {
                 }
             }
 
+            pointsTree = new StaticKdTree(coordinates, numValues, 2);
+            coordinates = null;
+
             // What are north, south, east, and west and how many rows and 
             // columns should there be?
 
@@ -536,45 +534,48 @@ public class InterpolationIDW implements WhiteboxPlugin {
             // Create the whitebox raster object.
             WhiteboxRaster image = new WhiteboxRaster(outputHeader, "rw");
 
-            double northing, easting;
-            double halfResolution = resolution / 2;
-            double dist = 0;
-            for (row = 0; row < nrows; row++) {
-                for (col = 0; col < ncols; col++) {
-                    easting = (col * resolution) + (west + halfResolution);
-                    northing = (north - halfResolution) - (row * resolution);
-                    double[] entry = {northing, easting};
-                    results = pointsTree.neighborsWithinRange(entry, maxDist);
-                    sumWeights = 0;
-                    for (i = 0; i < results.size(); i++) {
-                        if ((results.get(i).distance > 0) && (results.get(i).distance < maxDist)) {
-                            dist = Math.pow(Math.sqrt(results.get(i).distance), weight);
-                            sumWeights += 1 / dist;
-                        } else if (results.get(i).distance == 0) {
-                            break;
-                        }
-                    }
-                    if (sumWeights > 0) {
-                        z = 0;
-                        for (i = 0; i < results.size(); i++) {
-                            if ((results.get(i).distance > 0) && (results.get(i).distance < maxDist)) {
-                                dist = 1 / Math.pow(Math.sqrt(results.get(i).distance), weight);
-                                z += (dist * results.get(i).value) / sumWeights;
-                            } else if (results.get(i).distance == 0) {
-                                z = results.get(i).value;
-                                break;
+            searchRadius = maxDist;
+            distWeight = weight;
+            noDataValue = noData;
+            final double halfResolution = resolution / 2;
+            final double firstEasting = west + halfResolution;
+            final double firstNorthing = north - halfResolution;
+            final double cellSize = resolution;
+            final int numCols = ncols;
+            final int batchSize = 32 * Parallel.getPluginProcessors();
+            for (int startRow = 0; startRow < nrows; startRow += batchSize) {
+                final int firstRow = startRow;
+                int endRow = Math.min(nrows, startRow + batchSize);
+                // the rows of each batch are divided among the processors,
+                // each with its own query buffer, and written in order.
+                final double[][] data = new double[endRow - startRow][];
+                Parallel.ForEach(Parallel.create(startRow, endRow), new LoopBody<Partition>() {
+                    @Override
+                    public void run(Partition p) {
+                        StaticKdTree.Neighbors results = new StaticKdTree.Neighbors();
+                        double[] location = new double[2];
+                        for (int r = p.start; r < p.end; r++) {
+                            double[] rowData = new double[numCols];
+                            location[1] = firstNorthing - r * cellSize;
+                            for (int c = 0; c < numCols; c++) {
+                                location[0] = firstEasting + c * cellSize;
+                                rowData[c] = interpolate(location, results);
                             }
+                            data[r - firstRow] = rowData;
                         }
-                        image.setValue(row, col, z);
-                    } else {
-                        image.setValue(row, col, noData);
                     }
+                });
+                for (row = startRow; row < endRow; row++) {
+                    if (data[row - startRow] == null) {
+                        throw new IllegalStateException("The points could not be interpolated.");
+                    }
+                    image.setRowValues(row, data[row - startRow]);
                 }
                 if (cancelOp) {
                     cancelOperation();
                     return;
                 }
-                progress = (int) (100f * row / (nrows - 1));
+                progress = (int) (100f * endRow / nrows);
                 updateProgress("Interpolating point data:", progress);
             }
 
@@ -593,6 +594,9 @@ public class InterpolationIDW implements WhiteboxPlugin {
             myHost.showFeedback("An error has occurred during operation. See log file for details.");
             myHost.logException("Error in " + getDescriptiveName(), e);
         } finally {
+            pointsTree = null;
+            values = null;
+            coordinates = null;
             updateProgress("Progress: ", 0);
             // tells the main application that this process is completed.
             amIActive = false;
@@ -600,6 +604,50 @@ public class InterpolationIDW implements WhiteboxPlugin {
         }
     }
 
+    // the points, which are identified in the tree by their positions in the
+    // values array.
+    private double[] coordinates;
+    private double[] values;
+    private int numValues;
+    private StaticKdTree pointsTree;
+
+    private void addPoint(double x, double y, double value) {
+        if (numValues == values.length) {
+            coordinates = Arrays.copyOf(coordinates, 4 * numValues);
+            values = Arrays.copyOf(values, 2 * numValues);
+        }
+        coordinates[2 * numValues] = x;
+        coordinates[2 * numValues + 1] = y;
+        values[numValues] = value;
+        numValues++;
+    }
+
+    private double searchRadius;
+    private double distWeight;
+    private double noDataValue;
+
+    /**
+     * Interpolates the value at a location. This is called from many threads,
+     * each with its own results buffer.
+     */
+    private double interpolate(double[] location, StaticKdTree.Neighbors results) {
+        int n = pointsTree.neighborsWithinRange(location, searchRadius, results);
+        double sqrMaxDist = searchRadius * searchRadius;
+        double sumWeights = 0;
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            double dist = results.getDistance(i);
+            if (dist == 0) {
+                return values[results.getIndex(i)];
+            } else if (dist < sqrMaxDist) {
+                double w = 1 / Math.pow(Math.sqrt(dist), distWeight);
+                sumWeights += w;
+                sum += w * values[results.getIndex(i)];
+            }
+        }
+        return sumWeights > 0 ? sum / sumWeights : noDataValue;
+    }
+
     public int countLinesInFile(String filename) throws IOException {
         InputStream is = new BufferedInputStream(new FileInputStream(filename));
         try {
@@ -16,12 +16,15 @@
  */
 package plugins;
 
+import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPluginHost;
 import whitebox.interfaces.WhiteboxPlugin;
-import whitebox.structures.KdTree;
+import whitebox.parallel.LoopBody;
+import whitebox.parallel.Parallel;
+import whitebox.parallel.Partition;
+import whitebox.structures.StaticKdTree;
 import java.io.*;
 
 /**
@@ -213,9 +216,7 @@ public class InterpolationNN implements WhiteboxPlugin {
         FileWriter fw = null;
         BufferedWriter bw = null;
         PrintWriter out = null;
-        List<KdTree.Entry<Double>> results;
         double noData = -32768;
-        double northing, easting;
             
         // get the arguments
         if (args.length <= 0) {
@@ -240,10 +241,6 @@ public class InterpolationNN implements WhiteboxPlugin {
             pointFiles = inputFilesString.split(";");
             int numPointFiles = pointFiles.length;
             
-            if (maxDist < Double.POSITIVE_INFINITY) {
-                maxDist = maxDist * maxDist;
-            }
-            
             updateProgress("Counting the number of points:", 0);
             numPoints = 0;
             for (i = 0; i < numPointFiles; i++) {
@@ -255,7 +252,9 @@ public class InterpolationNN implements WhiteboxPlugin {
                 }
             }
             
-            KdTree<Double> pointsTree = new KdTree.SqrEuclid<Double>(2, new Integer(numPoints));
+            coordinates = new double[2 * Math.max(1, numPoints)];
+            values = new double[Math.max(1, numPoints)];
+            numValues = 0;
             
             nlines = 0;
             for (i = 0; i < numPointFiles; i++) {
@@ -291,8 +290,7 @@ public class InterpolationNN implements WhiteboxPlugin {
                             x = Double.parseDouble(str[0]);
                             y = Double.parseDouble(str[1]);
                             z = Double.parseDouble(str[2]);
-                            double[] entry = {y, x};
-                            pointsTree.addPoint(entry, z);
+                            addPoint(x, y, z);
                             if (x < minX) {
                                 minX = x;
                             }
@@ -329,6 +327,9 @@ public class InterpolationNN implements WhiteboxPlugin {
                 }
             }
             
+            pointsTree = new StaticKdTree(coordinates, numValues, 2);
+            coordinates = null;
+
             // What are north, south, east, and west and how many rows and 
             // columns should there be?
             
@@ -386,24 +387,47 @@ public class InterpolationNN implements WhiteboxPlugin {
             // Create the whitebox raster object.
             WhiteboxRaster image = new WhiteboxRaster(outputHeader, "rw");
 
-            double halfResolution = resolution / 2;
-            for (row = 0; row < nrows; row++) {
-                for (col = 0; col < ncols; col++) {
-                    easting = (col * resolution) + (west + halfResolution);
-                    northing = (north - halfResolution) - (row * resolution);
-                    double[] entry = {northing, easting};
-                    results = pointsTree.nearestNeighbor(entry, 1, true);
-                    if (results.get(0).distance < maxDist) {
-                        image.setValue(row, col, results.get(0).value);
-                    } else {
-                        image.setValue(row, col, noData);
+            sqrMaxDist = maxDist * maxDist;
+            noDataValue = noData;
+            final double halfResolution = resolution / 2;
+            final double firstEasting = west + halfResolution;
+            final double firstNorthing = north - halfResolution;
+            final double cellSize = resolution;
+            final int numCols = ncols;
+            final int batchSize = 32 * Parallel.getPluginProcessors();
+            for (int startRow = 0; startRow < nrows; startRow += batchSize) {
+                final int firstRow = startRow;
+                int endRow = Math.min(nrows, startRow + batchSize);
+                // the rows of each batch are divided among the processors,
+                // each with its own query buffer, and written in order.
+                final double[][] data = new double[endRow - startRow][];
+                Parallel.ForEach(Parallel.create(startRow, endRow), new LoopBody<Partition>() {
+                    @Override
+                    public void run(Partition p) {
+                        StaticKdTree.Neighbors results = new StaticKdTree.Neighbors();
+                        double[] location = new double[2];
+                        for (int r = p.start; r < p.end; r++) {
+                            double[] rowData = new double[numCols];
+                            location[1] = firstNorthing - r * cellSize;
+                            for (int c = 0; c < numCols; c++) {
+                                location[0] = firstEasting + c * cellSize;
+                                rowData[c] = interpolate(location, results);
+                            }
+                            data[r - firstRow] = rowData;
+                        }
+                    }
+                });
+                for (row = startRow; row < endRow; row++) {
+                    if (data[row - startRow] == null) {
+                        throw new IllegalStateException("The points could not be interpolated.");
                     }
+                    image.setRowValues(row, data[row - startRow]);
                 }
                 if (cancelOp) {
                     cancelOperation();
                     return;
                 }
-                progress = (int) (100f * row / (nrows - 1));
+                progress = (int) (100f * endRow / nrows);
                 updateProgress("Interpolating point data:", progress);
             }
 
@@ -422,6 +446,9 @@ public class InterpolationNN implements WhiteboxPlugin {
             myHost.showFeedback("An error has occurred during operation. See log file for details.");
             myHost.logException("Error in " + getDescriptiveName(), e);
         } finally {
+            pointsTree = null;
+            values = null;
+            coordinates = null;
             updateProgress("Progress: ", 0);
             // tells the main application that this process is completed.
             amIActive = false;
@@ -429,6 +456,39 @@ public class InterpolationNN implements WhiteboxPlugin {
         }
     }
     
+    // the points, which are identified in the tree by their positions in the
+    // values array.
+    private double[] coordinates;
+    private double[] values;
+    private int numValues;
+    private StaticKdTree pointsTree;
+
+    private void addPoint(double x, double y, double value) {
+        if (numValues == values.length) {
+            coordinates = Arrays.copyOf(coordinates, 4 * numValues);
+            values = Arrays.copyOf(values, 2 * numValues);
+        }
+        coordinates[2 * numValues] = x;
+        coordinates[2 * numValues + 1] = y;
+        values[numValues] = value;
+        numValues++;
+    }
+
+    private double sqrMaxDist;
+    private double noDataValue;
+
+    /**
+     * Finds the value of the nearest point to a location. This is called from
+     * many threads, each with its own results buffer.
+     */
+    private double interpolate(double[] location, StaticKdTree.Neighbors results) {
+        if (pointsTree.nearestNeighbors(location, 1, results) > 0
+                && results.getDistance(0) < sqrMaxDist) {
+            return values[results.getIndex(0)];
+        }
+        return noDataValue;
+    }
+
     public int countLinesInFile(String filename) throws IOException {
         InputStream is = new BufferedInputStream(new FileInputStream(filename));
         try {
@@ -17,6 +17,7 @@
 package plugins;
 
 import java.util.Date;
+import whitebox.algorithms.StreamNetwork;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -30,9 +31,6 @@ public class FindMainStem implements WhiteboxPlugin {
     
     private WhiteboxPluginHost myHost = null;
     private String[] args;
-    
-    // Constants
-    private static final double LnOf2 = 0.693147180559945;
 
     /**
      * Used to retrieve the plugin tool's name. This is a short, unique name
@@ -195,17 +193,8 @@ public class FindMainStem implements WhiteboxPlugin {
         String pointerHeader = null;
         String accumHeader = null;
         String outputHeader = null;
-        int row, col, x, y, x2, y2, nx, ny;
-        int progress = 0;
-        int i, c;
-        int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
-        int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
-        double[] inflowingVals = new double[]{16, 32, 64, 128, 1, 2, 4, 8};
-        boolean flag = false;
-        double flowDir = 0;
-        double nFlowDir = 0;
-        boolean isOutlet = false;
-        double maxFlowAccum = 0;
+        int row, col, i, c;
+        int progress;
                 
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -257,71 +246,85 @@ public class FindMainStem implements WhiteboxPlugin {
             output.setPreferredPalette("qual.pal");
             output.setDataScale(WhiteboxRaster.DataScale.CATEGORICAL);
             
+            StreamNetwork network = StreamNetwork.getInstance(streams, pntr,
+                    new StreamNetwork.ProgressListener() {
+                @Override
+                public boolean progress(int progress) {
+                    updateProgress("Loop 1 of 2:", progress);
+                    return !cancelOp;
+                }
+            });
+            if (network == null) {
+                cancelOperation();
+                return;
+            }
+            if (network.getNumberOfInvalidPointers() > 0) {
+                showFeedback("An unexpected value has "
+                        + "been identified in the pointer "
+                        + "image. This tool requires a "
+                        + "pointer grid that has been "
+                        + "created using either the D8 "
+                        + "or Rho8 tools.");
+                return;
+            }
             
-            updateProgress("Finding network links:", 0);
+            // read the flow accumulation of the stream cells
+            int numCells = network.getNumberOfStreamCells();
+            double[] flowAccum = new double[numCells];
             for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    if (streams.getValue(row, col) != 0 &&
-                            streams.getValue(row, col) != streamsNoData) {
-                        isOutlet = false;
-                        flowDir = pntr.getValue(row, col);
-                        if (flowDir == 0) { 
-                            isOutlet = true; 
-                        } else {
-                            c = (int)(Math.log(flowDir) / LnOf2);
-                            if (streams.getValue(row + dY[c], col + dX[c]) == 0 
-                                    || streams.getValue(row + dY[c], col + dX[c]) == streamsNoData) {
-                                isOutlet = true;
+                if (network.getRowStart(row) == network.getRowStart(row + 1)) {
+                    continue;
+                }
+                double[] data = accum.getRowValues(row);
+                for (i = network.getRowStart(row); i < network.getRowStart(row + 1); i++) {
+                    flowAccum[i] = data[network.getColumn(i)];
+                }
+            }
+            
+            // From each outlet, follow the inflowing stream cell with the
+            // highest flow accumulation value upstream.
+            boolean[] isMainStem = new boolean[numCells];
+            for (i = 0; i < numCells; i++) {
+                if (network.getDownstreamCell(i) < 0) {
+                    int cell = i;
+                    do {
+                        isMainStem[cell] = true;
+                        int next = -1;
+                        double maxFlowAccum = 0;
+                        for (c = 0; c < 8; c++) {
+                            int n = network.getInflowingStreamCell(cell, c);
+                            if (n >= 0 && flowAccum[n] > maxFlowAccum) {
+                                next = n;
+                                maxFlowAccum = flowAccum[n];
                             }
                         }
-                        
-                        if (isOutlet) {
-                            x = col;
-                            y = row;
-                            flag = true;
-                            do {
-                                output.setValue(y, x, 1.0);
-                                
-                                // find the upslope neighbouring stream cell
-                                // with the highest flow accumulation value
-                                maxFlowAccum = 0;
-                                nx = 0;
-                                ny = 0;
-                                for (c = 0; c < 8; c++) {
-                                    x2 = x + dX[c];
-                                    y2 = y + dY[c];
-                                    nFlowDir = pntr.getValue(y2, x2);
-                                    if (streams.getValue(y2, x2) > 0 
-                                            && nFlowDir == inflowingVals[c]) {
-                                        if (accum.getValue(y2, x2) > maxFlowAccum) {
-                                            nx = x2;
-                                            ny = y2;
-                                            maxFlowAccum = accum.getValue(y2, x2);
-                                        }
-                                        
-                                    }
-                                }
-                                
-                                if (maxFlowAccum > 0) {
-                                    x = nx;
-                                    y = ny;
-                                } else {
-                                    flag = false;
-                                }
-                            } while (flag);
-                        }
-                    } else if (streams.getValue(row, col) == streamsNoData) {
-                        output.setValue(row, col, streamsNoData);
+                        cell = next;
+                    } while (cell >= 0);
+                }
+            }
+            
+            updateProgress("Loop 2 of 2:", 0);
+            for (row = 0; row < rows; row++) {
+                double[] data = streams.getRowValues(row);
+                for (col = 0; col < cols; col++) {
+                    if (data[col] != streamsNoData) {
+                        data[col] = 0;
                     }
                 }
+                for (i = network.getRowStart(row); i < network.getRowStart(row + 1); i++) {
+                    if (isMainStem[i]) {
+                        data[network.getColumn(i)] = 1;
+                    }
+                }
+                output.setRowValues(row, data);
                 if (cancelOp) {
                     cancelOperation();
                     return;
                 }
                 progress = (int) (100f * row / (rows - 1));
-                updateProgress(progress);
+                updateProgress("Loop 2 of 2:", progress);
             }
-                 
+
             output.addMetadataEntry("Created by the "
                     + getDescriptiveName() + " tool.");
             output.addMetadataEntry("Created on " + new Date());
@@ -17,6 +17,7 @@
 package plugins;
 
 import java.io.File;
+import whitebox.algorithms.StreamNetwork;
 import whitebox.geospatialfiles.ShapeFile;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.geospatialfiles.shapefile.attributes.DBFField;
@@ -36,9 +37,6 @@ public class RasterStreamsToVector implements WhiteboxPlugin {
     
     private WhiteboxPluginHost myHost = null;
     private String[] args;
-    
-    // Constants
-    private static final double LnOf2 = 0.693147180559945;
 
     /**
      * Used to retrieve the plugin tool's name. This is a short, unique name
@@ -200,16 +198,13 @@ public class RasterStreamsToVector implements WhiteboxPlugin {
         String streamsHeader;
         String pointerHeader;
         String outputFileName;
-        int row, col, x, y;
+        int x, y;
         double xCoord, yCoord;
         int progress;
-        int c;
+        int i, c;
         int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
         int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
-        double[] inflowingVals = new double[]{16, 32, 64, 128, 1, 2, 4, 8};
-        boolean flag;
-        double flowDir;
-        double previousFlowDir;
+        int previousFlowDir;
         double linkLength;
         double streamValue;
                 
@@ -235,8 +230,6 @@ public class RasterStreamsToVector implements WhiteboxPlugin {
             double noData = streams.getNoDataValue();
             double gridResX = streams.getCellSizeX();
             double gridResY = streams.getCellSizeY();
-            double diagGridRes = Math.sqrt(gridResX * gridResX + gridResY * gridResY);
-            double[] gridLengths = new double[]{diagGridRes, gridResX, diagGridRes, gridResY, diagGridRes, gridResX, diagGridRes, gridResY};
             double east = streams.getEast() - gridResX / 2.0;
             double west = streams.getWest() + gridResX / 2.0;
             double EWRange = east - west;
@@ -274,115 +267,87 @@ public class RasterStreamsToVector implements WhiteboxPlugin {
             // set up the output files of the shapefile and the dbf
             ShapeFile output = new ShapeFile(outputFileName, ShapeType.POLYLINE, fields);
 
-            byte numNeighbouringStreamCells;
-            int FID = 0;
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    streamValue = streams.getValue(row, col);
-                    if (streamValue > 0) {
-                        // see if it is a headwater location
-                        numNeighbouringStreamCells = 0;
-                        for (c = 0; c < 8; c++) {
-                            x = col + dX[c];
-                            y = row + dY[c];
-                            if (streams.getValue(y, x) > 0 && 
-                                    pntr.getValue(y, x) == inflowingVals[c]) { 
-                                numNeighbouringStreamCells++; 
-                            }
-                        }
-                        if (numNeighbouringStreamCells != 1) {
-                            //it's the start of a link.
-                            FID++;
-                            linkLength = 0;
-                            int[] parts = {0};
-                            PointsList points = new PointsList();
-                            x = col;
-                            y = row;
-                            previousFlowDir = -99;
-                            flag = true;
-                            do {
-                                //find the downslope neighbour
-                                flowDir = pntr.getValue(y, x);
-                                if (flowDir > 0) {
-                                    if (flowDir != previousFlowDir) {
-                                        // it's a bend in the stream so add this point
-                                        xCoord = west + ((double)x / cols) * EWRange;
-                                        yCoord = north - ((double)y / rows) * NSRange;
-                                        points.addPoint(xCoord, yCoord);
-                                        
-                                        previousFlowDir = flowDir;
-                                    }
-                                    
-                                    // update the row and column values to the
-                                    // cell that the flowpath leads to.
-                                    c = (int)(Math.log(flowDir) / LnOf2);
-                                    if (c > 7) {
-                                        showFeedback("An unexpected value has "
-                                                + "been identified in the pointer "
-                                                + "image. This tool requires a "
-                                                + "pointer grid that has been "
-                                                + "created using either the D8 "
-                                                + "or Rho8 tools.");
-                                        return;
-                                    }
-                                    
-                                    x += dX[c];
-                                    y += dY[c];
-
-                                    linkLength += gridLengths[c];
-                                    
-                                    if (streams.getValue(y, x) <= 0) { //it's not a stream cell
-                                        flag = false;
-                                    } else {
-                                        //is it a confluence
-                                        numNeighbouringStreamCells = 0;
-                                        int x2, y2;
-                                        for (int d = 0; d < 8; d++) {
-                                            x2 = x + dX[d];
-                                            y2 = y + dY[d];
-                                            if (streams.getValue(y2, x2) > 0 
-                                                    && pntr.getValue(y2, x2) == 
-                                                    inflowingVals[d]) {
-                                                numNeighbouringStreamCells++;
-                                            }
-                                        }
-                                        if (numNeighbouringStreamCells > 1) {
-                                            // It's a confluence and you should stop here.
-                                            flag = false;
-                                        }
-                                    }
+            StreamNetwork network = StreamNetwork.getInstance(streams, pntr,
+                    new StreamNetwork.ProgressListener() {
+                @Override
+                public boolean progress(int progress) {
+                    updateProgress("Loop 1 of 2:", progress);
+                    return !cancelOp;
+                }
+            });
+            if (network == null) {
+                cancelOperation();
+                return;
+            }
+            if (network.getNumberOfInvalidPointers() > 0) {
+                showFeedback("An unexpected value has "
+                        + "been identified in the pointer "
+                        + "image. This tool requires a "
+                        + "pointer grid that has been "
+                        + "created using either the D8 "
+                        + "or Rho8 tools.");
+                return;
+            }
+            
+            int numLinks = network.getNumberOfLinks();
+            int oldProgress = -1;
+            updateProgress("Loop 2 of 2:", 0);
+            for (int link = 0; link < numLinks; link++) {
+                linkLength = 0;
+                int[] parts = {0};
+                PointsList points = new PointsList();
+                previousFlowDir = -99;
+                int cell = network.getLinkCell(link, 0);
+                streamValue = network.getValue(cell);
+                for (i = 0; i < network.getNumberOfLinkCells(link); i++) {
+                    cell = network.getLinkCell(link, i);
+                    c = network.getFlowDirection(cell);
+                    if (c >= 0 && c != previousFlowDir) {
+                        // it's a bend in the stream so add this point
+                        x = network.getColumn(cell);
+                        y = network.getRow(cell);
+                        xCoord = west + ((double)x / cols) * EWRange;
+                        yCoord = north - ((double)y / rows) * NSRange;
+                        points.addPoint(xCoord, yCoord);
 
-                                } else {
-                                    flag = false;
-                                }
-                                
-                                if (!flag) {
-                                    // it's the end of the stream link so
-                                    // add the point.
-                                    xCoord = west + ((double)x / cols) * EWRange;
-                                    yCoord = north - ((double)y / rows) * NSRange;
-                                    points.addPoint(xCoord, yCoord);
-                                }
-                                
-                            } while (flag);
-                            
-                            // add the line to the shapefile.
-                            PolyLine line = new PolyLine(parts, points.getPointsArray());
-                            Object[] rowData = new Object[3];
-                            rowData[0] = new Double(FID);
-                            rowData[1] = new Double(streamValue);
-                            rowData[2] = new Double(linkLength / 1000.0);
-                            output.addRecord(line, rowData);
-                        }
+                        previousFlowDir = c;
                     }
+                    linkLength += network.getFlowLength(cell);
+                }
+                
+                // the link ends at the cell that its last cell drains to,
+                // whether it is a confluence or a non-stream cell, or at the
+                // last cell if it has no downslope neighbour.
+                x = network.getColumn(cell);
+                y = network.getRow(cell);
+                c = network.getFlowDirection(cell);
+                if (c >= 0) {
+                    x += dX[c];
+                    y += dY[c];
                 }
+                xCoord = west + ((double)x / cols) * EWRange;
+                yCoord = north - ((double)y / rows) * NSRange;
+                points.addPoint(xCoord, yCoord);
+                
+                // add the line to the shapefile.
+                PolyLine line = new PolyLine(parts, points.getPointsArray());
+                Object[] rowData = new Object[3];
+                rowData[0] = new Double(link + 1);
+                rowData[1] = new Double(streamValue);
+                rowData[2] = new Double(linkLength / 1000.0);
+                output.addRecord(line, rowData);
+                
                 if (cancelOp) {
                     cancelOperation();
                     return;
                 }
-                progress = (int)(100f * row / (rows - 1));
-                updateProgress(progress);
+                progress = (int)(100f * link / numLinks);
+                if (progress != oldProgress) {
+                    updateProgress("Loop 2 of 2:", progress);
+                    oldProgress = progress;
+                }
             }
+
             output.write();
 
             pntr.close();
@@ -16,7 +16,9 @@
  */
 package plugins;
 
+import java.util.Arrays;
 import java.util.Date;
+import whitebox.algorithms.StreamNetwork;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -30,9 +32,6 @@ public class RemoveShortStreams implements WhiteboxPlugin {
     
     private WhiteboxPluginHost myHost = null;
     private String[] args;
-    
-    // Constants
-    private static final double LnOf2 = 0.693147180559945;
 
     /**
      * Used to retrieve the plugin tool's name. This is a short, unique name
@@ -194,18 +193,9 @@ public class RemoveShortStreams implements WhiteboxPlugin {
         String streamsHeader = null;
         String pointerHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
-        int progress = 0;
-        int i, c;
-        int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
-        int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
-        double[] inflowingVals = new double[]{16, 32, 64, 128, 1, 2, 4, 8};
-        boolean flag = false;
-        double flowDir = 0;
+        int row, i;
+        int progress;
         double minStreamLength = 0;
-        boolean blnRemoveStream = false;
-        int stopRow, stopCol;
-
                 
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -235,16 +225,7 @@ public class RemoveShortStreams implements WhiteboxPlugin {
             int rows = streams.getNumberRows();
             int cols = streams.getNumberColumns();
             double noData = streams.getNoDataValue();
-            double gridResX = streams.getCellSizeX();
-            double gridResY = streams.getCellSizeY();
-            double diagGridRes = Math.sqrt(gridResX * gridResX + gridResY * gridResY);
-            double[] gridLengths = new double[]{diagGridRes, gridResX, diagGridRes, gridResY, diagGridRes, gridResX, diagGridRes, gridResY};
-            
-            double maxLinkID = streams.getMaximumValue();
             
-            //convert the MinStreamLength to grid cell units
-            minStreamLength = minStreamLength / ((gridResX + gridResY) / 2);
-
             WhiteboxRaster pntr = new WhiteboxRaster(pointerHeader, "r");
             if (pntr.getNumberRows() != rows || pntr.getNumberColumns() != cols) {
                 showFeedback("The input images must be of the same dimensions.");
@@ -256,136 +237,57 @@ public class RemoveShortStreams implements WhiteboxPlugin {
             output.setPreferredPalette("qual.pal");
             output.setDataScale(WhiteboxRaster.DataScale.CATEGORICAL);
             
-            // fill the output image with the streams
-            updateProgress("Loop 1 of 2:", 0);
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    output.setValue(row, col, streams.getValue(row, col));
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
+            StreamNetwork network = StreamNetwork.getInstance(streams, pntr,
+                    new StreamNetwork.ProgressListener() {
+                @Override
+                public boolean progress(int progress) {
+                    updateProgress("Loop 1 of 2:", progress);
+                    return !cancelOp;
                 }
-                progress = (int) (100f * row / (rows - 1));
-                updateProgress("Loop 1 of 2:", progress);
+            });
+            if (network == null) {
+                cancelOperation();
+                return;
+            }
+            if (network.getNumberOfInvalidPointers() > 0) {
+                showFeedback("An unexpected value has "
+                        + "been identified in the pointer "
+                        + "image. This tool requires a "
+                        + "pointer grid that has been "
+                        + "created using either the D8 "
+                        + "or Rho8 tools.");
+                return;
             }
             
-            byte numNeighbouringStreamCells = 0;
-            double linkLength = 0;
-            int x2, y2;
+            // remove the links that run from a channel head to a confluence
+            // and are shorter than the minimum length; the confluence cell
+            // belongs to the downstream link and is kept.
+            boolean[] isRemoved = new boolean[network.getNumberOfLinks()];
+            for (int link = 0; link < network.getNumberOfLinks(); link++) {
+                isRemoved[link] = network.isHead(link)
+                        && network.getDownstreamLink(link) >= 0
+                        && network.getLinkLength(link) < minStreamLength;
+            }
+            
+            double[] data = new double[cols];
             updateProgress("Loop 2 of 2:", 0);
             for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    if (streams.getValue(row, col) > 0) {
-                        // see if it is a headwater location
-                        numNeighbouringStreamCells = 0;
-                        for (c = 0; c < 8; c++) {
-                            x = col + dX[c];
-                            y = row + dY[c];
-                            if (streams.getValue(y, x) > 0 && 
-                                    pntr.getValue(y, x) == inflowingVals[c]) { 
-                                numNeighbouringStreamCells++; 
-                            }
-                        }
-                        if (numNeighbouringStreamCells == 0) {
-                            //it's a headwater location so start a downstream flowpath
-                            linkLength = 0;
-                            blnRemoveStream = false;
-                            x = col;
-                            y = row;
-                            stopRow = -1;
-                            stopCol = -1;
-                            flag = true;
-                            do {
-                                //see if it's the end of the link, i.e. a confluence
-                                numNeighbouringStreamCells = 0;
-                                for (c = 0; c < 8; c++) {
-                                    x2 = x + dX[c];
-                                    y2 = y + dY[c];
-                                    if (streams.getValue(y2, x2) > 0
-                                            && pntr.getValue(y2, x2) == inflowingVals[c]) {
-                                        numNeighbouringStreamCells++;
-                                    }
-                                }
-                                if (numNeighbouringStreamCells > 1) { //it's a confluence
-                                    if (linkLength < minStreamLength) {
-                                        stopRow = y;
-                                        stopCol = x;
-                                        blnRemoveStream = true;
-                                    }
-                                    flag = false;
-                                    break;
-                                }
-                                
-                                //find the downslope neighbour
-                                flowDir = pntr.getValue(y, x);
-                                if (flowDir > 0) {
-                                    c = (int)(Math.log(flowDir) / LnOf2);
-                                    if (c > 7) {
-                                        showFeedback("An unexpected value has "
-                                                + "been identified in the pointer "
-                                                + "image. This tool requires a "
-                                                + "pointer grid that has been "
-                                                + "created using either the D8 "
-                                                + "or Rho8 tools.");
-                                        return;
-                                    }
-                                    linkLength += gridLengths[c];
-                                    
-                                    if (linkLength > minStreamLength) {
-                                        flag = false;
-                                    } else {
-                                        x += dX[c];
-                                        y += dY[c];
-                                    
-                                        if (streams.getValue(y, x) <= 0) { //it's not a stream cell
-                                            flag = false;
-                                        }
-                                    }
-
-                                } else {
-                                    flag = false;
-                                }
-                            } while (flag);
-                            
-                            
-                            if (blnRemoveStream) { //remove the stream
-                                x = col;
-                                y = row;
-                                flag = true;
-                                do {
-                                    if (x == stopCol && y == stopRow) {
-                                        flag = false;
-                                        break;
-                                    }
-                                    output.setValue(y, x, noData);
-                                    //find the downslope neighbour
-                                    flowDir = pntr.getValue(y, x);
-                                    if (flowDir > 0) {
-                                        c = (int)(Math.log(flowDir) / LnOf2);
-                                        x += dX[c];
-                                        y += dY[c];
-                                        if (streams.getValue(y, x) <= 0) { //it's not a stream cell
-                                            flag = false;
-                                        }
-                                    } else {
-                                        flag = false;
-                                    }
-                                } while (flag);
-                            }
-                        }
-                    } else {
-                        output.setValue(row, col, noData);
+                Arrays.fill(data, noData);
+                for (i = network.getRowStart(row); i < network.getRowStart(row + 1); i++) {
+                    int link = network.getLink(i);
+                    if (link < 0 || !isRemoved[link]) {
+                        data[network.getColumn(i)] = network.getValue(i);
                     }
                 }
+                output.setRowValues(row, data);
                 if (cancelOp) {
                     cancelOperation();
                     return;
                 }
                 progress = (int) (100f * row / (rows - 1));
-                updateProgress("Loop 1 of 2:", progress);
+                updateProgress("Loop 2 of 2:", progress);
             }
-            
+
             output.addMetadataEntry("Created by the "
                     + getDescriptiveName() + " tool.");
             output.addMetadataEntry("Created on " + new Date());
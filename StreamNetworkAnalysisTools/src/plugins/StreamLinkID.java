@@ -16,7 +16,9 @@
  */
 package plugins;
 
+import java.util.Arrays;
 import java.util.Date;
+import whitebox.algorithms.StreamNetwork;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -30,9 +32,6 @@ public class StreamLinkID implements WhiteboxPlugin {
     
     private WhiteboxPluginHost myHost = null;
     private String[] args;
-    
-    // Constants
-    private static final double LnOf2 = 0.693147180559945;
 
     /**
      * Used to retrieve the plugin tool's name. This is a short, unique name
@@ -194,14 +193,8 @@ public class StreamLinkID implements WhiteboxPlugin {
         String streamsHeader = null;
         String pointerHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
-        float progress = 0;
-        int i, c;
-        int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
-        int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
-        double[] inflowingVals = new double[]{16, 32, 64, 128, 1, 2, 4, 8};
-        boolean flag = false;
-        double flowDir = 0;
+        int row, col, i;
+        int progress;
                 
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -237,99 +230,56 @@ public class StreamLinkID implements WhiteboxPlugin {
                 return;
             }
             
+            StreamNetwork network = StreamNetwork.getInstance(streams, pntr,
+                    new StreamNetwork.ProgressListener() {
+                @Override
+                public boolean progress(int progress) {
+                    updateProgress("Loop 1 of 2:", progress);
+                    return !cancelOp;
+                }
+            });
+            if (network == null) {
+                cancelOperation();
+                return;
+            }
+            if (network.getNumberOfInvalidPointers() > 0) {
+                showFeedback("An unexpected value has "
+                        + "been identified in the pointer "
+                        + "image. This tool requires a "
+                        + "pointer grid that has been "
+                        + "created using either the D8 "
+                        + "or Rho8 tools.");
+                return;
+            }
+            
+            // the identifiers of large networks do not fit in an integer raster
+            WhiteboxRaster.DataType dataType = WhiteboxRaster.DataType.INTEGER;
+            if (network.getNumberOfLinks() > Short.MAX_VALUE) {
+                dataType = WhiteboxRaster.DataType.FLOAT;
+            }
             WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw", 
-                    streamsHeader, WhiteboxRaster.DataType.INTEGER, 0);
+                    streamsHeader, dataType, 0);
             output.setPreferredPalette("qual.pal");
             output.setDataScale(WhiteboxRaster.DataScale.CATEGORICAL);
             
-            byte numNeighbouringStreamCells = 0;
-            double currentID = 0;
-            double currentValue = 0;
+            // links are numbered downstream from each channel head in turn
+            int[] linkIDs = network.getLinkIdentifiers();
             
+            double[] data = new double[cols];
+            updateProgress("Loop 2 of 2:", 0);
             for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    if (streams.getValue(row, col) > 0) {
-                        // see if it is a headwater location
-                        numNeighbouringStreamCells = 0;
-                        for (c = 0; c < 8; c++) {
-                            x = col + dX[c];
-                            y = row + dY[c];
-                            if (streams.getValue(y, x) > 0 && 
-                                    pntr.getValue(y, x) == inflowingVals[c]) { 
-                                numNeighbouringStreamCells++; 
-                            }
-                        }
-                        if (numNeighbouringStreamCells == 0) {
-                            //it's a headwater location so start a downstream flowpath
-                            x = col;
-                            y = row;
-                            currentID++;
-                            output.setValue(y, x, currentID);
-                            flag = true;
-                            do {
-                                //find the downslope neighbour
-                                flowDir = pntr.getValue(y, x);
-                                if (flowDir > 0) {
-                                    c = (int)(Math.log(flowDir) / LnOf2);
-                                    if (c > 7) {
-                                        showFeedback("An unexpected value has "
-                                                + "been identified in the pointer "
-                                                + "image. This tool requires a "
-                                                + "pointer grid that has been "
-                                                + "created using either the D8 "
-                                                + "or Rho8 tools.");
-                                        return;
-                                    }
-                                    x += dX[c];
-                                    y += dY[c];
-
-                                    if (streams.getValue(y, x) <= 0) { //it's not a stream cell
-                                        flag = false;
-                                    } else {
-                                        currentValue = output.getValue(y, x);
-                                        if (currentValue > 0) {
-                                            flag = false; //run into a larger stream, 
-                                            //end the downstream search
-                                            break;
-                                        }
-                                        //is it a confluence
-                                        numNeighbouringStreamCells = 0;
-                                        int x2, y2;
-                                        for (int d = 0; d < 8; d++) {
-                                            x2 = x + dX[d];
-                                            y2 = y + dY[d];
-                                            if (streams.getValue(y2, x2) > 0 
-                                                    && pntr.getValue(y2, x2) == 
-                                                    inflowingVals[d]) {
-                                                numNeighbouringStreamCells++;
-                                            }
-                                        }
-                                        if (numNeighbouringStreamCells >= 2) {
-                                            currentID++;
-                                        }
-                                        output.setValue(y, x, currentID);
-                                    }
-
-                                } else {
-                                    if (streams.getValue(y, x) > 0) { //it is a valid 
-                                        //stream cell and probably just has no downslope 
-                                        //neighbour (e.g. at the edge of the grid)
-                                        output.setValue(y, x, currentID);
-                                    }
-                                    flag = false;
-                                }
-                            } while (flag);
-                        }
-                    } else {
-                        output.setValue(row, col, noData);
-                    }
+                Arrays.fill(data, noData);
+                for (i = network.getRowStart(row); i < network.getRowStart(row + 1); i++) {
+                    col = network.getColumn(i);
+                    data[col] = network.getLink(i) < 0 ? 0 : linkIDs[network.getLink(i)];
                 }
+                output.setRowValues(row, data);
                 if (cancelOp) {
                     cancelOperation();
                     return;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+                progress = (int) (100f * row / (rows - 1));
+                updateProgress("Loop 2 of 2:", progress);
             }
 
             output.addMetadataEntry("Created by the "
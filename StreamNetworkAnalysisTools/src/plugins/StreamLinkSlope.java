@@ -16,7 +16,9 @@
  */
 package plugins;
 
+import java.util.Arrays;
 import java.util.Date;
+import whitebox.algorithms.StreamNetwork;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -30,9 +32,6 @@ public class StreamLinkSlope implements WhiteboxPlugin {
     
     private WhiteboxPluginHost myHost = null;
     private String[] args;
-    
-    // Constants
-    private static final double LnOf2 = 0.693147180559945;
 
     /**
      * Used to retrieve the plugin tool's name. This is a short, unique name
@@ -195,15 +194,8 @@ public class StreamLinkSlope implements WhiteboxPlugin {
         String pointerHeader = null;
         String DEMHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
-        float progress = 0;
-        int i, c;
-        double z;
-        int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
-        int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
-        double[] inflowingVals = new double[]{16, 32, 64, 128, 1, 2, 4, 8};
-        boolean flag = false;
-        double flowDir = 0;
+        int row, col, i;
+        int progress;
                 
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -233,10 +225,6 @@ public class StreamLinkSlope implements WhiteboxPlugin {
             int rows = streamID.getNumberRows();
             int cols = streamID.getNumberColumns();
             double noData = streamID.getNoDataValue();
-            double gridResX = streamID.getCellSizeX();
-            double gridResY = streamID.getCellSizeY();
-            double diagGridRes = Math.sqrt(gridResX * gridResX + gridResY * gridResY);
-            double[] gridLengths = new double[]{diagGridRes, gridResX, diagGridRes, gridResY, diagGridRes, gridResX, diagGridRes, gridResY};
             
             double maxLinkID = streamID.getMaximumValue();
             double[] linkLengths = new double[(int)maxLinkID + 1];
@@ -262,108 +250,82 @@ public class StreamLinkSlope implements WhiteboxPlugin {
             //the minimum elevation, the second holds the maximimum, and the third holds the slope
             //initialize the LinkRelief array so that the min and max values can be found
             
-            for (c = 0; c <= maxLinkID; c++) {
-                linkRelief[0][c] = 99999999;
-                linkRelief[1][c] = -99999999;
+            for (i = 0; i <= maxLinkID; i++) {
+                linkRelief[0][i] = 99999999;
+                linkRelief[1][i] = -99999999;
+            }
+            
+            StreamNetwork network = StreamNetwork.getInstance(streamID, pntr,
+                    new StreamNetwork.ProgressListener() {
+                @Override
+                public boolean progress(int progress) {
+                    updateProgress("Loop 1 of 2:", progress);
+                    return !cancelOp;
+                }
+            });
+            if (network == null) {
+                cancelOperation();
+                return;
+            }
+            if (network.getNumberOfInvalidPointers() > 0) {
+                showFeedback("An unexpected value has "
+                        + "been identified in the pointer "
+                        + "image. This tool requires a "
+                        + "pointer grid that has been "
+                        + "created using either the D8 "
+                        + "or Rho8 tools.");
+                return;
+            }
+            
+            // the length of a link runs from its first cell to the cell that
+            // its last cell drains to.
+            for (int link = 0; link < network.getNumberOfLinks(); link++) {
+                for (i = 0; i < network.getNumberOfLinkCells(link); i++) {
+                    int cell = network.getLinkCell(link, i);
+                    linkLengths[(int) network.getValue(cell)] += network.getFlowLength(cell);
+                }
             }
-                    
-            byte numNeighbouringStreamCells = 0;
-            double currentID = 0;
-            double linkLength = 0;
             
+            // find the elevation range of each link
             for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    if (streamID.getValue(row, col) > 0) {
-                        // see if it is a headwater location
-                        numNeighbouringStreamCells = 0;
-                        for (c = 0; c < 8; c++) {
-                            x = col + dX[c];
-                            y = row + dY[c];
-                            if (streamID.getValue(y, x) > 0 && 
-                                    pntr.getValue(y, x) == inflowingVals[c]) { 
-                                numNeighbouringStreamCells++; 
-                            }
-                        }
-                        if (numNeighbouringStreamCells == 0) {
-                            //it's a headwater location so start a downstream flowpath
-                            x = col;
-                            y = row;
-                            linkLength = 0;
-                            currentID = streamID.getValue(y, x);
-                            flag = true;
-                            do {
-                                z = DEM.getValue(y, x);
-                                if (z < linkRelief[0][(int)currentID]) { linkRelief[0][(int)currentID] = z; }
-                                if (z > linkRelief[1][(int)currentID]) { linkRelief[1][(int)currentID] = z; }
-                                
-                                //find the downslope neighbour
-                                flowDir = pntr.getValue(y, x);
-                                if (flowDir > 0) {
-                                    c = (int)(Math.log(flowDir) / LnOf2);
-                                    if (c > 7) {
-                                        showFeedback("An unexpected value has "
-                                                + "been identified in the pointer "
-                                                + "image. This tool requires a "
-                                                + "pointer grid that has been "
-                                                + "created using either the D8 "
-                                                + "or Rho8 tools.");
-                                        return;
-                                    }
-                                    linkLength += gridLengths[c];
-                                    
-                                    x += dX[c];
-                                    y += dY[c];
-                                    
-                                    if (streamID.getValue(y, x) != currentID) {
-                                        linkLengths[(int)(currentID)] = linkLength;
-                                        currentID = streamID.getValue(y, x);
-                                        if (currentID != noData) {
-                                            linkLength = 0;
-                                            if (linkLengths[(int) currentID] > 0) {
-                                                flag = false;
-                                            }
-                                        } else {
-                                            flag = false;
-                                        }
-                                    }
-
-                                } else {
-                                    linkLengths[(int)currentID] = linkLength;
-                                    flag = false;
-                                }
-                            } while (flag);
-                        }
-                    } else {
-                        output.setValue(row, col, noData);
-                    }
+                if (network.getRowStart(row) == network.getRowStart(row + 1)) {
+                    continue;
                 }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
+                double[] elevations = DEM.getRowValues(row);
+                for (i = network.getRowStart(row); i < network.getRowStart(row + 1); i++) {
+                    if (network.getLink(i) >= 0) {
+                        int id = (int) network.getValue(i);
+                        double z = elevations[network.getColumn(i)];
+                        if (z < linkRelief[0][id]) { linkRelief[0][id] = z; }
+                        if (z > linkRelief[1][id]) { linkRelief[1][id] = z; }
+                    }
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
             }
             
             for (i = 1; i <= maxLinkID; i++) {
                 linkRelief[2][i] = (linkRelief[1][i] - linkRelief[0][i]) / linkLengths[i] * 100;
             }
             
+            double[] data = new double[cols];
+            updateProgress("Loop 2 of 2:", 0);
             for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    if (streamID.getValue(row, col) > 0) {
-                        currentID = streamID.getValue(row, col);
-                        output.setValue(row, col, linkRelief[2][(int)currentID]);
+                Arrays.fill(data, noData);
+                for (i = network.getRowStart(row); i < network.getRowStart(row + 1); i++) {
+                    col = network.getColumn(i);
+                    data[col] = linkRelief[2][(int) network.getValue(i)];
+                    if (Double.isNaN(data[col])) { // a link of zero length
+                        data[col] = noData;
                     }
                 }
+                output.setRowValues(row, data);
                 if (cancelOp) {
                     cancelOperation();
                     return;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+                progress = (int) (100f * row / (rows - 1));
+                updateProgress("Loop 2 of 2:", progress);
             }
-            
+
             output.addMetadataEntry("Created by the "
                     + getDescriptiveName() + " tool.");
             output.addMetadataEntry("Created on " + new Date());
@@ -375,12 +337,12 @@ public class StreamLinkSlope implements WhiteboxPlugin {
             // returning a header file string displays the image.
             returnData(outputHeader);
 
-            String retData = "Stream Link Slope Output\n";
+            StringBuilder retData = new StringBuilder("Stream Link Slope Output\n");
             for (i = 1; i <= maxLinkID; i++) {
-                retData = retData + i + "\t" + linkRelief[2][i] + "\n";
+                retData.append(i).append("\t").append(linkRelief[2][i]).append("\n");
             }
             
-            returnData(retData);
+            returnData(retData.toString());
             
         } catch (OutOfMemoryError oe) {
             myHost.showFeedback("An out-of-memory error has occurred during operation.");
@@ -16,7 +16,9 @@
  */
 package plugins;
 
+import java.util.Arrays;
 import java.util.Date;
+import whitebox.algorithms.StreamNetwork;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -30,9 +32,6 @@ public class StreamMagnitude implements WhiteboxPlugin {
     
     private WhiteboxPluginHost myHost = null;
     private String[] args;
-    
-    // Constants
-    private static final double LnOf2 = 0.693147180559945;
 
     /**
      * Used to retrieve the plugin tool's name. This is a short, unique name
@@ -194,15 +193,8 @@ public class StreamMagnitude implements WhiteboxPlugin {
         String streamsHeader = null;
         String pointerHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
-        float progress = 0;
-        double z;
-        int i, c;
-        int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
-        int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
-        double[] inflowingVals = new double[]{16, 32, 64, 128, 1, 2, 4, 8};
-        boolean flag = false;
-        double flowDir = 0;
+        int row, col, i;
+        int progress;
                 
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -243,100 +235,45 @@ public class StreamMagnitude implements WhiteboxPlugin {
             output.setPreferredPalette("spectrum.pal");
             output.setDataScale(WhiteboxRaster.DataScale.CONTINUOUS);
             
-            WhiteboxRaster numInflowingStreamCells = new WhiteboxRaster(outputHeader.replace(".dep", "_temp.dep"), "rw", 
-                    streamsHeader, WhiteboxRaster.DataType.INTEGER, noData);
-            numInflowingStreamCells.isTemporaryFile = true;
-            
-            byte numNeighbouringStreamCells = 0;
-            double currentValue = 0;
-            
-            updateProgress("Loop 1 of 2:", 0);
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    if (streams.getValue(row, col) > 0) {
-                        // count the number of neighbouring stream cells
-                        numNeighbouringStreamCells = 0;
-                        for (c = 0; c < 8; c++) {
-                            x = col + dX[c];
-                            y = row + dY[c];
-                            if (streams.getValue(y, x) > 0 && 
-                                    pntr.getValue(y, x) == inflowingVals[c]) { 
-                                numNeighbouringStreamCells++; 
-                            }
-                        }
-                        
-                        if (numNeighbouringStreamCells == 0) { // it's a headwater
-                            output.setValue(row, col, 1);
-                            numInflowingStreamCells.setValue(row, col, -1);
-                        } else {
-                            output.setValue(row, col, 0); // it's not a headwater
-                            numInflowingStreamCells.setValue(row, col, numNeighbouringStreamCells);
-                        }
-                    } else {
-                        output.setValue(row, col, noData);
-                    }
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
+            StreamNetwork network = StreamNetwork.getInstance(streams, pntr,
+                    new StreamNetwork.ProgressListener() {
+                @Override
+                public boolean progress(int progress) {
+                    updateProgress("Loop 1 of 2:", progress);
+                    return !cancelOp;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress("Loop 1 of 2:", (int) progress);
+            });
+            if (network == null) {
+                cancelOperation();
+                return;
+            }
+            if (network.getNumberOfInvalidPointers() > 0) {
+                showFeedback("An unexpected value has "
+                        + "been identified in the pointer "
+                        + "image. This tool requires a "
+                        + "pointer grid that has been "
+                        + "created using either the D8 "
+                        + "or Rho8 tools.");
+                return;
             }
             
+            long[] magnitude = network.getMagnitude();
+            
+            double[] data = new double[cols];
             updateProgress("Loop 2 of 2:", 0);
             for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    if (numInflowingStreamCells.getValue(row, col) == -1) {
-                        //it's a headwater location so start a downstream flowpath
-                        x = col;
-                        y = row;
-                        flag = true;
-                        do {
-                            z = output.getValue(y, x);
-                            //find the downslope neighbour
-                            flowDir = pntr.getValue(y, x);
-                            if (flowDir > 0) {
-                                c = (int) (Math.log(flowDir) / LnOf2);
-                                if (c > 7) {
-                                    showFeedback("An unexpected value has "
-                                            + "been identified in the pointer "
-                                            + "image. This tool requires a "
-                                            + "pointer grid that has been "
-                                            + "created using either the D8 "
-                                            + "or Rho8 tools.");
-                                    return;
-                                }
-                                x += dX[c];
-                                y += dY[c];
-
-                                if (streams.getValue(y, x) <= 0) { //it's not a stream cell
-                                    flag = false;
-                                } else {
-                                    //update the numInflowingStreamCells grid
-                                    currentValue = numInflowingStreamCells.getValue(y, x) - 1;
-                                    numInflowingStreamCells.setValue(y, x, currentValue);
-                                    if (currentValue > 0) { 
-                                        flag = false; 
-                                    }
-                                    
-                                    //update the output grid
-                                    currentValue = output.getValue(y, x);
-                                    output.setValue(y, x, z + currentValue);
-                                }
-
-                            } else {
-                                flag = false;
-                            }
-                        } while (flag);
-                    }
+                Arrays.fill(data, noData);
+                for (i = network.getRowStart(row); i < network.getRowStart(row + 1); i++) {
+                    col = network.getColumn(i);
+                    data[col] = network.getLink(i) < 0 ? 0 : magnitude[network.getLink(i)];
                 }
+                output.setRowValues(row, data);
                 if (cancelOp) {
                     cancelOperation();
                     return;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress("Loop 2 of 2:", (int) progress);
+                progress = (int) (100f * row / (rows - 1));
+                updateProgress("Loop 2 of 2:", progress);
             }
 
             output.addMetadataEntry("Created by the "
@@ -346,7 +283,6 @@ public class StreamMagnitude implements WhiteboxPlugin {
             pntr.close();
             streams.close();
             output.close();
-            numInflowingStreamCells.close();
 
             // returning a header file string displays the image.
             returnData(outputHeader);
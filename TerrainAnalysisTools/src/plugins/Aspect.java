@@ -17,6 +17,7 @@
 package plugins;
 
 import java.util.Date;
+import whitebox.algorithms.TerrainDerivatives;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -208,69 +209,24 @@ public class Aspect implements WhiteboxPlugin {
        }
 
         try {
-            int row, col;
-            double z;
-            double[] N = new double[8];
-            double fx, fy;
-            float aspect;
-            float progress = 0;
-            int[] Dy = {-1, 0, 1, 1, 1, 0, -1, -1};
-            int[] Dx = {1, 1, 1, 0, -1, -1, -1, 0};
-            final double radToDeg = 180 / Math.PI;
-            
             WhiteboxRaster inputFile = new WhiteboxRaster(inputHeader, "r");
-            inputFile.isReflectedAtEdges = true;
-            
-            int rows = inputFile.getNumberRows();
-            int cols = inputFile.getNumberColumns();
-            double gridRes = inputFile.getCellSizeX();
-            double eightGridRes = 8 * gridRes;
-            
             double noData = inputFile.getNoDataValue();
-            
-            if (inputFile.getXYUnits().toLowerCase().contains("deg") || 
-                    inputFile.getProjection().toLowerCase().contains("geog")) {
-                // calculate a new z-conversion factor
-                double midLat = (inputFile.getNorth() - inputFile.getSouth()) / 2.0;
-                if (midLat <= 90 && midLat >= -90) {
-                    zConvFactor = 1.0 / (113200 * Math.cos(Math.toRadians(midLat)));
-                }
-            }
 
             WhiteboxRaster outputFile = new WhiteboxRaster(outputHeader, "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, noData);
             outputFile.setPreferredPalette("circular_bw.pal");
-            
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    z = inputFile.getValue(row, col);
-                    if (z != noData) {
-                        for (int i = 0; i < 8; i++) {
-                            N[i] = inputFile.getValue(row + Dy[i], col + Dx[i]);
-                            if (N[i] != noData) {
-                                N[i] = N[i] * zConvFactor;
-                            } else {
-                                N[i] = z * zConvFactor;
-                            }
-                        }
-                        
-                        // calculate slope and aspect
-                        fy = (N[6] - N[4] + 2 * (N[7] - N[3]) + N[0] - N[2]) / eightGridRes;
-                        fx = (N[2] - N[4] + 2 * (N[1] - N[5]) + N[0] - N[6]) / eightGridRes;
-                        
-                        if (fx != 0) {
-                            aspect = (float)(180 - Math.atan(fy / fx) * radToDeg + 90 * (fx / Math.abs(fx)));
-                            outputFile.setValue(row, col, aspect);
-                        } else {
-                            outputFile.setValue(row, col, -1);
-                        }
-                    } else {
-                        outputFile.setValue(row, col, noData);
-                    }
 
+            TerrainDerivatives engine = new TerrainDerivatives(inputFile, zConvFactor);
+            engine.addOutput(TerrainDerivatives.Derivative.ASPECT, outputFile);
+            boolean completed = engine.run(new TerrainDerivatives.ProgressListener() {
+                @Override
+                public boolean progress(int progress) {
+                    updateProgress(progress);
+                    return !cancelOp;
                 }
-                if (cancelOp) { cancelOperation(); return; }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int)progress);
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
             outputFile.addMetadataEntry("Created by the "
@@ -17,6 +17,7 @@
 package plugins;
 
 import java.util.Date;
+import whitebox.algorithms.UpslopeAccumulator;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -30,8 +31,6 @@ public class AverageSlopeToDivide implements WhiteboxPlugin {
 
     private WhiteboxPluginHost myHost = null;
     private String[] args;
-    // Constants
-    private static final double LnOf2 = 0.693147180559945;
 
     /**
      * Used to retrieve the plugin tool's name. This is a short, unique name
@@ -191,20 +190,8 @@ public class AverageSlopeToDivide implements WhiteboxPlugin {
         String inputHeader = null;
         String outputHeader = null;
         String DEMHeader = null;
-        int row, col, x, y;
-        int progress = 0;
-        double z, val, val2, val3;
-        int i, c;
-        int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
-        int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
-        double[] inflowingVals = new double[]{16, 32, 64, 128, 1, 2, 4, 8};
-        boolean flag = false;
-        double flowDir = 0;
-        double flowLength = 0;
-        double numUpslopeFlowpaths = 0;
-        double flowpathLengthToAdd = 0;
+        int row, col;
         double conversionFactor = 1;
-        double divideElevToAdd = 0;
         double radToDeg = 180 / Math.PI;
         
         if (args.length <= 0) {
@@ -229,11 +216,6 @@ public class AverageSlopeToDivide implements WhiteboxPlugin {
             int cols = pntr.getNumberColumns();
             double noData = pntr.getNoDataValue();
 
-            double gridResX = pntr.getCellSizeX();
-            double gridResY = pntr.getCellSizeY();
-            double diagGridRes = Math.sqrt(gridResX * gridResX + gridResY * gridResY);
-            double[] gridLengths = new double[]{diagGridRes, gridResX, diagGridRes, gridResY, diagGridRes, gridResX, diagGridRes, gridResY};
-            
             WhiteboxRaster DEM = new WhiteboxRaster(DEMHeader, "r");
             if (DEM.getNumberRows() != rows || DEM.getNumberColumns() != cols) {
                 showFeedback("The input files must have the same dimensions, i.e. number of "
@@ -247,152 +229,62 @@ public class AverageSlopeToDivide implements WhiteboxPlugin {
             output.setDataScale(WhiteboxRaster.DataScale.CONTINUOUS);
             output.setZUnits(pntr.getXYUnits());
 
-            WhiteboxRaster numInflowingNeighbours = new WhiteboxRaster(outputHeader.replace(".dep", 
-                    "_temp1.dep"), "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, 0);
-            numInflowingNeighbours.isTemporaryFile = true;
-            
-            WhiteboxRaster numUpslopeDivideCells = new WhiteboxRaster(outputHeader.replace(".dep", 
-                    "_temp2.dep"), "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, 0);
-            numUpslopeDivideCells.isTemporaryFile = true;
-            
-            WhiteboxRaster totalFlowpathLength = new WhiteboxRaster(outputHeader.replace(".dep", 
-                    "_temp3.dep"), "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, 0);
-            totalFlowpathLength.isTemporaryFile = true;
-            
-            WhiteboxRaster totalUpslopeDivideElev = new WhiteboxRaster(outputHeader.replace(".dep", 
-                    "_temp4.dep"), "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, 0);
-            totalUpslopeDivideElev.isTemporaryFile = true;
-            
-            
-            updateProgress("Loop 1 of 3:", 0);
+            // The number of divide cells upslope of each cell and the total
+            // length of their flowpaths to the cell. A cell with no inflowing
+            // neighbours is a divide cell, and counts as a single flowpath.
+            final double[] numUpslopeDivideCells = new double[rows * cols];
+            final double[] totalFlowpathLength = new double[rows * cols];
+            // The total elevation of the divide cells upslope of each cell. It
+            // starts as the elevation of the cell itself, which is only used
+            // if the cell is a divide cell.
+            final double[] totalUpslopeDivideElev = new double[rows * cols];
             for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    if (pntr.getValue(row, col) != noData) {
-                        z = 0;
-                        for (i = 0; i < 8; i++) {
-                            if (pntr.getValue(row + dY[i], col + dX[i]) ==
-                                    inflowingVals[i]) { z++; }
-                        }
-                        if (z > 0) {
-                            numInflowingNeighbours.setValue(row, col, z);
-                        } else {
-                            numInflowingNeighbours.setValue(row, col, -1);
-                        }
-                    } else {
-                        output.setValue(row, col, noData);
-                    }
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
-                }
-                progress = (int) (100f * row / (rows - 1));
-                updateProgress("Loop 1 of 3:", progress);
+                System.arraycopy(DEM.getRowValues(row), 0, totalUpslopeDivideElev, row * cols, cols);
             }
-            
-            updateProgress("Loop 2 of 3:", 0);
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    val = numInflowingNeighbours.getValue(row, col);
-                    if (val <= 0 && val != noData) {
-                        flag = false;
-                        x = col;
-                        y = row;
-                        do {
-                            val = numInflowingNeighbours.getValue(y, x);
-                            if (val <= 0 && val != noData) {
-                                //there are no more inflowing neighbours to visit; carry on downslope
-                                if (val == -1) {
-                                    //it's the start of a flowpath
-                                    numUpslopeDivideCells.setValue(y, x, 0);
-                                    numUpslopeFlowpaths = 1;
-                                    divideElevToAdd = DEM.getValue(y, x);
-                                } else {
-                                    numUpslopeFlowpaths = numUpslopeDivideCells.getValue(y, x);
-                                    divideElevToAdd = totalUpslopeDivideElev.getValue(y, x);
-                                }
-                                
-                                numInflowingNeighbours.setValue(y, x, noData);
-
-                                // find it's downslope neighbour
-                                flowDir = pntr.getValue(y, x);
-                                if (flowDir > 0) {
-                                    // what's the flow direction as an int?
-                                    c = (int) (Math.log(flowDir) / LnOf2);
-                                    flowLength = gridLengths[c];
-                                    val2 = totalFlowpathLength.getValue(y, x);
-                                    flowpathLengthToAdd = val2 + numUpslopeFlowpaths * flowLength;
-
-                                    //move x and y accordingly
-                                    x += dX[c];
-                                    y += dY[c];
-                                    
-                                    numUpslopeDivideCells.setValue(y, x, 
-                                            numUpslopeDivideCells.getValue(y, x) 
-                                            + numUpslopeFlowpaths);
-                                    totalFlowpathLength.setValue(y, x, 
-                                            totalFlowpathLength.getValue(y, x)
-                                            + flowpathLengthToAdd);
-                                    totalUpslopeDivideElev.setValue(y, x,
-                                            totalUpslopeDivideElev.getValue(y, x) 
-                                            + divideElevToAdd);
-                                    numInflowingNeighbours.setValue(y, x, 
-                                            numInflowingNeighbours.getValue(y, x) - 1);
-                                } else {  // you've hit the edge or a pit cell.
-                                    flag = true;
-                                }
-                                
-                            } else {
-                                flag = true;
-                            }
-                        } while (!flag);
+            UpslopeAccumulator accumulator = new UpslopeAccumulator(pntr);
+            boolean completed = accumulator.run(new UpslopeAccumulator.Reduction() {
+                @Override
+                public void accumulate(int from, int to, double distance) {
+                    double numUpslopeFlowpaths = numUpslopeDivideCells[from] > 0
+                            ? numUpslopeDivideCells[from] : 1;
+                    if (numUpslopeDivideCells[to] == 0) {
+                        // the first flowpath to reach the cell
+                        totalUpslopeDivideElev[to] = 0;
                     }
+                    numUpslopeDivideCells[to] += numUpslopeFlowpaths;
+                    totalFlowpathLength[to] += totalFlowpathLength[from]
+                            + numUpslopeFlowpaths * distance;
+                    totalUpslopeDivideElev[to] += totalUpslopeDivideElev[from];
                 }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
+            }, new UpslopeAccumulator.ProgressListener() {
+                @Override
+                public boolean progress(int progress) {
+                    updateProgress(progress);
+                    return !cancelOp;
                 }
-                progress = (int) (100f * row / (rows - 1));
-                updateProgress("Loop 2 of 3:", progress);
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
-            
-            numUpslopeDivideCells.flush();
-            totalFlowpathLength.flush();
-            totalUpslopeDivideElev.flush();
-            numInflowingNeighbours.close();
-            
-            updateProgress("Loop 3 of 3:", 0);
-            double[] data1 = null;
-            double[] data2 = null;
-            double[] data3 = null;
-            double[] data4 = null;
-            double[] data5 = null;
+
+            double[] data = new double[cols];
             for (row = 0; row < rows; row++) {
-                data1 = numUpslopeDivideCells.getRowValues(row);
-                data2 = totalFlowpathLength.getRowValues(row);
-                data3 = pntr.getRowValues(row);
-                data4 = totalUpslopeDivideElev.getRowValues(row);
-                data5 = DEM.getRowValues(row);
+                double[] elev = DEM.getRowValues(row);
                 for (col = 0; col < cols; col++) {
-                    if (data3[col] != noData) {
-                        if (data1[col] > 0) {
-                            val = data2[col] / data1[col];
-                            val2 = (data4[col] / data1[col] - data5[col]) * conversionFactor;
-                            val3 = Math.atan(val2 / val) * radToDeg;
-                            output.setValue(row, col, val3);
-                        } else {
-                            output.setValue(row, col, 0);
-                        }
+                    int cell = row * cols + col;
+                    if (accumulator.isNoData(row, col)) {
+                        data[col] = noData;
+                    } else if (numUpslopeDivideCells[cell] > 0) {
+                        double n = numUpslopeDivideCells[cell];
+                        double length = totalFlowpathLength[cell] / n;
+                        double relief = (totalUpslopeDivideElev[cell] / n - elev[col]) * conversionFactor;
+                        data[col] = Math.atan(relief / length) * radToDeg;
                     } else {
-                        output.setValue(row, col, noData);
+                        data[col] = 0;
                     }
                 }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
-                }
-                progress = (int) (100f * row / (rows - 1));
-                updateProgress("Loop 3 of 3:", progress);
+                output.setRowValues(row, data);
             }
             
             output.addMetadataEntry("Created by the "
@@ -401,9 +293,6 @@ public class AverageSlopeToDivide implements WhiteboxPlugin {
 
             pntr.close();
             DEM.close();
-            numUpslopeDivideCells.close();
-            totalFlowpathLength.close();
-            totalUpslopeDivideElev.close();
             output.close();
 
             // returning a header file string displays the image.
@@ -18,6 +18,7 @@
 package plugins;
 
 import java.util.Date;
+import whitebox.algorithms.LocalTopographicPosition;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -190,24 +191,9 @@ public class DeviationFromMeanElevation implements WhiteboxPlugin {
 
         String inputHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
-        double z;
+        int row;
         int progress = 0;
-        int a;
         int filterSize = 3;
-        double n;
-        double sum;
-        double average;
-        double sumOfTheSquares;
-        double stdDev;
-        double devMean;
-        int dX[];
-        int dY[];
-        int midPoint;
-        int numPixelsInFilter;
-        double[] filterShape;
-        boolean reflectAtBorders = true;
-        double centreValue = 0;
         double neighbourhoodDist = 0;
 
         if (args.length <= 0) {
@@ -228,10 +214,8 @@ public class DeviationFromMeanElevation implements WhiteboxPlugin {
         try {
 
             WhiteboxRaster DEM = new WhiteboxRaster(inputHeader, "r");
-            DEM.isReflectedAtEdges = reflectAtBorders;
 
             int rows = DEM.getNumberRows();
-            int cols = DEM.getNumberColumns();
             double noData = DEM.getNoDataValue();
 
             WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, noData);
@@ -248,72 +232,24 @@ public class DeviationFromMeanElevation implements WhiteboxPlugin {
                 filterSize = 3;
             }                
 
-            numPixelsInFilter = filterSize * filterSize;
-            dX = new int[numPixelsInFilter];
-            dY = new int[numPixelsInFilter];
-            filterShape = new double[numPixelsInFilter];
-
-            //fill the filter DX and DY values
-            midPoint = (int) Math.floor(filterSize / 2);
-            //see which pixels in the filter lie within the largest ellipse 
-            //that fits in the filter box 
-            double aSqr = midPoint * midPoint;
-            double bSqr = midPoint * midPoint;
-            a = 0;
-            for (row = 0; row < filterSize; row++) {
-                for (col = 0; col < filterSize; col++) {
-                    dX[a] = col - midPoint;
-                    dY[a] = row - midPoint;
-                    z = (dX[a] * dX[a]) / aSqr + (dY[a] * dY[a]) / bSqr;
-                    if (z > 1) {
-                        filterShape[a] = 0;
-                    } else {
-                        filterShape[a] = 1;
-                    }
-                    a++;
-                }
-            }
-
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    centreValue = DEM.getValue(row, col);
-                    if (centreValue != noData) {
-                        n = 0;
-                        sum = 0;
-                        sumOfTheSquares = 0;
-                        for (a = 0; a < numPixelsInFilter; a++) {
-                            x = col + dX[a];
-                            y = row + dY[a];
-                            if ((x != midPoint) && (y != midPoint)) {
-                                z = DEM.getValue(y, x);
-                                if (z != noData) {
-                                    n += filterShape[a];
-                                    sum += z * filterShape[a];
-                                    sumOfTheSquares += (z * filterShape[a]) * z;
-                                }
-                            }
-                        }
-                        average = sum / n;
-                        z = centreValue - average;
-
-                        if (n > 2) {
-                            stdDev = Math.sqrt((sumOfTheSquares / n) - (average * average));
-                            devMean = z / stdDev;
-                            output.setValue(row, col, devMean);
-
-                        } else {
-                            output.setValue(row, col, noData);
-                        }
-                    } else {
-                        output.setValue(row, col, noData);
-                    }
+            // the neighbourhood statistics come from summed-area tables of 
+            // the DEM, so their cost does not depend on the filter size.
+            updateProgress("Building summed-area tables:", 0);
+            LocalTopographicPosition ltp = new LocalTopographicPosition(DEM);
+            int batchSize = ltp.getBatchSize();
+            for (int startRow = 0; startRow < rows; startRow += batchSize) {
+                int endRow = Math.min(rows, startRow + batchSize);
+                double[][] values = ltp.getRows(LocalTopographicPosition.Index.DEVIATION_FROM_MEAN,
+                        filterSize / 2, startRow, endRow);
+                for (row = startRow; row < endRow; row++) {
+                    output.setRowValues(row, values[row - startRow]);
                 }
                 if (cancelOp) {
                     cancelOperation();
                     return;
                 }
-                progress = (int) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+                progress = (int) (100f * endRow / rows);
+                updateProgress(progress);
             }
 
             output.addMetadataEntry("Created by the "
@@ -17,6 +17,7 @@
 package plugins;
 
 import java.util.Date;
+import whitebox.algorithms.AzimuthalSweep;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -188,34 +189,9 @@ public class DirectionalRelief implements WhiteboxPlugin {
         String inputHeader = null;
         String outputHeader = null;
         int i;
-        int progress;
-        int row, col;
-        double z = 0;
-        double gridRes = 0;
-        double currentVal = 0;
-        double maxDist = 0;
-        double lineSlope = 0;
+        int row;
+        double maxDist = Double.POSITIVE_INFINITY;
         double azimuth = 0;
-        double deltaX = 0;
-        double deltaY = 0;
-        double x = 0;
-        int x1 = 0;
-        int x2 = 0;
-        double y = 0;
-        int y1 = 0;
-        int y2 = 0;
-        double z1 = 0;
-        double z2 = 0;
-        double dist = 0;
-        double oldDist = 0;
-        double yIntercept = 0;
-        int xStep = 0;
-        int yStep = 0;
-        double noData = 0;
-        boolean flag = false;
-        double totalElevation = 0;
-        double numElevations = 0;
-        boolean useMaxDist = false;
 
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -230,27 +206,11 @@ public class DirectionalRelief implements WhiteboxPlugin {
             } else if (i == 2) {
                 azimuth = Double.parseDouble(args[i]);
                 if (azimuth > 360 || azimuth < 0) {
-                    azimuth = 0.1;
+                    azimuth = 0;
                 }
-                if (azimuth == 0) {
-                    azimuth = 0.1;
-                }
-                if (azimuth == 180) {
-                    azimuth = 179.9;
-                }
-                if (azimuth == 360) {
-                    azimuth = 359.9;
-                }
-                if (azimuth < 180) {
-                    lineSlope = Math.tan(Math.toRadians(90 - azimuth));
-                } else {
-                    lineSlope = Math.tan(Math.toRadians(270 - azimuth));
-                }
-
             } else if (i == 3) {
                 if (!args[i].toLowerCase().equals("not specified")) {
                     maxDist = Double.parseDouble(args[i]);
-                    useMaxDist = true;
                 }
             }
         }
@@ -263,142 +223,26 @@ public class DirectionalRelief implements WhiteboxPlugin {
 
         try {
             WhiteboxRaster DEM = new WhiteboxRaster(inputHeader, "r");
-            DEM.isReflectedAtEdges = true;
             int rows = DEM.getNumberRows();
-            int cols = DEM.getNumberColumns();
-            noData = DEM.getNoDataValue();
-            gridRes = (DEM.getCellSizeX() + DEM.getCellSizeY()) / 2;
+            double noData = DEM.getNoDataValue();
 
             WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, noData);
             output.setPreferredPalette("grey.pal");
 
-            if (azimuth > 0 && azimuth <= 90) {
-                xStep = 1;
-                yStep = 1;
-            } else if (azimuth <= 180) {
-                xStep = 1;
-                yStep = -1;
-            } else if (azimuth <= 270) {
-                xStep = -1;
-                yStep = -1;
-            } else {
-                xStep = -1;
-                yStep = 1;
+            AzimuthalSweep sweep = new AzimuthalSweep(DEM);
+            double[][] relief = sweep.getDirectionalRelief(azimuth, maxDist, new AzimuthalSweep.ProgressListener() {
+                @Override
+                public boolean progress(int progress) {
+                    updateProgress(progress);
+                    return !cancelOp;
+                }
+            });
+            if (relief == null) {
+                cancelOperation();
+                return;
             }
-
             for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    currentVal = DEM.getValue(row, col);
-                    if (currentVal != noData) {
-                        totalElevation = 0;
-                        numElevations = 0;
-
-                        //calculate the y intercept of the line equation
-                        yIntercept = -row - lineSlope * col;
-
-                        //find all of the vertical intersections
-                        x = col;
-
-                        flag = true;
-                        do {
-                            x = x + xStep;
-                            if (x < 0 || x >= cols) {
-                                flag = false;
-                                break;
-                            }
-
-                            //calculate the Y value
-                            y = (lineSlope * x + yIntercept) * -1;
-                            if (y < 0 || y >= rows) {
-                                flag = false;
-                                break;
-                            }
-
-                            if (useMaxDist) {
-                                //calculate the distance
-                                deltaX = (x - col) * gridRes;
-                                deltaY = (y - row) * gridRes;
-
-                                dist = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
-                                if (dist > maxDist) {
-                                    flag = false;
-                                    break;
-                                }
-                            }
-
-                            //estimate z
-                            y1 = (int) (y);
-                            y2 = y1 + yStep * -1;
-                            z1 = DEM.getValue(y1, (int) x);
-                            z2 = DEM.getValue(y2, (int) x);
-                            if (z1 != noData && z2 != noData) {
-                                z = z1 + (y - y1) * (z2 - z1);
-
-                                totalElevation += z;
-                                numElevations++;
-                            }
-                        } while (flag);
-
-                        //find all of the horizontal intersections
-                        y = -row;
-                        flag = true;
-                        do {
-                            y = y + yStep;
-                            if (-y < 0 || -y >= rows) {
-                                flag = false;
-                                break;
-                            }
-
-                            //calculate the X value
-                            x = (y - yIntercept) / lineSlope;
-                            if (x < 0 || x >= cols) {
-                                flag = false;
-                                break;
-                            }
-
-                            if (useMaxDist) {
-                                //calculate the distance
-                                deltaX = (x - col) * gridRes;
-                                deltaY = (-y - row) * gridRes;
-                                dist = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
-                                if (dist > maxDist) {
-                                    flag = false;
-                                    break;
-                                }
-                            }
-
-                            //estimate z
-                            x1 = (int) x;
-                            x2 = x1 + xStep;
-                            if (x2 < 0 || x2 >= cols) {
-                                flag = false;
-                                break;
-                            }
-
-                            z1 = DEM.getValue((int) -y, x1);
-                            z2 = DEM.getValue((int) y, x2);
-                            if (z1 != noData && z2 != noData) {
-                                z = z1 + (x - x1) * (z2 - z1);
-
-                                totalElevation += z;
-                                numElevations++;
-                            }
-                        } while (flag);
-
-                        if (numElevations > 0) {
-                            z = totalElevation / numElevations - currentVal;
-                            output.setValue(row, col, z);
-                        } else {
-                            output.setValue(row, col, 0);
-                        }
-                    }
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
-                }
-                progress = (int) (100f * row / (rows - 1));
-                updateProgress(progress);
+                output.setRowValues(row, relief[row]);
             }
 
             output.addMetadataEntry("Created by the "
@@ -17,6 +17,7 @@
 package plugins;
 
 import java.util.Date;
+import whitebox.algorithms.AzimuthalSweep;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -191,36 +192,9 @@ public class FetchAnalysis implements WhiteboxPlugin {
         String inputHeader = null;
         String outputHeader = null;
         int i;
-        int progress;
-        int row, col;
-        double z = 0;
-        double gridRes = 0;
-        double currentVal = 0;
-        double maxValDist = 0;
-        double maxDist = 0;
-        double lineSlope = 0;
+        int row;
         double azimuth = 0;
-        double deltaX = 0;
-        double deltaY = 0;
-        double x = 0;
-        int x1 = 0;
-        int x2 = 0;
-        double y = 0;
-        int y1 = 0;
-        int y2 = 0;
-        double z1 = 0;
-        double z2 = 0;
-        double dist = 0;
-        double oldDist = 0;
-        double yIntercept = 0;
-        int xStep = 0;
-        int yStep = 0;
-        double noData = 0;
-        boolean flag = false;
         double heightIncrement = 0;
-        double currentMaxVal = 0;
-
-        maxDist = Double.MAX_VALUE;
                     
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -235,17 +209,8 @@ public class FetchAnalysis implements WhiteboxPlugin {
             } else if (i == 2) {
                 azimuth = Double.parseDouble(args[i]);
                 if (azimuth > 360 || azimuth < 0) {
-                    azimuth = 0.1;
-                }
-                if (azimuth == 0) { azimuth = 0.1; }
-                if (azimuth == 180) { azimuth = 179.9; }
-                if (azimuth == 360) { azimuth = 359.9; }
-                if (azimuth < 180) { 
-                    lineSlope = Math.tan(Math.toRadians(90 - azimuth));
-                } else {
-                    lineSlope = Math.tan(Math.toRadians(270 - azimuth));
+                    azimuth = 0;
                 }
-                
             } else if (i == 3) {
                 heightIncrement = Double.parseDouble(args[i]);
             }
@@ -260,140 +225,25 @@ public class FetchAnalysis implements WhiteboxPlugin {
         try {
             WhiteboxRaster DEM = new WhiteboxRaster(inputHeader, "r");
             int rows = DEM.getNumberRows();
-            int cols = DEM.getNumberColumns();
-            noData = DEM.getNoDataValue();
-            gridRes = (DEM.getCellSizeX() + DEM.getCellSizeY()) / 2;
+            double noData = DEM.getNoDataValue();
             
             WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, noData);
             output.setPreferredPalette("grey.pal");
 
-            if (azimuth > 0 && azimuth <= 90) {
-                xStep = 1;
-                yStep = 1;
-            } else if (azimuth <= 180) {
-                xStep = 1;
-                yStep = -1;
-            } else if (azimuth <= 270) {
-                xStep = -1;
-                yStep = -1;
-            } else {
-                xStep = -1;
-                yStep = 1;
+            AzimuthalSweep sweep = new AzimuthalSweep(DEM);
+            double[][] fetch = sweep.getFetch(azimuth, heightIncrement, new AzimuthalSweep.ProgressListener() {
+                @Override
+                public boolean progress(int progress) {
+                    updateProgress(progress);
+                    return !cancelOp;
+                }
+            });
+            if (fetch == null) {
+                cancelOperation();
+                return;
             }
-            
             for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    currentVal = DEM.getValue(row, col);
-                    if (currentVal != noData) {
-                        //calculate the y intercept of the line equation
-                        yIntercept = -row - lineSlope * col;
-
-                        //find all of the vertical intersections
-                        currentMaxVal = 0;
-                        maxValDist = 0;
-                        x = col;
-                        
-                        flag = true;
-                        do {
-                            x = x + xStep;
-                            if (x < 0 || x >= cols) {
-                                flag = false;
-                                break;
-                            }
-
-                            //calculate the Y value
-                            y = (lineSlope * x + yIntercept) * -1;
-                            if (y < 0 || y >= rows) {
-                                flag = false;
-                                break;
-                            }
-
-                            //calculate the distance
-                            deltaX = (x - col) * gridRes;
-                            deltaY = (y - row) * gridRes;
-
-                            dist = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
-                            if (dist > maxDist) {
-                                flag = false;
-                                break;
-                            }
-
-                            //estimate z
-                            y1 = (int)(y);
-                            y2 = y1 + yStep * -1;
-                            z1 = DEM.getValue(y1, (int)x);
-                            z2 = DEM.getValue(y2, (int)x);
-                            z = z1 + (y - y1) * (z2 - z1);
-                            if (z >= currentVal + dist * heightIncrement) {
-                                maxValDist = dist;
-                                flag = false;
-                            }
-                        } while (flag);
-                        
-                        oldDist = dist;
-                        
-                        //find all of the horizontal intersections
-                        y = -row;
-                        flag = true;
-                        do {
-                            y = y + yStep;
-                            if (-y < 0 || -y >= rows) {
-                                flag = false;
-                                break;
-                            }
-
-                            //calculate the X value
-                            x = (y - yIntercept) / lineSlope;
-                            if (x < 0 || x >= cols) {
-                                flag = false;
-                                break;
-                            }
-
-                            //calculate the distance
-                            deltaX = (x - col) * gridRes;
-                            deltaY = (-y - row) * gridRes;
-                            dist = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
-                            if (dist > maxDist) {
-                                flag = false;
-                                break;
-                            }
-
-                            //estimate z
-                            x1 = (int)x;
-                            x2 = x1 + xStep;
-                            if (x2 < 0 || x2 >= cols) {
-                                flag = false;
-                                break;
-                            }
-
-                            z1 = DEM.getValue((int)-y, x1);
-                            z2 = DEM.getValue((int)y, x2);
-                            z = z1 + (x - x1) * (z2 - z1);
-                            if (z >= currentVal + dist * heightIncrement) {
-                                if (dist < maxValDist || maxValDist == 0) {
-                                    maxValDist = dist; 
-                                }
-                                flag = false;
-                            }
-                        } while (flag);
-                        
-                        if (maxValDist == 0) {
-                            //find the larger of dist and olddist
-                            if (dist > oldDist) {
-                                maxValDist = -dist;
-                            } else {
-                                maxValDist = -oldDist;
-                            }
-                        }
-                        output.setValue(row, col, maxValDist);
-                    }
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
-                }
-                progress = (int)(100f * row / (rows - 1));
-                updateProgress(progress);
+                output.setRowValues(row, fetch[row]);
             }
 
             output.addMetadataEntry("Created by the "
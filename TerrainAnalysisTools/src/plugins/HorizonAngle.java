@@ -17,6 +17,7 @@
 package plugins;
 
 import java.util.Date;
+import whitebox.algorithms.AzimuthalSweep;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -193,37 +194,10 @@ public class HorizonAngle implements WhiteboxPlugin {
         String outputHeader = null;
         String distanceOutputHeader = null;
         int i;
-        int progress;
-        int row, col;
-        double z = 0;
-        double gridRes = 0;
-        double currentVal = 0;
-        double currentMaxVal = 0;
-        double maxValDist = 0;
-        double maxDist = 0;
-        double lineSlope = 0;
+        int row;
+        double maxDist = Double.POSITIVE_INFINITY;
         boolean saveDistance = false;
         double azimuth = 0;
-        double deltaX = 0;
-        double deltaY = 0;
-        double x = 0;
-        int x1 = 0;
-        int x2 = 0;
-        double y = 0;
-        int y1 = 0;
-        int y2 = 0;
-        double z1 = 0;
-        double z2 = 0;
-        double dist = 0;
-        double slope = 0;
-        double yIntercept = 0;
-        int xStep = 0;
-        int yStep = 0;
-        double noData = 0;
-        boolean flag = false;
-        double aSmallValue = -9999999;
-
-        maxDist = Double.MAX_VALUE;
                     
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -238,17 +212,8 @@ public class HorizonAngle implements WhiteboxPlugin {
             } else if (i == 2) {
                 azimuth = Double.parseDouble(args[i]);
                 if (azimuth > 360 || azimuth < 0) {
-                    azimuth = 0.1;
-                }
-                if (azimuth == 0) { azimuth = 0.1; }
-                if (azimuth == 180) { azimuth = 179.9; }
-                if (azimuth == 360) { azimuth = 359.9; }
-                if (azimuth < 180) { 
-                    lineSlope = Math.tan(Math.toRadians(90 - azimuth));
-                } else {
-                    lineSlope = Math.tan(Math.toRadians(270 - azimuth));
+                    azimuth = 0;
                 }
-                
             } else if (i == 3) {
                 if (!args[i].toLowerCase().equals("not specified")) {
                     maxDist = Double.parseDouble(args[i]);
@@ -270,9 +235,7 @@ public class HorizonAngle implements WhiteboxPlugin {
         try {
             WhiteboxRaster DEM = new WhiteboxRaster(inputHeader, "r");
             int rows = DEM.getNumberRows();
-            int cols = DEM.getNumberColumns();
-            noData = DEM.getNoDataValue();
-            gridRes = (DEM.getCellSizeX() + DEM.getCellSizeY()) / 2;
+            double noData = DEM.getNoDataValue();
             
             WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, noData);
             output.setPreferredPalette("grey.pal");
@@ -283,141 +246,25 @@ public class HorizonAngle implements WhiteboxPlugin {
                 outputDist.setPreferredPalette("blue_white_red.pal");
             }
             
-            if (azimuth > 0 && azimuth <= 90) {
-                xStep = 1;
-                yStep = 1;
-            } else if (azimuth <= 180) {
-                xStep = 1;
-                yStep = -1;
-            } else if (azimuth <= 270) {
-                xStep = -1;
-                yStep = -1;
-            } else {
-                xStep = -1;
-                yStep = 1;
+            AzimuthalSweep sweep = new AzimuthalSweep(DEM);
+            double[][] distances = saveDistance ? new double[rows][] : null;
+            double[][] horizonAngles = sweep.getHorizonAngle(azimuth, maxDist, distances,
+                    new AzimuthalSweep.ProgressListener() {
+                @Override
+                public boolean progress(int progress) {
+                    updateProgress(progress);
+                    return !cancelOp;
+                }
+            });
+            if (horizonAngles == null) {
+                cancelOperation();
+                return;
             }
-            
             for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    currentVal = DEM.getValue(row, col);
-                    if (currentVal != noData) {
-                        //calculate the y intercept of the line equation
-                        yIntercept = -row - lineSlope * col;
-
-                        //find all of the vertical intersections
-                        currentMaxVal = aSmallValue;
-                        maxValDist = aSmallValue;
-                        x = col;
-                        
-                        flag = true;
-                        do {
-                            x = x + xStep;
-                            if (x < 0 || x >= cols) {
-                                flag = false;
-                                break;
-                            }
-
-                            //calculate the Y value
-                            y = (lineSlope * x + yIntercept) * -1;
-                            if (y < 0 || y >= rows) {
-                                flag = false;
-                                break;
-                            }
-
-                            //calculate the distance
-                            deltaX = (x - col) * gridRes;
-                            deltaY = (y - row) * gridRes;
-
-                            dist = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
-                            if (dist > maxDist) {
-                                flag = false;
-                                break;
-                            }
-
-                            //estimate z
-                            y1 = (int)(y);
-                            y2 = y1 + yStep * -1;
-                            z1 = DEM.getValue(y1, (int)x);
-                            z2 = DEM.getValue(y2, (int)x);
-                            z = z1 + (y - y1) * (z2 - z1);
-                            //calculate the slope
-                            slope = (z - currentVal) / dist;
-                            if (slope > currentMaxVal) {
-                                currentMaxVal = slope;
-                                maxValDist = dist;
-                            } else if (currentMaxVal < 0) {
-                                maxValDist = dist;
-                            }
-                        } while (flag);
-                        
-                        //find all of the horizontal intersections
-                        y = -row;
-                        flag = true;
-                        do {
-                            y = y + yStep;
-                            if (-y < 0 || -y >= rows) {
-                                flag = false;
-                                break;
-                            }
-
-                            //calculate the X value
-                            x = (y - yIntercept) / lineSlope;
-                            if (x < 0 || x >= cols) {
-                                flag = false;
-                                break;
-                            }
-
-                            //calculate the distance
-                            deltaX = (x - col) * gridRes;
-                            deltaY = (-y - row) * gridRes;
-                            dist = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
-                            if (dist > maxDist) {
-                                flag = false;
-                                break;
-                            }
-
-                            //estimate z
-                            x1 = (int)x;
-                            x2 = x1 + xStep;
-                            if (x2 < 0 || x2 >= cols) {
-                                flag = false;
-                                break;
-                            }
-
-                            z1 = DEM.getValue((int)-y, x1);
-                            z2 = DEM.getValue((int)y, x2);
-                            z = z1 + (x - x1) * (z2 - z1);
-                            //calculate the slope
-                            slope = (z - currentVal) / dist;
-                            if (slope > currentMaxVal) {
-                                currentMaxVal = slope;
-                                maxValDist = dist;
-                            } else if (currentMaxVal < 0) {
-                                maxValDist = dist;
-                            }
-                        } while (flag);
-                        z = Math.toDegrees(Math.atan(currentMaxVal));
-                        if (z < -89) { z = 0; }
-                        if (currentMaxVal != aSmallValue) {
-                            output.setValue(row, col, z);
-                            if (saveDistance) {
-                                if (z < 0) { maxValDist = maxValDist * -1; }
-                                outputDist.setValue(row, col, maxValDist);
-                            }
-                        } else {
-                            output.setValue(row, col, noData);
-                            if (saveDistance) {
-                                outputDist.setValue(row, col, noData);
-                            }
-                        }
-                    }
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
+                output.setRowValues(row, horizonAngles[row]);
+                if (saveDistance) {
+                    outputDist.setRowValues(row, distances[row]);
                 }
-                progress = (int)(100f * row / (rows - 1));
-                updateProgress(progress);
             }
 
             output.addMetadataEntry("Created by the "
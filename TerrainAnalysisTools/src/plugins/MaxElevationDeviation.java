@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package plugins;
+
+import java.util.Date;
+import whitebox.algorithms.LocalTopographicPosition;
+import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.geospatialfiles.WhiteboxRasterBase.DataScale;
+import whitebox.interfaces.WhiteboxPlugin;
+import whitebox.interfaces.WhiteboxPluginHost;
+
+/**
+ * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class MaxElevationDeviation implements WhiteboxPlugin {
+
+    private WhiteboxPluginHost myHost = null;
+    private String[] args;
+
+    /**
+     * Used to retrieve the plugin tool's name. This is a short, unique name
+     * containing no spaces.
+     *
+     * @return String containing plugin name.
+     */
+    @Override
+    public String getName() {
+        return "MaxElevationDeviation";
+    }
+
+    /**
+     * Used to retrieve the plugin tool's descriptive name. This can be a longer
+     * name (containing spaces) and is used in the interface to list the tool.
+     *
+     * @return String containing the plugin descriptive name.
+     */
+    @Override
+    public String getDescriptiveName() {
+        return "Maximum Elevation Deviation";
+    }
+
+    /**
+     * Used to retrieve a short description of what the plugin tool does.
+     *
+     * @return String containing the plugin's description.
+     */
+    @Override
+    public String getToolDescription() {
+        return "Calculates the maximum deviation from mean elevation over a "
+                + "range of neighbourhood sizes.";
+    }
+
+    /**
+     * Used to identify which toolboxes this plugin tool should be listed in.
+     *
+     * @return Array of Strings.
+     */
+    @Override
+    public String[] getToolbox() {
+        String[] ret = {"ElevResiduals"};
+        return ret;
+    }
+
+    /**
+     * Sets the WhiteboxPluginHost to which the plugin tool is tied. This is the
+     * class that the plugin will send all feedback messages, progress updates,
+     * and return objects.
+     *
+     * @param host The WhiteboxPluginHost that called the plugin tool.
+     */
+    @Override
+    public void setPluginHost(WhiteboxPluginHost host) {
+        myHost = host;
+    }
+
+    /**
+     * Used to communicate feedback pop-up messages between a plugin tool and
+     * the main Whitebox user-interface.
+     *
+     * @param feedback String containing the text to display.
+     */
+    private void showFeedback(String message) {
+        if (myHost != null) {
+            myHost.showFeedback(message);
+        } else {
+            System.out.println(message);
+        }
+    }
+
+    /**
+     * Used to communicate a return object from a plugin tool to the main
+     * Whitebox user-interface.
+     *
+     * @return Object, such as an output WhiteboxRaster.
+     */
+    private void returnData(Object ret) {
+        if (myHost != null) {
+            myHost.returnData(ret);
+        }
+    }
+    private int previousProgress = 0;
+    private String previousProgressLabel = "";
+
+    /**
+     * Used to communicate a progress update between a plugin tool and the main
+     * Whitebox user interface.
+     *
+     * @param progressLabel A String to use for the progress label.
+     * @param progress Float containing the progress value (between 0 and 100).
+     */
+    private void updateProgress(String progressLabel, int progress) {
+        if (myHost != null && ((progress != previousProgress)
+                || (!progressLabel.equals(previousProgressLabel)))) {
+            myHost.updateProgress(progressLabel, progress);
+        }
+        previousProgress = progress;
+        previousProgressLabel = progressLabel;
+    }
+
+    /**
+     * Used to communicate a progress update between a plugin tool and the main
+     * Whitebox user interface.
+     *
+     * @param progress Float containing the progress value (between 0 and 100).
+     */
+    private void updateProgress(int progress) {
+        if (myHost != null && progress != previousProgress) {
+            myHost.updateProgress(progress);
+        }
+        previousProgress = progress;
+    }
+
+    /**
+     * Sets the arguments (parameters) used by the plugin.
+     *
+     * @param args
+     */
+    @Override
+    public void setArgs(String[] args) {
+        this.args = args.clone();
+    }
+    private boolean cancelOp = false;
+
+    /**
+     * Used to communicate a cancel operation from the Whitebox GUI.
+     *
+     * @param cancel Set to true if the plugin should be canceled.
+     */
+    @Override
+    public void setCancelOp(boolean cancel) {
+        cancelOp = cancel;
+    }
+
+    private void cancelOperation() {
+        showFeedback("Operation cancelled.");
+        updateProgress("Progress: ", 0);
+    }
+    private boolean amIActive = false;
+
+    /**
+     * Used by the Whitebox GUI to tell if this plugin is still running.
+     *
+     * @return a boolean describing whether or not the plugin is actively being
+     * used.
+     */
+    @Override
+    public boolean isActive() {
+
+        return amIActive;
+    }
+
+    @Override
+    public void run() {
+        amIActive = true;
+
+        String inputHeader = null;
+        String outputHeader = null;
+        String scaleHeader = null;
+        int row;
+        int progress = 0;
+        int minNeighbourhood, maxNeighbourhood, step;
+
+        if (args.length <= 0) {
+            showFeedback("Plugin parameters have not been set.");
+            return;
+        }
+
+        inputHeader = args[0];
+        outputHeader = args[1];
+        scaleHeader = args[2];
+        minNeighbourhood = Integer.parseInt(args[3]);
+        maxNeighbourhood = Integer.parseInt(args[4]);
+        step = Integer.parseInt(args[5]);
+
+        // check to see that the inputHeader and outputHeader are not null.
+        if (inputHeader.isEmpty() || outputHeader.isEmpty() || scaleHeader.isEmpty()) {
+            showFeedback("One or more of the input parameters have not been set properly.");
+            return;
+        }
+        if (minNeighbourhood < 1 || maxNeighbourhood < minNeighbourhood || step < 1) {
+            showFeedback("The neighbourhood sizes must be at least one cell, the "
+                    + "maximum must not be less than the minimum, and the step "
+                    + "size must be at least one cell.");
+            return;
+        }
+
+        try {
+
+            WhiteboxRaster DEM = new WhiteboxRaster(inputHeader, "r");
+
+            int rows = DEM.getNumberRows();
+            double noData = DEM.getNoDataValue();
+
+            WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, noData);
+            output.setPreferredPalette("blue_white_red.pal");
+            output.setDataScale(DataScale.CONTINUOUS);
+
+            WhiteboxRaster scaleOutput = new WhiteboxRaster(scaleHeader, "rw", inputHeader, WhiteboxRaster.DataType.INTEGER, noData);
+            scaleOutput.setPreferredPalette("spectrum.pal");
+            scaleOutput.setDataScale(DataScale.CONTINUOUS);
+
+            // the DEM is summarized once, after which the deviation at every
+            // neighbourhood size costs the same.
+            updateProgress("Building summed-area tables:", 0);
+            LocalTopographicPosition ltp = new LocalTopographicPosition(DEM);
+            int batchSize = ltp.getBatchSize();
+            double[][] maxDeviation = new double[batchSize][];
+            double[][] bestRadius = new double[batchSize][];
+            for (int startRow = 0; startRow < rows; startRow += batchSize) {
+                int endRow = Math.min(rows, startRow + batchSize);
+                ltp.getMaximumDeviation(minNeighbourhood, maxNeighbourhood, step,
+                        startRow, endRow, maxDeviation, bestRadius);
+                for (row = startRow; row < endRow; row++) {
+                    output.setRowValues(row, maxDeviation[row - startRow]);
+                    scaleOutput.setRowValues(row, bestRadius[row - startRow]);
+                }
+                if (cancelOp) {
+                    cancelOperation();
+                    return;
+                }
+                progress = (int) (100f * endRow / rows);
+                updateProgress("Calculating deviations:", progress);
+            }
+
+            output.addMetadataEntry("Created by the "
+                    + getDescriptiveName() + " tool.");
+            output.addMetadataEntry("Created on " + new Date());
+            output.addMetadataEntry("Neighbourhood half-widths: " + minNeighbourhood
+                    + " to " + maxNeighbourhood + " cells, in steps of " + step);
+            scaleOutput.addMetadataEntry("Created by the "
+                    + getDescriptiveName() + " tool.");
+            scaleOutput.addMetadataEntry("Created on " + new Date());
+            scaleOutput.addMetadataEntry("Neighbourhood half-width, in cells, of the maximum deviation");
+
+            DEM.close();
+            output.close();
+            scaleOutput.close();
+
+            // returning a header file string displays the image.
+            returnData(scaleHeader);
+            returnData(outputHeader);
+
+        } catch (OutOfMemoryError oe) {
+            myHost.showFeedback("An out-of-memory error has occurred during operation.");
+        } catch (Exception e) {
+            myHost.showFeedback("An error has occurred during operation. See log file for details.");
+            myHost.logException("Error in " + getDescriptiveName(), e);
+        } finally {
+            updateProgress("Progress: ", 0);
+            // tells the main application that this process is completed.
+            amIActive = false;
+            myHost.pluginComplete();
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package plugins;
 
 import java.util.Date;
+import whitebox.algorithms.UpslopeAccumulator;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -31,9 +32,6 @@ public class MaxUpslopeFlowpathLength implements WhiteboxPlugin {
     private WhiteboxPluginHost myHost = null;
     private String[] args;
     
-    // Constants
-    private static final double LnOf2 = 0.693147180559945;
-
     /**
      * Used to retrieve the plugin tool's name. This is a short, unique name
      * containing no spaces.
@@ -194,18 +192,8 @@ public class MaxUpslopeFlowpathLength implements WhiteboxPlugin {
         
         String inputHeader = null;
         String outputHeader = null;
-        int row, col, x, y;
-        float progress = 0;
-        double z;
-        double currentVal;
+        int row, col;
         int i;
-        int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
-        int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
-        double[] inflowingVals = new double[]{16, 32, 64, 128, 1, 2, 4, 8};
-        double numInNeighbours;
-        boolean flag = false;
-        double flowDir = 0;
-        double flowLength = 0;
         
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -232,10 +220,6 @@ public class MaxUpslopeFlowpathLength implements WhiteboxPlugin {
             int rows = pntr.getNumberRows();
             int cols = pntr.getNumberColumns();
             double noData = pntr.getNoDataValue();
-            double gridResX = pntr.getCellSizeX();
-            double gridResY = pntr.getCellSizeY();
-            double diagGridRes = Math.sqrt(gridResX * gridResX + gridResY * gridResY);
-            double[] gridLengths = new double[]{diagGridRes, gridResX, diagGridRes, gridResY, diagGridRes, gridResX, diagGridRes, gridResY};
                     
             WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw", 
                     inputHeader, WhiteboxRaster.DataType.FLOAT, 0);
@@ -243,80 +227,35 @@ public class MaxUpslopeFlowpathLength implements WhiteboxPlugin {
             output.setDataScale(WhiteboxRaster.DataScale.CONTINUOUS);
             output.setZUnits("dimensionless");
             
-            WhiteboxRaster tmpGrid = new WhiteboxRaster(outputHeader.replace(".dep", 
-                    "_temp.dep"), "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, noData);
-            tmpGrid.isTemporaryFile = true;
-            
-            updateProgress("Loop 1 of 2:", 0);
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    if (pntr.getValue(row, col) != noData) {
-                        z = 0;
-                        for (i = 0; i < 8; i++) {
-                            if (pntr.getValue(row + dY[i], col + dX[i]) ==
-                                    inflowingVals[i]) { z++; }
-                        }
-                        tmpGrid.setValue(row, col, z);
-                    } else {
-                        output.setValue(row, col, noData);
+            // the longest flowpath draining to each cell
+            final double[] flowLength = new double[rows * cols];
+            UpslopeAccumulator accumulator = new UpslopeAccumulator(pntr);
+            boolean completed = accumulator.run(new UpslopeAccumulator.Reduction() {
+                @Override
+                public void accumulate(int from, int to, double distance) {
+                    double length = flowLength[from] + distance;
+                    if (length > flowLength[to]) {
+                        flowLength[to] = length;
                     }
                 }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
+            }, new UpslopeAccumulator.ProgressListener() {
+                @Override
+                public boolean progress(int progress) {
+                    updateProgress(progress);
+                    return !cancelOp;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress("Loop 1 of 2:", (int) progress);
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
-            updateProgress("Loop 2 of 2:", 0);
+            double[] data = new double[cols];
             for (row = 0; row < rows; row++) {
                 for (col = 0; col < cols; col++) {
-                    if (tmpGrid.getValue(row, col) == 0) { //there are no 
-                        //remaining inflowing neighbours, send it's current 
-                        //flow accum val downslope
-                        tmpGrid.setValue(row, col, -1);
-                        flag = false;
-                        x = col;
-                        y = row;
-                        do {
-                            flowLength = output.getValue(y, x);
-                            flowDir = pntr.getValue(y, x);
-                            if (flowDir > 0) {
-                                i = (int) (Math.log(flowDir) / LnOf2);
-                                flowLength += gridLengths[i];
-                                x += dX[i];
-                                y += dY[i];
-                                
-                                //update the output grids
-                                currentVal = output.getValue(y, x);
-                                if (flowLength > currentVal) {
-                                    output.setValue(y, x, flowLength);
-                                }
-                                
-                                //update the inflowing cells grid
-                                numInNeighbours = tmpGrid.getValue(y, x) - 1;
-                                tmpGrid.setValue(y, x, numInNeighbours);
-                                
-                                //see if you can progress further downslope
-                                if (numInNeighbours == 0) {
-                                    tmpGrid.setValue(y, x, -1);
-                                    flag = true;
-                                } else {
-                                    flag = false;
-                                }
-                            } else {
-                                flag = false;
-                            }
-                        } while (flag);
-                    }
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
+                    data[col] = accumulator.isNoData(row, col) ? noData : flowLength[row * cols + col];
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress("Loop 2 of 2:", (int) progress);
+                output.setRowValues(row, data);
             }
             
             output.addMetadataEntry("Created by the "
@@ -324,7 +263,6 @@ public class MaxUpslopeFlowpathLength implements WhiteboxPlugin {
             output.addMetadataEntry("Created on " + new Date());
             
             pntr.close();
-            tmpGrid.close();
             output.close();
 
             // returning a header file string displays the image.
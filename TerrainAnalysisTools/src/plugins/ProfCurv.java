@@ -18,6 +18,7 @@
 package plugins;
 
 import java.util.Date;
+import whitebox.algorithms.TerrainDerivatives;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -209,95 +210,36 @@ public class ProfCurv implements WhiteboxPlugin {
         }
 
         try {
-            int row, col;
-            double z;
-            double[] N = new double[8];
-            float progress = 0;
-            int[] Dy = {-1, 0, 1, 1, 1, 0, -1, -1};
-            int[] Dx = {1, 1, 1, 0, -1, -1, -1, 0};
-            final double radToDeg = 180 / Math.PI;
-            double Zx, Zy, Zxx, Zyy, Zxy, Zx2, Zy2, p, q;
-                        
             WhiteboxRaster inputFile = new WhiteboxRaster(inputHeader, "r");
-            inputFile.isReflectedAtEdges = true;
-
-            int rows = inputFile.getNumberRows();
-            int cols = inputFile.getNumberColumns();
-            double gridRes = inputFile.getCellSizeX();
-            double gridResTimes2 = gridRes * 2;
-            double gridResSquared = gridRes * gridRes;
-            double fourTimesGridResSquared = gridResSquared * 4;
-            double curv;
             double noData = inputFile.getNoDataValue();
-            
-            if (inputFile.getXYUnits().toLowerCase().contains("deg") || 
-                    inputFile.getProjection().toLowerCase().contains("geog")) {
-                // calculate a new z-conversion factor
-                double midLat = (inputFile.getNorth() - inputFile.getSouth()) / 2.0;
-                if (midLat <= 90 && midLat >= -90) {
-                    zConvFactor = 1.0 / (113200 * Math.cos(Math.toRadians(midLat)));
-                }
-            }
 
             WhiteboxRaster outputFile = new WhiteboxRaster(outputHeader, "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, noData);
             outputFile.setPreferredPalette("blue_white_red.pal");
 
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    z = inputFile.getValue(row, col);
-                    if (z != noData) {
-                        for (int i = 0; i < 8; i++) {
-                            N[i] = inputFile.getValue(row + Dy[i], col + Dx[i]);
-                            if (N[i] != noData) {
-                                N[i] = N[i] * zConvFactor;
-                            } else {
-                                N[i] = z * zConvFactor;
-                            }
-                        }
-                        //calculate each of the terms
-                        Zx = (N[1] - N[5]) / gridResTimes2;
-                        Zy = (N[7] - N[3]) / gridResTimes2;
-                        Zxx = (N[1] - 2 * z + N[5]) / gridResSquared;
-                        Zyy = (N[7] - 2 * z + N[3]) / gridResSquared;
-                        Zxy = (-N[6] + N[0] + N[4] - N[2]) / fourTimesGridResSquared;
-                        Zx2 = Zx * Zx;
-                        Zy2 = Zy * Zy;
-                        p = Zx2 + Zy2;
-                        q = p + 1;
-                        if (p > 0) {
-                            curv = (Zxx * Zx2 + 2 * Zxy * Zx * Zy + Zyy * Zy2) /( p * Math.pow(q, 1.5));
-                            outputFile.setValue(row, col, curv * radToDeg * 100);
-                        } else {
-                            outputFile.setValue(row,col, noData);
-                        }
-                                
-                    } else {
-                        outputFile.setValue(row, col, noData);
-                    }
-
+            TerrainDerivatives engine = new TerrainDerivatives(inputFile, zConvFactor);
+            engine.addOutput(TerrainDerivatives.Derivative.PROFILE_CURVATURE, outputFile);
+            boolean completed = engine.run(new TerrainDerivatives.ProgressListener() {
+                @Override
+                public boolean progress(int progress) {
+                    updateProgress(progress);
+                    return !cancelOp;
                 }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
-                }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
             outputFile.addMetadataEntry("Created by the "
                     + getDescriptiveName() + " tool.");
             outputFile.addMetadataEntry("Created on " + new Date());
-            
-            //outputFile.setDisplayMaximum(5.0);
-            //outputFile.setDisplayMinimum(-5.0);
-            
 
             inputFile.close();
             outputFile.close();
 
             // returning a header file string displays the image.
             returnData(outputHeader);
-
+            
         } catch (OutOfMemoryError oe) {
             myHost.showFeedback("An out-of-memory error has occurred during operation.");
         } catch (Exception e) {
@@ -18,6 +18,7 @@
 package plugins;
 
 import java.util.Date;
+import whitebox.algorithms.TerrainDerivatives;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
@@ -209,65 +210,24 @@ public class Slope implements WhiteboxPlugin {
         }
 
         try {
-            int row, col;
-            double z;
-            double[] N = new double[8];
-            double fx, fy;
-            float slope;
-            float progress = 0;
-            int[] Dy = {-1, 0, 1, 1, 1, 0, -1, -1};
-            int[] Dx = {1, 1, 1, 0, -1, -1, -1, 0};
-            final double radToDeg = 180 / Math.PI;
-
             WhiteboxRaster inputFile = new WhiteboxRaster(inputHeader, "r");
-            inputFile.isReflectedAtEdges = true;
-
-            int rows = inputFile.getNumberRows();
-            int cols = inputFile.getNumberColumns();
-            double gridRes = inputFile.getCellSizeX();
-            double eightGridRes = 8 * gridRes;
-
             double noData = inputFile.getNoDataValue();
-            
-            if (inputFile.getXYUnits().toLowerCase().contains("deg") || 
-                    inputFile.getProjection().toLowerCase().contains("geog")) {
-                // calculate a new z-conversion factor
-                double midLat = (inputFile.getNorth() - inputFile.getSouth()) / 2.0;
-                if (midLat <= 90 && midLat >= -90) {
-                    zConvFactor = 1.0 / (113200 * Math.cos(Math.toRadians(midLat)));
-                }
-            }
 
             WhiteboxRaster outputFile = new WhiteboxRaster(outputHeader, "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, noData);
             outputFile.setPreferredPalette("spectrum.pal");
 
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    z = inputFile.getValue(row, col);
-                    if (z != noData) {
-                        for (int i = 0; i < 8; i++) {
-                            N[i] = inputFile.getValue(row + Dy[i], col + Dx[i]);
-                            if (N[i] != noData) {
-                                N[i] = N[i] * zConvFactor;
-                            } else {
-                                N[i] = z * zConvFactor;
-                            }
-                        }
-                        fy = (N[6] - N[4] + 2 * (N[7] - N[3]) + N[0] - N[2]) / eightGridRes;
-                        fx = (N[2] - N[4] + 2 * (N[1] - N[5]) + N[0] - N[6]) / eightGridRes;
-                        slope = (float)(Math.atan(Math.sqrt(fx * fx + fy * fy)) * radToDeg);
-                        outputFile.setValue(row, col, slope);
-                    } else {
-                        outputFile.setValue(row, col, noData);
-                    }
-
-                }
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
+            TerrainDerivatives engine = new TerrainDerivatives(inputFile, zConvFactor);
+            engine.addOutput(TerrainDerivatives.Derivative.SLOPE, outputFile);
+            boolean completed = engine.run(new TerrainDerivatives.ProgressListener() {
+                @Override
+                public boolean progress(int progress) {
+                    updateProgress(progress);
+                    return !cancelOp;
                 }
-                progress = (float) (100f * row / (rows - 1));
-                updateProgress((int) progress);
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
             }
 
             outputFile.addMetadataEntry("Created by the "
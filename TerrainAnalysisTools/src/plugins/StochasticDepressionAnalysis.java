@@ -17,13 +17,19 @@
 package plugins;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.PriorityQueue;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.LoopBody;
+import whitebox.parallel.Parallel;
 
 
 /**
@@ -32,10 +38,15 @@ import whitebox.interfaces.WhiteboxPluginHost;
  * @author John Lindsay<jlindsay@uoguelph.ca> and Beau Ahrens
  */
 public class StochasticDepressionAnalysis implements WhiteboxPlugin {
+    private static final int NUM_BINS = 50000;
+    private static final int MIN_REALISATIONS = 10;
     private WhiteboxRaster outputFile = null;
     private WhiteboxRaster DEM = null; 
-    private double[][] tempGrid1;
-    private double[][] tempGrid2;
+    private double[] dem;
+    private double[][] referenceCDF;
+    private AtomicIntegerArray counts;
+    private double range = 0;
+    private double cellSize = 1;
     private WhiteboxPluginHost myHost = null;
     private String[] args;
     private int rows = 0;
@@ -201,13 +212,11 @@ public class StochasticDepressionAnalysis implements WhiteboxPlugin {
         String outputHeader = null;
         
         String histoFile = null;
-        double range = 0;
         int numIterations = 0;
-        double z = 0;
+        double tolerance = 0;
+        long seed = System.nanoTime();
         int row, col;
-        float progress = 0;
-        double[] data1;
-        double[] data2;
+        int progress;
             
     	
         if (args.length <= 0) {
@@ -228,6 +237,14 @@ public class StochasticDepressionAnalysis implements WhiteboxPlugin {
                 numIterations = Integer.parseInt(args[i]);
             } else if (i == 5) {
                 numBands = Integer.parseInt(args[i]);
+            } else if (i == 6) {
+                if (!args[i].toLowerCase().equals("not specified")) {
+                    tolerance = Double.parseDouble(args[i]);
+                }
+            } else if (i == 7) {
+                if (!args[i].toLowerCase().equals("not specified")) {
+                    seed = Long.parseLong(args[i]);
+                }
             }
         }
 
@@ -243,117 +260,105 @@ public class StochasticDepressionAnalysis implements WhiteboxPlugin {
             rows = DEM.getNumberRows();
             cols = DEM.getNumberColumns();
             noData = DEM.getNoDataValue();
+            cellSize = DEM.getCellSizeX();
+            
+            referenceCDF = readReferenceCDF(histoFile);
+            if (referenceCDF == null) {
+                return;
+            }
 
-            double[][] output = new double[rows][cols];
-                
-            for (int iterationNum = 0; iterationNum < numIterations; iterationNum++) {
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
+            // the DEM is held in memory, with nodata cells set to NaN, and
+            // shared by all of the realisations.
+            dem = new double[rows * cols];
+            for (row = 0; row < rows; row++) {
+                double[] data = DEM.getRowValues(row);
+                for (col = 0; col < cols; col++) {
+                    dem[row * cols + col] = data[col] != noData ? data[col] : Double.NaN;
                 }
-                progress = (float) (0 * 100f / 5);
-                updateProgress("Loop " + (iterationNum + 1) + " of " + numIterations + ": ", (int) progress);
+            }
             
-                tempGrid1 = new double[rows][cols];
-                tempGrid2 = new double[rows][cols];
-                for (row = 0; row < rows; row++) {  // takes tempGrid2 and outputs back to tempGrid1
-                    for (col = 0; col < cols; col++) {
-                        tempGrid2[row][col] = noData;
-                    }
-                }
-                
-                TurningBandSimulation(range); // takes DEM as input; outputs to tempGrid1
-                
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
-                }
-                progress = (float) (1 * 100f / 5);
-                updateProgress("Loop " + (iterationNum + 1) + " of " + numIterations + ": ", (int) progress);
+            // Each realisation draws from its own random stream, seeded in
+            // order from the master seed, so that a given seed produces the
+            // same result regardless of how the realisations are scheduled.
+            Random master = new Random(seed);
+            final long[] seeds = new long[numIterations];
+            for (int i = 0; i < numIterations; i++) {
+                seeds[i] = master.nextLong();
+            }
             
-                HistogramMatching(histoFile); // takes tempGrid1 as input; outputs to tempGrid2
-                
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
+            // The realisations are run concurrently in batches, one for each
+            // processor, and each processor has its own work space.
+            int numProcessors = Parallel.getPluginProcessors();
+            final Realisation[] workers = new Realisation[Math.min(numProcessors, Math.max(numIterations, 1))];
+            counts = new AtomicIntegerArray(rows * cols);
+            int numRealisations = 0;
+            while (numRealisations < numIterations) {
+                final int batchStart = numRealisations;
+                final int batchSize = Math.min(workers.length, numIterations - numRealisations);
+                final boolean[] completed = new boolean[batchSize];
+                ArrayList<Integer> workerNums = new ArrayList<>();
+                for (int w = 0; w < batchSize; w++) {
+                    workerNums.add(w);
                 }
-                progress = (float) (2 * 100f / 5);
-                updateProgress("Loop " + (iterationNum + 1) + " of " + numIterations + ": ", (int) progress);
-            
-                // add random grid to the DEM
-                for (row = 0; row < rows; row++) {  // takes tempGrid2 and outputs back to tempGrid1
-                    data1 = DEM.getRowValues(row);
-                    for (col = 0; col < cols; col++) {
-                        if (data1[col] != noData) {
-                            tempGrid1[row][col] = data1[col] + tempGrid2[row][col];
-                        } else {
-                            tempGrid1[row][col] = noData;
+                Parallel.ForEach(workerNums, new LoopBody<Integer>() {
+                    @Override
+                    public void run(Integer w) {
+                        if (workers[w] == null) {
+                            workers[w] = new Realisation();
                         }
+                        workers[w].run(seeds[batchStart + w]);
+                        completed[w] = true;
+                    }
+                });
+                for (int w = 0; w < batchSize; w++) {
+                    if (!completed[w]) {
+                        throw new IllegalStateException("Realisation " + (batchStart + w + 1) + " failed.");
                     }
                 }
+                numRealisations += batchSize;
                 
                 if (cancelOp) {
                     cancelOperation();
                     return;
                 }
-                progress = (float) (3 * 100f / 5);
-                updateProgress("Loop " + (iterationNum + 1) + " of " + numIterations + ": ", (int) progress);
-            
-
-                FillDepressions(); // takes tempGrid2 as input and outputs to tempGrid1
+                progress = (int) (100f * numRealisations / numIterations);
+                updateProgress("Realisation " + numRealisations + " of " + numIterations + ": ", progress);
                 
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
-                }
-                progress = (float) (4 * 100f / 5);
-                updateProgress("Loop " + (iterationNum + 1) + " of " + numIterations + ": ", (int) progress);
-            
-                // find the cells within depressions and increment the output grid for those cells.
-                for (row = 0; row < rows; row++){ // takes tempGrid1 as input and outputs to outputFile
-                    for (col = 0; col < cols; col++){
-                        if (tempGrid2[row][col] > tempGrid1[row][col]) {
-                            output[row][col] += 1;
-                        }                        
-                    }
-                }
-                
-                progress = (float) (5 * 100f / 5);
-                updateProgress("Loop " + (iterationNum + 1) + " of " + numIterations + ": ", (int) progress);
-            
-                if (cancelOp) {
-                    cancelOperation();
-                    return;
+                if (tolerance > 0 && numRealisations >= MIN_REALISATIONS
+                        && getMaximumStandardError(numRealisations) < tolerance) {
+                    break;
                 }
             }
             
-            outputFile = new WhiteboxRaster(outputHeader, "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, 0);
+            outputFile = new WhiteboxRaster(outputHeader, "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, noData);
             outputFile.setPreferredPalette("spectrum.pal");
 
+            // the output is the probability that each cell lies within a
+            // depression.
+            double[] data = new double[cols];
             for (row = 0; row < rows; row++) { 
-                data1 = DEM.getRowValues(row);
                 for (col = 0; col < cols; col++) {
-                    if (data1[col] != noData) {
-                        //z = output[row][col] / numIterations;
-                        outputFile.setValue(row, col, output[row][col]);
+                    int i = row * cols + col;
+                    if (!Double.isNaN(dem[i])) {
+                        data[col] = (double) counts.get(i) / numRealisations;
                     } else {
-                        outputFile.setValue(row, col, noData);
+                        data[col] = noData;
                     }
                 }
+                outputFile.setRowValues(row, data);
             }
             
             outputFile.addMetadataEntry("Created by the "
                     + getDescriptiveName() + " tool.");
             outputFile.addMetadataEntry("Created on " + new Date());
+            outputFile.addMetadataEntry("Number of realisations: " + numRealisations);
+            outputFile.addMetadataEntry("Random seed: " + seed);
 
             DEM.close();
             outputFile.close();
             
             // returning a header file string displays the image.
             returnData(outputHeader);
-            
-            // reports the elapsed time.
-           
 
         } catch (OutOfMemoryError oe) {
             myHost.showFeedback("An out-of-memory error has occurred during operation.");
@@ -361,6 +366,8 @@ public class StochasticDepressionAnalysis implements WhiteboxPlugin {
             myHost.showFeedback("An error has occurred during operation. See log file for details.");
             myHost.logException("Error in " + getDescriptiveName(), e);
         } finally {
+            dem = null;
+            counts = null;
             updateProgress("Progress: ", 0);
             // tells the main application that this process is completed.
             amIActive = false;
@@ -368,447 +375,354 @@ public class StochasticDepressionAnalysis implements WhiteboxPlugin {
         }
     }
     
-    private void TurningBandSimulation(double range) {
-        int row, col;
-        int i, j, k, m, n;
-        int edge1, edge2;
-        double pnt1x = 0, pnt1y = 0, pnt2x = 0, pnt2y = 0;
-        double z;
-        int diagonalSize = 0;
-        Random generator = new Random();
-        diagonalSize = (int) (Math.sqrt(rows * rows + cols * cols));
-        if (range < 3 * DEM.getCellSizeX()) {
-            range = 3 * DEM.getCellSizeX();
-        }
-        int filterHalfSize = (int) (range / (2 * DEM.getCellSizeX()));
-        int filterSize = filterHalfSize * 2 + 1;
-        int[] cellOffsets = new int[filterSize];
-        for (i = 0; i < filterSize; i++) {
-            cellOffsets[i] = i - filterHalfSize;
+    /**
+     * The largest standard error of the estimated probability of depression
+     * of any cell, after the specified number of realisations.
+     */
+    private double getMaximumStandardError(int numRealisations) {
+        double maxP = 0;
+        for (int i = 0; i < dem.length; i++) {
+            double p = (double) counts.get(i) / numRealisations;
+            double v = p * (1 - p);
+            if (v > maxP) {
+                maxP = v;
+            }
         }
+        return Math.sqrt(maxP / numRealisations);
+    }
+    
+    /**
+     * Reads the reference histogram and converts it to a cumulative
+     * distribution.
+     *
+     * @return The x values and cumulative frequencies, or null if the file
+     * is not properly formatted.
+     */
+    private double[][] readReferenceCDF(String referenceHistoFile) throws IOException {
+        String line;
+        String[] str;
+        String[] delimiters = { "\t", " ", ",", ":", ";" };
+        int delimiterNum = 0;
+        int i;
+        File file = new File(referenceHistoFile);
+        RandomAccessFile raf = null;
+        raf = new RandomAccessFile(file, "r");
+        int numLines = 0;
+        while ((line = raf.readLine()) != null) {
+            if (!line.trim().equals("")) {
+                numLines++;
+            }
+        } 
 
-        double w = Math.sqrt(36d / (filterHalfSize * (filterHalfSize + 1) * filterSize));
+        double[][] ret = new double[numLines][2];
 
-        for (i = 0; i < numBands; i++) {
+        raf.seek(0);
 
-            // create the data line and fill it with random numbers.
-            // notice that the initial dataline is 2 * filterHalfSize larger 
-            // because of the edge effects of the filter.
-            double[] T = new double[diagonalSize + 2 * filterHalfSize];
-            for (j = 0; j < diagonalSize; j++) {
-                T[j] = generator.nextGaussian();
+        //Read File Line By Line
+        i = 0;
+        while ((line = raf.readLine()) != null) {
+            if (line.trim().equals("")) {
+                continue;
+            }
+            str = line.split(delimiters[delimiterNum]);
+            while (str.length < 2) {
+                delimiterNum++;
+                if (delimiterNum == delimiters.length) {
+                    showFeedback("the cdf file does not appear to be properly formated.\n"
+                            + "It must be delimited using a tab, space, comma, colon, or semicolon.");
+                    raf.close();
+                    return null;
+                }
+                str = line.split(delimiters[delimiterNum]);
             }
+            ret[i][0] = Double.parseDouble(str[0]); // x value
+            ret[i][1] = Double.parseDouble(str[1]); // frequency value
+            i++;
+        }
 
-            double[] y = new double[diagonalSize];
+        raf.close();
 
-            // filter the line
-            for (j = 0; j < diagonalSize; j++) {
-                z = 0;
-                for (k = 0; k < filterSize; k++) {
-                    m = cellOffsets[k];
-                    z += m * T[j + filterHalfSize + m];
+        // convert the referene histogram to a cdf.
+        for (i = 1; i < numLines; i++) {
+            ret[i][1] += ret[i - 1][1];
+        }
+        double totalFrequency = ret[numLines - 1][1];
+        for (i = 0; i < numLines; i++) {
+            ret[i][1] = ret[i][1] / totalFrequency;
+        }
+        return ret;
+    }
+    
+    /**
+     * The work space of a single realisation. Each realisation simulates an
+     * error field, adds it to the DEM, fills the depressions of the result
+     * and counts the cells that were raised by the filling. The buffers are
+     * reused by the successive realisations run by one worker.
+     */
+    private class Realisation {
+        
+        private final double[] field = new double[rows * cols];
+        private final double[] filled = new double[rows * cols];
+        private final double[] cdf = new double[NUM_BINS];
+        private Random generator;
+        
+        void run(long seed) {
+            generator = new Random(seed);
+            turningBandSimulation();
+            histogramMatching();
+            // add the error field to the DEM
+            for (int i = 0; i < field.length; i++) {
+                field[i] += dem[i];
+            }
+            fillDepressions();
+            // find the cells within depressions and increment their counts.
+            for (int i = 0; i < field.length; i++) {
+                if (filled[i] > field[i]) {
+                    counts.incrementAndGet(i);
                 }
-                y[j] = w * z;
             }
-
-            // assign the spatially autocorrelated data line an equation of a transect of the grid
-            // first, pick two points on different edges of the grid at random.
-            // Edges are as follows 0 = left, 1 = top, 2 = right, and 3 = bottom
-            edge1 = generator.nextInt(4);
-            edge2 = edge1;
-            do {
-                edge2 = generator.nextInt(4);
-            } while (edge2 == edge1);
-            switch (edge1) {
+        }
+        
+        private double randomEdgeX(int edge) {
+            switch (edge) {
                 case 0:
-                    pnt1x = 0;
-                    pnt1y = generator.nextDouble() * (rows - 1);
-                    break;
-                case 1:
-                    pnt1x = generator.nextDouble() * (cols - 1);
-                    pnt1y = 0;
-                    break;
+                    return 0;
                 case 2:
-                    pnt1x = cols - 1;
-                    pnt1y = generator.nextDouble() * (rows - 1);
-                    break;
-                case 3:
-                    pnt1x = generator.nextDouble() * (cols - 1);
-                    pnt1y = rows - 1;
-                    break;
+                    return cols - 1;
+                default:
+                    return generator.nextDouble() * (cols - 1);
             }
-
-            switch (edge2) {
-                case 0:
-                    pnt2x = 0;
-                    pnt2y = generator.nextDouble() * (rows - 1);
-                    break;
+        }
+        
+        private double randomEdgeY(int edge) {
+            switch (edge) {
                 case 1:
-                    pnt2x = generator.nextDouble() * (cols - 1);
-                    pnt2y = 0;
-                    break;
-                case 2:
-                    pnt2x = cols - 1;
-                    pnt2y = generator.nextDouble() * (rows - 1);
-                    break;
+                    return 0;
                 case 3:
-                    pnt2x = generator.nextDouble() * (cols - 1);
-                    pnt2y = rows - 1;
-                    break;
-            }
-
-            if (pnt1x == pnt2x || pnt1y == pnt2y) {
-                do {
-                    switch (edge2) {
-                        case 0:
-                            pnt2x = 0;
-                            pnt2y = generator.nextDouble() * (rows - 1);
-                            break;
-                        case 1:
-                            pnt2x = generator.nextDouble() * (cols - 1);
-                            pnt2y = 0;
-                            break;
-                        case 2:
-                            pnt2x = cols - 1;
-                            pnt2y = generator.nextDouble() * (rows - 1);
-                            break;
-                        case 3:
-                            pnt2x = generator.nextDouble() * (cols - 1);
-                            pnt2y = rows - 1;
-                            break;
-                    }
-                } while (pnt1x == pnt2x || pnt1y == pnt2y);
+                    return rows - 1;
+                default:
+                    return generator.nextDouble() * (rows - 1);
             }
+        }
 
-            double lineSlope = (pnt2y - pnt1y) / (pnt2x - pnt1x);
-            double lineIntercept = pnt1y - lineSlope * pnt1x;
-            double perpendicularLineSlope = -1 / lineSlope;
-            double slopeDiff = (lineSlope - perpendicularLineSlope);
-            double perpendicularLineIntercept = 0;
-            double intersectingPointX, intersectingPointY;
-
-            // for each of the four corners, figure out what the perpendicular line 
-            // intersection coordinates would be.
-
-            // point (0,0)
-            perpendicularLineIntercept = 0;
-            double corner1X = (perpendicularLineIntercept - lineIntercept) / slopeDiff;
-            double corner1Y = lineSlope * corner1X - lineIntercept;
-
-            // point (0,cols)
-            row = 0;
-            col = cols;
-            perpendicularLineIntercept = row - perpendicularLineSlope * col;
-            double corner2X = (perpendicularLineIntercept - lineIntercept) / slopeDiff;
-            double corner2Y = lineSlope * corner2X - lineIntercept;
-
-            // point (rows,0)
-            row = rows;
-            col = 0;
-            perpendicularLineIntercept = row - perpendicularLineSlope * col;
-            double corner3X = (perpendicularLineIntercept - lineIntercept) / slopeDiff;
-            double corner3Y = lineSlope * corner3X - lineIntercept;
-
-            // point (rows,cols)
-            row = rows;
-            col = cols;
-            perpendicularLineIntercept = row - perpendicularLineSlope * col;
-            double corner4X = (perpendicularLineIntercept - lineIntercept) / slopeDiff;
-            double corner4Y = lineSlope * corner4X - lineIntercept;
-
-            // find the point with the minimum Y value and set it as the line starting point
-            double lineStartX, lineStartY;
-            lineStartX = corner1X;
-            lineStartY = corner1Y;
-            if (corner2Y < lineStartY) {
-                lineStartX = corner2X;
-                lineStartY = corner2Y;
-            }
-            if (corner3Y < lineStartY) {
-                lineStartX = corner3X;
-                lineStartY = corner3Y;
+        private void turningBandSimulation() {
+            int row, col;
+            int i, j, k, m;
+            int edge1, edge2;
+            double pnt1x, pnt1y, pnt2x, pnt2y;
+            double z;
+            int diagonalSize = (int) (Math.sqrt(rows * rows + cols * cols));
+            double r = range;
+            if (r < 3 * cellSize) {
+                r = 3 * cellSize;
             }
-            if (corner4Y < lineStartY) {
-                lineStartX = corner4X;
-                lineStartY = corner4Y;
+            int filterHalfSize = (int) (r / (2 * cellSize));
+            int filterSize = filterHalfSize * 2 + 1;
+            int[] cellOffsets = new int[filterSize];
+            for (i = 0; i < filterSize; i++) {
+                cellOffsets[i] = i - filterHalfSize;
             }
 
-            // scan through each grid cell and assign it the closest value on the line segment
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    perpendicularLineIntercept = row - perpendicularLineSlope * col;
-                    intersectingPointX = (perpendicularLineIntercept - lineIntercept) / slopeDiff;
-                    intersectingPointY = lineSlope * intersectingPointX - lineIntercept;
-                    int p = (int) (Math.sqrt((intersectingPointX - lineStartX) * (intersectingPointX - lineStartX)
-                            + (intersectingPointY - lineStartY) * (intersectingPointY - lineStartY)));
-                    if (p < 0) {
-                        p = 0;
+            double w = Math.sqrt(36d / (filterHalfSize * (filterHalfSize + 1) * filterSize));
+            
+            Arrays.fill(field, 0);
+            double[] T = new double[diagonalSize + 2 * filterHalfSize];
+            double[] y = new double[diagonalSize];
+
+            for (i = 0; i < numBands; i++) {
+
+                // fill the data line with random numbers. Notice that the
+                // data line is 2 * filterHalfSize larger because of the edge
+                // effects of the filter.
+                for (j = 0; j < diagonalSize; j++) {
+                    T[j] = generator.nextGaussian();
+                }
+
+                // filter the line
+                for (j = 0; j < diagonalSize; j++) {
+                    z = 0;
+                    for (k = 0; k < filterSize; k++) {
+                        m = cellOffsets[k];
+                        z += m * T[j + filterHalfSize + m];
                     }
-                    if (p > (diagonalSize - 1)) {
-                        p = diagonalSize - 1;
+                    y[j] = w * z;
+                }
+
+                // assign the spatially autocorrelated data line an equation
+                // of a transect of the grid. First, pick two points on
+                // different edges of the grid at random. Edges are as
+                // follows 0 = left, 1 = top, 2 = right, and 3 = bottom
+                edge1 = generator.nextInt(4);
+                do {
+                    edge2 = generator.nextInt(4);
+                } while (edge2 == edge1);
+                pnt1x = randomEdgeX(edge1);
+                pnt1y = randomEdgeY(edge1);
+                do {
+                    pnt2x = randomEdgeX(edge2);
+                    pnt2y = randomEdgeY(edge2);
+                } while (pnt1x == pnt2x || pnt1y == pnt2y);
+
+                double lineSlope = (pnt2y - pnt1y) / (pnt2x - pnt1x);
+                double lineIntercept = pnt1y - lineSlope * pnt1x;
+                double perpendicularLineSlope = -1 / lineSlope;
+                double slopeDiff = (lineSlope - perpendicularLineSlope);
+
+                // The foot of the perpendicular from each cell lies on the
+                // line, so its distance from the start of the line is
+                // proportional to the difference in their x coordinates,
+                // which is linear in the row and column. The start of the
+                // line is the foot of the perpendicular from the corner
+                // with the lowest foot y value.
+                double lineStartX = 0;
+                double lineStartY = Double.POSITIVE_INFINITY;
+                int[] cornerRows = {0, 0, rows, rows};
+                int[] cornerCols = {0, cols, 0, cols};
+                for (j = 0; j < 4; j++) {
+                    double footX = (cornerRows[j] - perpendicularLineSlope * cornerCols[j] - lineIntercept) / slopeDiff;
+                    double footY = lineSlope * footX - lineIntercept;
+                    if (footY < lineStartY) {
+                        lineStartX = footX;
+                        lineStartY = footY;
+                    }
+                }
+                double distancePerX = Math.sqrt(1 + lineSlope * lineSlope);
+                double footXStep = -perpendicularLineSlope / slopeDiff;
+                int maxP = diagonalSize - 1;
+
+                // assign each grid cell the closest value on the line segment
+                for (row = 0; row < rows; row++) {
+                    double footX = (row - lineIntercept) / slopeDiff - lineStartX;
+                    int offset = row * cols;
+                    for (col = 0; col < cols; col++) {
+                        int p = (int) (Math.abs(footX) * distancePerX);
+                        if (p > maxP) {
+                            p = maxP;
+                        }
+                        field[offset + col] += y[p];
+                        footX += footXStep;
                     }
-                    tempGrid1[row][col] += y[p];
                 }
             }
-        }
-        
-        for (row = 0; row < rows; row++) {
-            for (col = 0; col < cols; col++) {
-                tempGrid1[row][col] = (float)(tempGrid1[row][col] / numBands);
+
+            for (i = 0; i < field.length; i++) {
+                field[i] = (float) (field[i] / numBands);
             }
         }
-        
-    }
-    
-    private void HistogramMatching(String referenceHistoFile) {
-        try {
-            int row, col;
-            double z;
-            int numCells = 0;
-            int i = 0;
-            
-            int numBins = 50000;
-            
-            // find the min and max values in tempGrid1
-            double minValue = 99999999;
-            double maxValue = -99999999;
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    if (tempGrid1[row][col] < minValue) { minValue = tempGrid1[row][col]; }
-                    if (tempGrid1[row][col] > maxValue) { maxValue = tempGrid1[row][col]; }
-                }
+
+        /**
+         * Transforms the error field so that its distribution matches the
+         * reference distribution.
+         */
+        private void histogramMatching() {
+            int i, j;
+            int numCells = field.length;
+            int numLines = referenceCDF.length;
+
+            // find the min and max values in the field
+            double minValue = Double.POSITIVE_INFINITY;
+            double maxValue = Double.NEGATIVE_INFINITY;
+            for (i = 0; i < numCells; i++) {
+                if (field[i] < minValue) { minValue = field[i]; }
+                if (field[i] > maxValue) { maxValue = field[i]; }
             }
-            
-            double binSize = (maxValue - minValue) / numBins;
-            long[] histogram = new long[numBins];
+
+            double binSize = (maxValue - minValue) / NUM_BINS;
             int binNum;
-            int numBinsLessOne = numBins - 1;
-            double data1[];
-            
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    //z = data1[col];
-                    if (tempGrid1[row][col] != noData) {
-                        numCells++;
-                        binNum = (int)((tempGrid1[row][col] - minValue) / binSize);
-                        if (binNum > numBinsLessOne) { binNum = numBinsLessOne; }
-                        histogram[binNum]++;
-                    }
+            int numBinsLessOne = NUM_BINS - 1;
 
-                }
-                                
+            Arrays.fill(cdf, 0);
+            for (i = 0; i < numCells; i++) {
+                binNum = (int) ((field[i] - minValue) / binSize);
+                if (binNum > numBinsLessOne) { binNum = numBinsLessOne; }
+                cdf[binNum]++;
             }
-            
-            double[] cdf = new double[numBins];
-            cdf[0] = histogram[0]; 
-            for (i = 1; i < numBins; i++) {
-                cdf[i] = cdf[i - 1] + histogram[i];
+            for (i = 1; i < NUM_BINS; i++) {
+                cdf[i] += cdf[i - 1];
             }
-            histogram = null;
-            for (i = 0; i < numBins; i++) {
+            for (i = 0; i < NUM_BINS; i++) {
                 cdf[i] = cdf[i] / numCells;
             }
- 
-            String line;
-            String[] str;
-            String[] delimiters = { "\t", " ", ",", ":", ";" };
-            int delimiterNum = 0;
-            File file = new File(referenceHistoFile);
-            RandomAccessFile raf = null;
-            raf = new RandomAccessFile(file, "r");
-            int numLines = 0;
-            while ((line = raf.readLine()) != null) {
-                if (!line.trim().equals("")) {
-                    numLines++;
-                }
-            } 
-            
-            double[][] referenceCDF = new double[numLines][2];
-            
-            raf.seek(0);
 
-            //Read File Line By Line
-            i = 0;
-            while ((line = raf.readLine()) != null) {
-                str = line.split(delimiters[delimiterNum]);
-                while (str.length < 2) {
-                    delimiterNum++;
-                    if (delimiterNum == delimiters.length) {
-                        showFeedback("the cdf file does not appear to be properly formated.\n"
-                                + "It must be delimited using a tab, space, comma, colon, or semicolon.");
-                        return;
-                    }
-                    str = line.split(delimiters[delimiterNum]);
-                }
-                referenceCDF[i][0] = Double.parseDouble(str[0]); // x value
-                referenceCDF[i][1] = Double.parseDouble(str[1]); // frequency value
-                i++;
-            }
-            
-            raf.close();
-            
-            // convert the referene histogram to a cdf.
-            for (i = 1; i < numLines; i++) {
-                referenceCDF[i][1] += referenceCDF[i - 1][1];
-            }
-            double totalFrequency = referenceCDF[numLines - 1][1];
-            for (i = 0; i < numLines; i++) {
-                referenceCDF[i][1] = referenceCDF[i][1] / totalFrequency;
-            }
-            
             int[] startingVals = new int[11];
-            double pVal = 0;
             for (i = 0; i < numLines; i++) {
-                pVal = referenceCDF[i][1];
-                if (pVal < 0.1) {
-                    startingVals[1] = i;
-                }
-                if (pVal < 0.2) {
-                    startingVals[2] = i;
-                }
-                if (pVal < 0.3) {
-                    startingVals[3] = i;
-                }
-                if (pVal < 0.4) {
-                    startingVals[4] = i;
-                }
-                if (pVal < 0.5) {
-                    startingVals[5] = i;
-                }
-                if (pVal < 0.6) {
-                    startingVals[6] = i;
-                }
-                if (pVal < 0.7) {
-                    startingVals[7] = i;
-                }
-                if (pVal < 0.8) {
-                    startingVals[8] = i;
-                }
-                if (pVal < 0.9) {
-                    startingVals[9] = i;
-                }
-                if (pVal < 0.9) {
-                    startingVals[9] = i;
+                double pVal = referenceCDF[i][1];
+                for (j = 1; j < 10; j++) {
+                    if (pVal < j / 10d) {
+                        startingVals[j] = i;
+                    }
                 }
                 if (pVal <= 1) {
                     startingVals[10] = i;
                 }
             }
-                
-            
-            int j = 0;
-            double xVal = 0;
-            double x1, x2, p1, p2;
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    if (tempGrid1[row][col] != noData) {
-                        binNum = (int)((tempGrid1[row][col] - minValue) / binSize);
-                        if (binNum > numBinsLessOne) { binNum = numBinsLessOne; }
-                        pVal = cdf[binNum];
-                        j = (int)(Math.floor(pVal * 10));
-                        for (i = startingVals[j]; i < numLines; i++) {
-                            if (referenceCDF[i][1] > pVal) {
-                                if (i > 0) {
-                                    x1 = referenceCDF[i - 1][0];
-                                    x2 = referenceCDF[i][0];
-                                    p1 = referenceCDF[i - 1][1];
-                                    p2 = referenceCDF[i][1];
-                                    if (p1 != p2) {
-                                        xVal = x1 + ((x2 - x1) * ((pVal - p1) / (p2 - p1)));
-                                    } else {
-                                        xVal = x1;
-                                    }
-                                } else {
-                                    xVal = referenceCDF[i][0];
-                                }
-                                break;
-                                
+
+            double xVal, x1, x2, p1, p2;
+            for (int c = 0; c < numCells; c++) {
+                binNum = (int) ((field[c] - minValue) / binSize);
+                if (binNum > numBinsLessOne) { binNum = numBinsLessOne; }
+                double pVal = cdf[binNum];
+                j = (int) (Math.floor(pVal * 10));
+                xVal = referenceCDF[numLines - 1][0];
+                for (i = startingVals[j]; i < numLines; i++) {
+                    if (referenceCDF[i][1] > pVal) {
+                        if (i > 0) {
+                            x1 = referenceCDF[i - 1][0];
+                            x2 = referenceCDF[i][0];
+                            p1 = referenceCDF[i - 1][1];
+                            p2 = referenceCDF[i][1];
+                            if (p1 != p2) {
+                                xVal = x1 + ((x2 - x1) * ((pVal - p1) / (p2 - p1)));
+                            } else {
+                                xVal = x1;
                             }
+                        } else {
+                            xVal = referenceCDF[i][0];
                         }
-                        tempGrid2[row][col] = xVal;
+                        break;
                     }
-
                 }
-                
-                
+                field[c] = xVal;
             }
-             
-        } catch (OutOfMemoryError oe) {
-            myHost.showFeedback("An out-of-memory error has occurred during operation.");
-        } catch (Exception e) {
-            myHost.showFeedback("An error has occurred during operation. See log file for details.");
-            myHost.logException("Error in " + getDescriptiveName(), e);
         }
-    }
-    
-    private void FillDepressions (){
-        
-         try {
+
+        /**
+         * Fills the depressions of the field into the filled buffer using
+         * a priority flood from the edges of the data.
+         */
+        private void fillDepressions() {
             int row_n, col_n;
             int row, col;
-            double z_n;
-            long k = 0;
-            GridCell gc = null;
-            double z;
+            double z, z_n;
             int[] Dy = {-1, 0, 1, 1, 1, 0, -1, -1};
             int[] Dx = {1, 1, 1, 0, -1, -1, -1, 0};
-            boolean flag = false;
-            int numCells = 0;
-            double[][] input = new double[rows + 2][cols + 2];
-            
-            for (row = 0; row < rows + 2; row++) {
-                input[row][0] = noData;
-                input[row][cols + 1] = noData;
-            }
-            
-            for (col = 0; col < cols + 2; col++) {
-                input[0][col] = noData;
-                input[rows + 1][col] = noData;
-            }
-            
-            double[] data;
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    tempGrid2[row][col] = -999;
-                    input[row + 1][col + 1] = tempGrid1[row][col];
-                }
-            }
-            
-            data = new double[0];
-            
-            // initialize and fill the priority queue.
-            PriorityQueue<GridCell> queue = new PriorityQueue<GridCell>((2 * rows + 2 * cols) * 2);
+            GridCell gc;
 
+            // initialize and fill the priority queue with the edge cells,
+            // i.e. those next to a nodata cell or the edge of the grid.
+            PriorityQueue<GridCell> queue = new PriorityQueue<>((2 * rows + 2 * cols) * 2);
+            Arrays.fill(filled, Double.NaN);
             for (row = 0; row < rows; row++) {
                 for (col = 0; col < cols; col++) {
-                    z = input[row + 1][col + 1];
-                    if (z != noData) {
-                        numCells++;
-                        flag = false;
-                        for (int i = 0; i < 8; i++) {
-                            row_n = row + Dy[i];
-                            col_n = col + Dx[i];
-                            z_n = input[row_n + 1][col_n + 1];
-                            if (z_n == noData) {
-                                // it's an edge cell.
-                                flag = true;
-                            }
-                        }
-                        if (flag) {
-                            gc = new GridCell(row, col, z);
-                            queue.add(gc);
-                            tempGrid2[row][col] = z;
+                    z = field[row * cols + col];
+                    if (Double.isNaN(z)) {
+                        continue;
+                    }
+                    for (int i = 0; i < 8; i++) {
+                        row_n = row + Dy[i];
+                        col_n = col + Dx[i];
+                        if (row_n < 0 || row_n >= rows || col_n < 0 || col_n >= cols
+                                || Double.isNaN(field[row_n * cols + col_n])) {
+                            queue.add(new GridCell(row, col, z));
+                            filled[row * cols + col] = z;
+                            break;
                         }
-                    } else {
-                        k++;
-                        tempGrid2[row][col] = noData;
                     }
-
                 }
             }
 
             // now fill!
-            do {
+            while (!queue.isEmpty()) {
                 gc = queue.poll();
                 row = gc.row;
                 col = gc.col;
@@ -816,25 +730,21 @@ public class StochasticDepressionAnalysis implements WhiteboxPlugin {
                 for (int i = 0; i < 8; i++) {
                     row_n = row + Dy[i];
                     col_n = col + Dx[i];
-                    z_n = input[row_n + 1][col_n + 1];
-                    if ((z_n != noData) && (tempGrid2[row_n][col_n] == -999)) {
+                    if (row_n < 0 || row_n >= rows || col_n < 0 || col_n >= cols) {
+                        continue;
+                    }
+                    int n = row_n * cols + col_n;
+                    z_n = field[n];
+                    if (!Double.isNaN(z_n) && Double.isNaN(filled[n])) {
                         if (z_n <= z) {
                             z_n = z;
                         }
-                        tempGrid2[row_n][col_n] = z_n;
-                        gc = new GridCell(row_n, col_n, z_n);
-                        queue.add(gc);
+                        filled[n] = z_n;
+                        queue.add(new GridCell(row_n, col_n, z_n));
                     }
                 }
-            } while (queue.isEmpty() == false);
-
-        } catch (OutOfMemoryError oe) {
-            myHost.showFeedback("An out-of-memory error has occurred during operation.");
-        } catch (Exception e) {
-            myHost.showFeedback("An error has occurred during operation. See log file for details.");
-            myHost.logException("Error in " + getDescriptiveName(), e);
+            }
         }
-        
     }
     
     class GridCell implements Comparable<GridCell> {
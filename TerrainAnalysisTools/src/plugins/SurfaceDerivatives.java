@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package plugins;
+
+import java.util.Date;
+import whitebox.algorithms.TerrainDerivatives;
+import whitebox.algorithms.TerrainDerivatives.Derivative;
+import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.interfaces.WhiteboxPlugin;
+import whitebox.interfaces.WhiteboxPluginHost;
+
+/**
+ * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class SurfaceDerivatives implements WhiteboxPlugin {
+
+    private WhiteboxPluginHost myHost = null;
+    private String[] args;
+
+    /**
+     * Used to retrieve the plugin tool's name. This is a short, unique name
+     * containing no spaces.
+     *
+     * @return String containing plugin name.
+     */
+    @Override
+    public String getName() {
+        return "SurfaceDerivatives";
+    }
+
+    /**
+     * Used to retrieve the plugin tool's descriptive name. This can be a longer
+     * name (containing spaces) and is used in the interface to list the tool.
+     *
+     * @return String containing the plugin descriptive name.
+     */
+    @Override
+    public String getDescriptiveName() {
+        return "Surface Derivatives (Multiple)";
+    }
+
+    /**
+     * Used to retrieve a short description of what the plugin tool does.
+     *
+     * @return String containing the plugin's description.
+     */
+    @Override
+    public String getToolDescription() {
+        return "Calculates several surface derivatives of a digital elevation "
+                + "model (DEM) in a single pass.";
+    }
+
+    /**
+     * Used to identify which toolboxes this plugin tool should be listed in.
+     *
+     * @return Array of Strings.
+     */
+    @Override
+    public String[] getToolbox() {
+        String[] ret = {"SurfDerivatives"};
+        return ret;
+    }
+
+    /**
+     * Sets the WhiteboxPluginHost to which the plugin tool is tied. This is the
+     * class that the plugin will send all feedback messages, progress updates,
+     * and return objects.
+     *
+     * @param host The WhiteboxPluginHost that called the plugin tool.
+     */
+    @Override
+    public void setPluginHost(WhiteboxPluginHost host) {
+        myHost = host;
+    }
+
+    /**
+     * Used to communicate feedback pop-up messages between a plugin tool and
+     * the main Whitebox user-interface.
+     *
+     * @param feedback String containing the text to display.
+     */
+    private void showFeedback(String message) {
+        if (myHost != null) {
+            myHost.showFeedback(message);
+        } else {
+            System.out.println(message);
+        }
+    }
+
+    /**
+     * Used to communicate a return object from a plugin tool to the main
+     * Whitebox user-interface.
+     *
+     * @return Object, such as an output WhiteboxRaster.
+     */
+    private void returnData(Object ret) {
+        if (myHost != null) {
+            myHost.returnData(ret);
+        }
+    }
+    private int previousProgress = 0;
+    private String previousProgressLabel = "";
+
+    /**
+     * Used to communicate a progress update between a plugin tool and the main
+     * Whitebox user interface.
+     *
+     * @param progressLabel A String to use for the progress label.
+     * @param progress Float containing the progress value (between 0 and 100).
+     */
+    private void updateProgress(String progressLabel, int progress) {
+        if (myHost != null && ((progress != previousProgress)
+                || (!progressLabel.equals(previousProgressLabel)))) {
+            myHost.updateProgress(progressLabel, progress);
+        }
+        previousProgress = progress;
+        previousProgressLabel = progressLabel;
+    }
+
+    /**
+     * Used to communicate a progress update between a plugin tool and the main
+     * Whitebox user interface.
+     *
+     * @param progress Float containing the progress value (between 0 and 100).
+     */
+    private void updateProgress(int progress) {
+        if (myHost != null && progress != previousProgress) {
+            myHost.updateProgress(progress);
+        }
+        previousProgress = progress;
+    }
+
+    /**
+     * Sets the arguments (parameters) used by the plugin.
+     *
+     * @param args
+     */
+    @Override
+    public void setArgs(String[] args) {
+        this.args = args.clone();
+    }
+    private boolean cancelOp = false;
+
+    /**
+     * Used to communicate a cancel operation from the Whitebox GUI.
+     *
+     * @param cancel Set to true if the plugin should be canceled.
+     */
+    @Override
+    public void setCancelOp(boolean cancel) {
+        cancelOp = cancel;
+    }
+
+    private void cancelOperation() {
+        showFeedback("Operation cancelled.");
+        updateProgress("Progress: ", 0);
+    }
+    private boolean amIActive = false;
+
+    /**
+     * Used by the Whitebox GUI to tell if this plugin is still running.
+     *
+     * @return a boolean describing whether or not the plugin is actively being
+     * used.
+     */
+    @Override
+    public boolean isActive() {
+
+        return amIActive;
+    }
+
+    @Override
+    public void run() {
+        amIActive = true;
+
+        String inputHeader = null;
+        double zConvFactor = 1;
+        // the outputs, in the order of their parameters.
+        Derivative[] derivatives = {Derivative.SLOPE, Derivative.ASPECT,
+            Derivative.PLAN_CURVATURE, Derivative.PROFILE_CURVATURE,
+            Derivative.TANGENTIAL_CURVATURE, Derivative.TOTAL_CURVATURE,
+            Derivative.HILLSHADE};
+        String[] palettes = {"spectrum.pal", "circular_bw.pal", "blue_white_red.pal",
+            "blue_white_red.pal", "blue_white_red.pal", "blue_white_red.pal", "grey.pal"};
+        String[] outputHeaders = new String[derivatives.length];
+
+        if (args.length <= 0) {
+            showFeedback("Plugin parameters have not been set.");
+            return;
+        }
+
+        inputHeader = args[0];
+        int numOutputs = 0;
+        for (int i = 0; i < derivatives.length; i++) {
+            String str = args[i + 1];
+            if (str != null && !str.isEmpty() && !str.toLowerCase().contains("not specified")) {
+                outputHeaders[i] = str;
+                numOutputs++;
+            }
+        }
+        zConvFactor = Double.parseDouble(args[derivatives.length + 1]);
+
+        // check to see that the inputHeader is not null.
+        if (inputHeader == null || inputHeader.isEmpty()) {
+            showFeedback("One or more of the input parameters have not been set properly.");
+            return;
+        }
+        if (numOutputs == 0) {
+            showFeedback("At least one output file must be specified.");
+            return;
+        }
+
+        try {
+            WhiteboxRaster DEM = new WhiteboxRaster(inputHeader, "r");
+            double noData = DEM.getNoDataValue();
+
+            TerrainDerivatives engine = new TerrainDerivatives(DEM, zConvFactor);
+            WhiteboxRaster[] outputs = new WhiteboxRaster[derivatives.length];
+            for (int i = 0; i < derivatives.length; i++) {
+                if (outputHeaders[i] == null) {
+                    continue;
+                }
+                if (derivatives[i] == Derivative.HILLSHADE) {
+                    outputs[i] = new WhiteboxRaster(outputHeaders[i], "rw", inputHeader, WhiteboxRaster.DataType.INTEGER, -32768);
+                    outputs[i].setNoDataValue(-32768);
+                } else {
+                    outputs[i] = new WhiteboxRaster(outputHeaders[i], "rw", inputHeader, WhiteboxRaster.DataType.FLOAT, noData);
+                }
+                outputs[i].setPreferredPalette(palettes[i]);
+                engine.addOutput(derivatives[i], outputs[i]);
+            }
+
+            // every output is calculated from a single reading of the DEM.
+            boolean completed = engine.run(new TerrainDerivatives.ProgressListener() {
+                @Override
+                public boolean progress(int progress) {
+                    updateProgress(progress);
+                    return !cancelOp;
+                }
+            });
+            if (!completed) {
+                cancelOperation();
+                return;
+            }
+
+            DEM.close();
+            for (WhiteboxRaster output : outputs) {
+                if (output != null) {
+                    output.addMetadataEntry("Created by the "
+                            + getDescriptiveName() + " tool.");
+                    output.addMetadataEntry("Created on " + new Date());
+                    output.close();
+                }
+            }
+
+            // returning a header file string displays the image.
+            for (int i = derivatives.length - 1; i >= 0; i--) {
+                if (outputHeaders[i] != null) {
+                    returnData(outputHeaders[i]);
+                }
+            }
+
+        } catch (OutOfMemoryError oe) {
+            myHost.showFeedback("An out-of-memory error has occurred during operation.");
+        } catch (Exception e) {
+            myHost.showFeedback("An error has occurred during operation. See log file for details.");
+            myHost.logException("Error in " + getDescriptiveName(), e);
+        } finally {
+            updateProgress("Progress: ", 0);
+            // tells the main application that this process is completed.
+            amIActive = false;
+            myHost.pluginComplete();
+        }
+    }
+}
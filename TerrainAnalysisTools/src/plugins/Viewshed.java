@@ -18,12 +18,14 @@ package plugins;
 
 import java.util.ArrayList;
 import java.util.Date;
+import whitebox.algorithms.ViewshedCalculator;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.geospatialfiles.ShapeFile;
 import whitebox.geospatialfiles.shapefile.*;
 import static whitebox.geospatialfiles.shapefile.ShapeType.MULTIPOINT;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
+import whitebox.parallel.Parallel;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -196,14 +198,8 @@ public class Viewshed implements WhiteboxPlugin {
         int progress = 0;
         double z, noData, outputNoData;
         double stationHeight;
+        double maxDistance = Double.POSITIVE_INFINITY;
         double[] data;
-        double vertCount = 1;
-        double horizCount;
-        double t1, t2, tva;
-        int stationRow;
-        int stationCol;
-        double x, y, dist, dZ, viewAngleValue;
-        double va;
 
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -214,6 +210,9 @@ public class Viewshed implements WhiteboxPlugin {
         inputViewingStation = args[1];
         outputHeader = args[2];
         stationHeight = Double.parseDouble(args[3]);
+        if (args.length > 4 && !args[4].toLowerCase().equals("not specified")) {
+            maxDistance = Double.parseDouble(args[4]);
+        }
 
         // check to see that the inputHeader and outputHeader are not null.
         if (demHeader.isEmpty() || outputHeader.isEmpty()) {
@@ -228,9 +227,6 @@ public class Viewshed implements WhiteboxPlugin {
             cols = DEM.getNumberColumns();
             noData = DEM.getNoDataValue();
             outputNoData = DEM.getNoDataValue();
-            double stationX; 
-            double stationY; 
-            double stationZ; 
 
             WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw",
                     demHeader, WhiteboxRaster.DataType.INTEGER, 0);
@@ -238,16 +234,6 @@ public class Viewshed implements WhiteboxPlugin {
             output.setPreferredPalette("spectrum.pal");
             output.setDataScale(WhiteboxRaster.DataScale.CONTINUOUS);
 
-            // create a temporary raster to hold the view angle
-            WhiteboxRaster viewAngle = new WhiteboxRaster(outputHeader.replace(".dep", "_temp1.dep"), "rw",
-                    demHeader, WhiteboxRaster.DataType.FLOAT, 0);
-            viewAngle.isTemporaryFile = true;
-
-            // create a temporary raster to hold the max view angle
-            WhiteboxRaster maxViewAngle = new WhiteboxRaster(outputHeader.replace(".dep", "_temp2.dep"), "rw",
-                    demHeader, WhiteboxRaster.DataType.FLOAT, 0);
-            maxViewAngle.isTemporaryFile = true;
-
             // Find all of the viewing stations.
             ArrayList<Double> stationXs = new ArrayList<>();
             ArrayList<Double> stationYs = new ArrayList<>();
@@ -323,7 +309,7 @@ public class Viewshed implements WhiteboxPlugin {
                         z = data[col];
                         if (z != vsNoData & z != 0) {
                             stationXs.add(viewStation.getXCoordinateFromColumn(col));
-                            stationYs.add(viewStation.getXCoordinateFromColumn(row));
+                            stationYs.add(viewStation.getYCoordinateFromRow(row));
                         }
                     }
                     if (cancelOp) {
@@ -339,355 +325,48 @@ public class Viewshed implements WhiteboxPlugin {
             }
 
             int numStations = stationXs.size();
-            
-            //for (int a = 0; a < 500; a++) {
+            int[] stationRows = new int[numStations];
+            int[] stationCols = new int[numStations];
             for (int a = 0; a < numStations; a++) {
-                stationX = stationXs.get(a);
-                stationY = stationYs.get(a);
-                stationRow = DEM.getRowFromYCoordinate(stationY);
-                stationCol = DEM.getColumnFromXCoordinate(stationX);
-                stationZ = DEM.getValue(stationRow, stationCol) + stationHeight;
-                
-                for (row = 0; row < rows; row++) {
-                    data = DEM.getRowValues(row);
-                    for (col = 0; col < cols; col++) {
-                        z = data[col];
-                        if (z != noData) {
-                            x = DEM.getXCoordinateFromColumn(col);
-                            y = DEM.getYCoordinateFromRow(row);
-                            dZ = z - stationZ;
-                            dist = Math.sqrt((x - stationX) * (x - stationX) + (y - stationY) * (y - stationY));
-                            if (dist != 0.0) {
-                                viewAngleValue = dZ / dist * 1000;
-                                viewAngle.setValue(row, col, viewAngleValue);
-                            }
-                        } else {
-                            viewAngle.setValue(row, col, outputNoData);
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress = (int) (100f * row / (rows - 1));
-                    updateProgress(progress);
-                }
-
-                // perform the simple scan lines.
-                for (row = stationRow - 1; row <= stationRow + 1; row++) {
-                    for (col = stationCol - 1; col <= stationCol + 1; col++) {
-                        maxViewAngle.setValue(row, col, viewAngle.getValue(row, col));
-                    }
-                }
-
-                double maxVA = viewAngle.getValue(stationRow - 1, stationCol);
-                for (row = stationRow - 2; row >= 0; row--) {
-                    z = viewAngle.getValue(row, stationCol);
-                    if (z > maxVA) {
-                        maxVA = z;
-                    }
-                    maxViewAngle.setValue(row, stationCol, maxVA);
-                }
-
-                maxVA = viewAngle.getValue(stationRow + 1, stationCol);
-                for (row = stationRow + 2; row < rows; row++) {
-                    z = viewAngle.getValue(row, stationCol);
-                    if (z > maxVA) {
-                        maxVA = z;
-                    }
-                    maxViewAngle.setValue(row, stationCol, maxVA);
-                }
-
-                maxVA = viewAngle.getValue(stationRow, stationCol + 1);
-                for (col = stationCol + 2; col < cols - 1; col++) {
-                    z = viewAngle.getValue(stationRow, col);
-                    if (z > maxVA) {
-                        maxVA = z;
-                    }
-                    maxViewAngle.setValue(stationRow, col, maxVA);
-                }
-
-                maxVA = viewAngle.getValue(stationRow, stationCol - 1);
-                for (col = stationCol - 2; col >= 0; col--) {
-                    z = viewAngle.getValue(stationRow, col);
-                    if (z > maxVA) {
-                        maxVA = z;
-                    }
-                    maxViewAngle.setValue(stationRow, col, maxVA);
-                }
-
-                //solve the first triangular facet
-                for (row = stationRow - 2; row >= 0; row--) {
-                    vertCount++;
-                    horizCount = 0;
-                    for (col = stationCol + 1; col <= stationCol + vertCount; col++) {
-                        if (col <= cols) {
-                            va = viewAngle.getValue(row, col);
-                            horizCount++;
-                            if (horizCount != vertCount) {
-                                t1 = maxViewAngle.getValue(row + 1, col - 1);
-                                t2 = maxViewAngle.getValue(row + 1, col);
-                                tva = t2 + horizCount / vertCount * (t1 - t2);
-                            } else {
-                                tva = maxViewAngle.getValue(row + 1, col - 1);
-                            }
-                            if (tva > va) {
-                                maxViewAngle.setValue(row, col, tva);
-                            } else {
-                                maxViewAngle.setValue(row, col, va);
-                            }
-                        } else {
-                            break;
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                }
-
-                //solve the second triangular facet
-                vertCount = 1;
-                for (row = stationRow - 2; row >= 0; row--) {
-                    vertCount++;
-                    horizCount = 0;
-                    for (col = stationCol - 1; col >= stationCol - vertCount; col--) {
-                        if (col >= 0) {
-                            va = viewAngle.getValue(row, col);
-                            horizCount++;
-                            if (horizCount != vertCount) {
-                                t1 = maxViewAngle.getValue(row + 1, col + 1);
-                                t2 = maxViewAngle.getValue(row + 1, col);
-                                tva = t2 + horizCount / vertCount * (t1 - t2);
-                            } else {
-                                tva = maxViewAngle.getValue(row + 1, col + 1);
-                            }
-                            if (tva > va) {
-                                maxViewAngle.setValue(row, col, tva);
-                            } else {
-                                maxViewAngle.setValue(row, col, va);
-                            }
-                        } else {
-                            break;
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                }
-
-                // solve the third triangular facet
-                vertCount = 1;
-                for (row = stationRow + 2; row < rows; row++) {
-                    vertCount++;
-                    horizCount = 0;
-                    for (col = stationCol - 1; col >= stationCol - vertCount; col--) {
-                        if (col >= 0) {
-                            va = viewAngle.getValue(row, col);
-                            horizCount++;
-                            if (horizCount != vertCount) {
-                                t1 = maxViewAngle.getValue(row - 1, col + 1);
-                                t2 = maxViewAngle.getValue(row - 1, col);
-                                tva = t2 + horizCount / vertCount * (t1 - t2);
-                            } else {
-                                tva = maxViewAngle.getValue(row - 1, col + 1);
-                            }
-                            if (tva > va) {
-                                maxViewAngle.setValue(row, col, tva);
-                            } else {
-                                maxViewAngle.setValue(row, col, va);
-                            }
-                        } else {
-                            break;
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                }
-
-                // solve the fourth triangular facet
-                vertCount = 1;
-                for (row = stationRow + 2; row < rows; row++) {
-                    vertCount++;
-                    horizCount = 0;
-                    for (col = stationCol + 1; col <= stationCol + vertCount; col++) {
-                        if (col < cols) {
-                            va = viewAngle.getValue(row, col);
-                            horizCount++;
-                            if (horizCount != vertCount) {
-                                t1 = maxViewAngle.getValue(row - 1, col - 1);
-                                t2 = maxViewAngle.getValue(row - 1, col);
-                                tva = t2 + horizCount / vertCount * (t1 - t2);
-                            } else {
-                                tva = maxViewAngle.getValue(row - 1, col - 1);
-                            }
-                            if (tva > va) {
-                                maxViewAngle.setValue(row, col, tva);
-                            } else {
-                                maxViewAngle.setValue(row, col, va);
-                            }
-                        } else {
-                            break;
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                }
-
-                // solve the fifth triangular facet
-                vertCount = 1;
-                for (col = stationCol + 2; col < cols; col++) {
-                    vertCount++;
-                    horizCount = 0;
-                    for (row = stationRow - 1; row >= stationRow - vertCount; row--) {
-                        if (row >= 0) {
-                            va = viewAngle.getValue(row, col);
-                            horizCount++;
-                            if (horizCount != vertCount) {
-                                t1 = maxViewAngle.getValue(row + 1, col - 1);
-                                t2 = maxViewAngle.getValue(row, col - 1);
-                                tva = t2 + horizCount / vertCount * (t1 - t2);
-                            } else {
-                                tva = maxViewAngle.getValue(row + 1, col - 1);
-                            }
-                            if (tva > va) {
-                                maxViewAngle.setValue(row, col, tva);
-                            } else {
-                                maxViewAngle.setValue(row, col, va);
-                            }
-                        } else {
-                            break;
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                }
-
-                // solve the sixth triangular facet
-                vertCount = 1;
-                for (col = stationCol + 2; col < cols; col++) {
-                    vertCount++;
-                    horizCount = 0;
-                    for (row = stationRow + 1; row <= stationRow + vertCount; row++) {
-                        if (row < rows) {
-                            va = viewAngle.getValue(row, col);
-                            horizCount++;
-                            if (horizCount != vertCount) {
-                                t1 = maxViewAngle.getValue(row - 1, col - 1);
-                                t2 = maxViewAngle.getValue(row, col - 1);
-                                tva = t2 + horizCount / vertCount * (t1 - t2);
-                            } else {
-                                tva = maxViewAngle.getValue(row - 1, col - 1);
-                            }
-                            if (tva > va) {
-                                maxViewAngle.setValue(row, col, tva);
-                            } else {
-                                maxViewAngle.setValue(row, col, va);
-                            }
-                        } else {
-                            break;
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                }
+                stationRows[a] = DEM.getRowFromYCoordinate(stationYs.get(a));
+                stationCols[a] = DEM.getColumnFromXCoordinate(stationXs.get(a));
+            }
 
-                // solve the seventh triangular facet
-                vertCount = 1;
-                for (col = stationCol - 2; col >= 0; col--) {
-                    vertCount++;
-                    horizCount = 0;
-                    for (row = stationRow + 1; row <= stationRow + vertCount; row++) {
-                        if (row < rows) {
-                            va = viewAngle.getValue(row, col);
-                            horizCount++;
-                            if (horizCount != vertCount) {
-                                t1 = maxViewAngle.getValue(row - 1, col + 1);
-                                t2 = maxViewAngle.getValue(row, col + 1);
-                                tva = t2 + horizCount / vertCount * (t1 - t2);
-                            } else {
-                                tva = maxViewAngle.getValue(row - 1, col + 1);
-                            }
-                            if (tva > va) {
-                                maxViewAngle.setValue(row, col, tva);
-                            } else {
-                                maxViewAngle.setValue(row, col, va);
-                            }
-                        } else {
-                            break;
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
+            updateProgress("Reading DEM:", 0);
+            ViewshedCalculator viewsheds = new ViewshedCalculator(DEM);
+            viewsheds.setObserverHeight(stationHeight);
+            viewsheds.setMaximumDistance(maxDistance);
+
+            // the stations are processed in batches so that progress can be
+            // reported and the operation cancelled.
+            int batchSize = Math.max(1, Parallel.getPluginProcessors() * 4);
+            int numViewsheds = 0;
+            for (int a = 0; a < numStations; a += batchSize) {
+                int end = Math.min(numStations, a + batchSize);
+                numViewsheds += viewsheds.addViewsheds(stationRows, stationCols, a, end);
+                if (cancelOp) {
+                    cancelOperation();
+                    return;
                 }
+                progress = (int) (100f * end / numStations);
+                updateProgress("Calculating viewsheds:", progress);
+            }
+            
+            if (numViewsheds == 0) {
+                showFeedback("None of the viewing stations are located on valid DEM cells.");
+                return;
+            }
 
-                // solve the eigth triangular facet
-                vertCount = 1;
-                for (col = stationCol - 2; col >= 0; col--) {
-                    vertCount++;
-                    horizCount = 0;
-                    for (row = stationRow - 1; row >= stationRow - vertCount; row--) {
-                        if (row < rows) {
-                            va = viewAngle.getValue(row, col);
-                            horizCount++;
-                            if (horizCount != vertCount) {
-                                t1 = maxViewAngle.getValue(row + 1, col + 1);
-                                t2 = maxViewAngle.getValue(row, col + 1);
-                                tva = t2 + horizCount / vertCount * (t1 - t2);
-                            } else {
-                                tva = maxViewAngle.getValue(row + 1, col + 1);
-                            }
-                            if (tva > va) {
-                                maxViewAngle.setValue(row, col, tva);
-                            } else {
-                                maxViewAngle.setValue(row, col, va);
-                            }
-                        } else {
-                            break;
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                }
-                //output.flush();
-                viewAngle.flush();
-                maxViewAngle.flush();
-
-                double[] dataVA;
-                for (row = 0; row < rows; row++) {
-                    dataVA = viewAngle.getRowValues(row);
-                    data = maxViewAngle.getRowValues(row);
-                    for (col = 0; col < cols; col++) {
-                        if (data[col] <= dataVA[col] && dataVA[col] != outputNoData) {
-                            output.setValue(row, col, output.getValue(row, col) + 1);
-                        } else if (dataVA[col] == outputNoData) {
-                            output.setValue(row, col, outputNoData);
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress = (int) (100f * row / (rows - 1));
-                    updateProgress(progress);
+            for (row = 0; row < rows; row++) {
+                output.setRowValues(row, viewsheds.getRowCounts(row, outputNoData));
+                if (cancelOp) {
+                    cancelOperation();
+                    return;
                 }
+                progress = (int) (100f * row / (rows - 1));
+                updateProgress("Saving output:", progress);
             }
 
-            viewAngle.close();
-            maxViewAngle.close();
 
             output.addMetadataEntry("Created by the "
                     + getDescriptiveName() + " tool.");
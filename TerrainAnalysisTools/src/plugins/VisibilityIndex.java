@@ -16,13 +16,11 @@
  */
 package plugins;
 
-import java.util.Collection;
 import java.util.Date;
-import java.util.LinkedList;
+import whitebox.algorithms.ViewshedCalculator;
 import whitebox.geospatialfiles.WhiteboxRaster;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
-import whitebox.utilities.Parallel;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -183,38 +181,18 @@ public class VisibilityIndex implements WhiteboxPlugin {
     public boolean isActive() {
         return amIActive;
     }
-    private double[][] zValues;
-    private double[][] outputData;
-    private double numViewsheds = 0;
-    private double noData;
-    private int outputNoData;
-    private int numSolvedRows = 0;
-    private double stationHeight = 0;
-
     @Override
     public void run() {
         amIActive = true;
 
-        //startTime = System.currentTimeMillis();
         String inputHeader;
         String outputHeader;
-        int row, col;
-        final int rows, cols;
+        int row, col, i;
+        int rows, cols;
         int progress = 0;
-        double z;
-        double[] data;
-        double vertCount = 1;
-        double horizCount;
-        double t1, t2, tva;
-        int stationRow;
-        int stationCol;
-        double stationX;
-        double stationY;
-        double stationZ;
-        double x, y, dist, dZ;
-        double va;
-        boolean processConcurrently = true;
-        //double numViewsheds = 0;
+        double stationHeight;
+        double maxDistance = Double.POSITIVE_INFINITY;
+        double outputNoData = -32768;
 
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -223,749 +201,63 @@ public class VisibilityIndex implements WhiteboxPlugin {
 
         inputHeader = args[0];
         outputHeader = args[1];
-        final int step = Integer.parseInt(args[2]);
-        processConcurrently = Boolean.parseBoolean(args[3]);
+        int step = Integer.parseInt(args[2]);
+        // args[3], the parallel processing flag, is retained so that existing
+        // scripts continue to work. The viewsheds are always calculated
+        // concurrently using the number of processors set for plugins.
         stationHeight = Double.parseDouble(args[4]);
+        if (args.length > 5 && !args[5].toLowerCase().equals("not specified")) {
+            maxDistance = Double.parseDouble(args[5]);
+        }
 
         // check to see that the inputHeader and outputHeader are not null.
         if ((inputHeader == null) || (outputHeader == null)) {
             showFeedback("One or more of the input parameters have not been set properly.");
             return;
         }
+        
+        if (step < 1) {
+            step = 1;
+        }
 
         try {
 
             WhiteboxRaster DEM = new WhiteboxRaster(inputHeader, "r");
             rows = DEM.getNumberRows();
             cols = DEM.getNumberColumns();
-            noData = DEM.getNoDataValue();
-            outputNoData = -32768;
-            double north = DEM.getNorth();
-            double cellSizeY = DEM.getCellSizeY();
-            double halfCellSizeY = cellSizeY / 2.0;
-            final double[] yCoordsByRow = new double[rows];
-            for (int i = 0; i < rows; i++) {
-                yCoordsByRow[i] = north - halfCellSizeY - i * cellSizeY;
-            }
-
-            double west = DEM.getWest();
-            double cellSizeX = DEM.getCellSizeX();
-            double halfCellSizeX = cellSizeX / 2.0;
-            final double[] xCoordsByColumn = new double[cols];
-            for (int i = 0; i < cols; i++) {
-                xCoordsByColumn[i] = west + halfCellSizeX + i * cellSizeX;
-            }
-
-            zValues = new double[rows][cols];
-            for (row = 0; row < rows; row++) {
-                data = DEM.getRowValues(row);
-                zValues[row] = data;
-            }
 
+            updateProgress("Reading DEM:", 0);
+            ViewshedCalculator viewsheds = new ViewshedCalculator(DEM);
+            viewsheds.setObserverHeight(stationHeight);
+            viewsheds.setMaximumDistance(maxDistance);
             DEM.close();
 
-//            double[][] viewAngle = new double[rows][cols];
-//            double[][] maxViewAngle = new double[rows][cols];
-            outputData = new double[rows][cols];
-
-            if (processConcurrently) {
-                Parallel.For(0, rows, step, new Parallel.LoopBody<Integer>() {
-
-                    @Override
-                    public void run(Integer stationRow) {
-                        double[][] viewAngle = new double[rows][cols];
-                        double[][] maxViewAngle = new double[rows][cols];
-                        int row, col;
-                        double x, y, z, dZ, dist;
-                        double stationX, stationY, stationZ;
-                        double horizCount, vertCount = 1;
-                        double t1, t2, tva;
-                        double va;
-                        
-                        if (!cancelOp) {
-                        
-                        for (int stationCol = 0; stationCol < cols; stationCol += step) {
-                            numViewsheds++;
-                            stationX = xCoordsByColumn[stationCol];
-                            stationY = yCoordsByRow[stationRow];
-                            stationZ = zValues[stationRow][stationCol] + stationHeight;
-
-                            // calculate the view angle to each cell from this station.
-                            for (row = 0; row < rows; row++) {
-                                for (col = 0; col < cols; col++) {
-                                    z = zValues[row][col];
-                                    if (z != noData) {
-                                        x = xCoordsByColumn[col];
-                                        y = yCoordsByRow[row];
-                                        dZ = z - stationZ;
-                                        dist = Math.sqrt((x - stationX) * (x - stationX) + (y - stationY) * (y - stationY));
-                                        if (dist != 0.0) {
-                                            viewAngle[row][col] = dZ / dist * 1000.0;
-                                        }
-                                    } else {
-                                        viewAngle[row][col] = noData;
-                                    }
-                                }
-                                if (cancelOp) {
-                                    cancelOperation();
-                                    return;
-                                }
-                            }
-
-                            // perform the simple scan lines.
-                            for (row = stationRow - 1; row <= stationRow + 1; row++) {
-                                for (col = stationCol - 1; col <= stationCol + 1; col++) {
-                                    if (row >= 0 && row < rows && col >= 0 && col < cols) {
-                                        maxViewAngle[row][col] = viewAngle[row][col];
-                                    }
-                                }
-                            }
-
-                            double maxVA;
-                            if (stationRow - 1 >= 0) {
-                                maxVA = viewAngle[stationRow - 1][stationCol]; //viewAngle.getValue(stationRow - 1, stationCol);
-                                for (row = stationRow - 2; row >= 0; row--) {
-                                    z = viewAngle[row][stationCol]; //viewAngle.getValue(row, stationCol);
-                                    if (z > maxVA) {
-                                        maxVA = z;
-                                    }
-                                    //maxViewAngle.setValue(row, stationCol, maxVA);
-                                    maxViewAngle[row][stationCol] = maxVA;
-                                }
-                            }
-                            if (stationRow + 1 < rows) {
-                                maxVA = viewAngle[stationRow + 1][stationCol]; //viewAngle.getValue(stationRow + 1, stationCol);
-                                for (row = stationRow + 2; row < rows; row++) {
-                                    z = viewAngle[row][stationCol]; //viewAngle.getValue(row, stationCol);
-                                    if (z > maxVA) {
-                                        maxVA = z;
-                                    }
-                                    //maxViewAngle.setValue(row, stationCol, maxVA);
-                                    maxViewAngle[row][stationCol] = maxVA;
-                                }
-                            }
-                            if (stationCol + 1 < cols) {
-                                maxVA = viewAngle[stationRow][stationCol + 1]; //viewAngle.getValue(stationRow, stationCol + 1);
-                                for (col = stationCol + 2; col < cols - 1; col++) {
-                                    z = viewAngle[stationRow][col]; //viewAngle.getValue(stationRow, col);
-                                    if (z > maxVA) {
-                                        maxVA = z;
-                                    }
-                                    //maxViewAngle.setValue(stationRow, col, maxVA);
-                                    maxViewAngle[stationRow][col] = maxVA;
-                                }
-                            }
-                            if (stationCol - 1 >= 0) {
-                                maxVA = viewAngle[stationRow][stationCol - 1]; //viewAngle.getValue(stationRow, stationCol - 1);
-                                for (col = stationCol - 2; col >= 0; col--) {
-                                    z = viewAngle[stationRow][col]; //viewAngle.getValue(stationRow, col);
-                                    if (z > maxVA) {
-                                        maxVA = z;
-                                    }
-                                    //maxViewAngle.setValue(stationRow, col, maxVA);
-                                    maxViewAngle[stationRow][col] = maxVA;
-                                }
-                            }
-
-                            //solve the first triangular facet
-                            vertCount = 1;
-                            for (row = stationRow - 2; row >= 0; row--) {
-                                vertCount++;
-                                horizCount = 0;
-                                for (col = stationCol + 1; col <= stationCol + vertCount; col++) {
-                                    if (col < cols) {
-                                        va = viewAngle[row][col]; //viewAngle.getValue(row, col);
-                                        horizCount++;
-                                        if (horizCount != vertCount) {
-                                            t1 = maxViewAngle[row + 1][col - 1]; //maxViewAngle.getValue(row + 1, col - 1);
-                                            t2 = maxViewAngle[row + 1][col]; //maxViewAngle.getValue(row + 1, col);
-                                            tva = t2 + horizCount / vertCount * (t1 - t2);
-                                        } else {
-                                            tva = maxViewAngle[row + 1][col - 1]; //maxViewAngle.getValue(row + 1, col - 1);
-                                        }
-                                        if (tva > va) {
-                                            //maxViewAngle.setValue(row, col, tva);
-                                            maxViewAngle[row][col] = tva;
-                                        } else {
-                                            //maxViewAngle.setValue(row, col, va);
-                                            maxViewAngle[row][col] = va;
-                                        }
-                                    } else {
-                                        break;
-                                    }
-                                }
-                            }
-
-                            //solve the second triangular facet
-                            vertCount = 1;
-                            for (row = stationRow - 2; row >= 0; row--) {
-                                vertCount++;
-                                horizCount = 0;
-                                for (col = stationCol - 1; col >= stationCol - vertCount; col--) {
-                                    if (col >= 0) {
-                                        va = viewAngle[row][col]; //viewAngle.getValue(row, col);
-                                        horizCount++;
-                                        if (horizCount != vertCount) {
-                                            t1 = maxViewAngle[row + 1][col + 1]; //maxViewAngle.getValue(row + 1, col + 1);
-                                            t2 = maxViewAngle[row + 1][col]; //maxViewAngle.getValue(row + 1, col);
-                                            tva = t2 + horizCount / vertCount * (t1 - t2);
-                                        } else {
-                                            tva = maxViewAngle[row + 1][col + 1]; //maxViewAngle.getValue(row + 1, col + 1);
-                                        }
-                                        if (tva > va) {
-                                            //maxViewAngle.setValue(row, col, tva);
-                                            maxViewAngle[row][col] = tva;
-                                        } else {
-                                            //maxViewAngle.setValue(row, col, va);
-                                            maxViewAngle[row][col] = va;
-                                        }
-                                    } else {
-                                        break;
-                                    }
-                                }
-                            }
-
-                            // solve the third triangular facet
-                            vertCount = 1;
-                            for (row = stationRow + 2; row < rows; row++) {
-                                vertCount++;
-                                horizCount = 0;
-                                for (col = stationCol - 1; col >= stationCol - vertCount; col--) {
-                                    if (col >= 0) {
-                                        va = viewAngle[row][col]; //viewAngle.getValue(row, col);
-                                        horizCount++;
-                                        if (horizCount != vertCount) {
-                                            t1 = maxViewAngle[row - 1][col + 1]; //maxViewAngle.getValue(row - 1, col + 1);
-                                            t2 = maxViewAngle[row - 1][col]; //maxViewAngle.getValue(row - 1, col);
-                                            tva = t2 + horizCount / vertCount * (t1 - t2);
-                                        } else {
-                                            tva = maxViewAngle[row - 1][col + 1]; //maxViewAngle.getValue(row - 1, col + 1);
-                                        }
-                                        if (tva > va) {
-                                            //maxViewAngle.setValue(row, col, tva);
-                                            maxViewAngle[row][col] = tva;
-                                        } else {
-                                            //maxViewAngle.setValue(row, col, va);
-                                            maxViewAngle[row][col] = va;
-                                        }
-                                    } else {
-                                        break;
-                                    }
-                                }
-                            }
-
-                            // solve the fourth triangular facet
-                            vertCount = 1;
-                            for (row = stationRow + 2; row < rows; row++) {
-                                vertCount++;
-                                horizCount = 0;
-                                for (col = stationCol + 1; col <= stationCol + vertCount; col++) {
-                                    if (col < cols) {
-                                        va = viewAngle[row][col]; //viewAngle.getValue(row, col);
-                                        horizCount++;
-                                        if (horizCount != vertCount) {
-                                            t1 = maxViewAngle[row - 1][col - 1]; //maxViewAngle.getValue(row - 1, col - 1);
-                                            t2 = maxViewAngle[row - 1][col]; //maxViewAngle.getValue(row - 1, col);
-                                            tva = t2 + horizCount / vertCount * (t1 - t2);
-                                        } else {
-                                            tva = maxViewAngle[row - 1][col - 1]; //maxViewAngle.getValue(row - 1, col - 1);
-                                        }
-                                        if (tva > va) {
-                                            //maxViewAngle.setValue(row, col, tva);
-                                            maxViewAngle[row][col] = tva;
-                                        } else {
-                                            //maxViewAngle.setValue(row, col, va);
-                                            maxViewAngle[row][col] = va;
-                                        }
-                                    } else {
-                                        break;
-                                    }
-                                }
-                            }
-
-                            // solve the fifth triangular facet
-                            vertCount = 1;
-                            for (col = stationCol + 2; col < cols; col++) {
-                                vertCount++;
-                                horizCount = 0;
-                                for (row = stationRow - 1; row >= stationRow - vertCount; row--) {
-                                    if (row >= 0) {
-                                        va = viewAngle[row][col]; //viewAngle.getValue(row, col);
-                                        horizCount++;
-                                        if (horizCount != vertCount) {
-                                            t1 = maxViewAngle[row + 1][col - 1]; //maxViewAngle.getValue(row + 1, col - 1);
-                                            t2 = maxViewAngle[row][col - 1]; //maxViewAngle.getValue(row, col - 1);
-                                            tva = t2 + horizCount / vertCount * (t1 - t2);
-                                        } else {
-                                            tva = maxViewAngle[row + 1][col - 1]; //maxViewAngle.getValue(row + 1, col - 1);
-                                        }
-                                        if (tva > va) {
-                                            //maxViewAngle.setValue(row, col, tva);
-                                            maxViewAngle[row][col] = tva;
-                                        } else {
-                                            //maxViewAngle.setValue(row, col, va);
-                                            maxViewAngle[row][col] = va;
-                                        }
-                                    } else {
-                                        break;
-                                    }
-                                }
-                            }
-
-                            // solve the sixth triangular facet
-                            vertCount = 1;
-                            for (col = stationCol + 2; col < cols; col++) {
-                                vertCount++;
-                                horizCount = 0;
-                                for (row = stationRow + 1; row <= stationRow + vertCount; row++) {
-                                    if (row < rows) {
-                                        va = viewAngle[row][col]; //viewAngle.getValue(row, col);
-                                        horizCount++;
-                                        if (horizCount != vertCount) {
-                                            t1 = maxViewAngle[row - 1][col - 1]; //maxViewAngle.getValue(row - 1, col - 1);
-                                            t2 = maxViewAngle[row][col - 1]; //maxViewAngle.getValue(row, col - 1);
-                                            tva = t2 + horizCount / vertCount * (t1 - t2);
-                                        } else {
-                                            tva = maxViewAngle[row - 1][col - 1]; //maxViewAngle.getValue(row - 1, col - 1);
-                                        }
-                                        if (tva > va) {
-                                            //maxViewAngle.setValue(row, col, tva);
-                                            maxViewAngle[row][col] = tva;
-                                        } else {
-                                            //maxViewAngle.setValue(row, col, va);
-                                            maxViewAngle[row][col] = va;
-                                        }
-                                    } else {
-                                        break;
-                                    }
-                                }
-                            }
-
-                            // solve the seventh triangular facet
-                            vertCount = 1;
-                            for (col = stationCol - 2; col >= 0; col--) {
-                                vertCount++;
-                                horizCount = 0;
-                                for (row = stationRow + 1; row <= stationRow + vertCount; row++) {
-                                    if (row < rows) {
-                                        va = viewAngle[row][col]; //viewAngle.getValue(row, col);
-                                        horizCount++;
-                                        if (horizCount != vertCount) {
-                                            t1 = maxViewAngle[row - 1][col + 1]; //maxViewAngle.getValue(row - 1, col + 1);
-                                            t2 = maxViewAngle[row][col + 1]; //maxViewAngle.getValue(row, col + 1);
-                                            tva = t2 + horizCount / vertCount * (t1 - t2);
-                                        } else {
-                                            tva = maxViewAngle[row - 1][col + 1]; //maxViewAngle.getValue(row - 1, col + 1);
-                                        }
-                                        if (tva > va) {
-                                            //maxViewAngle.setValue(row, col, tva);
-                                            maxViewAngle[row][col] = tva;
-                                        } else {
-                                            //maxViewAngle.setValue(row, col, va);
-                                            maxViewAngle[row][col] = va;
-                                        }
-                                    } else {
-                                        break;
-                                    }
-                                }
-                            }
-
-                            // solve the eigth triangular facet
-                            vertCount = 1;
-                            for (col = stationCol - 2; col >= 0; col--) {
-                                vertCount++;
-                                horizCount = 0;
-                                for (row = stationRow - 1; row >= stationRow - vertCount; row--) {
-                                    if (row >= 0) {
-                                        va = viewAngle[row][col]; //viewAngle.getValue(row, col);
-                                        horizCount++;
-                                        if (horizCount != vertCount) {
-                                            t1 = maxViewAngle[row + 1][col + 1]; //maxViewAngle.getValue(row + 1, col + 1);
-                                            t2 = maxViewAngle[row][col + 1]; //maxViewAngle.getValue(row, col + 1);
-                                            tva = t2 + horizCount / vertCount * (t1 - t2);
-                                        } else {
-                                            tva = maxViewAngle[row + 1][col + 1]; //maxViewAngle.getValue(row + 1, col + 1);
-                                        }
-                                        if (tva > va) {
-                                            maxViewAngle[row][col] = tva;
-                                        } else {
-                                            maxViewAngle[row][col] = va;
-                                        }
-                                    } else {
-                                        break;
-                                    }
-                                }
-                            }
-
-                            for (row = 0; row < rows; row++) {
-                                for (col = 0; col < cols; col++) {
-                                    if (maxViewAngle[row][col] <= viewAngle[row][col] && viewAngle[row][col] != noData) {
-                                        outputData[row][col]++;
-                                    } else if (viewAngle[row][col] == noData) {
-                                        outputData[row][col] = outputNoData;
-                                    }
-                                }
-                                if (cancelOp) {
-                                    cancelOperation();
-                                    return;
-                                }
-                            }
-                        }
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
-                        }
-                        numSolvedRows++;
-                        int progress = (int) (100f * numSolvedRows / (rows - 1));
-                        updateProgress(progress);
-                        }
-                    }
-                });
-
-            } else {
-                for (stationRow = 0; stationRow < rows; stationRow += step) {
-                    for (stationCol = 0; stationCol < cols; stationCol += step) {
-                        double[][] viewAngle = new double[rows][cols];
-                        double[][] maxViewAngle = new double[rows][cols];
-                        numViewsheds++;
-                        stationX = xCoordsByColumn[stationCol];
-                        stationY = yCoordsByRow[stationRow];
-                        stationZ = zValues[stationRow][stationCol] + stationHeight;
-
-                        // calculate the view angle to each cell from this station.
-                        for (row = 0; row < rows; row++) {
-                            for (col = 0; col < cols; col++) {
-                                z = zValues[row][col]; //data[col];
-                                if (z != noData) {
-                                    x = xCoordsByColumn[col];
-                                    y = yCoordsByRow[row];
-                                    dZ = z - stationZ;
-                                    dist = Math.sqrt((x - stationX) * (x - stationX) + (y - stationY) * (y - stationY));
-                                    if (dist != 0.0) {
-                                        viewAngle[row][col] = dZ / dist * 1000.0;
-                                    }
-                                } else {
-                                    viewAngle[row][col] = noData;
-                                }
-                            }
-                            if (cancelOp) {
-                                cancelOperation();
-                                return;
-                            }
-                        }
-
-                        // perform the simple scan lines.
-                        for (row = stationRow - 1; row <= stationRow + 1; row++) {
-                            for (col = stationCol - 1; col <= stationCol + 1; col++) {
-                                //maxViewAngle.setValue(row, col, viewAngle.getValue(row, col));
-                                if (row >= 0 && row < rows && col >= 0 && col < cols) {
-                                    maxViewAngle[row][col] = viewAngle[row][col];
-                                }
-                            }
-                        }
-
-                        double maxVA;
-                        if (stationRow - 1 >= 0) {
-                            maxVA = viewAngle[stationRow - 1][stationCol]; //viewAngle.getValue(stationRow - 1, stationCol);
-                            for (row = stationRow - 2; row >= 0; row--) {
-                                z = viewAngle[row][stationCol]; //viewAngle.getValue(row, stationCol);
-                                if (z > maxVA) {
-                                    maxVA = z;
-                                }
-                                //maxViewAngle.setValue(row, stationCol, maxVA);
-                                maxViewAngle[row][stationCol] = maxVA;
-                            }
-                        }
-                        if (stationRow + 1 < rows) {
-                            maxVA = viewAngle[stationRow + 1][stationCol]; //viewAngle.getValue(stationRow + 1, stationCol);
-                            for (row = stationRow + 2; row < rows; row++) {
-                                z = viewAngle[row][stationCol]; //viewAngle.getValue(row, stationCol);
-                                if (z > maxVA) {
-                                    maxVA = z;
-                                }
-                                //maxViewAngle.setValue(row, stationCol, maxVA);
-                                maxViewAngle[row][stationCol] = maxVA;
-                            }
-                        }
-                        if (stationCol + 1 < cols) {
-                            maxVA = viewAngle[stationRow][stationCol + 1]; //viewAngle.getValue(stationRow, stationCol + 1);
-                            for (col = stationCol + 2; col < cols - 1; col++) {
-                                z = viewAngle[stationRow][col]; //viewAngle.getValue(stationRow, col);
-                                if (z > maxVA) {
-                                    maxVA = z;
-                                }
-                                //maxViewAngle.setValue(stationRow, col, maxVA);
-                                maxViewAngle[stationRow][col] = maxVA;
-                            }
-                        }
-                        if (stationCol - 1 >= 0) {
-                            maxVA = viewAngle[stationRow][stationCol - 1]; //viewAngle.getValue(stationRow, stationCol - 1);
-                            for (col = stationCol - 2; col >= 0; col--) {
-                                z = viewAngle[stationRow][col]; //viewAngle.getValue(stationRow, col);
-                                if (z > maxVA) {
-                                    maxVA = z;
-                                }
-                                //maxViewAngle.setValue(stationRow, col, maxVA);
-                                maxViewAngle[stationRow][col] = maxVA;
-                            }
-                        }
-
-                        //solve the first triangular facet
-                        vertCount = 1;
-                        for (row = stationRow - 2; row >= 0; row--) {
-                            vertCount++;
-                            horizCount = 0;
-                            for (col = stationCol + 1; col <= stationCol + vertCount; col++) {
-                                if (col < cols) {
-                                    va = viewAngle[row][col]; //viewAngle.getValue(row, col);
-                                    horizCount++;
-                                    if (horizCount != vertCount) {
-                                        t1 = maxViewAngle[row + 1][col - 1]; //maxViewAngle.getValue(row + 1, col - 1);
-                                        t2 = maxViewAngle[row + 1][col]; //maxViewAngle.getValue(row + 1, col);
-                                        tva = t2 + horizCount / vertCount * (t1 - t2);
-                                    } else {
-                                        tva = maxViewAngle[row + 1][col - 1]; //maxViewAngle.getValue(row + 1, col - 1);
-                                    }
-                                    if (tva > va) {
-                                        //maxViewAngle.setValue(row, col, tva);
-                                        maxViewAngle[row][col] = tva;
-                                    } else {
-                                        //maxViewAngle.setValue(row, col, va);
-                                        maxViewAngle[row][col] = va;
-                                    }
-                                } else {
-                                    break;
-                                }
-                            }
-                        }
-
-                        //solve the second triangular facet
-                        vertCount = 1;
-                        for (row = stationRow - 2; row >= 0; row--) {
-                            vertCount++;
-                            horizCount = 0;
-                            for (col = stationCol - 1; col >= stationCol - vertCount; col--) {
-                                if (col >= 0) {
-                                    va = viewAngle[row][col]; //viewAngle.getValue(row, col);
-                                    horizCount++;
-                                    if (horizCount != vertCount) {
-                                        t1 = maxViewAngle[row + 1][col + 1]; //maxViewAngle.getValue(row + 1, col + 1);
-                                        t2 = maxViewAngle[row + 1][col]; //maxViewAngle.getValue(row + 1, col);
-                                        tva = t2 + horizCount / vertCount * (t1 - t2);
-                                    } else {
-                                        tva = maxViewAngle[row + 1][col + 1]; //maxViewAngle.getValue(row + 1, col + 1);
-                                    }
-                                    if (tva > va) {
-                                        //maxViewAngle.setValue(row, col, tva);
-                                        maxViewAngle[row][col] = tva;
-                                    } else {
-                                        //maxViewAngle.setValue(row, col, va);
-                                        maxViewAngle[row][col] = va;
-                                    }
-                                } else {
-                                    break;
-                                }
-                            }
-                        }
-
-                        // solve the third triangular facet
-                        vertCount = 1;
-                        for (row = stationRow + 2; row < rows; row++) {
-                            vertCount++;
-                            horizCount = 0;
-                            for (col = stationCol - 1; col >= stationCol - vertCount; col--) {
-                                if (col >= 0) {
-                                    va = viewAngle[row][col]; //viewAngle.getValue(row, col);
-                                    horizCount++;
-                                    if (horizCount != vertCount) {
-                                        t1 = maxViewAngle[row - 1][col + 1]; //maxViewAngle.getValue(row - 1, col + 1);
-                                        t2 = maxViewAngle[row - 1][col]; //maxViewAngle.getValue(row - 1, col);
-                                        tva = t2 + horizCount / vertCount * (t1 - t2);
-                                    } else {
-                                        tva = maxViewAngle[row - 1][col + 1]; //maxViewAngle.getValue(row - 1, col + 1);
-                                    }
-                                    if (tva > va) {
-                                        //maxViewAngle.setValue(row, col, tva);
-                                        maxViewAngle[row][col] = tva;
-                                    } else {
-                                        //maxViewAngle.setValue(row, col, va);
-                                        maxViewAngle[row][col] = va;
-                                    }
-                                } else {
-                                    break;
-                                }
-                            }
-                        }
-
-                        // solve the fourth triangular facet
-                        vertCount = 1;
-                        for (row = stationRow + 2; row < rows; row++) {
-                            vertCount++;
-                            horizCount = 0;
-                            for (col = stationCol + 1; col <= stationCol + vertCount; col++) {
-                                if (col < cols) {
-                                    va = viewAngle[row][col]; //viewAngle.getValue(row, col);
-                                    horizCount++;
-                                    if (horizCount != vertCount) {
-                                        t1 = maxViewAngle[row - 1][col - 1]; //maxViewAngle.getValue(row - 1, col - 1);
-                                        t2 = maxViewAngle[row - 1][col]; //maxViewAngle.getValue(row - 1, col);
-                                        tva = t2 + horizCount / vertCount * (t1 - t2);
-                                    } else {
-                                        tva = maxViewAngle[row - 1][col - 1]; //maxViewAngle.getValue(row - 1, col - 1);
-                                    }
-                                    if (tva > va) {
-                                        //maxViewAngle.setValue(row, col, tva);
-                                        maxViewAngle[row][col] = tva;
-                                    } else {
-                                        //maxViewAngle.setValue(row, col, va);
-                                        maxViewAngle[row][col] = va;
-                                    }
-                                } else {
-                                    break;
-                                }
-                            }
-                        }
-
-                        // solve the fifth triangular facet
-                        vertCount = 1;
-                        for (col = stationCol + 2; col < cols; col++) {
-                            vertCount++;
-                            horizCount = 0;
-                            for (row = stationRow - 1; row >= stationRow - vertCount; row--) {
-                                if (row >= 0) {
-                                    va = viewAngle[row][col]; //viewAngle.getValue(row, col);
-                                    horizCount++;
-                                    if (horizCount != vertCount) {
-                                        t1 = maxViewAngle[row + 1][col - 1]; //maxViewAngle.getValue(row + 1, col - 1);
-                                        t2 = maxViewAngle[row][col - 1]; //maxViewAngle.getValue(row, col - 1);
-                                        tva = t2 + horizCount / vertCount * (t1 - t2);
-                                    } else {
-                                        tva = maxViewAngle[row + 1][col - 1]; //maxViewAngle.getValue(row + 1, col - 1);
-                                    }
-                                    if (tva > va) {
-                                        //maxViewAngle.setValue(row, col, tva);
-                                        maxViewAngle[row][col] = tva;
-                                    } else {
-                                        //maxViewAngle.setValue(row, col, va);
-                                        maxViewAngle[row][col] = va;
-                                    }
-                                } else {
-                                    break;
-                                }
-                            }
-                        }
-
-                        // solve the sixth triangular facet
-                        vertCount = 1;
-                        for (col = stationCol + 2; col < cols; col++) {
-                            vertCount++;
-                            horizCount = 0;
-                            for (row = stationRow + 1; row <= stationRow + vertCount; row++) {
-                                if (row < rows) {
-                                    va = viewAngle[row][col]; //viewAngle.getValue(row, col);
-                                    horizCount++;
-                                    if (horizCount != vertCount) {
-                                        t1 = maxViewAngle[row - 1][col - 1]; //maxViewAngle.getValue(row - 1, col - 1);
-                                        t2 = maxViewAngle[row][col - 1]; //maxViewAngle.getValue(row, col - 1);
-                                        tva = t2 + horizCount / vertCount * (t1 - t2);
-                                    } else {
-                                        tva = maxViewAngle[row - 1][col - 1]; //maxViewAngle.getValue(row - 1, col - 1);
-                                    }
-                                    if (tva > va) {
-                                        //maxViewAngle.setValue(row, col, tva);
-                                        maxViewAngle[row][col] = tva;
-                                    } else {
-                                        //maxViewAngle.setValue(row, col, va);
-                                        maxViewAngle[row][col] = va;
-                                    }
-                                } else {
-                                    break;
-                                }
-                            }
-                        }
-
-                        // solve the seventh triangular facet
-                        vertCount = 1;
-                        for (col = stationCol - 2; col >= 0; col--) {
-                            vertCount++;
-                            horizCount = 0;
-                            for (row = stationRow + 1; row <= stationRow + vertCount; row++) {
-                                if (row < rows) {
-                                    va = viewAngle[row][col]; //viewAngle.getValue(row, col);
-                                    horizCount++;
-                                    if (horizCount != vertCount) {
-                                        t1 = maxViewAngle[row - 1][col + 1]; //maxViewAngle.getValue(row - 1, col + 1);
-                                        t2 = maxViewAngle[row][col + 1]; //maxViewAngle.getValue(row, col + 1);
-                                        tva = t2 + horizCount / vertCount * (t1 - t2);
-                                    } else {
-                                        tva = maxViewAngle[row - 1][col + 1]; //maxViewAngle.getValue(row - 1, col + 1);
-                                    }
-                                    if (tva > va) {
-                                        //maxViewAngle.setValue(row, col, tva);
-                                        maxViewAngle[row][col] = tva;
-                                    } else {
-                                        //maxViewAngle.setValue(row, col, va);
-                                        maxViewAngle[row][col] = va;
-                                    }
-                                } else {
-                                    break;
-                                }
-                            }
-                        }
-
-                        // solve the eigth triangular facet
-                        vertCount = 1;
-                        for (col = stationCol - 2; col >= 0; col--) {
-                            vertCount++;
-                            horizCount = 0;
-                            for (row = stationRow - 1; row >= stationRow - vertCount; row--) {
-                                if (row >= 0) {
-                                    va = viewAngle[row][col]; //viewAngle.getValue(row, col);
-                                    horizCount++;
-                                    if (horizCount != vertCount) {
-                                        t1 = maxViewAngle[row + 1][col + 1]; //maxViewAngle.getValue(row + 1, col + 1);
-                                        t2 = maxViewAngle[row][col + 1]; //maxViewAngle.getValue(row, col + 1);
-                                        tva = t2 + horizCount / vertCount * (t1 - t2);
-                                    } else {
-                                        tva = maxViewAngle[row + 1][col + 1]; //maxViewAngle.getValue(row + 1, col + 1);
-                                    }
-                                    if (tva > va) {
-                                        maxViewAngle[row][col] = tva;
-                                    } else {
-                                        maxViewAngle[row][col] = va;
-                                    }
-                                } else {
-                                    break;
-                                }
-                            }
-                        }
-                        
-                        for (row = 0; row < rows; row++) {
-                            for (col = 0; col < cols; col++) {
-                                if (maxViewAngle[row][col] <= viewAngle[row][col] && viewAngle[row][col] != noData) {
-                                    outputData[row][col]++;
-                                } else if (viewAngle[row][col] == noData) {
-                                    outputData[row][col] = outputNoData;
-                                }
-                            }
-                            if (cancelOp) {
-                                cancelOperation();
-                                return;
-                            }
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress = (int) (100f * stationRow / (rows - 1));
-                    updateProgress(progress);
+            // a viewing station is placed in every step-th column of every
+            // step-th row and the stations of a row are processed together.
+            int stationsPerRow = (cols + step - 1) / step;
+            int[] stationRows = new int[stationsPerRow];
+            int[] stationCols = new int[stationsPerRow];
+            for (i = 0; i < stationsPerRow; i++) {
+                stationCols[i] = i * step;
+            }
+            double numViewsheds = 0;
+            for (int stationRow = 0; stationRow < rows; stationRow += step) {
+                for (i = 0; i < stationsPerRow; i++) {
+                    stationRows[i] = stationRow;
                 }
-
+                numViewsheds += viewsheds.addViewsheds(stationRows, stationCols, 0, stationsPerRow);
+                if (cancelOp) {
+                    cancelOperation();
+                    return;
+                }
+                progress = (int) (100f * (stationRow + 1) / rows);
+                updateProgress("Calculating viewsheds:", progress);
+            }
+            
+            if (numViewsheds == 0) {
+                showFeedback("None of the viewing stations are located on valid DEM cells.");
+                return;
             }
-            //viewAngle = new double[0][0];
-            //maxViewAngle = new double[0][0];
-            zValues = new double[0][0];
 
             WhiteboxRaster output = new WhiteboxRaster(outputHeader, "rw",
                     inputHeader, WhiteboxRaster.DataType.FLOAT, outputNoData);
@@ -974,29 +266,27 @@ public class VisibilityIndex implements WhiteboxPlugin {
             output.setDataScale(WhiteboxRaster.DataScale.CONTINUOUS);
 
             for (row = 0; row < rows; row++) {
+                double[] data = viewsheds.getRowCounts(row, outputNoData);
                 for (col = 0; col < cols; col++) {
-                    if (outputData[row][col] != outputNoData) {
-                        output.setValue(row, col, outputData[row][col] / numViewsheds);
+                    if (data[col] != outputNoData) {
+                        data[col] = data[col] / numViewsheds;
                     }
                 }
+                output.setRowValues(row, data);
                 if (cancelOp) {
                     cancelOperation();
                     return;
                 }
                 progress = (int) (100f * row / (rows - 1));
-                updateProgress(progress);
+                updateProgress("Saving output:", progress);
             }
 
-            outputData = new double[0][0];
-
             output.addMetadataEntry("Created by the "
                     + getDescriptiveName() + " tool.");
             output.addMetadataEntry("Created on " + new Date());
 
             output.close();
 
-            //System.out.println("VisibilityIndex took " + (System.currentTimeMillis() - startTime) + " milliseconds.");
-            
             // returning a header file string displays the image.
             returnData(outputHeader);
 
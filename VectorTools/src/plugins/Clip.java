@@ -19,12 +19,11 @@ package plugins;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 import java.util.concurrent.atomic.AtomicInteger;
-//import com.vividsolutions.jts.geom.prep.PreparedPolygon;
-//import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 import java.util.concurrent.*;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import whitebox.geospatialfiles.ShapeFile;
 import whitebox.geospatialfiles.shapefile.attributes.AttributeTable;
@@ -221,7 +220,6 @@ public class Clip implements WhiteboxPlugin {
             com.vividsolutions.jts.geom.Geometry[] geomArray;
             List<com.vividsolutions.jts.geom.Geometry> geomList = new ArrayList<>();
             GeometryFactory factory = new GeometryFactory();
-            //PreparedGeometryFactory prepFactory = new PreparedGeometryFactory();
 
             if (args.length != 3) {
                 showFeedback("Incorrect number of arguments given to tool.");
@@ -254,19 +252,22 @@ public class Clip implements WhiteboxPlugin {
             for (i = 0; i < numClipFeatures; i++) {
                 rec = clipRegion.getRecord(i);
                 clipBoxes[i] = rec.getGeometry().getBox();
-                geomArray = rec.getGeometry().getJTSGeometries();
+                geomArray = rec.getJTSGeometries();
                 for (int k = 0; k < geomArray.length; k++) {
                     geomList.add(geomArray[k]);
                 }
             }
 
             com.vividsolutions.jts.geom.Geometry clipGeom = factory.buildGeometry(geomList);
-            //final PreparedPolygon clipGeom = (PreparedPolygon)PreparedGeometryFactory.prepare(factory.buildGeometry(geomList));
             if (!clipGeom.isValid()) {
                 // fix the geometry with a buffer(0) as recommended in JTS docs
                 com.vividsolutions.jts.geom.Geometry jtsGeom2 = clipGeom.buffer(0d);
                 clipGeom = (com.vividsolutions.jts.geom.Geometry) jtsGeom2.clone();
             }
+            // the clip geometry is indexed once and shared by all of the tasks,
+            // so that features that lie entirely inside or outside of it are
+            // resolved without computing an intersection.
+            PreparedGeometry preparedClipGeom = PreparedGeometryFactory.prepare(clipGeom);
             ArrayList<DoWork> tasks = new ArrayList<>();
             int numProcessors = Runtime.getRuntime().availableProcessors();
             ExecutorService executor = Executors.newFixedThreadPool(numProcessors);
@@ -283,11 +284,8 @@ public class Clip implements WhiteboxPlugin {
                     }
                 }
                 if (isContained) {
-                    geomArray = rec.getGeometry().getJTSGeometries();
-                    geomList.clear();
-                    geomList.addAll(Arrays.asList(geomArray));
-                    jtsGeom = factory.buildGeometry(geomList);
-                    tasks.add(new DoWork(i, jtsGeom, clipGeom, shapeType));
+                    jtsGeom = rec.getJTSGeometry();
+                    tasks.add(new DoWork(i, jtsGeom, preparedClipGeom, shapeType));
 //                    if (!jtsGeom.isValid()) {
 //                        // fix the geometry with a buffer(0) as recommended in JTS docs
 //                        com.vividsolutions.jts.geom.Geometry jtsGeom2 = jtsGeom.buffer(0d);
@@ -426,11 +424,11 @@ public class Clip implements WhiteboxPlugin {
 
         int recordNum;
         com.vividsolutions.jts.geom.Geometry jtsGeom;
-        com.vividsolutions.jts.geom.Geometry clipGeom;
+        PreparedGeometry clipGeom;
         ShapeType shapeType;
 
         public DoWork(int recordNum, com.vividsolutions.jts.geom.Geometry jtsGeom,
-                com.vividsolutions.jts.geom.Geometry clipGeom, ShapeType shapeType) {
+                PreparedGeometry clipGeom, ShapeType shapeType) {
             this.recordNum = recordNum;
             this.jtsGeom = jtsGeom;
             this.clipGeom = clipGeom;
@@ -452,7 +450,14 @@ public class Clip implements WhiteboxPlugin {
                     com.vividsolutions.jts.geom.Geometry jtsGeom2 = jtsGeom.buffer(0d);
                     jtsGeom = (com.vividsolutions.jts.geom.Geometry) jtsGeom2.clone();
                 }
-                com.vividsolutions.jts.geom.Geometry outputGeom = clipGeom.intersection(jtsGeom);
+                com.vividsolutions.jts.geom.Geometry outputGeom;
+                if (!clipGeom.intersects(jtsGeom)) {
+                    outputGeom = jtsGeom.getFactory().createGeometryCollection(null);
+                } else if (clipGeom.containsProperly(jtsGeom)) {
+                    outputGeom = jtsGeom;
+                } else {
+                    outputGeom = clipGeom.getGeometry().intersection(jtsGeom);
+                }
                 int numGeometries = outputGeom.getNumGeometries();
 
                 if (outputGeom.getNumPoints() > 0) {
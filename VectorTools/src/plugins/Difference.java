@@ -17,26 +17,15 @@
 
 package plugins;
 
-import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.GeometryCollection;
-import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.LineString;
-import com.vividsolutions.jts.geom.prep.PreparedGeometry;
-import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
-import java.io.File;
 import java.util.ArrayList;
+import whitebox.algorithms.VectorOverlay;
 import whitebox.geospatialfiles.ShapeFile;
 import whitebox.geospatialfiles.shapefile.attributes.DBFField;
-//import whitebox.geospatialfiles.shapefile.attributes.DBFReader;
-//import whitebox.geospatialfiles.shapefile.attributes.DBFWriter;
 import whitebox.geospatialfiles.shapefile.attributes.AttributeTable;
-import whitebox.geospatialfiles.shapefile.PointsList;
 import whitebox.geospatialfiles.shapefile.ShapeFileRecord;
 import whitebox.geospatialfiles.shapefile.ShapeType;
-import whitebox.geospatialfiles.shapefile.ShapefilePoint;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
-import whitebox.utilities.Topology;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -207,15 +196,8 @@ public class Difference implements WhiteboxPlugin {
         amIActive = true;
         String[] shapefiles = new String[2];
         String outputFile;
-        int progress;
-        int i, n, FID;
-        int oneHundredthTotal;
-        int numRecs;
         ShapeType shapeType;
         ShapeType outputShapeType = ShapeType.POLYGON;
-        GeometryFactory factory = new GeometryFactory();
-        com.vividsolutions.jts.geom.Geometry g1 = null;
-        com.vividsolutions.jts.geom.Geometry g2 = null;
             
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -234,115 +216,34 @@ public class Difference implements WhiteboxPlugin {
         
         try {
             
-            com.vividsolutions.jts.geom.Geometry[] recJTSGeometries = null;
-            ArrayList<com.vividsolutions.jts.geom.Geometry> inputGeometryList =
-                    new ArrayList<com.vividsolutions.jts.geom.Geometry>();
-            com.vividsolutions.jts.geom.Geometry outputGeometry = null;
-                
-            
             ShapeFile input1 = new ShapeFile(shapefiles[0]);
             shapeType = input1.getShapeType();
-            numRecs = input1.getNumberOfRecords();
 
+            // the difference has the dimension of the first layer.
             if (shapeType.getBaseType() == ShapeType.POINT
                     || shapeType.getBaseType() == ShapeType.MULTIPOINT) {
                 outputShapeType = ShapeType.POINT;
-            } else if (shapeType.getBaseType() == ShapeType.POLYLINE
-                    && outputShapeType == ShapeType.POLYGON) {
+            } else if (shapeType.getBaseType() == ShapeType.POLYLINE) {
                 outputShapeType = ShapeType.POLYLINE;
             }
 
-            oneHundredthTotal = numRecs / 100;
-            progress = 0;
-            n = 0;
-            for (ShapeFileRecord record : input1.records) {
-                if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                    recJTSGeometries = record.getGeometry().getJTSGeometries();
-                    for (int a = 0; a < recJTSGeometries.length; a++) {
-                        recJTSGeometries[a].setUserData(record.getRecordNumber());
-                        if (recJTSGeometries[a].isValid()) {
-                            inputGeometryList.add(recJTSGeometries[a]);
-                        } else {
-                            System.out.println(record.getRecordNumber() + " is invalid.");
-                        }
-                    }
-                }
-                n++;
-                if (n >= oneHundredthTotal) {
-                    n = 0;
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress++;
-                    updateProgress("Loop 1 of " + 2 + ": Reading data:", progress);
-                }
+            ArrayList<com.vividsolutions.jts.geom.Geometry> geometries1 =
+                    readGeometries(input1, "Loop 1 of 2: Reading data:");
+            if (geometries1 == null) {
+                cancelOperation();
+                return;
             }
-            g1 = factory.buildGeometry(inputGeometryList);
-            inputGeometryList.clear();
-
 
-            
             ShapeFile input2 = new ShapeFile(shapefiles[1]);
-            shapeType = input2.getShapeType();
-            numRecs = input2.getNumberOfRecords();
-
-            if (shapeType.getBaseType() == ShapeType.POINT
-                    || shapeType.getBaseType() == ShapeType.MULTIPOINT) {
-                outputShapeType = ShapeType.POINT;
-            } else if (shapeType.getBaseType() == ShapeType.POLYLINE
-                    && outputShapeType == ShapeType.POLYGON) {
-                outputShapeType = ShapeType.POLYLINE;
-            }
-
-            oneHundredthTotal = numRecs / 100;
-            progress = 0;
-            n = 0;
-            for (ShapeFileRecord record : input2.records) {
-                if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                    recJTSGeometries = record.getGeometry().getJTSGeometries();
-                    for (int a = 0; a < recJTSGeometries.length; a++) {
-                        recJTSGeometries[a].setUserData(record.getRecordNumber());
-                        if (recJTSGeometries[a].isValid()) {
-                            inputGeometryList.add(recJTSGeometries[a]);
-                        } else {
-                            System.out.println(record.getRecordNumber() + " is invalid.");
-                        }
-                    }
-                }
-                n++;
-                if (n >= oneHundredthTotal) {
-                    n = 0;
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    progress++;
-                    updateProgress("Loop 2 of " + 2 + ": Reading data:", progress);
-                }
-            }
-            
-            g2 = factory.buildGeometry(inputGeometryList);
-            inputGeometryList.clear();
-            
-            
-            
-            updateProgress("Performing operation (progress will not be updated):", -1);
-            try {
-                outputGeometry = g1.difference(g2);
-            } catch (Exception ex) {
-                outputGeometry = com.vividsolutions.jts.operation.overlay.snap.SnapOverlayOp.difference(g1, g2);
+            ArrayList<com.vividsolutions.jts.geom.Geometry> geometries2 =
+                    readGeometries(input2, "Loop 2 of 2: Reading data:");
+            if (geometries2 == null) {
+                cancelOperation();
+                return;
             }
 
-
-            ShapeFile output = null;
-//            DBFWriter writer = null;
-//            DBFReader reader = null;
-
-//            reader = new DBFReader(input1.getDatabaseFile());
             AttributeTable reader = input1.getAttributeTable();
             
-            
             int numFields = 1 + reader.getFieldCount();
             DBFField fields[] = new DBFField[numFields];
 
@@ -361,211 +262,53 @@ public class Difference implements WhiteboxPlugin {
                 }
             }
 
-//            String DBFName = output.getDatabaseFile();
-//            writer = new DBFWriter(new File(DBFName));
-//
-//            writer.setFields(fields);
-            
             // set up the output files of the shapefile and the dbf
-            output = new ShapeFile(outputFile, outputShapeType, fields);
+            final ShapeFile output = new ShapeFile(outputFile, outputShapeType, fields);
             output.setProjectionStringFromOtherShapefile(input1);
             
-            PreparedGeometry[] tests = new PreparedGeometry[g1.getNumGeometries()];
-            com.vividsolutions.jts.geom.Geometry[] testGs = new com.vividsolutions.jts.geom.Geometry[g1.getNumGeometries()];
-            int[] userData = new int[g1.getNumGeometries()];
-            for (int a = 0; a < g1.getNumGeometries(); a++) {
-                tests[a] = PreparedGeometryFactory.prepare(g1.getGeometryN(a));
-                userData[a] = Integer.parseInt(g1.getGeometryN(a).getUserData().toString());
-                testGs[a] = g1.getGeometryN(a);
-                
-            }
-            
-            Object[][] attributeTableRecords = new Object[reader.getNumberOfRecords()][numFields];           
+            final Object[][] attributeTableRecords = new Object[reader.getNumberOfRecords()][numFields];           
             for (int a = 0; a < reader.getNumberOfRecords(); a++) {
                 Object[] rec = reader.nextRecord();
                 for (int b = 0; b < numFields - 1; b++) {
                     attributeTableRecords[a][b + 1] = rec[b];
                 }
             }
-                
-            if (outputGeometry instanceof GeometryCollection) {
-                int numGeometries = outputGeometry.getNumGeometries();
-                oneHundredthTotal = (int)(numGeometries / 100.0);
-                progress = 0;
-                n = 0;
-                FID = 0;
-                int parentRecNum = 0;
-                for (int a = 0; a < numGeometries; a++) {
-                    parentRecNum = -99;
-                    com.vividsolutions.jts.geom.Geometry gN = outputGeometry.getGeometryN(a);
-
-                    if (gN instanceof com.vividsolutions.jts.geom.Point
-                            && outputShapeType == ShapeType.POINT) {
-                        for (int m = 0; m < tests.length; m++) {
-                            if (tests[m].overlaps(gN) || gN.distance(testGs[m]) < 0.0001) {
-                                parentRecNum = userData[m];
-                                break;
-                            }
-                        }
-                        Coordinate p = gN.getCoordinate();
-                        // you will loose any z and m information if they are in the input file.
-                        // you'll need to fix this some other time when you get a chance.
-                        whitebox.geospatialfiles.shapefile.Point wbGeometry = new whitebox.geospatialfiles.shapefile.Point(p.x, p.y);
-                        
-                        FID++;
-                        Object[] rowData = attributeTableRecords[parentRecNum - 1];
-                        rowData[0] = new Double(FID);
-//                        writer.addRecord(rowData);
-                        output.addRecord(wbGeometry, rowData);
-
-                    } else if (gN instanceof LineString
-                            && outputShapeType == ShapeType.POLYLINE) {
-                        for (int m = 0; m < tests.length; m++) {
-                            if (tests[m].overlaps(gN) || gN.distance(testGs[m]) < 0.0001) {
-                                parentRecNum = userData[m];
-                                break;
-                            }
-                        }
-                        LineString ls = (LineString) gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<ShapefilePoint>();
-
-                        int[] parts = {0};
-
-                        Coordinate[] coords = ls.getCoordinates();
-                        for (i = 0; i < coords.length; i++) {
-                            pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                        }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.PolyLine wbGeometry = new whitebox.geospatialfiles.shapefile.PolyLine(parts, pl.getPointsArray());
-                        
-                        FID++;
-                        Object[] rowData = attributeTableRecords[parentRecNum - 1]; //new Object[numFields];
-                        rowData[0] = new Double(FID);
-//                        writer.addRecord(rowData);
-                        output.addRecord(wbGeometry, rowData);
-                    } else if (gN instanceof com.vividsolutions.jts.geom.Polygon 
-                            && outputShapeType == ShapeType.POLYLINE) {
-                        for (int m = 0; m < tests.length; m++) {
-                            if (tests[m].contains(gN.getInteriorPoint())) {
-                                parentRecNum = userData[m];
-                                break;
-                            }
-                        }
-                        com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon)gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<ShapefilePoint>();
-
-                        int[] parts = new int[p.getNumInteriorRing() + 1];
-
-                        Coordinate[] coords = p.getExteriorRing().getCoordinates();
-                        if (Topology.isClockwisePolygon(coords)) {
-                            for (i = 0; i < coords.length; i++) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        } else {
-                            for (i = coords.length - 1; i >= 0; i--) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        }
-
-                        for (int b = 0; b < p.getNumInteriorRing(); b++) {
-                            parts[b + 1] = pnts.size();
-                            coords = p.getInteriorRingN(b).getCoordinates();
-                            if (Topology.isClockwisePolygon(coords)) {
-                                for (i = coords.length - 1; i >= 0; i--) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            } else {
-                                for (i = 0; i < coords.length; i++) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            }
-                        }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.PolyLine wbGeometry = new whitebox.geospatialfiles.shapefile.PolyLine(parts, pl.getPointsArray());
-                        
-                        FID++;
-                        Object[] rowData = attributeTableRecords[parentRecNum - 1]; //new Object[numFields];
-                        rowData[0] = new Double(FID);
-                        //Object[] pRowData = reader.
-                        //rowData[1] = new Double(PID);
-//                        writer.addRecord(rowData);
-                        output.addRecord(wbGeometry, rowData);
-                    } else if (gN instanceof com.vividsolutions.jts.geom.Polygon 
-                            && outputShapeType == ShapeType.POLYGON) {
-                        for (int m = 0; m < tests.length; m++) {
-                            if (tests[m].contains(gN.getInteriorPoint())) {
-                                parentRecNum = userData[m];
-                                break;
-                            }
-                        }
-                        com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon)gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-
-                        int[] parts = new int[p.getNumInteriorRing() + 1];
-
-                        Coordinate[] coords = p.getExteriorRing().getCoordinates();
-                        if (Topology.isClockwisePolygon(coords)) {
-                            for (i = 0; i < coords.length; i++) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        } else {
-                            for (i = coords.length - 1; i >= 0; i--) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        }
-
-                        for (int b = 0; b < p.getNumInteriorRing(); b++) {
-                            parts[b + 1] = pnts.size();
-                            coords = p.getInteriorRingN(b).getCoordinates();
-                            if (Topology.isClockwisePolygon(coords)) {
-                                for (i = coords.length - 1; i >= 0; i--) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            } else {
-                                for (i = 0; i < coords.length; i++) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            }
-                        }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.Polygon wbGeometry = new whitebox.geospatialfiles.shapefile.Polygon(parts, pl.getPointsArray());
-                        
-                        FID++;
-                        Object[] rowData = attributeTableRecords[parentRecNum - 1]; //new Object[numFields];
-                        rowData[0] = new Double(FID);
-                        //Object[] pRowData = reader.
-                        //rowData[1] = new Double(PID);
-//                        writer.addRecord(rowData);
-                        output.addRecord(wbGeometry, rowData);
-                    } else {
-                        // it shouldn't really hit here ever.
-                        //showFeedback("An error was encountered when saving the output file.");
-                        //return;
+            
+            // the output records are added as each batch of features is
+            // overlaid.
+            final ShapeType outType = outputShapeType;
+            boolean completed = VectorOverlay.overlay(VectorOverlay.Operation.DIFFERENCE,
+                    geometries1, geometries2, new VectorOverlay.ResultListener() {
+                int FID = 0;
+
+                @Override
+                public void result(com.vividsolutions.jts.geom.Geometry g, int[] parents) {
+                    whitebox.geospatialfiles.shapefile.Geometry wbGeometry =
+                            VectorOverlay.toShapefileGeometry(g, outType);
+                    if (wbGeometry == null) {
+                        return;
                     }
-                    
-                    n++;
-                    if (n >= oneHundredthTotal) {
-                        n = 0;
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
-                        }
-                        progress++;
-                        updateProgress("Saving output file", progress);
+                    FID++;
+                    Object[] rowData = attributeTableRecords[parents[0] - 1].clone();
+                    rowData[0] = new Double(FID);
+                    output.addRecord(wbGeometry, rowData);
+                }
+
+                @Override
+                public boolean progress(int progress) {
+                    if (cancelOp) {
+                        return false;
                     }
+                    updateProgress("Performing operation:", progress);
+                    return true;
                 }
-            } else {
-                // it shouldn't really hit here ever.
-                showFeedback("An error was encountered when saving the output file.");
+            });
+            if (!completed) {
+                cancelOperation();
                 return;
             }
             
             output.write();
-//            writer.write();
-            
             
             // returning a header file string displays the image.
             returnData(outputFile);
@@ -584,6 +327,44 @@ public class Difference implements WhiteboxPlugin {
         }
        
     }
+
+    /**
+     * Reads the valid features of a shapefile as JTS geometries, each tagged
+     * with its record number.
+     *
+     * @return The geometries, or null if the operation was cancelled.
+     */
+    private ArrayList<com.vividsolutions.jts.geom.Geometry> readGeometries(
+            ShapeFile input, String progressLabel) {
+        ArrayList<com.vividsolutions.jts.geom.Geometry> ret = new ArrayList<>();
+        int numRecs = input.getNumberOfRecords();
+        int oneHundredthTotal = numRecs / 100;
+        int progress = 0;
+        int n = 0;
+        for (ShapeFileRecord record : input.records) {
+            if (record.getShapeType() != ShapeType.NULLSHAPE) {
+                com.vividsolutions.jts.geom.Geometry[] recJTSGeometries = record.getGeometry().getJTSGeometries();
+                for (int a = 0; a < recJTSGeometries.length; a++) {
+                    recJTSGeometries[a].setUserData(record.getRecordNumber());
+                    if (recJTSGeometries[a].isValid()) {
+                        ret.add(recJTSGeometries[a]);
+                    } else {
+                        System.out.println(record.getRecordNumber() + " is invalid.");
+                    }
+                }
+            }
+            n++;
+            if (n >= oneHundredthTotal) {
+                n = 0;
+                if (cancelOp) {
+                    return null;
+                }
+                progress++;
+                updateProgress(progressLabel, progress);
+            }
+        }
+        return ret;
+    }
     
 //    // This method is only used during testing.
 //    public static void main(String[] args) {
@@ -17,22 +17,16 @@
 
 package plugins;
 
-import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.GeometryCollection;
-import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.LineString;
-import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
+import whitebox.algorithms.VectorOverlay;
 import whitebox.geospatialfiles.ShapeFile;
 import whitebox.geospatialfiles.shapefile.attributes.DBFField;
-import whitebox.geospatialfiles.shapefile.attributes.DBFWriter;
-import whitebox.geospatialfiles.shapefile.PointsList;
+import whitebox.geospatialfiles.shapefile.attributes.AttributeTable;
 import whitebox.geospatialfiles.shapefile.ShapeFileRecord;
 import whitebox.geospatialfiles.shapefile.ShapeType;
-import whitebox.geospatialfiles.shapefile.ShapefilePoint;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
-import whitebox.utilities.Topology;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -205,15 +199,9 @@ public class Intersect implements WhiteboxPlugin {
         String[] shapefiles;
         int numFiles;
         String outputFile;
-        int progress;
-        int i, n, FID;
-        int oneHundredthTotal;
-        int numRecs;
         ShapeType shapeType;
         ShapeType outputShapeType = ShapeType.POLYGON;
-        GeometryFactory factory = new GeometryFactory();
-        com.vividsolutions.jts.geom.Geometry g1 = null;
-        com.vividsolutions.jts.geom.Geometry g2 = null;
+        int numPolylineFiles = 0;
             
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -238,248 +226,154 @@ public class Intersect implements WhiteboxPlugin {
 
         try {
             
-            com.vividsolutions.jts.geom.Geometry[] recJTSGeometries = null;
-            ArrayList<com.vividsolutions.jts.geom.Geometry> inputGeometryList =
-                    new ArrayList<>();
-            com.vividsolutions.jts.geom.Geometry outputGeometry = null;
-                
-            
+            ShapeFile[] inputs = new ShapeFile[numFiles];
             for (int k = 0; k < numFiles; k++) {
-                
-                ShapeFile input = new ShapeFile(shapefiles[k]);
-                shapeType = input.getShapeType();
-                numRecs = input.getNumberOfRecords();
-                
+                inputs[k] = new ShapeFile(shapefiles[k]);
+                shapeType = inputs[k].getShapeType();
                 if (shapeType.getBaseType() == ShapeType.POINT ||
                         shapeType.getBaseType() == ShapeType.MULTIPOINT) {
                     showFeedback("This tool can only work for shapefiles of a "
                             + "POLYLINE or POLYGON shape-type. Tool execution "
                             + "ceased.");
                     return;
-                } else if (shapeType.getBaseType() == ShapeType.POLYLINE &&
-                        outputShapeType == ShapeType.POLYGON) {
-                    outputShapeType = ShapeType.POLYLINE;
+                } else if (shapeType.getBaseType() == ShapeType.POLYLINE) {
+                    numPolylineFiles++;
                 }
-                
-                oneHundredthTotal = numRecs / 100;
-                progress = 0;
-                n = 0;
-                for (ShapeFileRecord record : input.records) {
-                    if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                        recJTSGeometries = record.getGeometry().getJTSGeometries();
-                        for (int a = 0; a < recJTSGeometries.length; a++) {
-                            recJTSGeometries[a].setUserData(record.getRecordNumber());
-                            if (recJTSGeometries[a].isValid()) { 
-                                inputGeometryList.add(recJTSGeometries[a]);
-                            } else {
-                                System.out.println(record.getRecordNumber() + " is invalid.");
-                            }
-                        }
+            }
+            if (numPolylineFiles == 1) {
+                outputShapeType = ShapeType.POLYLINE;
+            } else if (numPolylineFiles > 1) {
+                // the intersections of line segments are points.
+                outputShapeType = ShapeType.POINT;
+            }
+            
+            // The output table holds the attributes of the parent feature in
+            // each of the input files. Each file's FID field is renamed and
+            // field names repeated between files are given a suffix.
+            int numFields = 1;
+            for (int k = 0; k < numFiles; k++) {
+                numFields += inputs[k].getAttributeTable().getFieldCount();
+            }
+            DBFField fields[] = new DBFField[numFields];
+            
+            fields[0] = new DBFField();
+            fields[0].setName("FID");
+            fields[0].setDataType(DBFField.DBFDataType.NUMERIC);
+            fields[0].setFieldLength(10);
+            fields[0].setDecimalCount(0);
+            
+            HashSet<String> fieldNames = new HashSet<>();
+            fieldNames.add("FID");
+            final int[] fieldOffsets = new int[numFiles];
+            final Object[][][] attributeTableRecords = new Object[numFiles][][];
+            int f = 1;
+            for (int k = 0; k < numFiles; k++) {
+                AttributeTable reader = inputs[k].getAttributeTable();
+                fieldOffsets[k] = f;
+                for (int a = 0; a < reader.getFieldCount(); a++) {
+                    DBFField inputField = reader.getField(a);
+                    String name = inputField.getName();
+                    if (name.equals("FID")) {
+                        name = "PARENT" + (k + 1) + "_ID";
                     }
-                    n++;
-                    if (n >= oneHundredthTotal) {
-                        n = 0;
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
-                        }
-                        progress++;
-                        updateProgress("Loop " + (k + 1) + " of " + numFiles + ": Reading data:", progress);
+                    if (name.length() > 10 || fieldNames.contains(name)) {
+                        String baseName = name;
+                        int n = k + 1;
+                        do {
+                            String suffix = "_" + n;
+                            name = baseName.substring(0, Math.min(baseName.length(), 10 - suffix.length())) + suffix;
+                            n++;
+                        } while (fieldNames.contains(name));
                     }
-                }
-                if (k == 0) {
-                    g1 = factory.buildGeometry(inputGeometryList);
-                    inputGeometryList.clear();
-                } else {
-                    g2 = factory.buildGeometry(inputGeometryList);
-                    updateProgress("Performing operation (progress will not be updated):", -1);
-                    try {
-                        outputGeometry = g1.intersection(g2);
-                    } catch (Exception ex) {
-                        outputGeometry = com.vividsolutions.jts.operation.overlay.snap.SnapOverlayOp.intersection(g1, g2);
+                    fieldNames.add(name);
+                    // the input's own field is left unchanged
+                    DBFField outputField = new DBFField();
+                    outputField.setName(name);
+                    outputField.setDataType(inputField.getDataType());
+                    if (inputField.getDataType() != DBFField.DBFDataType.DATE) {
+                        outputField.setFieldLength(inputField.getFieldLength());
+                        outputField.setDecimalCount(inputField.getDecimalCount());
                     }
-                    g1 = (com.vividsolutions.jts.geom.Geometry)outputGeometry.clone();
-                    inputGeometryList.clear();
+                    fields[f] = outputField;
+                    f++;
+                }
+                attributeTableRecords[k] = new Object[reader.getNumberOfRecords()][];
+                for (int a = 0; a < reader.getNumberOfRecords(); a++) {
+                    attributeTableRecords[k][a] = reader.nextRecord();
                 }
             }
             
-            ShapeFile output = null;
-            DBFWriter writer = null;
-            if (outputGeometry instanceof GeometryCollection) {
-                // see if the collection is a collection of points
-                com.vividsolutions.jts.geom.Geometry gN0 = outputGeometry.getGeometryN(0);
-                if (gN0 instanceof com.vividsolutions.jts.geom.Point 
-                            && outputShapeType == ShapeType.POLYLINE) {
-                    // this happens when the input files are line segments (not
-                    // closed rings) and the intersection results in points.
-                    outputShapeType = ShapeType.POINT;
+            // set up the output files of the shapefile and the dbf
+            final ShapeFile output = new ShapeFile(outputFile, outputShapeType, fields);
+            output.setProjectionStringFromOtherShapefile(inputs[0]);
+            
+            ArrayList<com.vividsolutions.jts.geom.Geometry> current =
+                    readGeometries(inputs[0], "Loop 1 of " + numFiles + ": Reading data:");
+            if (current == null) {
+                cancelOperation();
+                return;
+            }
+            
+            // The files are intersected in turn with the result of the
+            // previous intersection. Only the final intersection is written.
+            final ShapeType outType = outputShapeType;
+            final int numOutputFields = numFields;
+            for (int k = 1; k < numFiles; k++) {
+                ArrayList<com.vividsolutions.jts.geom.Geometry> next =
+                        readGeometries(inputs[k], "Loop " + (k + 1) + " of " + numFiles + ": Reading data:");
+                if (next == null) {
+                    cancelOperation();
+                    return;
                 }
-                        
-                
-                // set up the output files of the shapefile and the dbf
-                output = new ShapeFile(outputFile, outputShapeType);
-                output.setProjectionStringFromOtherShapefile(new ShapeFile(shapefiles[0]));
-
-                DBFField fields[] = new DBFField[1];
-
-                fields[0] = new DBFField();
-                fields[0].setName("FID");
-                fields[0].setDataType(DBFField.DBFDataType.NUMERIC);
-                fields[0].setFieldLength(10);
-                fields[0].setDecimalCount(0);
-
-                String DBFName = output.getDatabaseFile();
-                writer = new DBFWriter(new File(DBFName));
-
-                writer.setFields(fields);
-                
-                int numGeometries = outputGeometry.getNumGeometries();
-                oneHundredthTotal = (int)(numGeometries / 100.0);
-                progress = 0;
-                n = 0;
-                FID = 0;
-                for (int a = 0; a < numGeometries; a++) {
-                    com.vividsolutions.jts.geom.Geometry gN = outputGeometry.getGeometryN(a);
-                    if (gN instanceof LineString) {
-                        LineString ls = (LineString) gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-
-                        int[] parts = {0};
-
-                        Coordinate[] coords = ls.getCoordinates();
-                        for (i = 0; i < coords.length; i++) {
-                            pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                        }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.PolyLine wbGeometry = new whitebox.geospatialfiles.shapefile.PolyLine(parts, pl.getPointsArray());
-                        output.addRecord(wbGeometry);
-
-                        FID++;
-                        Object[] rowData = new Object[1];
-                        rowData[0] = (double) FID;
-                        writer.addRecord(rowData);
-                    } else if (gN instanceof com.vividsolutions.jts.geom.Polygon 
-                            && outputShapeType == ShapeType.POLYLINE) {
-                        com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon)gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-
-                        int[] parts = new int[p.getNumInteriorRing() + 1];
-
-                        Coordinate[] coords = p.getExteriorRing().getCoordinates();
-                        if (!Topology.isClockwisePolygon(coords)) {
-                            for (i = coords.length - 1; i >= 0; i--) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        } else {
-                            for (i = 0; i < coords.length; i++) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        }
+                final boolean isFinal = (k == numFiles - 1);
+                final String progressLabel = "Loop " + (k + 1) + " of " + numFiles + ": Performing operation:";
+                final ArrayList<com.vividsolutions.jts.geom.Geometry> results = new ArrayList<>();
+                boolean completed = VectorOverlay.overlay(VectorOverlay.Operation.INTERSECTION,
+                        current, next, new VectorOverlay.ResultListener() {
+                    int FID = 0;
 
-                        for (int b = 0; b < p.getNumInteriorRing(); b++) {
-                            parts[b + 1] = pnts.size();
-                            coords = p.getInteriorRingN(b).getCoordinates();
-                            if (Topology.isClockwisePolygon(coords)) {
-                                for (i = coords.length - 1; i >= 0; i--) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            } else {
-                                for (i = 0; i < coords.length; i++) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            }
-                        }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.PolyLine wbGeometry = new whitebox.geospatialfiles.shapefile.PolyLine(parts, pl.getPointsArray());
-                        output.addRecord(wbGeometry);
-
-                        FID++;
-                        Object[] rowData = new Object[1];
-                        rowData[0] = (double) FID;
-                        writer.addRecord(rowData);
-                    } else if (gN instanceof com.vividsolutions.jts.geom.Polygon 
-                            && outputShapeType == ShapeType.POLYGON) {
-                        com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon)gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-                        
-                        int[] parts = new int[p.getNumInteriorRing() + 1];
-
-                        Coordinate[] coords = p.getExteriorRing().getCoordinates();
-                        if (!Topology.isClockwisePolygon(coords)) {
-                            for (i = coords.length - 1; i >= 0; i--) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        } else {
-                            for (i = 0; i < coords.length; i++) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
+                    @Override
+                    public void result(com.vividsolutions.jts.geom.Geometry g, int[] parents) {
+                        if (!isFinal) {
+                            results.add(g);
+                            return;
                         }
-
-                        for (int b = 0; b < p.getNumInteriorRing(); b++) {
-                            parts[b + 1] = pnts.size();
-                            coords = p.getInteriorRingN(b).getCoordinates();
-                            if (Topology.isClockwisePolygon(coords)) {
-                                for (i = coords.length - 1; i >= 0; i--) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            } else {
-                                for (i = 0; i < coords.length; i++) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            }
+                        whitebox.geospatialfiles.shapefile.Geometry wbGeometry =
+                                VectorOverlay.toShapefileGeometry(g, outType);
+                        if (wbGeometry == null) {
+                            return;
                         }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.Polygon wbGeometry = new whitebox.geospatialfiles.shapefile.Polygon(parts, pl.getPointsArray());
-                        output.addRecord(wbGeometry);
-
-                        FID++;
-                        Object[] rowData = new Object[1];
-                        rowData[0] = new Double(FID);
-                        writer.addRecord(rowData);
-                    } else if (gN instanceof com.vividsolutions.jts.geom.Point 
-                            && outputShapeType == ShapeType.POINT) {
-                        com.vividsolutions.jts.geom.Point p = (com.vividsolutions.jts.geom.Point)gN;
-                        whitebox.geospatialfiles.shapefile.Point wbGeometry = new whitebox.geospatialfiles.shapefile.Point(p.getX(), p.getY());
-                        output.addRecord(wbGeometry);
-
                         FID++;
-                        Object[] rowData = new Object[1];
+                        Object[] rowData = new Object[numOutputFields];
                         rowData[0] = new Double(FID);
-                        writer.addRecord(rowData);
-                    } else {
-                        // it shouldn't really hit here ever.
-                        //showFeedback("An error was encountered when saving the output file.");
-                        //return;
+                        for (int m = 0; m < parents.length; m++) {
+                            Object[] parentRow = attributeTableRecords[m][parents[m] - 1];
+                            System.arraycopy(parentRow, 0, rowData, fieldOffsets[m], parentRow.length);
+                        }
+                        output.addRecord(wbGeometry, rowData);
                     }
-                    
-                    n++;
-                    if (n >= oneHundredthTotal) {
-                        n = 0;
+
+                    @Override
+                    public boolean progress(int progress) {
                         if (cancelOp) {
-                            cancelOperation();
-                            return;
+                            return false;
                         }
-                        progress++;
-                        updateProgress("Saving output file", progress);
+                        updateProgress(progressLabel, progress);
+                        return true;
                     }
+                });
+                if (!completed) {
+                    cancelOperation();
+                    return;
                 }
-            } else {
-                // it shouldn't really hit here ever.
-                showFeedback("An error was encountered when saving the output file.");
-                return;
+                current = results;
             }
             
             output.write();
-            writer.write();
-            
             
             // returning a header file string displays the image.
             returnData(outputFile);
             
-            
         } catch (OutOfMemoryError oe) {
             myHost.showFeedback("An out-of-memory error has occurred during operation.");
         } catch (Exception e) {
@@ -493,6 +387,44 @@ public class Intersect implements WhiteboxPlugin {
         }
        
     }
+
+    /**
+     * Reads the valid features of a shapefile as JTS geometries, each tagged
+     * with its record number.
+     *
+     * @return The geometries, or null if the operation was cancelled.
+     */
+    private ArrayList<com.vividsolutions.jts.geom.Geometry> readGeometries(
+            ShapeFile input, String progressLabel) {
+        ArrayList<com.vividsolutions.jts.geom.Geometry> ret = new ArrayList<>();
+        int numRecs = input.getNumberOfRecords();
+        int oneHundredthTotal = numRecs / 100;
+        int progress = 0;
+        int n = 0;
+        for (ShapeFileRecord record : input.records) {
+            if (record.getShapeType() != ShapeType.NULLSHAPE) {
+                com.vividsolutions.jts.geom.Geometry[] recJTSGeometries = record.getGeometry().getJTSGeometries();
+                for (int a = 0; a < recJTSGeometries.length; a++) {
+                    recJTSGeometries[a].setUserData(record.getRecordNumber());
+                    if (recJTSGeometries[a].isValid()) {
+                        ret.add(recJTSGeometries[a]);
+                    } else {
+                        System.out.println(record.getRecordNumber() + " is invalid.");
+                    }
+                }
+            }
+            n++;
+            if (n >= oneHundredthTotal) {
+                n = 0;
+                if (cancelOp) {
+                    return null;
+                }
+                progress++;
+                updateProgress(progressLabel, progress);
+            }
+        }
+        return ret;
+    }
     
 //    // This method is only used during testing.
 //    public static void main(String[] args) {
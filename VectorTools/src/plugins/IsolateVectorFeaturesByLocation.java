@@ -18,6 +18,8 @@
 package plugins;
 
 import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 import java.io.File;
 import java.util.ArrayList;
 import whitebox.geospatialfiles.ShapeFile;
@@ -272,7 +274,8 @@ public class IsolateVectorFeaturesByLocation implements WhiteboxPlugin {
         }
         
         // check to see that the inputHeader and outputHeader are not null.
-        if ((featureFile == null) || (dataFile == null) || (outputFile == null)) {
+        if ((featureFile == null) || (dataFile == null) || (outputFile == null)
+                || (instructions == null)) {
             showFeedback("One or more of the input parameters have not been set properly.");
             return;
         }
@@ -316,7 +319,7 @@ public class IsolateVectorFeaturesByLocation implements WhiteboxPlugin {
             n = 0;
             for (ShapeFileRecord record : dataShape.records) {
                 if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                    recJTSGeometries = record.getGeometry().getJTSGeometries();
+                    recJTSGeometries = record.getJTSGeometries();
                     for (int a = 0; a < recJTSGeometries.length; a++) {
                         if (recJTSGeometries[a].isValid()) {
                             inputGeometryList.add(recJTSGeometries[a]);
@@ -339,467 +342,41 @@ public class IsolateVectorFeaturesByLocation implements WhiteboxPlugin {
             g1 = factory.buildGeometry(inputGeometryList);
             inputGeometryList.clear();
             
+            // the data geometry is indexed once and each feature is then
+            // tested against the prepared geometry.
+            PreparedGeometry preparedG1 = PreparedGeometryFactory.prepare(g1);
+            
             previousProgress = 0;
             // now perform the analysis
-            if (instructions.equals("intersect")) {
-                updateProgress("Loop 2 of 2:", 0);
-                n = 0;
-                for (ShapeFileRecord record : featureShape.records) {
-                    Object[] rec = reader.nextRecord();
-                    if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                        recJTSGeometries = record.getGeometry().getJTSGeometries();
-                        for (int a = 0; a < recJTSGeometries.length; a++) {
-                            if (recJTSGeometries[a].isValid()) {
-                                inputGeometryList.add(recJTSGeometries[a]);
-                            } else {
-                                System.out.println(record.getRecordNumber() + " is invalid.");
-                            }
-                        }
-                        g2 = factory.buildGeometry(inputGeometryList);
-                        inputGeometryList.clear();
-                        if (g2.intersects(g1)) {
-                            if (blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
-                        } else {
-                            if (!blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    n++;
-                    progress = (int) (n * 100.0 / numRecsFeature);
-                    if (progress != previousProgress) {
-                        previousProgress = progress;
-                        updateProgress("Loop 2 of 2:", progress);
-                    }
-                }
-            } else if (instructions.equals("notIntersect")) {
-                updateProgress("Loop 2 of 2:", 0);
-                n = 0;
-                for (ShapeFileRecord record : featureShape.records) {
-                    Object[] rec = reader.nextRecord();
-                    if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                        recJTSGeometries = record.getGeometry().getJTSGeometries();
-                        for (int a = 0; a < recJTSGeometries.length; a++) {
-                            if (recJTSGeometries[a].isValid()) {
-                                inputGeometryList.add(recJTSGeometries[a]);
-                            } else {
-                                System.out.println(record.getRecordNumber() + " is invalid.");
-                            }
-                        }
-                        g2 = factory.buildGeometry(inputGeometryList);
-                        inputGeometryList.clear();
-                        if (!g2.intersects(g1)) {
-                            if (blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
-                        } else {
-                            if (!blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    n++;
-                    progress = (int) (n * 100.0 / numRecsFeature);
-                    if (progress != previousProgress) {
-                        previousProgress = progress;
-                        updateProgress("Loop 2 of 2:", progress);
-                    }
-                }
-            } else if (instructions.equals("within")) {
-                updateProgress("Loop 2 of 2:", 0);
-                n = 0;
-                for (ShapeFileRecord record : featureShape.records) {
-                    Object[] rec = reader.nextRecord();
-                    if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                        recJTSGeometries = record.getGeometry().getJTSGeometries();
-                        for (int a = 0; a < recJTSGeometries.length; a++) {
-                            //recJTSGeometries[a].setUserData(record.getRecordNumber());
-                            if (recJTSGeometries[a].isValid()) {
-                                inputGeometryList.add(recJTSGeometries[a]);
-                            } else {
-                                System.out.println(record.getRecordNumber() + " is invalid.");
-                            }
-                        }
-                        g2 = factory.buildGeometry(inputGeometryList);
-                        inputGeometryList.clear();
-                        if (g2.within(g1)) {
-                            if (blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
-                        } else {
-                            if (!blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    n++;
-                    progress = (int) (n * 100.0 / numRecsFeature);
-                    if (progress != previousProgress) {
-                        previousProgress = progress;
-                        updateProgress("Loop 2 of 2:", progress);
-                    }
-                }
-            } else if (instructions.equals("contains")) {
-                updateProgress("Loop 2 of 2:", 0);
-                n = 0;
-                for (ShapeFileRecord record : featureShape.records) {
-                    Object[] rec = reader.nextRecord();
-                    if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                        recJTSGeometries = record.getGeometry().getJTSGeometries();
-                        for (int a = 0; a < recJTSGeometries.length; a++) {
-                            //recJTSGeometries[a].setUserData(record.getRecordNumber());
-                            if (recJTSGeometries[a].isValid()) {
-                                inputGeometryList.add(recJTSGeometries[a]);
-                            } else {
-                                System.out.println(record.getRecordNumber() + " is invalid.");
-                            }
-                        }
-                        g2 = factory.buildGeometry(inputGeometryList);
-                        inputGeometryList.clear();
-                        if (g2.contains(g1)) {
-                            if (blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
-                        } else {
-                            if (!blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    n++;
-                    progress = (int) (n * 100.0 / numRecsFeature);
-                    if (progress != previousProgress) {
-                        previousProgress = progress;
-                        updateProgress("Loop 2 of 2:", progress);
-                    }
-                }
-            } else if (instructions.equals("notContain")) {
-                updateProgress("Loop 2 of 2:", 0);
-                n = 0;
-                for (ShapeFileRecord record : featureShape.records) {
-                    Object[] rec = reader.nextRecord();
-                    if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                        recJTSGeometries = record.getGeometry().getJTSGeometries();
-                        for (int a = 0; a < recJTSGeometries.length; a++) {
-                            //recJTSGeometries[a].setUserData(record.getRecordNumber());
-                            if (recJTSGeometries[a].isValid()) {
-                                inputGeometryList.add(recJTSGeometries[a]);
-                            } else {
-                                System.out.println(record.getRecordNumber() + " is invalid.");
-                            }
-                        }
-                        g2 = factory.buildGeometry(inputGeometryList);
-                        inputGeometryList.clear();
-                        if (!g2.contains(g1)) {
-                            if (blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
-                        } else {
-                            if (!blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    n++;
-                    progress = (int) (n * 100.0 / numRecsFeature);
-                    if (progress != previousProgress) {
-                        previousProgress = progress;
-                        updateProgress("Loop 2 of 2:", progress);
-                    }
-                }
-            } else if (instructions.equals("covers")) {
-                updateProgress("Loop 2 of 2:", 0);
-                n = 0;
-                for (ShapeFileRecord record : featureShape.records) {
-                    Object[] rec = reader.nextRecord();
-                    if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                        recJTSGeometries = record.getGeometry().getJTSGeometries();
-                        for (int a = 0; a < recJTSGeometries.length; a++) {
-                            //recJTSGeometries[a].setUserData(record.getRecordNumber());
-                            if (recJTSGeometries[a].isValid()) {
-                                inputGeometryList.add(recJTSGeometries[a]);
-                            } else {
-                                System.out.println(record.getRecordNumber() + " is invalid.");
-                            }
-                        }
-                        g2 = factory.buildGeometry(inputGeometryList);
-                        inputGeometryList.clear();
-                        if (g2.covers(g1)) {
-                            if (blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
-                        } else {
-                            if (!blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    n++;
-                    progress = (int) (n * 100.0 / numRecsFeature);
-                    if (progress != previousProgress) {
-                        previousProgress = progress;
-                        updateProgress("Loop 2 of 2:", progress);
-                    }
-                }
-            } else if (instructions.equals("coveredBy")) {
-                updateProgress("Loop 2 of 2:", 0);
-                n = 0;
-                for (ShapeFileRecord record : featureShape.records) {
-                    Object[] rec = reader.nextRecord();
-                    if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                        recJTSGeometries = record.getGeometry().getJTSGeometries();
-                        for (int a = 0; a < recJTSGeometries.length; a++) {
-                            //recJTSGeometries[a].setUserData(record.getRecordNumber());
-                            if (recJTSGeometries[a].isValid()) {
-                                inputGeometryList.add(recJTSGeometries[a]);
-                            } else {
-                                System.out.println(record.getRecordNumber() + " is invalid.");
-                            }
-                        }
-                        g2 = factory.buildGeometry(inputGeometryList);
-                        inputGeometryList.clear();
-                        if (g2.coveredBy(g1)) {
-                            if (blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
-                        } else {
-                            if (!blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    n++;
-                    progress = (int) (n * 100.0 / numRecsFeature);
-                    if (progress != previousProgress) {
-                        previousProgress = progress;
-                        updateProgress("Loop 2 of 2:", progress);
-                    }
-                }
-            } else if (instructions.equals("crosses")) {
-                updateProgress("Loop 2 of 2:", 0);
-                n = 0;
-                for (ShapeFileRecord record : featureShape.records) {
-                    Object[] rec = reader.nextRecord();
-                    if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                        recJTSGeometries = record.getGeometry().getJTSGeometries();
-                        for (int a = 0; a < recJTSGeometries.length; a++) {
-                            //recJTSGeometries[a].setUserData(record.getRecordNumber());
-                            if (recJTSGeometries[a].isValid()) {
-                                inputGeometryList.add(recJTSGeometries[a]);
-                            } else {
-                                System.out.println(record.getRecordNumber() + " is invalid.");
-                            }
-                        }
-                        g2 = factory.buildGeometry(inputGeometryList);
-                        inputGeometryList.clear();
-                        if (g2.crosses(g1)) {
-                            if (blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
-                        } else {
-                            if (!blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    n++;
-                    progress = (int) (n * 100.0 / numRecsFeature);
-                    if (progress != previousProgress) {
-                        previousProgress = progress;
-                        updateProgress("Loop 2 of 2:", progress);
-                    }
-                }
-            } else if (instructions.equals("touches")) {
-                updateProgress("Loop 2 of 2:", 0);
-                n = 0;
-                for (ShapeFileRecord record : featureShape.records) {
-                    Object[] rec = reader.nextRecord();
-                    if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                        recJTSGeometries = record.getGeometry().getJTSGeometries();
-                        for (int a = 0; a < recJTSGeometries.length; a++) {
-                            //recJTSGeometries[a].setUserData(record.getRecordNumber());
-                            if (recJTSGeometries[a].isValid()) {
-                                inputGeometryList.add(recJTSGeometries[a]);
-                            } else {
-                                System.out.println(record.getRecordNumber() + " is invalid.");
-                            }
-                        }
-                        g2 = factory.buildGeometry(inputGeometryList);
-                        inputGeometryList.clear();
-                        if (g2.touches(g1)) {
-                            if (blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
+            updateProgress("Loop 2 of 2:", 0);
+            n = 0;
+            for (ShapeFileRecord record : featureShape.records) {
+                Object[] rec = reader.nextRecord();
+                if (record.getShapeType() != ShapeType.NULLSHAPE) {
+                    recJTSGeometries = record.getJTSGeometries();
+                    for (int a = 0; a < recJTSGeometries.length; a++) {
+                        if (recJTSGeometries[a].isValid()) {
+                            inputGeometryList.add(recJTSGeometries[a]);
                         } else {
-                            if (!blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
+                            System.out.println(record.getRecordNumber() + " is invalid.");
                         }
                     }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    n++;
-                    progress = (int) (n * 100.0 / numRecsFeature);
-                    if (progress != previousProgress) {
-                        previousProgress = progress;
-                        updateProgress("Loop 2 of 2:", progress);
+                    g2 = factory.buildGeometry(inputGeometryList);
+                    inputGeometryList.clear();
+                    if (isRelated(instructions, g2, preparedG1, distThreshold) == blnSelect) {
+                        // output this geometry to the output file.
+                        output.addRecord(record.getGeometry(), rec);
                     }
                 }
-            } else if (instructions.equals("notTouch")) {
-                updateProgress("Loop 2 of 2:", 0);
-                n = 0;
-                for (ShapeFileRecord record : featureShape.records) {
-                    Object[] rec = reader.nextRecord();
-                    if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                        recJTSGeometries = record.getGeometry().getJTSGeometries();
-                        for (int a = 0; a < recJTSGeometries.length; a++) {
-                            //recJTSGeometries[a].setUserData(record.getRecordNumber());
-                            if (recJTSGeometries[a].isValid()) {
-                                inputGeometryList.add(recJTSGeometries[a]);
-                            } else {
-                                System.out.println(record.getRecordNumber() + " is invalid.");
-                            }
-                        }
-                        g2 = factory.buildGeometry(inputGeometryList);
-                        inputGeometryList.clear();
-                        if (!g2.touches(g1)) {
-                            if (blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
-                        } else {
-                            if (!blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    n++;
-                    progress = (int) (n * 100.0 / numRecsFeature);
-                    if (progress != previousProgress) {
-                        previousProgress = progress;
-                        updateProgress("Loop 2 of 2:", progress);
-                    }
+                if (cancelOp) {
+                    cancelOperation();
+                    return;
                 }
-            } else if (instructions.equals("distance")) {
-                updateProgress("Loop 2 of 2:", 0);
-                n = 0;
-                for (ShapeFileRecord record : featureShape.records) {
-                    Object[] rec = reader.nextRecord();
-                    if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                        recJTSGeometries = record.getGeometry().getJTSGeometries();
-                        for (int a = 0; a < recJTSGeometries.length; a++) {
-                            //recJTSGeometries[a].setUserData(record.getRecordNumber());
-                            if (recJTSGeometries[a].isValid()) {
-                                inputGeometryList.add(recJTSGeometries[a]);
-                            } else {
-                                System.out.println(record.getRecordNumber() + " is invalid.");
-                            }
-                        }
-                        g2 = factory.buildGeometry(inputGeometryList);
-                        inputGeometryList.clear();
-                        if (g2.isWithinDistance(g1, distThreshold)) {
-                            if (blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
-                        } else {
-                            if (!blnSelect) {
-                                // output this geometry to the output file.
-                                output.addRecord(record.getGeometry(), rec);
-//                                writer.addRecord(rec);
-                            }
-                        }
-                    }
-                    if (cancelOp) {
-                        cancelOperation();
-                        return;
-                    }
-                    n++;
-                    progress = (int) (n * 100.0 / numRecsFeature);
-                    if (progress != previousProgress) {
-                        previousProgress = progress;
-                        updateProgress("Loop 2 of 2:", progress);
-                    }
+                n++;
+                progress = (int) (n * 100.0 / numRecsFeature);
+                if (progress != previousProgress) {
+                    previousProgress = progress;
+                    updateProgress("Loop 2 of 2:", progress);
                 }
             }
             
@@ -825,6 +402,43 @@ public class IsolateVectorFeaturesByLocation implements WhiteboxPlugin {
        
     }
     
+    /**
+     * Tests whether a feature, g2, stands in the relation given by the
+     * instructions to the data geometry, g1. Because the data geometry is the
+     * prepared one, each relation is evaluated from its side, using the
+     * converse relation where the relation is not symmetric.
+     */
+    private static boolean isRelated(String instructions,
+            com.vividsolutions.jts.geom.Geometry g2, PreparedGeometry g1,
+            double distThreshold) {
+        switch (instructions) {
+            case "intersect":
+                return g1.intersects(g2);
+            case "notIntersect":
+                return !g1.intersects(g2);
+            case "within":
+                return g1.contains(g2);
+            case "contains":
+                return g1.within(g2);
+            case "notContain":
+                return !g1.within(g2);
+            case "covers":
+                return g1.coveredBy(g2);
+            case "coveredBy":
+                return g1.covers(g2);
+            case "crosses":
+                return g1.crosses(g2);
+            case "touches":
+                return g1.touches(g2);
+            case "notTouch":
+                return !g1.touches(g2);
+            case "distance":
+                return g2.isWithinDistance(g1.getGeometry(), distThreshold);
+            default:
+                return false;
+        }
+    }
+    
 //    // This method is only used during testing.
 //    public static void main(String[] args) {
 //        args = new String[2];
@@ -17,22 +17,14 @@
 
 package plugins;
 
-import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.GeometryCollection;
-import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.LineString;
-import java.io.File;
 import java.util.ArrayList;
+import whitebox.algorithms.VectorOverlay;
 import whitebox.geospatialfiles.ShapeFile;
 import whitebox.geospatialfiles.shapefile.attributes.DBFField;
-//import whitebox.geospatialfiles.shapefile.attributes.DBFWriter;
-import whitebox.geospatialfiles.shapefile.PointsList;
 import whitebox.geospatialfiles.shapefile.ShapeFileRecord;
 import whitebox.geospatialfiles.shapefile.ShapeType;
-import whitebox.geospatialfiles.shapefile.ShapefilePoint;
 import whitebox.interfaces.WhiteboxPlugin;
 import whitebox.interfaces.WhiteboxPluginHost;
-import whitebox.utilities.Topology;
 
 /**
  * WhiteboxPlugin is used to define a plugin tool for Whitebox GIS.
@@ -205,15 +197,8 @@ public class Union implements WhiteboxPlugin {
         String[] shapefiles;
         int numFiles;
         String outputFile;
-        int progress;
-        int i, n, FID;
-        int oneHundredthTotal;
-        int numRecs;
         ShapeType shapeType;
         ShapeType outputShapeType = ShapeType.POLYGON;
-        GeometryFactory factory = new GeometryFactory();
-        com.vividsolutions.jts.geom.Geometry g1 = null;
-        com.vividsolutions.jts.geom.Geometry g2 = null;
             
         if (args.length <= 0) {
             showFeedback("Plugin parameters have not been set.");
@@ -238,17 +223,13 @@ public class Union implements WhiteboxPlugin {
 
         try {
             
-            com.vividsolutions.jts.geom.Geometry[] recJTSGeometries = null;
             ArrayList<com.vividsolutions.jts.geom.Geometry> inputGeometryList =
                     new ArrayList<>();
-            com.vividsolutions.jts.geom.Geometry outputGeometry = null;
-                
             
             for (int k = 0; k < numFiles; k++) {
                 
                 ShapeFile input = new ShapeFile(shapefiles[k]);
                 shapeType = input.getShapeType();
-                numRecs = input.getNumberOfRecords();
                 
                 if (shapeType.getBaseType() == ShapeType.POINT ||
                         shapeType.getBaseType() == ShapeType.MULTIPOINT) {
@@ -261,186 +242,54 @@ public class Union implements WhiteboxPlugin {
                     outputShapeType = ShapeType.POLYLINE;
                 }
                 
-                oneHundredthTotal = numRecs / 100;
-                progress = 0;
-                n = 0;
-                for (ShapeFileRecord record : input.records) {
-                    if (record.getShapeType() != ShapeType.NULLSHAPE) {
-                        recJTSGeometries = record.getGeometry().getJTSGeometries();
-                        for (int a = 0; a < recJTSGeometries.length; a++) {
-                            recJTSGeometries[a].setUserData(record.getRecordNumber());
-                            if (recJTSGeometries[a].isValid()) { 
-                                inputGeometryList.add(recJTSGeometries[a]);
-                            } else {
-                                System.out.println(record.getRecordNumber() + " is invalid.");
-                            }
-                        }
-                    }
-                    n++;
-                    if (n >= oneHundredthTotal) {
-                        n = 0;
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
-                        }
-                        progress++;
-                        updateProgress("Loop " + (k + 1) + " of " + numFiles + ": Reading data:", progress);
-                    }
+                ArrayList<com.vividsolutions.jts.geom.Geometry> geometries =
+                        readGeometries(input, "Loop " + (k + 1) + " of " + numFiles + ": Reading data:");
+                if (geometries == null) {
+                    cancelOperation();
+                    return;
                 }
+                inputGeometryList.addAll(geometries);
             }
             
-            try {
-                updateProgress("Performing operation (progress will not be updated):", -1);
-                g1 = factory.buildGeometry(inputGeometryList);
-                outputGeometry = g1.buffer(0);
-            } catch (Exception e) {
-                showFeedback("Error during analysis.");
-                return;
-            }
-            
-            ShapeFile output = null;
-            
-            if (outputGeometry instanceof GeometryCollection) {
-                // set up the output files of the shapefile and the dbf
-                
-
-                DBFField fields[] = new DBFField[1];
-
-                fields[0] = new DBFField();
-                fields[0].setName("FID");
-                fields[0].setDataType(DBFField.DBFDataType.NUMERIC);
-                fields[0].setFieldLength(10);
-                fields[0].setDecimalCount(0);
-
-                output = new ShapeFile(outputFile, outputShapeType, fields);
-                output.setProjectionStringFromOtherShapefile(new ShapeFile(shapefiles[0]));
-                
-                int numGeometries = outputGeometry.getNumGeometries();
-                oneHundredthTotal = (int)(numGeometries / 100.0);
-                progress = 0;
-                n = 0;
-                FID = 0;
-                for (int a = 0; a < numGeometries; a++) {
-                    com.vividsolutions.jts.geom.Geometry gN = outputGeometry.getGeometryN(a);
-                    if (gN instanceof LineString) {
-                        LineString ls = (LineString) gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-
-                        int[] parts = {0};
-
-                        Coordinate[] coords = ls.getCoordinates();
-                        for (i = 0; i < coords.length; i++) {
-                            pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                        }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.PolyLine wbGeometry = new whitebox.geospatialfiles.shapefile.PolyLine(parts, pl.getPointsArray());
-                        
-                        FID++;
-                        Object[] rowData = new Object[1];
-                        rowData[0] = new Double(FID);
-                        output.addRecord(wbGeometry, rowData);
-
-                    } else if (gN instanceof com.vividsolutions.jts.geom.Polygon 
-                            && outputShapeType == ShapeType.POLYLINE) {
-                        com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon)gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-
-                        int[] parts = new int[p.getNumInteriorRing() + 1];
-
-                        Coordinate[] coords = p.getExteriorRing().getCoordinates();
-                        if (!Topology.isClockwisePolygon(coords)) {
-                            for (i = coords.length - 1; i >= 0; i--) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        } else {
-                            for (i = 0; i < coords.length; i++) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        }
-
-                        for (int b = 0; b < p.getNumInteriorRing(); b++) {
-                            parts[b + 1] = pnts.size();
-                            coords = p.getInteriorRingN(b).getCoordinates();
-                            if (Topology.isClockwisePolygon(coords)) {
-                                for (i = coords.length - 1; i >= 0; i--) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            } else {
-                                for (i = 0; i < coords.length; i++) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            }
-                        }
+            DBFField fields[] = new DBFField[1];
 
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.PolyLine wbGeometry = new whitebox.geospatialfiles.shapefile.PolyLine(parts, pl.getPointsArray());
-                        
-                        FID++;
-                        Object[] rowData = new Object[1];
-                        rowData[0] = new Double(FID);
-                        output.addRecord(wbGeometry, rowData);
+            fields[0] = new DBFField();
+            fields[0].setName("FID");
+            fields[0].setDataType(DBFField.DBFDataType.NUMERIC);
+            fields[0].setFieldLength(10);
+            fields[0].setDecimalCount(0);
 
-                    } else if (gN instanceof com.vividsolutions.jts.geom.Polygon 
-                            && outputShapeType == ShapeType.POLYGON) {
-                        com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon)gN;
-                        ArrayList<ShapefilePoint> pnts = new ArrayList<>();
-
-                        int[] parts = new int[p.getNumInteriorRing() + 1];
-
-                        Coordinate[] coords = p.getExteriorRing().getCoordinates();
-                        if (!Topology.isClockwisePolygon(coords)) {
-                            for (i = coords.length - 1; i >= 0; i--) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        } else {
-                            for (i = 0; i < coords.length; i++) {
-                                pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                            }
-                        }
-
-                        for (int b = 0; b < p.getNumInteriorRing(); b++) {
-                            parts[b + 1] = pnts.size();
-                            coords = p.getInteriorRingN(b).getCoordinates();
-                            if (Topology.isClockwisePolygon(coords)) {
-                                for (i = coords.length - 1; i >= 0; i--) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            } else {
-                                for (i = 0; i < coords.length; i++) {
-                                    pnts.add(new ShapefilePoint(coords[i].x, coords[i].y));
-                                }
-                            }
-                        }
-
-                        PointsList pl = new PointsList(pnts);
-                        whitebox.geospatialfiles.shapefile.Polygon wbGeometry = new whitebox.geospatialfiles.shapefile.Polygon(parts, pl.getPointsArray());
-                        
-                        FID++;
-                        Object[] rowData = new Object[1];
-                        rowData[0] = new Double(FID);
-                        output.addRecord(wbGeometry, rowData);
+            final ShapeFile output = new ShapeFile(outputFile, outputShapeType, fields);
+            output.setProjectionStringFromOtherShapefile(new ShapeFile(shapefiles[0]));
+            
+            final ShapeType outType = outputShapeType;
+            boolean completed = VectorOverlay.union(inputGeometryList, new VectorOverlay.ResultListener() {
+                int FID = 0;
 
-                    } else {
-                        // it shouldn't really hit here ever.
-                        //showFeedback("An error was encountered when saving the output file.");
-                        //return;
+                @Override
+                public void result(com.vividsolutions.jts.geom.Geometry g, int[] parents) {
+                    whitebox.geospatialfiles.shapefile.Geometry wbGeometry =
+                            VectorOverlay.toShapefileGeometry(g, outType);
+                    if (wbGeometry == null) {
+                        return;
                     }
-                    
-                    n++;
-                    if (n >= oneHundredthTotal) {
-                        n = 0;
-                        if (cancelOp) {
-                            cancelOperation();
-                            return;
-                        }
-                        progress++;
-                        updateProgress("Saving output file", progress);
+                    FID++;
+                    Object[] rowData = new Object[1];
+                    rowData[0] = new Double(FID);
+                    output.addRecord(wbGeometry, rowData);
+                }
+
+                @Override
+                public boolean progress(int progress) {
+                    if (cancelOp) {
+                        return false;
                     }
+                    updateProgress("Performing operation:", progress);
+                    return true;
                 }
-            } else {
-                // it shouldn't really hit here ever.
-                showFeedback("An error was encountered when saving the output file.");
+            });
+            if (!completed) {
+                cancelOperation();
                 return;
             }
             
@@ -463,6 +312,44 @@ public class Union implements WhiteboxPlugin {
         }
        
     }
+
+    /**
+     * Reads the valid features of a shapefile as JTS geometries, each tagged
+     * with its record number.
+     *
+     * @return The geometries, or null if the operation was cancelled.
+     */
+    private ArrayList<com.vividsolutions.jts.geom.Geometry> readGeometries(
+            ShapeFile input, String progressLabel) {
+        ArrayList<com.vividsolutions.jts.geom.Geometry> ret = new ArrayList<>();
+        int numRecs = input.getNumberOfRecords();
+        int oneHundredthTotal = numRecs / 100;
+        int progress = 0;
+        int n = 0;
+        for (ShapeFileRecord record : input.records) {
+            if (record.getShapeType() != ShapeType.NULLSHAPE) {
+                com.vividsolutions.jts.geom.Geometry[] recJTSGeometries = record.getGeometry().getJTSGeometries();
+                for (int a = 0; a < recJTSGeometries.length; a++) {
+                    recJTSGeometries[a].setUserData(record.getRecordNumber());
+                    if (recJTSGeometries[a].isValid()) {
+                        ret.add(recJTSGeometries[a]);
+                    } else {
+                        System.out.println(record.getRecordNumber() + " is invalid.");
+                    }
+                }
+            }
+            n++;
+            if (n >= oneHundredthTotal) {
+                n = 0;
+                if (cancelOp) {
+                    return null;
+                }
+                progress++;
+                updateProgress(progressLabel, progress);
+            }
+        }
+        return ret;
+    }
     
 //    // This method is only used during testing.
 //    public static void main(String[] args) {
@@ -0,0 +1,570 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.parallel.LoopBody;
+import whitebox.parallel.Parallel;
+import whitebox.parallel.Partition;
+
+/**
+ * Calculates directional terrain attributes, i.e. horizon angle, fetch and
+ * directional relief, by sweeping a DEM along an azimuth. This is the engine
+ * of the HorizonAngle, FetchAnalysis and DirectionalRelief tools.
+ *
+ * Rather than tracing a separate ray from every cell, the grid is covered by
+ * parallel scan lines that follow the azimuth, spaced a quarter of a cell
+ * apart. Each line advances one cell along the major axis at each step, i.e.
+ * along the columns if the azimuth is nearer east-west than north-south, and
+ * its profile is interpolated linearly between the two nearest cells of the
+ * minor axis. Every cell is assigned to the line that passes nearest its
+ * centre, and the profile of that line ahead of the cell is its ray. Each
+ * line is swept once, backwards from its far end, while maintaining a
+ * structure that is queried by each of its cells in logarithmic time: upper
+ * convex hulls of the profile for horizon angle, a monotonic stack for
+ * fetch, and running sums for directional relief. The lines are divided among
+ * the available processors.
+ *
+ * The DEM is read into memory once, so that analyses of many azimuths, such
+ * as sky-view factor or wind exposure, cost one sweep per direction.
+ * Distances are measured along the azimuth and nodata cells are ignored.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class AzimuthalSweep {
+
+    /**
+     * Receives the progress of a sweep.
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param progress The percentage of the lines that are complete.
+         * @return false to cancel the sweep.
+         */
+        boolean progress(int progress);
+    }
+
+    /**
+     * A scan line. The profile holds the elevation at each step of the line,
+     * in the direction of the azimuth, or NaN where it is unknown. The cells
+     * assigned to the line are its observers, in order of their steps.
+     */
+    private static final class Line {
+
+        double[] z;
+        int n;
+        int[] obsStep;
+        int[] obsRow;
+        int[] obsCol;
+        double[] obsZ;
+        int numObs;
+        double step;
+
+        Line(int size) {
+            z = new double[size];
+            obsStep = new int[size];
+            obsRow = new int[size];
+            obsCol = new int[size];
+            obsZ = new double[size];
+        }
+
+        double distance(int from, int to) {
+            return (to - from) * step;
+        }
+    }
+
+    /**
+     * Processes the lines of a sweep. Each processor thread has its own
+     * instance.
+     */
+    private interface LineProcessor {
+
+        void process(Line line);
+    }
+
+    private interface LineProcessorFactory {
+
+        LineProcessor create();
+    }
+
+    // the number of scan lines per cell across the azimuth.
+    private static final int LINES_PER_CELL = 4;
+
+    private final int rows;
+    private final int cols;
+    private final double noData;
+    private final double cellSizeX;
+    private final double cellSizeY;
+    private final double[][] data;
+
+    /**
+     * Reads a DEM into memory.
+     *
+     * @param dem The DEM.
+     */
+    public AzimuthalSweep(final WhiteboxRaster dem) {
+        rows = dem.getNumberRows();
+        cols = dem.getNumberColumns();
+        noData = dem.getNoDataValue();
+        cellSizeX = dem.getCellSizeX();
+        cellSizeY = dem.getCellSizeY();
+        data = new double[rows][];
+        Parallel.ForEach(Parallel.create(0, rows), new LoopBody<Partition>() {
+            @Override
+            public void run(Partition p) {
+                for (int row = p.start; row < p.end; row++) {
+                    double[] values = dem.getRowValues(row);
+                    for (int col = 0; col < cols; col++) {
+                        if (values[col] == noData) {
+                            values[col] = Double.NaN;
+                        }
+                    }
+                    data[row] = values;
+                }
+            }
+        });
+        for (double[] row : data) {
+            if (row == null) {
+                throw new IllegalStateException("The DEM could not be read.");
+            }
+        }
+    }
+
+    /**
+     * Calculates the horizon angle of each cell, i.e. the largest angle of
+     * elevation, in degrees, from the cell to the terrain along the azimuth.
+     *
+     * @param azimuth The azimuth, in degrees clockwise from north.
+     * @param maxDist The greatest distance at which the terrain can form the
+     * horizon, or infinity.
+     * @param horizonDistance Receives the distance to the point forming the
+     * horizon, or null. Where the horizon angle is negative, this is minus the
+     * distance to the farthest point considered.
+     * @param listener Receives progress, or null.
+     * @return The horizon angles, or null if the sweep was cancelled. Nodata
+     * cells, and cells with no terrain ahead of them, are nodata.
+     */
+    public double[][] getHorizonAngle(double azimuth, final double maxDist,
+            final double[][] horizonDistance, ProgressListener listener) {
+        final double[][] ret = createOutput();
+        if (horizonDistance != null) {
+            for (int row = 0; row < rows; row++) {
+                horizonDistance[row] = ret[row].clone();
+            }
+        }
+        boolean completed = sweep(azimuth, new LineProcessorFactory() {
+            @Override
+            public LineProcessor create() {
+                return new LineProcessor() {
+                    // The profile is divided into blocks of window steps, so
+                    // that the points within reach of an observer are the
+                    // rest of its own block and a prefix of the next one.
+                    // The upper convex hull of the rest of the block is kept
+                    // as the line is swept, farthest point first. That of the
+                    // next block is built forwards, nearest point first,
+                    // recording what each point displaced, so that the
+                    // points beyond the reach of the observer can be taken
+                    // off again as the reach shrinks.
+                    int[] hull = new int[0];
+                    int[] nextHull = new int[0];
+                    int[] pushed = new int[0];
+                    int[] undoTop = new int[0];
+                    int[] undoValue = new int[0];
+                    int[] lastValid = new int[0];
+
+                    @Override
+                    public void process(Line line) {
+                        double[] z = line.z;
+                        int n = line.n;
+                        int window = maxSteps(maxDist, line.step, n);
+                        if (window < 1) {
+                            return;
+                        }
+                        if (hull.length < n) {
+                            hull = new int[n];
+                            nextHull = new int[n];
+                            pushed = new int[n];
+                            undoTop = new int[n];
+                            undoValue = new int[n];
+                            lastValid = new int[n];
+                        }
+                        for (int k = 0; k < n; k++) {
+                            lastValid[k] = !Double.isNaN(z[k]) ? k : k > 0 ? lastValid[k - 1] : -1;
+                        }
+                        int top = -1;
+                        int nextTop = -1;
+                        int numPushed = 0;
+                        int o = line.numObs - 1;
+                        for (int i = n - 1; i >= 0; i--) {
+                            if ((i + 1) % window == 0 && i + 1 < n) {
+                                // the block ahead is complete; it becomes the
+                                // next block and a new one starts.
+                                nextTop = -1;
+                                numPushed = 0;
+                                int end = Math.min(n, i + 1 + window);
+                                for (int k = i + 1; k < end; k++) {
+                                    if (Double.isNaN(z[k])) {
+                                        continue;
+                                    }
+                                    int t = nextTop;
+                                    while (t >= 1 && (z[nextHull[t]] - z[nextHull[t - 1]]) * (k - nextHull[t - 1])
+                                            < (z[k] - z[nextHull[t - 1]]) * (nextHull[t] - nextHull[t - 1])) {
+                                        t--;
+                                    }
+                                    pushed[numPushed] = k;
+                                    undoTop[numPushed] = nextTop;
+                                    undoValue[numPushed] = nextHull[t + 1];
+                                    numPushed++;
+                                    nextHull[t + 1] = k;
+                                    nextTop = t + 1;
+                                }
+                                top = -1;
+                            }
+                            if (o >= 0 && line.obsStep[o] == i) {
+                                double z0 = line.obsZ[o];
+                                while (numPushed > 0 && pushed[numPushed - 1] > i + window) {
+                                    numPushed--;
+                                    nextHull[nextTop] = undoValue[numPushed];
+                                    nextTop = undoTop[numPushed];
+                                }
+                                int best = -1;
+                                if (top >= 0) {
+                                    // the tangent from the observer to the hull
+                                    int lo = 0;
+                                    int hi = top;
+                                    while (lo < hi) {
+                                        int mid = (lo + hi) >>> 1;
+                                        int a = hull[top - mid];
+                                        int b = hull[top - mid - 1];
+                                        if ((z[b] - z0) * (a - i) > (z[a] - z0) * (b - i)) {
+                                            lo = mid + 1;
+                                        } else {
+                                            hi = mid;
+                                        }
+                                    }
+                                    best = hull[top - lo];
+                                }
+                                if (nextTop >= 0) {
+                                    int lo = 0;
+                                    int hi = nextTop;
+                                    while (lo < hi) {
+                                        int mid = (lo + hi) >>> 1;
+                                        int a = nextHull[mid];
+                                        int b = nextHull[mid + 1];
+                                        if ((z[b] - z0) * (a - i) > (z[a] - z0) * (b - i)) {
+                                            lo = mid + 1;
+                                        } else {
+                                            hi = mid;
+                                        }
+                                    }
+                                    int b = nextHull[lo];
+                                    if (best < 0 || (z[b] - z0) * (best - i) > (z[best] - z0) * (b - i)) {
+                                        best = b;
+                                    }
+                                }
+                                if (best >= 0) {
+                                    int row = line.obsRow[o];
+                                    int col = line.obsCol[o];
+                                    double angle = Math.toDegrees(Math.atan((z[best] - z0)
+                                            / line.distance(i, best)));
+                                    if (angle < -89) {
+                                        angle = 0;
+                                    }
+                                    ret[row][col] = angle;
+                                    if (horizonDistance != null) {
+                                        if (angle >= 0) {
+                                            horizonDistance[row][col] = line.distance(i, best);
+                                        } else {
+                                            int farthest = lastValid[Math.min(n - 1, i + window)];
+                                            horizonDistance[row][col] = -line.distance(i, farthest);
+                                        }
+                                    }
+                                }
+                                o--;
+                            }
+                            if (Double.isNaN(z[i])) {
+                                continue;
+                            }
+                            while (top >= 1 && (z[hull[top]] - z[i]) * (hull[top - 1] - i)
+                                    < (z[hull[top - 1]] - z[i]) * (hull[top] - i)) {
+                                top--;
+                            }
+                            hull[++top] = i;
+                        }
+                    }
+                };
+            }
+        }, listener);
+        return completed ? ret : null;
+    }
+
+    /**
+     * Calculates the fetch of each cell, i.e. the distance along the azimuth
+     * to the nearest point whose elevation is at least that of the cell plus
+     * the distance times a height increment. Where there is no such point,
+     * the fetch is minus the distance to the edge of the grid.
+     *
+     * @param azimuth The azimuth, in degrees clockwise from north.
+     * @param heightIncrement The rise of the obstacle height with distance.
+     * @param listener Receives progress, or null.
+     * @return The fetch, or null if the sweep was cancelled.
+     */
+    public double[][] getFetch(double azimuth, final double heightIncrement,
+            ProgressListener listener) {
+        final double[][] ret = createOutput();
+        boolean completed = sweep(azimuth, new LineProcessorFactory() {
+            @Override
+            public LineProcessor create() {
+                return new LineProcessor() {
+                    // the points ahead that are not hidden by a nearer point
+                    // at least as high, nearest last. A point at step k is an
+                    // obstacle to the cell at step i if w[k] >= w[i].
+                    int[] stack = new int[0];
+                    double[] w = new double[0];
+
+                    @Override
+                    public void process(Line line) {
+                        double[] z = line.z;
+                        int n = line.n;
+                        double rise = heightIncrement * line.step;
+                        if (stack.length < n) {
+                            stack = new int[n];
+                            w = new double[n];
+                        }
+                        int top = -1;
+                        int o = line.numObs - 1;
+                        for (int i = n - 1; i >= 0; i--) {
+                            if (o >= 0 && line.obsStep[o] == i) {
+                                double threshold = line.obsZ[o] - rise * i;
+                                // the nearest point that is high enough
+                                int lo = 0;
+                                int hi = top + 1;
+                                while (lo < hi) {
+                                    int mid = (lo + hi) >>> 1;
+                                    if (w[stack[top - mid]] >= threshold) {
+                                        hi = mid;
+                                    } else {
+                                        lo = mid + 1;
+                                    }
+                                }
+                                ret[line.obsRow[o]][line.obsCol[o]] = lo <= top
+                                        ? line.distance(i, stack[top - lo])
+                                        : -line.distance(i, n - 1);
+                                o--;
+                            }
+                            if (Double.isNaN(z[i])) {
+                                continue;
+                            }
+                            w[i] = z[i] - rise * i;
+                            while (top >= 0 && w[stack[top]] <= w[i]) {
+                                top--;
+                            }
+                            stack[++top] = i;
+                        }
+                    }
+                };
+            }
+        }, listener);
+        return completed ? ret : null;
+    }
+
+    /**
+     * Calculates the directional relief of each cell, i.e. the mean elevation
+     * of the terrain along the azimuth less the elevation of the cell. Cells
+     * with no terrain ahead of them have a relief of zero.
+     *
+     * @param azimuth The azimuth, in degrees clockwise from north.
+     * @param maxDist The distance along the azimuth over which the mean is
+     * taken, or infinity.
+     * @param listener Receives progress, or null.
+     * @return The directional relief, or null if the sweep was cancelled.
+     */
+    public double[][] getDirectionalRelief(double azimuth, final double maxDist,
+            ProgressListener listener) {
+        final double[][] ret = createOutput();
+        boolean completed = sweep(azimuth, new LineProcessorFactory() {
+            @Override
+            public LineProcessor create() {
+                return new LineProcessor() {
+                    // the totals of the profile from each step to the end.
+                    double[] sum = new double[0];
+                    int[] count = new int[0];
+
+                    @Override
+                    public void process(Line line) {
+                        double[] z = line.z;
+                        int n = line.n;
+                        int window = maxSteps(maxDist, line.step, n);
+                        if (sum.length < n + 1) {
+                            sum = new double[n + 1];
+                            count = new int[n + 1];
+                        }
+                        sum[n] = 0;
+                        count[n] = 0;
+                        for (int i = n - 1; i >= 0; i--) {
+                            sum[i] = sum[i + 1];
+                            count[i] = count[i + 1];
+                            if (!Double.isNaN(z[i])) {
+                                sum[i] += z[i];
+                                count[i]++;
+                            }
+                        }
+                        for (int o = 0; o < line.numObs; o++) {
+                            int i = line.obsStep[o];
+                            int end = Math.min(n, i + window + 1);
+                            int num = count[i + 1] - count[end];
+                            ret[line.obsRow[o]][line.obsCol[o]] = num > 0
+                                    ? (sum[i + 1] - sum[end]) / num - line.obsZ[o] : 0;
+                        }
+                    }
+                };
+            }
+        }, listener);
+        return completed ? ret : null;
+    }
+
+    private static int maxSteps(double maxDist, double step, int n) {
+        if (Double.isInfinite(maxDist) || maxDist / step >= n) {
+            return n;
+        }
+        return (int) Math.floor(maxDist / step);
+    }
+
+    private double[][] createOutput() {
+        double[][] ret = new double[rows][cols];
+        for (double[] row : ret) {
+            Arrays.fill(row, noData);
+        }
+        return ret;
+    }
+
+    /**
+     * Covers the grid with scan lines along an azimuth and passes each line
+     * to a processor. At step k of the major axis, scan line j lies at
+     * j / LINES_PER_CELL + k * t along the minor axis, where t is the slope
+     * of the azimuth relative to the major axis.
+     */
+    private boolean sweep(double azimuth, final LineProcessorFactory factory,
+            ProgressListener listener) {
+        double dc = Math.sin(Math.toRadians(azimuth));
+        double dr = -Math.cos(Math.toRadians(azimuth));
+        final boolean colsMajor = Math.abs(dc) >= Math.abs(dr);
+        final int major = colsMajor ? cols : rows;
+        final int minor = colsMajor ? rows : cols;
+        final boolean forward = colsMajor ? dc > 0 : dr > 0;
+        final double t = colsMajor ? dr / Math.abs(dc) : dc / Math.abs(dr);
+        final double step = colsMajor ? Math.hypot(cellSizeX, t * cellSizeY)
+                : Math.hypot(cellSizeY, t * cellSizeX);
+        double shift = (major - 1) * t;
+        final int firstLine = (int) Math.floor(LINES_PER_CELL * (-0.5 - Math.max(0, shift))) - 1;
+        int lastLine = (int) Math.ceil(LINES_PER_CELL * (minor - 0.5 - Math.min(0, shift))) + 1;
+        int numLines = lastLine - firstLine + 1;
+
+        int numProcessors = Parallel.getPluginProcessors();
+        int numChunks = Math.min(numLines, 16 * numProcessors);
+        final ArrayList<Partition> chunks = Parallel.create(0, numLines, numChunks);
+        final boolean[] done = new boolean[chunks.size()];
+        for (int first = 0; first < chunks.size(); first += numProcessors) {
+            ArrayList<Integer> tasks = new ArrayList<>();
+            for (int i = first; i < Math.min(chunks.size(), first + numProcessors); i++) {
+                tasks.add(i);
+            }
+            Parallel.ForEach(tasks, new LoopBody<Integer>() {
+                @Override
+                public void run(Integer i) {
+                    Partition p = chunks.get(i);
+                    LineProcessor processor = factory.create();
+                    Line line = new Line(major);
+                    line.step = step;
+                    for (int j = firstLine + p.start; j < firstLine + p.end; j++) {
+                        double offset = (double) j / LINES_PER_CELL;
+                        int k = firstStep(offset, t, major, minor);
+                        line.n = 0;
+                        line.numObs = 0;
+                        for (; k < major; k++) {
+                            double y = offset + k * t;
+                            if (y < -0.5 || y >= minor - 0.5) {
+                                break;
+                            }
+                            int a = forward ? k : major - 1 - k;
+                            int m = (int) Math.floor(y + 0.5);
+                            double zm = getValue(colsMajor, a, m);
+                            int other = y >= m ? m + 1 : m - 1;
+                            double zo = other >= 0 && other < minor
+                                    ? getValue(colsMajor, a, other) : Double.NaN;
+                            double z = zm;
+                            if (!Double.isNaN(zm) && !Double.isNaN(zo)) {
+                                z = zm + Math.abs(y - m) * (zo - zm);
+                            }
+                            // cell m is an observer on the line nearest its centre.
+                            if (!Double.isNaN(zm)
+                                    && (int) Math.floor(LINES_PER_CELL * (m - k * t) + 0.5) == j) {
+                                int o = line.numObs++;
+                                line.obsStep[o] = line.n;
+                                line.obsRow[o] = colsMajor ? m : a;
+                                line.obsCol[o] = colsMajor ? a : m;
+                                line.obsZ[o] = zm;
+                            }
+                            line.z[line.n++] = z;
+                        }
+                        if (line.numObs > 0) {
+                            processor.process(line);
+                        }
+                    }
+                    done[i] = true;
+                }
+            });
+            if (listener != null && !listener.progress((int) (100L * Math.min(chunks.size(),
+                    first + numProcessors) / chunks.size()))) {
+                return false;
+            }
+        }
+        for (boolean b : done) {
+            if (!b) {
+                throw new IllegalStateException("The sweep could not be completed.");
+            }
+        }
+        return true;
+    }
+
+    private double getValue(boolean colsMajor, int a, int m) {
+        return colsMajor ? data[m][a] : data[a][m];
+    }
+
+    /**
+     * Finds the first step at which a scan line enters the grid, i.e. lies
+     * within half a cell of it. The position of the line is monotonic in the
+     * step, so the step is found by a binary search.
+     */
+    private static int firstStep(double offset, double t, int major, int minor) {
+        int lo = 0;
+        int hi = major;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            double y = offset + mid * t;
+            if (t >= 0 ? y >= -0.5 : y < minor - 0.5) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+}
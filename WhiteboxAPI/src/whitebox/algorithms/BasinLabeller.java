@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.parallel.LoopBody;
+import whitebox.parallel.Parallel;
+import whitebox.parallel.Partition;
+
+/**
+ * Labels the catchments draining to a set of seed cells on a D8 flow pointer
+ * grid. This is the engine shared by the Watershed, Subbasins, Hillslopes,
+ * Isobasin and StrahlerOrderBasins tools.
+ *
+ * The pointer grid is held in memory as one byte per cell, containing the
+ * index (0-7) of the downslope neighbour, and is inverted into a second byte
+ * per cell whose bits record which of the eight neighbours flow into the
+ * cell. Seed cells are then labelled and every catchment is grown upslope
+ * from its seeds with a breadth-first search. Each cell has a single
+ * downslope neighbour and a search never enters another seed cell, so every
+ * cell is visited exactly once, by the search of the nearest seed downslope
+ * of it. The searches are therefore independent and are shared among the
+ * available processors.
+ *
+ * Cells that do not drain to a seed cell, and nodata cells of the pointer
+ * grid, are left unlabelled.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class BasinLabeller {
+
+    public static final byte NO_FLOW = -1;
+    public static final byte NO_DATA = -2;
+    private static final int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
+    private static final int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
+
+    private final int rows;
+    private final int cols;
+    private final byte[] flowDir;
+    private final byte[] inflow;
+    private final int[] labels;
+    private final ArrayList<Double> labelValues = new ArrayList<>();
+    private final HashMap<Double, Integer> labelIndex = new HashMap<>();
+    private long numInvalidPointers = 0;
+    private double unlabelledValue;
+
+    /**
+     * Reads a D8 or Rho8 flow pointer grid into memory.
+     *
+     * @param pointer The flow pointer raster, using the Whitebox base-2
+     * pointer encoding.
+     */
+    public BasinLabeller(final WhiteboxRaster pointer) {
+        rows = pointer.getNumberRows();
+        cols = pointer.getNumberColumns();
+        final double noData = pointer.getNoDataValue();
+        unlabelledValue = noData;
+        long numCells = (long) rows * cols;
+        if (numCells > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("The pointer grid is too large to be processed.");
+        }
+        flowDir = new byte[(int) numCells];
+        inflow = new byte[(int) numCells];
+        labels = new int[(int) numCells];
+        labelValues.add(unlabelledValue);
+
+        ArrayList<Partition> stripes = Parallel.create(0, rows);
+        final AtomicLong invalid = new AtomicLong();
+        Parallel.ForEach(stripes, new LoopBody<Partition>() {
+            @Override
+            public void run(Partition p) {
+                long n = 0;
+                for (int row = p.start; row < p.end; row++) {
+                    double[] data = pointer.getRowValues(row);
+                    int offset = row * cols;
+                    for (int col = 0; col < cols; col++) {
+                        byte d = decodePointer(data[col], noData);
+                        if (d == NO_FLOW && data[col] > 0) {
+                            n++;
+                        }
+                        flowDir[offset + col] = d;
+                    }
+                }
+                invalid.addAndGet(n);
+            }
+        });
+        numInvalidPointers = invalid.get();
+
+        // invert the pointers; bit k of a cell's inflow byte is set if its
+        // neighbour in direction k flows into it.
+        Parallel.ForEach(stripes, new LoopBody<Partition>() {
+            @Override
+            public void run(Partition p) {
+                for (int row = p.start; row < p.end; row++) {
+                    for (int col = 0; col < cols; col++) {
+                        int mask = 0;
+                        for (int k = 0; k < 8; k++) {
+                            int r = row + dY[k];
+                            int c = col + dX[k];
+                            if (r >= 0 && r < rows && c >= 0 && c < cols
+                                    && flowDir[r * cols + c] == ((k + 4) & 7)) {
+                                mask |= 1 << k;
+                            }
+                        }
+                        inflow[row * cols + col] = (byte) mask;
+                    }
+                }
+            }
+        });
+    }
+
+    static byte decodePointer(double value, double noData) {
+        if (value == noData) {
+            return NO_DATA;
+        }
+        if (value > 0 && value <= 128 && value == (int) value) {
+            int v = (int) value;
+            if ((v & (v - 1)) == 0) {
+                return (byte) Integer.numberOfTrailingZeros(v);
+            }
+        }
+        return NO_FLOW;
+    }
+
+    public int getNumberRows() {
+        return rows;
+    }
+
+    public int getNumberColumns() {
+        return cols;
+    }
+
+    /**
+     * The number of cells with a positive pointer value that is not one of
+     * the eight valid D8 directions. These cells are treated as having no
+     * downslope neighbour.
+     *
+     * @return The number of invalid pointer values.
+     */
+    public long getNumberOfInvalidPointers() {
+        return numInvalidPointers;
+    }
+
+    /**
+     * Retrieves the flow direction of a cell.
+     *
+     * @param row The zero-based row number.
+     * @param col The zero-based column number.
+     * @return The direction index (0-7) of the downslope neighbour, NO_FLOW
+     * for pits and cells outside of the grid, or NO_DATA.
+     */
+    public int getFlowDirection(int row, int col) {
+        if (row < 0 || row >= rows || col < 0 || col >= cols) {
+            return NO_FLOW;
+        }
+        return flowDir[row * cols + col];
+    }
+
+    public boolean isNoData(int row, int col) {
+        return getFlowDirection(row, col) == NO_DATA;
+    }
+
+    /**
+     * Determines whether the neighbour of a cell in the specified direction
+     * flows into the cell.
+     *
+     * @param row The zero-based row number.
+     * @param col The zero-based column number.
+     * @param direction The direction index (0-7) of the neighbour.
+     * @return true if the neighbour drains to the cell.
+     */
+    public boolean isInflowingNeighbour(int row, int col, int direction) {
+        if (row < 0 || row >= rows || col < 0 || col >= cols) {
+            return false;
+        }
+        return (inflow[row * cols + col] & (1 << direction)) != 0;
+    }
+
+    /**
+     * The number of neighbours that flow into a cell.
+     *
+     * @param row The zero-based row number.
+     * @param col The zero-based column number.
+     * @return The number of inflowing neighbours.
+     */
+    public int getNumberOfInflowingNeighbours(int row, int col) {
+        if (row < 0 || row >= rows || col < 0 || col >= cols) {
+            return 0;
+        }
+        return Integer.bitCount(inflow[row * cols + col] & 0xFF);
+    }
+
+    public double getUnlabelledValue() {
+        return unlabelledValue;
+    }
+
+    /**
+     * Sets the value returned for cells that do not drain to any seed. The
+     * default is the nodata value of the pointer grid.
+     *
+     * @param value The value for unlabelled cells.
+     */
+    public void setUnlabelledValue(double value) {
+        unlabelledValue = value;
+        labelValues.set(0, value);
+    }
+
+    /**
+     * Labels a seed cell, e.g. an outlet. Seeds keep their value and are
+     * never overwritten by the catchments of other seeds. Cells outside of
+     * the grid are ignored.
+     *
+     * @param row The zero-based row number.
+     * @param col The zero-based column number.
+     * @param value The label value.
+     */
+    public void setSeed(int row, int col, double value) {
+        if (row < 0 || row >= rows || col < 0 || col >= cols) {
+            return;
+        }
+        Integer index = labelIndex.get(value);
+        if (index == null) {
+            index = labelValues.size();
+            labelValues.add(value);
+            labelIndex.put(value, index);
+        }
+        labels[row * cols + col] = index;
+    }
+
+    /**
+     * Labels every cell of a raster that is neither nodata nor equal to the
+     * background value as a seed.
+     *
+     * @param seeds The seed raster. It must have the same dimensions as the
+     * pointer grid.
+     * @param background Cells with this value are not seeds.
+     */
+    public void setSeeds(WhiteboxRaster seeds, double background) {
+        double noData = seeds.getNoDataValue();
+        for (int row = 0; row < rows; row++) {
+            double[] data = seeds.getRowValues(row);
+            for (int col = 0; col < cols; col++) {
+                if (data[col] != background && data[col] != noData) {
+                    setSeed(row, col, data[col]);
+                }
+            }
+        }
+    }
+
+    public boolean isLabelled(int row, int col) {
+        if (row < 0 || row >= rows || col < 0 || col >= cols) {
+            return false;
+        }
+        return labels[row * cols + col] != 0;
+    }
+
+    /**
+     * Retrieves the label of a cell.
+     *
+     * @param row The zero-based row number.
+     * @param col The zero-based column number.
+     * @return The label value, or the unlabelled value.
+     */
+    public double getValue(int row, int col) {
+        if (row < 0 || row >= rows || col < 0 || col >= cols) {
+            return unlabelledValue;
+        }
+        return labelValues.get(labels[row * cols + col]);
+    }
+
+    /**
+     * Retrieves the labels of a row.
+     *
+     * @param row The zero-based row number.
+     * @return An array of label values.
+     */
+    public double[] getRowValues(int row) {
+        double[] ret = new double[cols];
+        int offset = row * cols;
+        for (int col = 0; col < cols; col++) {
+            ret[col] = labelValues.get(labels[offset + col]);
+        }
+        return ret;
+    }
+
+    /**
+     * Grows the catchment of every seed cell upslope.
+     */
+    public void label() {
+        // gather the seed cells
+        int numSeeds = 0;
+        int[] seeds = new int[1024];
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] != 0) {
+                if (numSeeds == seeds.length) {
+                    seeds = Arrays.copyOf(seeds, seeds.length * 2);
+                }
+                seeds[numSeeds] = i;
+                numSeeds++;
+            }
+        }
+        if (numSeeds == 0) {
+            return;
+        }
+
+        // Catchment sizes vary widely, so the seeds are dealt out in many
+        // more partitions than there are processors to balance the load.
+        final int[] seedCells = seeds;
+        int numPartitions = Math.min(numSeeds, Parallel.getPluginProcessors() * 16);
+        Parallel.ForEach(Parallel.create(0, numSeeds, numPartitions), new LoopBody<Partition>() {
+            @Override
+            public void run(Partition p) {
+                int[] queue = new int[1024];
+                for (int s = p.start; s < p.end; s++) {
+                    int head = 0;
+                    int tail = 0;
+                    queue[tail++] = seedCells[s];
+                    while (head < tail) {
+                        int cell = queue[head++];
+                        int mask = inflow[cell] & 0xFF;
+                        if (mask == 0) {
+                            continue;
+                        }
+                        int lbl = labels[cell];
+                        int row = cell / cols;
+                        int col = cell - row * cols;
+                        for (int k = 0; k < 8; k++) {
+                            if ((mask & (1 << k)) != 0) {
+                                int n = (row + dY[k]) * cols + col + dX[k];
+                                if (labels[n] == 0) {
+                                    labels[n] = lbl;
+                                    if (tail == queue.length) {
+                                        // compact the queue before growing it
+                                        if (head > queue.length / 2) {
+                                            System.arraycopy(queue, head, queue, 0, tail - head);
+                                            tail -= head;
+                                            head = 0;
+                                        } else {
+                                            queue = Arrays.copyOf(queue, queue.length * 2);
+                                        }
+                                    }
+                                    queue[tail++] = n;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the labels to a raster of the same dimensions as the pointer
+     * grid.
+     *
+     * @param output The output raster.
+     */
+    public void writeOutput(WhiteboxRaster output) {
+        for (int row = 0; row < rows; row++) {
+            output.setRowValues(row, getRowValues(row));
+        }
+    }
+}
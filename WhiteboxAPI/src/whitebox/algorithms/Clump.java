@@ -16,31 +16,57 @@
  */
 package whitebox.algorithms;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.parallel.LoopBody;
+import whitebox.parallel.Parallel;
+import whitebox.parallel.Partition;
 
 /**
  * This algorithm takes an input raster of categorical data (e.g. a land-use
  * image) and assigns a unique identifier value to each contiguous group of
  * same-valued grid cells (i.e. region).
  *
+ * Patches are labelled using a two-pass union-find connected-component
+ * algorithm. The first pass labels each stripe of rows independently and in
+ * parallel, recording label equivalences in a shared union-find forest; the
+ * equivalences across stripe boundaries are merged afterwards and the final
+ * pass assigns compact patch identifiers in raster-scan order. Unlike the
+ * earlier recursive flood-fill, the stack depth does not depend on patch size.
+ * Patch areas and bounding boxes are gathered as a by-product of the labelling
+ * and are available after calling either run() or label().
+ *
  * @author johnlindsay
  */
 public class Clump {
 
+    /**
+     * Receives the progress of a labelling.
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param progress The percentage of the work that is complete.
+         * @return false to cancel the labelling.
+         */
+        boolean progress(int progress);
+    }
+
     double noData = -32768;
     WhiteboxRaster image;
     WhiteboxRaster output;
-    double currentPatchNumber = 0;
-    double currentImageValue = 0;
-    int maxDepth = 1000;
-    int depth = 0;
-    int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
-    int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
-    int numScanCells = 8;
     boolean blnIncludeDiagNeighbour = true;
     boolean blnTreatZerosAsBackground = false;
     String outputHeader = "";
+    int numPatches = 0;
+    long[] patchArea;
+    int[] patchMinRow;
+    int[] patchMaxRow;
+    int[] patchMinCol;
+    int[] patchMaxCol;
+    double[] patchValue;
 
     public Clump(String inputHeaderFile) {
         this.image = new WhiteboxRaster(inputHeaderFile, "r");
@@ -53,22 +79,12 @@ public class Clump {
     public Clump(WhiteboxRaster inputImage, boolean includeDiagonalNeighbours) {
         this.image = inputImage;
         this.blnIncludeDiagNeighbour = includeDiagonalNeighbours;
-
-        if (!blnIncludeDiagNeighbour) {
-            dX = new int[]{0, 1, 0, -1};
-            dY = new int[]{-1, 0, 1, 0};
-        }
     }
 
     public Clump(WhiteboxRaster inputImage, boolean includeDiagonalNeighbours,
             boolean treatZerosAsBackground) {
         this.image = inputImage;
         this.blnIncludeDiagNeighbour = includeDiagonalNeighbours;
-
-        if (!blnIncludeDiagNeighbour) {
-            dX = new int[]{0, 1, 0, -1};
-            dY = new int[]{-1, 0, 1, 0};
-        }
         this.blnTreatZerosAsBackground = treatZerosAsBackground;
     }
 
@@ -82,178 +98,360 @@ public class Clump {
 
     public void setIncludeDiagonalNeighbours(boolean value) {
         this.blnIncludeDiagNeighbour = value;
+    }
 
-        if (!blnIncludeDiagNeighbour) {
-            dX = new int[]{0, 1, 0, -1};
-            dY = new int[]{-1, 0, 1, 0};
-        }
+    public void setTreatZerosAsBackground(boolean value) {
+        this.blnTreatZerosAsBackground = value;
+    }
+
+    /**
+     * The number of patches identified by the most recent labelling.
+     *
+     * @return The number of patches. Patch identifiers range from 1 to this
+     * value inclusive.
+     */
+    public int getNumberOfPatches() {
+        return numPatches;
+    }
+
+    /**
+     * Retrieves the area of each patch, in grid cells.
+     *
+     * @return An array indexed by patch identifier; element 0 is unused.
+     */
+    public long[] getPatchAreas() {
+        return patchArea;
+    }
+
+    /**
+     * Retrieves the bounding box of a patch in grid coordinates.
+     *
+     * @param patchID The patch identifier.
+     * @return An array containing the minimum row, minimum column, maximum row
+     * and maximum column (all inclusive) of the patch.
+     */
+    public int[] getPatchBoundingBox(int patchID) {
+        return new int[]{patchMinRow[patchID], patchMinCol[patchID],
+            patchMaxRow[patchID], patchMaxCol[patchID]};
+    }
+
+    /**
+     * Retrieves the value in the input image of the cells belonging to each
+     * patch.
+     *
+     * @return An array indexed by patch identifier; element 0 is unused.
+     */
+    public double[] getPatchValues() {
+        return patchValue;
     }
 
     public WhiteboxRaster run() throws Exception {
-        int row, col, x, y, i;
-        boolean blnFoundNeighbour;
-        double maxPatchValue = 1;
-        numScanCells = dY.length;
+        return run(null);
+    }
+
+    /**
+     * Labels the patches of the input image and writes them to the output
+     * raster.
+     *
+     * @param listener Receives progress, or null.
+     * @return The output raster, or null if the run was cancelled, in which
+     * case the partial output is deleted.
+     */
+    public WhiteboxRaster run(final ProgressListener listener) throws Exception {
+        int row, col;
         int rows = image.getNumberRows();
         int cols = image.getNumberColumns();
         noData = image.getNoDataValue();
 
-        double initialValue = -1;
+        // the labelling accounts for the first half of the progress
+        int[][] labels = label(listener == null ? null : new ProgressListener() {
+            @Override
+            public boolean progress(int progress) {
+                return listener.progress(progress / 2);
+            }
+        });
+        if (labels == null) {
+            return null;
+        }
+
         if (outputHeader.isEmpty()) {
             outputHeader = image.getHeaderFile().replace(".dep", "_clumped.dep");
         }
-        output = new WhiteboxRaster(outputHeader, "rw", image.getHeaderFile(), WhiteboxRaster.DataType.FLOAT, initialValue);
+        output = new WhiteboxRaster(outputHeader, "rw", image.getHeaderFile(), WhiteboxRaster.DataType.FLOAT, noData);
         output.setDataScale(WhiteboxRaster.DataScale.CATEGORICAL);
         output.setPreferredPalette("qual.pal");
 
-        if (blnTreatZerosAsBackground) {
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    if (image.getValue(row, col) == 0) {
-                        output.setValue(row, col, 0);
-                    }
+        double[] data;
+        double[] outputData = new double[cols];
+        for (row = 0; row < rows; row++) {
+            data = image.getRowValues(row);
+            for (col = 0; col < cols; col++) {
+                if (data[col] != noData) {
+                    outputData[col] = labels[row][col];
+                } else {
+                    outputData[col] = noData;
                 }
             }
-            if (output.getValue(0, 0) == -1) {
-                output.setValue(0, 0, maxPatchValue);
-                // recursively scan all connected cells of equal value in Image
-                depth = 0;
-                ScanConnectedCells(0, 0, image.getValue(0, 0), initialValue, maxPatchValue);
+            output.setRowValues(row, outputData);
+            if (listener != null && !listener.progress(50 + (int) (50L * (row + 1) / rows))) {
+                output.isTemporaryFile = true;
+                output.close();
+                return null;
             }
-        } else {
-            output.setValue(0, 0, maxPatchValue);
-            // recursively scan all connected cells of equal value in Image
-            depth = 0;
-            ScanConnectedCells(0, 0, image.getValue(0, 0), initialValue, maxPatchValue);
         }
 
-        double patchValue = 0;
-        double neighbourPatchValue = 0;
-        double newPatchValue = 0;
-        double imageValue = 0;
-        for (row = 0; row < rows; row++) {
-            for (col = 0; col < cols; col++) {
-                imageValue = image.getValue(row, col);
-                if (imageValue != noData) {
-                    patchValue = output.getValue(row, col);
-                    if (patchValue == initialValue) {
-                        // see if any neighbour has the same value in the input image
-                        blnFoundNeighbour = false;
-                        for (i = 0; i < numScanCells; i++) {
-                            x = col + dX[i];
-                            y = row + dY[i];
-                            neighbourPatchValue = output.getValue(y, x);
-                            if (neighbourPatchValue != initialValue
-                                    && image.getValue(y, x) == imageValue) {
-                                // cell is neighbouring a cell with the same value in image that
-                                // has already been assigned a patch value
-                                output.setValue(row, col, neighbourPatchValue);
-                                newPatchValue = neighbourPatchValue;
-                                blnFoundNeighbour = true;
-                                break;
-                            }
-                        }
-                        if (!blnFoundNeighbour) {
-                            // no neighbouring cell has the same value in Image and has 
-                            // already been assigned a value. A new one is needed.
-                            maxPatchValue++;
-                            newPatchValue = maxPatchValue;
-                            output.setValue(row, col, newPatchValue);
-                        }
+        output.addMetadataEntry("Created by the "
+                + "Clump algorithm.");
+        output.addMetadataEntry("Created on " + new Date());
 
-                        // recursively scan all connected cells of equal value in Image
-                        depth = 0;
-                        ScanConnectedCells(row, col, imageValue, initialValue, newPatchValue);
-                    }
-                } else {
-                    output.setValue(row, col, noData);
+        output.findMinAndMaxVals();
+        output.writeHeaderFile();
+        return output;
+    }
+
+    /**
+     * Labels the patches of the input image in memory without creating an
+     * output raster. This is useful for tools that derive patch statistics and
+     * have no need for the clumped image itself.
+     *
+     * @return An array of patch identifiers, indexed by row and column. Cells
+     * that are nodata, or background when zeros are treated as background, are
+     * assigned zero.
+     */
+    public int[][] label() {
+        return label(null);
+    }
+
+    /**
+     * Labels the patches of the input image in memory without creating an
+     * output raster.
+     *
+     * @param listener Receives progress, or null.
+     * @return An array of patch identifiers, as for label(), or null if the
+     * labelling was cancelled.
+     */
+    public int[][] label(ProgressListener listener) {
+        final int rows = image.getNumberRows();
+        final int cols = image.getNumberColumns();
+        noData = image.getNoDataValue();
+        long numCells = (long) rows * cols;
+        if (numCells + 1 > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("The image is too large to be processed.");
+        }
+
+        final double[][] data = new double[rows][];
+        final int[][] labels = new int[rows][cols];
+        // Provisional labels are the one-based linear index of the cell that 
+        // created them, so every stripe draws from a disjoint label range and
+        // parent[x] <= x holds throughout.
+        final int[] parent = new int[(int) numCells + 1];
+
+        // The first pass reads the image, so the stripes are dealt out in
+        // batches of one per processor to report progress between them.
+        int numProcessors = Parallel.getPluginProcessors();
+        final ArrayList<Partition> stripes = Parallel.create(0, rows, numProcessors * 8);
+        final boolean[] done = new boolean[stripes.size()];
+
+        // first pass; label each stripe independently
+        for (int first = 0; first < stripes.size(); first += numProcessors) {
+            int last = Math.min(stripes.size(), first + numProcessors);
+            ArrayList<Integer> tasks = new ArrayList<>();
+            for (int i = first; i < last; i++) {
+                tasks.add(i);
+            }
+            Parallel.ForEach(tasks, new LoopBody<Integer>() {
+                @Override
+                public void run(Integer i) {
+                    labelStripe(stripes.get(i), data, labels, parent, cols);
+                    done[i] = true;
                 }
+            });
+            if (listener != null && !listener.progress((int) (90L * last / stripes.size()))) {
+                return null;
             }
         }
+        checkComplete(done);
 
-        // find all cells with neighbouring cells that have the same value in
-        // the input image but different patch values in the output image.
-        // Recursively scan them to change the larger patch ID to the lower value.
-        // Iterate this process until there are no further changes to the image.
-        boolean somethingDone;
-        double[] reclass = new double[(int) maxPatchValue + 1];
-        // this array is used to keep track of the eliminated patches.
-        do {
-            somethingDone = false;
-            for (row = 0; row < rows; row++) {
-                for (col = 0; col < cols; col++) {
-                    imageValue = image.getValue(row, col);
-                    if (imageValue != noData) {
-                        patchValue = output.getValue(row, col);
-                        for (i = 0; i < numScanCells; i++) {
-                            x = col + dX[i];
-                            y = row + dY[i];
-                            neighbourPatchValue = output.getValue(y, x);
-                            if (neighbourPatchValue != patchValue
-                                    && image.getValue(y, x) == imageValue) {
-                                // The two patches are equivalent. Find the 
-                                // lower valued cell and initiate a recursive
-                                // scan from there.
-                                somethingDone = true;
-                                if (patchValue < neighbourPatchValue) {
-                                    reclass[(int) neighbourPatchValue] = -1;
-                                    output.setValue(y, x, patchValue);
-                                    ScanConnectedCells(y, x, imageValue, neighbourPatchValue, patchValue);
-                                } else {
-                                    reclass[(int) patchValue] = -1;
-                                    output.setValue(row, col, neighbourPatchValue);
-                                    ScanConnectedCells(row, col, imageValue, patchValue, neighbourPatchValue);
-                                    patchValue = neighbourPatchValue;
-                                }
-
-                            }
-                        }
+        // merge the equivalences along the stripe boundaries
+        for (int s = 1; s < stripes.size(); s++) {
+            int row = stripes.get(s).start;
+            for (int col = 0; col < cols; col++) {
+                double z = data[row][col];
+                if (isBackground(z)) {
+                    continue;
+                }
+                int lbl = labels[row][col];
+                if (data[row - 1][col] == z) {
+                    merge(parent, lbl, labels[row - 1][col]);
+                }
+                if (blnIncludeDiagNeighbour) {
+                    if (col > 0 && data[row - 1][col - 1] == z) {
+                        merge(parent, lbl, labels[row - 1][col - 1]);
+                    }
+                    if (col < cols - 1 && data[row - 1][col + 1] == z) {
+                        merge(parent, lbl, labels[row - 1][col + 1]);
                     }
                 }
             }
-        } while (somethingDone);
+        }
 
-        i = 0;
-        for (int a = 0; a < maxPatchValue + 1; a++) {
-            if (reclass[a] != -1) {
-                reclass[a] = i;
-                i++;
+        // Resolve the forest into compact patch identifiers. Because each 
+        // parent precedes its children, a single forward pass suffices and the
+        // patches are numbered in the order that they are first encountered.
+        int n = 0;
+        for (int i = 1; i < parent.length; i++) {
+            int p = parent[i];
+            if (p == i) {
+                n++;
+                parent[i] = n;
+            } else if (p > 0) {
+                parent[i] = parent[p];
             }
         }
+        numPatches = n;
 
-        for (row = 0; row < rows; row++) {
-            for (col = 0; col < cols; col++) {
-                patchValue = output.getValue(row, col);
-                if (patchValue != noData) {
-                    output.setValue(row, col, reclass[(int) patchValue]);
+        // final pass; relabel each stripe with its compact identifiers
+        Arrays.fill(done, false);
+        final ArrayList<Integer> stripeNumbers = new ArrayList<>();
+        for (int i = 0; i < stripes.size(); i++) {
+            stripeNumbers.add(i);
+        }
+        Parallel.ForEach(stripeNumbers, new LoopBody<Integer>() {
+            @Override
+            public void run(Integer i) {
+                Partition p = stripes.get(i);
+                for (int row = p.start; row < p.end; row++) {
+                    int[] lbls = labels[row];
+                    for (int col = 0; col < cols; col++) {
+                        if (lbls[col] > 0) {
+                            lbls[col] = parent[lbls[col]];
+                        }
+                    }
+                }
+                done[i] = true;
+            }
+        });
+        checkComplete(done);
+
+        patchArea = new long[n + 1];
+        patchMinRow = new int[n + 1];
+        patchMaxRow = new int[n + 1];
+        patchMinCol = new int[n + 1];
+        patchMaxCol = new int[n + 1];
+        patchValue = new double[n + 1];
+        for (int row = 0; row < rows; row++) {
+            int[] lbls = labels[row];
+            for (int col = 0; col < cols; col++) {
+                int id = lbls[col];
+                if (id > 0) {
+                    if (patchArea[id] == 0) {
+                        // patches are numbered in scan order, so this is the
+                        // first cell of the patch.
+                        patchValue[id] = data[row][col];
+                        patchMinRow[id] = row;
+                        patchMinCol[id] = col;
+                        patchMaxCol[id] = col;
+                    } else {
+                        if (col < patchMinCol[id]) {
+                            patchMinCol[id] = col;
+                        }
+                        if (col > patchMaxCol[id]) {
+                            patchMaxCol[id] = col;
+                        }
+                    }
+                    patchMaxRow[id] = row;
+                    patchArea[id]++;
                 }
             }
         }
 
-        output.addMetadataEntry("Created by the "
-                + "Clump algorithm.");
-        output.addMetadataEntry("Created on " + new Date());
+        if (listener != null && !listener.progress(100)) {
+            return null;
+        }
+        return labels;
+    }
 
-        output.flush();
-        output.writeHeaderFile();
-        return output;
+    private static void checkComplete(boolean[] done) {
+        for (boolean b : done) {
+            if (!b) {
+                throw new IllegalStateException("The image could not be labelled.");
+            }
+        }
     }
 
-    private void ScanConnectedCells(int row, int col, double imageValue, double currentPatchValue, double newPatchValue) {
-        depth++;
-        int x, y;
-        if (depth < maxDepth) {
-            for (int c = 0; c < numScanCells; c++) {
-                x = col + dX[c];
-                y = row + dY[c];
-                if ((output.getValue(y, x) == currentPatchValue)
-                        && (image.getValue(y, x) == imageValue)) {
-                    // cell should be assigned the new patch value and has the same value in Image
-                    output.setValue(y, x, newPatchValue);
-                    ScanConnectedCells(y, x, imageValue, currentPatchValue, newPatchValue);
+    /*
+     * Labels a stripe of rows independently of its neighbours, reading its
+     * rows of the input image.
+     */
+    private void labelStripe(Partition p, double[][] data, int[][] labels,
+            int[] parent, int cols) {
+        for (int row = p.start; row < p.end; row++) {
+            data[row] = image.getRowValues(row);
+        }
+        for (int row = p.start; row < p.end; row++) {
+            boolean hasRowAbove = row > p.start;
+            for (int col = 0; col < cols; col++) {
+                double z = data[row][col];
+                if (isBackground(z)) {
+                    continue;
+                }
+                int lbl = 0;
+                if (col > 0 && data[row][col - 1] == z) {
+                    lbl = labels[row][col - 1];
+                }
+                if (hasRowAbove) {
+                    if (data[row - 1][col] == z) {
+                        lbl = merge(parent, lbl, labels[row - 1][col]);
+                    }
+                    if (blnIncludeDiagNeighbour) {
+                        if (col > 0 && data[row - 1][col - 1] == z) {
+                            lbl = merge(parent, lbl, labels[row - 1][col - 1]);
+                        }
+                        if (col < cols - 1 && data[row - 1][col + 1] == z) {
+                            lbl = merge(parent, lbl, labels[row - 1][col + 1]);
+                        }
+                    }
+                }
+                if (lbl == 0) {
+                    lbl = row * cols + col + 1;
+                    parent[lbl] = lbl;
                 }
+                labels[row][col] = lbl;
             }
         }
-        depth--;
+    }
+
+    private boolean isBackground(double z) {
+        return z == noData || (blnTreatZerosAsBackground && z == 0);
+    }
+
+    private static int find(int[] parent, int x) {
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+
+    /*
+     * Joins the trees containing labels a and b, making the lower-valued root
+     * the root of the combined tree. A label of zero denotes 'no label yet'.
+     */
+    private static int merge(int[] parent, int a, int b) {
+        if (a == 0) {
+            return find(parent, b);
+        }
+        if (b == 0) {
+            return find(parent, a);
+        }
+        int ra = find(parent, a);
+        int rb = find(parent, b);
+        if (ra < rb) {
+            parent[rb] = ra;
+            return ra;
+        } else {
+            parent[ra] = rb;
+            return rb;
+        }
     }
 }
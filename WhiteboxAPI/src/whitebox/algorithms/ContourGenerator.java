@@ -0,0 +1,495 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.parallel.LoopBody;
+import whitebox.parallel.Parallel;
+
+/**
+ * Traces contour lines through a raster using marching squares. This is the
+ * engine of the Contour tool.
+ *
+ * The squares of the marching-squares grid join the centres of four cells,
+ * and contour lines cross the sides of a square where they are linearly
+ * interpolated between the values of the two cells at its ends. Saddles are
+ * resolved using the average of the four cells. Squares with a nodata corner
+ * are skipped.
+ *
+ * The raster is divided into horizontal strips, which are read a row at a
+ * time and traced concurrently. Within a strip, the segments of each square
+ * are joined into lines by the sides they cross. Lines that reach the top or
+ * bottom of a strip are joined with those of the neighbouring strips as the
+ * strips are completed, from top to bottom, and every line is passed to the
+ * listener as soon as it is complete. Only the lines that cross the current
+ * strip boundary are held in memory between strips.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class ContourGenerator {
+
+    /**
+     * Receives the contour lines.
+     */
+    public interface ContourListener {
+
+        /**
+         * Receives a contour line. This method is called on the thread that
+         * is generating the contours.
+         *
+         * @param level The contour value.
+         * @param points The x and y coordinates of the vertices. The first
+         * and last vertices of a closed contour are the same.
+         */
+        void contour(double level, double[][] points);
+
+        /**
+         * Reports progress.
+         *
+         * @param progress The percentage of the raster that is complete.
+         * @return false to cancel the operation.
+         */
+        boolean progress(int progress);
+    }
+
+    private static final int STRIP_HEIGHT = 64;
+
+    private final WhiteboxRaster raster;
+    private final int rows;
+    private final int cols;
+    private final double noData;
+    private final double interval;
+    private final double base;
+    private final double zConvFactor;
+    private final double west;
+    private final double north;
+    private final double cellSizeX;
+    private final double cellSizeY;
+    private final long numEdges;
+
+    /**
+     * @param raster The input raster.
+     * @param interval The contour interval, in z units after conversion.
+     * @param base The base contour; contours are traced at base + k *
+     * interval for each integer k.
+     * @param zConvFactor The factor by which raster values are multiplied.
+     */
+    public ContourGenerator(WhiteboxRaster raster, double interval, double base,
+            double zConvFactor) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("The contour interval must be greater than zero.");
+        }
+        this.raster = raster;
+        this.interval = interval;
+        this.base = base;
+        this.zConvFactor = zConvFactor;
+        rows = raster.getNumberRows();
+        cols = raster.getNumberColumns();
+        noData = raster.getNoDataValue();
+        west = raster.getWest();
+        north = raster.getNorth();
+        cellSizeX = raster.getCellSizeX();
+        cellSizeY = raster.getCellSizeY();
+        numEdges = 2L * rows * cols;
+    }
+
+    /**
+     * Traces the contours of the raster.
+     *
+     * @param listener Receives the contours and progress.
+     * @return false if the operation was cancelled.
+     */
+    public boolean generate(ContourListener listener) {
+        int numStrips = (rows - 2) / STRIP_HEIGHT + 1;
+        if (rows < 2 || cols < 2) {
+            return listener.progress(100);
+        }
+        Map<Long, Line> open = new HashMap<>();
+        int batchSize = Parallel.getPluginProcessors();
+        for (int first = 0; first < numStrips; first += batchSize) {
+            final int start = first;
+            int end = Math.min(numStrips, first + batchSize);
+            final Strip[] strips = new Strip[end - start];
+            ArrayList<Integer> stripNums = new ArrayList<>();
+            for (int s = start; s < end; s++) {
+                stripNums.add(s);
+            }
+            Parallel.ForEach(stripNums, new LoopBody<Integer>() {
+                @Override
+                public void run(Integer s) {
+                    strips[s - start] = traceStrip(s * STRIP_HEIGHT,
+                            Math.min(rows - 1, (s + 1) * STRIP_HEIGHT));
+                }
+            });
+
+            // join the lines of each strip with those of the strips above it
+            // and output the lines that are complete.
+            for (int s = 0; s < strips.length; s++) {
+                Strip strip = strips[s];
+                if (strip == null) {
+                    throw new IllegalStateException("Contour tracing failed for strip " + (start + s) + ".");
+                }
+                for (Line line : strip.complete) {
+                    output(line, listener);
+                }
+                List<Line> closed = new ArrayList<>();
+                for (Line line : strip.pending) {
+                    add(line, open, closed);
+                }
+                for (Line line : closed) {
+                    output(line, listener);
+                }
+                int seamRow = strip.bottomRow < rows - 1 ? strip.bottomRow : -1;
+                Set<Line> lines = Collections.newSetFromMap(new IdentityHashMap<Line, Boolean>());
+                lines.addAll(open.values());
+                for (Line line : lines) {
+                    if (!isOnSeam(line.headKey, seamRow) && !isOnSeam(line.tailKey, seamRow)) {
+                        open.remove(line.headKey);
+                        open.remove(line.tailKey);
+                        output(line, listener);
+                    }
+                }
+                strips[s] = null;
+            }
+            if (!listener.progress((int) (100L * end / numStrips))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void output(Line line, ContourListener listener) {
+        if (line.size() > 1) {
+            listener.contour(base + line.level * interval, line.toPoints());
+        }
+    }
+
+    /**
+     * Whether a crossing lies on the horizontal side between two cells of
+     * the specified row.
+     */
+    private boolean isOnSeam(long key, int row) {
+        if (row < 0) {
+            return false;
+        }
+        long edge = Math.floorMod(key, numEdges);
+        return (edge & 1) == 0 && (edge >> 1) / cols == row;
+    }
+
+    private long horizontalKey(long level, int row, int col) {
+        return level * numEdges + 2L * ((long) row * cols + col);
+    }
+
+    private long verticalKey(long level, int row, int col) {
+        return level * numEdges + 2L * ((long) row * cols + col) + 1;
+    }
+
+    /**
+     * Traces the squares between the cells of rows topRow to bottomRow.
+     */
+    private Strip traceStrip(int topRow, int bottomRow) {
+        Strip strip = new Strip(bottomRow);
+        Map<Long, Line> ends = new HashMap<>();
+        double[] upper = readRow(topRow);
+        double[] x = new double[4];
+        double[] y = new double[4];
+        long[] keys = new long[4];
+        boolean[] crossed = new boolean[4];
+        for (int row = topRow; row < bottomRow; row++) {
+            double[] lower = readRow(row + 1);
+            for (int col = 0; col < cols - 1; col++) {
+                double z0 = upper[col];
+                double z1 = upper[col + 1];
+                double z2 = lower[col];
+                double z3 = lower[col + 1];
+                if (Double.isNaN(z0) || Double.isNaN(z1) || Double.isNaN(z2) || Double.isNaN(z3)) {
+                    continue;
+                }
+                double zMin = Math.min(Math.min(z0, z1), Math.min(z2, z3));
+                double zMax = Math.max(Math.max(z0, z1), Math.max(z2, z3));
+                if (zMin == zMax) {
+                    continue;
+                }
+                // the range is widened by a level on each side so that
+                // rounding cannot drop a level that an adjacent square finds.
+                long kLo = (long) Math.floor((zMin - base) / interval);
+                long kHi = (long) Math.floor((zMax - base) / interval) + 1;
+                for (long k = kLo; k <= kHi; k++) {
+                    double level = base + k * interval;
+                    boolean a0 = z0 >= level;
+                    boolean a1 = z1 >= level;
+                    boolean a2 = z2 >= level;
+                    boolean a3 = z3 >= level;
+                    // the sides of the square are numbered 0 = top,
+                    // 1 = right, 2 = bottom and 3 = left.
+                    crossed[0] = a0 != a1;
+                    crossed[1] = a1 != a3;
+                    crossed[2] = a2 != a3;
+                    crossed[3] = a0 != a2;
+                    int numCrossed = 0;
+                    if (crossed[0]) {
+                        x[0] = col + (level - z0) / (z1 - z0);
+                        y[0] = row;
+                        keys[0] = horizontalKey(k, row, col);
+                        numCrossed++;
+                    }
+                    if (crossed[1]) {
+                        x[1] = col + 1;
+                        y[1] = row + (level - z1) / (z3 - z1);
+                        keys[1] = verticalKey(k, row, col + 1);
+                        numCrossed++;
+                    }
+                    if (crossed[2]) {
+                        x[2] = col + (level - z2) / (z3 - z2);
+                        y[2] = row + 1;
+                        keys[2] = horizontalKey(k, row + 1, col);
+                        numCrossed++;
+                    }
+                    if (crossed[3]) {
+                        x[3] = col;
+                        y[3] = row + (level - z0) / (z2 - z0);
+                        keys[3] = verticalKey(k, row, col);
+                        numCrossed++;
+                    }
+                    if (numCrossed == 2) {
+                        int s1 = -1, s2 = -1;
+                        for (int i = 0; i < 4; i++) {
+                            if (crossed[i]) {
+                                if (s1 < 0) {
+                                    s1 = i;
+                                } else {
+                                    s2 = i;
+                                }
+                            }
+                        }
+                        addSegment(k, x, y, keys, s1, s2, ends, strip.complete);
+                    } else if (numCrossed == 4) {
+                        // a saddle; if the centre is in the same class as
+                        // the top-left cell, the top-left and bottom-right
+                        // cells are connected.
+                        boolean centre = (z0 + z1 + z2 + z3) / 4 >= level;
+                        if (centre == a0) {
+                            addSegment(k, x, y, keys, 0, 1, ends, strip.complete);
+                            addSegment(k, x, y, keys, 2, 3, ends, strip.complete);
+                        } else {
+                            addSegment(k, x, y, keys, 0, 3, ends, strip.complete);
+                            addSegment(k, x, y, keys, 1, 2, ends, strip.complete);
+                        }
+                    }
+                }
+            }
+            upper = lower;
+        }
+
+        // lines with an end on the top or bottom of the strip are completed
+        // when the strips are joined.
+        int topSeam = topRow > 0 ? topRow : -1;
+        int bottomSeam = bottomRow < rows - 1 ? bottomRow : -1;
+        Set<Line> lines = Collections.newSetFromMap(new IdentityHashMap<Line, Boolean>());
+        lines.addAll(ends.values());
+        for (Line line : lines) {
+            if (isOnSeam(line.headKey, topSeam) || isOnSeam(line.tailKey, topSeam)
+                    || isOnSeam(line.headKey, bottomSeam) || isOnSeam(line.tailKey, bottomSeam)) {
+                strip.pending.add(line);
+            } else {
+                strip.complete.add(line);
+            }
+        }
+        return strip;
+    }
+
+    private double[] readRow(int row) {
+        double[] data = raster.getRowValues(row);
+        double[] ret = new double[cols];
+        for (int col = 0; col < cols; col++) {
+            ret[col] = data[col] != noData ? data[col] * zConvFactor : Double.NaN;
+        }
+        return ret;
+    }
+
+    private void addSegment(long level, double[] x, double[] y, long[] keys,
+            int s1, int s2, Map<Long, Line> ends, List<Line> closed) {
+        Line line = new Line(level);
+        line.addLast(west + (x[s1] + 0.5) * cellSizeX, north - (y[s1] + 0.5) * cellSizeY);
+        line.addLast(west + (x[s2] + 0.5) * cellSizeX, north - (y[s2] + 0.5) * cellSizeY);
+        line.headKey = keys[s1];
+        line.tailKey = keys[s2];
+        add(line, ends, closed);
+    }
+
+    /**
+     * Adds a line to a set of open lines, indexed by the keys of their ends,
+     * joining it to any lines that share its ends. Lines that become closed
+     * are removed and added to the closed list.
+     */
+    private static void add(Line line, Map<Long, Line> ends, List<Line> closed) {
+        long tailKey = line.tailKey;
+        Line other = ends.remove(line.headKey);
+        if (other != null) {
+            ends.remove(other.headKey == line.headKey ? other.tailKey : other.headKey);
+            line = join(line, other, line.headKey);
+        }
+        other = ends.remove(tailKey);
+        if (other != null) {
+            ends.remove(other.headKey == tailKey ? other.tailKey : other.headKey);
+            line = join(line, other, tailKey);
+        }
+        if (line.headKey == line.tailKey) {
+            closed.add(line);
+        } else {
+            ends.put(line.headKey, line);
+            ends.put(line.tailKey, line);
+        }
+    }
+
+    /**
+     * Joins two lines that share an end. The shorter line is added to the
+     * longer line, which is returned.
+     */
+    private static Line join(Line a, Line b, long key) {
+        Line longer = a.size() >= b.size() ? a : b;
+        Line shorter = longer == a ? b : a;
+        if (longer.tailKey == key) {
+            if (shorter.headKey != key) {
+                shorter.reverse();
+            }
+            for (int i = 0; i < shorter.size(); i++) {
+                longer.addLast(shorter.getX(i), shorter.getY(i));
+            }
+            longer.tailKey = shorter.tailKey;
+        } else {
+            if (shorter.tailKey != key) {
+                shorter.reverse();
+            }
+            for (int i = shorter.size() - 1; i >= 0; i--) {
+                longer.addFirst(shorter.getX(i), shorter.getY(i));
+            }
+            longer.headKey = shorter.headKey;
+        }
+        return longer;
+    }
+
+    private static final class Strip {
+
+        final int bottomRow;
+        final List<Line> complete = new ArrayList<>();
+        final List<Line> pending = new ArrayList<>();
+
+        Strip(int bottomRow) {
+            this.bottomRow = bottomRow;
+        }
+    }
+
+    /**
+     * A contour line under construction, stored as a double-ended array of
+     * vertices. Repeated vertices are dropped as they are added.
+     */
+    private static final class Line {
+
+        final long level;
+        long headKey;
+        long tailKey;
+        private double[] xs = new double[8];
+        private double[] ys = new double[8];
+        private int start = 4;
+        private int end = 4;
+
+        Line(long level) {
+            this.level = level;
+        }
+
+        int size() {
+            return end - start;
+        }
+
+        double getX(int i) {
+            return xs[start + i];
+        }
+
+        double getY(int i) {
+            return ys[start + i];
+        }
+
+        void addLast(double x, double y) {
+            if (end > start && xs[end - 1] == x && ys[end - 1] == y) {
+                return;
+            }
+            if (end == xs.length) {
+                grow();
+            }
+            xs[end] = x;
+            ys[end] = y;
+            end++;
+        }
+
+        void addFirst(double x, double y) {
+            if (end > start && xs[start] == x && ys[start] == y) {
+                return;
+            }
+            if (start == 0) {
+                grow();
+            }
+            start--;
+            xs[start] = x;
+            ys[start] = y;
+        }
+
+        private void grow() {
+            int n = size();
+            int capacity = 2 * n + 8;
+            double[] newXs = new double[capacity];
+            double[] newYs = new double[capacity];
+            int newStart = (capacity - n) / 2;
+            System.arraycopy(xs, start, newXs, newStart, n);
+            System.arraycopy(ys, start, newYs, newStart, n);
+            xs = newXs;
+            ys = newYs;
+            start = newStart;
+            end = newStart + n;
+        }
+
+        void reverse() {
+            for (int i = start, j = end - 1; i < j; i++, j--) {
+                double t = xs[i];
+                xs[i] = xs[j];
+                xs[j] = t;
+                t = ys[i];
+                ys[i] = ys[j];
+                ys[j] = t;
+            }
+            long k = headKey;
+            headKey = tailKey;
+            tailKey = k;
+        }
+
+        double[][] toPoints() {
+            double[][] ret = new double[size()][2];
+            for (int i = 0; i < ret.length; i++) {
+                ret[i][0] = xs[start + i];
+                ret[i][1] = ys[start + i];
+            }
+            return ret;
+        }
+    }
+}
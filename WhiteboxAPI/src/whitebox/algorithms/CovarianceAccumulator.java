@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import java.util.List;
+
+/**
+ * Accumulates the means and the covariance matrix of a set of bands in a
+ * single pass, as used by the principal component analysis tool.
+ *
+ * Each pixel updates the running means and the sums of the products of the
+ * deviations from them (Welford, 1962), which, unlike sums of squares and
+ * products, does not lose precision to cancellation when the means are large
+ * relative to the variances. Partial results accumulated over separate parts
+ * of an image are merged with the pairwise update of Chan et al. (1979), so
+ * that the pass can be shared among processors.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class CovarianceAccumulator {
+
+    private final int bands;
+    private long n = 0;
+    private final double[] means;
+    // the upper triangle of the sums of products of deviations, by row.
+    private final double[] comoments;
+    private final double[] delta;
+
+    /**
+     * @param bands The number of bands.
+     */
+    public CovarianceAccumulator(int bands) {
+        this.bands = bands;
+        means = new double[bands];
+        comoments = new double[bands * (bands + 1) / 2];
+        delta = new double[bands];
+    }
+
+    /**
+     * Accumulates the covariance of every band of an image in one pass.
+     * Pixels that are nodata in any band are excluded.
+     *
+     * @param image The image.
+     * @return The accumulated statistics.
+     */
+    public static CovarianceAccumulator accumulate(MultibandImage image) {
+        final int bands = image.getNumberBands();
+        List<CovarianceAccumulator> partials = image.process(
+                new MultibandImage.BlockProcessor<CovarianceAccumulator>() {
+            @Override
+            public CovarianceAccumulator createResult() {
+                return new CovarianceAccumulator(bands);
+            }
+
+            @Override
+            public void process(MultibandImage.Block block, CovarianceAccumulator result) {
+                float[] data = block.getData();
+                for (int p = 0; p < block.getNumberPixels(); p++) {
+                    if (!block.isNoData(p)) {
+                        result.add(data, block.getOffset() + p * bands);
+                    }
+                }
+            }
+        });
+        CovarianceAccumulator ret = new CovarianceAccumulator(bands);
+        for (CovarianceAccumulator partial : partials) {
+            ret.merge(partial);
+        }
+        return ret;
+    }
+
+    /**
+     * Adds a pixel.
+     *
+     * @param values An array holding the values of the pixel.
+     * @param offset The index of the value of the first band.
+     */
+    public void add(float[] values, int offset) {
+        n++;
+        for (int i = 0; i < bands; i++) {
+            delta[i] = values[offset + i] - means[i];
+            means[i] += delta[i] / n;
+        }
+        // after the update of the means, the product of the old and new
+        // deviations is the increment of the sum of products.
+        int k = 0;
+        for (int i = 0; i < bands; i++) {
+            double d = values[offset + i] - means[i];
+            for (int j = i; j < bands; j++, k++) {
+                comoments[k] += d * delta[j];
+            }
+        }
+    }
+
+    /**
+     * Adds the pixels accumulated by another accumulator.
+     *
+     * @param other The other accumulator, which must have the same number of
+     * bands.
+     */
+    public void merge(CovarianceAccumulator other) {
+        if (other.bands != bands) {
+            throw new IllegalArgumentException("The accumulators have different numbers of bands.");
+        }
+        if (other.n == 0) {
+            return;
+        }
+        long total = n + other.n;
+        double f = (double) n * other.n / total;
+        for (int i = 0; i < bands; i++) {
+            delta[i] = other.means[i] - means[i];
+        }
+        int k = 0;
+        for (int i = 0; i < bands; i++) {
+            for (int j = i; j < bands; j++, k++) {
+                comoments[k] += other.comoments[k] + delta[i] * delta[j] * f;
+            }
+        }
+        for (int i = 0; i < bands; i++) {
+            means[i] += delta[i] * other.n / total;
+        }
+        n = total;
+    }
+
+    /**
+     * @return The number of pixels accumulated.
+     */
+    public long getCount() {
+        return n;
+    }
+
+    public double[] getMeans() {
+        return means.clone();
+    }
+
+    /**
+     * @return The sample covariance matrix.
+     */
+    public double[][] getCovariance() {
+        double[][] ret = new double[bands][bands];
+        int k = 0;
+        for (int i = 0; i < bands; i++) {
+            for (int j = i; j < bands; j++, k++) {
+                ret[i][j] = comoments[k] / (n - 1);
+                ret[j][i] = ret[i][j];
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return The correlation matrix.
+     */
+    public double[][] getCorrelation() {
+        double[][] ret = getCovariance();
+        double[] sd = new double[bands];
+        for (int i = 0; i < bands; i++) {
+            sd[i] = Math.sqrt(ret[i][i]);
+        }
+        for (int i = 0; i < bands; i++) {
+            for (int j = 0; j < bands; j++) {
+                ret[i][j] /= sd[i] * sd[j];
+            }
+        }
+        return ret;
+    }
+}
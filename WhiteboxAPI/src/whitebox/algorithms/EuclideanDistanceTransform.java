@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.parallel.LoopBody;
+import whitebox.parallel.Parallel;
+import whitebox.parallel.Partition;
+
+/**
+ * An exact Euclidean distance transform, used by the EuclideanDistance and
+ * EuclideanAllocation tools. Target cells are the non-zero, valid cells of
+ * the input raster.
+ *
+ * The transform is separable (Felzenszwalb and Huttenlocher, 2012; Meijster
+ * et al., 2000). A pass down the columns finds the nearest target in the
+ * column of each cell, and a pass along each row then finds the nearest of
+ * those by computing the lower envelope of the parabolas they define. Both
+ * passes run in linear time and are shared among the available processors.
+ *
+ * Rather than distances, the nearest target cell of each cell is stored, so
+ * that the same result gives both the distance and the allocation.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class EuclideanDistanceTransform {
+
+    private final int rows;
+    private final int cols;
+    private final double cellSizeX;
+    private final double cellSizeY;
+    private final double noData;
+    // the nearest target of each cell; the target's row after the column
+    // pass and its cell index after the row pass, or -1 if there is none.
+    private final int[] nearest;
+    private final boolean[] valid;
+    private final double[] values;
+    private boolean transformed = false;
+
+    /**
+     * Reads the target cells of a raster.
+     *
+     * @param image The input raster.
+     * @param keepValues Set to true if getRowAllocation will be used, in
+     * which case the input values are held in memory.
+     */
+    public EuclideanDistanceTransform(final WhiteboxRaster image, boolean keepValues) {
+        rows = image.getNumberRows();
+        cols = image.getNumberColumns();
+        cellSizeX = image.getCellSizeX();
+        cellSizeY = image.getCellSizeY();
+        noData = image.getNoDataValue();
+        long numCells = (long) rows * cols;
+        if (numCells > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("The image is too large to be processed.");
+        }
+        nearest = new int[(int) numCells];
+        valid = new boolean[nearest.length];
+        values = keepValues ? new double[nearest.length] : null;
+        Parallel.ForEach(Parallel.create(0, rows), new LoopBody<Partition>() {
+            @Override
+            public void run(Partition p) {
+                for (int row = p.start; row < p.end; row++) {
+                    double[] data = image.getRowValues(row);
+                    int offset = row * cols;
+                    for (int col = 0; col < cols; col++) {
+                        valid[offset + col] = data[col] != noData;
+                        nearest[offset + col] = (data[col] != 0 && data[col] != noData) ? row : -1;
+                        if (values != null) {
+                            values[offset + col] = data[col];
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets up a transform of a grid held in memory, in which every cell is
+     * valid.
+     *
+     * @param targets Whether each cell, in row-major order, is a target.
+     * @param rows The number of rows.
+     * @param cols The number of columns.
+     * @param cellSizeX The cell width.
+     * @param cellSizeY The cell height.
+     */
+    public EuclideanDistanceTransform(boolean[] targets, int rows, int cols,
+            double cellSizeX, double cellSizeY) {
+        this.rows = rows;
+        this.cols = cols;
+        this.cellSizeX = cellSizeX;
+        this.cellSizeY = cellSizeY;
+        noData = Double.NaN;
+        nearest = new int[targets.length];
+        valid = new boolean[targets.length];
+        values = null;
+        for (int i = 0; i < targets.length; i++) {
+            valid[i] = true;
+            nearest[i] = targets[i] ? i / cols : -1;
+        }
+    }
+
+    /**
+     * Computes the nearest target of every cell.
+     */
+    public void transform() {
+        // the column pass; each partition is a block of columns, which are
+        // swept down and then up a row at a time.
+        final boolean[] columnsDone = new boolean[cols];
+        Parallel.ForEach(Parallel.create(0, cols), new LoopBody<Partition>() {
+            @Override
+            public void run(Partition p) {
+                for (int row = 1; row < rows; row++) {
+                    int offset = row * cols;
+                    for (int col = p.start; col < p.end; col++) {
+                        if (nearest[offset + col] < 0) {
+                            nearest[offset + col] = nearest[offset - cols + col];
+                        }
+                    }
+                }
+                for (int row = rows - 2; row >= 0; row--) {
+                    int offset = row * cols;
+                    for (int col = p.start; col < p.end; col++) {
+                        int below = nearest[offset + cols + col];
+                        int current = nearest[offset + col];
+                        if (below >= 0 && (current < 0 || below - row < row - current)) {
+                            nearest[offset + col] = below;
+                        }
+                    }
+                }
+                for (int col = p.start; col < p.end; col++) {
+                    columnsDone[col] = true;
+                }
+            }
+        });
+        checkComplete(columnsDone);
+
+        // the row pass
+        final boolean[] rowsDone = new boolean[rows];
+        Parallel.ForEach(Parallel.create(0, rows), new LoopBody<Partition>() {
+            @Override
+            public void run(Partition p) {
+                int[] sites = new int[cols];
+                double[] f = new double[cols];
+                double[] boundaries = new double[cols + 1];
+                int[] columnTargets = new int[cols];
+                for (int row = p.start; row < p.end; row++) {
+                    transformRow(row, sites, f, boundaries, columnTargets);
+                    rowsDone[row] = true;
+                }
+            }
+        });
+        checkComplete(rowsDone);
+        transformed = true;
+    }
+
+    /**
+     * Computes the lower envelope of the parabolas rooted at the nearest
+     * column targets of a row, and stores the target that defines the
+     * envelope at each column.
+     */
+    private void transformRow(int row, int[] sites, double[] f,
+            double[] boundaries, int[] columnTargets) {
+        int offset = row * cols;
+        System.arraycopy(nearest, offset, columnTargets, 0, cols);
+        double dx2 = cellSizeX * cellSizeX;
+        double dy2 = cellSizeY * cellSizeY;
+
+        // the parabola of column q is (x - q)^2 dx^2 + f(q), in which f(q)
+        // is the squared distance to the column target.
+        int k = -1;
+        for (int q = 0; q < cols; q++) {
+            if (columnTargets[q] < 0) {
+                continue;
+            }
+            double dr = row - columnTargets[q];
+            double fq = dr * dr * dy2;
+            double s = Double.NEGATIVE_INFINITY;
+            while (k >= 0) {
+                int v = sites[k];
+                s = ((fq + q * q * dx2) - (f[k] + v * v * dx2)) / (2 * dx2 * (q - v));
+                if (s <= boundaries[k]) {
+                    k--;
+                } else {
+                    break;
+                }
+            }
+            k++;
+            sites[k] = q;
+            f[k] = fq;
+            boundaries[k] = k == 0 ? Double.NEGATIVE_INFINITY : s;
+            boundaries[k + 1] = Double.POSITIVE_INFINITY;
+        }
+
+        if (k < 0) {
+            for (int col = 0; col < cols; col++) {
+                nearest[offset + col] = -1;
+            }
+            return;
+        }
+        int j = 0;
+        for (int col = 0; col < cols; col++) {
+            while (boundaries[j + 1] < col) {
+                j++;
+            }
+            int q = sites[j];
+            nearest[offset + col] = columnTargets[q] * cols + q;
+        }
+    }
+
+    private static void checkComplete(boolean[] done) {
+        for (boolean b : done) {
+            if (!b) {
+                throw new IllegalStateException("The distance transform failed to complete.");
+            }
+        }
+    }
+
+    /**
+     * Retrieves the distance from each cell of a row to its nearest target.
+     *
+     * @param row The zero-based row number.
+     * @param outputNoData The value assigned to nodata cells and to cells
+     * with no target.
+     * @return The distances, in map units.
+     */
+    public double[] getRowDistances(int row, double outputNoData) {
+        checkTransformed();
+        double[] ret = new double[cols];
+        int offset = row * cols;
+        for (int col = 0; col < cols; col++) {
+            int target = nearest[offset + col];
+            if (!valid[offset + col] || target < 0) {
+                ret[col] = outputNoData;
+            } else {
+                double dx = (col - target % cols) * cellSizeX;
+                double dy = (row - target / cols) * cellSizeY;
+                ret[col] = Math.sqrt(dx * dx + dy * dy);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Retrieves the value of the nearest target of each cell of a row.
+     *
+     * @param row The zero-based row number.
+     * @param outputNoData The value assigned to nodata cells and to cells
+     * with no target.
+     * @return The values.
+     */
+    public double[] getRowAllocation(int row, double outputNoData) {
+        checkTransformed();
+        if (values == null) {
+            throw new IllegalStateException("The input values were not kept.");
+        }
+        double[] ret = new double[cols];
+        int offset = row * cols;
+        for (int col = 0; col < cols; col++) {
+            int target = nearest[offset + col];
+            if (!valid[offset + col] || target < 0) {
+                ret[col] = outputNoData;
+            } else {
+                ret[col] = values[target];
+            }
+        }
+        return ret;
+    }
+
+    private void checkTransformed() {
+        if (!transformed) {
+            throw new IllegalStateException("transform() has not been called.");
+        }
+    }
+}
@@ -0,0 +1,683 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.parallel.LoopBody;
+import whitebox.parallel.Parallel;
+import whitebox.parallel.Partition;
+
+/**
+ * A focal (moving window) filter engine for rectangular and elliptical
+ * windows. The input raster is processed in stripes of rows, each read into a
+ * buffer padded by half of the window on every side, and the stripes are
+ * filtered in parallel.
+ *
+ * The statistics are calculated with methods whose cost per cell does not
+ * grow with the area of the window. Totals, means and standard deviations use
+ * summed-area tables of the values, the squared values and the number of
+ * valid cells; minima and maxima use the van Herk/Gil-Werman running
+ * extremum, applied separably to rectangular windows; weighted means use
+ * separable kernels; and medians, percentiles, majorities and diversities use
+ * a sliding histogram of the ranks of the values (Huang's algorithm), whose
+ * cost per cell grows with the window height only. Elliptical windows are treated as one span of columns
+ * per window row, so that their cost grows with the window height only.
+ *
+ * Nodata cells are excluded from every statistic and cells that are nodata in
+ * the input are nodata in the output.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class FocalFilter {
+
+    public enum Statistic {
+
+        MEAN, TOTAL, STANDARD_DEVIATION, MINIMUM, MAXIMUM, RANGE, WEIGHTED_MEAN,
+        MEDIAN, PERCENTILE, MAJORITY, DIVERSITY
+    }
+
+    private final WhiteboxRaster input;
+    private final int rows;
+    private final int cols;
+    private final double noData;
+    private final int midX;
+    private final int midY;
+    private final int[] span; // the half-width of the window in each window row
+    private final boolean rectangular;
+    private final double[] kernelX;
+    private final double[] kernelY;
+    private boolean reflectAtEdges = false;
+    private int stripeHeight;
+    private int minimumCount = 1;
+
+    /**
+     * Creates a filter with a rectangular or elliptical window.
+     *
+     * @param input The input raster.
+     * @param filterSizeX The window width. Must be an odd number.
+     * @param filterSizeY The window height. Must be an odd number.
+     * @param rounded Set to true to use the largest ellipse that fits in the
+     * window rather than the whole rectangle.
+     * @param reflectAtEdges Set to true to reflect the data at the edges of
+     * the grid rather than treating cells beyond the edge as nodata.
+     */
+    public FocalFilter(WhiteboxRaster input, int filterSizeX, int filterSizeY,
+            boolean rounded, boolean reflectAtEdges) {
+        this.input = input;
+        this.rows = input.getNumberRows();
+        this.cols = input.getNumberColumns();
+        this.noData = input.getNoDataValue();
+        this.reflectAtEdges = reflectAtEdges;
+        this.midX = filterSizeX / 2;
+        this.midY = filterSizeY / 2;
+        this.kernelX = null;
+        this.kernelY = null;
+
+        span = new int[2 * midY + 1];
+        Arrays.fill(span, midX);
+        boolean isRect = true;
+        if (rounded) {
+            // the cells that lie within the largest ellipse that fits in the
+            // filter box; each window row is a single span of columns.
+            double aSqr = midX * midX;
+            double bSqr = midY * midY;
+            for (int dy = -midY; dy <= midY; dy++) {
+                int h = -1;
+                for (int dx = 0; dx <= midX; dx++) {
+                    double z = (dx * dx) / aSqr + (dy * dy) / bSqr;
+                    if (!(z > 1)) {
+                        h = dx;
+                    } else {
+                        break;
+                    }
+                }
+                span[dy + midY] = h;
+                if (h != midX) {
+                    isRect = false;
+                }
+            }
+        }
+        rectangular = isRect;
+        setStripeHeight();
+    }
+
+    /**
+     * Creates a filter that calculates the mean weighted by a separable
+     * kernel, e.g. a Gaussian.
+     *
+     * @param input The input raster.
+     * @param kernelX The weights of the window columns. The length must be an
+     * odd number.
+     * @param kernelY The weights of the window rows. The length must be an odd
+     * number.
+     * @param reflectAtEdges Set to true to reflect the data at the edges of
+     * the grid rather than treating cells beyond the edge as nodata.
+     */
+    public FocalFilter(WhiteboxRaster input, double[] kernelX, double[] kernelY,
+            boolean reflectAtEdges) {
+        this.input = input;
+        this.rows = input.getNumberRows();
+        this.cols = input.getNumberColumns();
+        this.noData = input.getNoDataValue();
+        this.reflectAtEdges = reflectAtEdges;
+        this.midX = kernelX.length / 2;
+        this.midY = kernelY.length / 2;
+        this.kernelX = kernelX.clone();
+        this.kernelY = kernelY.clone();
+        span = new int[2 * midY + 1];
+        Arrays.fill(span, midX);
+        rectangular = true;
+        setStripeHeight();
+    }
+
+    private void setStripeHeight() {
+        // Each stripe re-reads a halo of midY rows above and below, so tall
+        // windows get taller stripes to keep the overhead down.
+        stripeHeight = Math.max(32, 2 * midY + 1);
+    }
+
+    /**
+     * Sets the minimum number of valid cells in a window for the statistic to
+     * be calculated; windows with fewer are assigned nodata. The default is
+     * one.
+     *
+     * @param value The minimum number of valid cells.
+     */
+    public void setMinimumCount(int value) {
+        minimumCount = value;
+    }
+
+    /**
+     * The number of rows that should be requested from filter() at a time to
+     * keep every processor busy.
+     *
+     * @return The number of rows in a batch.
+     */
+    public int getBatchSize() {
+        return stripeHeight * Parallel.getPluginProcessors();
+    }
+
+    /**
+     * Filters a block of rows.
+     *
+     * @param stat The statistic to calculate.
+     * @param startRow The first row, inclusive.
+     * @param endRow The last row, exclusive.
+     * @return The filtered rows.
+     */
+    public double[][] filter(final Statistic stat, int startRow, int endRow) {
+        if (stat == Statistic.WEIGHTED_MEAN && kernelX == null) {
+            throw new IllegalStateException("A weighted mean requires a kernel.");
+        }
+        final int first = startRow;
+        final double[][] ret = new double[endRow - startRow][];
+        ArrayList<Partition> stripes = new ArrayList<>();
+        for (int s = startRow; s < endRow; s += stripeHeight) {
+            Partition p = new Partition();
+            p.start = s;
+            p.end = Math.min(endRow, s + stripeHeight);
+            stripes.add(p);
+        }
+        Parallel.ForEach(stripes, new LoopBody<Partition>() {
+            @Override
+            public void run(Partition p) {
+                double[][] out;
+                double[][] data = readStripe(p.start, p.end);
+                switch (stat) {
+                    case MEAN:
+                    case TOTAL:
+                    case STANDARD_DEVIATION:
+                        out = summedAreaStatistic(stat, data, p.end - p.start);
+                        break;
+                    case WEIGHTED_MEAN:
+                        out = weightedMean(data, p.end - p.start);
+                        break;
+                    case MEDIAN:
+                    case PERCENTILE:
+                    case MAJORITY:
+                    case DIVERSITY:
+                        out = rankStatistic(stat, data, p.end - p.start);
+                        break;
+                    default:
+                        out = extremumStatistic(stat, data, p.end - p.start);
+                        break;
+                }
+                for (int i = 0; i < out.length; i++) {
+                    ret[p.start - first + i] = out[i];
+                }
+            }
+        });
+        for (double[] r : ret) {
+            if (r == null) {
+                // a stripe failed, most likely for want of memory
+                throw new IllegalStateException("The focal filter failed to complete.");
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Reads the rows of a stripe, padded by the window half-sizes.
+     */
+    private double[][] readStripe(int startRow, int endRow) {
+        int height = endRow - startRow + 2 * midY;
+        int width = cols + 2 * midX;
+        double[][] data = new double[height][];
+        double[] noDataRow = null;
+        for (int i = 0; i < height; i++) {
+            int row = reflect(startRow - midY + i, rows);
+            if (row < 0) {
+                if (noDataRow == null) {
+                    noDataRow = new double[width];
+                    Arrays.fill(noDataRow, noData);
+                }
+                data[i] = noDataRow;
+                continue;
+            }
+            double[] vals = input.getRowValues(row);
+            double[] padded = new double[width];
+            System.arraycopy(vals, 0, padded, midX, cols);
+            for (int c = 0; c < midX; c++) {
+                int col = reflect(c - midX, cols);
+                padded[c] = col < 0 ? noData : vals[col];
+                col = reflect(cols + c, cols);
+                padded[midX + cols + c] = col < 0 ? noData : vals[col];
+            }
+            data[i] = padded;
+        }
+        return data;
+    }
+
+    /**
+     * Maps an index beyond the edge of the grid to its reflection, or -1 if
+     * it cannot be reflected.
+     */
+    private int reflect(int i, int n) {
+        if (i >= 0 && i < n) {
+            return i;
+        }
+        if (!reflectAtEdges) {
+            return -1;
+        }
+        if (i < 0) {
+            i = -i - 1;
+        } else {
+            i = n - (i - n) - 1;
+        }
+        return (i >= 0 && i < n) ? i : -1;
+    }
+
+    private double[][] summedAreaStatistic(Statistic stat, double[][] data, int numRows) {
+        int height = data.length;
+        int width = cols + 2 * midX;
+        int w1 = width + 1;
+        boolean needSquares = stat == Statistic.STANDARD_DEVIATION;
+
+        // The values are shifted by the first valid value before they are
+        // summed, which keeps the sums small and the variance well
+        // conditioned.
+        double shift = 0;
+        search:
+        for (double[] d : data) {
+            for (double z : d) {
+                if (z != noData) {
+                    shift = z;
+                    break search;
+                }
+            }
+        }
+
+        double[] sum = new double[(height + 1) * w1];
+        double[] sqr = needSquares ? new double[(height + 1) * w1] : null;
+        int[] count = new int[(height + 1) * w1];
+        for (int i = 0; i < height; i++) {
+            double[] d = data[i];
+            double rowSum = 0;
+            double rowSqr = 0;
+            int rowCount = 0;
+            int above = i * w1;
+            int here = above + w1;
+            for (int j = 0; j < width; j++) {
+                double z = d[j];
+                if (z != noData) {
+                    z -= shift;
+                    rowSum += z;
+                    rowSqr += z * z;
+                    rowCount++;
+                }
+                sum[here + j + 1] = sum[above + j + 1] + rowSum;
+                count[here + j + 1] = count[above + j + 1] + rowCount;
+                if (needSquares) {
+                    sqr[here + j + 1] = sqr[above + j + 1] + rowSqr;
+                }
+            }
+        }
+
+        double[][] out = new double[numRows][cols];
+        for (int i = 0; i < numRows; i++) {
+            double[] centre = data[i + midY];
+            double[] o = out[i];
+            for (int j = 0; j < cols; j++) {
+                if (centre[j + midX] == noData) {
+                    o[j] = noData;
+                    continue;
+                }
+                double s = 0;
+                double q = 0;
+                int n = 0;
+                if (rectangular) {
+                    // the window spans rows i..i+2*midY and columns j..j+2*midX
+                    int r0 = i * w1;
+                    int r1 = (i + 2 * midY + 1) * w1;
+                    int c0 = j;
+                    int c1 = j + 2 * midX + 1;
+                    s = sum[r1 + c1] - sum[r0 + c1] - sum[r1 + c0] + sum[r0 + c0];
+                    n = count[r1 + c1] - count[r0 + c1] - count[r1 + c0] + count[r0 + c0];
+                    if (needSquares) {
+                        q = sqr[r1 + c1] - sqr[r0 + c1] - sqr[r1 + c0] + sqr[r0 + c0];
+                    }
+                } else {
+                    for (int k = 0; k < span.length; k++) {
+                        int h = span[k];
+                        if (h < 0) {
+                            continue;
+                        }
+                        int r0 = (i + k) * w1;
+                        int r1 = r0 + w1;
+                        int c0 = j + midX - h;
+                        int c1 = j + midX + h + 1;
+                        s += sum[r1 + c1] - sum[r0 + c1] - sum[r1 + c0] + sum[r0 + c0];
+                        n += count[r1 + c1] - count[r0 + c1] - count[r1 + c0] + count[r0 + c0];
+                        if (needSquares) {
+                            q += sqr[r1 + c1] - sqr[r0 + c1] - sqr[r1 + c0] + sqr[r0 + c0];
+                        }
+                    }
+                }
+                if (n < minimumCount || n == 0) {
+                    o[j] = noData;
+                    continue;
+                }
+                switch (stat) {
+                    case MEAN:
+                        o[j] = s / n + shift;
+                        break;
+                    case TOTAL:
+                        o[j] = s + shift * n;
+                        break;
+                    default:
+                        double variance = (q - (s * s) / n) / n;
+                        o[j] = variance > 0 ? Math.sqrt(variance) : 0;
+                        break;
+                }
+            }
+        }
+        return out;
+    }
+
+    private double[][] extremumStatistic(Statistic stat, double[][] data, int numRows) {
+        boolean doMin = stat != Statistic.MAXIMUM;
+        boolean doMax = stat != Statistic.MINIMUM;
+        double[][] min = doMin ? extremum(data, numRows, true) : null;
+        double[][] max = doMax ? extremum(data, numRows, false) : null;
+        double[][] out = new double[numRows][cols];
+        for (int i = 0; i < numRows; i++) {
+            double[] centre = data[i + midY];
+            for (int j = 0; j < cols; j++) {
+                if (centre[j + midX] == noData) {
+                    out[i][j] = noData;
+                } else if (stat == Statistic.MINIMUM) {
+                    out[i][j] = min[i][j];
+                } else if (stat == Statistic.MAXIMUM) {
+                    out[i][j] = max[i][j];
+                } else {
+                    out[i][j] = max[i][j] - min[i][j];
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Calculates the window minima or maxima of a stripe. Nodata cells are
+     * replaced by an infinity that never wins.
+     */
+    private double[][] extremum(double[][] data, int numRows, boolean isMin) {
+        int height = data.length;
+        int width = cols + 2 * midX;
+        double ignore = isMin ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+        double[][] vals = new double[height][width];
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                double z = data[i][j];
+                vals[i][j] = z == noData ? ignore : z;
+            }
+        }
+        double[] g = new double[Math.max(width, height)];
+        double[] h = new double[Math.max(width, height)];
+        double[][] out = new double[numRows][cols];
+
+        if (rectangular) {
+            // separable; run along the rows, then down the columns
+            double[][] horiz = new double[height][cols];
+            for (int i = 0; i < height; i++) {
+                runningExtremum(vals[i], width, 2 * midX + 1, isMin, g, h, horiz[i]);
+            }
+            double[] column = new double[height];
+            double[] result = new double[numRows];
+            for (int j = 0; j < cols; j++) {
+                for (int i = 0; i < height; i++) {
+                    column[i] = horiz[i][j];
+                }
+                runningExtremum(column, height, 2 * midY + 1, isMin, g, h, result);
+                for (int i = 0; i < numRows; i++) {
+                    out[i][j] = result[i];
+                }
+            }
+        } else {
+            // one running extremum per window row, of that row's span
+            double[] result = new double[width];
+            for (int i = 0; i < numRows; i++) {
+                double[] o = out[i];
+                Arrays.fill(o, ignore);
+                for (int k = 0; k < span.length; k++) {
+                    int hw = span[k];
+                    if (hw < 0) {
+                        continue;
+                    }
+                    double[] v = vals[i + k];
+                    int len = cols + 2 * hw;
+                    int offset = midX - hw;
+                    runningExtremum(v, offset, len, 2 * hw + 1, isMin, g, h, result);
+                    for (int j = 0; j < cols; j++) {
+                        double z = result[j];
+                        if (isMin ? z < o[j] : z > o[j]) {
+                            o[j] = z;
+                        }
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    private static void runningExtremum(double[] in, int len, int k, boolean isMin,
+            double[] g, double[] h, double[] out) {
+        runningExtremum(in, 0, len, k, isMin, g, h, out);
+    }
+
+    /**
+     * The van Herk/Gil-Werman running minimum or maximum. out[x] receives the
+     * extremum of in[offset + x] .. in[offset + x + k - 1] for every complete
+     * window, using three comparisons per element whatever the window size.
+     */
+    private static void runningExtremum(double[] in, int offset, int len, int k,
+            boolean isMin, double[] g, double[] h, double[] out) {
+        if (k == 1) {
+            System.arraycopy(in, offset, out, 0, len);
+            return;
+        }
+        // g holds the running extremum from the start of each block of k
+        // elements, and h the running extremum to the end of each block.
+        for (int start = 0; start < len; start += k) {
+            int end = Math.min(len, start + k);
+            g[start] = in[offset + start];
+            for (int x = start + 1; x < end; x++) {
+                double z = in[offset + x];
+                g[x] = isMin ? Math.min(g[x - 1], z) : Math.max(g[x - 1], z);
+            }
+            h[end - 1] = in[offset + end - 1];
+            for (int x = end - 2; x >= start; x--) {
+                double z = in[offset + x];
+                h[x] = isMin ? Math.min(h[x + 1], z) : Math.max(h[x + 1], z);
+            }
+        }
+        int numWindows = len - k + 1;
+        for (int x = 0; x < numWindows; x++) {
+            out[x] = isMin ? Math.min(h[x], g[x + k - 1]) : Math.max(h[x], g[x + k - 1]);
+        }
+    }
+
+    /**
+     * A normalised convolution with a separable kernel. Both the weighted sum
+     * of the valid values and the sum of the weights of the valid cells are
+     * separable, so nodata cells are handled exactly.
+     */
+    private double[][] weightedMean(double[][] data, int numRows) {
+        int height = data.length;
+        int kx = kernelX.length;
+        int ky = kernelY.length;
+        double[][] hSum = new double[height][cols];
+        double[][] hWeight = new double[height][cols];
+        for (int i = 0; i < height; i++) {
+            double[] d = data[i];
+            double[] hs = hSum[i];
+            double[] hw = hWeight[i];
+            for (int j = 0; j < cols; j++) {
+                double s = 0;
+                double w = 0;
+                for (int a = 0; a < kx; a++) {
+                    double z = d[j + a];
+                    if (z != noData) {
+                        s += kernelX[a] * z;
+                        w += kernelX[a];
+                    }
+                }
+                hs[j] = s;
+                hw[j] = w;
+            }
+        }
+        double[][] out = new double[numRows][cols];
+        for (int i = 0; i < numRows; i++) {
+            double[] centre = data[i + midY];
+            double[] o = out[i];
+            for (int j = 0; j < cols; j++) {
+                if (centre[j + midX] == noData) {
+                    o[j] = noData;
+                    continue;
+                }
+                double s = 0;
+                double w = 0;
+                for (int b = 0; b < ky; b++) {
+                    s += kernelY[b] * hSum[i + b][j];
+                    w += kernelY[b] * hWeight[i + b][j];
+                }
+                o[j] = w > 0 ? s / w : noData;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Rank statistics. The values of the stripe are replaced by their ranks
+     * among its distinct values, which makes the histogram exact for
+     * floating-point as well as integer data. The histogram of the window is
+     * then slid along each row, removing the trailing cell and adding the
+     * leading cell of every window row at each step.
+     */
+    private double[][] rankStatistic(Statistic stat, double[][] data, int numRows) {
+        int height = data.length;
+        int width = cols + 2 * midX;
+        int n = 0;
+        for (double[] d : data) {
+            for (double z : d) {
+                if (z != noData) {
+                    n++;
+                }
+            }
+        }
+        // adding 0.0 turns -0.0 into 0.0, which is equal to it
+        double[] values = new double[n];
+        n = 0;
+        for (double[] d : data) {
+            for (double z : d) {
+                if (z != noData) {
+                    values[n] = z + 0.0;
+                    n++;
+                }
+            }
+        }
+        Arrays.sort(values);
+        int numDistinct = 0;
+        for (int a = 0; a < n; a++) {
+            if (numDistinct == 0 || values[a] != values[numDistinct - 1]) {
+                values[numDistinct] = values[a];
+                numDistinct++;
+            }
+        }
+        int[][] ranks = new int[height][width];
+        for (int i = 0; i < height; i++) {
+            double[] d = data[i];
+            int[] r = ranks[i];
+            for (int j = 0; j < width; j++) {
+                r[j] = d[j] == noData ? -1 : Arrays.binarySearch(values, 0, numDistinct, d[j] + 0.0);
+            }
+        }
+
+        int winRows = 2 * midY + 1;
+        int maxCells = winRows * (2 * midX + 1);
+        RankHistogram hist = new RankHistogram(numDistinct, maxCells, stat == Statistic.MAJORITY);
+        double[][] out = new double[numRows][cols];
+        for (int i = 0; i < numRows; i++) {
+            // the window of the first column
+            for (int a = 0; a < winRows; a++) {
+                int[] r = ranks[i + a];
+                for (int c = midX - span[a]; c <= midX + span[a]; c++) {
+                    if (r[c] >= 0) {
+                        hist.add(r[c]);
+                    }
+                }
+            }
+            int[] centre = ranks[i + midY];
+            double[] o = out[i];
+            for (int j = 0; j < cols; j++) {
+                if (j > 0) {
+                    for (int a = 0; a < winRows; a++) {
+                        if (span[a] < 0) {
+                            continue;
+                        }
+                        int[] r = ranks[i + a];
+                        int c = j + midX - span[a] - 1;
+                        if (r[c] >= 0) {
+                            hist.remove(r[c]);
+                        }
+                        c = j + midX + span[a];
+                        if (r[c] >= 0) {
+                            hist.add(r[c]);
+                        }
+                    }
+                }
+                int centreRank = centre[j + midX];
+                int count = hist.size();
+                if (centreRank < 0 || count < minimumCount) {
+                    o[j] = noData;
+                    continue;
+                }
+                switch (stat) {
+                    case MEDIAN:
+                        if (count % 2 == 1) {
+                            o[j] = values[hist.select(count / 2)];
+                        } else {
+                            o[j] = (values[hist.select(count / 2 - 1)]
+                                    + values[hist.select(count / 2)]) / 2.0;
+                        }
+                        break;
+                    case PERCENTILE:
+                        o[j] = (double) hist.countBelow(centreRank) / count * 100;
+                        break;
+                    case MAJORITY:
+                        o[j] = values[hist.getMode()];
+                        break;
+                    default:
+                        o[j] = hist.getNumberOfNonEmptyBins();
+                        break;
+                }
+            }
+            // empty the histogram for the next row
+            for (int a = 0; a < winRows; a++) {
+                int[] r = ranks[i + a];
+                for (int c = cols - 1 + midX - span[a]; c <= cols - 1 + midX + span[a]; c++) {
+                    if (r[c] >= 0) {
+                        hist.remove(r[c]);
+                    }
+                }
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.parallel.LoopBody;
+import whitebox.parallel.Parallel;
+import whitebox.parallel.Partition;
+
+/**
+ * Calculates indices of local topographic position, the difference from mean
+ * elevation (DIFF) and the deviation from mean elevation (DEV), for square
+ * neighbourhoods of any size. This is the engine of the elevation residual
+ * tools.
+ *
+ * Summed-area tables (integral images) of the elevations, their squares and
+ * the number of valid cells are built, after which the mean and standard
+ * deviation of a neighbourhood are found from four entries of each table.
+ * The cost per cell is therefore the same for a 3 x 3 neighbourhood as for a
+ * 401 x 401 one, and many neighbourhood sizes can be evaluated in a single
+ * run, as needed for multiscale analysis.
+ *
+ * A table of a whole grid would total millions of cells, and the variance of
+ * a small neighbourhood, found from the difference of such totals, would
+ * lose most of its precision. The grid is instead divided into square tiles,
+ * each with its own tables of elevations measured from a local origin. The
+ * tiles are at least as wide as the neighbourhood, so that a neighbourhood
+ * overlaps at most four of them, and are 256, 1024, 4096 or 16384 cells
+ * wide; the tables of each tile size are built when first needed and occupy
+ * 20 bytes per grid cell. The statistics of the parts of a neighbourhood in
+ * each tile are combined with the pairwise update of Chan et al., which is
+ * stable however far apart the tile origins are.
+ *
+ * Neighbourhoods are clipped at the edges of the grid and nodata cells are
+ * excluded, so that the statistics of each neighbourhood are those of its
+ * valid cells.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class LocalTopographicPosition {
+
+    public enum Index {
+
+        DIFFERENCE_FROM_MEAN, DEVIATION_FROM_MEAN
+    }
+
+    private static final int MIN_TILE_SIZE = 256;
+    private static final int MAX_TILE_SIZE = 16384;
+    private final WhiteboxRaster dem;
+    private final int rows;
+    private final int cols;
+    private final double noData;
+    // the tables of each tile size, by the base-4 logarithm of the size
+    // relative to MIN_TILE_SIZE, or null if they have not been built.
+    private final TileTables[] levels = new TileTables[4];
+
+    /**
+     * Sets up the calculation of the indices of a DEM. The tables are built
+     * when a neighbourhood size first needs them.
+     *
+     * @param dem The DEM.
+     */
+    public LocalTopographicPosition(final WhiteboxRaster dem) {
+        this.dem = dem;
+        rows = dem.getNumberRows();
+        cols = dem.getNumberColumns();
+        noData = dem.getNoDataValue();
+    }
+
+    /**
+     * Retrieves the tables of the tiles that suit a neighbourhood size,
+     * building them if necessary.
+     */
+    private synchronized TileTables getTables(int radius) {
+        int level = 0;
+        long tileSize = MIN_TILE_SIZE;
+        while (tileSize < 2L * radius + 1 && tileSize < Math.max(rows, cols)
+                && tileSize < MAX_TILE_SIZE) {
+            tileSize *= 4;
+            level++;
+        }
+        if (levels[level] == null) {
+            levels[level] = new TileTables((int) tileSize);
+        }
+        return levels[level];
+    }
+
+    /**
+     * The summed-area tables of the tiles of one size.
+     */
+    private class TileTables {
+
+        private final int tileSize;
+        private final int tileShift; // the base-2 logarithm of tileSize
+        private final int tileCols; // the number of tiles across the grid
+        // the tables of each tile, in row-major order of the tiles, with an
+        // extra leading row and column of zeros. Entry (r + 1) * (w + 1) +
+        // c + 1 of a tile w cells wide holds the total of its rows 0..r and
+        // columns 0..c. Elevations are measured from the tile's origin.
+        private final double[][] sum;
+        private final double[][] sumSqr;
+        private final int[][] count;
+        private final double[] origin;
+
+        private TileTables(int size) {
+            tileSize = size;
+            tileShift = Integer.numberOfTrailingZeros(size);
+            final int tileRows = (int) (((long) rows + tileSize - 1) / tileSize);
+            tileCols = (int) (((long) cols + tileSize - 1) / tileSize);
+            long numTiles = (long) tileRows * tileCols;
+            if (numTiles > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("The DEM is too large to be processed.");
+            }
+            sum = new double[(int) numTiles][];
+            sumSqr = new double[(int) numTiles][];
+            count = new int[(int) numTiles][];
+            origin = new double[(int) numTiles];
+
+            // each task builds the tiles of a strip of rows. A tile's origin
+            // is the mean of the first of its rows that holds a valid cell.
+            final boolean[] stripsDone = new boolean[tileRows];
+            Parallel.ForEach(Parallel.create(0, tileRows), new LoopBody<Partition>() {
+                @Override
+                public void run(Partition p) {
+                    for (int strip = p.start; strip < p.end; strip++) {
+                        buildStrip(strip);
+                        stripsDone[strip] = true;
+                    }
+                }
+            });
+            checkComplete(stripsDone);
+        }
+
+        private int getTileWidth(int tileCol) {
+            return Math.min(tileSize, cols - tileCol * tileSize);
+        }
+
+        private void buildStrip(int strip) {
+            int top = strip * tileSize;
+            int height = Math.min(tileSize, rows - top);
+            boolean[] hasOrigin = new boolean[tileCols];
+            for (int tc = 0; tc < tileCols; tc++) {
+                int size = (height + 1) * (getTileWidth(tc) + 1);
+                int t = strip * tileCols + tc;
+                sum[t] = new double[size];
+                sumSqr[t] = new double[size];
+                count[t] = new int[size];
+            }
+            for (int r = 0; r < height; r++) {
+                double[] data = dem.getRowValues(top + r);
+                for (int tc = 0; tc < tileCols; tc++) {
+                    int t = strip * tileCols + tc;
+                    int left = tc * tileSize;
+                    int width = getTileWidth(tc);
+                    if (!hasOrigin[tc]) {
+                        double s = 0;
+                        int n = 0;
+                        for (int c = 0; c < width; c++) {
+                            if (data[left + c] != noData) {
+                                s += data[left + c];
+                                n++;
+                            }
+                        }
+                        if (n > 0) {
+                            origin[t] = s / n;
+                            hasOrigin[tc] = true;
+                        }
+                    }
+                    double[] tileSum = sum[t];
+                    double[] tileSumSqr = sumSqr[t];
+                    int[] tileCount = count[t];
+                    double o = origin[t];
+                    int i = (r + 1) * (width + 1) + 1;
+                    int above = i - (width + 1);
+                    double s = 0;
+                    double q = 0;
+                    int n = 0;
+                    for (int c = 0; c < width; c++, i++, above++) {
+                        double z = data[left + c];
+                        if (z != noData) {
+                            z -= o;
+                            s += z;
+                            q += z * z;
+                            n++;
+                        }
+                        tileSum[i] = s + tileSum[above];
+                        tileSumSqr[i] = q + tileSumSqr[above];
+                        tileCount[i] = n + tileCount[above];
+                    }
+                }
+            }
+        }
+
+        private double getIndex(Index index, int row, int col, double centre, int radius) {
+            int row0 = Math.max(0, row - radius);
+            int row1 = Math.min(rows - 1, row + radius);
+            int col0 = Math.max(0, col - radius);
+            int col1 = Math.min(cols - 1, col + radius);
+            int firstTileRow = row0 >> tileShift;
+            int lastTileRow = row1 >> tileShift;
+            int firstTileCol = col0 >> tileShift;
+            int lastTileCol = col1 >> tileShift;
+            long n = 0;
+            double mean = 0;
+            double m2 = 0; // the sum of squared differences from the mean
+            for (int tr = firstTileRow; tr <= lastTileRow; tr++) {
+                int top = tr << tileShift;
+                int r0 = Math.max(row0, top) - top;
+                int r1 = Math.min(row1 - top, tileSize - 1) + 1;
+                for (int tc = firstTileCol; tc <= lastTileCol; tc++) {
+                    int t = tr * tileCols + tc;
+                    int left = tc << tileShift;
+                    int w1 = getTileWidth(tc) + 1;
+                    int c0 = Math.max(col0, left) - left;
+                    int c1 = Math.min(col1 - left, tileSize - 1) + 1;
+                    int a = r0 * w1 + c0;
+                    int b = r0 * w1 + c1;
+                    int c = r1 * w1 + c0;
+                    int d = r1 * w1 + c1;
+                    int[] tileCount = count[t];
+                    int ni = tileCount[d] - tileCount[b] - tileCount[c] + tileCount[a];
+                    if (ni == 0) {
+                        continue;
+                    }
+                    double[] tileSum = sum[t];
+                    double si = tileSum[d] - tileSum[b] - tileSum[c] + tileSum[a];
+                    double qi = 0;
+                    if (index == Index.DEVIATION_FROM_MEAN) {
+                        double[] tileSumSqr = sumSqr[t];
+                        qi = tileSumSqr[d] - tileSumSqr[b] - tileSumSqr[c] + tileSumSqr[a];
+                    }
+                    if (n == 0) {
+                        mean = origin[t] + si / ni;
+                        m2 = qi - si * si / ni;
+                        n = ni;
+                    } else {
+                        long total = n + ni;
+                        double delta = origin[t] + si / ni - mean;
+                        mean += delta * ni / total;
+                        m2 += (qi - si * si / ni) + delta * delta * n * ni / total;
+                        n = total;
+                    }
+                }
+            }
+            if (index == Index.DIFFERENCE_FROM_MEAN) {
+                return centre - mean;
+            }
+            if (n < 3) {
+                return noData;
+            }
+            double variance = m2 / n;
+            if (!(variance > 0)) {
+                return 0;
+            }
+            return (centre - mean) / Math.sqrt(variance);
+        }
+    }
+
+    private static void checkComplete(boolean[] done) {
+        for (boolean b : done) {
+            if (!b) {
+                throw new IllegalStateException("The summed-area tables could not be built.");
+            }
+        }
+    }
+
+    /**
+     * The number of rows that should be requested at a time to keep every
+     * processor busy.
+     *
+     * @return The number of rows in a batch.
+     */
+    public int getBatchSize() {
+        return 32 * Parallel.getPluginProcessors();
+    }
+
+    /**
+     * Calculates an index for a block of rows.
+     *
+     * @param index The index.
+     * @param radius The half-width of the neighbourhood, in cells. The
+     * neighbourhood is 2 * radius + 1 cells wide.
+     * @param startRow The first row, inclusive.
+     * @param endRow The last row, exclusive.
+     * @return The index of each cell of the rows. Nodata cells, and cells
+     * whose neighbourhoods have too few valid cells, are nodata.
+     */
+    public double[][] getRows(final Index index, final int radius, final int startRow,
+            int endRow) {
+        final TileTables tables = getTables(radius);
+        final double[][] ret = new double[endRow - startRow][];
+        Parallel.ForEach(Parallel.create(startRow, endRow), new LoopBody<Partition>() {
+            @Override
+            public void run(Partition p) {
+                for (int row = p.start; row < p.end; row++) {
+                    double[] z = dem.getRowValues(row);
+                    double[] out = new double[cols];
+                    for (int col = 0; col < cols; col++) {
+                        out[col] = z[col] != noData ? tables.getIndex(index, row, col, z[col], radius) : noData;
+                    }
+                    ret[row - startRow] = out;
+                }
+            }
+        });
+        checkRows(ret);
+        return ret;
+    }
+
+    /**
+     * Finds, for a block of rows, the largest deviation from mean elevation
+     * over a range of neighbourhood sizes, and the size at which it occurs.
+     * The rows are divided among the available processors, each of which
+     * evaluates every size for its cells.
+     *
+     * @param minRadius The smallest neighbourhood half-width, in cells.
+     * @param maxRadius The largest neighbourhood half-width, in cells.
+     * @param step The increment of the half-width.
+     * @param startRow The first row, inclusive.
+     * @param endRow The last row, exclusive.
+     * @param maxDeviation Receives the signed deviation of largest magnitude
+     * of each cell, or nodata.
+     * @param bestRadius Receives the half-width at which it occurs, or nodata.
+     */
+    public void getMaximumDeviation(final int minRadius, final int maxRadius,
+            final int step, final int startRow, int endRow,
+            final double[][] maxDeviation, final double[][] bestRadius) {
+        int numRadii = minRadius <= maxRadius ? (maxRadius - minRadius) / step + 1 : 0;
+        final TileTables[] tables = new TileTables[numRadii];
+        for (int k = 0; k < numRadii; k++) {
+            tables[k] = getTables(minRadius + k * step);
+        }
+        final boolean[] done = new boolean[endRow - startRow];
+        Parallel.ForEach(Parallel.create(startRow, endRow), new LoopBody<Partition>() {
+            @Override
+            public void run(Partition p) {
+                for (int row = p.start; row < p.end; row++) {
+                    double[] z = dem.getRowValues(row);
+                    double[] dev = new double[cols];
+                    double[] scale = new double[cols];
+                    for (int col = 0; col < cols; col++) {
+                        dev[col] = noData;
+                        scale[col] = noData;
+                        if (z[col] == noData) {
+                            continue;
+                        }
+                        double centre = z[col];
+                        double best = 0;
+                        for (int k = 0; k < tables.length; k++) {
+                            int r = minRadius + k * step;
+                            double d = tables[k].getIndex(Index.DEVIATION_FROM_MEAN, row, col, centre, r);
+                            if (d != noData && (scale[col] == noData || Math.abs(d) > best)) {
+                                best = Math.abs(d);
+                                dev[col] = d;
+                                scale[col] = r;
+                            }
+                        }
+                    }
+                    maxDeviation[row - startRow] = dev;
+                    bestRadius[row - startRow] = scale;
+                    done[row - startRow] = true;
+                }
+            }
+        });
+        checkComplete(done);
+    }
+
+    private static void checkRows(double[][] rows) {
+        for (double[] r : rows) {
+            if (r == null) {
+                throw new IllegalStateException("The rows could not be processed.");
+            }
+        }
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.geospatialfiles.WhiteboxRasterInfo;
+import whitebox.parallel.LoopBody;
+import whitebox.parallel.Parallel;
+import whitebox.parallel.Partition;
+
+/**
+ * A stack of co-registered raster bands, such as the bands of a multispectral
+ * image, that is read in pixel-interleaved blocks. This is the data source of
+ * the image classification and principal component tools, which make many
+ * passes over every band.
+ *
+ * The values of a block are held in a single float array, with the values of
+ * each pixel in consecutive elements, so that the bands of a pixel are read
+ * together. A pixel that is nodata in any band is nodata in every band, and
+ * its values are NaN. When the whole image fits comfortably in memory it is
+ * read once and each pass is a sweep through memory; otherwise each pass
+ * reads its blocks from disk.
+ *
+ * Passes are run by the process method, which divides the rows among the
+ * available processors. Each processor accumulates its own partial result,
+ * and the partial results are returned for the caller to combine.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class MultibandImage {
+
+    /**
+     * A block of consecutive rows of the image.
+     */
+    public static final class Block {
+
+        private final int startRow;
+        private final int endRow;
+        private final int cols;
+        private final int bands;
+        private final float[] data;
+        private final int offset;
+
+        private Block(int startRow, int endRow, int cols, int bands, float[] data,
+                int offset) {
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.cols = cols;
+            this.bands = bands;
+            this.data = data;
+            this.offset = offset;
+        }
+
+        /**
+         * @return The first row of the block.
+         */
+        public int getStartRow() {
+            return startRow;
+        }
+
+        /**
+         * @return The row after the last row of the block.
+         */
+        public int getEndRow() {
+            return endRow;
+        }
+
+        /**
+         * @return The number of pixels in the block.
+         */
+        public int getNumberPixels() {
+            return (endRow - startRow) * cols;
+        }
+
+        /**
+         * @return The index within the image, row * columns + column, of the
+         * first pixel of the block.
+         */
+        public int getFirstPixel() {
+            return startRow * cols;
+        }
+
+        /**
+         * The values of the block. The value of band b of pixel p, counted
+         * from the start of the block, is at getOffset() + p * bands + b.
+         *
+         * @return The values, which must not be modified.
+         */
+        public float[] getData() {
+            return data;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public boolean isNoData(int pixel) {
+            return Float.isNaN(data[offset + pixel * bands]);
+        }
+
+        public float getValue(int pixel, int band) {
+            return data[offset + pixel * bands + band];
+        }
+    }
+
+    /**
+     * A pass over the image.
+     *
+     * @param <T> The type of the partial results.
+     */
+    public interface BlockProcessor<T> {
+
+        /**
+         * @return A new, empty partial result.
+         */
+        T createResult();
+
+        /**
+         * Processes a block. Each processor thread calls this method for its
+         * blocks in row order, always with the same result object.
+         *
+         * @param block The block.
+         * @param result The partial result of this thread.
+         */
+        void process(Block block, T result);
+    }
+
+    // the number of values read from disk at a time by each processor.
+    private static final int STREAMED_BLOCK_SIZE = 1 << 20;
+
+    private final WhiteboxRasterInfo[] images;
+    private final double[] noData;
+    private final int rows;
+    private final int cols;
+    private final int bands;
+    private float[] data = null;
+
+    /**
+     * Opens a set of bands. The bands are read into memory if they occupy
+     * less than half of the memory available.
+     *
+     * @param fileNames The header files of the bands.
+     */
+    public MultibandImage(String[] fileNames) {
+        bands = fileNames.length;
+        images = new WhiteboxRasterInfo[bands];
+        noData = new double[bands];
+        for (int b = 0; b < bands; b++) {
+            images[b] = new WhiteboxRasterInfo(fileNames[b]);
+            noData[b] = images[b].getNoDataValue();
+            if (images[b].getNumberRows() != images[0].getNumberRows()
+                    || images[b].getNumberColumns() != images[0].getNumberColumns()) {
+                throw new IllegalArgumentException("All input images must have the same dimensions (rows and columns).");
+            }
+        }
+        rows = images[0].getNumberRows();
+        cols = images[0].getNumberColumns();
+
+        Runtime rt = Runtime.getRuntime();
+        long available = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+        long size = 4L * rows * cols * bands;
+        if (size < available / 2 && size <= Integer.MAX_VALUE - 8) {
+            final float[] values = new float[(int) ((long) rows * cols * bands)];
+            final boolean[] rowsRead = new boolean[rows];
+            Parallel.ForEach(Parallel.create(0, rows), new LoopBody<Partition>() {
+                @Override
+                public void run(Partition p) {
+                    readRows(p.start, p.end, values, p.start * cols * bands);
+                    for (int row = p.start; row < p.end; row++) {
+                        rowsRead[row] = true;
+                    }
+                }
+            });
+            checkComplete(rowsRead);
+            data = values;
+        }
+    }
+
+    public int getNumberRows() {
+        return rows;
+    }
+
+    public int getNumberColumns() {
+        return cols;
+    }
+
+    public int getNumberBands() {
+        return bands;
+    }
+
+    /**
+     * @param band The zero-based band number.
+     * @return The band.
+     */
+    public WhiteboxRasterInfo getBand(int band) {
+        return images[band];
+    }
+
+    /**
+     * @return True if the image is held in memory.
+     */
+    public boolean isInMemory() {
+        return data != null;
+    }
+
+    /**
+     * Reads a range of rows of every band into a pixel-interleaved array.
+     */
+    private void readRows(int startRow, int endRow, float[] values, int offset) {
+        for (int b = 0; b < bands; b++) {
+            for (int row = startRow; row < endRow; row++) {
+                double[] rowData = images[b].getRowValues(row);
+                int i = offset + (row - startRow) * cols * bands + b;
+                for (int col = 0; col < cols; col++, i += bands) {
+                    values[i] = rowData[col] != noData[b] ? (float) rowData[col] : Float.NaN;
+                }
+            }
+        }
+        // a pixel that is nodata in one band is nodata in all of them.
+        int n = (endRow - startRow) * cols;
+        for (int p = 0; p < n; p++) {
+            int i = offset + p * bands;
+            boolean isNoData = false;
+            for (int b = 0; b < bands; b++) {
+                if (Float.isNaN(values[i + b])) {
+                    isNoData = true;
+                    break;
+                }
+            }
+            if (isNoData) {
+                Arrays.fill(values, i, i + bands, Float.NaN);
+            }
+        }
+    }
+
+    /**
+     * Receives the progress of a pass.
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param progress The percentage of the rows that are complete.
+         * @return false to cancel the pass.
+         */
+        boolean progress(int progress);
+    }
+
+    /**
+     * Makes a pass over the image. The rows are divided among the available
+     * processors.
+     *
+     * @param processor The pass.
+     * @return The partial results, in row order.
+     */
+    public <T> List<T> process(BlockProcessor<T> processor) {
+        return process(0, rows, processor);
+    }
+
+    /**
+     * Makes a pass over a range of rows of the image. The rows are divided
+     * among the available processors.
+     *
+     * @param startRow The first row.
+     * @param endRow The row after the last row.
+     * @param processor The pass.
+     * @return The partial results, in row order.
+     */
+    public <T> List<T> process(int startRow, int endRow, final BlockProcessor<T> processor) {
+        int numPartitions = Math.max(1, Math.min(endRow - startRow, Parallel.getPluginProcessors() * 4));
+        final ArrayList<Partition> partitions = Parallel.create(startRow, endRow, numPartitions);
+        final List<T> results = new ArrayList<>();
+        ArrayList<Integer> tasks = new ArrayList<>();
+        for (int i = 0; i < partitions.size(); i++) {
+            results.add(processor.createResult());
+            tasks.add(i);
+        }
+        final boolean[] done = new boolean[partitions.size()];
+        Parallel.ForEach(tasks, new LoopBody<Integer>() {
+            @Override
+            public void run(Integer i) {
+                Partition p = partitions.get(i);
+                T result = results.get(i);
+                if (data != null) {
+                    processor.process(new Block(p.start, p.end, cols, bands, data,
+                            p.start * cols * bands), result);
+                } else {
+                    int blockRows = Math.max(1, STREAMED_BLOCK_SIZE / (cols * bands));
+                    float[] values = new float[Math.min(blockRows, p.end - p.start) * cols * bands];
+                    for (int row = p.start; row < p.end; row += blockRows) {
+                        int end = Math.min(p.end, row + blockRows);
+                        readRows(row, end, values, 0);
+                        processor.process(new Block(row, end, cols, bands, values, 0), result);
+                    }
+                }
+                done[i] = true;
+            }
+        });
+        checkComplete(done);
+        return results;
+    }
+
+    /**
+     * Writes linear combinations of the bands to a set of output images in a
+     * single pass. Output k is the sum over the bands b of
+     * coefficients[k][b] times band b. The rows are computed in parallel, a
+     * batch at a time, and written in order.
+     *
+     * @param coefficients The coefficients of each output.
+     * @param outputs The output images, which must have the dimensions of
+     * this image.
+     * @param outputNoData The value assigned to nodata pixels.
+     * @param listener Receives progress, or null.
+     * @return false if the pass was cancelled.
+     */
+    public boolean writeLinearCombinations(final double[][] coefficients,
+            WhiteboxRaster[] outputs, final double outputNoData,
+            ProgressListener listener) {
+        final int numOutputs = outputs.length;
+        int batchRows = Math.max(1, Math.min(rows,
+                STREAMED_BLOCK_SIZE * 4 / Math.max(1, cols * numOutputs)));
+        final double[][][] values = new double[numOutputs][batchRows][cols];
+        for (int first = 0; first < rows; first += batchRows) {
+            final int batchStart = first;
+            int batchEnd = Math.min(rows, first + batchRows);
+            process(batchStart, batchEnd, new BlockProcessor<Boolean>() {
+                @Override
+                public Boolean createResult() {
+                    return Boolean.TRUE;
+                }
+
+                @Override
+                public void process(Block block, Boolean result) {
+                    float[] blockData = block.getData();
+                    for (int p = 0; p < block.getNumberPixels(); p++) {
+                        int row = block.getStartRow() + p / cols - batchStart;
+                        int col = p % cols;
+                        if (block.isNoData(p)) {
+                            for (int k = 0; k < numOutputs; k++) {
+                                values[k][row][col] = outputNoData;
+                            }
+                            continue;
+                        }
+                        int offset = block.getOffset() + p * bands;
+                        for (int k = 0; k < numOutputs; k++) {
+                            double[] c = coefficients[k];
+                            double z = 0;
+                            for (int b = 0; b < bands; b++) {
+                                z += c[b] * blockData[offset + b];
+                            }
+                            values[k][row][col] = z;
+                        }
+                    }
+                }
+            });
+            for (int row = batchStart; row < batchEnd; row++) {
+                for (int k = 0; k < numOutputs; k++) {
+                    outputs[k].setRowValues(row, values[k][row - batchStart]);
+                }
+            }
+            if (listener != null && !listener.progress((int) (100L * batchEnd / rows))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void checkComplete(boolean[] done) {
+        for (boolean b : done) {
+            if (!b) {
+                throw new IllegalStateException("The image could not be processed.");
+            }
+        }
+    }
+
+    /**
+     * Closes the bands and releases the image.
+     */
+    public void close() {
+        for (WhiteboxRasterInfo image : images) {
+            image.close();
+        }
+        data = null;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+/**
+ * A histogram of integer ranks supporting constant-time insertion and removal
+ * and order-statistic queries. The bins are grouped into blocks of about the
+ * square root of the number of bins and the count of each block is kept
+ * alongside the bin counts, so that a query visits at most one block's worth
+ * of blocks and one block's worth of bins.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+final class RankHistogram {
+
+    private final int[] bins;
+    private final int[] blocks;
+    private final int shift;
+    private int size = 0;
+    private int numNonEmptyBins = 0;
+
+    // mode tracking; the block maxima are upper bounds that are tightened
+    // when a block is scanned.
+    private final boolean trackMode;
+    private int[] blockMax;
+    private int[] numBinsWithCount;
+    private int maxCount = 0;
+
+    /**
+     * @param numBins The number of distinct ranks.
+     * @param maxSize The largest number of values held at one time.
+     * @param trackMode Set to true if getMode will be used.
+     */
+    RankHistogram(int numBins, int maxSize, boolean trackMode) {
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(numBins, 1));
+        shift = Math.max(4, bits / 2);
+        bins = new int[Math.max(numBins, 1)];
+        blocks = new int[(bins.length >> shift) + 1];
+        this.trackMode = trackMode;
+        if (trackMode) {
+            blockMax = new int[blocks.length];
+            numBinsWithCount = new int[maxSize + 2];
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getNumberOfNonEmptyBins() {
+        return numNonEmptyBins;
+    }
+
+    void add(int rank) {
+        int c = bins[rank]++;
+        blocks[rank >> shift]++;
+        size++;
+        if (c == 0) {
+            numNonEmptyBins++;
+        }
+        if (trackMode) {
+            if (c > 0) {
+                numBinsWithCount[c]--;
+            }
+            numBinsWithCount[c + 1]++;
+            if (c + 1 > maxCount) {
+                maxCount = c + 1;
+            }
+            if (c + 1 > blockMax[rank >> shift]) {
+                blockMax[rank >> shift] = c + 1;
+            }
+        }
+    }
+
+    void remove(int rank) {
+        int c = bins[rank]--;
+        blocks[rank >> shift]--;
+        size--;
+        if (c == 1) {
+            numNonEmptyBins--;
+        }
+        if (trackMode) {
+            numBinsWithCount[c]--;
+            if (c > 1) {
+                numBinsWithCount[c - 1]++;
+            }
+            if (c == maxCount && numBinsWithCount[c] == 0) {
+                maxCount--;
+            }
+        }
+    }
+
+    /**
+     * Finds the k-th smallest rank.
+     *
+     * @param k The zero-based order; must be less than size().
+     * @return The rank.
+     */
+    int select(int k) {
+        int b = 0;
+        while (k >= blocks[b]) {
+            k -= blocks[b];
+            b++;
+        }
+        int i = b << shift;
+        while (k >= bins[i]) {
+            k -= bins[i];
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * The number of values with a rank lower than the specified rank.
+     */
+    int countBelow(int rank) {
+        int b = rank >> shift;
+        int n = 0;
+        for (int i = 0; i < b; i++) {
+            n += blocks[i];
+        }
+        for (int i = b << shift; i < rank; i++) {
+            n += bins[i];
+        }
+        return n;
+    }
+
+    /**
+     * Finds the most frequent rank, or the lowest of the most frequent ranks
+     * if there is a tie.
+     *
+     * @return The modal rank, or -1 if the histogram is empty.
+     */
+    int getMode() {
+        if (size == 0) {
+            return -1;
+        }
+        for (int b = 0; b < blocks.length; b++) {
+            if (blockMax[b] < maxCount) {
+                continue;
+            }
+            int start = b << shift;
+            int end = Math.min(bins.length, start + (1 << shift));
+            int m = 0;
+            int mode = -1;
+            for (int i = start; i < end; i++) {
+                if (bins[i] > m) {
+                    m = bins[i];
+                }
+                if (mode < 0 && bins[i] == maxCount) {
+                    mode = i;
+                }
+            }
+            blockMax[b] = m;
+            if (mode >= 0) {
+                return mode;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,530 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import whitebox.geospatialfiles.WhiteboxRaster;
+
+/**
+ * Converts the regions of a raster into polygons. This is the engine of the
+ * RasterToVectorPolygons tool.
+ *
+ * A region is a group of 4-connected cells of equal value. Nodata and zero
+ * cells are background and are not converted. The boundary of every region
+ * runs along cell edges, with the region on its right, so that the exterior
+ * ring of a polygon is clockwise and its holes are counter-clockwise. Where
+ * two cells of a region touch only at a corner, the boundary turns to keep to
+ * the cell it is following, so that the rings never cross.
+ *
+ * The raster is read in a single sweep, one row at a time. The boundary edges
+ * along each line of cell corners are joined with the partial rings that
+ * reach the line from above, and rings are closed as soon as their last edge
+ * is found. At the same time the regions are labelled with a union-find
+ * structure, and a region is passed to the listener as soon as a row is found
+ * that does not contain any of its cells, at which point all of its rings are
+ * closed. Only two rows of the raster, the partial rings that cross the
+ * current line and the regions that it intersects are held in memory.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class RasterPolygonizer {
+
+    /**
+     * Receives the polygons.
+     */
+    public interface PolygonListener {
+
+        /**
+         * Receives the polygon of a region. This method is called on the thread
+         * that is converting the raster.
+         *
+         * @param value The value of the cells of the region.
+         * @param rings The rings of the polygon, each of which is an array of
+         * x and y coordinates whose first and last vertices are the same. The
+         * exterior ring is first and is clockwise; the holes are
+         * counter-clockwise.
+         */
+        void polygon(double value, List<double[][]> rings);
+
+        /**
+         * Reports progress.
+         *
+         * @param progress The percentage of the raster that is complete.
+         * @return false to cancel the operation.
+         */
+        boolean progress(int progress);
+    }
+
+    // directions of travel along an edge
+    private static final int NORTH = 0;
+    private static final int EAST = 1;
+    private static final int SOUTH = 2;
+    private static final int WEST = 3;
+
+    private final WhiteboxRaster raster;
+    private final int rows;
+    private final int cols;
+    private final double noData;
+    private final double west;
+    private final double north;
+    private final double cellSizeX;
+    private final double cellSizeY;
+
+    /**
+     * @param raster The input raster.
+     */
+    public RasterPolygonizer(WhiteboxRaster raster) {
+        this.raster = raster;
+        rows = raster.getNumberRows();
+        cols = raster.getNumberColumns();
+        noData = raster.getNoDataValue();
+        west = raster.getWest();
+        north = raster.getNorth();
+        cellSizeX = raster.getCellSizeX();
+        cellSizeY = raster.getCellSizeY();
+    }
+
+    /**
+     * A vertex of a ring at which the boundary turns.
+     */
+    private static class Node {
+
+        final int row;
+        final int col;
+        Node next;
+
+        Node(int row, int col) {
+            this.row = row;
+            this.col = col;
+        }
+    }
+
+    /**
+     * An open part of a ring. The vertices at its ends are not stored; they
+     * are the positions at which the chain is held by the sweep. A chain that
+     * has been appended to another is forwarded to it.
+     */
+    private static class Chain {
+
+        Node first;
+        Node last;
+        int headDir;
+        int tailDir;
+        boolean pinched;
+        Chain forward;
+
+        Chain resolve() {
+            Chain c = this;
+            while (c.forward != null) {
+                c = c.forward;
+            }
+            Chain d = this;
+            while (d.forward != null) {
+                Chain n = d.forward;
+                d.forward = c;
+                d = n;
+            }
+            return c;
+        }
+
+        void append(int row, int col) {
+            Node n = new Node(row, col);
+            if (last == null) {
+                first = n;
+            } else {
+                last.next = n;
+            }
+            last = n;
+        }
+
+        void prepend(int row, int col) {
+            Node n = new Node(row, col);
+            n.next = first;
+            first = n;
+            if (last == null) {
+                last = n;
+            }
+        }
+    }
+
+    /**
+     * A region, or part of one until the parts are found to be connected.
+     */
+    private static class Region {
+
+        final double value;
+        Region parent;
+        int lastRow;
+        boolean emitted;
+        ArrayList<double[][]> shells = new ArrayList<>();
+        ArrayList<double[][]> holes = new ArrayList<>();
+
+        Region(double value, int row) {
+            this.value = value;
+            this.lastRow = row;
+        }
+
+        Region find() {
+            Region r = this;
+            while (r.parent != null) {
+                r = r.parent;
+            }
+            Region s = this;
+            while (s.parent != null) {
+                Region n = s.parent;
+                s.parent = r;
+                s = n;
+            }
+            return r;
+        }
+    }
+
+    private static Region union(Region a, Region b) {
+        a = a.find();
+        b = b.find();
+        if (a == b) {
+            return a;
+        }
+        if (a.shells.size() + a.holes.size() < b.shells.size() + b.holes.size()) {
+            Region t = a;
+            a = b;
+            b = t;
+        }
+        b.parent = a;
+        a.lastRow = Math.max(a.lastRow, b.lastRow);
+        a.shells.addAll(b.shells);
+        a.holes.addAll(b.holes);
+        b.shells = null;
+        b.holes = null;
+        return a;
+    }
+
+    /**
+     * Converts the regions of the raster.
+     *
+     * @param listener Receives the polygons and progress.
+     * @return false if the operation was cancelled.
+     */
+    public boolean polygonize(PolygonListener listener) {
+        // Rows are padded with a background column on either side, and
+        // background cells are held as NaN so that they equal no other cell.
+        double[] up = new double[cols + 2];
+        double[] down = new double[cols + 2];
+        Arrays.fill(up, Double.NaN);
+        Region[] upRegions = new Region[cols + 2];
+        Region[] downRegions = new Region[cols + 2];
+
+        // chains whose tail arrives at, or whose head leaves from, a vertex
+        // of the current line along the vertical edge above it.
+        Chain[] tailAbove = new Chain[cols + 1];
+        Chain[] headAbove = new Chain[cols + 1];
+        Chain[] nextTailAbove = new Chain[cols + 1];
+        Chain[] nextHeadAbove = new Chain[cols + 1];
+
+        int progress, oldProgress = -1;
+        for (int r = 0; r <= rows; r++) {
+            // read and label the row below the line
+            Arrays.fill(down, Double.NaN);
+            Arrays.fill(downRegions, null);
+            if (r < rows) {
+                double[] data = raster.getRowValues(r);
+                for (int col = 0; col < cols; col++) {
+                    double z = data[col];
+                    if (z != noData && z != 0) {
+                        down[col + 1] = z;
+                    }
+                }
+                for (int c = 1; c <= cols; c++) {
+                    double z = down[c];
+                    if (z == z) {
+                        Region reg = null;
+                        if (down[c - 1] == z) {
+                            reg = downRegions[c - 1].find();
+                        }
+                        if (up[c] == z) {
+                            reg = reg == null ? upRegions[c].find() : union(reg, upRegions[c]);
+                        }
+                        if (reg == null) {
+                            reg = new Region(z, r);
+                        }
+                        reg.lastRow = r;
+                        downRegions[c] = reg;
+                    }
+                }
+            }
+
+            // trace the boundary edges that meet at each vertex of the line
+            Chain westTail = null;
+            Chain westHead = null;
+            for (int c = 0; c <= cols; c++) {
+                double ul = up[c];
+                double ur = up[c + 1];
+                double ll = down[c];
+                double lr = down[c + 1];
+
+                // in-edges
+                boolean ulRight = ul == ul && ul != ur;
+                boolean llTop = ll == ll && ll != ul;
+                boolean urBottom = ur == ur && ur != lr;
+                boolean lrLeft = lr == lr && lr != ll;
+                // out-edges
+                boolean urLeft = ur == ur && ur != ul;
+                boolean ulBottom = ul == ul && ul != ll;
+                boolean lrTop = lr == lr && lr != ur;
+                boolean llRight = ll == ll && ll != lr;
+
+                boolean pinched = (ul == lr && ul != ur && ul != ll)
+                        || (ur == ll && ur != ul && ur != lr);
+
+                Chain newWestTail = null;
+                Chain newWestHead = null;
+                Chain newTailAbove = null;
+                Chain newHeadAbove = null;
+
+                // Each in-edge is joined to an out-edge of the same region,
+                // preferring a right turn, i.e. the edge of the same cell,
+                // then straight on and then a left turn.
+                if (ulRight) {
+                    Chain in = tailAbove[c];
+                    Region reg = upRegions[c];
+                    if (ulBottom) {
+                        link(in, SOUTH, westHead, WEST, r, c, pinched, reg);
+                    } else if (llRight) {
+                        newTailAbove = extend(in, SOUTH, r, c, pinched);
+                    } else {
+                        newWestTail = extend(in, EAST, r, c, pinched);
+                    }
+                }
+                if (llTop) {
+                    Chain in = westTail;
+                    Region reg = downRegions[c];
+                    if (llRight) {
+                        newTailAbove = extend(in, SOUTH, r, c, pinched);
+                    } else if (lrTop) {
+                        newWestTail = extend(in, EAST, r, c, pinched);
+                    } else {
+                        link(in, EAST, headAbove[c], NORTH, r, c, pinched, reg);
+                    }
+                }
+                if (urBottom) {
+                    if (urLeft) {
+                        newWestHead = extendBack(headAbove[c], WEST, r, c, pinched);
+                    } else if (ulBottom) {
+                        newWestHead = extendBack(westHead, WEST, r, c, pinched);
+                    } else {
+                        newWestHead = create(WEST, SOUTH, r, c, pinched);
+                        newTailAbove = newWestHead;
+                    }
+                }
+                if (lrLeft) {
+                    if (lrTop) {
+                        newHeadAbove = create(NORTH, EAST, r, c, pinched);
+                        newWestTail = newHeadAbove;
+                    } else if (urLeft) {
+                        newHeadAbove = extendBack(headAbove[c], NORTH, r, c, pinched);
+                    } else {
+                        newHeadAbove = extendBack(westHead, NORTH, r, c, pinched);
+                    }
+                }
+                westTail = newWestTail;
+                westHead = newWestHead;
+                nextTailAbove[c] = newTailAbove;
+                nextHeadAbove[c] = newHeadAbove;
+            }
+
+            // Regions of the row above the line that have no cells in the row
+            // below it are complete.
+            if (r > 0) {
+                for (int c = 1; c <= cols; c++) {
+                    if (upRegions[c] != null) {
+                        Region reg = upRegions[c].find();
+                        if (reg.lastRow < r && !reg.emitted) {
+                            reg.emitted = true;
+                            emit(reg, listener);
+                        }
+                    }
+                }
+            }
+
+            double[] d = up;
+            up = down;
+            down = d;
+            Region[] g = upRegions;
+            upRegions = downRegions;
+            downRegions = g;
+            Chain[] t = tailAbove;
+            tailAbove = nextTailAbove;
+            nextTailAbove = t;
+            t = headAbove;
+            headAbove = nextHeadAbove;
+            nextHeadAbove = t;
+
+            progress = (int) (100f * r / rows);
+            if (progress != oldProgress) {
+                oldProgress = progress;
+                if (!listener.progress(progress)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Starts a chain at a vertex where a new in-edge turns onto a new
+     * out-edge.
+     */
+    private static Chain create(int inDir, int outDir, int row, int col, boolean pinched) {
+        Chain chain = new Chain();
+        chain.append(row, col);
+        chain.headDir = inDir;
+        chain.tailDir = outDir;
+        chain.pinched = pinched;
+        return chain;
+    }
+
+    /**
+     * Extends the tail of a chain along a new out-edge.
+     */
+    private static Chain extend(Chain chain, int outDir, int row, int col, boolean pinched) {
+        chain = chain.resolve();
+        if (chain.tailDir != outDir) {
+            chain.append(row, col);
+            chain.tailDir = outDir;
+        }
+        chain.pinched |= pinched;
+        return chain;
+    }
+
+    /**
+     * Extends the head of a chain back along a new in-edge.
+     */
+    private static Chain extendBack(Chain chain, int inDir, int row, int col, boolean pinched) {
+        chain = chain.resolve();
+        if (chain.headDir != inDir) {
+            chain.prepend(row, col);
+            chain.headDir = inDir;
+        }
+        chain.pinched |= pinched;
+        return chain;
+    }
+
+    /**
+     * Joins the tail of one chain to the head of another. If they are the same
+     * chain, the ring is closed.
+     */
+    private void link(Chain in, int inDir, Chain out, int outDir, int row, int col,
+            boolean pinched, Region region) {
+        in = in.resolve();
+        out = out.resolve();
+        if (inDir != outDir) {
+            in.append(row, col);
+        }
+        in.pinched |= pinched;
+        if (in == out) {
+            closeRing(in, region);
+            return;
+        }
+        in.last.next = out.first;
+        in.last = out.last;
+        in.tailDir = out.tailDir;
+        in.pinched |= out.pinched;
+        out.forward = in;
+    }
+
+    private void closeRing(Chain chain, Region region) {
+        region = region.find();
+        if (!chain.pinched) {
+            addRing(chain.first, null, region);
+            return;
+        }
+        // The ring touches itself at one or more vertices. It is split into
+        // simple rings at these vertices.
+        ArrayList<Node> stack = new ArrayList<>();
+        HashMap<Long, Integer> index = new HashMap<>();
+        for (Node n = chain.first; n != null; n = n.next) {
+            long key = (long) n.row * (cols + 1) + n.col;
+            Integer i = index.get(key);
+            if (i == null) {
+                index.put(key, stack.size());
+                stack.add(n);
+            } else {
+                List<Node> loop = stack.subList(i, stack.size());
+                addRing(null, loop, region);
+                for (int j = i + 1; j < stack.size(); j++) {
+                    Node m = stack.get(j);
+                    index.remove((long) m.row * (cols + 1) + m.col);
+                }
+                loop.subList(1, loop.size()).clear();
+            }
+        }
+        addRing(null, stack, region);
+    }
+
+    /**
+     * Adds a ring, given either as a linked list of nodes or as a list, to a
+     * region.
+     */
+    private void addRing(Node first, List<Node> nodes, Region region) {
+        int n = 0;
+        if (nodes == null) {
+            for (Node m = first; m != null; m = m.next) {
+                n++;
+            }
+        } else {
+            n = nodes.size();
+        }
+        if (n < 3) {
+            return;
+        }
+        double[][] points = new double[n + 1][2];
+        double area = 0;
+        Node m = first;
+        for (int i = 0; i < n; i++) {
+            if (nodes != null) {
+                m = nodes.get(i);
+            }
+            points[i][0] = west + m.col * cellSizeX;
+            points[i][1] = north - m.row * cellSizeY;
+            m = m.next;
+        }
+        points[n][0] = points[0][0];
+        points[n][1] = points[0][1];
+        for (int i = 0; i < n; i++) {
+            area += points[i][0] * points[i + 1][1] - points[i + 1][0] * points[i][1];
+        }
+        if (area < 0) {
+            region.shells.add(points);
+        } else {
+            region.holes.add(points);
+        }
+    }
+
+    private static void emit(Region region, PolygonListener listener) {
+        List<double[][]> rings = new ArrayList<>(region.shells.size() + region.holes.size());
+        rings.addAll(region.shells);
+        rings.addAll(region.holes);
+        region.shells = null;
+        region.holes = null;
+        if (!rings.isEmpty()) {
+            listener.polygon(region.value, rings);
+        }
+    }
+}
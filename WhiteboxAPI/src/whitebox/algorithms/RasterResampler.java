@@ -0,0 +1,634 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import java.util.ArrayList;
+import java.util.List;
+import whitebox.geospatialfiles.WhiteboxRasterBase;
+import whitebox.parallel.LoopBody;
+import whitebox.parallel.Parallel;
+import whitebox.parallel.Partition;
+
+/**
+ * Resamples a set of source images onto the grid of a destination image. This
+ * is the engine of the Resample, Mosaic and MosaicWithFeathering tools.
+ *
+ * The destination is processed in strips of rows, which are resampled
+ * concurrently and then written in order. For each strip, only the rows of
+ * each source image that the strip overlaps are read. Values are sampled at
+ * cell centres using nearest-neighbour, bilinear or cubic convolution
+ * (Keys, 1981) interpolation. The interpolation kernels are separable, and
+ * the column weights of each source image are computed once, when it is
+ * added. Where a kernel includes nodata cells, bilinear interpolation uses
+ * the remaining cells and cubic convolution falls back on bilinear
+ * interpolation.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class RasterResampler {
+
+    /**
+     * The interpolation methods.
+     */
+    public enum Method {
+
+        NEAREST_NEIGHBOUR, BILINEAR, CUBIC_CONVOLUTION;
+
+        /**
+         * Interprets the name of a resampling method as it is given to the
+         * tools, e.g. "nearest neighbour", "bilinear" or "cubic convolution".
+         *
+         * @param name The name.
+         * @return The method, or null if it is not recognized.
+         */
+        public static Method fromString(String name) {
+            String str = name.toLowerCase().trim();
+            if (str.contains("nearest")) {
+                return NEAREST_NEIGHBOUR;
+            } else if (str.contains("bilinear")) {
+                return BILINEAR;
+            } else if (str.contains("cubic")) {
+                return CUBIC_CONVOLUTION;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Produces and receives strips of the destination image.
+     */
+    public interface StripProcessor {
+
+        /**
+         * Computes the values of a strip of rows. This method is called
+         * concurrently for different strips.
+         *
+         * @param startRow The first row of the strip.
+         * @param output The values of the rows, to be filled in.
+         */
+        void process(int startRow, double[][] output);
+
+        /**
+         * Receives a row of the destination image. The rows are passed in
+         * order, on the thread that called run.
+         *
+         * @param row The row number.
+         * @param values The values of the row.
+         */
+        void write(int row, double[] values);
+
+        /**
+         * Reports progress.
+         *
+         * @param progress The percentage of the rows that are complete.
+         * @return false to cancel the operation.
+         */
+        boolean progress(int progress);
+    }
+
+    private static final int STRIP_HEIGHT = 64;
+
+    private final int rows;
+    private final int cols;
+    private final double north;
+    private final double south;
+    private final double east;
+    private final double west;
+    private final Method method;
+    private final int kernelSize;
+    private final List<Source> sources = new ArrayList<>();
+
+    /**
+     * @param destination The image whose grid the sources are resampled to.
+     * @param method The interpolation method.
+     */
+    public RasterResampler(WhiteboxRasterBase destination, Method method) {
+        rows = destination.getNumberRows();
+        cols = destination.getNumberColumns();
+        north = destination.getNorth();
+        south = destination.getSouth();
+        east = destination.getEast();
+        west = destination.getWest();
+        this.method = method;
+        switch (method) {
+            case NEAREST_NEIGHBOUR:
+                kernelSize = 1;
+                break;
+            case BILINEAR:
+                kernelSize = 2;
+                break;
+            default:
+                kernelSize = 4;
+        }
+    }
+
+    public int getNumberRows() {
+        return rows;
+    }
+
+    public int getNumberColumns() {
+        return cols;
+    }
+
+    /**
+     * Adds a source image. The image is read concurrently by the strips, so
+     * it should be opened for reading only.
+     *
+     * @param image The image.
+     * @return The index of the source.
+     */
+    public int addSource(WhiteboxRasterBase image) {
+        sources.add(new Source(image));
+        return sources.size() - 1;
+    }
+
+    public int getNumberSources() {
+        return sources.size();
+    }
+
+    /**
+     * Computes, for every cell of a source, the squared distance in cells
+     * to the nearest edge of its valid data, i.e. to the nearest cell that
+     * lies on the image border, is nodata, or is beside a nodata cell in the
+     * same row. These distances weight the sources when they are feathered.
+     *
+     * @param source The index of the source.
+     */
+    public void computeEdgeDistances(int source) {
+        final Source s = sources.get(source);
+        final boolean[] edges = new boolean[s.rows * s.cols];
+        final boolean[] rowsDone = new boolean[s.rows];
+        Parallel.ForEach(Parallel.create(0, s.rows), new LoopBody<Partition>() {
+            @Override
+            public void run(Partition p) {
+                for (int row = p.start; row < p.end; row++) {
+                    double[] data = s.image.getRowValues(row);
+                    int offset = row * s.cols;
+                    for (int col = 0; col < s.cols; col++) {
+                        edges[offset + col] = row == 0 || row == s.rows - 1
+                                || col == 0 || col == s.cols - 1
+                                || data[col] == s.noData
+                                || data[col - 1] == s.noData
+                                || data[col + 1] == s.noData;
+                    }
+                    rowsDone[row] = true;
+                }
+            }
+        });
+        checkComplete(rowsDone);
+        EuclideanDistanceTransform edt = new EuclideanDistanceTransform(edges,
+                s.rows, s.cols, 1, 1);
+        edt.transform();
+        float[] distances = new float[edges.length];
+        for (int row = 0; row < s.rows; row++) {
+            double[] d = edt.getRowDistances(row, 0);
+            int offset = row * s.cols;
+            for (int col = 0; col < s.cols; col++) {
+                distances[offset + col] = (float) (d[col] * d[col]);
+            }
+        }
+        s.edgeDistances = distances;
+    }
+
+    /**
+     * Processes the destination image in strips. The strips are processed
+     * concurrently, a batch at a time, and their rows are then written in
+     * order.
+     *
+     * @param processor Computes and receives the strips.
+     * @return false if the operation was cancelled.
+     */
+    public boolean run(final StripProcessor processor) {
+        int numStrips = (rows + STRIP_HEIGHT - 1) / STRIP_HEIGHT;
+        int batchSize = Parallel.getPluginProcessors();
+        for (int first = 0; first < numStrips; first += batchSize) {
+            final int start = first;
+            int end = Math.min(numStrips, first + batchSize);
+            final double[][][] strips = new double[end - start][][];
+            ArrayList<Integer> stripNums = new ArrayList<>();
+            for (int s = start; s < end; s++) {
+                stripNums.add(s);
+            }
+            Parallel.ForEach(stripNums, new LoopBody<Integer>() {
+                @Override
+                public void run(Integer s) {
+                    int startRow = s * STRIP_HEIGHT;
+                    int endRow = Math.min(rows, startRow + STRIP_HEIGHT);
+                    double[][] output = new double[endRow - startRow][cols];
+                    processor.process(startRow, output);
+                    strips[s - start] = output;
+                }
+            });
+            for (int s = 0; s < strips.length; s++) {
+                if (strips[s] == null) {
+                    throw new IllegalStateException("Resampling failed for strip " + (start + s) + ".");
+                }
+                int startRow = (start + s) * STRIP_HEIGHT;
+                for (int r = 0; r < strips[s].length; r++) {
+                    processor.write(startRow + r, strips[s][r]);
+                }
+                strips[s] = null;
+            }
+            if (!processor.progress((int) (100L * end / numStrips))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Composites the sources over a strip. Each cell takes the value of the
+     * first source, in the order given, that has a valid value at the cell.
+     * Cells that are covered only by nodata are assigned the nodata value,
+     * and cells that no source covers are left unchanged.
+     *
+     * @param order The indices of the sources, in order of priority.
+     * @param startRow The first row of the strip.
+     * @param output The values of the strip.
+     * @param noData The nodata value of the destination.
+     */
+    public void composite(int[] order, int startRow, double[][] output, double noData) {
+        int endRow = startRow + output.length;
+        boolean[][] done = new boolean[output.length][cols];
+        double[] values = new double[cols];
+        for (int i : order) {
+            Source s = sources.get(i);
+            SourceWindow window = s.read(startRow, endRow);
+            if (window == null) {
+                continue;
+            }
+            for (int row = window.startRow; row < window.endRow; row++) {
+                int r = row - startRow;
+                if (!window.sample(row, values, done[r])) {
+                    continue;
+                }
+                for (int col = s.firstCol; col < s.endCol; col++) {
+                    if (done[r][col]) {
+                        continue;
+                    }
+                    if (!Double.isNaN(values[col])) {
+                        output[r][col] = values[col];
+                        done[r][col] = true;
+                    } else {
+                        output[r][col] = noData;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Feathers two sources over a strip. Where only one source has a valid
+     * value, that value is used; where both do, the values are averaged
+     * with weights that increase with the distance of each cell from the
+     * edge of the valid data of its source, raised to a power. Both sources
+     * must have had their edge distances computed.
+     *
+     * @param base The index of the base source.
+     * @param append The index of the appended source.
+     * @param power The exponent of the distance weights.
+     * @param startRow The first row of the strip.
+     * @param output The values of the strip.
+     * @param noData The nodata value of the destination.
+     */
+    public void feather(int base, int append, double power, int startRow,
+            double[][] output, double noData) {
+        Source s1 = sources.get(base);
+        Source s2 = sources.get(append);
+        if (s1.edgeDistances == null || s2.edgeDistances == null) {
+            throw new IllegalStateException("The edge distances have not been computed.");
+        }
+        int endRow = startRow + output.length;
+        SourceWindow w1 = s1.read(startRow, endRow);
+        SourceWindow w2 = s2.read(startRow, endRow);
+        double[] z1 = new double[cols];
+        double[] z2 = new double[cols];
+        for (int row = startRow; row < endRow; row++) {
+            boolean has1 = w1 != null && w1.sample(row, z1, null);
+            boolean has2 = w2 != null && w2.sample(row, z2, null);
+            double[] out = output[row - startRow];
+            for (int col = 0; col < cols; col++) {
+                boolean valid1 = has1 && col >= s1.firstCol && col < s1.endCol
+                        && !Double.isNaN(z1[col]);
+                boolean valid2 = has2 && col >= s2.firstCol && col < s2.endCol
+                        && !Double.isNaN(z2[col]);
+                if (valid1 && valid2) {
+                    double d1 = s1.edgeDistance(w1.nearestRow, col);
+                    double d2 = s2.edgeDistance(w2.nearestRow, col);
+                    // w1 = d1^p / (d1^p + d2^p), written to avoid overflow.
+                    double w;
+                    if (d1 == d2) {
+                        w = 0.5;
+                    } else if (d1 == 0) {
+                        w = 0;
+                    } else {
+                        w = 1 / (1 + Math.pow(d2 / d1, power));
+                    }
+                    out[col] = w * z1[col] + (1 - w) * z2[col];
+                } else if (valid1) {
+                    out[col] = z1[col];
+                } else if (valid2) {
+                    out[col] = z2[col];
+                } else {
+                    out[col] = noData;
+                }
+            }
+        }
+    }
+
+    private static void checkComplete(boolean[] done) {
+        for (boolean b : done) {
+            if (!b) {
+                throw new IllegalStateException("The image could not be read.");
+            }
+        }
+    }
+
+    /**
+     * The cubic convolution kernel with a = -0.5.
+     */
+    private static double cubic(double x) {
+        x = Math.abs(x);
+        if (x <= 1) {
+            return (1.5 * x - 2.5) * x * x + 1;
+        } else if (x < 2) {
+            return ((-0.5 * x + 2.5) * x - 4) * x + 2;
+        }
+        return 0;
+    }
+
+    /**
+     * A source image and the mapping of the destination columns onto it.
+     */
+    private final class Source {
+
+        final WhiteboxRasterBase image;
+        final int rows;
+        final int cols;
+        final double noData;
+        final double north;
+        final double south;
+        // the destination columns that the source covers.
+        final int firstCol;
+        final int endCol;
+        // the nearest source column of each destination column and the
+        // first column and fractional position of its kernel, indexed from
+        // firstCol.
+        final int[] nearestCol;
+        final int[] kernelCol;
+        final double[] fraction;
+        final double[] colWeights;
+        float[] edgeDistances = null;
+
+        Source(WhiteboxRasterBase image) {
+            this.image = image;
+            rows = image.getNumberRows();
+            cols = image.getNumberColumns();
+            noData = image.getNoDataValue();
+            north = image.getNorth();
+            south = image.getSouth();
+            int dCols = RasterResampler.this.cols;
+            double srcWest = image.getWest();
+            double srcEast = image.getEast();
+            // find the destination columns the source covers first, so that
+            // the column tables need only span them.
+            int first = dCols;
+            int end = 0;
+            for (int col = 0; col < dCols; col++) {
+                double u = columnPosition(col, srcWest, srcEast);
+                if (u > 0 && u < cols) {
+                    first = Math.min(first, col);
+                    end = col + 1;
+                }
+            }
+            int n = Math.max(0, end - first);
+            nearestCol = new int[n];
+            kernelCol = new int[n];
+            fraction = new double[n];
+            colWeights = new double[n * kernelSize];
+            for (int col = first; col < end; col++) {
+                int i = col - first;
+                double u = columnPosition(col, srcWest, srcEast);
+                if (u <= 0 || u >= cols) {
+                    nearestCol[i] = -1;
+                    continue;
+                }
+                nearestCol[i] = Math.min(cols - 1, (int) u);
+                double c = u - 0.5;
+                int c0 = (int) Math.floor(c);
+                fraction[i] = c - c0;
+                kernelCol[i] = kernelSize == 4 ? c0 - 1 : c0;
+                setWeights(colWeights, i * kernelSize, fraction[i]);
+            }
+            firstCol = first;
+            endCol = end;
+        }
+
+        /**
+         * The position of the centre of a destination column, in columns from
+         * the western edge of the source.
+         */
+        private double columnPosition(int col, double srcWest, double srcEast) {
+            double x = west + (col + 0.5) * (east - west) / RasterResampler.this.cols;
+            return (x - srcWest) / (srcEast - srcWest) * cols;
+        }
+
+        /**
+         * The position of the centre of a destination row, in rows from the
+         * northern edge of the source.
+         */
+        double rowPosition(int row) {
+            double y = RasterResampler.this.north
+                    + (row + 0.5) * (RasterResampler.this.south - RasterResampler.this.north)
+                    / RasterResampler.this.rows;
+            return (north - y) / (north - south) * rows;
+        }
+
+        double edgeDistance(int row, int col) {
+            return edgeDistances[row * cols + nearestCol[col - firstCol]];
+        }
+
+        /**
+         * Reads the rows of the source needed by a strip of the destination.
+         *
+         * @return The window, or null if the source does not cover the strip.
+         */
+        SourceWindow read(int startRow, int endRow) {
+            if (firstCol >= endCol) {
+                return null;
+            }
+            int first = -1;
+            int end = -1;
+            int minRow = Integer.MAX_VALUE;
+            int maxRow = Integer.MIN_VALUE;
+            for (int row = startRow; row < endRow; row++) {
+                double v = rowPosition(row);
+                if (v <= 0 || v >= rows) {
+                    continue;
+                }
+                if (first < 0) {
+                    first = row;
+                }
+                end = row + 1;
+                int r0 = (int) Math.floor(v - 0.5) - (kernelSize == 4 ? 1 : 0);
+                int nearest = Math.min(rows - 1, (int) v);
+                minRow = Math.min(minRow, Math.min(nearest, r0));
+                maxRow = Math.max(maxRow, Math.max(nearest, r0 + kernelSize - 1));
+            }
+            if (first < 0) {
+                return null;
+            }
+            minRow = Math.max(0, minRow);
+            maxRow = Math.min(rows - 1, maxRow);
+            double[][] data = new double[maxRow - minRow + 1][];
+            for (int r = minRow; r <= maxRow; r++) {
+                data[r - minRow] = image.getRowValues(r);
+            }
+            return new SourceWindow(this, first, end, minRow, data);
+        }
+    }
+
+    /**
+     * Sets the kernel weights for a fractional position.
+     */
+    private void setWeights(double[] weights, int offset, double t) {
+        switch (method) {
+            case NEAREST_NEIGHBOUR:
+                weights[offset] = 1;
+                break;
+            case BILINEAR:
+                weights[offset] = 1 - t;
+                weights[offset + 1] = t;
+                break;
+            default:
+                weights[offset] = cubic(1 + t);
+                weights[offset + 1] = cubic(t);
+                weights[offset + 2] = cubic(1 - t);
+                weights[offset + 3] = cubic(2 - t);
+        }
+    }
+
+    /**
+     * The rows of a source read for a strip of the destination.
+     */
+    private final class SourceWindow {
+
+        final Source source;
+        // the destination rows that the source covers
+        final int startRow;
+        final int endRow;
+        final int firstSourceRow;
+        final double[][] data;
+        final double[] rowWeights = new double[kernelSize];
+        // the nearest source row of the last row sampled
+        int nearestRow;
+
+        SourceWindow(Source source, int startRow, int endRow, int firstSourceRow,
+                double[][] data) {
+            this.source = source;
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.firstSourceRow = firstSourceRow;
+            this.data = data;
+        }
+
+        double get(int row, int col) {
+            row = Math.max(0, Math.min(source.rows - 1, row));
+            col = Math.max(0, Math.min(source.cols - 1, col));
+            return data[row - firstSourceRow][col];
+        }
+
+        /**
+         * Samples the source along a row of the destination, over the
+         * columns it covers. Values that are nodata are returned as NaN.
+         *
+         * @param row The destination row.
+         * @param values Receives the values.
+         * @param skip Columns that need not be sampled, or null.
+         * @return false if the source does not cover the row.
+         */
+        boolean sample(int row, double[] values, boolean[] skip) {
+            if (row < startRow || row >= endRow) {
+                return false;
+            }
+            double v = source.rowPosition(row);
+            if (v <= 0 || v >= source.rows) {
+                return false;
+            }
+            nearestRow = Math.min(source.rows - 1, (int) v);
+            double rv = v - 0.5;
+            int r0 = (int) Math.floor(rv);
+            double rowFraction = rv - r0;
+            int kernelRow = kernelSize == 4 ? r0 - 1 : r0;
+            setWeights(rowWeights, 0, rowFraction);
+            double noData = source.noData;
+            int firstCol = source.firstCol;
+            for (int col = firstCol; col < source.endCol; col++) {
+                int i = col - firstCol;
+                if ((skip != null && skip[col]) || source.nearestCol[i] < 0) {
+                    values[col] = Double.NaN;
+                    continue;
+                }
+                if (kernelSize == 1) {
+                    double z = get(nearestRow, source.nearestCol[i]);
+                    values[col] = z != noData ? z : Double.NaN;
+                    continue;
+                }
+                int kc = source.kernelCol[i];
+                int wOffset = i * kernelSize;
+                double sum = 0;
+                boolean hasNoData = false;
+                for (int k = 0; k < kernelSize && !hasNoData; k++) {
+                    double rowSum = 0;
+                    for (int j = 0; j < kernelSize; j++) {
+                        double z = get(kernelRow + k, kc + j);
+                        if (z == noData) {
+                            hasNoData = true;
+                            break;
+                        }
+                        rowSum += source.colWeights[wOffset + j] * z;
+                    }
+                    sum += rowWeights[k] * rowSum;
+                }
+                values[col] = hasNoData ? bilinear(r0, rowFraction, i) : sum;
+            }
+            return true;
+        }
+
+        /**
+         * Bilinear interpolation over the valid cells of the kernel.
+         */
+        private double bilinear(int r0, double rowFraction, int index) {
+            int c0 = kernelSize == 4 ? source.kernelCol[index] + 1 : source.kernelCol[index];
+            double t = source.fraction[index];
+            double sum = 0;
+            double weights = 0;
+            for (int i = 0; i < 2; i++) {
+                double wr = i == 0 ? 1 - rowFraction : rowFraction;
+                for (int j = 0; j < 2; j++) {
+                    double w = wr * (j == 0 ? 1 - t : t);
+                    double z = get(r0 + i, c0 + j);
+                    if (z != source.noData && w > 0) {
+                        sum += w * z;
+                        weights += w;
+                    }
+                }
+            }
+            return weights > 0 ? sum / weights : Double.NaN;
+        }
+    }
+}
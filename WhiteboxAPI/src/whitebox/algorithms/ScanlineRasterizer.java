@@ -0,0 +1,488 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.parallel.LoopBody;
+import whitebox.parallel.Parallel;
+
+/**
+ * Burns vector polygons and lines into the cells of a raster grid. This is the
+ * engine of the VectorPolygonsToRaster, VectorLinesToRaster,
+ * ClipRasterToPolygon and ErasePolygonFromRaster tools.
+ *
+ * Each feature is added with a value, and the features are painted in the
+ * order in which they are added, so that a later feature overwrites an
+ * earlier one where they overlap.
+ *
+ * Polygons are filled with a scanline algorithm. The edges of every ring of a
+ * polygon cross the horizontal lines through the cell centres, and on each
+ * row the crossings of a polygon are sorted and the cells between
+ * alternate pairs are filled, i.e. the even-odd rule, so that holes are left
+ * unfilled without regard to the orientation of the rings. A cell is filled
+ * if the centre line of its row crosses it anywhere between a pair of
+ * crossings. Lines are burned into the cells in which they cross the centre
+ * line of a row or of a column, after the polygons have been filled.
+ *
+ * The grid is divided into horizontal strips of rows. The edges are bucketed
+ * by the strips they cross, and within a strip an active-edge table holds the
+ * edges that cross the current row. Strips are filled concurrently and are
+ * passed to the listener in order, one row at a time, so that only the
+ * strips of the current batch are held in memory.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class ScanlineRasterizer {
+
+    /**
+     * Receives the rows of the grid.
+     */
+    public interface RowListener {
+
+        /**
+         * Receives a row of the grid. Rows are passed in order, on the thread
+         * that called rasterize.
+         *
+         * @param row The zero-based row number.
+         * @param values The values of the row. Cells that are not covered by
+         * a feature have the background value. The array is not used again
+         * by the rasterizer.
+         */
+        void row(int row, double[] values);
+
+        /**
+         * Reports progress.
+         *
+         * @param progress The percentage of the grid that is complete.
+         * @return false to cancel the operation.
+         */
+        boolean progress(int progress);
+    }
+
+    private static final int STRIP_HEIGHT = 64;
+
+    private final int rows;
+    private final int cols;
+    private final double north;
+    private final double west;
+    private final double cellSizeX;
+    private final double cellSizeY;
+
+    // feature values, in painting order
+    private double[] values = new double[256];
+    private int numFeatures = 0;
+
+    // polygon edges, as x1, y1, x2, y2, and the rows whose centre lines
+    // they cross
+    private double[] edges = new double[4 * 1024];
+    private int[] edgeFeature = new int[1024];
+    private int[] edgeTopRow = new int[1024];
+    private int[] edgeBottomRow = new int[1024];
+    private int numEdges = 0;
+
+    // line segments, as x1, y1, x2, y2, and the rows that they touch
+    private double[] segments = new double[4 * 1024];
+    private int[] segmentFeature = new int[1024];
+    private int[] segmentTopRow = new int[1024];
+    private int[] segmentBottomRow = new int[1024];
+    private int numSegments = 0;
+
+    /**
+     * @param grid The raster whose extent and resolution define the grid.
+     */
+    public ScanlineRasterizer(WhiteboxRaster grid) {
+        rows = grid.getNumberRows();
+        cols = grid.getNumberColumns();
+        north = grid.getNorth();
+        west = grid.getWest();
+        cellSizeX = grid.getCellSizeX();
+        cellSizeY = grid.getCellSizeY();
+    }
+
+    public int getNumberRows() {
+        return rows;
+    }
+
+    public int getNumberColumns() {
+        return cols;
+    }
+
+    private double rowCentre(int row) {
+        return north - (row + 0.5) * cellSizeY;
+    }
+
+    private double columnCentre(int col) {
+        return west + (col + 0.5) * cellSizeX;
+    }
+
+    private int rowOf(double y) {
+        double r = Math.floor((north - y) / cellSizeY);
+        return (int) Math.max(-1, Math.min(rows, r));
+    }
+
+    private int columnOf(double x) {
+        double c = Math.floor((x - west) / cellSizeX);
+        return (int) Math.max(-1, Math.min(cols, c));
+    }
+
+    private int addFeature(double value) {
+        if (numFeatures == values.length) {
+            values = Arrays.copyOf(values, numFeatures * 2);
+        }
+        values[numFeatures] = value;
+        return numFeatures++;
+    }
+
+    /**
+     * Adds a polygon. The rings may be given in any orientation; a part that
+     * lies inside another is a hole.
+     *
+     * @param points The x and y coordinates of the vertices.
+     * @param parts The index of the first vertex of each ring.
+     * @param value The value of the cells covered by the polygon.
+     */
+    public void addPolygon(double[][] points, int[] parts, double value) {
+        int feature = addFeature(value);
+        for (int part = 0; part < parts.length; part++) {
+            int start = parts[part];
+            int end = part < parts.length - 1 ? parts[part + 1] : points.length;
+            if (end - start < 2) {
+                continue;
+            }
+            for (int i = start; i < end; i++) {
+                // the last vertex is joined to the first if the ring isn't
+                // closed.
+                int j = i + 1 < end ? i + 1 : start;
+                addEdge(points[i][0], points[i][1], points[j][0], points[j][1], feature);
+            }
+        }
+    }
+
+    private void addEdge(double x1, double y1, double x2, double y2, int feature) {
+        if (y1 == y2) {
+            return;
+        }
+        // The edge crosses the centre line of a row if ymin <= y < ymax, so
+        // that a vertex lying on a centre line is counted once.
+        double yMin = Math.min(y1, y2);
+        double yMax = Math.max(y1, y2);
+        int top = Math.max(0, rowOf(yMax));
+        while (top < rows && rowCentre(top) >= yMax) {
+            top++;
+        }
+        while (top > 0 && rowCentre(top - 1) < yMax) {
+            top--;
+        }
+        int bottom = Math.min(rows - 1, rowOf(yMin));
+        while (bottom >= 0 && rowCentre(bottom) < yMin) {
+            bottom--;
+        }
+        while (bottom < rows - 1 && rowCentre(bottom + 1) >= yMin) {
+            bottom++;
+        }
+        if (top > bottom) {
+            return;
+        }
+        if (numEdges == edgeFeature.length) {
+            int n = numEdges * 2;
+            edges = Arrays.copyOf(edges, 4 * n);
+            edgeFeature = Arrays.copyOf(edgeFeature, n);
+            edgeTopRow = Arrays.copyOf(edgeTopRow, n);
+            edgeBottomRow = Arrays.copyOf(edgeBottomRow, n);
+        }
+        edges[4 * numEdges] = x1;
+        edges[4 * numEdges + 1] = y1;
+        edges[4 * numEdges + 2] = x2;
+        edges[4 * numEdges + 3] = y2;
+        edgeFeature[numEdges] = feature;
+        edgeTopRow[numEdges] = top;
+        edgeBottomRow[numEdges] = bottom;
+        numEdges++;
+    }
+
+    /**
+     * Adds a polyline. The outlines of a polygon may be burned in by adding
+     * its rings as lines.
+     *
+     * @param points The x and y coordinates of the vertices.
+     * @param parts The index of the first vertex of each part.
+     * @param value The value of the cells that the line crosses.
+     */
+    public void addLine(double[][] points, int[] parts, double value) {
+        int feature = addFeature(value);
+        for (int part = 0; part < parts.length; part++) {
+            int start = parts[part];
+            int end = part < parts.length - 1 ? parts[part + 1] : points.length;
+            for (int i = start; i < end - 1; i++) {
+                addSegment(points[i][0], points[i][1], points[i + 1][0], points[i + 1][1], feature);
+            }
+        }
+    }
+
+    private void addSegment(double x1, double y1, double x2, double y2, int feature) {
+        int top = Math.max(0, rowOf(Math.max(y1, y2)));
+        int bottom = Math.min(rows - 1, rowOf(Math.min(y1, y2)));
+        if (top > bottom) {
+            return;
+        }
+        if (numSegments == segmentFeature.length) {
+            int n = numSegments * 2;
+            segments = Arrays.copyOf(segments, 4 * n);
+            segmentFeature = Arrays.copyOf(segmentFeature, n);
+            segmentTopRow = Arrays.copyOf(segmentTopRow, n);
+            segmentBottomRow = Arrays.copyOf(segmentBottomRow, n);
+        }
+        segments[4 * numSegments] = x1;
+        segments[4 * numSegments + 1] = y1;
+        segments[4 * numSegments + 2] = x2;
+        segments[4 * numSegments + 3] = y2;
+        segmentFeature[numSegments] = feature;
+        segmentTopRow[numSegments] = top;
+        segmentBottomRow[numSegments] = bottom;
+        numSegments++;
+    }
+
+    /**
+     * Lists, for each strip, the items whose row ranges overlap it, in the
+     * order in which they were added.
+     *
+     * @return The start of each strip's list in the second array, followed by
+     * the lists.
+     */
+    private static int[][] bucket(int[] topRow, int[] bottomRow, int n, int numStrips) {
+        int[] start = new int[numStrips + 1];
+        for (int i = 0; i < n; i++) {
+            for (int s = topRow[i] / STRIP_HEIGHT; s <= bottomRow[i] / STRIP_HEIGHT; s++) {
+                start[s + 1]++;
+            }
+        }
+        for (int s = 0; s < numStrips; s++) {
+            start[s + 1] += start[s];
+        }
+        int[] items = new int[start[numStrips]];
+        int[] next = Arrays.copyOf(start, numStrips);
+        for (int i = 0; i < n; i++) {
+            for (int s = topRow[i] / STRIP_HEIGHT; s <= bottomRow[i] / STRIP_HEIGHT; s++) {
+                items[next[s]++] = i;
+            }
+        }
+        return new int[][]{start, items};
+    }
+
+    /**
+     * Fills the grid and passes it to the listener one row at a time.
+     *
+     * @param background The value of cells that are not covered by any
+     * feature.
+     * @param listener Receives the rows and progress.
+     * @return false if the operation was cancelled.
+     */
+    public boolean rasterize(final double background, RowListener listener) {
+        if (rows <= 0 || cols <= 0) {
+            return true;
+        }
+        int numStrips = (rows - 1) / STRIP_HEIGHT + 1;
+        final int[][] edgeBuckets = bucket(edgeTopRow, edgeBottomRow, numEdges, numStrips);
+        final int[][] segmentBuckets = bucket(segmentTopRow, segmentBottomRow, numSegments, numStrips);
+
+        int batchSize = Parallel.getPluginProcessors();
+        for (int first = 0; first < numStrips; first += batchSize) {
+            final int start = first;
+            int end = Math.min(numStrips, first + batchSize);
+            final double[][][] strips = new double[end - start][][];
+            ArrayList<Integer> stripNums = new ArrayList<>();
+            for (int s = start; s < end; s++) {
+                stripNums.add(s);
+            }
+            Parallel.ForEach(stripNums, new LoopBody<Integer>() {
+                @Override
+                public void run(Integer s) {
+                    int firstRow = s * STRIP_HEIGHT;
+                    int lastRow = Math.min(rows, firstRow + STRIP_HEIGHT) - 1;
+                    double[][] data = new double[lastRow - firstRow + 1][cols];
+                    for (double[] row : data) {
+                        Arrays.fill(row, background);
+                    }
+                    fillPolygons(data, firstRow, lastRow, edgeBuckets[1],
+                            edgeBuckets[0][s], edgeBuckets[0][s + 1]);
+                    burnLines(data, firstRow, lastRow, segmentBuckets[1],
+                            segmentBuckets[0][s], segmentBuckets[0][s + 1]);
+                    strips[s - start] = data;
+                }
+            });
+            for (int s = start; s < end; s++) {
+                double[][] data = strips[s - start];
+                if (data == null) {
+                    throw new IllegalStateException("The features could not be rasterized.");
+                }
+                strips[s - start] = null;
+                for (int i = 0; i < data.length; i++) {
+                    listener.row(s * STRIP_HEIGHT + i, data[i]);
+                    data[i] = null;
+                }
+            }
+            if (!listener.progress((int) (100L * end / numStrips))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void fillPolygons(double[][] data, int firstRow, int lastRow, int[] items,
+            int from, int to) {
+        int n = to - from;
+        if (n == 0) {
+            return;
+        }
+        // order the strip's edges by the first row in the strip that they
+        // cross, so that they can be added to the active-edge table in turn.
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++) {
+            int e = items[from + i];
+            order[i] = ((long) Math.max(edgeTopRow[e], firstRow) << 32) | e;
+        }
+        Arrays.sort(order);
+
+        int[] active = new int[64];
+        int numActive = 0;
+        int next = 0;
+        double[] crossings = new double[64];
+        long[] keys = new long[64];
+        double[] xs = new double[64];
+        for (int row = firstRow; row <= lastRow; row++) {
+            // update the active-edge table
+            int k = 0;
+            for (int i = 0; i < numActive; i++) {
+                if (edgeBottomRow[active[i]] >= row) {
+                    active[k++] = active[i];
+                }
+            }
+            numActive = k;
+            while (next < n && (int) (order[next] >>> 32) == row) {
+                if (numActive == active.length) {
+                    active = Arrays.copyOf(active, numActive * 2);
+                }
+                active[numActive++] = (int) order[next];
+                next++;
+            }
+            if (numActive == 0) {
+                continue;
+            }
+            if (crossings.length < numActive) {
+                crossings = new double[numActive * 2];
+                keys = new long[numActive * 2];
+                xs = new double[numActive * 2];
+            }
+
+            // find where the edges cross the centre line of the row and
+            // group the crossings by feature.
+            double y = rowCentre(row);
+            for (int i = 0; i < numActive; i++) {
+                int e = active[i];
+                double x1 = edges[4 * e];
+                double y1 = edges[4 * e + 1];
+                double x2 = edges[4 * e + 2];
+                double y2 = edges[4 * e + 3];
+                crossings[i] = x1 + (y - y1) / (y2 - y1) * (x2 - x1);
+                keys[i] = ((long) edgeFeature[e] << 32) | i;
+            }
+            Arrays.sort(keys, 0, numActive);
+
+            // fill between alternate crossings, feature by feature
+            double[] rowData = data[row - firstRow];
+            int i = 0;
+            while (i < numActive) {
+                int feature = (int) (keys[i] >>> 32);
+                int j = i;
+                while (j < numActive && (int) (keys[j] >>> 32) == feature) {
+                    xs[j - i] = crossings[(int) keys[j]];
+                    j++;
+                }
+                int m = j - i;
+                Arrays.sort(xs, 0, m);
+                double value = values[feature];
+                for (int p = 0; p + 1 < m; p += 2) {
+                    int stCol = Math.max(0, columnOf(xs[p]));
+                    int endCol = Math.min(cols - 1, columnOf(xs[p + 1]));
+                    for (int col = stCol; col <= endCol; col++) {
+                        rowData[col] = value;
+                    }
+                }
+                i = j;
+            }
+        }
+    }
+
+    private void burnLines(double[][] data, int firstRow, int lastRow, int[] items,
+            int from, int to) {
+        double stripTop = north - firstRow * cellSizeY;
+        double stripBottom = north - (lastRow + 1) * cellSizeY;
+        for (int i = from; i < to; i++) {
+            int s = items[i];
+            double x1 = segments[4 * s];
+            double y1 = segments[4 * s + 1];
+            double x2 = segments[4 * s + 2];
+            double y2 = segments[4 * s + 3];
+            double value = values[segmentFeature[s]];
+
+            // the cells where the segment crosses the centre line of a row...
+            if (y1 != y2) {
+                double yMin = Math.min(y1, y2);
+                double yMax = Math.max(y1, y2);
+                int top = Math.max(firstRow, segmentTopRow[s]);
+                int bottom = Math.min(lastRow, segmentBottomRow[s]);
+                for (int row = top; row <= bottom; row++) {
+                    double y = rowCentre(row);
+                    if (y >= yMin && y <= yMax) {
+                        int col = columnOf(x1 + (y - y1) / (y2 - y1) * (x2 - x1));
+                        if (col >= 0 && col < cols) {
+                            data[row - firstRow][col] = value;
+                        }
+                    }
+                }
+            }
+
+            // ...and where it crosses the centre line of a column.
+            if (x1 != x2) {
+                // limit the columns to the part of the segment in the strip
+                double xMin = Math.min(x1, x2);
+                double xMax = Math.max(x1, x2);
+                double xa = xMin;
+                double xb = xMax;
+                if (y1 != y2) {
+                    double xTop = x1 + (stripTop - y1) / (y2 - y1) * (x2 - x1);
+                    double xBottom = x1 + (stripBottom - y1) / (y2 - y1) * (x2 - x1);
+                    xa = Math.max(xMin, Math.min(xTop, xBottom));
+                    xb = Math.min(xMax, Math.max(xTop, xBottom));
+                }
+                int stCol = Math.max(0, columnOf(xa) - 1);
+                int endCol = Math.min(cols - 1, columnOf(xb) + 1);
+                for (int col = stCol; col <= endCol; col++) {
+                    double x = columnCentre(col);
+                    if (x >= xMin && x <= xMax) {
+                        int row = rowOf(y1 + (x - x1) / (x2 - x1) * (y2 - y1));
+                        if (row >= firstRow && row <= lastRow) {
+                            data[row - firstRow][col] = value;
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,588 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.parallel.LoopBody;
+import whitebox.parallel.Parallel;
+import whitebox.parallel.Partition;
+
+/**
+ * An in-memory graph of a raster stream network, built from a streams raster
+ * and a D8 flow pointer grid. This is the model shared by the stream network
+ * analysis tools, which compute stream ordering and link metrics as
+ * traversals of the graph rather than by searching the rasters cell by cell.
+ *
+ * Only stream cells, i.e. cells with a positive value in the streams raster,
+ * are stored. They are numbered in raster scan order and each holds its
+ * column, stream value, flow direction, downstream stream cell and a byte
+ * whose bits record which of the eight neighbours are stream cells that flow
+ * into it. A cell with no inflowing stream cells is a channel head and a cell
+ * with two or more is a junction. A link is the sequence of cells running
+ * downstream from a head or a junction up to, but excluding, the next
+ * junction, and the links are numbered in the raster scan order of their
+ * first cells. Each link knows the link that it drains to and the links that
+ * drain to it.
+ *
+ * Building the graph requires one sequential read of each raster. The most
+ * recently built graph is cached, so that a sequence of tools applied to the
+ * same streams and pointer files builds it only once.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class StreamNetwork {
+
+    /**
+     * Receives the progress of the construction of a graph.
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param progress The percentage of the rows that have been read.
+         * @return false to cancel the construction.
+         */
+        boolean progress(int progress);
+    }
+
+    private static final int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
+    private static final int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
+    private static String cachedKey = null;
+    private static SoftReference<StreamNetwork> cachedNetwork = null;
+
+    private final int rows;
+    private final int cols;
+    private final double[] lengths = new double[8];
+    private long numInvalidPointers = 0;
+
+    // stream cells
+    private int numCells = 0;
+    private int[] rowStart;
+    private int[] cellCol;
+    private double[] cellValue;
+    private byte[] flowDir;
+    private byte[] inflow;
+    private int[] downstream;
+    private int[] cellLink;
+
+    // links
+    private int numLinks = 0;
+    private int[] linkStart;
+    private int[] linkCells;
+    private int[] downstreamLink;
+    private int[] upstreamStart;
+    private int[] upstreamLinks;
+
+    /**
+     * Retrieves the graph of a stream network, building it unless the graph
+     * of the same, unmodified, files is cached.
+     *
+     * @param streams The streams raster. Cells with a positive value are
+     * stream cells.
+     * @param pointer The flow pointer raster, using the Whitebox base-2
+     * pointer encoding. It must have the same dimensions as the streams
+     * raster.
+     * @param listener Receives progress, or null.
+     * @return The graph, or null if the construction was cancelled.
+     */
+    public static StreamNetwork getInstance(WhiteboxRaster streams,
+            WhiteboxRaster pointer, ProgressListener listener) {
+        if (pointer.getNumberRows() != streams.getNumberRows()
+                || pointer.getNumberColumns() != streams.getNumberColumns()) {
+            throw new IllegalArgumentException("The input images must be of the same dimensions.");
+        }
+        String key = getFileKey(streams) + "|" + getFileKey(pointer);
+        synchronized (StreamNetwork.class) {
+            if (key.equals(cachedKey)) {
+                StreamNetwork network = cachedNetwork.get();
+                if (network != null) {
+                    return network;
+                }
+            }
+        }
+        StreamNetwork network = new StreamNetwork(streams, pointer);
+        if (!network.build(streams, pointer, listener)) {
+            return null;
+        }
+        synchronized (StreamNetwork.class) {
+            cachedKey = key;
+            cachedNetwork = new SoftReference<>(network);
+        }
+        return network;
+    }
+
+    /**
+     * Identifies the state of a raster's files. The modification count
+     * catches changes made by this process, even within the resolution of
+     * the file times, and the header's contents catch changes to the cell
+     * size or nodata value made by anything else.
+     */
+    private static String getFileKey(WhiteboxRaster raster) {
+        File file = new File(raster.getDataFile());
+        String header;
+        try {
+            header = new String(Files.readAllBytes(Paths.get(raster.getHeaderFile())), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            header = "";
+        }
+        return file.getAbsolutePath() + ":" + file.lastModified() + ":" + file.length()
+                + ":" + WhiteboxRaster.getModificationCount(raster.getDataFile())
+                + ":" + header;
+    }
+
+    private StreamNetwork(WhiteboxRaster streams, WhiteboxRaster pointer) {
+        rows = streams.getNumberRows();
+        cols = streams.getNumberColumns();
+        double gridResX = streams.getCellSizeX();
+        double gridResY = streams.getCellSizeY();
+        double diagGridRes = Math.sqrt(gridResX * gridResX + gridResY * gridResY);
+        for (int k = 0; k < 8; k++) {
+            lengths[k] = dX[k] == 0 ? gridResY : dY[k] == 0 ? gridResX : diagGridRes;
+        }
+    }
+
+    private boolean build(WhiteboxRaster streams, WhiteboxRaster pointer,
+            ProgressListener listener) {
+        double streamsNoData = streams.getNoDataValue();
+        double pointerNoData = pointer.getNoDataValue();
+
+        // gather the stream cells
+        rowStart = new int[rows + 1];
+        cellCol = new int[1024];
+        cellValue = new double[1024];
+        flowDir = new byte[1024];
+        int oldProgress = -1;
+        for (int row = 0; row < rows; row++) {
+            rowStart[row] = numCells;
+            double[] data = streams.getRowValues(row);
+            double[] pntr = null;
+            for (int col = 0; col < cols; col++) {
+                if (data[col] > 0 && data[col] != streamsNoData) {
+                    if (pntr == null) {
+                        pntr = pointer.getRowValues(row);
+                    }
+                    if (numCells == cellCol.length) {
+                        int size = cellCol.length * 2;
+                        cellCol = Arrays.copyOf(cellCol, size);
+                        cellValue = Arrays.copyOf(cellValue, size);
+                        flowDir = Arrays.copyOf(flowDir, size);
+                    }
+                    byte d = BasinLabeller.decodePointer(pntr[col], pointerNoData);
+                    if (d == BasinLabeller.NO_FLOW && pntr[col] > 0) {
+                        numInvalidPointers++;
+                    }
+                    cellCol[numCells] = col;
+                    cellValue[numCells] = data[col];
+                    flowDir[numCells] = d < 0 ? BasinLabeller.NO_FLOW : d;
+                    numCells++;
+                }
+            }
+            int progress = (int) (100f * row / Math.max(1, rows - 1));
+            if (progress != oldProgress && listener != null) {
+                oldProgress = progress;
+                if (!listener.progress(progress)) {
+                    return false;
+                }
+            }
+        }
+        rowStart[rows] = numCells;
+        cellCol = Arrays.copyOf(cellCol, numCells);
+        cellValue = Arrays.copyOf(cellValue, numCells);
+        flowDir = Arrays.copyOf(flowDir, numCells);
+
+        // connect each stream cell to its downstream stream cell...
+        downstream = new int[numCells];
+        final boolean[] done = new boolean[rows];
+        Parallel.ForEach(Parallel.create(0, rows), new LoopBody<Partition>() {
+            @Override
+            public void run(Partition p) {
+                for (int row = p.start; row < p.end; row++) {
+                    for (int cell = rowStart[row]; cell < rowStart[row + 1]; cell++) {
+                        int k = flowDir[cell];
+                        downstream[cell] = k < 0 ? -1
+                                : findCell(row + dY[k], cellCol[cell] + dX[k]);
+                    }
+                    done[row] = true;
+                }
+            }
+        });
+        for (boolean b : done) {
+            if (!b) {
+                throw new IllegalStateException("The stream network could not be built.");
+            }
+        }
+
+        // ...and invert the connections.
+        inflow = new byte[numCells];
+        for (int cell = 0; cell < numCells; cell++) {
+            if (downstream[cell] >= 0) {
+                inflow[downstream[cell]] |= 1 << ((flowDir[cell] + 4) & 7);
+            }
+        }
+
+        // Segment the network into links. A link starts at every cell that
+        // does not have exactly one inflowing stream cell and runs downstream
+        // through cells that do. Cells on pointer loops that are not entered
+        // from outside of the loop belong to no link.
+        cellLink = new int[numCells];
+        Arrays.fill(cellLink, -1);
+        linkStart = new int[1024];
+        linkCells = new int[numCells];
+        int numLinkCells = 0;
+        for (int cell = 0; cell < numCells; cell++) {
+            if (Integer.bitCount(inflow[cell] & 0xFF) != 1) {
+                if (numLinks + 1 == linkStart.length) {
+                    linkStart = Arrays.copyOf(linkStart, linkStart.length * 2);
+                }
+                linkStart[numLinks] = numLinkCells;
+                int c = cell;
+                do {
+                    cellLink[c] = numLinks;
+                    linkCells[numLinkCells++] = c;
+                    c = downstream[c];
+                } while (c >= 0 && Integer.bitCount(inflow[c] & 0xFF) == 1);
+                numLinks++;
+            }
+        }
+        linkStart[numLinks] = numLinkCells;
+        linkStart = Arrays.copyOf(linkStart, numLinks + 1);
+
+        downstreamLink = new int[numLinks];
+        upstreamStart = new int[numLinks + 1];
+        for (int link = 0; link < numLinks; link++) {
+            int next = downstream[linkCells[linkStart[link + 1] - 1]];
+            downstreamLink[link] = next < 0 ? -1 : cellLink[next];
+            if (next >= 0) {
+                upstreamStart[cellLink[next] + 1]++;
+            }
+        }
+        for (int link = 0; link < numLinks; link++) {
+            upstreamStart[link + 1] += upstreamStart[link];
+        }
+        upstreamLinks = new int[upstreamStart[numLinks]];
+        int[] fill = Arrays.copyOf(upstreamStart, numLinks);
+        for (int link = 0; link < numLinks; link++) {
+            if (downstreamLink[link] >= 0) {
+                upstreamLinks[fill[downstreamLink[link]]++] = link;
+            }
+        }
+        return true;
+    }
+
+    public int getNumberRows() {
+        return rows;
+    }
+
+    public int getNumberColumns() {
+        return cols;
+    }
+
+    /**
+     * The number of stream cells with a positive pointer value that is not
+     * one of the eight valid D8 directions. These cells are treated as having
+     * no downstream neighbour.
+     *
+     * @return The number of invalid pointer values.
+     */
+    public long getNumberOfInvalidPointers() {
+        return numInvalidPointers;
+    }
+
+    public int getNumberOfStreamCells() {
+        return numCells;
+    }
+
+    /**
+     * The stream cells of a row are numbered from getRowStart(row) up to, but
+     * excluding, getRowStart(row + 1).
+     *
+     * @param row The zero-based row number, up to the number of rows.
+     * @return The number of the first stream cell in the row.
+     */
+    public int getRowStart(int row) {
+        return rowStart[row];
+    }
+
+    /**
+     * Finds the stream cell at a grid location.
+     *
+     * @param row The zero-based row number.
+     * @param col The zero-based column number.
+     * @return The number of the stream cell, or -1 if the location is not a
+     * stream cell.
+     */
+    public int findCell(int row, int col) {
+        if (row < 0 || row >= rows || col < 0 || col >= cols) {
+            return -1;
+        }
+        int cell = Arrays.binarySearch(cellCol, rowStart[row], rowStart[row + 1], col);
+        return cell < 0 ? -1 : cell;
+    }
+
+    public int getRow(int cell) {
+        // find the last row that starts at or before the cell
+        int low = 0;
+        int high = rows - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (rowStart[mid] <= cell) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    public int getColumn(int cell) {
+        return cellCol[cell];
+    }
+
+    /**
+     * Retrieves the value of a stream cell in the streams raster.
+     *
+     * @param cell The number of the stream cell.
+     * @return The stream value.
+     */
+    public double getValue(int cell) {
+        return cellValue[cell];
+    }
+
+    /**
+     * Retrieves the flow direction of a stream cell.
+     *
+     * @param cell The number of the stream cell.
+     * @return The direction index (0-7) of the downslope neighbour, whether
+     * or not it is a stream cell, or NO_FLOW.
+     */
+    public int getFlowDirection(int cell) {
+        return flowDir[cell];
+    }
+
+    /**
+     * The distance from the centre of a stream cell to the centre of its
+     * downslope neighbour.
+     *
+     * @param cell The number of the stream cell.
+     * @return The flow length, or zero if the cell has no downslope
+     * neighbour.
+     */
+    public double getFlowLength(int cell) {
+        int k = flowDir[cell];
+        return k < 0 ? 0 : lengths[k];
+    }
+
+    /**
+     * @param cell The number of the stream cell.
+     * @return The number of the downstream stream cell, or -1 if the cell
+     * does not drain to a stream cell.
+     */
+    public int getDownstreamCell(int cell) {
+        return downstream[cell];
+    }
+
+    public int getNumberOfInflowingStreamCells(int cell) {
+        return Integer.bitCount(inflow[cell] & 0xFF);
+    }
+
+    /**
+     * Finds the stream cell that flows into a stream cell from a direction.
+     *
+     * @param cell The number of the stream cell.
+     * @param direction The direction index (0-7) of the neighbour.
+     * @return The number of the neighbouring stream cell, or -1 if the
+     * neighbour is not a stream cell that flows into the cell.
+     */
+    public int getInflowingStreamCell(int cell, int direction) {
+        if ((inflow[cell] & (1 << direction)) == 0) {
+            return -1;
+        }
+        return findCell(getRow(cell) + dY[direction], cellCol[cell] + dX[direction]);
+    }
+
+    /**
+     * @param cell The number of the stream cell.
+     * @return The link containing the cell, or -1 for cells on pointer loops.
+     */
+    public int getLink(int cell) {
+        return cellLink[cell];
+    }
+
+    public int getNumberOfLinks() {
+        return numLinks;
+    }
+
+    public int getNumberOfLinkCells(int link) {
+        return linkStart[link + 1] - linkStart[link];
+    }
+
+    /**
+     * Retrieves a cell of a link, in downstream order.
+     *
+     * @param link The link number.
+     * @param i The position of the cell in the link, starting at zero for the
+     * head or junction.
+     * @return The number of the stream cell.
+     */
+    public int getLinkCell(int link, int i) {
+        return linkCells[linkStart[link] + i];
+    }
+
+    /**
+     * @param link The link number.
+     * @return true if the link starts at a channel head.
+     */
+    public boolean isHead(int link) {
+        return inflow[linkCells[linkStart[link]]] == 0;
+    }
+
+    /**
+     * @param link The link number.
+     * @return The link that the link drains to, or -1 if it ends at an outlet.
+     */
+    public int getDownstreamLink(int link) {
+        return downstreamLink[link];
+    }
+
+    public int getNumberOfUpstreamLinks(int link) {
+        return upstreamStart[link + 1] - upstreamStart[link];
+    }
+
+    public int getUpstreamLink(int link, int i) {
+        return upstreamLinks[upstreamStart[link] + i];
+    }
+
+    /**
+     * The length of a link, from the centre of its first cell to the centre
+     * of the cell that its last cell drains to.
+     *
+     * @param link The link number.
+     * @return The link length.
+     */
+    public double getLinkLength(int link) {
+        double length = 0;
+        for (int i = linkStart[link]; i < linkStart[link + 1]; i++) {
+            length += getFlowLength(linkCells[i]);
+        }
+        return length;
+    }
+
+    /**
+     * Orders the links so that every link follows all of the links that drain
+     * to it. Links that drain from a pointer loop are left out.
+     *
+     * @return The link numbers in topological order.
+     */
+    public int[] getTopologicalOrder() {
+        int[] remaining = new int[numLinks];
+        int[] order = new int[numLinks];
+        int tail = 0;
+        for (int link = 0; link < numLinks; link++) {
+            remaining[link] = getNumberOfUpstreamLinks(link);
+            if (remaining[link] == 0 && isHead(link)) {
+                order[tail++] = link;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int next = downstreamLink[order[head]];
+            if (next >= 0 && --remaining[next] == 0) {
+                order[tail++] = next;
+            }
+        }
+        return Arrays.copyOf(order, tail);
+    }
+
+    /**
+     * Calculates the Strahler order of each link. Links at channel heads are
+     * first-order; a link takes the highest order of the links that drain to
+     * it, plus one where two or more of them share that order.
+     *
+     * @return The order of each link, or zero for links that do not drain
+     * from a channel head.
+     */
+    public int[] getStrahlerOrder() {
+        int[] order = new int[numLinks];
+        for (int link : getTopologicalOrder()) {
+            if (isHead(link)) {
+                order[link] = 1;
+                continue;
+            }
+            int max = 0;
+            int count = 0;
+            for (int i = upstreamStart[link]; i < upstreamStart[link + 1]; i++) {
+                int o = order[upstreamLinks[i]];
+                if (o > max) {
+                    max = o;
+                    count = 1;
+                } else if (o == max) {
+                    count++;
+                }
+            }
+            order[link] = count >= 2 && max > 0 ? max + 1 : max;
+        }
+        return order;
+    }
+
+    /**
+     * Calculates the Shreve magnitude of each link, i.e. the number of channel
+     * heads upstream of it.
+     *
+     * @return The magnitude of each link.
+     */
+    public long[] getMagnitude() {
+        long[] magnitude = new long[numLinks];
+        for (int link : getTopologicalOrder()) {
+            if (isHead(link)) {
+                magnitude[link] = 1;
+            }
+            if (downstreamLink[link] >= 0) {
+                magnitude[downstreamLink[link]] += magnitude[link];
+            }
+        }
+        return magnitude;
+    }
+
+    /**
+     * Assigns a unique identifier to each link. Channel heads are visited in
+     * raster scan order and the links downstream of each head are numbered in
+     * turn until a link that is already numbered is reached.
+     *
+     * @return The identifier of each link, starting at one, or zero for links
+     * that do not drain from a channel head.
+     */
+    public int[] getLinkIdentifiers() {
+        int[] ids = new int[numLinks];
+        int currentID = 0;
+        for (int link = 0; link < numLinks; link++) {
+            if (isHead(link)) {
+                int l = link;
+                while (l >= 0 && ids[l] == 0) {
+                    currentID++;
+                    ids[l] = currentID;
+                    l = downstreamLink[l];
+                }
+            }
+        }
+        return ids;
+    }
+}
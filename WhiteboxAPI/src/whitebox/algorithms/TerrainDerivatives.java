@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.geospatialfiles.WhiteboxRasterBase;
+import whitebox.parallel.LoopBody;
+import whitebox.parallel.Parallel;
+import whitebox.parallel.Partition;
+
+/**
+ * Calculates any combination of the local surface derivatives of a DEM, i.e.
+ * slope, aspect, the curvatures, hillshade and relative aspect, in a single
+ * pass. This is the engine of the surface derivative tools.
+ *
+ * The DEM is read once, in order, into a rolling buffer of rows that carries
+ * the last two rows of each batch over to the next, so that every cell has
+ * its 3 x 3 neighbourhood at hand. The rows of a batch are divided among the
+ * available processors. For each cell, the partial derivatives of the surface
+ * are estimated once from the neighbourhood: the first derivatives by the
+ * third-order finite difference of Horn (1981), and the second derivatives,
+ * for the curvatures, by the second-order finite differences of Zevenbergen
+ * and Thorne (1987). Every requested derivative is then found from these and
+ * the rows of all of the outputs are written together.
+ *
+ * The DEM is reflected at its edges, and nodata neighbours take the elevation
+ * of the centre cell.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class TerrainDerivatives {
+
+    /**
+     * The derivatives that can be calculated.
+     */
+    public enum Derivative {
+
+        SLOPE, ASPECT, PLAN_CURVATURE, PROFILE_CURVATURE, TANGENTIAL_CURVATURE,
+        TOTAL_CURVATURE, HILLSHADE, RELATIVE_ASPECT
+    }
+
+    /**
+     * Receives the progress of a run.
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param progress The percentage of the rows that are complete.
+         * @return false to cancel the run.
+         */
+        boolean progress(int progress);
+    }
+
+    private static final double RAD_TO_DEG = 180 / Math.PI;
+    // the number of rows processed by each processor in a batch.
+    private static final int ROWS_PER_PROCESSOR = 32;
+
+    private final WhiteboxRaster dem;
+    private final int rows;
+    private final int cols;
+    private final double noData;
+    private final double zFactor;
+    private final double gridRes;
+    private final Map<Derivative, WhiteboxRaster> outputs = new EnumMap<>(Derivative.class);
+    private double azimuth = 315;
+    private double altitude = 30;
+    private double referenceAzimuth = 0;
+    private final long[] hillshadeHistogram = new long[256];
+
+    /**
+     * @param dem The DEM.
+     * @param zFactor The factor that converts elevations to the horizontal
+     * units of the DEM. It is replaced by an approximate value if the DEM is
+     * in geographic coordinates.
+     */
+    public TerrainDerivatives(WhiteboxRaster dem, double zFactor) {
+        this.dem = dem;
+        rows = dem.getNumberRows();
+        cols = dem.getNumberColumns();
+        noData = dem.getNoDataValue();
+        gridRes = dem.getCellSizeX();
+        this.zFactor = getZFactor(dem, zFactor);
+    }
+
+    /**
+     * Finds the factor that converts the elevations of a DEM to its horizontal
+     * units. For a DEM in geographic coordinates, elevations are assumed to be
+     * in metres.
+     *
+     * @param dem The DEM.
+     * @param zFactor The conversion factor to use if the DEM is projected.
+     * @return The conversion factor.
+     */
+    public static double getZFactor(WhiteboxRasterBase dem, double zFactor) {
+        if (dem.getXYUnits().toLowerCase().contains("deg")
+                || dem.getProjection().toLowerCase().contains("geog")) {
+            double midLat = (dem.getNorth() - dem.getSouth()) / 2.0;
+            if (midLat <= 90 && midLat >= -90) {
+                return 1.0 / (113200 * Math.cos(Math.toRadians(midLat)));
+            }
+        }
+        return zFactor;
+    }
+
+    /**
+     * Sets the illumination source of the hillshade.
+     *
+     * @param azimuth The azimuth of the source, in degrees clockwise from north.
+     * @param altitude The altitude of the source, in degrees.
+     */
+    public void setIllumination(double azimuth, double altitude) {
+        this.azimuth = azimuth;
+        this.altitude = altitude;
+    }
+
+    /**
+     * Sets the azimuth that relative aspect is measured from.
+     *
+     * @param azimuth The azimuth, in degrees.
+     */
+    public void setReferenceAzimuth(double azimuth) {
+        referenceAzimuth = azimuth;
+    }
+
+    /**
+     * Requests a derivative. Cells whose derivative is undefined are assigned
+     * the nodata value of the output.
+     *
+     * @param derivative The derivative.
+     * @param output The output image, which must have the dimensions of the
+     * DEM.
+     */
+    public void addOutput(Derivative derivative, WhiteboxRaster output) {
+        if (output.getNumberRows() != rows || output.getNumberColumns() != cols) {
+            throw new IllegalArgumentException("The output must have the same dimensions as the DEM.");
+        }
+        outputs.put(derivative, output);
+    }
+
+    /**
+     * The histogram of the hillshade values, 0 to 255, calculated by the last
+     * run.
+     *
+     * @return The number of cells with each value.
+     */
+    public long[] getHillshadeHistogram() {
+        return hillshadeHistogram.clone();
+    }
+
+    /**
+     * Calculates the requested derivatives and writes them to their outputs.
+     *
+     * @param listener Receives progress, or null.
+     * @return false if the run was cancelled.
+     */
+    public boolean run(ProgressListener listener) {
+        final Derivative[] derivatives = outputs.keySet().toArray(new Derivative[0]);
+        final double[] outNoData = new double[derivatives.length];
+        for (int k = 0; k < derivatives.length; k++) {
+            outNoData[k] = outputs.get(derivatives[k]).getNoDataValue();
+        }
+        Arrays.fill(hillshadeHistogram, 0);
+        int numProcessors = Parallel.getPluginProcessors();
+        int batchRows = Math.max(1, Math.min(rows, ROWS_PER_PROCESSOR * numProcessors));
+
+        // buffer[i] holds the scaled elevations of row batchStart - 1 + i, with
+        // nodata as NaN.
+        final double[][] buffer = new double[batchRows + 2][];
+        buffer[1] = readRow(0);
+        buffer[0] = buffer[1];
+        final double[][][] values = new double[derivatives.length][batchRows][];
+        for (int first = 0; first < rows; first += batchRows) {
+            final int batchStart = first;
+            int batchEnd = Math.min(rows, first + batchRows);
+            for (int row = batchStart + 1; row <= batchEnd; row++) {
+                buffer[row - batchStart + 1] = row < rows ? readRow(row) : buffer[row - batchStart];
+            }
+
+            final ArrayList<Partition> partitions = Parallel.create(batchStart, batchEnd,
+                    Math.min(batchEnd - batchStart, numProcessors));
+            final List<long[]> histograms = new ArrayList<>();
+            for (int i = 0; i < partitions.size(); i++) {
+                histograms.add(new long[256]);
+            }
+            final boolean[] done = new boolean[batchEnd - batchStart];
+            ArrayList<Integer> tasks = new ArrayList<>();
+            for (int i = 0; i < partitions.size(); i++) {
+                tasks.add(i);
+            }
+            Parallel.ForEach(tasks, new LoopBody<Integer>() {
+                @Override
+                public void run(Integer i) {
+                    Partition p = partitions.get(i);
+                    long[] histogram = histograms.get(i);
+                    for (int row = p.start; row < p.end; row++) {
+                        int b = row - batchStart + 1;
+                        double[][] out = new double[derivatives.length][];
+                        for (int k = 0; k < derivatives.length; k++) {
+                            out[k] = new double[cols];
+                        }
+                        processRow(buffer[b - 1], buffer[b], buffer[b + 1],
+                                derivatives, outNoData, out, histogram);
+                        for (int k = 0; k < derivatives.length; k++) {
+                            values[k][row - batchStart] = out[k];
+                        }
+                        done[row - batchStart] = true;
+                    }
+                }
+            });
+            for (boolean b : done) {
+                if (!b) {
+                    throw new IllegalStateException("The surface derivatives could not be calculated.");
+                }
+            }
+            for (long[] histogram : histograms) {
+                for (int v = 0; v < 256; v++) {
+                    hillshadeHistogram[v] += histogram[v];
+                }
+            }
+
+            for (int row = batchStart; row < batchEnd; row++) {
+                for (int k = 0; k < derivatives.length; k++) {
+                    outputs.get(derivatives[k]).setRowValues(row, values[k][row - batchStart]);
+                    values[k][row - batchStart] = null;
+                }
+            }
+            // carry the last two rows over to the next batch.
+            int n = batchEnd - batchStart;
+            buffer[0] = buffer[n];
+            buffer[1] = buffer[n + 1];
+            if (listener != null && !listener.progress((int) (100L * batchEnd / rows))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private double[] readRow(int row) {
+        double[] data = dem.getRowValues(row);
+        double[] ret = new double[cols];
+        for (int col = 0; col < cols; col++) {
+            ret[col] = data[col] != noData ? data[col] * zFactor : Double.NaN;
+        }
+        return ret;
+    }
+
+    private void processRow(double[] above, double[] centre, double[] below,
+            Derivative[] derivatives, double[] outNoData, double[][] out,
+            long[] histogram) {
+        double eightGridRes = 8 * gridRes;
+        double gridResTimes2 = 2 * gridRes;
+        double gridResSquared = gridRes * gridRes;
+        double fourTimesGridResSquared = 4 * gridResSquared;
+        double sinTheta = Math.sin(Math.toRadians(altitude));
+        double cosTheta = Math.cos(Math.toRadians(altitude));
+        double azimuthRad = Math.toRadians(azimuth - 90);
+        // the neighbours, clockwise from the northeast.
+        double[] N = new double[8];
+        for (int col = 0; col < cols; col++) {
+            double z = centre[col];
+            if (Double.isNaN(z)) {
+                for (int k = 0; k < derivatives.length; k++) {
+                    out[k][col] = outNoData[k];
+                }
+                continue;
+            }
+            int west = col > 0 ? col - 1 : 0;
+            int east = col < cols - 1 ? col + 1 : cols - 1;
+            N[0] = above[east];
+            N[1] = centre[east];
+            N[2] = below[east];
+            N[3] = below[col];
+            N[4] = below[west];
+            N[5] = centre[west];
+            N[6] = above[west];
+            N[7] = above[col];
+            for (int i = 0; i < 8; i++) {
+                if (Double.isNaN(N[i])) {
+                    N[i] = z;
+                }
+            }
+
+            double fy = (N[6] - N[4] + 2 * (N[7] - N[3]) + N[0] - N[2]) / eightGridRes;
+            double fx = (N[2] - N[4] + 2 * (N[1] - N[5]) + N[0] - N[6]) / eightGridRes;
+            double aspect = fx != 0
+                    ? 180 - Math.atan(fy / fx) * RAD_TO_DEG + 90 * Math.signum(fx) : -1;
+            double Zx = (N[1] - N[5]) / gridResTimes2;
+            double Zy = (N[7] - N[3]) / gridResTimes2;
+            double Zxx = (N[1] - 2 * z + N[5]) / gridResSquared;
+            double Zyy = (N[7] - 2 * z + N[3]) / gridResSquared;
+            double Zxy = (-N[6] + N[0] + N[4] - N[2]) / fourTimesGridResSquared;
+            double Zx2 = Zx * Zx;
+            double Zy2 = Zy * Zy;
+            double p = Zx2 + Zy2;
+
+            for (int k = 0; k < derivatives.length; k++) {
+                double v;
+                switch (derivatives[k]) {
+                    case SLOPE:
+                        v = Math.atan(Math.sqrt(fx * fx + fy * fy)) * RAD_TO_DEG;
+                        break;
+                    case ASPECT:
+                        v = aspect;
+                        break;
+                    case PLAN_CURVATURE:
+                        v = p > 0 ? (Zxx * Zy2 - 2 * Zxy * Zx * Zy + Zyy * Zx2)
+                                / Math.pow(p, 1.5) * RAD_TO_DEG * 100 : outNoData[k];
+                        break;
+                    case PROFILE_CURVATURE:
+                        v = p > 0 ? (Zxx * Zx2 + 2 * Zxy * Zx * Zy + Zyy * Zy2)
+                                / (p * Math.pow(p + 1, 1.5)) * RAD_TO_DEG * 100 : outNoData[k];
+                        break;
+                    case TANGENTIAL_CURVATURE:
+                        v = p > 0 ? (Zxx * Zy2 - 2 * Zxy * Zx * Zy + Zyy * Zx2)
+                                / (p * Math.pow(p + 1, 1.5)) * RAD_TO_DEG * 100 : outNoData[k];
+                        break;
+                    case TOTAL_CURVATURE:
+                        v = (Zxx * Zxx + 2 * Zxy * Zxy + Zyy * Zyy) * RAD_TO_DEG * 100;
+                        break;
+                    case HILLSHADE:
+                        if (fx != 0) {
+                            double tanSlope = Math.sqrt(fx * fx + fy * fy);
+                            double term1 = tanSlope / Math.sqrt(1 + tanSlope * tanSlope);
+                            double term2 = sinTheta / tanSlope;
+                            double term3 = cosTheta * Math.sin(azimuthRad - Math.toRadians(aspect));
+                            v = term1 * (term2 - term3);
+                        } else {
+                            v = 0.5;
+                        }
+                        v = (int) (v * 255);
+                        if (v < 0) {
+                            v = 0;
+                        } else if (v > 255) {
+                            v = 255;
+                        }
+                        histogram[(int) v]++;
+                        break;
+                    default: // RELATIVE_ASPECT
+                        if (aspect != -1) {
+                            v = Math.abs(aspect - referenceAzimuth);
+                            if (v > 180) {
+                                v = 360 - v;
+                            }
+                        } else {
+                            v = -1;
+                        }
+                        break;
+                }
+                out[k][col] = v;
+            }
+        }
+    }
+}
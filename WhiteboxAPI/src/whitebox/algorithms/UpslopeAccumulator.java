@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.parallel.LoopBody;
+import whitebox.parallel.Parallel;
+import whitebox.parallel.Partition;
+
+/**
+ * Carries values downslope along a D8 flow pointer grid in topological order,
+ * i.e. each cell is passed to its downslope neighbour only once every cell
+ * upslope of it has been passed on. Upslope statistics, such as the longest
+ * or mean flowpath length to the divide, are therefore computed in a single
+ * visit to each cell by a Reduction that combines the values of a cell with
+ * those of its downslope neighbour. This is the engine of the upslope
+ * flowpath tools.
+ *
+ * The pointer grid is held in memory as one byte per cell, together with a
+ * byte per cell whose bits record which of the eight neighbours flow into the
+ * cell. The outlets, i.e. valid cells that have no downslope neighbour or
+ * that drain off the grid or into a nodata cell, are found, and the basin of
+ * each outlet is searched breadth-first upslope. A cell is reached from its
+ * downslope neighbour, so the reverse of the search order is a topological
+ * order of the basin. The basins share no cells, and are shared among the
+ * available processors. Cells on pointer loops do not drain to an outlet and
+ * are not visited.
+ *
+ * Cells are identified by their index, row * columns + column.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class UpslopeAccumulator {
+
+    /**
+     * Combines the values of a cell with those of its downslope neighbour.
+     * The values are held by the reduction, e.g. in arrays indexed by cell.
+     * Calls for different basins are made from different threads, but every
+     * call for a basin is made from the same thread, so no synchronization
+     * is needed.
+     */
+    public interface Reduction {
+
+        /**
+         * Passes the values of a cell to its downslope neighbour. It is called
+         * once for each visited cell that has a downslope neighbour, after it
+         * has been called for every cell that flows into the cell.
+         *
+         * @param from The index of the cell.
+         * @param to The index of its downslope neighbour.
+         * @param distance The distance between the centres of the cells.
+         */
+        void accumulate(int from, int to, double distance);
+    }
+
+    /**
+     * Receives the progress of a run.
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param progress The percentage of the basins that are complete.
+         * @return false to cancel the run.
+         */
+        boolean progress(int progress);
+    }
+
+    private static final int[] dX = new int[]{1, 1, 1, 0, -1, -1, -1, 0};
+    private static final int[] dY = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
+
+    private final int rows;
+    private final int cols;
+    private final byte[] flowDir;
+    private final byte[] inflow;
+    private final int[] offsets = new int[8];
+    private final double[] lengths = new double[8];
+    private final int[] outlets;
+
+    /**
+     * Reads a D8 flow pointer grid into memory.
+     *
+     * @param pointer The flow pointer raster, using the Whitebox base-2
+     * pointer encoding.
+     */
+    public UpslopeAccumulator(final WhiteboxRaster pointer) {
+        rows = pointer.getNumberRows();
+        cols = pointer.getNumberColumns();
+        final double noData = pointer.getNoDataValue();
+        long numCells = (long) rows * cols;
+        if (numCells > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("The pointer grid is too large to be processed.");
+        }
+        flowDir = new byte[(int) numCells];
+        inflow = new byte[(int) numCells];
+        double gridResX = pointer.getCellSizeX();
+        double gridResY = pointer.getCellSizeY();
+        double diagGridRes = Math.sqrt(gridResX * gridResX + gridResY * gridResY);
+        for (int k = 0; k < 8; k++) {
+            offsets[k] = dY[k] * cols + dX[k];
+            lengths[k] = dX[k] == 0 ? gridResY : dY[k] == 0 ? gridResX : diagGridRes;
+        }
+
+        final ArrayList<Partition> stripes = Parallel.create(0, rows);
+        final boolean[] done = new boolean[rows];
+        Parallel.ForEach(stripes, new LoopBody<Partition>() {
+            @Override
+            public void run(Partition p) {
+                for (int row = p.start; row < p.end; row++) {
+                    double[] data = pointer.getRowValues(row);
+                    int offset = row * cols;
+                    for (int col = 0; col < cols; col++) {
+                        flowDir[offset + col] = BasinLabeller.decodePointer(data[col], noData);
+                    }
+                    done[row] = true;
+                }
+            }
+        });
+        checkComplete(done);
+
+        // invert the pointers and find the outlets
+        Arrays.fill(done, false);
+        final int[][] stripeOutlets = new int[stripes.size()][];
+        ArrayList<Integer> stripeNumbers = new ArrayList<>();
+        for (int i = 0; i < stripes.size(); i++) {
+            stripeNumbers.add(i);
+        }
+        Parallel.ForEach(stripeNumbers, new LoopBody<Integer>() {
+            @Override
+            public void run(Integer s) {
+                Partition p = stripes.get(s);
+                int[] found = new int[64];
+                int numFound = 0;
+                for (int row = p.start; row < p.end; row++) {
+                    for (int col = 0; col < cols; col++) {
+                        int cell = row * cols + col;
+                        int mask = 0;
+                        for (int k = 0; k < 8; k++) {
+                            int r = row + dY[k];
+                            int c = col + dX[k];
+                            if (r >= 0 && r < rows && c >= 0 && c < cols
+                                    && flowDir[cell + offsets[k]] == ((k + 4) & 7)) {
+                                mask |= 1 << k;
+                            }
+                        }
+                        inflow[cell] = (byte) mask;
+                        if (flowDir[cell] != BasinLabeller.NO_DATA && getDownslopeCell(cell) < 0) {
+                            if (numFound == found.length) {
+                                found = Arrays.copyOf(found, numFound * 2);
+                            }
+                            found[numFound++] = cell;
+                        }
+                    }
+                    done[row] = true;
+                }
+                stripeOutlets[s] = Arrays.copyOf(found, numFound);
+            }
+        });
+        checkComplete(done);
+        int numOutlets = 0;
+        for (int[] o : stripeOutlets) {
+            numOutlets += o.length;
+        }
+        outlets = new int[numOutlets];
+        numOutlets = 0;
+        for (int[] o : stripeOutlets) {
+            System.arraycopy(o, 0, outlets, numOutlets, o.length);
+            numOutlets += o.length;
+        }
+    }
+
+    private static void checkComplete(boolean[] done) {
+        for (boolean b : done) {
+            if (!b) {
+                throw new IllegalStateException("The pointer grid could not be read.");
+            }
+        }
+    }
+
+    /**
+     * Finds the downslope neighbour of a valid cell.
+     *
+     * @return The index of the neighbour, or -1 if the cell has no valid
+     * downslope neighbour.
+     */
+    private int getDownslopeCell(int cell) {
+        int k = flowDir[cell];
+        if (k < 0) {
+            return -1;
+        }
+        int row = cell / cols + dY[k];
+        int col = cell % cols + dX[k];
+        if (row < 0 || row >= rows || col < 0 || col >= cols) {
+            return -1;
+        }
+        int n = cell + offsets[k];
+        return flowDir[n] == BasinLabeller.NO_DATA ? -1 : n;
+    }
+
+    public int getNumberRows() {
+        return rows;
+    }
+
+    public int getNumberColumns() {
+        return cols;
+    }
+
+    public boolean isNoData(int row, int col) {
+        return flowDir[row * cols + col] == BasinLabeller.NO_DATA;
+    }
+
+    /**
+     * The number of neighbours that flow into a cell.
+     *
+     * @param row The zero-based row number.
+     * @param col The zero-based column number.
+     * @return The number of inflowing neighbours.
+     */
+    public int getNumberOfInflowingNeighbours(int row, int col) {
+        return Integer.bitCount(inflow[row * cols + col] & 0xFF);
+    }
+
+    /**
+     * Carries values downslope through every basin.
+     *
+     * @param reduction The reduction.
+     * @param listener Receives progress, or null.
+     * @return false if the run was cancelled.
+     */
+    public boolean run(final Reduction reduction, ProgressListener listener) {
+        if (outlets.length == 0) {
+            return true;
+        }
+        // Basin sizes vary widely, so the outlets are dealt out in many more
+        // partitions than there are processors to balance the load.
+        int numProcessors = Parallel.getPluginProcessors();
+        int numPartitions = Math.min(outlets.length, numProcessors * 16);
+        final ArrayList<Partition> partitions = Parallel.create(0, outlets.length, numPartitions);
+        final boolean[] done = new boolean[partitions.size()];
+        for (int first = 0; first < partitions.size(); first += numProcessors) {
+            ArrayList<Integer> tasks = new ArrayList<>();
+            for (int i = first; i < Math.min(partitions.size(), first + numProcessors); i++) {
+                tasks.add(i);
+            }
+            Parallel.ForEach(tasks, new LoopBody<Integer>() {
+                @Override
+                public void run(Integer i) {
+                    Partition p = partitions.get(i);
+                    int[] order = new int[1024];
+                    for (int o = p.start; o < p.end; o++) {
+                        // search the basin upslope from its outlet...
+                        int head = 0;
+                        int tail = 0;
+                        order[tail++] = outlets[o];
+                        while (head < tail) {
+                            int cell = order[head++];
+                            int mask = inflow[cell] & 0xFF;
+                            for (int k = 0; mask != 0; k++, mask >>>= 1) {
+                                if ((mask & 1) != 0) {
+                                    if (tail == order.length) {
+                                        order = Arrays.copyOf(order, order.length * 2);
+                                    }
+                                    order[tail++] = cell + offsets[k];
+                                }
+                            }
+                        }
+                        // ...and carry the values back down in reverse order.
+                        for (int j = tail - 1; j > 0; j--) {
+                            int cell = order[j];
+                            int k = flowDir[cell];
+                            reduction.accumulate(cell, cell + offsets[k], lengths[k]);
+                        }
+                    }
+                    done[i] = true;
+                }
+            });
+            if (listener != null && !listener.progress((int) (100L * Math.min(partitions.size(),
+                    first + numProcessors) / partitions.size()))) {
+                return false;
+            }
+        }
+        for (boolean b : done) {
+            if (!b) {
+                throw new IllegalStateException("The basins could not be processed.");
+            }
+        }
+        return true;
+    }
+}
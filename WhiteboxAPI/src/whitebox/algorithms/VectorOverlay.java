@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import com.vividsolutions.jts.operation.overlay.snap.SnapOverlayOp;
+import com.vividsolutions.jts.operation.union.UnaryUnionOp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import whitebox.geospatialfiles.shapefile.ShapeType;
+import whitebox.parallel.LoopBody;
+import whitebox.parallel.Parallel;
+import whitebox.parallel.Partition;
+import whitebox.utilities.Topology;
+
+/**
+ * Feature-by-feature overlay of two vector layers, used by the Intersect,
+ * Difference, SymmetricDifference and Union tools.
+ *
+ * Rather than overlaying two layers as a pair of monolithic geometries, each
+ * feature is overlaid only with the features of the other layer whose
+ * envelopes it intersects, which are found with an STR-tree. The features are
+ * processed in batches on all available processors and the results of each
+ * batch are handed to a listener, in input order, before the next batch
+ * starts, so that they can be written out as they are produced.
+ *
+ * The user data of each input geometry identifies its parent feature(s),
+ * either as a record number or as an int array of record numbers, one per
+ * layer that has already been overlaid. Each result carries the record
+ * numbers of its parents in the first and second layers, concatenated, with
+ * zero where a result has no parent in a layer.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class VectorOverlay {
+
+    public enum Operation {
+
+        INTERSECTION, DIFFERENCE, SYMMETRIC_DIFFERENCE
+    }
+
+    /**
+     * Receives the results of an overlay. The methods are called on the
+     * thread that started the overlay.
+     */
+    public interface ResultListener {
+
+        /**
+         * Receives one result.
+         *
+         * @param geometry A Polygon, LineString or Point.
+         * @param parents The record numbers of the parent features.
+         */
+        void result(Geometry geometry, int[] parents);
+
+        /**
+         * Reports progress.
+         *
+         * @param progress The percentage of the operation that is complete.
+         * @return false to cancel the operation.
+         */
+        boolean progress(int progress);
+    }
+
+    private VectorOverlay() {
+    }
+
+    /**
+     * Overlays two layers.
+     *
+     * @param op The operation.
+     * @param layer1 The features of the first layer.
+     * @param layer2 The features of the second layer.
+     * @param listener Receives the results and progress.
+     * @return false if the operation was cancelled.
+     */
+    public static boolean overlay(final Operation op, final List<Geometry> layer1,
+            final List<Geometry> layer2, ResultListener listener) {
+        final int n1 = layer1.size();
+        final int n2 = layer2.size();
+        final int len1 = n1 > 0 ? getParents(layer1.get(0)).length : 1;
+        final int len2 = n2 > 0 ? getParents(layer2.get(0)).length : 1;
+        final STRtree tree1 = op == Operation.SYMMETRIC_DIFFERENCE ? buildTree(layer1) : null;
+        final STRtree tree2 = buildTree(layer2);
+
+        // Tasks 0 to n1 - 1 are the features of the first layer. For the
+        // symmetric difference, tasks n1 onwards are those of the second.
+        int numTasks = op == Operation.SYMMETRIC_DIFFERENCE ? n1 + n2 : n1;
+        int batchSize = Parallel.getPluginProcessors() * 32;
+        for (int start = 0; start < numTasks; start += batchSize) {
+            final int first = start;
+            int end = Math.min(numTasks, start + batchSize);
+            final ArrayList<List<Geometry>> results = new ArrayList<>(Collections.<List<Geometry>>nCopies(end - start, null));
+            Parallel.ForEach(Parallel.create(start, end), new LoopBody<Partition>() {
+                @Override
+                public void run(Partition p) {
+                    for (int t = p.start; t < p.end; t++) {
+                        ArrayList<Geometry> out = new ArrayList<>();
+                        if (t < n1) {
+                            Geometry g = layer1.get(t);
+                            int[] par = getParents(g);
+                            if (op == Operation.INTERSECTION) {
+                                intersect(g, par, tree2, len1, len2, out);
+                            } else {
+                                int[] combined = Arrays.copyOf(par, len1 + len2);
+                                subtract(g, combined, tree2, out);
+                            }
+                        } else {
+                            Geometry g = layer2.get(t - n1);
+                            int[] combined = new int[len1 + len2];
+                            System.arraycopy(getParents(g), 0, combined, len1, len2);
+                            subtract(g, combined, tree1, out);
+                        }
+                        results.set(t - first, out);
+                    }
+                }
+            });
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i) == null) {
+                    throw new IllegalStateException("The overlay of feature " + (first + i) + " failed.");
+                }
+                for (Geometry g : results.get(i)) {
+                    listener.result(g, (int[]) g.getUserData());
+                }
+                results.set(i, null);
+            }
+            if (!listener.progress((int) (100L * end / numTasks))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Dissolves a set of geometries. The geometries are grouped by location
+     * and the groups are unioned on all available processors; neighbouring
+     * groups are then merged in pairs until one geometry remains, the
+     * components of which are passed to the listener. A dissolved component
+     * may have many parents, so its parent array is empty.
+     *
+     * @param geometries The geometries.
+     * @param listener Receives the results and progress.
+     * @return false if the operation was cancelled.
+     */
+    public static boolean union(List<Geometry> geometries, ResultListener listener) {
+        if (geometries.isEmpty()) {
+            return true;
+        }
+        final int groupSize = 64;
+        List<Geometry> sorted = sortTileRecursive(geometries, groupSize);
+        int numGroups = (sorted.size() + groupSize - 1) / groupSize;
+        final int numUnions = 2 * numGroups - 1;
+        final AtomicInteger numDone = new AtomicInteger();
+
+        final List<Geometry> groups = sorted;
+        Geometry[] level = new Geometry[numGroups];
+        final Geometry[] current = level;
+        Parallel.ForEach(Parallel.create(0, numGroups), new LoopBody<Partition>() {
+            @Override
+            public void run(Partition p) {
+                for (int i = p.start; i < p.end; i++) {
+                    int end = Math.min(groups.size(), (i + 1) * groupSize);
+                    current[i] = UnaryUnionOp.union(new ArrayList<>(groups.subList(i * groupSize, end)));
+                    numDone.incrementAndGet();
+                }
+            }
+        });
+        checkComplete(level);
+        if (!listener.progress((int) (100L * numDone.get() / numUnions))) {
+            return false;
+        }
+
+        while (level.length > 1) {
+            final Geometry[] previous = level;
+            final Geometry[] next = new Geometry[(previous.length + 1) / 2];
+            Parallel.ForEach(Parallel.create(0, next.length), new LoopBody<Partition>() {
+                @Override
+                public void run(Partition p) {
+                    for (int i = p.start; i < p.end; i++) {
+                        if (2 * i + 1 < previous.length) {
+                            next[i] = union(previous[2 * i], previous[2 * i + 1]);
+                            numDone.incrementAndGet();
+                        } else {
+                            next[i] = previous[2 * i];
+                        }
+                    }
+                }
+            });
+            checkComplete(next);
+            level = next;
+            if (!listener.progress((int) (100L * numDone.get() / numUnions))) {
+                return false;
+            }
+        }
+        for (Geometry g : getComponents(level[0])) {
+            listener.result(g, new int[0]);
+        }
+        return true;
+    }
+
+    /**
+     * Splits a geometry into its Polygon, LineString and Point components.
+     *
+     * @param g The geometry.
+     * @return The components.
+     */
+    public static List<Geometry> getComponents(Geometry g) {
+        List<Geometry> ret = new ArrayList<>();
+        addComponents(g, ret);
+        return ret;
+    }
+
+    /**
+     * Converts a Polygon, LineString or Point to a shapefile geometry of the
+     * given shape type. Polygons are converted to polylines when the shape
+     * type is POLYLINE; any other combination is not converted.
+     *
+     * @param g The geometry.
+     * @param shapeType The base shape type of the output.
+     * @return The shapefile geometry, or null if g cannot be represented by
+     * the shape type.
+     */
+    public static whitebox.geospatialfiles.shapefile.Geometry toShapefileGeometry(
+            Geometry g, ShapeType shapeType) {
+        if (g.isEmpty()) {
+            return null;
+        }
+        if (g instanceof com.vividsolutions.jts.geom.Point && shapeType == ShapeType.POINT) {
+            Coordinate p = g.getCoordinate();
+            return new whitebox.geospatialfiles.shapefile.Point(p.x, p.y);
+        } else if (g instanceof LineString && shapeType == ShapeType.POLYLINE) {
+            Coordinate[] coords = g.getCoordinates();
+            return new whitebox.geospatialfiles.shapefile.PolyLine(new int[]{0}, toPoints(coords, false));
+        } else if (g instanceof com.vividsolutions.jts.geom.Polygon
+                && (shapeType == ShapeType.POLYGON || shapeType == ShapeType.POLYLINE)) {
+            com.vividsolutions.jts.geom.Polygon p = (com.vividsolutions.jts.geom.Polygon) g;
+            int numRings = p.getNumInteriorRing() + 1;
+            int[] parts = new int[numRings];
+            double[][][] rings = new double[numRings][][];
+            int numPoints = 0;
+            for (int r = 0; r < numRings; r++) {
+                // the exterior ring is clockwise and holes anticlockwise
+                Coordinate[] coords = r == 0 ? p.getExteriorRing().getCoordinates()
+                        : p.getInteriorRingN(r - 1).getCoordinates();
+                boolean reverse = (r == 0) != Topology.isClockwisePolygon(coords);
+                rings[r] = toPoints(coords, reverse);
+                parts[r] = numPoints;
+                numPoints += coords.length;
+            }
+            double[][] points = new double[numPoints][];
+            for (int r = 0; r < numRings; r++) {
+                System.arraycopy(rings[r], 0, points, parts[r], rings[r].length);
+            }
+            if (shapeType == ShapeType.POLYGON) {
+                return new whitebox.geospatialfiles.shapefile.Polygon(parts, points);
+            }
+            return new whitebox.geospatialfiles.shapefile.PolyLine(parts, points);
+        }
+        return null;
+    }
+
+    private static double[][] toPoints(Coordinate[] coords, boolean reverse) {
+        double[][] points = new double[coords.length][2];
+        for (int i = 0; i < coords.length; i++) {
+            Coordinate c = coords[reverse ? coords.length - 1 - i : i];
+            points[i][0] = c.x;
+            points[i][1] = c.y;
+        }
+        return points;
+    }
+
+    private static int[] getParents(Geometry g) {
+        Object data = g.getUserData();
+        if (data instanceof int[]) {
+            return (int[]) data;
+        } else if (data instanceof Number) {
+            return new int[]{((Number) data).intValue()};
+        } else if (data != null) {
+            return new int[]{Integer.parseInt(data.toString())};
+        }
+        return new int[]{0};
+    }
+
+    /**
+     * The features of a tree whose envelopes intersect an envelope.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Geometry> query(STRtree tree, Geometry g) {
+        return (List<Geometry>) tree.query(g.getEnvelopeInternal());
+    }
+
+    private static STRtree buildTree(List<Geometry> geometries) {
+        STRtree tree = new STRtree();
+        for (Geometry g : geometries) {
+            tree.insert(g.getEnvelopeInternal(), g);
+        }
+        // the tree must be built before it is queried by several threads
+        tree.build();
+        return tree;
+    }
+
+    private static void intersect(Geometry g, int[] parents, STRtree tree,
+            int len1, int len2, List<Geometry> out) {
+        List<Geometry> candidates = query(tree, g);
+        if (candidates.isEmpty()) {
+            return;
+        }
+        PreparedGeometry prepared = PreparedGeometryFactory.prepare(g);
+        for (Geometry other : candidates) {
+            if (!prepared.intersects(other)) {
+                continue;
+            }
+            Geometry result;
+            try {
+                result = g.intersection(other);
+            } catch (Exception e) {
+                result = SnapOverlayOp.intersection(g, other);
+            }
+            int[] combined = Arrays.copyOf(parents, len1 + len2);
+            System.arraycopy(getParents(other), 0, combined, len1, len2);
+            for (Geometry component : getComponents(result)) {
+                component.setUserData(combined);
+                out.add(component);
+            }
+        }
+    }
+
+    private static void subtract(Geometry g, int[] parents, STRtree tree, List<Geometry> out) {
+        List<Geometry> candidates = query(tree, g);
+        ArrayList<Geometry> overlapping = new ArrayList<>();
+        if (!candidates.isEmpty()) {
+            PreparedGeometry prepared = PreparedGeometryFactory.prepare(g);
+            for (Geometry other : candidates) {
+                if (prepared.intersects(other)) {
+                    overlapping.add(other);
+                }
+            }
+        }
+        Geometry result;
+        if (overlapping.isEmpty()) {
+            result = g;
+        } else {
+            Geometry other = UnaryUnionOp.union(overlapping);
+            try {
+                result = g.difference(other);
+            } catch (Exception e) {
+                result = SnapOverlayOp.difference(g, other);
+            }
+        }
+        for (Geometry component : getComponents(result)) {
+            if (component == g) {
+                component = (Geometry) g.clone();
+            }
+            component.setUserData(parents);
+            out.add(component);
+        }
+    }
+
+    private static Geometry union(Geometry a, Geometry b) {
+        try {
+            return a.union(b);
+        } catch (Exception e) {
+            return SnapOverlayOp.union(a, b);
+        }
+    }
+
+    private static void addComponents(Geometry g, List<Geometry> out) {
+        if (g.isEmpty()) {
+            return;
+        }
+        int n = g.getNumGeometries();
+        if (n == 1 && (g instanceof com.vividsolutions.jts.geom.Polygon
+                || g instanceof LineString || g instanceof com.vividsolutions.jts.geom.Point)) {
+            out.add(g);
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            Geometry c = g.getGeometryN(i);
+            if (c == g) {
+                break;
+            }
+            addComponents(c, out);
+        }
+    }
+
+    private static void checkComplete(Geometry[] geometries) {
+        for (Geometry g : geometries) {
+            if (g == null) {
+                throw new IllegalStateException("The union failed to complete.");
+            }
+        }
+    }
+
+    /**
+     * Orders geometries so that each consecutive run of groupSize lies close
+     * together, as in the leaves of a sort-tile-recursive R-tree.
+     */
+    private static List<Geometry> sortTileRecursive(List<Geometry> geometries, int groupSize) {
+        List<Geometry> byX = new ArrayList<>(geometries);
+        Collections.sort(byX, new Comparator<Geometry>() {
+            @Override
+            public int compare(Geometry a, Geometry b) {
+                return Double.compare(centreX(a.getEnvelopeInternal()), centreX(b.getEnvelopeInternal()));
+            }
+        });
+        int numGroups = (byX.size() + groupSize - 1) / groupSize;
+        int numSlices = (int) Math.ceil(Math.sqrt(numGroups));
+        int sliceSize = numSlices * groupSize;
+        List<Geometry> ret = new ArrayList<>(byX.size());
+        for (int s = 0; s < byX.size(); s += sliceSize) {
+            List<Geometry> slice = new ArrayList<>(byX.subList(s, Math.min(byX.size(), s + sliceSize)));
+            Collections.sort(slice, new Comparator<Geometry>() {
+                @Override
+                public int compare(Geometry a, Geometry b) {
+                    return Double.compare(centreY(a.getEnvelopeInternal()), centreY(b.getEnvelopeInternal()));
+                }
+            });
+            ret.addAll(slice);
+        }
+        return ret;
+    }
+
+    private static double centreX(Envelope e) {
+        return (e.getMinX() + e.getMaxX()) / 2;
+    }
+
+    private static double centreY(Envelope e) {
+        return (e.getMinY() + e.getMaxY()) / 2;
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.algorithms;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import whitebox.geospatialfiles.WhiteboxRaster;
+import whitebox.parallel.LoopBody;
+import whitebox.parallel.Parallel;
+import whitebox.parallel.Partition;
+
+/**
+ * Counts the number of observers from which each cell of a DEM is visible.
+ * This is the engine shared by the Viewshed and VisibilityIndex tools.
+ *
+ * Visibility is determined with the XDraw approximation. The area around an
+ * observer is divided into eight octants and each octant is swept outwards
+ * one ring of cells at a time. The horizon angle of a cell is interpolated
+ * from the two cells of the previous ring between which its line of sight
+ * passes, and a cell is visible if its own view angle is no lower than that
+ * horizon. Only the previous ring is kept, so the scratch memory of a sweep
+ * is proportional to the distance swept rather than to the area of the grid.
+ *
+ * The sweeps of every octant of every observer are independent and are
+ * shared among the available processors. An optional maximum viewing
+ * distance limits each sweep to a disc around the observer.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class ViewshedCalculator {
+
+    // the row and column steps of the major and minor axes of each octant,
+    // in clockwise order starting from north.
+    private static final int[] majorDY = {-1, 0, 0, 1, 1, 0, 0, -1};
+    private static final int[] majorDX = {0, 1, 1, 0, 0, -1, -1, 0};
+    private static final int[] minorDY = {0, -1, 1, 0, 0, 1, -1, 0};
+    private static final int[] minorDX = {1, 0, 0, 1, -1, 0, 0, -1};
+    // the horizon of an unobstructed line of sight; it is finite so that it
+    // can be interpolated.
+    private static final double NO_HORIZON = -Double.MAX_VALUE / 2;
+
+    private final int rows;
+    private final int cols;
+    private final float[] elevations;
+    private final double cellSizeX;
+    private final double cellSizeY;
+    private final AtomicIntegerArray counts;
+    private double observerHeight = 0;
+    private double maxDistance = Double.POSITIVE_INFINITY;
+
+    /**
+     * Reads a DEM into memory.
+     *
+     * @param dem The digital elevation model.
+     */
+    public ViewshedCalculator(final WhiteboxRaster dem) {
+        rows = dem.getNumberRows();
+        cols = dem.getNumberColumns();
+        cellSizeX = dem.getCellSizeX();
+        cellSizeY = dem.getCellSizeY();
+        final double noData = dem.getNoDataValue();
+        elevations = new float[(int) ((long) rows * cols)];
+        counts = new AtomicIntegerArray(elevations.length);
+        Parallel.ForEach(Parallel.create(0, rows), new LoopBody<Partition>() {
+            @Override
+            public void run(Partition p) {
+                for (int row = p.start; row < p.end; row++) {
+                    double[] data = dem.getRowValues(row);
+                    int offset = row * cols;
+                    for (int col = 0; col < cols; col++) {
+                        elevations[offset + col] = data[col] == noData ? Float.NaN : (float) data[col];
+                    }
+                }
+            }
+        });
+    }
+
+    public int getNumberRows() {
+        return rows;
+    }
+
+    public int getNumberColumns() {
+        return cols;
+    }
+
+    /**
+     * Sets the height of the observers above the ground surface.
+     *
+     * @param value The height, in z units.
+     */
+    public void setObserverHeight(double value) {
+        observerHeight = value;
+    }
+
+    /**
+     * Sets the maximum distance at which a cell can be seen. Cells farther
+     * from an observer are not visible to it.
+     *
+     * @param value The distance, in map units. Zero or less, or infinity,
+     * removes the limit.
+     */
+    public void setMaximumDistance(double value) {
+        maxDistance = value > 0 ? value : Double.POSITIVE_INFINITY;
+    }
+
+    public boolean isNoData(int row, int col) {
+        return Float.isNaN(elevations[row * cols + col]);
+    }
+
+    /**
+     * Adds the viewsheds of a set of observers to the visibility counts. The
+     * observers are processed concurrently. Observers that lie outside of
+     * the grid or on nodata cells are skipped.
+     *
+     * @param observerRows The row of each observer.
+     * @param observerCols The column of each observer.
+     * @param start The index of the first observer to process.
+     * @param end The index after the last observer to process.
+     * @return The number of observers processed.
+     */
+    public int addViewsheds(final int[] observerRows, final int[] observerCols,
+            int start, int end) {
+        final AtomicInteger numProcessed = new AtomicInteger();
+        int numTasks = (end - start) * 8;
+        if (numTasks <= 0) {
+            return 0;
+        }
+        // Each task is one octant of one observer. There are many more
+        // partitions than processors because octant sizes vary near the edges.
+        final int first = start;
+        int numPartitions = Math.min(numTasks, Parallel.getPluginProcessors() * 16);
+        Parallel.ForEach(Parallel.create(0, numTasks, numPartitions), new LoopBody<Partition>() {
+            @Override
+            public void run(Partition p) {
+                double[] previous = new double[64];
+                double[] current = new double[64];
+                for (int t = p.start; t < p.end; t++) {
+                    int i = first + t / 8;
+                    int octant = t % 8;
+                    int row = observerRows[i];
+                    int col = observerCols[i];
+                    if (row < 0 || row >= rows || col < 0 || col >= cols
+                            || isNoData(row, col)) {
+                        continue;
+                    }
+                    if (octant == 0) {
+                        // the observer can see its own cell
+                        counts.incrementAndGet(row * cols + col);
+                        numProcessed.incrementAndGet();
+                    }
+                    double[][] buffers = sweep(row, col, octant, previous, current);
+                    previous = buffers[0];
+                    current = buffers[1];
+                }
+            }
+        });
+        return numProcessed.get();
+    }
+
+    /**
+     * Sweeps one octant outward from an observer, counting the visible
+     * cells. Cell (v, h) of the octant lies v cells along its major axis and
+     * h cells along its minor axis, 0 &lt;= h &lt;= v. The axis cells (h = 0)
+     * are counted by the even octants and the diagonal cells (h = v) by the
+     * odd octants, which share them with their neighbours.
+     *
+     * @return The scratch buffers, which may have grown.
+     */
+    private double[][] sweep(int row0, int col0, int octant,
+            double[] previous, double[] current) {
+        int mY = majorDY[octant];
+        int mX = majorDX[octant];
+        int nY = minorDY[octant];
+        int nX = minorDX[octant];
+        double majorSize = mY != 0 ? cellSizeY : cellSizeX;
+        double minorSize = nY != 0 ? cellSizeY : cellSizeX;
+        double maxDistSqr = maxDistance * maxDistance;
+        double z0 = elevations[row0 * cols + col0] + observerHeight;
+        boolean countAxis = octant % 2 == 0;
+        boolean countDiagonal = !countAxis;
+
+        // the number of cells that fit along the minor axis
+        int minorLimit;
+        if (nY < 0) {
+            minorLimit = row0;
+        } else if (nY > 0) {
+            minorLimit = rows - 1 - row0;
+        } else if (nX < 0) {
+            minorLimit = col0;
+        } else {
+            minorLimit = cols - 1 - col0;
+        }
+
+        int prevLength = 0;
+        for (int v = 1;; v++) {
+            int row = row0 + v * mY;
+            int col = col0 + v * mX;
+            if (row < 0 || row >= rows || col < 0 || col >= cols) {
+                break;
+            }
+            double dMajor = v * majorSize;
+            if (dMajor * dMajor > maxDistSqr) {
+                break;
+            }
+            if (current.length < v + 1) {
+                current = new double[Math.max(v + 1, current.length * 2)];
+                double[] grown = new double[current.length];
+                System.arraycopy(previous, 0, grown, 0, prevLength);
+                previous = grown;
+            }
+            int hMax = Math.min(v, minorLimit);
+            int length = 0;
+            for (int h = 0; h <= hMax; h++) {
+                double dMinor = h * minorSize;
+                double distSqr = dMajor * dMajor + dMinor * dMinor;
+                if (distSqr > maxDistSqr) {
+                    break;
+                }
+                int r = row + h * nY;
+                int c = col + h * nX;
+                float z = elevations[r * cols + c];
+                double viewAngle = Float.isNaN(z) ? NO_HORIZON
+                        : (z - z0) / Math.sqrt(distSqr);
+                double horizon;
+                if (v == 1) {
+                    horizon = NO_HORIZON;
+                } else if (h == v) {
+                    horizon = previous[h - 1];
+                } else if (h == 0) {
+                    horizon = previous[0];
+                } else {
+                    // the line of sight crosses the previous ring h/v of the
+                    // way from cell h towards cell h - 1.
+                    double t2 = previous[h];
+                    horizon = t2 + (double) h / v * (previous[h - 1] - t2);
+                }
+                if (viewAngle >= horizon) {
+                    current[h] = viewAngle;
+                    if (!Float.isNaN(z) && (h != 0 || countAxis)
+                            && (h != v || countDiagonal)) {
+                        counts.incrementAndGet(r * cols + c);
+                    }
+                } else {
+                    current[h] = horizon;
+                }
+                length++;
+            }
+            if (length == 0) {
+                break;
+            }
+            double[] tmp = previous;
+            previous = current;
+            current = tmp;
+            prevLength = length;
+        }
+        return new double[][]{previous, current};
+    }
+
+    /**
+     * Retrieves the number of observers from which a cell is visible.
+     *
+     * @param row The zero-based row number.
+     * @param col The zero-based column number.
+     * @return The number of observers.
+     */
+    public int getCount(int row, int col) {
+        return counts.get(row * cols + col);
+    }
+
+    /**
+     * Retrieves the visibility counts of a row.
+     *
+     * @param row The zero-based row number.
+     * @param noData The value assigned to nodata cells of the DEM.
+     * @return An array of counts.
+     */
+    public double[] getRowCounts(int row, double noData) {
+        double[] ret = new double[cols];
+        int offset = row * cols;
+        for (int col = 0; col < cols; col++) {
+            ret[col] = Float.isNaN(elevations[offset + col]) ? noData : counts.get(offset + col);
+        }
+        return ret;
+    }
+
+    /**
+     * Resets the visibility counts to zero.
+     */
+    public void clear() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+    }
+}
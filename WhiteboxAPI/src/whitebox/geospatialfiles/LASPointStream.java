@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.geospatialfiles;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import whitebox.geospatialfiles.LASReader.PointBlock;
+import whitebox.parallel.Parallel;
+import whitebox.structures.BoundingBox;
+import whitebox.utilities.NamedThreadFactory;
+
+/**
+ * Streams the points of a LAS file through a filter and into a writer, a
+ * block of points at a time. It is the engine of the tools that convert LAS
+ * files into other formats.
+ *
+ * Each block is decoded into primitive columns by LASReader.readPointBlock,
+ * the filter is evaluated over the columns, and the selected points are
+ * converted, e.g. formatted as text, on a pool of threads. The converted
+ * blocks are then handed to the writer on the calling thread, in the order
+ * of the points in the file, while the following blocks are being read and
+ * converted. The blocks are reused, so only a fixed number of them are held
+ * in memory however large the file is.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class LASPointStream {
+
+    /**
+     * Converts and writes the selected points of each block.
+     *
+     * @param <T> The type of a converted block.
+     */
+    public interface BlockWriter<T> {
+
+        /**
+         * Converts the selected points of a block. It is called on a pool of
+         * threads, for several blocks at once, and so must not write to
+         * shared state.
+         *
+         * @param block The block.
+         * @return The converted block, which is passed on to write.
+         */
+        T convert(PointBlock block);
+
+        /**
+         * Writes a converted block. It is called on the thread that called
+         * run, once for each block, in the order of the points in the file.
+         *
+         * @param block The block.
+         * @param converted The value returned by convert for the block.
+         * @throws IOException
+         */
+        void write(PointBlock block, T converted) throws IOException;
+
+        /**
+         * @param progress The percentage of the points that have been
+         * written.
+         * @return false to cancel the run.
+         */
+        boolean progress(int progress);
+    }
+
+    /**
+     * The returns of a pulse that are selected.
+     */
+    public enum ReturnFilter {
+
+        ALL_POINTS, FIRST_RETURN, LAST_RETURN
+    }
+
+    /**
+     * The number of points in a block.
+     */
+    public static final int BLOCK_SIZE = 65536;
+
+    private final LASReader las;
+    private boolean excludeWithheld = true;
+    private final boolean[] excludedClasses = new boolean[32];
+    private ReturnFilter returnFilter = ReturnFilter.ALL_POINTS;
+    private BoundingBox bounds = null;
+
+    public LASPointStream(LASReader las) {
+        this.las = las;
+    }
+
+    /**
+     * @param excludeWithheld true, the default, to skip points that are
+     * flagged as withheld.
+     */
+    public void setExcludeWithheld(boolean excludeWithheld) {
+        this.excludeWithheld = excludeWithheld;
+    }
+
+    /**
+     * Skips the points of a classification.
+     *
+     * @param classValue The classification value, from 0 to 31.
+     */
+    public void excludeClass(int classValue) {
+        excludedClasses[classValue] = true;
+    }
+
+    public void setReturnFilter(ReturnFilter returnFilter) {
+        this.returnFilter = returnFilter;
+    }
+
+    /**
+     * Skips the points that fall outside of a box.
+     *
+     * @param bounds The box, or null to keep points anywhere.
+     */
+    public void setBounds(BoundingBox bounds) {
+        this.bounds = bounds;
+    }
+
+    /**
+     * Selects the points of a block that pass the filter. Each condition is
+     * tested over the whole block in turn, narrowing the selection.
+     */
+    private void select(PointBlock block) {
+        int n = block.getNumberOfPoints();
+        int[] selected = block.selected;
+        int numSelected = 0;
+        boolean[] withheld = block.withheld;
+        byte[] classification = block.classification;
+        for (int i = 0; i < n; i++) {
+            if (!(excludeWithheld && withheld[i]) && !excludedClasses[classification[i]]) {
+                selected[numSelected++] = i;
+            }
+        }
+        if (returnFilter != ReturnFilter.ALL_POINTS) {
+            byte[] returnNumber = block.returnNumber;
+            byte[] numberOfReturns = block.numberOfReturns;
+            boolean first = returnFilter == ReturnFilter.FIRST_RETURN;
+            int m = 0;
+            for (int k = 0; k < numSelected; k++) {
+                int i = selected[k];
+                if (first ? returnNumber[i] == 1 : returnNumber[i] == numberOfReturns[i]) {
+                    selected[m++] = i;
+                }
+            }
+            numSelected = m;
+        }
+        if (bounds != null) {
+            double minX = bounds.getMinX();
+            double minY = bounds.getMinY();
+            double maxX = bounds.getMaxX();
+            double maxY = bounds.getMaxY();
+            double[] x = block.x;
+            double[] y = block.y;
+            int m = 0;
+            for (int k = 0; k < numSelected; k++) {
+                int i = selected[k];
+                if (x[i] >= minX && x[i] <= maxX && y[i] >= minY && y[i] <= maxY) {
+                    selected[m++] = i;
+                }
+            }
+            numSelected = m;
+        }
+        block.numSelected = numSelected;
+    }
+
+    /**
+     * Streams every point of the file through the filter and the writer.
+     *
+     * @param writer The writer.
+     * @return false if the run was cancelled.
+     * @throws IOException
+     */
+    public <T> boolean run(final BlockWriter<T> writer) throws IOException {
+        long numPoints = las.getNumPointRecords();
+        long numBlocks = (numPoints + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int numProcessors = Parallel.getPluginProcessors();
+        // Twice as many blocks as threads are kept in flight, so that the
+        // threads are kept busy while a block is written.
+        PointBlock[] blocks = new PointBlock[(int) Math.min(numBlocks, numProcessors * 2)];
+        ArrayList<Future<T>> pending = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(numProcessors,
+                new NamedThreadFactory("LASPointStream", true));
+        int oldProgress = -1;
+        try {
+            long next = 0;
+            for (long b = 0; b < numBlocks; b++) {
+                // read, filter and convert blocks until every one is in
+                // flight...
+                while (next < numBlocks && next - b < blocks.length) {
+                    int slot = (int) (next % blocks.length);
+                    if (blocks[slot] == null) {
+                        blocks[slot] = new PointBlock(BLOCK_SIZE);
+                    }
+                    final PointBlock block = blocks[slot];
+                    final long firstPoint = next * BLOCK_SIZE;
+                    pending.add(executor.submit(new Callable<T>() {
+                        @Override
+                        public T call() throws IOException {
+                            las.readPointBlock(firstPoint, block);
+                            select(block);
+                            return writer.convert(block);
+                        }
+                    }));
+                    next++;
+                }
+
+                // ...then write the oldest.
+                T converted;
+                try {
+                    converted = pending.remove(0).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("The LAS file could not be read.", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException("The LAS file could not be converted.", cause);
+                }
+                writer.write(blocks[(int) (b % blocks.length)], converted);
+
+                int progress = (int) (100.0 * (b + 1) / numBlocks);
+                if (progress != oldProgress) {
+                    oldProgress = progress;
+                    if (!writer.progress(progress)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package whitebox.geospatialfiles;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.ByteOrder;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
@@ -326,6 +327,56 @@ public class LASReader {
         }
     }
 
+    /**
+     * Decodes a block of consecutive point records into the columns of a
+     * PointBlock, with a single read of the file. Unlike getPointRecord, it
+     * creates no objects for the points and changes no state of the reader,
+     * so blocks may be read from several threads at once.
+     *
+     * @param firstPoint The index of the first point of the block.
+     * @param block The block, which receives as many points as it can hold.
+     * @return The number of points that were read, which is less than the
+     * capacity of the block at the end of the file.
+     * @throws IOException
+     */
+    public int readPointBlock(long firstPoint, PointBlock block) throws IOException {
+        int numPoints = (int) Math.max(0, Math.min(block.capacity, numPointRecords - firstPoint));
+        ByteBuffer buf = block.getBuffer(numPoints * pointDataRecLength);
+        try (RandomAccessFile rIn = new RandomAccessFile(fileName, "r")) {
+            FileChannel inChannel = rIn.getChannel();
+            long pos = offsetToPointData + firstPoint * pointDataRecLength;
+            while (buf.hasRemaining()) {
+                int n = inChannel.read(buf, pos);
+                if (n < 0) {
+                    break;
+                }
+                pos += n;
+            }
+        }
+        numPoints = buf.position() / pointDataRecLength;
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+
+        int pos2 = 0;
+        for (int i = 0; i < numPoints; i++) {
+            block.x[i] = (buf.getInt(pos2) * xScale) + xOffset;
+            block.y[i] = (buf.getInt(pos2 + 4) * yScale) + yOffset;
+            block.z[i] = (buf.getInt(pos2 + 8) * zScale) + zOffset;
+            block.intensity[i] = buf.getShort(pos2 + 12) & 0xFFFF;
+            byte returnNumberByte = buf.get(pos2 + 14);
+            block.returnNumber[i] = (byte) (returnNumberByte & 7);
+            block.numberOfReturns[i] = (byte) ((returnNumberByte >> 3) & 7);
+            byte classificationByte = buf.get(pos2 + 15);
+            block.classification[i] = (byte) (classificationByte & 31);
+            block.withheld[i] = (classificationByte & 0x80) != 0;
+            block.scanAngle[i] = buf.get(pos2 + 16);
+            pos2 += pointDataRecLength;
+        }
+        block.firstPoint = firstPoint;
+        block.numPoints = numPoints;
+        block.numSelected = 0;
+        return numPoints;
+    }
+
     private void readPointRecords() {
         long pos = offsetToPointData + (long)startingPoint * (long)pointDataRecLength;
         int pos2 = 0;
@@ -1222,6 +1273,120 @@ public class LASReader {
         }
     }
 
+    /**
+     * The point records of a block of consecutive points, decoded by
+     * readPointBlock into primitive columns rather than PointRecords. Only
+     * the fields that are needed to filter and convert points are decoded.
+     * A block may be reused for any number of reads.
+     */
+    public static class PointBlock {
+
+        private final int capacity;
+        private long firstPoint;
+        private int numPoints;
+        final double[] x;
+        final double[] y;
+        final double[] z;
+        final int[] intensity;
+        final byte[] classification;
+        final byte[] returnNumber;
+        final byte[] numberOfReturns;
+        final byte[] scanAngle;
+        final boolean[] withheld;
+        final int[] selected;
+        int numSelected;
+        private ByteBuffer buffer;
+
+        /**
+         * @param capacity The largest number of points that the block holds.
+         */
+        public PointBlock(int capacity) {
+            this.capacity = capacity;
+            x = new double[capacity];
+            y = new double[capacity];
+            z = new double[capacity];
+            intensity = new int[capacity];
+            classification = new byte[capacity];
+            returnNumber = new byte[capacity];
+            numberOfReturns = new byte[capacity];
+            scanAngle = new byte[capacity];
+            withheld = new boolean[capacity];
+            selected = new int[capacity];
+        }
+
+        private ByteBuffer getBuffer(int length) {
+            if (buffer == null || buffer.capacity() < length) {
+                buffer = ByteBuffer.allocate(length);
+            }
+            buffer.clear();
+            buffer.limit(length);
+            return buffer;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        /**
+         * @return The index in the file of the first point of the block.
+         */
+        public long getFirstPoint() {
+            return firstPoint;
+        }
+
+        public int getNumberOfPoints() {
+            return numPoints;
+        }
+
+        public double[] getX() {
+            return x;
+        }
+
+        public double[] getY() {
+            return y;
+        }
+
+        public double[] getZ() {
+            return z;
+        }
+
+        public int[] getIntensity() {
+            return intensity;
+        }
+
+        public byte[] getClassification() {
+            return classification;
+        }
+
+        public byte[] getReturnNumber() {
+            return returnNumber;
+        }
+
+        public byte[] getNumberOfReturns() {
+            return numberOfReturns;
+        }
+
+        public byte[] getScanAngle() {
+            return scanAngle;
+        }
+
+        public boolean[] getPointWithheld() {
+            return withheld;
+        }
+
+        /**
+         * @return The positions within the block of the points that passed
+         * the filter of a LASPointStream, in increasing order.
+         */
+        public int[] getSelectedPoints() {
+            return selected;
+        }
+
+        public int getNumberOfSelectedPoints() {
+            return numSelected;
+        }
+    }
+
     public class PointRecColours {
 
         private int red = -1; //2 bytes
@@ -0,0 +1,547 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.geospatialfiles;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import whitebox.parallel.Parallel;
+import whitebox.utilities.NamedThreadFactory;
+
+/**
+ * Reads the numbers in a large delimited text file, such as an ASCII grid or
+ * an X,Y,Z point dump. The file is read through a FileChannel in large
+ * chunks that end on a line break, and the chunks are parsed in parallel
+ * while the next ones are read. The values are handed to a listener on the
+ * calling thread, in file order, as blocks of doubles, so that the caller
+ * can write them straight into output records. The data block of an ASCII
+ * grid can be written straight into the rows of a raster with readGrid.
+ *
+ * Numbers are separated by any run of spaces, tabs, commas or semicolons.
+ * They are parsed directly from the bytes of the file; the rare number that
+ * has too many significant digits to be converted exactly in that way is
+ * passed on to Double.parseDouble. A token that is not a number, e.g. the
+ * '*' that marks a null cell in a GRASS grid, is read as NaN.
+ *
+ * Header lines may be read one at a time with readLine before the values
+ * are read, and getPosition and seek allow a line to be put back.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class NumericTextReader implements Closeable {
+
+    /**
+     * Receives the progress of a read.
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param progress The percentage of the file that has been read.
+         * @return false to cancel the read.
+         */
+        boolean progress(int progress);
+    }
+
+    /**
+     * Receives the values read from the file.
+     */
+    public interface ValueListener extends ProgressListener {
+
+        /**
+         * Receives the next block of values. Blocks are delivered in file
+         * order, on the thread that called the read method.
+         *
+         * @param values The values. The array is reused once the call
+         * returns.
+         * @param count The number of values in the block.
+         */
+        void values(double[] values, int count);
+    }
+
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long length;
+    private long position = 0;
+
+    /**
+     * Opens a text file.
+     *
+     * @param fileName The name of the file.
+     * @throws IOException
+     */
+    public NumericTextReader(String fileName) throws IOException {
+        file = new RandomAccessFile(fileName, "r");
+        channel = file.getChannel();
+        length = channel.size();
+    }
+
+    /**
+     * @return The length of the file, in bytes.
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @return The offset of the next byte to be read.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Moves the read position, e.g. back to the start of a line that was
+     * read by readLine but turned out not to be part of the header.
+     *
+     * @param position The offset of the next byte to be read.
+     */
+    public void seek(long position) {
+        this.position = position;
+    }
+
+    /**
+     * Reads the next line of text.
+     *
+     * @return The line, without its line break, or null at the end of the
+     * file.
+     * @throws IOException
+     */
+    public String readLine() throws IOException {
+        if (position >= length) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        while (position < length) {
+            buf.clear();
+            int n = channel.read(buf, position);
+            if (n <= 0) {
+                position = length;
+                break;
+            }
+            byte[] bytes = buf.array();
+            int end = 0;
+            while (end < n && bytes[end] != '\n') {
+                end++;
+            }
+            sb.append(new String(bytes, 0, end, StandardCharsets.ISO_8859_1));
+            if (end < n) {
+                position += end + 1;
+                break;
+            }
+            position += n;
+        }
+        int len = sb.length();
+        if (len > 0 && sb.charAt(len - 1) == '\r') {
+            sb.setLength(len - 1);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads every number from the current position to the end of the file,
+     * regardless of how they are broken into lines. This suits the data
+     * block of an ASCII grid, in which the values appear in row-major order.
+     *
+     * @param listener Receives the values and the progress.
+     * @return false if the read was cancelled.
+     * @throws IOException
+     */
+    public boolean readValues(ValueListener listener) throws IOException {
+        return read(0, listener);
+    }
+
+    /**
+     * Reads the first numFields numbers of each line from the current
+     * position to the end of the file, e.g. the x, y and z of a point. Lines
+     * with fewer numbers are skipped and any further numbers are ignored, so
+     * each block holds whole records of numFields values.
+     *
+     * @param numFields The number of values in a record.
+     * @param listener Receives the values and the progress.
+     * @return false if the read was cancelled.
+     * @throws IOException
+     */
+    public boolean readRecords(int numFields, ValueListener listener) throws IOException {
+        if (numFields < 1) {
+            throw new IllegalArgumentException("A record must have at least one field.");
+        }
+        return read(numFields, listener);
+    }
+
+    /**
+     * Reads the data block of an ASCII grid into a raster, which must have
+     * the dimensions given in the grid's header. The values are read in
+     * row-major order and each row is written with a single setRowValues.
+     * Values that equal the grid's nodata value, or that are not numbers, are
+     * written as the raster's nodata value, as are any cells for which the
+     * file holds no value.
+     *
+     * @param output The raster.
+     * @param noData The nodata value of the grid.
+     * @param bottomUp true if the grid lists its rows from south to north,
+     * false if it lists them from north to south.
+     * @param listener Receives the progress, or null.
+     * @return false if the read was cancelled.
+     * @throws IOException
+     */
+    public boolean readGrid(final WhiteboxRaster output, final double noData,
+            final boolean bottomUp, final ProgressListener listener) throws IOException {
+        final int rows = output.getNumberRows();
+        final int cols = output.getNumberColumns();
+        if (rows <= 0 || cols <= 0) {
+            return true;
+        }
+        final double outputNoData = output.getNoDataValue();
+        final double[] rowData = new double[cols];
+        final int[] cell = new int[2]; // the row and column of the next value
+        boolean completed = read(0, new ValueListener() {
+
+            @Override
+            public void values(double[] values, int count) {
+                int row = cell[0];
+                int col = cell[1];
+                for (int i = 0; i < count && row < rows; i++) {
+                    double z = values[i];
+                    rowData[col] = (z == noData || Double.isNaN(z)) ? outputNoData : z;
+                    col++;
+                    if (col == cols) {
+                        output.setRowValues(bottomUp ? rows - 1 - row : row, rowData);
+                        col = 0;
+                        row++;
+                    }
+                }
+                cell[0] = row;
+                cell[1] = col;
+            }
+
+            @Override
+            public boolean progress(int progress) {
+                return listener == null || listener.progress(progress);
+            }
+        });
+        if (!completed) {
+            return false;
+        }
+        // fill any rows that are missing from the file
+        for (int row = cell[0]; row < rows; row++) {
+            Arrays.fill(rowData, cell[1], cols, outputNoData);
+            output.setRowValues(bottomUp ? rows - 1 - row : row, rowData);
+            cell[1] = 0;
+        }
+        return true;
+    }
+
+    /**
+     * A chunk of the file and the values parsed from it. Each is reused once
+     * its values have been delivered.
+     */
+    private static class Chunk {
+
+        byte[] bytes = new byte[CHUNK_SIZE];
+        int numBytes;
+        double[] values = new double[0];
+        int numValues;
+    }
+
+    private boolean read(final int numFields, ValueListener listener) throws IOException {
+        int numProcessors = Parallel.getPluginProcessors();
+        // Twice as many chunks as threads are kept in flight, so that the
+        // threads are kept busy while a chunk is read or its values delivered.
+        Chunk[] chunks = new Chunk[numProcessors * 2];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new Chunk();
+        }
+        ArrayList<Future<Chunk>> pending = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(numProcessors,
+                new NamedThreadFactory("NumericTextReader", true));
+        int oldProgress = -1;
+        try {
+            long startPosition = position;
+            byte[] carry = new byte[0];
+            int numCarried = 0;
+            int next = 0;
+            while (position < length || numCarried > 0 || !pending.isEmpty()) {
+                // read chunks until every one is in flight...
+                while (pending.size() < chunks.length && (position < length || numCarried > 0)) {
+                    final Chunk chunk = chunks[next];
+                    next = (next + 1) % chunks.length;
+                    if (chunk.bytes.length < numCarried + CHUNK_SIZE) {
+                        chunk.bytes = new byte[numCarried + CHUNK_SIZE];
+                    }
+                    System.arraycopy(carry, 0, chunk.bytes, 0, numCarried);
+                    int numBytes = numCarried;
+                    // A chunk ends on its last line break, or when reading
+                    // values, on its last separator.
+                    int lineEnd = -1;
+                    while (position < length) {
+                        if (numBytes == chunk.bytes.length) {
+                            // a single line or number is longer than the chunk
+                            chunk.bytes = Arrays.copyOf(chunk.bytes, chunk.bytes.length * 2);
+                        }
+                        int n = channel.read(ByteBuffer.wrap(chunk.bytes, numBytes,
+                                chunk.bytes.length - numBytes), position);
+                        if (n <= 0) {
+                            position = length;
+                            break;
+                        }
+                        position += n;
+                        numBytes += n;
+                        lineEnd = numBytes - 1;
+                        while (lineEnd >= 0 && !isBoundary(chunk.bytes[lineEnd], numFields)) {
+                            lineEnd--;
+                        }
+                        if (lineEnd >= 0 && numBytes >= CHUNK_SIZE) {
+                            break;
+                        }
+                    }
+                    if (position >= length) {
+                        // the last chunk ends at the end of the file
+                        chunk.numBytes = numBytes;
+                        numCarried = 0;
+                    } else {
+                        // the partial line or number that follows the end of
+                        // the chunk is carried over to the next chunk
+                        chunk.numBytes = lineEnd + 1;
+                        numCarried = numBytes - chunk.numBytes;
+                        if (carry.length < numCarried) {
+                            carry = new byte[Math.max(numCarried, CHUNK_SIZE)];
+                        }
+                        System.arraycopy(chunk.bytes, chunk.numBytes, carry, 0, numCarried);
+                    }
+                    pending.add(executor.submit(new Callable<Chunk>() {
+                        @Override
+                        public Chunk call() {
+                            parse(chunk, numFields);
+                            return chunk;
+                        }
+                    }));
+                }
+
+                // ...then deliver the oldest.
+                Chunk chunk;
+                try {
+                    chunk = pending.remove(0).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("The text file could not be read.", e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw new IllegalStateException("The text file could not be parsed.", e.getCause());
+                }
+                listener.values(chunk.values, chunk.numValues);
+                int progress = (int) (100.0 * (position - startPosition) / Math.max(1, length - startPosition));
+                if (progress != oldProgress) {
+                    oldProgress = progress;
+                    if (!listener.progress(progress)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static boolean isBoundary(byte b, int numFields) {
+        return b == '\n' || (numFields == 0 && (b == '\r' || isSeparator(b)));
+    }
+
+    private static boolean isSeparator(byte b) {
+        return b == ' ' || b == ',' || b == '\t' || b == ';';
+    }
+
+    /**
+     * Parses the numbers in a chunk. In record mode, the values of each line
+     * are only kept once the line is found to hold a whole record.
+     */
+    private static void parse(Chunk chunk, int numFields) {
+        byte[] bytes = chunk.bytes;
+        int numBytes = chunk.numBytes;
+        // a number and its separator take at least two bytes
+        int capacity = numBytes / 2 + 1;
+        if (chunk.values.length < capacity) {
+            chunk.values = new double[capacity];
+        }
+        double[] values = chunk.values;
+        int numValues = 0;
+        int lineStart = 0;
+        int i = 0;
+        while (i < numBytes) {
+            byte b = bytes[i];
+            if (b == '\n' || b == '\r') {
+                if (numFields > 0) {
+                    if (numValues - lineStart < numFields) {
+                        numValues = lineStart;
+                    }
+                    lineStart = numValues;
+                }
+                i++;
+            } else if (isSeparator(b)) {
+                i++;
+            } else {
+                int start = i;
+                while (i < numBytes && !isSeparator(bytes[i]) && bytes[i] != '\n' && bytes[i] != '\r') {
+                    i++;
+                }
+                if (numFields == 0 || numValues - lineStart < numFields) {
+                    values[numValues++] = parseDouble(bytes, start, i);
+                }
+            }
+        }
+        if (numFields > 0 && numValues - lineStart < numFields) {
+            numValues = lineStart;
+        }
+        chunk.numValues = numValues;
+    }
+
+    /**
+     * Parses a decimal number, with an optional sign, fraction and exponent,
+     * from a range of ASCII bytes. Numbers with up to 15 significant digits
+     * and a decimal exponent of at most 22 are converted exactly with a
+     * single multiplication or division; others are passed on to
+     * Double.parseDouble.
+     *
+     * @param bytes The text.
+     * @param start The index of the first byte of the number.
+     * @param end The index following the last byte of the number.
+     * @return The number, or NaN if the text is not a number.
+     */
+    public static double parseDouble(byte[] bytes, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int numDigits = 0;
+        int exponent = 0;
+        int trailingZeros = 0;
+        boolean hasDigits = false;
+        boolean inFraction = false;
+        for (; i < end; i++) {
+            int d = bytes[i] - '0';
+            if (d >= 0 && d <= 9) {
+                hasDigits = true;
+                if (inFraction) {
+                    exponent--;
+                }
+                if (d == 0) {
+                    // zeros are only added to the mantissa once they are
+                    // followed by a non-zero digit
+                    if (mantissa != 0) {
+                        trailingZeros++;
+                    }
+                } else {
+                    numDigits += trailingZeros + 1;
+                    if (numDigits > 15) {
+                        return parseSlowly(bytes, start, end);
+                    }
+                    while (trailingZeros > 0) {
+                        mantissa *= 10;
+                        trailingZeros--;
+                    }
+                    mantissa = mantissa * 10 + d;
+                }
+            } else if (bytes[i] == '.' && !inFraction) {
+                inFraction = true;
+            } else {
+                break;
+            }
+        }
+        if (!hasDigits) {
+            return parseSlowly(bytes, start, end);
+        }
+        exponent += trailingZeros;
+        if (i < end) {
+            if (bytes[i] != 'e' && bytes[i] != 'E') {
+                return parseSlowly(bytes, start, end);
+            }
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            if (i == end) {
+                return parseSlowly(bytes, start, end);
+            }
+            int e = 0;
+            for (; i < end; i++) {
+                int d = bytes[i] - '0';
+                if (d < 0 || d > 9) {
+                    return parseSlowly(bytes, start, end);
+                }
+                if (e < 100000) {
+                    e = e * 10 + d;
+                }
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (exponent == 0) {
+            value = mantissa;
+        } else if (exponent > 0 && exponent < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[exponent];
+        } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            return parseSlowly(bytes, start, end);
+        }
+        return negative ? -value : value;
+    }
+
+    private static double parseSlowly(byte[] bytes, int start, int end) {
+        try {
+            return Double.parseDouble(new String(bytes, start, end - start, StandardCharsets.ISO_8859_1));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        file.close();
+    }
+}
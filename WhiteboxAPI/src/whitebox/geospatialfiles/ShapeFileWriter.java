@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.geospatialfiles;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import whitebox.geospatialfiles.shapefile.Geometry;
+import whitebox.geospatialfiles.shapefile.ShapeFileRecord;
+import whitebox.geospatialfiles.shapefile.ShapeType;
+import whitebox.geospatialfiles.shapefile.attributes.DBFException;
+import whitebox.geospatialfiles.shapefile.attributes.DBFField;
+import whitebox.geospatialfiles.shapefile.attributes.DBFWriter;
+import whitebox.structures.BoundingBox;
+import whitebox.utilities.ByteSwapper;
+import whitebox.utilities.FileUtilities;
+
+/**
+ * Writes a new shapefile one record at a time. Unlike ShapeFile, which holds
+ * all of its records in memory until it is written, each record is written
+ * to disk as soon as it is added, together with its row of the attribute
+ * table, and the file headers are completed when the writer is closed. This
+ * allows tools to output very large numbers of features.
+ *
+ * Only the two-dimensional shape types (POINT, MULTIPOINT, POLYLINE and
+ * POLYGON) are supported.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class ShapeFileWriter {
+
+    private final String fileName;
+    private final String indexFile;
+    private final String databaseFile;
+    private final String projectionFile;
+    private final ShapeType shapeType;
+    private final OutputStream shp;
+    private final OutputStream shx;
+    private final DBFWriter dbf;
+    private int numRecs = 0;
+    private int shpLength = 100; // in bytes, including the header
+    private double xMin = Double.POSITIVE_INFINITY;
+    private double yMin = Double.POSITIVE_INFINITY;
+    private double xMax = Double.NEGATIVE_INFINITY;
+    private double yMax = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Creates a new shapefile, replacing any existing file of the same name.
+     *
+     * @param fileName The name of the .shp file.
+     * @param shapeType The shape type of the records.
+     * @param fields The fields of the attribute table.
+     */
+    public ShapeFileWriter(String fileName, ShapeType shapeType, DBFField[] fields)
+            throws IOException, DBFException {
+        if (shapeType != shapeType.getBaseType() || shapeType == ShapeType.MULTIPATCH
+                || shapeType == ShapeType.NULLSHAPE) {
+            throw new IllegalArgumentException("Unsupported shape type: " + shapeType);
+        }
+        this.fileName = fileName;
+        this.shapeType = shapeType;
+        int extensionIndex = fileName.lastIndexOf(".");
+        indexFile = fileName.substring(0, extensionIndex) + ".shx";
+        databaseFile = fileName.substring(0, extensionIndex) + ".dbf";
+        projectionFile = fileName.substring(0, extensionIndex) + ".prj";
+        for (String f : new String[]{fileName, indexFile, databaseFile, projectionFile}) {
+            new File(f).delete();
+        }
+
+        // the headers are completed when the writer is closed.
+        shp = new BufferedOutputStream(new FileOutputStream(fileName), 1 << 20);
+        shx = new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16);
+        shp.write(new byte[100]);
+        shx.write(new byte[100]);
+        dbf = new DBFWriter(new File(databaseFile));
+        dbf.setFields(fields);
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getNumberOfRecords() {
+        return numRecs;
+    }
+
+    /**
+     * Copies the projection file of another shapefile.
+     *
+     * @param otherShapeFile The shapefile.
+     */
+    public void setProjectionStringFromOtherShapefile(ShapeFile otherShapeFile) {
+        setProjectionStringFromOtherFile(otherShapeFile.getProjectionFile());
+    }
+
+    /**
+     * Copies a projection file.
+     *
+     * @param otherProjectionFile The name of the .prj file.
+     */
+    public void setProjectionStringFromOtherFile(String otherProjectionFile) {
+        try {
+            File otherFile = new File(otherProjectionFile);
+            if (otherFile.exists()) {
+                FileUtilities.copyFile(otherFile, new File(projectionFile));
+            }
+        } catch (IOException e) {
+            // do nothing.
+        }
+    }
+
+    /**
+     * Writes a record and its attributes.
+     *
+     * @param recordGeometry The geometry, which must be of the shape type of
+     * the file.
+     * @param rowData The attributes.
+     */
+    public void addRecord(Geometry recordGeometry, Object[] rowData)
+            throws IOException, DBFException {
+        if (recordGeometry.getShapeType() != shapeType) {
+            throw new IllegalArgumentException("The record is not of the shape type of the file.");
+        }
+        numRecs++;
+        int contentLength = (4 + recordGeometry.getLength()) / 2;
+        ShapeFileRecord sfr = new ShapeFileRecord(numRecs, contentLength,
+                shapeType, recordGeometry);
+        byte[] bytes = sfr.toBytes();
+        shp.write(bytes);
+
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        buf.order(ByteOrder.BIG_ENDIAN);
+        buf.putInt(0, shpLength / 2);
+        buf.putInt(4, contentLength);
+        shx.write(buf.array());
+        shpLength += bytes.length;
+
+        BoundingBox box = recordGeometry.getBox();
+        xMin = Math.min(xMin, box.getMinX());
+        yMin = Math.min(yMin, box.getMinY());
+        xMax = Math.max(xMax, box.getMaxX());
+        yMax = Math.max(yMax, box.getMaxY());
+
+        dbf.addRecord(rowData);
+    }
+
+    /**
+     * Completes the file headers and closes the files.
+     */
+    public void close() throws IOException, DBFException {
+        shp.close();
+        shx.close();
+        writeHeader(fileName, shpLength / 2);
+        writeHeader(indexFile, (100 + 8 * numRecs) / 2);
+        dbf.write();
+    }
+
+    private void writeHeader(String file, int fileLength) throws IOException {
+        if (numRecs == 0) {
+            xMin = yMin = xMax = yMax = 0;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(100);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(0, ByteSwapper.swap(9994)); // the file code
+        buf.putInt(24, ByteSwapper.swap(fileLength));
+        buf.putInt(28, 1000); // the version
+        // the shape type constants are ordered by their shapefile codes
+        buf.putInt(32, shapeType.ordinal());
+        buf.putDouble(36, xMin);
+        buf.putDouble(44, yMin);
+        buf.putDouble(52, xMax);
+        buf.putDouble(60, yMax);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(0);
+            raf.write(buf.array());
+        }
+    }
+}
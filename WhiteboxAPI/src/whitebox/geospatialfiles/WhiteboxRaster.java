@@ -24,6 +24,7 @@ import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Arrays;
+import whitebox.metrics.MetricsRegistry;
 
 /**
  * The whiteboxRaster is used to manipulate Whitebox GAT raster files (.dep and
@@ -241,6 +242,30 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
     public long getNumberOfDataFileWrites() {
         return numberOfDataFileWrites;
     }
+    private long numberOfCellAccesses = 0;
+    private long numberOfCacheMisses = 0;
+    private long reportedCellAccesses = 0;
+    private long reportedCacheMisses = 0;
+
+    /**
+     * The number of cell reads and writes within the grid that were served by
+     * the data block held in memory.
+     *
+     * @return long stating the number of cache hits.
+     */
+    public long getNumberOfCacheHits() {
+        return numberOfCellAccesses - numberOfCacheMisses;
+    }
+
+    /**
+     * The number of cell reads and writes within the grid that required a new
+     * data block to be read from the data file.
+     *
+     * @return long stating the number of cache misses.
+     */
+    public long getNumberOfCacheMisses() {
+        return numberOfCacheMisses;
+    }
 
     //********************************************
     // Available methods.
@@ -383,6 +408,7 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
             minimumValue = min;
         }
 
+        recordModification();
         RandomAccessFile rOut = null;
         FileChannel outChannel = null;
         ByteBuffer buf = null;
@@ -461,6 +487,7 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
                 }
             }
             numberOfDataFileWrites++;
+            MetricsRegistry.recordRasterWrite(dataFile, (long) numberColumns * cellSizeInBytes);
         }
     }
     
@@ -483,11 +510,9 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
     public double getValue(int row, int column) {
         //try {
         if (column >= 0 && column < numberColumns && row >= 0 && row < numberRows) {
-
-            if (blockEndingCell < 0) {
-                readDataBlock();
-            }
-            if (grid == null) {
+            numberOfCellAccesses++;
+            if (blockEndingCell < 0 || grid == null) {
+                numberOfCacheMisses++;
                 readDataBlock();
             }
 
@@ -499,6 +524,7 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
                 if (saveChanges && isDirty) {
                     writeDataBlock();
                 }
+                numberOfCacheMisses++;
                 numReads++;
                 // Figure out a new blockstartingcell
                 if (previousRow < row) { // reading downward
@@ -578,6 +604,7 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
             if (Double.isNaN(value)) {
                 value = noDataValue;
             }
+            numberOfCellAccesses++;
             // what is the cell number?
             long cellNum = (long) (row) * numberColumns + column;
 
@@ -585,6 +612,7 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
                 if (isDirty) {
                     writeDataBlock();
                 }
+                numberOfCacheMisses++;
                 numReads++;
                 // Figure out a new blockstartingcell
                 if (previousRow < row) {
@@ -637,6 +665,7 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
     public void incrementValue(int row, int column, double value) {
         if (saveChanges && column >= 0 && column < this.numberColumns
                 && row >= 0 && row < this.numberRows) {
+            numberOfCellAccesses++;
             // what is the cell number?
             long cellNum = (long) (row) * numberColumns + column;
 
@@ -644,6 +673,7 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
                 if (isDirty) {
                     writeDataBlock();
                 }
+                numberOfCacheMisses++;
                 numReads++;
                 // Figure out a new blockstartingcell
                 if (previousRow < row) {
@@ -688,6 +718,7 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
     public void incrementValue(int row, int column) {
         if (saveChanges && column >= 0 && column < this.numberColumns
                 && row >= 0 && row < this.numberRows) {
+            numberOfCellAccesses++;
             // what is the cell number?
             long cellNum = (long) (row) * numberColumns + column;
 
@@ -695,6 +726,7 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
                 if (isDirty) {
                     writeDataBlock();
                 }
+                numberOfCacheMisses++;
                 numReads++;
                 // Figure out a new blockstartingcell
                 if (previousRow < row) {
@@ -740,6 +772,7 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
     public void decrementValue(int row, int column, double value) {
         if (saveChanges && column >= 0 && column < this.numberColumns
                 && row >= 0 && row < this.numberRows) {
+            numberOfCellAccesses++;
             // what is the cell number?
             long cellNum = (long) (row) * numberColumns + column;
 
@@ -747,6 +780,7 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
                 if (isDirty) {
                     writeDataBlock();
                 }
+                numberOfCacheMisses++;
                 numReads++;
                 // Figure out a new blockstartingcell
                 if (previousRow < row) {
@@ -791,6 +825,7 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
     public void decrementValue(int row, int column) {
         if (saveChanges && column >= 0 && column < this.numberColumns
                 && row >= 0 && row < this.numberRows) {
+            numberOfCellAccesses++;
             // what is the cell number?
             long cellNum = (long) (row) * numberColumns + column;
 
@@ -798,6 +833,7 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
                 if (isDirty) {
                     writeDataBlock();
                 }
+                numberOfCacheMisses++;
                 numReads++;
                 // Figure out a new blockstartingcell
                 if (previousRow < row) {
@@ -1001,6 +1037,7 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
                 } while (numCellsWritten < numberCells);
                 ba = null;
             }
+            MetricsRegistry.recordRasterWrite(dataFile, numberCells * cellSizeInBytes);
 
         } catch (Exception e) {
             System.out.println(e.getMessage());
@@ -1053,6 +1090,7 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
 
             inChannel.position(blockStartingCell * cellSizeInBytes);
             inChannel.read(buf);
+            MetricsRegistry.recordRasterRead(dataFile, buf.position());
 
             // Check the byte order.
             buf.order(byteOrder);
@@ -1131,6 +1169,7 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
             if (!saveChanges) {
                 return;
             }
+            recordModification();
             // update the minimum and maximum values
             double min = Double.MAX_VALUE;
             double max = Double.MIN_VALUE;
@@ -1236,6 +1275,8 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
                 }
                 isDirty = false;
                 numberOfDataFileWrites++;
+                MetricsRegistry.recordRasterWrite(dataFile,
+                        (blockEndingCell - blockStartingCell + 1) * cellSizeInBytes);
             }
         } catch (Exception e) {
             if (communicator != null) {
@@ -1250,6 +1291,11 @@ public class WhiteboxRaster extends WhiteboxRasterBase {
      */
     @Override
     public void close() {
+        MetricsRegistry.recordCacheAccesses(dataFile,
+                getNumberOfCacheHits() - (reportedCellAccesses - reportedCacheMisses),
+                numberOfCacheMisses - reportedCacheMisses);
+        reportedCellAccesses = numberOfCellAccesses;
+        reportedCacheMisses = numberOfCacheMisses;
         if (this.isTemporaryFile) {
             File f1 = new File(this.headerFile);
             f1.delete();
@@ -20,7 +20,10 @@ import java.io.*;
 import java.nio.*;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import whitebox.interfaces.Communicator;
+import whitebox.metrics.MetricsRegistry;
 
 /**
  * The base class serving the WhiteboxRaster and WhiteboxRasterInfo
@@ -602,11 +605,49 @@ public class WhiteboxRasterBase {
     protected final void setFileAccess(String value) {
         if (value.toLowerCase().contains("w")) {
             saveChanges = true;
+            recordModification();
         } else {
             saveChanges = false;
         }
     }
 
+    // the number of times that each data file, by absolute path, has been
+    // opened for writing, written or closed by a raster in this process.
+    private static final ConcurrentHashMap<String, AtomicLong> modificationCounts = new ConcurrentHashMap<>();
+
+    /**
+     * Used to tell whether a raster has been changed by this process since
+     * some earlier time, e.g. by a cache of data derived from the raster. The
+     * count changes whenever the raster is opened for writing, is written
+     * or is closed after writing.
+     *
+     * @param dataFile The data file (.tas) of the raster.
+     * @return The modification count of the raster.
+     */
+    public static long getModificationCount(String dataFile) {
+        AtomicLong count = modificationCounts.get(new File(dataFile).getAbsolutePath());
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Records that the raster, if it is writable, is being changed.
+     */
+    protected final void recordModification() {
+        if (!saveChanges || dataFile == null) {
+            return;
+        }
+        String key = new File(dataFile).getAbsolutePath();
+        AtomicLong count = modificationCounts.get(key);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = modificationCounts.putIfAbsent(key, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
     public void setCommunicator(Communicator communicator) {
         this.communicator = communicator;
     }
@@ -898,6 +939,7 @@ public class WhiteboxRasterBase {
      * Writes the whiteboxRaster header file (.dep) to disc.
      */
     public void writeHeaderFile() {
+        recordModification();
         String str1 = null;
         File file = new File(this.headerFile);
         FileWriter fw = null;
@@ -1146,6 +1188,7 @@ public class WhiteboxRasterBase {
             long numCellsPerStack = numberColumns * numberRows;
             inChannel.position(startingCell * cellSizeInBytes + (numCellsPerStack * stack));
             inChannel.read(buf);
+            MetricsRegistry.recordRasterRead(dataFile, buf.position());
 
             // Check the byte order.
             buf.order(byteOrder);
@@ -1339,6 +1382,7 @@ public class WhiteboxRasterBase {
             long numCellsPerStack = numberColumns * numberRows;
             inChannel.position(startingCell * cellSizeInBytes + (numCellsPerStack * stack));
             inChannel.read(buf);
+            MetricsRegistry.recordRasterRead(dataFile, buf.position());
 
             // Check the byte order.
             buf.order(byteOrder);
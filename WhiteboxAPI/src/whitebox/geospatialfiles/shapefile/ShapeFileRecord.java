@@ -16,8 +16,13 @@
  */
 package whitebox.geospatialfiles.shapefile;
 
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import java.lang.ref.SoftReference;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 import whitebox.utilities.ByteSwapper;
 
 /**
@@ -33,6 +38,9 @@ public class ShapeFileRecord {
     // is effectively a component of the header.
     private Geometry data;
     private boolean pointType;
+    // the JTS conversions of the geometry, which are released if memory is
+    // needed elsewhere.
+    private volatile SoftReference<JTSConversion> jtsConversion = null;
 
     /**
      * Constructors.
@@ -167,6 +175,75 @@ public class ShapeFileRecord {
         return pointType;
     }
     
+    /**
+     * Retrieves the geometry of the record as JTS geometries. The conversion
+     * is cached with the record, so tools that visit a record many times only
+     * convert it once. The cache is released if memory runs low.
+     * @return The JTS geometries, which are shared and must not be modified,
+     * or an empty array for a null shape.
+     */
+    public com.vividsolutions.jts.geom.Geometry[] getJTSGeometries() {
+        return getJTSConversion().parts.clone();
+    }
+    
+    /**
+     * Retrieves the geometry of the record as a single JTS geometry, which 
+     * is a multi-geometry or collection if the record has several parts.
+     * @return The cached JTS geometry, which must not be modified, or null for
+     * a null shape.
+     */
+    public com.vividsolutions.jts.geom.Geometry getJTSGeometry() {
+        return getJTSConversion().geometry;
+    }
+    
+    /**
+     * Retrieves the geometry of the record prepared for repeated spatial
+     * predicates, such as intersects and contains, against other geometries.
+     * This is the fast way to test many features against one clip or
+     * selection feature. The prepared geometry is cached with the record.
+     * @return The prepared geometry, or null for a null shape.
+     */
+    public PreparedGeometry getPreparedGeometry() {
+        JTSConversion conversion = getJTSConversion();
+        synchronized (conversion) {
+            if (conversion.prepared == null && conversion.geometry != null) {
+                conversion.prepared = PreparedGeometryFactory.prepare(conversion.geometry);
+            }
+            return conversion.prepared;
+        }
+    }
+    
+    private JTSConversion getJTSConversion() {
+        SoftReference<JTSConversion> ref = jtsConversion;
+        JTSConversion conversion = ref != null ? ref.get() : null;
+        if (conversion == null) {
+            // concurrent callers may both convert the geometry, in which
+            // case the conversions are equivalent and either may be kept.
+            conversion = new JTSConversion(data);
+            jtsConversion = new SoftReference<>(conversion);
+        }
+        return conversion;
+    }
+    
+    private static final class JTSConversion {
+        
+        private static final GeometryFactory factory = new GeometryFactory();
+        final com.vividsolutions.jts.geom.Geometry[] parts;
+        final com.vividsolutions.jts.geom.Geometry geometry;
+        PreparedGeometry prepared = null;
+        
+        JTSConversion(Geometry data) {
+            if (data == null) {
+                parts = new com.vividsolutions.jts.geom.Geometry[0];
+                geometry = null;
+            } else {
+                parts = data.getJTSGeometries();
+                geometry = parts.length == 1 ? parts[0]
+                        : factory.buildGeometry(Arrays.asList(parts));
+            }
+        }
+    }
+    
     // methods
     
     /**
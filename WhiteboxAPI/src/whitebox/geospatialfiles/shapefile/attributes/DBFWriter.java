@@ -16,6 +16,7 @@ import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.text.DecimalFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -43,6 +44,14 @@ public class DBFWriter extends DBFBase {
     private Vector v_records = new Vector();
     private int recordCount = 0;
     private RandomAccessFile raf = null; 
+    /*
+     * Records that are appended to the file are gathered in a buffer and
+     * written in large blocks, rather than a field at a time.
+     */
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    private ByteArrayOutputStream pendingRecords = null;
+    private DataOutputStream pendingOut = null;
+    private DecimalFormat[] numberFormats = null;
     /*
      * Open and append records to an existing DBF
      */
@@ -232,8 +241,15 @@ public class DBFWriter extends DBFBase {
 
             try {
 
-                writeRecord(this.raf, values);
+                if (pendingRecords == null) {
+                    pendingRecords = new ByteArrayOutputStream(WRITE_BUFFER_SIZE + this.header.recordLength);
+                    pendingOut = new DataOutputStream(pendingRecords);
+                }
+                writeRecord(pendingOut, values);
                 this.recordCount++;
+                if (pendingRecords.size() >= WRITE_BUFFER_SIZE) {
+                    flushRecords();
+                }
             } catch (IOException e) {
 
                 throw new DBFException("Error occured while writing record. " + e.getMessage());
@@ -276,6 +292,7 @@ public class DBFWriter extends DBFBase {
                  * everything is written already. just update the header for
                  * record count and the END_OF_DATA mark
                  */
+                flushRecords();
                 this.header.numberOfRecords = this.recordCount;
                 this.raf.seek(0);
                 this.header.write(this.raf);
@@ -296,6 +313,19 @@ public class DBFWriter extends DBFBase {
         this.write(null);
     }
 
+    /**
+     * Writes the buffered records to the end of the file.
+     */
+    private void flushRecords() throws IOException {
+
+        if (pendingRecords != null && pendingRecords.size() > 0) {
+
+            pendingOut.flush();
+            this.raf.write(pendingRecords.toByteArray());
+            pendingRecords.reset();
+        }
+    }
+
     public void updateRecord(int recordNumber, Object[] objectArray) throws IOException {
         if (recordNumber < 0) {
             throw new DBFException("Record number is out of bounds.");
@@ -308,6 +338,7 @@ public class DBFWriter extends DBFBase {
         if (recordNumber == this.header.numberOfRecords) { // append it to the end of the file
             addRecord(objectArray);
         }
+        flushRecords();
 
         //RandomAccessFile rOut = null;
         ByteBuffer buf;
@@ -438,6 +469,14 @@ public class DBFWriter extends DBFBase {
     private void writeRecord(DataOutput dataOutput, Object[] objectArray)
             throws IOException {
 
+        if (numberFormats == null) {
+            numberFormats = new DecimalFormat[this.header.fieldArray.length];
+            for (int j = 0; j < numberFormats.length; j++) {
+                DBFField field = this.header.fieldArray[j];
+                numberFormats[j] = Utils.numberFormat(field.getFieldLength(), field.getDecimalCount());
+            }
+        }
+
         dataOutput.write((byte) ' ');
         for (int j = 0; j < this.header.fieldArray.length; j++) { /*
              * iterate throught fields
@@ -477,7 +516,7 @@ public class DBFWriter extends DBFBase {
 
                     if (objectArray[j] != null) {
 
-                        dataOutput.write(Utils.doubleFormating((Double) objectArray[j], this.characterSetName, this.header.fieldArray[j].getFieldLength(), this.header.fieldArray[j].getDecimalCount()));
+                        dataOutput.write(Utils.doubleFormating((Double) objectArray[j], numberFormats[j], this.characterSetName, this.header.fieldArray[j].getFieldLength()));
                     } else {
 
                         dataOutput.write(Utils.textPadding("?", this.characterSetName, this.header.fieldArray[j].getFieldLength(), Utils.ALIGN_RIGHT));
@@ -490,7 +529,7 @@ public class DBFWriter extends DBFBase {
                     if (objectArray[j] != null) {
 
                         dataOutput.write(
-                                Utils.doubleFormating((Double) objectArray[j], this.characterSetName, this.header.fieldArray[j].getFieldLength(), this.header.fieldArray[j].getDecimalCount()));
+                                Utils.doubleFormating((Double) objectArray[j], numberFormats[j], this.characterSetName, this.header.fieldArray[j].getFieldLength()));
                     } else {
 
                         dataOutput.write(
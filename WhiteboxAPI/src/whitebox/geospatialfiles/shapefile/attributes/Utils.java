@@ -135,6 +135,23 @@ public final class Utils {
 
     public static byte[] doubleFormating(Double doubleNum, String characterSetName, int fieldLength, int sizeDecimalPart) throws java.io.UnsupportedEncodingException {
 
+        return doubleFormating(doubleNum, numberFormat(fieldLength, sizeDecimalPart), characterSetName, fieldLength);
+    }
+
+    /**
+     * Formats a number with a format that was created by numberFormat, which
+     * may be reused for any number of values of a field.
+     */
+    public static byte[] doubleFormating(Double doubleNum, DecimalFormat df, String characterSetName, int fieldLength) throws java.io.UnsupportedEncodingException {
+
+        return textPadding(df.format(doubleNum.doubleValue()).toString(), characterSetName, fieldLength, ALIGN_RIGHT);
+    }
+
+    /**
+     * Creates the format of the values of a numeric field.
+     */
+    public static DecimalFormat numberFormat(int fieldLength, int sizeDecimalPart) {
+
         int sizeWholePart = fieldLength - (sizeDecimalPart > 0 ? (sizeDecimalPart + 1) : 0);
 
         StringBuffer format = new StringBuffer(fieldLength);
@@ -154,9 +171,7 @@ public final class Utils {
             }
         }
 
-        DecimalFormat df = new DecimalFormat(format.toString());
-
-        return textPadding(df.format(doubleNum.doubleValue()).toString(), characterSetName, fieldLength, ALIGN_RIGHT);
+        return new DecimalFormat(format.toString());
     }
 
     public static boolean contains(byte[] arr, byte value) {
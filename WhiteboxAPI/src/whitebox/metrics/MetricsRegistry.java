@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Collects execution metrics for plugin runs. A host calls startRun before
+ * running a plugin and endRun when it is complete; in between, the raster
+ * classes report their data file I/O here. The registry records the wall and
+ * CPU time, the bytes read and written and the block cache hits and misses
+ * of each raster, the peak heap usage and the number of threads used.
+ * <p>
+ * I/O is attributed to every run that is active at the time, so the
+ * per-raster figures of plugins that run concurrently will overlap, as will
+ * the CPU time, heap and thread figures, which are process-wide.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class MetricsRegistry {
+
+    private static final CopyOnWriteArrayList<PluginRunMetrics> activeRuns = new CopyOnWriteArrayList<>();
+    private static final List<PluginRunMetrics> completedRuns = new ArrayList<>();
+    private static int maxCompletedRuns = 1000;
+    private static boolean enabled = true;
+
+    private MetricsRegistry() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    /**
+     * Sets the number of completed runs that are retained. The oldest runs
+     * are discarded first.
+     *
+     * @param value The maximum number of runs to keep.
+     */
+    public static void setMaxCompletedRuns(int value) {
+        maxCompletedRuns = value;
+    }
+
+    /**
+     * Marks the start of a plugin run.
+     *
+     * @param pluginName The name of the plugin.
+     * @return The metrics object for the run, or null if metrics are disabled.
+     */
+    public static PluginRunMetrics startRun(String pluginName) {
+        if (!enabled) {
+            return null;
+        }
+        PluginRunMetrics run = new PluginRunMetrics(pluginName);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        run.startThreadCount = threads.getThreadCount();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+            }
+        }
+        run.startCpuNanos = getProcessCpuTime();
+        run.startNanos = System.nanoTime();
+        activeRuns.add(run);
+        return run;
+    }
+
+    /**
+     * Marks the end of a plugin run and moves it to the list of completed
+     * runs.
+     *
+     * @param run The metrics object returned by startRun. Null is ignored.
+     */
+    public static void endRun(PluginRunMetrics run) {
+        if (run == null || !activeRuns.remove(run)) {
+            return;
+        }
+        long wallTime = System.nanoTime() - run.startNanos;
+        long cpuTime = getProcessCpuTime() - run.startCpuNanos;
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        int threadsUsed = ManagementFactory.getThreadMXBean().getPeakThreadCount()
+                - run.startThreadCount + 1;
+        run.complete(wallTime, Math.max(cpuTime, 0), peakHeap, threadsUsed,
+                Runtime.getRuntime().availableProcessors());
+
+        synchronized (completedRuns) {
+            completedRuns.add(run);
+            while (completedRuns.size() > maxCompletedRuns) {
+                completedRuns.remove(0);
+            }
+        }
+    }
+
+    /**
+     * Records a read from a raster data file.
+     *
+     * @param fileName The data file name.
+     * @param bytes The number of bytes read.
+     */
+    public static void recordRasterRead(String fileName, long bytes) {
+        if (activeRuns.isEmpty()) {
+            return;
+        }
+        for (PluginRunMetrics run : activeRuns) {
+            run.getRaster(fileName).addRead(bytes);
+        }
+    }
+
+    /**
+     * Records a write to a raster data file.
+     *
+     * @param fileName The data file name.
+     * @param bytes The number of bytes written.
+     */
+    public static void recordRasterWrite(String fileName, long bytes) {
+        if (activeRuns.isEmpty()) {
+            return;
+        }
+        for (PluginRunMetrics run : activeRuns) {
+            run.getRaster(fileName).addWrite(bytes);
+        }
+    }
+
+    /**
+     * Records block cache accesses of a raster.
+     *
+     * @param fileName The data file name.
+     * @param hits The number of accesses served from memory.
+     * @param misses The number of accesses that required a block read.
+     */
+    public static void recordCacheAccesses(String fileName, long hits, long misses) {
+        if (activeRuns.isEmpty() || (hits == 0 && misses == 0)) {
+            return;
+        }
+        for (PluginRunMetrics run : activeRuns) {
+            run.getRaster(fileName).addCacheAccesses(hits, misses);
+        }
+    }
+
+    public static List<PluginRunMetrics> getCompletedRuns() {
+        synchronized (completedRuns) {
+            return new ArrayList<>(completedRuns);
+        }
+    }
+
+    public static void clear() {
+        synchronized (completedRuns) {
+            completedRuns.clear();
+        }
+    }
+
+    /**
+     * Returns the completed runs as a JSON array.
+     *
+     * @return String containing the JSON.
+     */
+    public static String toJSON() {
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        return gson.toJson(getCompletedRuns());
+    }
+
+    /**
+     * Returns the completed runs as comma-separated values, with one line
+     * for each raster accessed by each run. Runs that did not access any
+     * rasters have a single line with an empty raster field.
+     *
+     * @return String containing the CSV.
+     */
+    public static String toCSV() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("plugin,start_time,wall_time_s,cpu_time_s,cpu_utilisation,"
+                + "peak_heap_bytes,threads_used,raster,bytes_read,bytes_written,"
+                + "reads,writes,cache_hits,cache_misses\n");
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+        for (PluginRunMetrics run : getCompletedRuns()) {
+            String prefix = csvField(run.getPluginName()) + ","
+                    + sdf.format(new Date(run.getStartTime())) + ","
+                    + run.getWallTimeNanos() / 1.0e9 + ","
+                    + run.getCpuTimeNanos() / 1.0e9 + ","
+                    + run.getCpuUtilisation() + ","
+                    + run.getPeakHeapBytes() + ","
+                    + run.getThreadsUsed() + ",";
+            List<RasterIOMetrics> rasters = run.getRasterMetrics();
+            if (rasters.isEmpty()) {
+                sb.append(prefix).append(",,,,,,\n");
+            }
+            for (RasterIOMetrics r : rasters) {
+                sb.append(prefix).append(csvField(r.getFileName())).append(",")
+                        .append(r.getBytesRead()).append(",")
+                        .append(r.getBytesWritten()).append(",")
+                        .append(r.getNumberOfReads()).append(",")
+                        .append(r.getNumberOfWrites()).append(",")
+                        .append(r.getCacheHits()).append(",")
+                        .append(r.getCacheMisses()).append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns a plain-text summary of the completed runs suitable for display.
+     *
+     * @return String containing the summary.
+     */
+    public static String getSummary() {
+        DecimalFormat df = new DecimalFormat("0.00");
+        StringBuilder sb = new StringBuilder();
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        List<PluginRunMetrics> runs = getCompletedRuns();
+        if (runs.isEmpty()) {
+            return "No plugin runs have been recorded.";
+        }
+        for (PluginRunMetrics run : runs) {
+            sb.append(run.getPluginName()).append(" (")
+                    .append(sdf.format(new Date(run.getStartTime()))).append(")\n");
+            sb.append("  Wall time: ").append(df.format(run.getWallTimeNanos() / 1.0e9)).append(" s\n");
+            sb.append("  CPU time: ").append(df.format(run.getCpuTimeNanos() / 1.0e9))
+                    .append(" s (").append(df.format(run.getCpuUtilisation() * 100))
+                    .append("% of available)\n");
+            sb.append("  Peak heap: ").append(df.format(run.getPeakHeapBytes() / 1048576.0)).append(" MB\n");
+            sb.append("  Threads used: ").append(run.getThreadsUsed()).append("\n");
+            sb.append("  Data read: ").append(df.format(run.getTotalBytesRead() / 1048576.0))
+                    .append(" MB; written: ").append(df.format(run.getTotalBytesWritten() / 1048576.0))
+                    .append(" MB\n");
+            for (RasterIOMetrics r : run.getRasterMetrics()) {
+                sb.append("    ").append(r.getFileName()).append(": read ")
+                        .append(df.format(r.getBytesRead() / 1048576.0)).append(" MB, written ")
+                        .append(df.format(r.getBytesWritten() / 1048576.0)).append(" MB, cache hits ")
+                        .append(r.getCacheHits()).append(", misses ")
+                        .append(r.getCacheMisses()).append("\n");
+            }
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the completed runs to a file. The format is CSV if the file name
+     * ends in '.csv' and JSON otherwise.
+     *
+     * @param fileName The output file name.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void write(String fileName) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(fileName))) {
+            if (fileName.toLowerCase().endsWith(".csv")) {
+                out.print(toCSV());
+            } else {
+                out.print(toJSON());
+            }
+        }
+    }
+
+    private static String csvField(String value) {
+        if (value.contains(",") || value.contains("\"")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    private static long getProcessCpuTime() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        // fall back on the CPU time of the calling thread
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : 0;
+    }
+}
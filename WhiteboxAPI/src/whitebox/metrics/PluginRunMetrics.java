@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the execution metrics of a single plugin run. Instances are created
+ * by MetricsRegistry.startRun and completed by MetricsRegistry.endRun.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class PluginRunMetrics {
+
+    private final String pluginName;
+    private final long startTime;
+    private long wallTimeNanos = 0;
+    private long cpuTimeNanos = 0;
+    private long peakHeapBytes = 0;
+    private int threadsUsed = 0;
+    private int availableProcessors = 0;
+    private final Map<String, RasterIOMetrics> rasters = new LinkedHashMap<>();
+
+    // baselines used while the run is active; not reported.
+    transient long startNanos;
+    transient long startCpuNanos;
+    transient int startThreadCount;
+
+    PluginRunMetrics(String pluginName) {
+        this.pluginName = pluginName;
+        this.startTime = System.currentTimeMillis();
+    }
+
+    public String getPluginName() {
+        return pluginName;
+    }
+
+    /**
+     * The time at which the run started.
+     *
+     * @return The start time in milliseconds since the epoch.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getWallTimeNanos() {
+        return wallTimeNanos;
+    }
+
+    /**
+     * The CPU time consumed by the whole process while the plugin was
+     * running, summed over all threads.
+     *
+     * @return CPU time in nanoseconds.
+     */
+    public long getCpuTimeNanos() {
+        return cpuTimeNanos;
+    }
+
+    /**
+     * The ratio of CPU time to the wall time available on all processors. A
+     * value near 1 indicates a CPU-bound run that made use of every core; a
+     * value near 1 / (number of processors) indicates a single-threaded
+     * CPU-bound run; and lower values indicate that the run was mostly
+     * waiting, usually on I/O.
+     *
+     * @return The CPU utilisation, between 0 and 1.
+     */
+    public double getCpuUtilisation() {
+        if (wallTimeNanos <= 0 || availableProcessors <= 0) {
+            return 0;
+        }
+        return (double) cpuTimeNanos / ((double) wallTimeNanos * availableProcessors);
+    }
+
+    public long getPeakHeapBytes() {
+        return peakHeapBytes;
+    }
+
+    /**
+     * The number of threads started, in addition to those that were already
+     * alive, while the plugin was running.
+     *
+     * @return The number of threads used, including the plugin's own thread.
+     */
+    public int getThreadsUsed() {
+        return threadsUsed;
+    }
+
+    public synchronized List<RasterIOMetrics> getRasterMetrics() {
+        return new ArrayList<>(rasters.values());
+    }
+
+    public synchronized long getTotalBytesRead() {
+        long total = 0;
+        for (RasterIOMetrics r : rasters.values()) {
+            total += r.getBytesRead();
+        }
+        return total;
+    }
+
+    public synchronized long getTotalBytesWritten() {
+        long total = 0;
+        for (RasterIOMetrics r : rasters.values()) {
+            total += r.getBytesWritten();
+        }
+        return total;
+    }
+
+    synchronized RasterIOMetrics getRaster(String fileName) {
+        RasterIOMetrics r = rasters.get(fileName);
+        if (r == null) {
+            r = new RasterIOMetrics(fileName);
+            rasters.put(fileName, r);
+        }
+        return r;
+    }
+
+    void complete(long wallTimeNanos, long cpuTimeNanos, long peakHeapBytes,
+            int threadsUsed, int availableProcessors) {
+        this.wallTimeNanos = wallTimeNanos;
+        this.cpuTimeNanos = cpuTimeNanos;
+        this.peakHeapBytes = peakHeapBytes;
+        this.threadsUsed = threadsUsed;
+        this.availableProcessors = availableProcessors;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.metrics;
+
+/**
+ * Holds the I/O counters of a single raster data file during one plugin run.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class RasterIOMetrics {
+
+    private final String fileName;
+    private long bytesRead = 0;
+    private long bytesWritten = 0;
+    private long numberOfReads = 0;
+    private long numberOfWrites = 0;
+    private long cacheHits = 0;
+    private long cacheMisses = 0;
+
+    public RasterIOMetrics(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public synchronized long getBytesRead() {
+        return bytesRead;
+    }
+
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * The number of separate read operations on the data file, i.e. block
+     * reads and row reads.
+     *
+     * @return long stating the number of reads.
+     */
+    public synchronized long getNumberOfReads() {
+        return numberOfReads;
+    }
+
+    /**
+     * The number of separate write operations on the data file.
+     *
+     * @return long stating the number of writes.
+     */
+    public synchronized long getNumberOfWrites() {
+        return numberOfWrites;
+    }
+
+    /**
+     * The number of getValue/setValue calls served by the block held in
+     * memory.
+     *
+     * @return long stating the number of cache hits.
+     */
+    public synchronized long getCacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * The number of getValue/setValue calls that required a new block to be
+     * read from disk.
+     *
+     * @return long stating the number of cache misses.
+     */
+    public synchronized long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    synchronized void addRead(long bytes) {
+        bytesRead += bytes;
+        numberOfReads++;
+    }
+
+    synchronized void addWrite(long bytes) {
+        bytesWritten += bytes;
+        numberOfWrites++;
+    }
+
+    synchronized void addCacheAccesses(long hits, long misses) {
+        cacheHits += hits;
+        cacheMisses += misses;
+    }
+}
@@ -31,6 +31,8 @@ import java.util.List;
 import java.util.ResourceBundle;
 import java.util.logging.Level;
 import whitebox.interfaces.MapLayer;
+import whitebox.metrics.MetricsRegistry;
+import whitebox.metrics.PluginRunMetrics;
 import whitebox.utilities.FileUtilities;
 
 /**
@@ -362,19 +364,54 @@ public class PluginHost implements WhiteboxPluginHost {
         
     }
     
+    /**
+     * Runs a plugin on the current thread. Plugins are always run
+     * synchronously by this host, so that the execution metrics recorded by
+     * the MetricsRegistry cover the whole of the run.
+     * 
+     * @param pluginName The name or descriptive name of the plugin.
+     * @param args The plugin's arguments.
+     * @param runOnDedicatedThread Ignored.
+     */
     @Override
     public void runPlugin(String pluginName, String[] args, boolean runOnDedicatedThread) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        runPlugin(pluginName, args);
     }
     
     @Override
     public void runPlugin(String pluginName, String[] args) {
-        throw new UnsupportedOperationException("Not supported yet.");
+        WhiteboxPlugin plug = pluginService.getPlugin(pluginName, StandardPluginService.SIMPLE_NAME);
+        if (plug == null) {
+            plug = pluginService.getPlugin(pluginName, StandardPluginService.DESCRIPTIVE_NAME);
+        }
+        if (plug == null) {
+            showFeedback("Plugin not located: " + pluginName);
+            return;
+        }
+        plug.setPluginHost(this);
+        plug.setArgs(args);
+        PluginRunMetrics metrics = MetricsRegistry.startRun(plug.getName());
+        try {
+            plug.run();
+        } finally {
+            MetricsRegistry.endRun(metrics);
+        }
     }
 
     @Override
     public void pluginComplete() {
-        throw new UnsupportedOperationException("Not supported yet.");
+        
+    }
+    
+    /**
+     * Writes the execution metrics of the plugins run by this host to a
+     * file, as CSV if the file name ends in '.csv' and as JSON otherwise.
+     * 
+     * @param fileName The output file name.
+     * @throws IOException if the file cannot be written.
+     */
+    public void writePluginMetrics(String fileName) throws IOException {
+        MetricsRegistry.write(fileName);
     }
 
     @Override
@@ -477,12 +514,12 @@ public class PluginHost implements WhiteboxPluginHost {
 
     @Override
     public void logException(String message, Exception e) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        System.err.println(message + ": " + e.toString());
     }
 
     @Override
     public void logThrowable(String message, Throwable t) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        System.err.println(message + ": " + t.toString());
     }
     
     
@@ -527,7 +564,7 @@ public class PluginHost implements WhiteboxPluginHost {
 
     @Override
     public void runPlugin(String pluginName, String[] args, boolean runOnDedicatedThread, boolean suppressReturnedData) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        runPlugin(pluginName, args);
     }
 
     @Override
@@ -0,0 +1,446 @@
+/*
+ * Copyright (C) 2014 Dr. John Lindsay <jlindsay@uoguelph.ca>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitebox.structures;
+
+import java.util.Arrays;
+
+/**
+ * A kd-tree that is built once from a complete set of points and stored in
+ * flat arrays. Unlike KdTree, which grows by adding points one at a time and
+ * holds a boxed value with each point, the points of a StaticKdTree are
+ * identified by their position in the coordinate array that the tree was
+ * built from, so that values are kept by the caller in primitive arrays.
+ *
+ * The tree is balanced, being built by splitting each node at the median of
+ * its widest dimension, and its points are stored in tree order, so that the
+ * points of each leaf are adjacent in memory. The tree is not modified by
+ * queries, which may therefore be run from any number of threads at once.
+ * Query results are written to a Neighbors buffer supplied by the caller,
+ * which is reused from one query to the next so that a query allocates no
+ * memory. Each thread needs its own buffer. Distances are squared Euclidean
+ * distances, as with KdTree.SqrEuclid.
+ *
+ * @author Dr. John Lindsay <jlindsay@uoguelph.ca>
+ */
+public class StaticKdTree {
+
+    private static final int bucketSize = 24;
+
+    private final int dimensions;
+    private final int numPoints;
+    // the coordinates of the points, in tree order.
+    private final double[] coordinates;
+    // the position of each point, in tree order, in the input array.
+    private final int[] indices;
+    // the splits of the stems, numbered from 1 at the root, with the children
+    // of stem i being 2i and 2i + 1.
+    private final double[] splitValue;
+    private final byte[] splitDimension;
+
+    /**
+     * Builds a tree.
+     *
+     * @param coordinates The coordinates of the points, in the order x0, y0,
+     * x1, y1,... for points in two dimensions. The array is not modified.
+     * @param numPoints The number of points.
+     * @param dimensions The number of dimensions.
+     */
+    public StaticKdTree(double[] coordinates, int numPoints, int dimensions) {
+        if (dimensions < 1 || dimensions > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported number of dimensions.");
+        }
+        if (numPoints < 0 || (long) numPoints * dimensions > coordinates.length) {
+            throw new IllegalArgumentException("The coordinate array is too short.");
+        }
+        this.dimensions = dimensions;
+        this.numPoints = numPoints;
+        this.coordinates = Arrays.copyOf(coordinates, numPoints * dimensions);
+        this.indices = new int[numPoints];
+        int levels = 0;
+        for (int n = numPoints; n > bucketSize; n = (n + 1) / 2) {
+            levels++;
+        }
+        this.splitValue = new double[1 << levels];
+        this.splitDimension = new byte[1 << levels];
+        for (int i = 0; i < numPoints; i++) {
+            indices[i] = i;
+        }
+        build();
+    }
+
+    /**
+     * Builds a tree.
+     *
+     * @param coordinates The coordinates of the points, in the order x0, y0,
+     * x1, y1,... for points in two dimensions.
+     * @param numPoints The number of points.
+     * @param dimensions The number of dimensions.
+     */
+    public StaticKdTree(float[] coordinates, int numPoints, int dimensions) {
+        this(toDouble(coordinates, numPoints * dimensions), numPoints, dimensions);
+    }
+
+    private static double[] toDouble(float[] values, int length) {
+        if (length > values.length) {
+            throw new IllegalArgumentException("The coordinate array is too short.");
+        }
+        double[] ret = new double[length];
+        for (int i = 0; i < length; i++) {
+            ret[i] = values[i];
+        }
+        return ret;
+    }
+
+    /**
+     * Get the number of points in the tree
+     */
+    public int size() {
+        return numPoints;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Finds the nearest 'count' points to 'location'. The results are sorted
+     * by increasing distance.
+     *
+     * @param location The coordinates of the query point.
+     * @param count The number of points to find.
+     * @param results Receives the points found, replacing its contents.
+     * @return The number of points found, which is less than count only if
+     * the tree holds fewer points.
+     */
+    public int nearestNeighbors(double[] location, int count, Neighbors results) {
+        results.clear();
+        if (count > 0 && numPoints > 0) {
+            nearest(1, 0, numPoints, location, count, results);
+            results.sortHeap();
+        }
+        return results.size;
+    }
+
+    /**
+     * Finds all points within 'range' distance to 'location'. The results
+     * are not sorted.
+     *
+     * @param location The coordinates of the query point.
+     * @param range The search radius, which is not squared.
+     * @param results Receives the points found, replacing its contents.
+     * @return The number of points found.
+     */
+    public int neighborsWithinRange(double[] location, double range, Neighbors results) {
+        results.clear();
+        if (range > 0 && numPoints > 0) {
+            withinRange(1, 0, numPoints, location, range * range, results);
+        }
+        return results.size;
+    }
+
+    private void build() {
+        if (numPoints <= bucketSize) {
+            return;
+        }
+        // an explicit stack of the nodes still to be split
+        int[] stack = new int[192];
+        int top = 0;
+        stack[top++] = 1;
+        stack[top++] = 0;
+        stack[top++] = numPoints;
+        double[] min = new double[dimensions];
+        double[] max = new double[dimensions];
+        while (top > 0) {
+            int hi = stack[--top];
+            int lo = stack[--top];
+            int node = stack[--top];
+            if (hi - lo <= bucketSize) {
+                continue;
+            }
+            // split on the widest dimension
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            for (int i = lo; i < hi; i++) {
+                int p = i * dimensions;
+                for (int d = 0; d < dimensions; d++) {
+                    double v = coordinates[p + d];
+                    if (v < min[d]) {
+                        min[d] = v;
+                    }
+                    if (v > max[d]) {
+                        max[d] = v;
+                    }
+                }
+            }
+            int dim = 0;
+            for (int d = 1; d < dimensions; d++) {
+                if (max[d] - min[d] > max[dim] - min[dim]) {
+                    dim = d;
+                }
+            }
+            int mid = (lo + hi) >>> 1;
+            select(lo, hi - 1, mid, dim);
+            splitValue[node] = get(mid, dim);
+            splitDimension[node] = (byte) dim;
+            if (top + 6 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[top++] = 2 * node;
+            stack[top++] = lo;
+            stack[top++] = mid;
+            stack[top++] = 2 * node + 1;
+            stack[top++] = mid;
+            stack[top++] = hi;
+        }
+    }
+
+    /**
+     * Partially sorts the points between left and right, inclusive, on a
+     * dimension so that the point at position k is preceded by no larger
+     * coordinate and followed by no smaller one.
+     */
+    private void select(int left, int right, int k, int dim) {
+        while (right > left) {
+            // median of three pivot
+            int m = (left + right) >>> 1;
+            if (get(m, dim) < get(left, dim)) {
+                swap(m, left);
+            }
+            if (get(right, dim) < get(left, dim)) {
+                swap(right, left);
+            }
+            if (get(right, dim) < get(m, dim)) {
+                swap(right, m);
+            }
+            double pivot = get(m, dim);
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (get(i, dim) < pivot) {
+                    i++;
+                }
+                while (get(j, dim) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private double get(int i, int dim) {
+        return coordinates[i * dimensions + dim];
+    }
+
+    private void swap(int i, int j) {
+        int a = i * dimensions;
+        int b = j * dimensions;
+        for (int d = 0; d < dimensions; d++) {
+            double t = coordinates[a + d];
+            coordinates[a + d] = coordinates[b + d];
+            coordinates[b + d] = t;
+        }
+        int t = indices[i];
+        indices[i] = indices[j];
+        indices[j] = t;
+    }
+
+    private double pointDist(int i, double[] location) {
+        int p = i * dimensions;
+        double dist = 0;
+        for (int d = 0; d < dimensions; d++) {
+            double diff = coordinates[p + d] - location[d];
+            dist += diff * diff;
+        }
+        return dist;
+    }
+
+    private void nearest(int node, int lo, int hi, double[] location, int count, Neighbors results) {
+        if (hi - lo <= bucketSize) {
+            for (int i = lo; i < hi; i++) {
+                double dist = pointDist(i, location);
+                if (results.size < count) {
+                    results.push(indices[i], dist);
+                } else if (dist < results.distances[0]) {
+                    results.replaceLargest(indices[i], dist);
+                }
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double diff = location[splitDimension[node]] - splitValue[node];
+        // descend the side of the split holding the location first
+        if (diff < 0) {
+            nearest(2 * node, lo, mid, location, count, results);
+            if (results.size < count || diff * diff < results.distances[0]) {
+                nearest(2 * node + 1, mid, hi, location, count, results);
+            }
+        } else {
+            nearest(2 * node + 1, mid, hi, location, count, results);
+            if (results.size < count || diff * diff < results.distances[0]) {
+                nearest(2 * node, lo, mid, location, count, results);
+            }
+        }
+    }
+
+    private void withinRange(int node, int lo, int hi, double[] location, double sqrRange,
+            Neighbors results) {
+        if (hi - lo <= bucketSize) {
+            for (int i = lo; i < hi; i++) {
+                double dist = pointDist(i, location);
+                if (dist <= sqrRange) {
+                    results.add(indices[i], dist);
+                }
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double diff = location[splitDimension[node]] - splitValue[node];
+        if (diff <= 0 || diff * diff <= sqrRange) {
+            withinRange(2 * node, lo, mid, location, sqrRange, results);
+        }
+        if (diff >= 0 || diff * diff <= sqrRange) {
+            withinRange(2 * node + 1, mid, hi, location, sqrRange, results);
+        }
+    }
+
+    /**
+     * A reusable buffer of query results. Each result is the position of a
+     * point in the coordinate array from which the tree was built and its
+     * squared distance from the query location. The buffer grows as needed
+     * and is not thread-safe.
+     */
+    public static final class Neighbors {
+
+        private int[] indices;
+        private double[] distances;
+        private int size;
+
+        public Neighbors() {
+            this(bucketSize);
+        }
+
+        public Neighbors(int capacity) {
+            capacity = Math.max(1, capacity);
+            indices = new int[capacity];
+            distances = new double[capacity];
+        }
+
+        /**
+         * Get the number of results
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @param i The result number.
+         * @return The position of the point in the coordinate array of the
+         * tree, i.e. its coordinates begin at index * dimensions.
+         */
+        public int getIndex(int i) {
+            return indices[i];
+        }
+
+        /**
+         * @param i The result number.
+         * @return The squared distance of the point from the query location.
+         */
+        public double getDistance(int i) {
+            return distances[i];
+        }
+
+        private void clear() {
+            size = 0;
+        }
+
+        private void add(int index, double distance) {
+            if (size == indices.length) {
+                indices = Arrays.copyOf(indices, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            indices[size] = index;
+            distances[size] = distance;
+            size++;
+        }
+
+        // The nearest-neighbor search keeps the results in a max-heap on
+        // distance, so that the farthest result is at position 0.
+        private void push(int index, double distance) {
+            add(index, distance);
+            int i = size - 1;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (distances[parent] >= distances[i]) {
+                    break;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void replaceLargest(int index, double distance) {
+            indices[0] = index;
+            distances[0] = distance;
+            siftDown(0, size);
+        }
+
+        private void siftDown(int i, int n) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= n) {
+                    return;
+                }
+                if (child + 1 < n && distances[child + 1] > distances[child]) {
+                    child++;
+                }
+                if (distances[i] >= distances[child]) {
+                    return;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        // sorts the heap by increasing distance
+        private void sortHeap() {
+            for (int n = size - 1; n > 0; n--) {
+                swap(0, n);
+                siftDown(0, n);
+            }
+        }
+
+        private void swap(int i, int j) {
+            int t = indices[i];
+            indices[i] = indices[j];
+            indices[j] = t;
+            double d = distances[i];
+            distances[i] = distances[j];
+            distances[j] = d;
+        }
+    }
+}
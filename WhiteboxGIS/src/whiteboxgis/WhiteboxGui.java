@@ -99,6 +99,8 @@ import whitebox.utilities.StringUtilities;
 import whitebox.plugins.ReturnedDataEvent;
 import whiteboxgis.user_interfaces.ViewTextDialog;
 import whitebox.geospatialfiles.LasLayerInfo;
+import whitebox.metrics.MetricsRegistry;
+import whitebox.metrics.PluginRunMetrics;
 
 /**
  *
@@ -1212,7 +1214,12 @@ public class WhiteboxGui extends JFrame implements ThreadListener, ActionListene
                     }
                     plug.setPluginHost(this);
                     plug.setArgs(args);
-                    plug.run();
+                    PluginRunMetrics metrics = MetricsRegistry.startRun(plug.getName());
+                    try {
+                        plug.run();
+                    } finally {
+                        MetricsRegistry.endRun(metrics);
+                    }
                 } else {
                     // what is the scripting language?
                     if (scriptFile == null) {
@@ -1321,7 +1328,14 @@ public class WhiteboxGui extends JFrame implements ThreadListener, ActionListene
                     NotifyingThread t = (NotifyingThread) (plug);
                     t.addListener(this);
                 }
-                new Thread(plug).start();
+                final PluginRunMetrics metrics = MetricsRegistry.startRun(plug.getName());
+                new Thread(() -> {
+                    try {
+                        plug.run();
+                    } finally {
+                        MetricsRegistry.endRun(metrics);
+                    }
+                }).start();
             } else {
                 // what is the scripting language?
                 if (scriptFile == null) {
@@ -2777,6 +2791,12 @@ public class WhiteboxGui extends JFrame implements ThreadListener, ActionListene
                 viewHtmlDialog("");
             });
 
+            JMenuItem pluginMetrics = new JMenuItem("Plugin Performance Metrics");
+            viewMenu.add(pluginMetrics);
+            pluginMetrics.addActionListener((ActionEvent e) -> {
+                viewTextDialog(MetricsRegistry.getSummary());
+            });
+
             menubar.add(viewMenu);
 
             // Cartographic menu